@@ -31,12 +31,15 @@ import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.datamodel.Scan;
 import io.github.mzmine.datamodel.featuredata.IonMobilogramTimeSeries;
 import io.github.mzmine.datamodel.features.FeatureList;
+import io.github.mzmine.datamodel.features.FeatureListRow;
 import io.github.mzmine.parameters.parametertypes.selectors.ScanSelection;
 import java.util.List;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
- * A factory to get efficient data access to scans in RawDataFile and features in FeatureList.
+ * A factory to get efficient data access to scans in RawDataFile and features in FeatureList. Scan
+ * data accesses share the {@link ScanDataCache} if it is enabled in the preferences.
  *
  * @author Robin Schmid (https://github.com/robinschmid)
  */
@@ -82,6 +85,41 @@ public class EfficientDataAccess {
     return new ScanListDataAccess(dataFile, type, scans);
   }
 
+  /**
+   * The intended use of this memory access is to loop over all scans in a {@link RawDataFile} and
+   * access data points via {@link ScanDataAccess#getMzValue(int)} and
+   * {@link ScanDataAccess#getIntensityValue(int)}. The scans are read ahead by a shared pool of
+   * background threads. Close the data access if not all scans are accessed.
+   *
+   * @param dataFile  target data file to loop over all scans or mass lists
+   * @param type      processed or raw data
+   * @param selection scan selection
+   * @param readAhead the number of scans that are read ahead, e.g.,
+   *                  {@link PrefetchScanDataAccess#DEFAULT_READ_AHEAD}
+   */
+  public static PrefetchScanDataAccess ofPrefetching(RawDataFile dataFile, ScanDataType type,
+      ScanSelection selection, int readAhead) {
+    return ofPrefetching(dataFile, type, selection.getMatchingScans(dataFile.getScans()),
+        readAhead);
+  }
+
+  /**
+   * The intended use of this memory access is to loop over all scans and access data points via
+   * {@link ScanDataAccess#getMzValue(int)} and {@link ScanDataAccess#getIntensityValue(int)}. The
+   * scans are read ahead by a shared pool of background threads. Close the data access if not all
+   * scans are accessed.
+   *
+   * @param dataFile  target data file to loop over all scans or mass lists
+   * @param type      processed or raw data
+   * @param scans     list of scans
+   * @param readAhead the number of scans that are read ahead, e.g.,
+   *                  {@link PrefetchScanDataAccess#DEFAULT_READ_AHEAD}
+   */
+  public static PrefetchScanDataAccess ofPrefetching(RawDataFile dataFile, ScanDataType type,
+      List<? extends Scan> scans, int readAhead) {
+    return new PrefetchScanDataAccess(dataFile, type, scans, readAhead);
+  }
+
   /**
    * Access the chromatographic data of features in a feature list sorted by scan ID (usually sorted
    * by retention time)
@@ -110,6 +148,23 @@ public class EfficientDataAccess {
     };
   }
 
+  /**
+   * Access the chromatographic data of a subset of rows sorted by scan ID (usually sorted by
+   * retention time). Instances on disjoint subsets can be used in parallel.
+   *
+   * @param flist    target feature list
+   * @param type     defines the data accession type
+   * @param dataFile define the data file in an aligned feature list
+   * @param subset   the rows to loop through
+   */
+  public static FeatureDataAccess of(FeatureList flist, FeatureDataType type,
+      @Nullable RawDataFile dataFile, List<FeatureListRow> subset) {
+    return switch (type) {
+      case ONLY_DETECTED -> new FeatureDetectedDataAccess(flist, dataFile, subset);
+      case INCLUDE_ZEROS -> new FeatureFullDataAccess(flist, dataFile, subset);
+    };
+  }
+
   public static MobilogramDataAccess of(final IonMobilogramTimeSeries ionTrace,
       final MobilogramAccessType accessType) {
     return new MobilogramDataAccess(ionTrace, accessType);
@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.datamodel.data_access;
+
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.datamodel.data_access.EfficientDataAccess.ScanDataType;
+import io.github.mzmine.util.exceptions.MissingMassListException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The intended use of this memory access is to loop over all scans and access data points via
+ * {@link #getMzValue(int)} and {@link #getIntensityValue(int)}. A background task reads ahead a
+ * number of scans into a ring of buffers, so reading the (memory mapped) data overlaps with the
+ * processing of the current scan. The data points are read directly from the buffer of the current
+ * scan without copying. The buffer is handed back on the next call of {@link #nextScan()}.
+ * <p>
+ * All accesses share a small pool of daemon threads. The background tasks never wait for free
+ * buffers, they end when the ring is full and are submitted again when the consumer hands back a
+ * buffer. Therefore, any number of accesses can share the pool.
+ * <p>
+ * Use in a try-with-resources block or call {@link #close()} to stop reading ahead if not all scans
+ * are accessed.
+ */
+public class PrefetchScanDataAccess extends ScanDataAccess implements AutoCloseable {
+
+  /**
+   * Default number of scans that are read ahead
+   */
+  public static final int DEFAULT_READ_AHEAD = 16;
+
+  private static final Logger logger = Logger.getLogger(
+      PrefetchScanDataAccess.class.getName());
+
+  private static final ExecutorService executor = Executors.newFixedThreadPool(
+      Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)), runnable -> {
+        Thread t = new Thread(runnable, "Scan prefetching");
+        t.setDaemon(true);
+        return t;
+      });
+
+  protected final List<? extends Scan> scans;
+  protected final int readAhead;
+
+  private Prefetch prefetch;
+  private ScanBuffer current;
+
+  /**
+   * The intended use of this memory access is to loop over all scans and access data points via
+   * {@link #getMzValue(int)} and {@link #getIntensityValue(int)}
+   *
+   * @param dataFile  target data file to loop over all scans or mass lists
+   * @param type      processed or raw data
+   * @param scans     the scans to loop over, usually sorted by retention time
+   * @param readAhead the number of scans that are read ahead
+   */
+  protected PrefetchScanDataAccess(RawDataFile dataFile, ScanDataType type,
+      @NotNull List<? extends Scan> scans, int readAhead) {
+    super(dataFile, type);
+    if (readAhead < 1) {
+      throw new IllegalArgumentException("Read ahead must be at least 1 but was " + readAhead);
+    }
+    this.scans = scans;
+    this.readAhead = readAhead;
+  }
+
+  @Override
+  @Nullable
+  public Scan getCurrentScan() {
+    return current == null ? null : current.scan;
+  }
+
+  @Override
+  public int getNumberOfScans() {
+    return scans.size();
+  }
+
+  @Override
+  public double getMzValue(int index) {
+    assert index < getNumberOfDataPoints() && index >= 0;
+    return current.mzs[index];
+  }
+
+  @Override
+  public double getIntensityValue(int index) {
+    assert index < getNumberOfDataPoints() && index >= 0;
+    return current.intensities[index];
+  }
+
+  /**
+   * Set the data to the next scan, if available. Waits for the background thread if the scan was
+   * not read yet.
+   *
+   * @return the scan or null
+   * @throws MissingMassListException if DataType.CENTROID is selected and mass list is missing in
+   *                                  the current scan
+   */
+  @Override
+  @Nullable
+  public Scan nextScan() throws MissingMassListException {
+    if (!hasNextScan()) {
+      return null;
+    }
+    if (prefetch == null) {
+      prefetch = new Prefetch(scanIndex + 1);
+      logger.finest(() -> "Started prefetching " + readAhead + " scans of " + dataFile.getName());
+    }
+    if (current != null) {
+      // hand the buffer back to the background task
+      prefetch.free.add(current);
+    }
+    prefetch.schedule();
+    try {
+      current = prefetch.filled.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      close();
+      throw new IllegalStateException("Interrupted while waiting for the data of the next scan",
+          e);
+    }
+    scanIndex++;
+    assert current.index == scanIndex;
+
+    if (current.exception != null) {
+      // rethrow exceptions of the background thread, e.g., missing mass lists
+      currentNumberOfDataPoints = 0;
+      throw current.exception;
+    }
+    currentNumberOfDataPoints = current.numberOfDataPoints;
+    return current.scan;
+  }
+
+  /**
+   * Jump to scan at index. Restarts reading ahead at this index.
+   *
+   * @param index index of scan in this data access (of all matching scans)
+   * @return true if scan is available
+   */
+  @Override
+  public boolean jumpToIndex(int index) {
+    close();
+    scanIndex = index - 1;
+    return nextScan() != null;
+  }
+
+  /**
+   * Uses a lazily initialized hashmap to find the index of the scan in this data access. Does not
+   * change the current scan.
+   *
+   * @param target the target scan
+   * @return the scan index or -1 if not found
+   */
+  @Override
+  public int indexOf(Scan target) {
+    if (scanIndexMap == null) {
+      scanIndexMap = new HashMap<>(getNumberOfScans());
+      for (int i = 0; i < scans.size(); i++) {
+        scanIndexMap.put(scans.get(i), i);
+      }
+    }
+    return scanIndexMap.getOrDefault(target, -1);
+  }
+
+  @Override
+  public void reset() {
+    close();
+    super.reset();
+  }
+
+  /**
+   * Stops reading ahead. The next call of {@link #nextScan()} restarts it.
+   */
+  @Override
+  public void close() {
+    if (prefetch != null) {
+      prefetch.closed = true;
+      prefetch = null;
+    }
+    current = null;
+  }
+
+  /**
+   * A ring of buffers that is filled with all scans starting at an index
+   */
+  private class Prefetch implements Runnable {
+
+    // free buffers are filled by the background task and handed to the consumer
+    private final BlockingQueue<ScanBuffer> free;
+    private final BlockingQueue<ScanBuffer> filled;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    // only changed by the background task
+    private volatile int nextIndex;
+    private volatile boolean closed;
+
+    private Prefetch(int startIndex) {
+      final int numBuffers = readAhead + 1;
+      free = new ArrayBlockingQueue<>(numBuffers);
+      filled = new ArrayBlockingQueue<>(numBuffers);
+      for (int i = 0; i < numBuffers; i++) {
+        free.add(new ScanBuffer(mzs.length));
+      }
+      nextIndex = startIndex;
+    }
+
+    /**
+     * Submits the background task if it is not running
+     */
+    private void schedule() {
+      if (!closed && nextIndex < scans.size() && !free.isEmpty() && scheduled.compareAndSet(
+          false, true)) {
+        executor.execute(this);
+      }
+    }
+
+    @Override
+    public void run() {
+      do {
+        ScanBuffer buffer;
+        while (!closed && nextIndex < scans.size() && (buffer = free.poll()) != null) {
+          buffer.load(nextIndex, scans.get(nextIndex));
+          nextIndex++;
+          filled.add(buffer);
+        }
+        scheduled.set(false);
+        // the consumer may have handed back a buffer after the last poll
+      } while (!closed && nextIndex < scans.size() && !free.isEmpty() && scheduled.compareAndSet(
+          false, true));
+    }
+  }
+
+  /**
+   * Buffer of one scan in the ring
+   */
+  private class ScanBuffer {
+
+    private final double[] mzs;
+    private final double[] intensities;
+    private int index = -1;
+    private Scan scan;
+    private int numberOfDataPoints;
+    private RuntimeException exception;
+
+    private ScanBuffer(int length) {
+      mzs = new double[length];
+      intensities = new double[length];
+    }
+
+    private void load(int index, Scan scan) {
+      this.index = index;
+      this.scan = scan;
+      try {
+        numberOfDataPoints = loadScanData(scan, mzs, intensities);
+        exception = null;
+      } catch (RuntimeException e) {
+        numberOfDataPoints = 0;
+        exception = e;
+      }
+    }
+  }
+}
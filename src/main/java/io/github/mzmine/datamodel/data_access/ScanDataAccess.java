@@ -59,6 +59,9 @@ public abstract class ScanDataAccess implements Scan {
   protected Map<Scan, Integer> scanIndexMap;
   protected int currentNumberOfDataPoints = -1;
   protected int scanIndex = -1;
+  // cache hits and misses of the task that created this access
+  @Nullable
+  private final ScanDataCache.Statistics cacheStatistics = ScanDataCache.getTaskStatistics();
 
   /**
    * The intended use of this memory access is to loop over all scans and access data points via
@@ -197,18 +200,47 @@ public abstract class ScanDataAccess implements Scan {
    *                                  detection first
    */
   protected void loadScanData(Scan scan) throws MissingMassListException {
+    currentNumberOfDataPoints = loadScanData(scan, mzs, intensities);
+    assert currentNumberOfDataPoints <= mzs.length;
+  }
+
+  /**
+   * Load scan data into the destination arrays. Thread safe, as long as the arrays are not shared.
+   *
+   * @param scan           target scan to load data from
+   * @param dstMzs         destination of m/z values, at least as long as the internal buffers
+   * @param dstIntensities destination of intensity values, at least as long as the internal
+   *                       buffers
+   * @return the number of data points
+   * @throws MissingMassListException if mass list values were accessed but not available. Run Mass
+   *                                  detection first
+   */
+  protected int loadScanData(Scan scan, double[] dstMzs, double[] dstIntensities)
+      throws MissingMassListException {
+    final boolean useCache = ScanDataCache.isEnabled();
     switch (type) {
       case RAW -> {
+        if (useCache) {
+          final int cachedDataPoints = ScanDataCache.get(scan, dstMzs, dstIntensities,
+              cacheStatistics);
+          if (cachedDataPoints >= 0) {
+            return cachedDataPoints;
+          }
+        }
         try {
-          scan.getMzValues(mzs);
-          scan.getIntensityValues(intensities);
-          currentNumberOfDataPoints = scan.getNumberOfDataPoints();
+          scan.getMzValues(dstMzs);
+          scan.getIntensityValues(dstIntensities);
+          final int numberOfDataPoints = scan.getNumberOfDataPoints();
+          if (useCache) {
+            ScanDataCache.put(scan, dstMzs, dstIntensities, numberOfDataPoints);
+          }
+          return numberOfDataPoints;
         } catch (NullPointerException e) {
           // in case mass detection is performed on an IMS raw data file imported from mzml,
           // no mz values have been set.
-          Arrays.fill(mzs, 0d);
-          Arrays.fill(intensities, 0d);
-          currentNumberOfDataPoints = 0;
+          Arrays.fill(dstMzs, 0d);
+          Arrays.fill(dstIntensities, 0d);
+          return 0;
         }
       }
       case CENTROID -> {
@@ -216,12 +248,23 @@ public abstract class ScanDataAccess implements Scan {
         if (masses == null) {
           throw new MissingMassListException(scan);
         }
-        masses.getMzValues(mzs);
-        masses.getIntensityValues(intensities);
-        currentNumberOfDataPoints = masses.getNumberOfDataPoints();
+        if (useCache) {
+          final int cachedDataPoints = ScanDataCache.get(masses, dstMzs, dstIntensities,
+              cacheStatistics);
+          if (cachedDataPoints >= 0) {
+            return cachedDataPoints;
+          }
+        }
+        masses.getMzValues(dstMzs);
+        masses.getIntensityValues(dstIntensities);
+        final int numberOfDataPoints = masses.getNumberOfDataPoints();
+        if (useCache) {
+          ScanDataCache.put(masses, dstMzs, dstIntensities, numberOfDataPoints);
+        }
+        return numberOfDataPoints;
       }
     }
-    assert currentNumberOfDataPoints <= mzs.length;
+    throw new IllegalStateException("Unexpected scan data type " + type);
   }
 
   /**
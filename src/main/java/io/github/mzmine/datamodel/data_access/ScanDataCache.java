@@ -0,0 +1,442 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.datamodel.data_access;
+
+import io.github.mzmine.datamodel.MassSpectrum;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * LRU cache of the m/z and intensity values of scans and mass lists, shared by all
+ * {@link ScanDataAccess}es created via {@link EfficientDataAccess}. Modules that loop over the same
+ * raw data file in a short time (or multiple threads of one module) read the memory mapped data
+ * only once, which reduces page faults on slow temp directories. The values are stored off-heap in
+ * direct buffers and the cache is bounded by the number of cached bytes. The cache is disabled by
+ * default and enabled via the preferences.
+ * <p>
+ * The buffers of evicted spectra are pooled by capacity and reused for new spectra of a similar
+ * size, so that a full cache does not allocate a new direct buffer for every scan. Pooled and
+ * cached buffers together stay within the maximum number of bytes.
+ * <p>
+ * Spectra are weak identity keys, so the entries of removed raw data files and mass lists are
+ * dropped once the spectra are garbage collected. Hits and misses are counted per task, see
+ * {@link #startTaskStatistics()}, and are reported by the
+ * {@link io.github.mzmine.taskcontrol.TaskProfiler}.
+ */
+public class ScanDataCache {
+
+  /**
+   * Default size of the cache in MB
+   */
+  public static final int DEFAULT_MAX_MB = 512;
+
+  // smallest buffer capacity in bytes (64 data points)
+  private static final int MIN_CAPACITY = 1024;
+
+  private static final LinkedHashMap<SpectrumKey, CachedData> cache = new LinkedHashMap<>(1024,
+      0.75f, true);
+  private static final ReferenceQueue<MassSpectrum> collectedSpectra = new ReferenceQueue<>();
+  private static final ThreadLocal<Statistics> taskStatistics = new ThreadLocal<>();
+  // free buffers by capacity
+  private static final Map<Integer, ArrayDeque<ByteBuffer>> pool = new HashMap<>();
+  private static volatile boolean enabled = false;
+  private static long maxBytes = DEFAULT_MAX_MB * 1024L * 1024L;
+  private static long currentBytes = 0;
+  private static long pooledBytes = 0;
+
+  private ScanDataCache() {
+  }
+
+  /**
+   * @return true if data accesses shall use the cache
+   */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * @param enabled  enable or disable (and clear) the cache
+   * @param maxBytes the maximum number of cached bytes
+   */
+  public static void setEnabled(boolean enabled, long maxBytes) {
+    synchronized (cache) {
+      ScanDataCache.maxBytes = maxBytes;
+      ScanDataCache.enabled = enabled;
+      if (!enabled) {
+        clear();
+      } else {
+        evict(null, 0);
+        trimPool(0);
+      }
+    }
+  }
+
+  /**
+   * Starts counting the hits and misses of all data accesses that are created on this thread
+   * until {@link #endTaskStatistics()}. Called by the task's worker thread.
+   *
+   * @return the statistics of the task
+   */
+  @NotNull
+  public static Statistics startTaskStatistics() {
+    final Statistics statistics = new Statistics();
+    taskStatistics.set(statistics);
+    return statistics;
+  }
+
+  public static void endTaskStatistics() {
+    taskStatistics.remove();
+  }
+
+  /**
+   * @return the statistics of the task that runs on this thread or null
+   */
+  @Nullable
+  static Statistics getTaskStatistics() {
+    return taskStatistics.get();
+  }
+
+  /**
+   * Copies the cached values into the arrays
+   *
+   * @param spectrum    the scan or mass list
+   * @param mzs         destination of m/z values
+   * @param intensities destination of intensity values
+   * @param statistics  counts the hit or miss, may be null
+   * @return the number of data points or -1 if the spectrum was not cached
+   */
+  static int get(@NotNull MassSpectrum spectrum, double[] mzs, double[] intensities,
+      @Nullable Statistics statistics) {
+    final CachedData data;
+    synchronized (cache) {
+      expungeCollectedSpectra();
+      data = cache.get(new SpectrumKey(spectrum, null));
+      if (data != null) {
+        // the buffer is not reused while it is read
+        data.readers++;
+      }
+    }
+    if (data == null) {
+      if (statistics != null) {
+        statistics.misses.increment();
+      }
+      return -1;
+    }
+    if (statistics != null) {
+      statistics.hits.increment();
+    }
+    // absolute bulk reads do not change the buffer state and are safe for concurrent readers
+    data.mzs.get(0, mzs, 0, data.numberOfDataPoints);
+    data.intensities.get(0, intensities, 0, data.numberOfDataPoints);
+    synchronized (cache) {
+      data.readers--;
+      if (data.removed && data.readers == 0) {
+        release(data.buffer);
+      }
+    }
+    return data.numberOfDataPoints;
+  }
+
+  /**
+   * Copies the values into a pooled or new off-heap buffer and evicts the least recently used
+   * spectra if the cache is full.
+   *
+   * @param spectrum           the scan or mass list
+   * @param mzs                the m/z values
+   * @param intensities        the intensity values
+   * @param numberOfDataPoints the number of data points
+   */
+  static void put(@NotNull MassSpectrum spectrum, double[] mzs, double[] intensities,
+      int numberOfDataPoints) {
+    if (!enabled) {
+      return;
+    }
+    final int capacity = getCapacity(numberOfDataPoints * 2 * Double.BYTES);
+    ByteBuffer buffer;
+    synchronized (cache) {
+      expungeCollectedSpectra();
+      // make room first, so that the buffers of the evicted spectra can be reused
+      evict(null, capacity);
+      final ArrayDeque<ByteBuffer> free = pool.get(capacity);
+      buffer = free == null ? null : free.poll();
+      if (buffer != null) {
+        pooledBytes -= capacity;
+      } else {
+        trimPool(capacity);
+      }
+    }
+    // allocate and copy outside the lock
+    if (buffer == null) {
+      buffer = ByteBuffer.allocateDirect(capacity);
+    }
+    final DoubleBuffer values = buffer.asDoubleBuffer().put(mzs, 0, numberOfDataPoints)
+        .put(intensities, 0, numberOfDataPoints);
+    final CachedData data = new CachedData(buffer, values.slice(0, numberOfDataPoints),
+        values.slice(numberOfDataPoints, numberOfDataPoints), numberOfDataPoints);
+
+    synchronized (cache) {
+      expungeCollectedSpectra();
+      final CachedData previous = cache.put(new SpectrumKey(spectrum, collectedSpectra), data);
+      if (previous != null) {
+        remove(previous);
+      }
+      currentBytes += data.getSizeInBytes();
+      // other threads may have added spectra in the meantime
+      evict(spectrum, 0);
+      trimPool(0);
+    }
+  }
+
+  /**
+   * Rounds up to 8 capacities per power of two, which limits the unused bytes to 1/8 and lets
+   * spectra of a similar size share pooled buffers
+   *
+   * @param bytes the required bytes
+   * @return the buffer capacity
+   */
+  static int getCapacity(int bytes) {
+    if (bytes <= MIN_CAPACITY) {
+      return MIN_CAPACITY;
+    }
+    final int step = Integer.highestOneBit(bytes - 1) >> 3;
+    return (bytes + step - 1) / step * step;
+  }
+
+  /**
+   * Removes the entries of spectra that were garbage collected. Call under the cache lock.
+   */
+  private static void expungeCollectedSpectra() {
+    for (var key = collectedSpectra.poll(); key != null; key = collectedSpectra.poll()) {
+      final CachedData removed = cache.remove(key);
+      if (removed != null) {
+        remove(removed);
+      }
+    }
+  }
+
+  /**
+   * Releases the buffer of data that was removed from the cache once it is not read anymore. Call
+   * under the cache lock.
+   */
+  private static void remove(CachedData data) {
+    currentBytes -= data.getSizeInBytes();
+    data.removed = true;
+    if (data.readers == 0) {
+      release(data.buffer);
+    }
+  }
+
+  /**
+   * Pools the buffer if the pooled and cached bytes stay within the maximum. Call under the cache
+   * lock.
+   */
+  private static void release(ByteBuffer buffer) {
+    final int capacity = buffer.capacity();
+    if (!enabled || pooledBytes + currentBytes + capacity > maxBytes) {
+      // freed by the garbage collector
+      return;
+    }
+    buffer.clear();
+    pool.computeIfAbsent(capacity, c -> new ArrayDeque<>()).add(buffer);
+    pooledBytes += capacity;
+  }
+
+  /**
+   * Removes the least recently used spectra until the cache is within its bounds. Call under the
+   * cache lock.
+   *
+   * @param keep    always keep this spectrum
+   * @param reserve bytes that need to fit into the cache in addition
+   */
+  private static void evict(@Nullable MassSpectrum keep, long reserve) {
+    final var iterator = cache.entrySet().iterator();
+    while (currentBytes + reserve > maxBytes && iterator.hasNext()) {
+      final Map.Entry<SpectrumKey, CachedData> eldest = iterator.next();
+      if (keep != null && eldest.getKey().get() == keep) {
+        continue;
+      }
+      iterator.remove();
+      remove(eldest.getValue());
+    }
+  }
+
+  /**
+   * Drops pooled buffers until the pooled and cached bytes are within the maximum. Call under the
+   * cache lock.
+   *
+   * @param reserve bytes of a new buffer that need to fit in addition
+   */
+  private static void trimPool(long reserve) {
+    final long max = maxBytes - reserve;
+    final var iterator = pool.values().iterator();
+    while (pooledBytes + currentBytes > max && iterator.hasNext()) {
+      final ArrayDeque<ByteBuffer> free = iterator.next();
+      while (pooledBytes + currentBytes > max && !free.isEmpty()) {
+        pooledBytes -= free.poll().capacity();
+      }
+      if (free.isEmpty()) {
+        iterator.remove();
+      }
+    }
+  }
+
+  public static void clear() {
+    synchronized (cache) {
+      for (CachedData data : cache.values()) {
+        // buffers that are still read are not pooled again
+        data.removed = true;
+      }
+      cache.clear();
+      pool.clear();
+      currentBytes = 0;
+      pooledBytes = 0;
+      while (collectedSpectra.poll() != null) {
+        // keys of the cleared entries
+      }
+    }
+  }
+
+  /**
+   * @return the number of cached spectra
+   */
+  public static int size() {
+    synchronized (cache) {
+      expungeCollectedSpectra();
+      return cache.size();
+    }
+  }
+
+  /**
+   * @return the number of cached bytes, including the unused capacity of the buffers
+   */
+  public static long getCachedBytes() {
+    synchronized (cache) {
+      expungeCollectedSpectra();
+      return currentBytes;
+    }
+  }
+
+  /**
+   * @return the capacity of the buffers that are pooled for reuse
+   */
+  static long getPooledBytes() {
+    synchronized (cache) {
+      return pooledBytes;
+    }
+  }
+
+  /**
+   * Weak reference to a spectrum that compares the spectra by identity. A cleared key is only
+   * equal to itself, so it can still be removed from the cache.
+   */
+  private static final class SpectrumKey extends WeakReference<MassSpectrum> {
+
+    private final int hash;
+
+    private SpectrumKey(@NotNull MassSpectrum spectrum,
+        @Nullable ReferenceQueue<MassSpectrum> queue) {
+      super(spectrum, queue);
+      hash = System.identityHashCode(spectrum);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      }
+      if (!(obj instanceof SpectrumKey other) || other.hash != hash) {
+        return false;
+      }
+      final MassSpectrum spectrum = get();
+      return spectrum != null && spectrum == other.get();
+    }
+  }
+
+  /**
+   * Cache hits and misses of the data accesses of one task
+   */
+  public static final class Statistics {
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public long getHits() {
+      return hits.sum();
+    }
+
+    public long getMisses() {
+      return misses.sum();
+    }
+
+    /**
+     * @return hits, misses and hit rate for logging
+     */
+    @Override
+    public String toString() {
+      final long h = getHits();
+      final long m = getMisses();
+      return String.format("%d hits, %d misses (%.1f %% hit rate)", h, m,
+          h + m == 0 ? 0d : 100d * h / (h + m));
+    }
+  }
+
+  private static final class CachedData {
+
+    private final ByteBuffer buffer;
+    private final DoubleBuffer mzs;
+    private final DoubleBuffer intensities;
+    private final int numberOfDataPoints;
+    // guarded by the cache lock
+    private int readers;
+    private boolean removed;
+
+    private CachedData(ByteBuffer buffer, DoubleBuffer mzs, DoubleBuffer intensities,
+        int numberOfDataPoints) {
+      this.buffer = buffer;
+      this.mzs = mzs;
+      this.intensities = intensities;
+      this.numberOfDataPoints = numberOfDataPoints;
+    }
+
+    long getSizeInBytes() {
+      return buffer.capacity();
+    }
+  }
+}
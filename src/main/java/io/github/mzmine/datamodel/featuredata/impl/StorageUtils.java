@@ -29,6 +29,7 @@ import io.github.mzmine.datamodel.featuredata.IonSeries;
 import io.github.mzmine.util.DataPointUtils;
 import io.github.mzmine.util.MemoryMapStorage;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.DoubleBuffer;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
@@ -184,6 +185,33 @@ public class StorageUtils {
     return buffer;
   }
 
+  /**
+   * Stores the first values of the given array into a double buffer.
+   *
+   * @param storage The storage to be used. If null, the values will be copied and wrapped using
+   *                {@link DoubleBuffer#wrap(double[])}, so the array can be reused.
+   * @param values  The values to be stored.
+   * @param length  The number of values to store, starting at index 0.
+   * @return The double buffer the values were stored in.
+   */
+  @NotNull
+  public static DoubleBuffer storeValuesToDoubleBuffer(@Nullable final MemoryMapStorage storage,
+      @NotNull final double[] values, final int length) {
+
+    DoubleBuffer buffer;
+    if (storage != null) {
+      try {
+        buffer = storage.storeData(values, 0, length);
+      } catch (IOException e) {
+        e.printStackTrace();
+        buffer = DoubleBuffer.wrap(Arrays.copyOf(values, length));
+      }
+    } else {
+      buffer = DoubleBuffer.wrap(Arrays.copyOf(values, length));
+    }
+    return buffer;
+  }
+
   /**
    * Stores the given array into an int buffer.
    *
@@ -211,4 +239,31 @@ public class StorageUtils {
     }
     return buffer;
   }
+
+  /**
+   * Stores a portion of the given array into a byte buffer.
+   *
+   * @param storage The storage to be used. If null, the values will be copied to a new array and
+   *                wrapped using {@link ByteBuffer#wrap(byte[])}.
+   * @param values  The values to be stored.
+   * @param length  The number of bytes to store, starting at index 0.
+   * @return The byte buffer the values were stored in.
+   */
+  @NotNull
+  public static ByteBuffer storeValuesToByteBuffer(@Nullable final MemoryMapStorage storage,
+      @NotNull final byte[] values, final int length) {
+
+    ByteBuffer buffer;
+    if (storage != null) {
+      try {
+        buffer = storage.storeData(values, 0, length);
+      } catch (IOException e) {
+        e.printStackTrace();
+        buffer = ByteBuffer.wrap(Arrays.copyOf(values, length));
+      }
+    } else {
+      buffer = ByteBuffer.wrap(Arrays.copyOf(values, length));
+    }
+    return buffer;
+  }
 }
@@ -27,10 +27,20 @@ package io.github.mzmine.datamodel.features.types.numbers.abstr;
 
 import io.github.mzmine.datamodel.features.types.DataType;
 import java.text.NumberFormat;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
 import org.jetbrains.annotations.NotNull;
 
 public abstract class NumberType<T> extends DataType<T> {
 
+  /**
+   * Copies of the export formats, only set while the current thread runs
+   * {@link #withExportFormatCopies(Supplier)}
+   */
+  private static final ThreadLocal<Map<NumberType<?>, NumberFormat>> exportFormatCopies =
+      new ThreadLocal<>();
+
   protected final NumberFormat DEFAULT_FORMAT;
 
   protected NumberType(NumberFormat defaultFormat) {
@@ -42,7 +52,35 @@ public abstract class NumberType<T> extends DataType<T> {
   public abstract NumberFormat getExportFormat();
 
   public NumberFormat getFormat(boolean export) {
-    return export ? getExportFormat() : getFormat();
+    if (!export) {
+      return getFormat();
+    }
+    final Map<NumberType<?>, NumberFormat> copies = exportFormatCopies.get();
+    return copies == null ? getExportFormat()
+        : copies.computeIfAbsent(this, type -> (NumberFormat) type.getExportFormat().clone());
+  }
+
+  /**
+   * The export formats are shared instances, mostly {@link java.text.DecimalFormat}, which is not
+   * thread-safe. Export values are formatted with copies of the export formats that are confined
+   * to the current thread while the export runs. Use this to format export values in parallel,
+   * e.g., one call per chunk of rows.
+   *
+   * @param export formats the export values
+   * @return the result of export
+   */
+  public static <R> R withExportFormatCopies(@NotNull Supplier<R> export) {
+    final Map<NumberType<?>, NumberFormat> previous = exportFormatCopies.get();
+    exportFormatCopies.set(new IdentityHashMap<>());
+    try {
+      return export.get();
+    } finally {
+      if (previous == null) {
+        exportFormatCopies.remove();
+      } else {
+        exportFormatCopies.set(previous);
+      }
+    }
   }
 
   @Override
@@ -63,6 +63,21 @@ public abstract class AbstractStorableSpectrum extends AbstractMassSpectrum {
     setDataPoints(storage, mzValues, intensityValues);
   }
 
+  /**
+   * Wraps values that were already stored, e.g. as a slice of a buffer shared by multiple spectra.
+   * The values must be sorted by ascending m/z.
+   *
+   * @param mzValues        the stored m/z values.
+   * @param intensityValues the stored intensity values.
+   */
+  protected AbstractStorableSpectrum(@NotNull DoubleBuffer mzValues,
+      @NotNull DoubleBuffer intensityValues) {
+    assert mzValues.capacity() == intensityValues.capacity();
+    this.mzValues = mzValues;
+    this.intensityValues = intensityValues;
+    updateMzRangeAndTICValues();
+  }
+
   protected synchronized void setDataPoints(@Nullable MemoryMapStorage storage,
       @Nullable double[] mzValues, @Nullable double[] intensityValues) {
 
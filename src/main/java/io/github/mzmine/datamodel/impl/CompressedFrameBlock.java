@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.datamodel.impl;
+
+import io.github.mzmine.datamodel.Frame;
+import io.github.mzmine.datamodel.IMSRawDataFile;
+import io.github.mzmine.datamodel.featuredata.impl.StorageUtils;
+import io.github.mzmine.util.MemoryMapStorage;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Compressed m/z and intensity values of all mobility scans of a single frame. Used by the
+ * {@link MobilityScanStorage} if {@link MobilityScanStorage#isCompressionEnabled()}.
+ * <p>
+ * The m/z values are stored as zig-zag and variable length encoded deltas of their bit
+ * representation, which is lossless and small for sorted m/z values. Intensities are stored as
+ * variable length integers if all intensities of the frame are integers (e.g., timsTOF counts), as
+ * floats if all of them are exactly representable as floats and otherwise as doubles, so that the
+ * compression never changes a value. The encoded values are deflated with the fastest compression
+ * level. Decoded blocks are cached in the {@link DecodedFrameBlockCache}.
+ */
+public class CompressedFrameBlock {
+
+  private static final Logger logger = Logger.getLogger(CompressedFrameBlock.class.getName());
+
+  private static final byte INTENSITY_INT = 0;
+  private static final byte INTENSITY_FLOAT = 1;
+  private static final byte INTENSITY_DOUBLE = 2;
+
+  private static final LongAdder totalUncompressedBytes = new LongAdder();
+  private static final LongAdder totalCompressedBytes = new LongAdder();
+
+  private final ByteBuffer compressed;
+  private final int numPoints;
+  private final int encodedLength;
+  private final byte intensityMode;
+
+  private CompressedFrameBlock(ByteBuffer compressed, int numPoints, int encodedLength,
+      byte intensityMode) {
+    this.compressed = compressed;
+    this.numPoints = numPoints;
+    this.encodedLength = encodedLength;
+    this.intensityMode = intensityMode;
+  }
+
+  /**
+   * @param storage     The storage to write the compressed block to or null to keep it in ram.
+   * @param mzs         The m/z values of all mobility scans, concatenated.
+   * @param intensities The intensity values of all mobility scans, concatenated.
+   * @param numPoints   The number of values to compress.
+   * @return The compressed block.
+   */
+  @NotNull
+  public static CompressedFrameBlock compress(@Nullable final MemoryMapStorage storage,
+      @NotNull final double[] mzs, @NotNull final double[] intensities, final int numPoints) {
+
+    boolean integerIntensities = true;
+    boolean floatIntensities = true;
+    for (int i = 0; i < numPoints && (integerIntensities || floatIntensities); i++) {
+      final double intensity = intensities[i];
+      if (intensity != Math.rint(intensity) || Double.compare(intensity, 0d) < 0
+          || intensity > Integer.MAX_VALUE) {
+        integerIntensities = false;
+      }
+      // compare the bits, NaN and -0 need to stay as they are
+      if (Double.doubleToRawLongBits(intensity) != Double.doubleToRawLongBits(
+          (float) intensity)) {
+        floatIntensities = false;
+      }
+    }
+    final byte intensityMode = integerIntensities ? INTENSITY_INT
+        : (floatIntensities ? INTENSITY_FLOAT : INTENSITY_DOUBLE);
+
+    // worst case: 10 bytes per m/z varint + 8 bytes per intensity
+    final byte[] encoded = new byte[numPoints * 18];
+    int pos = 0;
+    long previous = 0;
+    for (int i = 0; i < numPoints; i++) {
+      final long bits = Double.doubleToRawLongBits(mzs[i]);
+      pos = writeVarLong(encoded, pos, zigZag(bits - previous));
+      previous = bits;
+    }
+    for (int i = 0; i < numPoints; i++) {
+      switch (intensityMode) {
+        case INTENSITY_INT -> pos = writeVarLong(encoded, pos, (long) intensities[i]);
+        case INTENSITY_FLOAT -> {
+          final int bits = Float.floatToRawIntBits((float) intensities[i]);
+          for (int shift = 24; shift >= 0; shift -= 8) {
+            encoded[pos++] = (byte) (bits >>> shift);
+          }
+        }
+        default -> {
+          final long bits = Double.doubleToRawLongBits(intensities[i]);
+          for (int shift = 56; shift >= 0; shift -= 8) {
+            encoded[pos++] = (byte) (bits >>> shift);
+          }
+        }
+      }
+    }
+
+    final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    deflater.setInput(encoded, 0, pos);
+    deflater.finish();
+    byte[] out = new byte[Math.max(64, pos / 2)];
+    int compressedLength = 0;
+    while (!deflater.finished()) {
+      if (compressedLength == out.length) {
+        final byte[] bigger = new byte[out.length * 2];
+        System.arraycopy(out, 0, bigger, 0, compressedLength);
+        out = bigger;
+      }
+      compressedLength += deflater.deflate(out, compressedLength, out.length - compressedLength);
+    }
+    deflater.end();
+
+    totalUncompressedBytes.add((long) numPoints * 2 * Double.BYTES);
+    totalCompressedBytes.add(compressedLength);
+
+    return new CompressedFrameBlock(
+        StorageUtils.storeValuesToByteBuffer(storage, out, compressedLength), numPoints, pos,
+        intensityMode);
+  }
+
+  /**
+   * Decodes this block. Use {@link DecodedFrameBlockCache#get(CompressedFrameBlock)} to benefit
+   * from cached blocks.
+   *
+   * @param mzs         (out) destination for m/z values. Length must be >=
+   *                    {@link #getNumberOfPoints()}
+   * @param intensities (out) destination for intensity values. Length must be >=
+   *                    {@link #getNumberOfPoints()}
+   */
+  public void decode(@NotNull final double[] mzs, @NotNull final double[] intensities) {
+    assert mzs.length >= numPoints && intensities.length >= numPoints;
+
+    final byte[] input = new byte[compressed.capacity()];
+    compressed.get(0, input, 0, input.length);
+    final byte[] encoded = new byte[encodedLength];
+    final Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(input);
+      int length = 0;
+      while (length < encodedLength && !inflater.finished()) {
+        length += inflater.inflate(encoded, length, encodedLength - length);
+      }
+    } catch (DataFormatException e) {
+      throw new IllegalStateException("Corrupted compressed mobility scan data.", e);
+    } finally {
+      inflater.end();
+    }
+
+    int pos = 0;
+    long previous = 0;
+    for (int i = 0; i < numPoints; i++) {
+      long value = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = encoded[pos++];
+        value |= (long) (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+      previous += unZigZag(value);
+      mzs[i] = Double.longBitsToDouble(previous);
+    }
+    for (int i = 0; i < numPoints; i++) {
+      switch (intensityMode) {
+        case INTENSITY_INT -> {
+          long value = 0;
+          int shift = 0;
+          byte b;
+          do {
+            b = encoded[pos++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+          } while (b < 0);
+          intensities[i] = value;
+        }
+        case INTENSITY_FLOAT -> {
+          final int bits = ((encoded[pos] & 0xFF) << 24) | ((encoded[pos + 1] & 0xFF) << 16)
+              | ((encoded[pos + 2] & 0xFF) << 8) | (encoded[pos + 3] & 0xFF);
+          pos += 4;
+          intensities[i] = Float.intBitsToFloat(bits);
+        }
+        default -> {
+          long bits = 0;
+          for (int b = 0; b < Long.BYTES; b++) {
+            bits = (bits << 8) | (encoded[pos++] & 0xFF);
+          }
+          intensities[i] = Double.longBitsToDouble(bits);
+        }
+      }
+    }
+  }
+
+  public int getNumberOfPoints() {
+    return numPoints;
+  }
+
+  /**
+   * @return The number of bytes this block occupies in the storage.
+   */
+  public int getCompressedSize() {
+    return compressed.capacity();
+  }
+
+  /**
+   * @return The ratio of uncompressed (double m/z and intensity) to compressed bytes of all blocks
+   * created in this session.
+   */
+  public static double getTotalCompressionRatio() {
+    final long compressedBytes = totalCompressedBytes.sum();
+    return compressedBytes == 0 ? 1d : totalUncompressedBytes.sum() / (double) compressedBytes;
+  }
+
+  /**
+   * Logs the compression ratio of the raw mobility scan data of the given file. If the logger is
+   * set to {@link Level#FINE}, all frames are decoded once (without the cache) to report the decode
+   * throughput of a full-file scan.
+   *
+   * @param file The file.
+   */
+  public static void logCompressionStatistics(@NotNull final IMSRawDataFile file) {
+    long numPoints = 0;
+    long compressedBytes = 0;
+    for (Frame frame : file.getFrames()) {
+      final CompressedFrameBlock block = frame.getMobilityScanStorage().getRawBlock();
+      if (block == null) {
+        return;
+      }
+      numPoints += block.getNumberOfPoints();
+      compressedBytes += block.getCompressedSize();
+    }
+    final long uncompressedBytes = numPoints * 2 * Double.BYTES;
+    logger.info(String.format("Compressed mobility scans of %s from %.1f MB to %.1f MB (ratio %.2f)",
+        file.getName(), uncompressedBytes / 1E6, compressedBytes / 1E6,
+        compressedBytes == 0 ? 1d : uncompressedBytes / (double) compressedBytes));
+
+    if (!logger.isLoggable(Level.FINE)) {
+      return;
+    }
+    double[] mzs = new double[0];
+    double[] intensities = new double[0];
+    final long start = System.nanoTime();
+    for (Frame frame : file.getFrames()) {
+      final CompressedFrameBlock block = frame.getMobilityScanStorage().getRawBlock();
+      if (mzs.length < block.getNumberOfPoints()) {
+        mzs = new double[block.getNumberOfPoints()];
+        intensities = new double[block.getNumberOfPoints()];
+      }
+      block.decode(mzs, intensities);
+    }
+    final double seconds = (System.nanoTime() - start) / 1E9;
+    logger.fine(String.format(
+        "Decoded all %d frames of %s in %.2f s (%.1f M data points/s, %.1f MB/s uncompressed)",
+        file.getFrames().size(), file.getName(), seconds, numPoints / 1E6 / seconds,
+        uncompressedBytes / 1E6 / seconds));
+  }
+
+  private static long zigZag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static long unZigZag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static int writeVarLong(byte[] dst, int pos, long value) {
+    while ((value & ~0x7FL) != 0) {
+      dst[pos++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    dst[pos++] = (byte) value;
+    return pos;
+  }
+}
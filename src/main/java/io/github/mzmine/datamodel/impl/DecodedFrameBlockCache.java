@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.datamodel.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * LRU cache of decoded {@link CompressedFrameBlock}s. The cache is shared by all
+ * {@link MobilityScanStorage}s and therefore all data accesses, so frames that are accessed by
+ * multiple modules or threads in a short time are only decoded once. The cache is split into
+ * segments with their own lock and LRU order, so threads that access different frames rarely
+ * contend. Each segment is bounded by its share of the maximum number of decoded bytes.
+ * <p>
+ * Callers should resolve a block once and keep the {@link DecodedBlock} while they access its
+ * values, instead of calling {@link #get(CompressedFrameBlock)} for every value.
+ */
+public class DecodedFrameBlockCache {
+
+  /**
+   * Default size of the cache. 256 MB hold approximately 200 decoded timsTOF frames.
+   */
+  public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+  /**
+   * Number of segments, a power of two
+   */
+  private static final int SEGMENTS = 16;
+
+  private static final Segment[] segments = new Segment[SEGMENTS];
+  private static final LongAdder hits = new LongAdder();
+  private static final LongAdder misses = new LongAdder();
+  private static volatile long maxBytesPerSegment = DEFAULT_MAX_BYTES / SEGMENTS;
+
+  static {
+    for (int i = 0; i < SEGMENTS; i++) {
+      segments[i] = new Segment();
+    }
+  }
+
+  private DecodedFrameBlockCache() {
+  }
+
+  /**
+   * @param block The block.
+   * @return The decoded m/z and intensity values of the block.
+   */
+  @NotNull
+  public static DecodedBlock get(@NotNull final CompressedFrameBlock block) {
+    final Segment segment = segmentOf(block);
+    synchronized (segment) {
+      final DecodedBlock decoded = segment.blocks.get(block);
+      if (decoded != null) {
+        hits.increment();
+        return decoded;
+      }
+    }
+    misses.increment();
+
+    // decode outside the lock, so multiple threads can decode different frames at the same time
+    final double[] mzs = new double[block.getNumberOfPoints()];
+    final double[] intensities = new double[block.getNumberOfPoints()];
+    block.decode(mzs, intensities);
+    final DecodedBlock decoded = new DecodedBlock(block, mzs, intensities);
+
+    synchronized (segment) {
+      final DecodedBlock previous = segment.blocks.putIfAbsent(block, decoded);
+      if (previous != null) {
+        // decoded by another thread in the meantime
+        return previous;
+      }
+      segment.currentBytes += decoded.getSizeInBytes();
+      final var iterator = segment.blocks.entrySet().iterator();
+      while (segment.currentBytes > maxBytesPerSegment && iterator.hasNext()) {
+        final Map.Entry<CompressedFrameBlock, DecodedBlock> eldest = iterator.next();
+        if (eldest.getKey() == block) {
+          // always keep the requested block
+          continue;
+        }
+        segment.currentBytes -= eldest.getValue().getSizeInBytes();
+        iterator.remove();
+      }
+    }
+    return decoded;
+  }
+
+  private static Segment segmentOf(CompressedFrameBlock block) {
+    final int hash = System.identityHashCode(block);
+    return segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+  }
+
+  /**
+   * @param maxBytes The maximum number of decoded bytes to keep in memory.
+   */
+  public static void setMaxBytes(long maxBytes) {
+    maxBytesPerSegment = Math.max(1, maxBytes / SEGMENTS);
+  }
+
+  public static void clear() {
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        segment.blocks.clear();
+        segment.currentBytes = 0;
+      }
+    }
+  }
+
+  public static long getHits() {
+    return hits.sum();
+  }
+
+  public static long getMisses() {
+    return misses.sum();
+  }
+
+  private static class Segment {
+
+    private final LinkedHashMap<CompressedFrameBlock, DecodedBlock> blocks = new LinkedHashMap<>(
+        32, 0.75f, true);
+    private long currentBytes = 0;
+  }
+
+  /**
+   * Decoded m/z and intensity values of a frame. The arrays must not be modified.
+   *
+   * @param block the decoded block
+   */
+  public record DecodedBlock(CompressedFrameBlock block, double[] mzs, double[] intensities) {
+
+    long getSizeInBytes() {
+      return (long) (mzs.length + intensities.length) * Double.BYTES;
+    }
+  }
+}
@@ -30,14 +30,16 @@ import io.github.mzmine.datamodel.MassList;
 import io.github.mzmine.datamodel.MobilityScan;
 import io.github.mzmine.datamodel.featuredata.impl.SimpleIonMobilogramTimeSeries;
 import io.github.mzmine.datamodel.featuredata.impl.StorageUtils;
+import io.github.mzmine.datamodel.impl.DecodedFrameBlockCache.DecodedBlock;
 import io.github.mzmine.datamodel.impl.masslist.StoredMobilityScanMassList;
+import io.github.mzmine.modules.dataprocessing.featdet_massdetection.MassDetectionBlock;
 import io.github.mzmine.modules.dataprocessing.featdet_massdetection.MassDetector;
 import io.github.mzmine.modules.dataprocessing.featdet_massdetection.centroid.CentroidMassDetector;
 import io.github.mzmine.modules.dataprocessing.featdet_massdetection.centroid.CentroidMassDetectorParameters;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.util.MemoryMapStorage;
 import io.github.mzmine.util.exceptions.MissingMassListException;
-import io.github.mzmine.util.scans.ScanUtils;
+import java.lang.ref.WeakReference;
 import java.nio.DoubleBuffer;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
@@ -50,22 +52,34 @@ import org.jetbrains.annotations.Nullable;
  * Memory efficient storage of {@link MobilityScan}s. Methods return an instance of
  * {@link StoredMobilityScan} or {@link StoredMobilityScanMassList} which is garbage collected if
  * not used anymore.
+ * <p>
+ * If {@link #isCompressionEnabled()}, m/z and intensity values are stored as a
+ * {@link CompressedFrameBlock} per frame and decoded on demand via the shared
+ * {@link DecodedFrameBlockCache}.
  *
  * @author https://github.com/steffenheu
  */
 public class MobilityScanStorage {
 
+  private static volatile boolean compressionEnabled = false;
+
   // raw data
   private final Frame frame;
+  // either the buffers or the compressed block are set
   private final DoubleBuffer rawMzValues;
   private final DoubleBuffer rawIntensityValues;
+  private final CompressedFrameBlock rawBlock;
   private final IntBuffer rawStorageOffsets;
   private final IntBuffer rawBasePeakIndices;
   private final int rawMaxNumPoints;
+  // the last resolved decoded blocks, valid while they are cached or in use by another thread
+  private WeakReference<DecodedBlock> decodedRaw = new WeakReference<>(null);
+  private WeakReference<DecodedBlock> decodedMassList = new WeakReference<>(null);
 
   // mass list
   private DoubleBuffer massListMzValues = null;
   private DoubleBuffer massListIntensityValues = null;
+  private CompressedFrameBlock massListBlock = null;
   private IntBuffer massListStorageOffsets = null;
   private IntBuffer massListBasePeakIndices = null;
   private int massListMaxNumPoints = -1;
@@ -100,8 +114,30 @@ public class MobilityScanStorage {
     final int[] rawBasePeakIndices = StorageUtils.putAllValuesIntoOneArray(data, 1, intensities);
     this.rawBasePeakIndices = StorageUtils.storeValuesToIntBuffer(storage, rawBasePeakIndices);
 
-    rawMzValues = StorageUtils.storeValuesToDoubleBuffer(storage, mzs);
-    rawIntensityValues = StorageUtils.storeValuesToDoubleBuffer(storage, intensities);
+    if (compressionEnabled) {
+      rawBlock = CompressedFrameBlock.compress(storage, mzs, intensities, numDp);
+      rawMzValues = null;
+      rawIntensityValues = null;
+    } else {
+      rawBlock = null;
+      rawMzValues = StorageUtils.storeValuesToDoubleBuffer(storage, mzs);
+      rawIntensityValues = StorageUtils.storeValuesToDoubleBuffer(storage, intensities);
+    }
+  }
+
+  /**
+   * @return true if new mobility scan data is compressed per frame.
+   */
+  public static boolean isCompressionEnabled() {
+    return compressionEnabled;
+  }
+
+  /**
+   * @param compressionEnabled Store the data of new mobility scans as a compressed block per frame.
+   *                           Reduces the size of temporary files at the cost of decompression.
+   */
+  public static void setCompressionEnabled(boolean compressionEnabled) {
+    MobilityScanStorage.compressionEnabled = compressionEnabled;
   }
 
   public MobilityScanStorage(@Nullable MemoryMapStorage storage, @NotNull final Frame frame,
@@ -113,6 +149,7 @@ public class MobilityScanStorage {
       massListMaxNumPoints = rawMaxNumPoints;
       massListMzValues = rawMzValues;
       massListIntensityValues = rawIntensityValues;
+      massListBlock = rawBlock;
       massListStorageOffsets = rawStorageOffsets;
     }
   }
@@ -125,7 +162,21 @@ public class MobilityScanStorage {
   public void generateAndAddMobilityScanMassLists(@Nullable MemoryMapStorage storage,
       @NotNull MassDetector massDetector, @NotNull ParameterSet massDetectorParameters,
       boolean denormalizeMSnScans) {
+    generateAndAddMobilityScanMassLists(storage, massDetector, massDetectorParameters,
+        denormalizeMSnScans, new MassDetectionBlock());
+  }
 
+  /**
+   * Detects the masses of all mobility scans with the block API of the mass detector.
+   *
+   * @param storage                The storage for mobility scans-
+   * @param massDetector           The mass detector
+   * @param massDetectorParameters The parameters for the mass detector.
+   * @param block                  Reusable buffers for the detected masses.
+   */
+  public void generateAndAddMobilityScanMassLists(@Nullable MemoryMapStorage storage,
+      @NotNull MassDetector massDetector, @NotNull ParameterSet massDetectorParameters,
+      boolean denormalizeMSnScans, @NotNull MassDetectionBlock block) {
     if (massDetector instanceof CentroidMassDetector &&
         Double.compare(massDetectorParameters.getValue(CentroidMassDetectorParameters.noiseLevel),
             0d) == 0) {
@@ -134,23 +185,70 @@ public class MobilityScanStorage {
       massListMaxNumPoints = rawMaxNumPoints;
       massListMzValues = rawMzValues;
       massListIntensityValues = rawIntensityValues;
+      massListBlock = rawBlock;
       massListStorageOffsets = rawStorageOffsets;
       return;
     }
 
-    // mobility scan -> [0][] = mzs, [1][] = intensities
-    final List<double[][]> data = new ArrayList<>();
+    block.clear();
+    massDetector.getMassValues(getMobilityScans(), massDetectorParameters, block);
+    final Float injectTime = frame.getInjectionTime();
+    if (denormalizeMSnScans && frame.getMSLevel() > 1 && injectTime != null && injectTime > 0) {
+      final double[] intensities = block.getIntensities();
+      for (int i = 0; i < block.getNumberOfPoints(); i++) {
+        intensities[i] = intensities[i] * injectTime;
+      }
+    }
 
-    for (MobilityScan mobilityScan : getMobilityScans()) {
-      double[][] mzIntensity = massDetector.getMassValues(mobilityScan, massDetectorParameters);
-      if (denormalizeMSnScans && frame.getMSLevel() > 1) {
-        ScanUtils.denormalizeIntensitiesMultiplyByInjectTime(mzIntensity[1],
-            frame.getInjectionTime());
+    setMassLists(storage, block);
+  }
+
+  /**
+   * Sets the new masslists from the detected values of all mobility scans of this frame.
+   *
+   * @param storage memory storage for masslists
+   * @param block   the detected values, one spectrum for each MobilityScan in this frame
+   */
+  public void setMassLists(final @Nullable MemoryMapStorage storage,
+      final @NotNull MassDetectionBlock block) {
+    final int numScans = block.getNumberOfSpectra();
+    final int numDp = block.getNumberOfPoints();
+    final double[] mzs = block.getMzs();
+    final double[] intensities = block.getIntensities();
+
+    final int[] offsets = new int[numScans];
+    final int[] basePeakIndices = new int[numScans];
+    int maxNumPoints = 0;
+    for (int i = 0; i < numScans; i++) {
+      final int start = block.getStart(i);
+      final int numPoints = block.getNumberOfPoints(i);
+      offsets[i] = start;
+      maxNumPoints = Math.max(maxNumPoints, numPoints);
+
+      basePeakIndices[i] = -1;
+      double maxIntensity = -1d;
+      for (int j = 0; j < numPoints; j++) {
+        if (intensities[start + j] > maxIntensity) {
+          maxIntensity = intensities[start + j];
+          basePeakIndices[i] = j;
+        }
       }
-      data.add(mzIntensity);
     }
 
-    setMassLists(storage, data);
+    massListStorageOffsets = StorageUtils.storeValuesToIntBuffer(storage, offsets);
+    massListMaxNumPoints = maxNumPoints;
+    massListBasePeakIndices = StorageUtils.storeValuesToIntBuffer(storage, basePeakIndices);
+    if (compressionEnabled) {
+      massListBlock = CompressedFrameBlock.compress(storage, mzs, intensities, numDp);
+      massListMzValues = null;
+      massListIntensityValues = null;
+    } else {
+      massListBlock = null;
+      // the block arrays are reused, so they are copied if there is no storage
+      massListMzValues = StorageUtils.storeValuesToDoubleBuffer(storage, mzs, numDp);
+      massListIntensityValues = StorageUtils.storeValuesToDoubleBuffer(storage, intensities,
+          numDp);
+    }
   }
 
   /**
@@ -177,12 +275,70 @@ public class MobilityScanStorage {
         intensities);
     this.massListBasePeakIndices = StorageUtils.storeValuesToIntBuffer(storage,
         massListBasePeakIndices);
-    massListMzValues = StorageUtils.storeValuesToDoubleBuffer(storage, mzs);
-    massListIntensityValues = StorageUtils.storeValuesToDoubleBuffer(storage, intensities);
+    if (compressionEnabled) {
+      massListBlock = CompressedFrameBlock.compress(storage, mzs, intensities, numDp);
+      massListMzValues = null;
+      massListIntensityValues = null;
+    } else {
+      massListBlock = null;
+      massListMzValues = StorageUtils.storeValuesToDoubleBuffer(storage, mzs);
+      massListIntensityValues = StorageUtils.storeValuesToDoubleBuffer(storage, intensities);
+    }
+  }
+
+  /**
+   * Resolves the decoded raw data block. The block of the last call is kept as a weak reference,
+   * so repeated accesses to the values of a frame do not need the lock of the cache.
+   *
+   * @return the decoded block or null if this storage is not compressed
+   */
+  @Nullable
+  private DecodedBlock getDecodedRaw() {
+    if (rawBlock == null) {
+      return null;
+    }
+    // a stale reference from a racing thread is harmless, the decoded block is immutable
+    DecodedBlock decoded = decodedRaw.get();
+    if (decoded == null) {
+      decoded = DecodedFrameBlockCache.get(rawBlock);
+      decodedRaw = new WeakReference<>(decoded);
+    }
+    return decoded;
+  }
+
+  /**
+   * @return the decoded mass list block or null if the mass list is not compressed
+   * @see #getDecodedRaw()
+   */
+  @Nullable
+  private DecodedBlock getDecodedMassList() {
+    final CompressedFrameBlock block = massListBlock;
+    if (block == null) {
+      return null;
+    }
+    DecodedBlock decoded = decodedMassList.get();
+    // the mass list may have been replaced
+    if (decoded == null || decoded.block() != block) {
+      decoded = DecodedFrameBlockCache.get(block);
+      decodedMassList = new WeakReference<>(decoded);
+    }
+    return decoded;
+  }
+
+  private boolean hasMassList() {
+    return massListBlock != null || massListMzValues != null;
+  }
+
+  /**
+   * @return The compressed raw data block or null if this storage is not compressed.
+   */
+  @Nullable
+  public CompressedFrameBlock getRawBlock() {
+    return rawBlock;
   }
 
   public MassList getMassList(int mobilityScanIndex) {
-    if (massListIntensityValues == null) {
+    if (!hasMassList()) {
       return null;
     }
     return new StoredMobilityScanMassList(mobilityScanIndex, this);
@@ -232,7 +388,7 @@ public class MobilityScanStorage {
     if (index < rawStorageOffsets.capacity() - 1) {
       return rawStorageOffsets.get(index + 1) - rawStorageOffsets.get(index);
     } else {
-      return rawMzValues.capacity() - rawStorageOffsets.get(index);
+      return getRawTotalNumPoints() - rawStorageOffsets.get(index);
     }
   }
 
@@ -256,7 +412,7 @@ public class MobilityScanStorage {
    * @return The total number of points in this {@link  MobilityScanStorage}.
    */
   public int getRawTotalNumPoints() {
-    return rawMzValues.capacity();
+    return rawBlock != null ? rawBlock.getNumberOfPoints() : rawMzValues.capacity();
   }
 
   public Frame getFrame() {
@@ -270,32 +426,58 @@ public class MobilityScanStorage {
 
   public void getRawMobilityScanMzValues(int mobilityScanIndex, double[] dst, int offset) {
     assert getNumberOfRawDatapoints(mobilityScanIndex) + offset <= dst.length;
-    rawMzValues.get(getRawStorageOffset(mobilityScanIndex), dst, offset,
-        getNumberOfRawDatapoints(mobilityScanIndex));
+    final DecodedBlock decoded = getDecodedRaw();
+    final int start = getRawStorageOffset(mobilityScanIndex);
+    final int length = getNumberOfRawDatapoints(mobilityScanIndex);
+    if (decoded != null) {
+      System.arraycopy(decoded.mzs(), start, dst, offset, length);
+    } else {
+      rawMzValues.get(start, dst, offset, length);
+    }
   }
 
   public void getAllRawMobilityScanMzValues(double[] dst) {
     assert dst.length >= getRawTotalNumPoints();
-    rawMzValues.get(0, dst, 0, getRawTotalNumPoints());
+    final DecodedBlock decoded = getDecodedRaw();
+    if (decoded != null) {
+      System.arraycopy(decoded.mzs(), 0, dst, 0, decoded.mzs().length);
+    } else {
+      rawMzValues.get(0, dst, 0, getRawTotalNumPoints());
+    }
   }
 
   public void getRawMobilityScanIntensityValues(int mobilityScanIndex, double[] dst, int offset) {
     assert getNumberOfRawDatapoints(mobilityScanIndex) + offset <= dst.length;
-    rawIntensityValues.get(getRawStorageOffset(mobilityScanIndex), dst, offset,
-        getNumberOfRawDatapoints(mobilityScanIndex));
+    final DecodedBlock decoded = getDecodedRaw();
+    final int start = getRawStorageOffset(mobilityScanIndex);
+    final int length = getNumberOfRawDatapoints(mobilityScanIndex);
+    if (decoded != null) {
+      System.arraycopy(decoded.intensities(), start, dst, offset, length);
+    } else {
+      rawIntensityValues.get(start, dst, offset, length);
+    }
   }
 
   public void getAllRawMobilityScanIntensityValues(double[] dst) {
     assert dst.length >= getRawTotalNumPoints();
-    rawIntensityValues.get(0, dst, 0, getRawTotalNumPoints());
+    final DecodedBlock decoded = getDecodedRaw();
+    if (decoded != null) {
+      System.arraycopy(decoded.intensities(), 0, dst, 0, decoded.intensities().length);
+    } else {
+      rawIntensityValues.get(0, dst, 0, getRawTotalNumPoints());
+    }
   }
 
   public double getRawMobilityScanMzValue(int mobilityScanIndex, int index) {
-    return rawMzValues.get(getRawStorageOffset(mobilityScanIndex) + index);
+    final DecodedBlock decoded = getDecodedRaw();
+    final int i = getRawStorageOffset(mobilityScanIndex) + index;
+    return decoded != null ? decoded.mzs()[i] : rawMzValues.get(i);
   }
 
   public double getRawMobilityScanIntensityValue(int mobilityScanIndex, int index) {
-    return rawIntensityValues.get(getRawStorageOffset(mobilityScanIndex) + index);
+    final DecodedBlock decoded = getDecodedRaw();
+    final int i = getRawStorageOffset(mobilityScanIndex) + index;
+    return decoded != null ? decoded.intensities()[i] : rawIntensityValues.get(i);
   }
 
   // mass list
@@ -309,7 +491,7 @@ public class MobilityScanStorage {
     if (index < massListStorageOffsets.capacity() - 1) {
       return massListStorageOffsets.get(index + 1) - massListStorageOffsets.get(index);
     } else {
-      return massListMzValues.capacity() - massListStorageOffsets.get(index);
+      return getMassListTotalNumPoints() - massListStorageOffsets.get(index);
     }
   }
 
@@ -355,71 +537,98 @@ public class MobilityScanStorage {
    * @return The total number of data points in all mobility scan-mass lists of this frame.
    */
   public int getMassListTotalNumPoints() {
-    if (massListIntensityValues == null) {
+    if (!hasMassList()) {
       throw new MissingMassListException(
           "No mass list present for mobility scans. Run mass detection for scan type \"Mobility scans\" prior.",
           null);
     }
-    return massListIntensityValues.capacity();
+    return massListBlock != null ? massListBlock.getNumberOfPoints()
+        : massListIntensityValues.capacity();
   }
 
   public void getMassListMzValues(int mobilityScanIndex, double[] dst, int offset) {
-    if (massListMzValues == null) {
+    if (!hasMassList()) {
       throw new MissingMassListException(
           "No mass list present for mobility scans. Run mass detection for scan type \"Mobility scans\" prior.",
           null);
     }
     assert getNumberOfMassListDatapoints(mobilityScanIndex) + offset <= dst.length;
-    massListMzValues.get(getMassListStorageOffset(mobilityScanIndex), dst, offset,
-        getNumberOfMassListDatapoints(mobilityScanIndex));
+    final DecodedBlock decoded = getDecodedMassList();
+    final int start = getMassListStorageOffset(mobilityScanIndex);
+    final int length = getNumberOfMassListDatapoints(mobilityScanIndex);
+    if (decoded != null) {
+      System.arraycopy(decoded.mzs(), start, dst, offset, length);
+    } else {
+      massListMzValues.get(start, dst, offset, length);
+    }
   }
 
   public void getAllMassListMzValues(double[] dst) {
-    if (massListMzValues == null) {
+    if (!hasMassList()) {
       throw new MissingMassListException(
           "No mass list present for mobility scans. Run mass detection for scan type \"Mobility scans\" prior.",
           null);
     }
     assert dst.length >= getMassListTotalNumPoints();
-    massListMzValues.get(0, dst, 0, getMassListTotalNumPoints());
+    final DecodedBlock decoded = getDecodedMassList();
+    if (decoded != null) {
+      System.arraycopy(decoded.mzs(), 0, dst, 0, decoded.mzs().length);
+    } else {
+      massListMzValues.get(0, dst, 0, getMassListTotalNumPoints());
+    }
   }
 
   public void getMassListIntensityValues(int mobilityScanIndex, double[] dst, int offset) {
-    if (massListIntensityValues == null) {
+    if (!hasMassList()) {
       throw new MissingMassListException(
           "No mass list present for mobility scans. Run mass detection for scan type \"Mobility scans\" prior.",
           null);
     }
     assert getNumberOfMassListDatapoints(mobilityScanIndex) + offset <= dst.length;
-    massListIntensityValues.get(getMassListStorageOffset(mobilityScanIndex), dst, offset,
-        getNumberOfMassListDatapoints(mobilityScanIndex));
+    final DecodedBlock decoded = getDecodedMassList();
+    final int start = getMassListStorageOffset(mobilityScanIndex);
+    final int length = getNumberOfMassListDatapoints(mobilityScanIndex);
+    if (decoded != null) {
+      System.arraycopy(decoded.intensities(), start, dst, offset, length);
+    } else {
+      massListIntensityValues.get(start, dst, offset, length);
+    }
   }
 
   public void getAllMassListIntensityValues(double[] dst) {
-    if (massListIntensityValues == null) {
+    if (!hasMassList()) {
       throw new MissingMassListException(
           "No mass list present for mobility scans. Run mass detection for scan type \"Mobility scans\" prior.",
           null);
     }
     assert dst.length >= getMassListTotalNumPoints();
-    massListIntensityValues.get(0, dst, 0, getMassListTotalNumPoints());
+    final DecodedBlock decoded = getDecodedMassList();
+    if (decoded != null) {
+      System.arraycopy(decoded.intensities(), 0, dst, 0, decoded.intensities().length);
+    } else {
+      massListIntensityValues.get(0, dst, 0, getMassListTotalNumPoints());
+    }
   }
 
   public double getMassListMzValue(int mobilityScanIndex, int index) {
-    if (massListMzValues == null) {
+    if (!hasMassList()) {
       throw new MissingMassListException(
           "No mass list present for mobility scans. Run mass detection for scan type \"Mobility scans\" prior.",
           null);
     }
-    return massListMzValues.get(getMassListStorageOffset(mobilityScanIndex) + index);
+    final DecodedBlock decoded = getDecodedMassList();
+    final int i = getMassListStorageOffset(mobilityScanIndex) + index;
+    return decoded != null ? decoded.mzs()[i] : massListMzValues.get(i);
   }
 
   public double getMassListIntensityValue(int mobilityScanIndex, int index) {
-    if (massListIntensityValues == null) {
+    if (!hasMassList()) {
       throw new MissingMassListException(
           "No mass list present for mobility scans. Run mass detection for scan type \"Mobility scans\" prior.",
           null);
     }
-    return massListIntensityValues.get(getMassListStorageOffset(mobilityScanIndex) + index);
+    final DecodedBlock decoded = getDecodedMassList();
+    final int i = getMassListStorageOffset(mobilityScanIndex) + index;
+    return decoded != null ? decoded.intensities()[i] : massListIntensityValues.get(i);
   }
 }
@@ -33,6 +33,7 @@ import io.github.mzmine.modules.io.projectload.version_3_0.CONST;
 import io.github.mzmine.util.DataPointUtils;
 import io.github.mzmine.util.MemoryMapStorage;
 import io.github.mzmine.util.ParsingUtils;
+import java.nio.DoubleBuffer;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.XMLStreamWriter;
@@ -59,6 +60,14 @@ public class SimpleMassList extends AbstractStorableSpectrum implements MassList
     super(storage, mzIntensities[0], mzIntensities[1]);
   }
 
+  /**
+   * @param mzValues        m/z values that were already stored, sorted by ascending m/z.
+   * @param intensityValues intensity values that were already stored.
+   */
+  public SimpleMassList(@NotNull DoubleBuffer mzValues, @NotNull DoubleBuffer intensityValues) {
+    super(mzValues, intensityValues);
+  }
+
   /**
    * Use mzValues and intensityValues constructor
    *
@@ -61,6 +61,8 @@ public class TasksView extends VBox {
   @FXML
   private TableColumn<WrappedTask, TaskStatus> taskStatusColumn;
   @FXML
+  private TableColumn<WrappedTask, String> taskThroughputColumn;
+  @FXML
   private TableView<WrappedTask> table;
 
   public TasksView() {
@@ -92,6 +94,8 @@ public class TasksView extends VBox {
 
     taskStatusColumn.setCellValueFactory(
         cell -> new ReadOnlyObjectWrapper<>(cell.getValue().getActualTask().getStatus()));
+    taskThroughputColumn.setCellValueFactory(
+        cell -> new ReadOnlyObjectWrapper<>(cell.getValue().getThroughput()));
     taskProgressColumn.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(
         cell.getValue().getActualTask().getFinishedPercentage()));
     taskProgressColumn.setCellFactory(column -> new TableCell<>() {
@@ -25,6 +25,8 @@
 
 package io.github.mzmine.gui.preferences;
 
+import io.github.mzmine.datamodel.data_access.ScanDataCache;
+import io.github.mzmine.datamodel.impl.MobilityScanStorage;
 import io.github.mzmine.gui.chartbasics.chartthemes.ChartThemeParameters;
 import io.github.mzmine.main.KeepInMemory;
 import io.github.mzmine.main.MZmineCore;
@@ -35,7 +37,9 @@ import io.github.mzmine.parameters.impl.SimpleParameterSet;
 import io.github.mzmine.parameters.parametertypes.BooleanParameter;
 import io.github.mzmine.parameters.parametertypes.ComboParameter;
 import io.github.mzmine.parameters.parametertypes.HiddenParameter;
+import io.github.mzmine.parameters.parametertypes.IntegerParameter;
 import io.github.mzmine.parameters.parametertypes.OptOutParameter;
+import io.github.mzmine.parameters.parametertypes.OptionalParameter;
 import io.github.mzmine.parameters.parametertypes.WindowSettingsParameter;
 import io.github.mzmine.parameters.parametertypes.colorpalette.ColorPaletteParameter;
 import io.github.mzmine.parameters.parametertypes.filenames.DirectoryParameter;
@@ -153,6 +157,20 @@ public class MZminePreferences extends SimpleParameterSet {
       KeepInMemory.ALL, KeepInMemory.MASSES_AND_FEATURES), KeepInMemory.values(),
       KeepInMemory.NONE);
 
+  public static final BooleanParameter compressMobilityScans = new BooleanParameter(
+      "Compress mobility scans", "If selected, the mobility scans of newly imported ion mobility "
+      + "files are stored compressed per frame. This reduces the size of temporary files "
+      + "significantly (e.g., for timsTOF data) but requires decompression on access. Decoded "
+      + "frames are cached in memory. The compression is lossless.", false);
+
+  public static final OptionalParameter<IntegerParameter> scanDataCache = new OptionalParameter<>(
+      new IntegerParameter("Shared scan data cache (MB)", "If selected, the m/z and intensity "
+          + "values of scans and mass lists read by processing modules are kept in a shared cache "
+          + "(off-heap memory) of the given size. Modules that read the same raw data file "
+          + "subsequently or in parallel then read the temporary files only once. Recommended if "
+          + "the temp directory is located on a slow or network drive.",
+          ScanDataCache.DEFAULT_MAX_MB, 16, null), false);
+
   public static final BooleanParameter showPrecursorWindow = new BooleanParameter(
       "Show precursor windows", "Show the isolation window instead of just the precursor m/z.",
       false);
@@ -176,7 +194,8 @@ public class MZminePreferences extends SimpleParameterSet {
 
   public MZminePreferences() {
     super(// start with performance
-        numOfThreads, memoryOption, tempDirectory, proxySettings, rExecPath, sendStatistics,
+        numOfThreads, memoryOption, compressMobilityScans, scanDataCache, tempDirectory,
+        proxySettings, rExecPath, sendStatistics,
         // visuals
         // number formats
         mzFormat, rtFormat, mobilityFormat, ccsFormat, intensityFormat, ppmFormat, scoreFormat,
@@ -201,8 +220,8 @@ public class MZminePreferences extends SimpleParameterSet {
 
     // add groups
     dialog.addParameterGroup("General",
-        new Parameter[]{numOfThreads, memoryOption, tempDirectory, proxySettings, rExecPath,
-            sendStatistics});
+        new Parameter[]{numOfThreads, memoryOption, compressMobilityScans, scanDataCache,
+            tempDirectory, proxySettings, rExecPath, sendStatistics});
     dialog.addParameterGroup("Formats",
         new Parameter[]{mzFormat, rtFormat, mobilityFormat, ccsFormat, intensityFormat, ppmFormat,
             scoreFormat, unitFormat});
@@ -228,6 +247,8 @@ public class MZminePreferences extends SimpleParameterSet {
     final KeepInMemory keepInMemory = MZmineCore.getConfiguration().getPreferences()
         .getParameter(MZminePreferences.memoryOption).getValue();
     keepInMemory.enforceToMemoryMapping();
+    MobilityScanStorage.setCompressionEnabled(getValue(MZminePreferences.compressMobilityScans));
+    applyScanDataCache();
 
     final Themes theme = getValue(MZminePreferences.theme);
     theme.apply(MZmineCore.getDesktop().getMainWindow().getScene().getStylesheets());
@@ -247,6 +268,14 @@ public class MZminePreferences extends SimpleParameterSet {
     return retVal;
   }
 
+  /**
+   * Enables or disables the shared {@link ScanDataCache} of scan data accesses
+   */
+  public void applyScanDataCache() {
+    final int megabytes = getEmbeddedParameterValueIfSelectedOrElse(scanDataCache, 0);
+    ScanDataCache.setEnabled(megabytes > 0, megabytes * 1024L * 1024L);
+  }
+
   private void updateGuiFormat() {
     guiFormat = new NumberFormats(getValue(MZminePreferences.mzFormat),
         getValue(MZminePreferences.rtFormat), getValue(MZminePreferences.mobilityFormat),
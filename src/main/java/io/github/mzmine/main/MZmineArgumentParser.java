@@ -26,6 +26,10 @@
 package io.github.mzmine.main;
 
 import java.io.File;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.cli.BasicParser;
@@ -53,6 +57,16 @@ public class MZmineArgumentParser {
   private boolean loadTdfPseudoProfile = false;
   private boolean loadTsfProfile = false;
   private KeepInMemory isKeepInMemory = null;
+  private File checkpointDirectory;
+  private int checkpointInterval = 1;
+  private boolean resume = false;
+  private int workers = 0;
+  private int coordinatorPort = 0;
+  private InetAddress coordinatorAddress;
+  private String workerHeap;
+  private String workerAddress;
+  private File profileFile;
+  private final List<String> workerArguments = new ArrayList<>();
 
   public void parse(String[] args) {
     Options options = new Options();
@@ -90,6 +104,54 @@ public class MZmineArgumentParser {
     loadTsfProfile.setRequired(false);
     options.addOption(loadTsfProfile);
 
+    Option checkpointDir = new Option("c", "checkpoint", true,
+        "Directory to persist the project after batch steps to resume long batch runs");
+    checkpointDir.setRequired(false);
+    options.addOption(checkpointDir);
+
+    Option checkpointInterval = new Option("checkpointinterval", true,
+        "Write a batch checkpoint after every n-th step (default 1)");
+    checkpointInterval.setRequired(false);
+    options.addOption(checkpointInterval);
+
+    Option resume = new Option("resume", false,
+        "Resume the batch from the last valid checkpoint in the --checkpoint directory");
+    resume.setRequired(false);
+    options.addOption(resume);
+
+    Option workers = new Option("workers", true,
+        "Number of local worker processes for the per sample steps of the batch");
+    workers.setRequired(false);
+    options.addOption(workers);
+
+    Option coordinatorPort = new Option("coordinatorport", true,
+        "Fixed port of the batch coordinator for batch workers that are started separately");
+    coordinatorPort.setRequired(false);
+    options.addOption(coordinatorPort);
+
+    Option coordinatorAddress = new Option("coordinatoraddress", true,
+        "Address of the batch coordinator port (default loopback). Workers on other hosts need a "
+            + "public address and the same MZMINE_BATCH_TOKEN environment variable");
+    coordinatorAddress.setRequired(false);
+    options.addOption(coordinatorAddress);
+
+    Option workerHeap = new Option("workerheap", true,
+        "Maximum heap of each local batch worker, e.g., 8G. By default, the maximum heap of the "
+            + "coordinator is split between the coordinator and the local workers");
+    workerHeap.setRequired(false);
+    options.addOption(workerHeap);
+
+    Option worker = new Option("worker", true,
+        "Run as batch worker for the coordinator at host:port. Needs the token of the coordinator "
+            + "in the MZMINE_BATCH_TOKEN environment variable");
+    worker.setRequired(false);
+    options.addOption(worker);
+
+    Option profile = new Option("profile", true,
+        "Profile all tasks of the batch and write a JSON and CSV report to this file");
+    profile.setRequired(false);
+    options.addOption(profile);
+
     CommandLineParser parser = new BasicParser();
     HelpFormatter formatter = new HelpFormatter();
     CommandLine cmd;
@@ -137,7 +199,69 @@ public class MZmineArgumentParser {
         this.loadTsfProfile = true;
       }
 
-    } catch (ParseException e) {
+      String scheckpoint = cmd.getOptionValue(checkpointDir.getLongOpt());
+      if (scheckpoint != null) {
+        logger.info(() -> "Batch checkpoint directory set by command line: " + scheckpoint);
+        checkpointDirectory = new File(scheckpoint);
+      }
+      String sinterval = cmd.getOptionValue(checkpointInterval.getOpt());
+      if (sinterval != null) {
+        this.checkpointInterval = Math.max(1, Integer.parseInt(sinterval.trim()));
+      }
+      String sworkers = cmd.getOptionValue(workers.getOpt());
+      if (sworkers != null) {
+        this.workers = Math.max(0, Integer.parseInt(sworkers.trim()));
+        logger.info(() -> "Batch worker processes set by command line: " + this.workers);
+      }
+      String sport = cmd.getOptionValue(coordinatorPort.getOpt());
+      if (sport != null) {
+        this.coordinatorPort = Integer.parseInt(sport.trim());
+      }
+      String saddress = cmd.getOptionValue(coordinatorAddress.getOpt());
+      if (saddress != null) {
+        this.coordinatorAddress = InetAddress.getByName(saddress.trim());
+      }
+      String sheap = cmd.getOptionValue(workerHeap.getOpt());
+      if (sheap != null) {
+        if (!sheap.trim().matches("\\d+[kKmMgG]?")) {
+          throw new ParseException("Invalid batch worker heap size " + sheap);
+        }
+        this.workerHeap = sheap.trim();
+      }
+      workerAddress = cmd.getOptionValue(worker.getOpt());
+      if (workerAddress != null) {
+        logger.info(() -> "Running as batch worker for coordinator " + workerAddress);
+      }
+      String sprofile = cmd.getOptionValue(profile.getOpt());
+      if (sprofile != null) {
+        logger.info(() -> "Task profile report set by command line: " + sprofile);
+        profileFile = new File(sprofile);
+      }
+
+      // workers need the same preferences and raw data import options
+      if (spref != null) {
+        workerArguments.addAll(List.of("-" + pref.getOpt(), spref));
+      }
+      if (stemp != null) {
+        workerArguments.addAll(List.of("-" + tmpFolder.getOpt(), stemp));
+      }
+      if (keepInData != null) {
+        workerArguments.addAll(List.of("-" + keepInMemory.getOpt(), keepInData));
+      }
+      if (this.loadTdfPseudoProfile) {
+        workerArguments.add("-" + loadTdfPseudoProfile.getOpt());
+      }
+      if (this.loadTsfProfile) {
+        workerArguments.add("-" + loadTsfProfile.getOpt());
+      }
+
+      this.resume = cmd.hasOption(resume.getOpt());
+      if (this.resume && checkpointDirectory == null) {
+        logger.warning("The --resume argument requires a --checkpoint directory and is ignored");
+        this.resume = false;
+      }
+
+    } catch (ParseException | NumberFormatException | UnknownHostException e) {
       logger.log(Level.SEVERE, "Wrong command line arguments. " + e.getMessage(), e);
       formatter.printHelp("utility-name", options);
       System.exit(1);
@@ -190,5 +314,83 @@ public class MZmineArgumentParser {
   public boolean isLoadTsfProfile() {
     return loadTsfProfile;
   }
+
+  /**
+   * Directory for batch checkpoints
+   *
+   * @return the directory or null if checkpoints are disabled
+   */
+  @Nullable
+  public File getCheckpointDirectory() {
+    return checkpointDirectory;
+  }
+
+  /**
+   * @return write a batch checkpoint after every n-th step
+   */
+  public int getCheckpointInterval() {
+    return checkpointInterval;
+  }
+
+  /**
+   * @return true if -resume was set to continue the batch from the last checkpoint
+   */
+  public boolean isResume() {
+    return resume;
+  }
+
+  /**
+   * @return number of local batch worker processes, 0 to run all steps in this process
+   */
+  public int getWorkers() {
+    return workers;
+  }
+
+  /**
+   * @return the port for remote batch workers or 0 for a free local port
+   */
+  public int getCoordinatorPort() {
+    return coordinatorPort;
+  }
+
+  /**
+   * @return the address of the batch coordinator port or null for the loopback address
+   */
+  @Nullable
+  public InetAddress getCoordinatorAddress() {
+    return coordinatorAddress;
+  }
+
+  /**
+   * @return the maximum heap of local batch workers (e.g., 8G) or null for the default
+   */
+  @Nullable
+  public String getWorkerHeap() {
+    return workerHeap;
+  }
+
+  /**
+   * @return host:port of the batch coordinator if this process runs as batch worker, otherwise
+   * null
+   */
+  @Nullable
+  public String getWorkerAddress() {
+    return workerAddress;
+  }
+
+  /**
+   * @return the report file of the task profiler or null if profiling is disabled
+   */
+  @Nullable
+  public File getProfileFile() {
+    return profileFile;
+  }
+
+  /**
+   * @return program arguments that are passed on to local batch workers
+   */
+  public List<String> getWorkerArguments() {
+    return workerArguments;
+  }
 }
 
@@ -31,6 +31,7 @@ import io.github.mzmine.datamodel.IMSRawDataFile;
 import io.github.mzmine.datamodel.ImagingRawDataFile;
 import io.github.mzmine.datamodel.MZmineProject;
 import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.impl.MobilityScanStorage;
 import io.github.mzmine.gui.Desktop;
 import io.github.mzmine.gui.HeadLessDesktop;
 import io.github.mzmine.gui.MZmineGUI;
@@ -38,7 +39,10 @@ import io.github.mzmine.gui.preferences.MZminePreferences;
 import io.github.mzmine.main.impl.MZmineConfigurationImpl;
 import io.github.mzmine.modules.MZmineModule;
 import io.github.mzmine.modules.MZmineRunnableModule;
+import io.github.mzmine.modules.batchmode.BatchCheckpoint;
 import io.github.mzmine.modules.batchmode.BatchModeModule;
+import io.github.mzmine.modules.batchmode.DistributedBatchCoordinator;
+import io.github.mzmine.modules.batchmode.DistributedBatchWorker;
 import io.github.mzmine.modules.visualization.projectmetadata.table.MetadataTable;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.project.ProjectManager;
@@ -49,6 +53,7 @@ import io.github.mzmine.project.impl.RawDataFileImpl;
 import io.github.mzmine.taskcontrol.AllTasksFinishedListener;
 import io.github.mzmine.taskcontrol.Task;
 import io.github.mzmine.taskcontrol.TaskController;
+import io.github.mzmine.taskcontrol.TaskProfiler;
 import io.github.mzmine.taskcontrol.impl.TaskControllerImpl;
 import io.github.mzmine.util.ExitCode;
 import io.github.mzmine.util.MemoryMapStorage;
@@ -190,17 +195,26 @@ public final class MZmineCore {
 
       // apply memory management option
       keepInMemory.enforceToMemoryMapping();
+      MobilityScanStorage.setCompressionEnabled(getInstance().configuration.getPreferences()
+          .getValue(MZminePreferences.compressMobilityScans));
+      getInstance().configuration.getPreferences().applyScanDataCache();
 
       // batch mode defined by command line argument
       File batchFile = argsParser.getBatchFile();
       boolean keepRunningInHeadless = argsParser.isKeepRunningAfterBatch();
+      final File checkpointDir = argsParser.getCheckpointDirectory();
+      final BatchCheckpoint checkpoint = checkpointDir == null ? null
+          : new BatchCheckpoint(checkpointDir, argsParser.getCheckpointInterval(),
+              argsParser.isResume());
+      final String workerAddress = argsParser.getWorkerAddress();
 
       // track version use
       String versionString = "MZmine version " + version;
       GoogleAnalyticsTracker.track(versionString, versionString);
       GoogleAnalyticsTracker.track("MZmine3_start", "MZmine3_start");
 
-      getInstance().headLessMode = (batchFile != null || keepRunningInHeadless);
+      getInstance().headLessMode = (batchFile != null || keepRunningInHeadless
+                                    || workerAddress != null);
       // If we have no arguments, run in GUI mode, otherwise run in batch mode
       if (!getInstance().headLessMode) {
         try {
@@ -217,16 +231,34 @@ public final class MZmineCore {
         // Tracker
         GoogleAnalyticsTracker.track("MZmine Loaded (Headless mode)", "/JAVA/Main/HEADLESS");
 
-        if (batchFile != null) {
+        if (workerAddress != null) {
+          // process per sample batch steps for a coordinator
+          getInstance().batchExitCode = DistributedBatchWorker.run(workerAddress);
+        } else if (batchFile != null) {
           // load batch
           if ((!batchFile.exists()) || (!batchFile.canRead())) {
             logger.severe("Cannot read batch file " + batchFile);
             System.exit(1);
           }
 
-          // run batch file
-          getInstance().batchExitCode = BatchModeModule.runBatch(
-              getInstance().projectManager.getCurrentProject(), batchFile, Instant.now());
+          // run batch file, optionally with worker processes
+          final DistributedBatchCoordinator coordinator =
+              argsParser.getWorkers() > 0 || argsParser.getCoordinatorPort() > 0
+                  ? new DistributedBatchCoordinator(argsParser.getWorkers(),
+                  argsParser.getCoordinatorAddress(), argsParser.getCoordinatorPort(),
+                  argsParser.getWorkerHeap(), argsParser.getWorkerArguments()) : null;
+          // optionally measure all tasks of the batch
+          final File profileFile = argsParser.getProfileFile();
+          TaskProfiler.setEnabled(profileFile != null);
+          try (coordinator) {
+            getInstance().batchExitCode = BatchModeModule.runBatch(
+                getInstance().projectManager.getCurrentProject(), batchFile, Instant.now(),
+                checkpoint, coordinator);
+          } finally {
+            if (profileFile != null) {
+              writeTaskProfile(profileFile);
+            }
+          }
         }
 
         // option to keep MZmine running after the batch is finished
@@ -241,6 +273,15 @@ public final class MZmineCore {
     }
   }
 
+  private static void writeTaskProfile(File profileFile) {
+    try {
+      TaskProfiler.writeReport(profileFile);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Cannot write the task profile to " + profileFile, e);
+    }
+    TaskProfiler.setEnabled(false);
+  }
+
   public static void openTempPreferences() {
     MZminePreferences pref = getConfiguration().getPreferences();
     pref.showSetupDialog(true, "temp");
@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.batchmode;
+
+import com.google.common.hash.Hashing;
+import io.github.mzmine.datamodel.MZmineProject;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.features.FeatureList;
+import io.github.mzmine.main.MZmineCore;
+import io.github.mzmine.project.ProjectManager;
+import io.github.mzmine.project.impl.MZmineProjectImpl;
+import io.github.mzmine.util.files.FileAndPathUtil;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Checkpoints of a running batch. After every n-th finished step, the raw data files and feature
+ * lists of the project are written to a binary snapshot (see {@link BatchCheckpointSnapshot}). A
+ * resumed batch restores the scan data from the snapshot and does not import the raw data files
+ * again. A small state file with the number of finished steps, a hash of the batch queue, and the
+ * last created raw data files and feature lists is replaced atomically afterwards, so the state
+ * always points to a complete snapshot. The last created raw data files and feature lists are
+ * stored by their index in the snapshot, so they are found even if names are not unique.
+ * <p>
+ * A resumed batch only continues if the batch queue hash matches the one of the checkpoint.
+ * Checkpoints are not written for projects with ion mobility or imaging raw data files.
+ */
+public class BatchCheckpoint {
+
+  private static final Logger logger = Logger.getLogger(BatchCheckpoint.class.getName());
+
+  public static final String STATE_FILE = "checkpoint.properties";
+  private static final String SNAPSHOT_PREFIX = "checkpoint_step_";
+  private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+  private static final String KEY_FINISHED_STEPS = "finishedSteps";
+  private static final String KEY_QUEUE_HASH = "queueHash";
+  private static final String KEY_SNAPSHOT = "snapshot";
+  private static final String KEY_RAW = "raw.";
+  private static final String KEY_FLIST = "flist.";
+
+  private final File directory;
+  private final int interval;
+  private final boolean resume;
+
+  /**
+   * @param directory checkpoint directory
+   * @param interval  write a checkpoint after every n-th finished step
+   * @param resume    resume from the last valid checkpoint in directory
+   */
+  public BatchCheckpoint(@NotNull File directory, int interval, boolean resume) {
+    this.directory = directory;
+    this.interval = Math.max(1, interval);
+    this.resume = resume;
+  }
+
+  /**
+   * Hash of the batch queue with all steps and parameters. Used to check that a checkpoint belongs
+   * to the same batch
+   */
+  @NotNull
+  public static String hashQueue(@NotNull BatchQueue queue) {
+    try {
+      return Hashing.sha256().hashString(queue.saveToXmlString(), StandardCharsets.UTF_8)
+          .toString();
+    } catch (Exception e) {
+      throw new IllegalStateException("Cannot hash batch queue: " + e.getMessage(), e);
+    }
+  }
+
+  public int getInterval() {
+    return interval;
+  }
+
+  public boolean isResume() {
+    return resume;
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Writes a snapshot of the project and replaces the checkpoint state. Older snapshots are
+   * deleted after the new state was written.
+   *
+   * @param finishedSteps number of finished batch steps
+   * @param queueHash     see {@link #hashQueue(BatchQueue)}
+   * @param dataFiles     the batch last raw data files
+   * @param featureLists  the batch last feature lists
+   * @return true if the checkpoint was written
+   */
+  public boolean write(@NotNull MZmineProject project, int finishedSteps,
+      @NotNull String queueHash, @NotNull Collection<RawDataFile> dataFiles,
+      @NotNull Collection<FeatureList> featureLists) {
+    final List<RawDataFile> projectFiles = project.getCurrentRawDataFiles();
+    final List<FeatureList> projectFeatureLists = project.getCurrentFeatureLists();
+    for (RawDataFile file : projectFiles) {
+      if (!BatchCheckpointSnapshot.isSupported(file)) {
+        logger.warning("Batch checkpoints are not supported for ion mobility and imaging data. "
+            + "Cannot write checkpoint for raw data file " + file.getName());
+        return false;
+      }
+    }
+
+    if (!FileAndPathUtil.createDirectory(directory)) {
+      logger.warning("Cannot create checkpoint directory " + directory.getAbsolutePath());
+      return false;
+    }
+
+    final long start = System.nanoTime();
+    final File snapshotFile = new File(directory,
+        SNAPSHOT_PREFIX + finishedSteps + SNAPSHOT_SUFFIX);
+    try {
+      BatchCheckpointSnapshot.write(snapshotFile, projectFiles, projectFeatureLists);
+    } catch (IOException | RuntimeException e) {
+      logger.log(Level.WARNING, "Cannot write batch checkpoint after step " + finishedSteps, e);
+      if (!snapshotFile.delete()) {
+        logger.fine(() -> "Cannot delete incomplete checkpoint " + snapshotFile.getAbsolutePath());
+      }
+      return false;
+    }
+
+    final Properties state = new Properties();
+    state.setProperty(KEY_FINISHED_STEPS, String.valueOf(finishedSteps));
+    state.setProperty(KEY_QUEUE_HASH, queueHash);
+    state.setProperty(KEY_SNAPSHOT, snapshotFile.getName());
+    int i = 0;
+    for (RawDataFile raw : dataFiles) {
+      final int index = projectFiles.indexOf(raw);
+      if (index != -1) {
+        state.setProperty(KEY_RAW + i++, String.valueOf(index));
+      }
+    }
+    i = 0;
+    for (FeatureList flist : featureLists) {
+      final int index = projectFeatureLists.indexOf(flist);
+      if (index != -1) {
+        state.setProperty(KEY_FLIST + i++, String.valueOf(index));
+      }
+    }
+
+    final Path statePath = new File(directory, STATE_FILE).toPath();
+    final Path tmpPath = new File(directory, STATE_FILE + ".tmp").toPath();
+    try {
+      try (Writer writer = Files.newBufferedWriter(tmpPath, StandardCharsets.UTF_8)) {
+        state.store(writer, "MZmine batch checkpoint");
+      }
+      Files.move(tmpPath, statePath, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Cannot write batch checkpoint state " + statePath, e);
+      return false;
+    }
+
+    deleteOlderSnapshots(snapshotFile);
+    logger.info(String.format("Wrote batch checkpoint after step %d to %s in %.1f s", finishedSteps,
+        snapshotFile.getAbsolutePath(), (System.nanoTime() - start) / 1E9));
+    return true;
+  }
+
+  private void deleteOlderSnapshots(@NotNull File current) {
+    final File[] files = directory.listFiles(
+        (dir, name) -> name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX));
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      if (!file.equals(current) && !file.delete()) {
+        logger.fine(() -> "Cannot delete old checkpoint " + file.getAbsolutePath());
+      }
+    }
+  }
+
+  /**
+   * Reads the last checkpoint state
+   *
+   * @param queueHash see {@link #hashQueue(BatchQueue)}
+   * @return the state or null if there is no valid checkpoint for this batch queue
+   */
+  @Nullable
+  public State readState(@NotNull String queueHash) {
+    final File stateFile = new File(directory, STATE_FILE);
+    if (!stateFile.isFile()) {
+      logger.info("No batch checkpoint found in " + directory.getAbsolutePath());
+      return null;
+    }
+
+    final Properties props = new Properties();
+    try (Reader reader = Files.newBufferedReader(stateFile.toPath(), StandardCharsets.UTF_8)) {
+      props.load(reader);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Cannot read batch checkpoint " + stateFile, e);
+      return null;
+    }
+
+    if (!queueHash.equals(props.getProperty(KEY_QUEUE_HASH))) {
+      logger.warning(
+          "Batch checkpoint was written for a different batch queue or parameters. Starting from the first step.");
+      return null;
+    }
+
+    final int finishedSteps;
+    try {
+      finishedSteps = Integer.parseInt(props.getProperty(KEY_FINISHED_STEPS, ""));
+    } catch (NumberFormatException e) {
+      logger.warning("Invalid number of finished steps in batch checkpoint " + stateFile);
+      return null;
+    }
+
+    final String snapshotName = props.getProperty(KEY_SNAPSHOT);
+    final File snapshotFile = snapshotName == null ? null : new File(directory, snapshotName);
+    if (snapshotFile == null || !snapshotFile.isFile()) {
+      logger.warning("Missing snapshot of batch checkpoint " + stateFile);
+      return null;
+    }
+
+    try {
+      return new State(finishedSteps, snapshotFile, readIndices(props, KEY_RAW),
+          readIndices(props, KEY_FLIST));
+    } catch (NumberFormatException e) {
+      logger.warning("Invalid raw data file or feature list index in batch checkpoint " + stateFile);
+      return null;
+    }
+  }
+
+  private static List<Integer> readIndices(Properties props, String prefix) {
+    final List<Integer> indices = new ArrayList<>();
+    for (int i = 0; ; i++) {
+      final String index = props.getProperty(prefix + i);
+      if (index == null) {
+        return indices;
+      }
+      indices.add(Integer.parseInt(index));
+    }
+  }
+
+  /**
+   * Restores the raw data files and feature lists of the checkpoint snapshot into a new project and
+   * sets it as the current project.
+   *
+   * @return the loaded project or null on error
+   */
+  @Nullable
+  public MZmineProject loadProject(@NotNull State state) {
+    logger.info("Resuming batch from checkpoint " + state.snapshotFile().getAbsolutePath());
+    final long start = System.nanoTime();
+    final ProjectManager projectManager = MZmineCore.getProjectManager();
+    final MZmineProject previous = projectManager.getCurrentProject();
+    // data types may resolve raw data files in the current project while they are loaded
+    final MZmineProject project = new MZmineProjectImpl();
+    projectManager.setCurrentProject(project);
+    try {
+      BatchCheckpointSnapshot.read(state.snapshotFile(), project);
+    } catch (IOException | RuntimeException e) {
+      logger.log(Level.WARNING, "Cannot read batch checkpoint " + state.snapshotFile(), e);
+      projectManager.setCurrentProject(previous);
+      return null;
+    }
+    logger.info(String.format("Restored batch checkpoint with %d raw data files and %d feature "
+            + "lists in %.1f s", project.getNumberOfDataFiles(),
+        project.getCurrentFeatureLists().size(), (System.nanoTime() - start) / 1E9));
+    return project;
+  }
+
+  /**
+   * Maps the indices of the checkpoint state to the raw data files of the restored project
+   */
+  @NotNull
+  public static List<RawDataFile> findDataFiles(@NotNull MZmineProject project,
+      @NotNull List<Integer> indices) {
+    final List<RawDataFile> files = project.getCurrentRawDataFiles();
+    return indices.stream().filter(i -> i >= 0 && i < files.size()).map(files::get).toList();
+  }
+
+  /**
+   * Maps the indices of the checkpoint state to the feature lists of the restored project
+   */
+  @NotNull
+  public static List<FeatureList> findFeatureLists(@NotNull MZmineProject project,
+      @NotNull List<Integer> indices) {
+    final List<FeatureList> flists = project.getCurrentFeatureLists();
+    return indices.stream().filter(i -> i >= 0 && i < flists.size()).map(flists::get).toList();
+  }
+
+  /**
+   * The state of a checkpoint
+   *
+   * @param finishedSteps number of finished steps
+   * @param snapshotFile  the binary snapshot of the project
+   * @param dataFiles     indices of the batch last raw data files in the snapshot
+   * @param featureLists  indices of the batch last feature lists in the snapshot
+   */
+  public record State(int finishedSteps, @NotNull File snapshotFile,
+                      @NotNull List<Integer> dataFiles, @NotNull List<Integer> featureLists) {
+
+  }
+}
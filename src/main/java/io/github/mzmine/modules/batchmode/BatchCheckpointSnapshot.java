@@ -0,0 +1,712 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.batchmode;
+
+import static io.github.mzmine.modules.batchmode.DistributedBatchProtocol.writeString;
+
+import com.google.common.collect.Range;
+import io.github.mzmine.datamodel.FeatureStatus;
+import io.github.mzmine.datamodel.IMSRawDataFile;
+import io.github.mzmine.datamodel.ImagingRawDataFile;
+import io.github.mzmine.datamodel.MZmineProject;
+import io.github.mzmine.datamodel.MassList;
+import io.github.mzmine.datamodel.MassSpectrumType;
+import io.github.mzmine.datamodel.PolarityType;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.datamodel.featuredata.impl.SimpleIonTimeSeries;
+import io.github.mzmine.datamodel.features.FeatureList;
+import io.github.mzmine.datamodel.features.FeatureList.FeatureListAppliedMethod;
+import io.github.mzmine.datamodel.features.FeatureListRow;
+import io.github.mzmine.datamodel.features.ModularFeature;
+import io.github.mzmine.datamodel.features.ModularFeatureList;
+import io.github.mzmine.datamodel.features.ModularFeatureListRow;
+import io.github.mzmine.datamodel.features.SimpleFeatureListAppliedMethod;
+import io.github.mzmine.datamodel.features.types.DataType;
+import io.github.mzmine.datamodel.features.types.DataTypes;
+import io.github.mzmine.datamodel.features.types.FeatureDataType;
+import io.github.mzmine.datamodel.features.types.FeaturesType;
+import io.github.mzmine.datamodel.features.types.RawFileType;
+import io.github.mzmine.datamodel.impl.SimpleScan;
+import io.github.mzmine.datamodel.impl.masslist.ScanPointerMassList;
+import io.github.mzmine.datamodel.impl.masslist.SimpleMassList;
+import io.github.mzmine.datamodel.msms.MsMsInfo;
+import io.github.mzmine.modules.io.projectload.version_3_0.CONST;
+import io.github.mzmine.modules.io.projectload.version_3_0.FeatureListLoadTask;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+import io.github.mzmine.util.MemoryMapStorage;
+import io.github.mzmine.util.ParsingUtils;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import javafx.scene.paint.Color;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+/**
+ * Binary snapshot of the raw data files and feature lists of a project for {@link BatchCheckpoint}.
+ * The scan data and mass lists of the memory mapped storage are written as raw primitive arrays, so
+ * a resumed batch restores the raw data files into a new storage instead of importing them again.
+ * Feature lists are written row by row with their ids, so rows can reference each other when they
+ * are restored. Primitive and string values as well as the ion time series of features are written
+ * in binary. All other values are written with the XML methods of their {@link DataType}, which
+ * are also used to save projects.
+ * <p>
+ * Raw data files and feature lists are written in the order of the given lists. Their index in
+ * this order is their id in the snapshot. Ion mobility and imaging raw data files are not
+ * supported, see {@link #isSupported(RawDataFile)}. Spectral libraries and the project metadata are
+ * not part of the snapshot.
+ */
+final class BatchCheckpointSnapshot {
+
+  private static final int MAGIC = 0x4D5A4350; // MZCP
+  private static final int VERSION = 1;
+
+  // value tags
+  private static final byte DOUBLE = 1;
+  private static final byte FLOAT = 2;
+  private static final byte INTEGER = 3;
+  private static final byte LONG = 4;
+  private static final byte BOOLEAN = 5;
+  private static final byte STRING = 6;
+  private static final byte ION_TIME_SERIES = 7;
+  private static final byte XML = 8;
+
+  // mass list tags
+  private static final byte NO_MASS_LIST = 0;
+  private static final byte SCAN_POINTER_MASS_LIST = 1;
+  private static final byte STORED_MASS_LIST = 2;
+
+  private static final String APPLIED_METHODS_ELEMENT = "appliedmethods";
+  private static final int CHUNK_VALUES = 8192;
+
+  private final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_VALUES * Double.BYTES);
+  private final XMLOutputFactory xmlOutput = XMLOutputFactory.newInstance();
+  private final XMLInputFactory xmlInput = XMLInputFactory.newInstance();
+
+  private BatchCheckpointSnapshot() {
+  }
+
+  /**
+   * @return true if the raw data file can be written to a snapshot. Ion mobility and imaging files
+   * keep additional data in their storage (mobility scans, coordinates) that is not written.
+   */
+  static boolean isSupported(@NotNull RawDataFile file) {
+    return !(file instanceof IMSRawDataFile) && !(file instanceof ImagingRawDataFile);
+  }
+
+  /**
+   * Writes the raw data files and feature lists to the snapshot file. All raw data files of the
+   * feature lists need to be written as well.
+   *
+   * @throws IOException if writing fails or a raw data file is not supported
+   */
+  static void write(@NotNull File file, @NotNull List<RawDataFile> dataFiles,
+      @NotNull List<FeatureList> featureLists) throws IOException {
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(file), 1 << 20))) {
+      new BatchCheckpointSnapshot().new Writer(out, dataFiles).write(featureLists);
+    } catch (XMLStreamException e) {
+      throw new IOException("Cannot write value to batch checkpoint: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Reads a snapshot into an empty project. The raw data files and feature lists are added in the
+   * order in which they were written.
+   *
+   * @throws IOException if the file is no valid snapshot
+   */
+  static void read(@NotNull File file, @NotNull MZmineProject project) throws IOException {
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(file), 1 << 20))) {
+      new BatchCheckpointSnapshot().new Reader(in, file.length(), project).read();
+    } catch (XMLStreamException e) {
+      throw new IOException("Cannot read value from batch checkpoint: " + e.getMessage(), e);
+    }
+  }
+
+  private class Writer {
+
+    private final DataOutputStream out;
+    private final List<RawDataFile> dataFiles;
+    private double[] mzs = new double[0];
+    private double[] intensities = new double[0];
+
+    private Writer(@NotNull DataOutputStream out, @NotNull List<RawDataFile> dataFiles) {
+      this.out = out;
+      this.dataFiles = dataFiles;
+    }
+
+    private void write(@NotNull List<FeatureList> featureLists)
+        throws IOException, XMLStreamException {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+
+      out.writeInt(dataFiles.size());
+      for (RawDataFile dataFile : dataFiles) {
+        writeDataFile(dataFile);
+      }
+
+      out.writeInt(featureLists.size());
+      for (FeatureList flist : featureLists) {
+        writeFeatureList((ModularFeatureList) flist);
+      }
+    }
+
+    private void writeDataFile(@NotNull RawDataFile file) throws IOException, XMLStreamException {
+      if (!isSupported(file)) {
+        throw new IOException(
+            "Raw data file " + file.getName() + " of type " + file.getClass().getSimpleName()
+                + " cannot be written to a batch checkpoint");
+      }
+      writeString(out, file.getName());
+      writeNullableString(file.getAbsolutePath());
+      writeString(out, file.getColor().toString());
+      final LocalDateTime startTimeStamp = file.getStartTimeStamp();
+      writeNullableString(startTimeStamp == null ? null : startTimeStamp.toString());
+      writeString(out, appliedMethodsToXml(file.getAppliedMethods()));
+
+      final List<Scan> scans = file.getScans();
+      out.writeInt(scans.size());
+      for (Scan scan : scans) {
+        writeScan(scan);
+      }
+    }
+
+    private void writeScan(@NotNull Scan scan) throws IOException, XMLStreamException {
+      out.writeInt(scan.getScanNumber());
+      out.writeInt(scan.getMSLevel());
+      out.writeFloat(scan.getRetentionTime());
+      writeString(out, scan.getSpectrumType().name());
+      writeString(out, scan.getPolarity().name());
+      writeNullableString(scan.getScanDefinition());
+      final Range<Double> mzRange = scan.getScanningMZRange();
+      out.writeBoolean(mzRange != null);
+      if (mzRange != null) {
+        out.writeDouble(mzRange.lowerEndpoint());
+        out.writeDouble(mzRange.upperEndpoint());
+      }
+      final Float injectionTime = scan.getInjectionTime();
+      out.writeBoolean(injectionTime != null);
+      if (injectionTime != null) {
+        out.writeFloat(injectionTime);
+      }
+      final MsMsInfo msMsInfo = scan.getMsMsInfo();
+      writeNullableString(msMsInfo == null ? null : msMsInfoToXml(msMsInfo));
+
+      final int numValues = scan.getNumberOfDataPoints();
+      mzs = scan.getMzValues(mzs);
+      intensities = scan.getIntensityValues(intensities);
+      writeDoubles(mzs, numValues);
+      writeDoubles(intensities, numValues);
+
+      final MassList massList = scan.getMassList();
+      if (massList == null) {
+        out.writeByte(NO_MASS_LIST);
+      } else if (massList instanceof ScanPointerMassList) {
+        out.writeByte(SCAN_POINTER_MASS_LIST);
+      } else {
+        out.writeByte(STORED_MASS_LIST);
+        final int numMasses = massList.getNumberOfDataPoints();
+        mzs = massList.getMzValues(mzs);
+        intensities = massList.getIntensityValues(intensities);
+        writeDoubles(mzs, numMasses);
+        writeDoubles(intensities, numMasses);
+      }
+    }
+
+    private void writeFeatureList(@NotNull ModularFeatureList flist)
+        throws IOException, XMLStreamException {
+      writeString(out, flist.getName());
+      writeString(out, flist.getDateCreated());
+      writeString(out, appliedMethodsToXml(flist.getAppliedMethods()));
+
+      final List<RawDataFile> flistFiles = flist.getRawDataFiles();
+      out.writeInt(flistFiles.size());
+      for (RawDataFile file : flistFiles) {
+        out.writeInt(indexOfDataFile(file, flist));
+        final List<? extends Scan> selected = flist.getSeletedScans(file);
+        out.writeBoolean(selected != null);
+        if (selected != null) {
+          writeInts(indicesOf(selected, file));
+        }
+      }
+
+      // ids first so all rows exist before values that reference other rows are read
+      final List<FeatureListRow> rows = flist.getRows();
+      out.writeInt(rows.size());
+      for (FeatureListRow row : rows) {
+        out.writeInt(row.getID());
+      }
+
+      for (FeatureListRow r : rows) {
+        final ModularFeatureListRow row = (ModularFeatureListRow) r;
+        writeValues(row.getMap().entrySet(), flist, row, null, null);
+
+        final List<ModularFeature> features = row.getFeatures().stream()
+            .filter(f -> f.getRawDataFile() != null && f.getFeatureStatus() != FeatureStatus.UNKNOWN)
+            .toList();
+        out.writeInt(features.size());
+        for (ModularFeature feature : features) {
+          final RawDataFile file = feature.getRawDataFile();
+          out.writeInt(indexOfDataFile(file, flist));
+          writeValues(feature.getMap().entrySet(), flist, row, feature, file);
+        }
+      }
+    }
+
+    private void writeValues(@NotNull Iterable<Entry<DataType, Object>> entries,
+        @NotNull ModularFeatureList flist, @NotNull ModularFeatureListRow row,
+        @Nullable ModularFeature feature, @Nullable RawDataFile file)
+        throws IOException, XMLStreamException {
+      final List<Entry<DataType, Object>> values = new ArrayList<>();
+      for (Entry<DataType, Object> entry : entries) {
+        // features are written separately, the raw data file is set when features are created
+        if (entry.getValue() != null && !(entry.getKey() instanceof FeaturesType)
+            && !(entry.getKey() instanceof RawFileType)) {
+          values.add(entry);
+        }
+      }
+
+      out.writeInt(values.size());
+      for (Entry<DataType, Object> entry : values) {
+        writeString(out, entry.getKey().getUniqueID());
+        writeValue(entry.getKey(), entry.getValue(), flist, row, feature, file);
+      }
+    }
+
+    private void writeValue(@NotNull DataType<?> type, @NotNull Object value,
+        @NotNull ModularFeatureList flist, @NotNull ModularFeatureListRow row,
+        @Nullable ModularFeature feature, @Nullable RawDataFile file)
+        throws IOException, XMLStreamException {
+      if (value instanceof Double d) {
+        out.writeByte(DOUBLE);
+        out.writeDouble(d);
+      } else if (value instanceof Float f) {
+        out.writeByte(FLOAT);
+        out.writeFloat(f);
+      } else if (value instanceof Integer i) {
+        out.writeByte(INTEGER);
+        out.writeInt(i);
+      } else if (value instanceof Long l) {
+        out.writeByte(LONG);
+        out.writeLong(l);
+      } else if (value instanceof Boolean b) {
+        out.writeByte(BOOLEAN);
+        out.writeBoolean(b);
+      } else if (value instanceof String s) {
+        out.writeByte(STRING);
+        writeString(out, s);
+      } else if (type instanceof FeatureDataType && file != null
+          && value.getClass() == SimpleIonTimeSeries.class) {
+        out.writeByte(ION_TIME_SERIES);
+        final SimpleIonTimeSeries series = (SimpleIonTimeSeries) value;
+        final int numValues = series.getNumberOfValues();
+        writeInts(indicesOf(series.getSpectra(), file));
+        mzs = series.getMzValues(mzs);
+        intensities = series.getIntensityValues(intensities);
+        writeDoubles(mzs, numValues);
+        writeDoubles(intensities, numValues);
+      } else {
+        out.writeByte(XML);
+        writeString(out, dataTypeToXml(type, value, flist, row, feature, file));
+      }
+    }
+
+    private int indexOfDataFile(@NotNull RawDataFile file, @NotNull FeatureList flist)
+        throws IOException {
+      final int index = dataFiles.indexOf(file);
+      if (index == -1) {
+        throw new IOException(
+            "Raw data file " + file.getName() + " of feature list " + flist.getName()
+                + " is not part of the batch checkpoint");
+      }
+      return index;
+    }
+
+    private void writeNullableString(@Nullable String value) throws IOException {
+      out.writeBoolean(value != null);
+      if (value != null) {
+        writeString(out, value);
+      }
+    }
+
+    private void writeInts(@NotNull int[] values) throws IOException {
+      out.writeInt(values.length);
+      for (int start = 0; start < values.length; start += CHUNK_VALUES) {
+        final int n = Math.min(CHUNK_VALUES, values.length - start);
+        chunk.clear();
+        chunk.asIntBuffer().put(values, start, n);
+        out.write(chunk.array(), 0, n * Integer.BYTES);
+      }
+    }
+
+    private void writeDoubles(@NotNull double[] values, int length) throws IOException {
+      out.writeInt(length);
+      for (int start = 0; start < length; start += CHUNK_VALUES) {
+        final int n = Math.min(CHUNK_VALUES, length - start);
+        chunk.clear();
+        chunk.asDoubleBuffer().put(values, start, n);
+        out.write(chunk.array(), 0, n * Double.BYTES);
+      }
+    }
+  }
+
+  private class Reader {
+
+    private final DataInputStream in;
+    private final long fileLength;
+    private final MZmineProject project;
+    private final List<RawDataFile> dataFiles = new ArrayList<>();
+
+    private Reader(@NotNull DataInputStream in, long fileLength, @NotNull MZmineProject project) {
+      this.in = in;
+      this.fileLength = fileLength;
+      this.project = project;
+    }
+
+    private void read() throws IOException, XMLStreamException {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Not a batch checkpoint of this MZmine version");
+      }
+
+      final MemoryMapStorage massListStorage = MemoryMapStorage.forMassList();
+      final List<SimpleScan> msMsScans = new ArrayList<>();
+      final List<String> msMsInfos = new ArrayList<>();
+      final int numFiles = readLength(1);
+      for (int i = 0; i < numFiles; i++) {
+        final RawDataFile file = readDataFile(massListStorage, msMsScans, msMsInfos);
+        dataFiles.add(file);
+        project.addFile(file);
+        // the indices of the state file need the same order as in the checkpoint
+        if (project.getNumberOfDataFiles() != dataFiles.size()) {
+          throw new IOException("Cannot add raw data file " + file.getName() + " to the project");
+        }
+      }
+
+      // ms ms infos may point to scans of any file
+      for (int i = 0; i < msMsScans.size(); i++) {
+        final SimpleScan scan = msMsScans.get(i);
+        final XMLStreamReader reader = xmlInput.createXMLStreamReader(
+            new StringReader(msMsInfos.get(i)));
+        reader.nextTag();
+        scan.setMsMsInfo(MsMsInfo.loadFromXML(reader, scan.getDataFile(), dataFiles));
+      }
+
+      final MemoryMapStorage flistStorage = MemoryMapStorage.forFeatureList();
+      final int numFeatureLists = readLength(1);
+      for (int i = 0; i < numFeatureLists; i++) {
+        project.addFeatureList(readFeatureList(flistStorage));
+      }
+    }
+
+    private RawDataFile readDataFile(@NotNull MemoryMapStorage massListStorage,
+        @NotNull List<SimpleScan> msMsScans, @NotNull List<String> msMsInfos)
+        throws IOException {
+      final String name = readString();
+      final String path = readNullableString();
+      final Color color = Color.web(readString());
+      final RawDataFileImpl file = new RawDataFileImpl(name, path,
+          MemoryMapStorage.forRawDataFile(), color);
+      // the constructor makes the name unique in the current project
+      file.setNameNoChecks(name);
+      final String startTimeStamp = readNullableString();
+      if (startTimeStamp != null) {
+        file.setStartTimeStamp(LocalDateTime.parse(startTimeStamp));
+      }
+      file.getAppliedMethods().addAll(appliedMethodsFromXml(readString()));
+
+      final int numScans = readLength(1);
+      for (int i = 0; i < numScans; i++) {
+        final int scanNumber = in.readInt();
+        final int msLevel = in.readInt();
+        final float rt = in.readFloat();
+        final MassSpectrumType spectrumType = MassSpectrumType.valueOf(readString());
+        final PolarityType polarity = PolarityType.valueOf(readString());
+        final String scanDefinition = readNullableString();
+        final Range<Double> mzRange =
+            in.readBoolean() ? Range.closed(in.readDouble(), in.readDouble()) : null;
+        final Float injectionTime = in.readBoolean() ? in.readFloat() : null;
+        final String msMsInfo = readNullableString();
+        final double[] mzs = readDoubles();
+        final double[] intensities = readDoubles();
+
+        final SimpleScan scan = new SimpleScan(file, scanNumber, msLevel, rt, null, mzs,
+            intensities, spectrumType, polarity, scanDefinition, mzRange, injectionTime);
+        if (msMsInfo != null) {
+          msMsScans.add(scan);
+          msMsInfos.add(msMsInfo);
+        }
+
+        switch (in.readByte()) {
+          case NO_MASS_LIST -> {
+          }
+          case SCAN_POINTER_MASS_LIST -> scan.addMassList(new ScanPointerMassList(scan));
+          case STORED_MASS_LIST ->
+              scan.addMassList(new SimpleMassList(massListStorage, readDoubles(), readDoubles()));
+          default -> throw new IOException("Invalid mass list in batch checkpoint");
+        }
+        file.addScan(scan);
+      }
+      return file;
+    }
+
+    private ModularFeatureList readFeatureList(@NotNull MemoryMapStorage storage)
+        throws IOException, XMLStreamException {
+      final ModularFeatureList flist = new ModularFeatureList(readString(), storage,
+          new ArrayList<>());
+      flist.setDateCreated(readString());
+      flist.getAppliedMethods().addAll(appliedMethodsFromXml(readString()));
+
+      final int numFiles = readLength(1);
+      for (int i = 0; i < numFiles; i++) {
+        final RawDataFile file = readDataFileIndex();
+        flist.getRawDataFiles().add(file);
+        if (in.readBoolean()) {
+          flist.setSelectedScans(file,
+              ParsingUtils.getSublistFromIndices(file.getScans(), readInts()));
+        }
+      }
+
+      final int numRows = readLength(Integer.BYTES);
+      final List<ModularFeatureListRow> rows = new ArrayList<>(numRows);
+      for (int i = 0; i < numRows; i++) {
+        final ModularFeatureListRow row = new ModularFeatureListRow(flist, in.readInt());
+        flist.addRow(row);
+        rows.add(row);
+      }
+
+      for (ModularFeatureListRow row : rows) {
+        readValues(flist, row, null, null);
+
+        final int numFeatures = readLength(1);
+        for (int i = 0; i < numFeatures; i++) {
+          final RawDataFile file = readDataFileIndex();
+          final ModularFeature feature = new ModularFeature(flist, file, null, null);
+          readValues(flist, row, feature, file);
+          row.addFeature(file, feature);
+        }
+      }
+      return flist;
+    }
+
+    private void readValues(@NotNull ModularFeatureList flist, @NotNull ModularFeatureListRow row,
+        @Nullable ModularFeature feature, @Nullable RawDataFile file)
+        throws IOException, XMLStreamException {
+      final int numValues = readLength(1);
+      for (int i = 0; i < numValues; i++) {
+        final DataType type = DataTypes.getTypeForId(readString());
+        final Object value = readValue(type, flist, row, feature, file);
+        if (type != null && value != null) {
+          if (feature != null) {
+            feature.set(type, value);
+          } else {
+            row.set(type, value);
+          }
+        }
+      }
+    }
+
+    @Nullable
+    private Object readValue(@Nullable DataType<?> type, @NotNull ModularFeatureList flist,
+        @NotNull ModularFeatureListRow row, @Nullable ModularFeature feature,
+        @Nullable RawDataFile file) throws IOException, XMLStreamException {
+      final byte tag = in.readByte();
+      return switch (tag) {
+        case DOUBLE -> in.readDouble();
+        case FLOAT -> in.readFloat();
+        case INTEGER -> in.readInt();
+        case LONG -> in.readLong();
+        case BOOLEAN -> in.readBoolean();
+        case STRING -> readString();
+        case ION_TIME_SERIES -> {
+          if (file == null) {
+            throw new IOException("Ion time series without raw data file in batch checkpoint");
+          }
+          final List<Scan> scans = ParsingUtils.getSublistFromIndices(file.getScans(),
+              readInts());
+          yield new SimpleIonTimeSeries(flist.getMemoryMapStorage(), readDoubles(), readDoubles(),
+              scans);
+        }
+        case XML -> {
+          final XMLStreamReader reader = xmlInput.createXMLStreamReader(
+              new StringReader(readString()));
+          reader.nextTag();
+          yield FeatureListLoadTask.parseDataType(reader, type, project, flist, row, feature,
+              file);
+        }
+        default -> throw new IOException("Invalid value type " + tag + " in batch checkpoint");
+      };
+    }
+
+    private RawDataFile readDataFileIndex() throws IOException {
+      final int index = in.readInt();
+      if (index < 0 || index >= dataFiles.size()) {
+        throw new IOException("Invalid raw data file index " + index + " in batch checkpoint");
+      }
+      return dataFiles.get(index);
+    }
+
+    /**
+     * Reads a length and checks it against the file size, so a damaged file cannot cause huge
+     * allocations
+     *
+     * @param bytesPerElement the minimum number of bytes of each element
+     */
+    private int readLength(int bytesPerElement) throws IOException {
+      final int length = in.readInt();
+      if (length < 0 || (long) length * bytesPerElement > fileLength) {
+        throw new IOException("Invalid length " + length + " in batch checkpoint");
+      }
+      return length;
+    }
+
+    private String readString() throws IOException {
+      final byte[] bytes = new byte[readLength(1)];
+      in.readFully(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Nullable
+    private String readNullableString() throws IOException {
+      return in.readBoolean() ? readString() : null;
+    }
+
+    private int[] readInts() throws IOException {
+      final int[] values = new int[readLength(Integer.BYTES)];
+      for (int start = 0; start < values.length; start += CHUNK_VALUES) {
+        final int n = Math.min(CHUNK_VALUES, values.length - start);
+        in.readFully(chunk.array(), 0, n * Integer.BYTES);
+        chunk.clear();
+        chunk.asIntBuffer().get(values, start, n);
+      }
+      return values;
+    }
+
+    private double[] readDoubles() throws IOException {
+      final double[] values = new double[readLength(Double.BYTES)];
+      for (int start = 0; start < values.length; start += CHUNK_VALUES) {
+        final int n = Math.min(CHUNK_VALUES, values.length - start);
+        in.readFully(chunk.array(), 0, n * Double.BYTES);
+        chunk.clear();
+        chunk.asDoubleBuffer().get(values, start, n);
+      }
+      return values;
+    }
+  }
+
+  private static int[] indicesOf(@NotNull List<? extends Scan> scans, @NotNull RawDataFile file) {
+    return scans.isEmpty() ? new int[0]
+        : ParsingUtils.getIndicesOfSubListElements((List<Scan>) scans, file.getScans());
+  }
+
+  private String dataTypeToXml(@NotNull DataType<?> type, @NotNull Object value,
+      @NotNull ModularFeatureList flist, @NotNull ModularFeatureListRow row,
+      @Nullable ModularFeature feature, @Nullable RawDataFile file) throws XMLStreamException {
+    final StringWriter xml = new StringWriter();
+    final XMLStreamWriter writer = xmlOutput.createXMLStreamWriter(xml);
+    writer.writeStartElement(CONST.XML_DATA_TYPE_ELEMENT);
+    writer.writeAttribute(CONST.XML_DATA_TYPE_ID_ATTR, type.getUniqueID());
+    type.saveToXML(writer, value, flist, row, feature, file);
+    writer.writeEndElement();
+    writer.close();
+    return xml.toString();
+  }
+
+  private String msMsInfoToXml(@NotNull MsMsInfo info) throws XMLStreamException {
+    final StringWriter xml = new StringWriter();
+    final XMLStreamWriter writer = xmlOutput.createXMLStreamWriter(xml);
+    info.writeToXML(writer);
+    writer.close();
+    return xml.toString();
+  }
+
+  private static String appliedMethodsToXml(@NotNull List<FeatureListAppliedMethod> methods)
+      throws IOException {
+    try {
+      final Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+          .newDocument();
+      final Element root = document.createElement(APPLIED_METHODS_ELEMENT);
+      document.appendChild(root);
+      for (FeatureListAppliedMethod method : methods) {
+        final Element element = document.createElement(CONST.XML_FLIST_APPLIED_METHOD_ELEMENT);
+        method.saveValueToXML(element);
+        root.appendChild(element);
+      }
+
+      final StringWriter xml = new StringWriter();
+      TransformerFactory.newInstance().newTransformer()
+          .transform(new DOMSource(document), new StreamResult(xml));
+      return xml.toString();
+    } catch (Exception e) {
+      throw new IOException("Cannot write applied methods to batch checkpoint", e);
+    }
+  }
+
+  private static List<FeatureListAppliedMethod> appliedMethodsFromXml(@NotNull String xml)
+      throws IOException {
+    try {
+      final Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+          .parse(new InputSource(new StringReader(xml)));
+      final NodeList elements = document.getDocumentElement()
+          .getElementsByTagName(CONST.XML_FLIST_APPLIED_METHOD_ELEMENT);
+      final List<FeatureListAppliedMethod> methods = new ArrayList<>(elements.getLength());
+      for (int i = 0; i < elements.getLength(); i++) {
+        methods.add(SimpleFeatureListAppliedMethod.loadValueFromXML((Element) elements.item(i)));
+      }
+      return methods;
+    } catch (Exception e) {
+      throw new IOException("Cannot read applied methods from batch checkpoint", e);
+    }
+  }
+}
@@ -44,6 +44,7 @@ import java.util.logging.Logger;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.w3c.dom.Document;
 
 /**
@@ -63,6 +64,21 @@ public class BatchModeModule implements MZmineProcessingModule {
    */
   public static ExitCode runBatch(@NotNull MZmineProject project, File batchFile,
       @NotNull Instant moduleCallDate) {
+    return runBatch(project, batchFile, moduleCallDate, null, null);
+  }
+
+  /**
+   * Run from batch file (usually in headless mode)
+   *
+   * @param batchFile   local file
+   * @param checkpoint  write checkpoints and resume from the last one, null to disable
+   * @param coordinator send per sample steps to batch workers, null to run all steps in this
+   *                    process
+   * @return exit code that reflects if the batch mode was started
+   */
+  public static ExitCode runBatch(@NotNull MZmineProject project, File batchFile,
+      @NotNull Instant moduleCallDate, @Nullable BatchCheckpoint checkpoint,
+      @Nullable DistributedBatchCoordinator coordinator) {
 
     if (MZmineCore.getTaskController().isTaskInstanceRunningOrQueued(BatchTask.class)) {
       MZmineCore.getDesktop().displayErrorMessage(
@@ -90,7 +106,9 @@ public class BatchModeModule implements MZmineProcessingModule {
 
       ParameterSet parameters = new BatchModeParameters();
       parameters.getParameter(BatchModeParameters.batchQueue).setValue(newQueue);
-      Task batchTask = new BatchTask(project, parameters, moduleCallDate);
+      BatchTask batchTask = new BatchTask(project, parameters, moduleCallDate);
+      batchTask.setCheckpoint(checkpoint);
+      batchTask.setCoordinator(coordinator);
       batchTask.run();
       if (batchTask.getStatus() == TaskStatus.FINISHED) {
         return ExitCode.OK;
@@ -109,6 +109,7 @@ import io.github.mzmine.modules.dataprocessing.norm_linear.LinearNormalizerModul
 import io.github.mzmine.modules.dataprocessing.norm_rtcalibration.RTCalibrationModule;
 import io.github.mzmine.modules.dataprocessing.norm_standardcompound.StandardCompoundNormalizerModule;
 import io.github.mzmine.modules.io.deprecated_jmzml.MzMLImportModule;
+import io.github.mzmine.modules.io.export_features_columnar.ColumnarExportModule;
 import io.github.mzmine.modules.io.export_features_csv.CSVExportModularModule;
 import io.github.mzmine.modules.io.export_features_csv_legacy.LegacyCSVExportModule;
 import io.github.mzmine.modules.io.export_features_featureML.FeatureMLExportModularModule;
@@ -125,6 +126,7 @@ import io.github.mzmine.modules.io.export_msn_tree.MSnTreeExportModule;
 import io.github.mzmine.modules.io.export_rawdata_mzml.MzMLExportModule;
 import io.github.mzmine.modules.io.export_rawdata_netcdf.NetCDFExportModule;
 import io.github.mzmine.modules.io.export_scans.ExportScansFromRawFilesModule;
+import io.github.mzmine.modules.io.import_features_columnar.ColumnarImportModule;
 import io.github.mzmine.modules.io.import_features_mztab.MzTabImportModule;
 import io.github.mzmine.modules.io.import_features_mztabm.MZTabmImportModule;
 import io.github.mzmine.modules.io.import_rawdata_all.AllSpectralDataImportModule;
@@ -145,6 +147,7 @@ import io.github.mzmine.modules.io.spectraldbsubmit.batch.LibraryBatchGeneration
 import io.github.mzmine.modules.tools.clear_project.ClearProjectModule;
 import io.github.mzmine.modules.visualization.projectmetadata.io.ProjectMetadataImportModule;
 import java.util.List;
+import java.util.Set;
 
 public class BatchModeModulesList {
 
@@ -335,6 +338,8 @@ public class BatchModeModulesList {
       MZTabmImportModule.class, //
       MzTabImportModule.class, //
       CSVExportModularModule.class, //
+      ColumnarExportModule.class, //
+      ColumnarImportModule.class, //
       LegacyCSVExportModule.class, //
       LibraryAnalysisCSVExportModule.class, //
       LibraryBatchGenerationModule.class, //
@@ -352,6 +357,24 @@ public class BatchModeModulesList {
 
   );
 
+  /**
+   * Modules that process the raw data file or feature list of each sample independently. The
+   * {@link BatchTask} runs consecutive steps of these modules per sample without waiting for all
+   * other samples to finish the same step.
+   */
+  public static final Set<Class<? extends MZmineProcessingModule>> PER_SAMPLE_MODULES = Set.of(
+      MassDetectionModule.class, //
+      ModularADAPChromatogramBuilderModule.class, //
+      SmoothingModule.class, //
+      AdapResolverModule.class, //
+      BaselineFeatureResolverModule.class, //
+      CentWaveResolverModule.class, //
+      MinimumSearchFeatureResolverModule.class, //
+      NoiseAmplitudeResolverModule.class, //
+      SavitzkyGolayResolverModule.class, //
+      IsotopeGrouperModule.class //
+  );
+
   private BatchModeModulesList() {
   }
 }
@@ -28,6 +28,7 @@ package io.github.mzmine.modules.batchmode;
 import io.github.mzmine.parameters.Parameter;
 import io.github.mzmine.parameters.impl.SimpleParameterSet;
 import io.github.mzmine.parameters.parametertypes.AdvancedParametersParameter;
+import io.github.mzmine.parameters.parametertypes.BooleanParameter;
 import io.github.mzmine.parameters.parametertypes.filenames.FileNameListSilentParameter;
 import io.github.mzmine.util.ExitCode;
 
@@ -37,11 +38,18 @@ public class BatchModeParameters extends SimpleParameterSet {
       "Last used files");
   public static final BatchQueueParameter batchQueue = new BatchQueueParameter();
 
+  public static final BooleanParameter pipelineSampleSteps = new BooleanParameter(
+      "Pipeline sample steps", """
+          Consecutive steps that process each sample independently (e.g., mass detection,
+          chromatogram building, smoothing, resolving, isotope grouping) are run per sample
+          without waiting for all other samples. Steps across samples (e.g., alignment,
+          gap filling) still wait for all samples.""", true);
+
   public static final AdvancedParametersParameter<AdvancedBatchModeParameters> advanced = new AdvancedParametersParameter<>(
       new AdvancedBatchModeParameters());
 
   public BatchModeParameters() {
-    super(new Parameter[]{batchQueue, advanced, lastFiles});
+    super(new Parameter[]{batchQueue, pipelineSampleSteps, advanced, lastFiles});
   }
 
   @Override
@@ -36,13 +36,25 @@ import io.github.mzmine.modules.impl.MZmineProcessingStepImpl;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.util.CollectionUtils;
 import io.github.mzmine.util.javafx.ArrayObservableList;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.Collection;
 import java.util.List;
 import java.util.logging.Logger;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
 import org.jetbrains.annotations.NotNull;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 
 /**
  * Batch steps queue
@@ -58,6 +70,9 @@ public class BatchQueue extends ArrayObservableList<MZmineProcessingStep<MZmineP
   private static final String METHOD_ELEMENT = "method";
   private static final String MODULE_VERSION_ATTR = "parameter_version";
 
+  // root element of XML strings
+  private static final String BATCH_ELEMENT = "batch";
+
   // attr of the main xmlElement
   public static final String XML_MZMINE_VERSION_ATTR = "mzmine_version";
 
@@ -225,4 +240,33 @@ public class BatchQueue extends ArrayObservableList<MZmineProcessingStep<MZmineP
       }
     }
   }
+
+  /**
+   * Serialize to an XML string, e.g., to send the queue to other processes
+   *
+   * @return the XML document as string
+   */
+  public String saveToXmlString() throws ParserConfigurationException, TransformerException {
+    final Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+        .newDocument();
+    final Element element = document.createElement(BATCH_ELEMENT);
+    document.appendChild(element);
+    saveToXml(element);
+
+    final Transformer transformer = TransformerFactory.newInstance().newTransformer();
+    final StringWriter writer = new StringWriter();
+    transformer.transform(new DOMSource(document), new StreamResult(writer));
+    return writer.toString();
+  }
+
+  /**
+   * De-serialize from an XML string created by {@link #saveToXmlString()}.
+   */
+  public static BatchQueue loadFromXmlString(@NotNull final String xml,
+      @NotNull final List<String> errorMessages)
+      throws ParserConfigurationException, IOException, SAXException {
+    final Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+        .parse(new InputSource(new StringReader(xml)));
+    return loadFromXml(document.getDocumentElement(), errorMessages);
+  }
 }
@@ -25,9 +25,12 @@
 
 package io.github.mzmine.modules.batchmode;
 
+import io.github.mzmine.datamodel.IMSRawDataFile;
 import io.github.mzmine.datamodel.MZmineProject;
 import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.datamodel.features.FeatureList;
+import io.github.mzmine.datamodel.features.ModularFeatureList;
+import io.github.mzmine.datamodel.features.SimpleFeatureListAppliedMethod;
 import io.github.mzmine.main.GoogleAnalyticsTracker;
 import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.modules.MZmineModuleCategory;
@@ -42,23 +45,45 @@ import io.github.mzmine.parameters.parametertypes.filenames.FileNameParameter;
 import io.github.mzmine.parameters.parametertypes.filenames.FileNamesParameter;
 import io.github.mzmine.parameters.parametertypes.selectors.FeatureListsParameter;
 import io.github.mzmine.parameters.parametertypes.selectors.FeatureListsSelection;
+import io.github.mzmine.parameters.parametertypes.selectors.FeatureListsSelectionType;
 import io.github.mzmine.parameters.parametertypes.selectors.RawDataFilesParameter;
 import io.github.mzmine.parameters.parametertypes.selectors.RawDataFilesSelection;
+import io.github.mzmine.parameters.parametertypes.selectors.RawDataFilesSelectionType;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.Task;
 import io.github.mzmine.taskcontrol.TaskPriority;
+import io.github.mzmine.taskcontrol.TaskProfiler;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.taskcontrol.impl.WrappedTask;
 import io.github.mzmine.util.ExitCode;
+import io.github.mzmine.util.MemoryMapStorage;
+import io.github.mzmine.util.RawDataFileType;
+import io.github.mzmine.util.RawDataFileTypeDetector;
 import io.github.mzmine.util.files.FileAndPathUtil;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Paths;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * Batch mode task
@@ -70,9 +95,10 @@ public class BatchTask extends AbstractTask {
   private final int stepsPerDataset;
   private final Logger logger = Logger.getLogger(this.getClass().getName());
   private final int totalSteps;
-  private final MZmineProject project;
+  private MZmineProject project;
   private int processedSteps;
   private final boolean useAdvanced;
+  private final boolean pipelineSampleSteps;
   private final int datasets;
   private List<File> subDirectories;
   private List<RawDataFile> createdDataFiles;
@@ -84,6 +110,11 @@ public class BatchTask extends AbstractTask {
   private Boolean createResultsDir;
   private File parentDir;
   private int currentDataset;
+  @Nullable
+  private BatchCheckpoint checkpoint;
+  private String queueHash;
+  @Nullable
+  private DistributedBatchCoordinator coordinator;
 
   BatchTask(MZmineProject project, ParameterSet parameters, @NotNull Instant moduleCallDate) {
     this(project, parameters, moduleCallDate,
@@ -111,6 +142,8 @@ public class BatchTask extends AbstractTask {
     } else {
       datasets = 1;
     }
+    pipelineSampleSteps = Boolean.TRUE.equals(
+        parameters.getValue(BatchModeParameters.pipelineSampleSteps));
     stepsPerDataset = queue.size();
     totalSteps = stepsPerDataset * datasets;
     createdDataFiles = new ArrayList<>();
@@ -128,8 +161,17 @@ public class BatchTask extends AbstractTask {
     int errorDataset = 0;
     currentDataset = -1;
     String datasetName = "";
+    int firstStep = 0;
+    if (checkpoint != null && checkpoint.isResume()) {
+      firstStep = resumeFromCheckpoint();
+      if (getStatus() == TaskStatus.ERROR) {
+        return;
+      }
+      processedSteps = firstStep;
+    }
+    int lastCheckpointSteps = firstStep;
     // Process individual batch steps
-    for (int i = 0; i < totalSteps; i++) {
+    for (int i = firstStep; i < totalSteps; i++) {
       // at the end of one dataset, clear the project and start over again
       if (useAdvanced && processedSteps % stepsPerDataset == 0) {
         // clear the old project
@@ -167,9 +209,20 @@ public class BatchTask extends AbstractTask {
         }
       }
 
-      // run step
-      processQueueStep(i % stepsPerDataset);
-      processedSteps++;
+      // run step or consecutive per sample steps
+      final int step = i % stepsPerDataset;
+      final int pipelineEnd =
+          pipelineSampleSteps || coordinator != null ? getPipelineEnd(step) : step;
+      final int startProcessed = processedSteps;
+      final boolean pipelined = pipelineEnd > step && (processDistributedSteps(step, pipelineEnd)
+          || pipelineSampleSteps && processPipelinedSteps(step, pipelineEnd));
+      if (pipelined) {
+        processedSteps = startProcessed + pipelineEnd - step;
+        i += pipelineEnd - step - 1;
+      } else {
+        processQueueStep(step);
+        processedSteps++;
+      }
 
       // If we are canceled or ran into error, stop here
       if (isCanceled()) {
@@ -185,12 +238,102 @@ public class BatchTask extends AbstractTask {
           return;
         }
       }
+
+      // persist the project after every n-th step
+      if (checkpoint != null && processedSteps < totalSteps
+          && processedSteps / checkpoint.getInterval()
+          > lastCheckpointSteps / checkpoint.getInterval()) {
+        writeCheckpoint();
+        lastCheckpointSteps = processedSteps;
+      }
     }
 
     logger.info("Finished a batch of " + totalSteps + " steps");
     setStatus(TaskStatus.FINISHED);
   }
 
+  /**
+   * Persist the project after a number of finished steps and resume from the last checkpoint. Only
+   * supported for batches on a single dataset (not in advanced mode).
+   *
+   * @param checkpoint the checkpoint options or null to disable checkpoints
+   */
+  public void setCheckpoint(@Nullable BatchCheckpoint checkpoint) {
+    if (checkpoint != null && useAdvanced) {
+      logger.warning("Batch checkpoints are not supported in advanced batch mode with datasets");
+      return;
+    }
+    this.checkpoint = checkpoint;
+    queueHash = checkpoint == null ? null : BatchCheckpoint.hashQueue(queue);
+  }
+
+  /**
+   * Load the last checkpoint of this batch queue and restore the batch last files and feature
+   * lists
+   *
+   * @return the number of finished steps to continue from. 0 if there is no valid checkpoint
+   */
+  private int resumeFromCheckpoint() {
+    final BatchCheckpoint.State state = checkpoint.readState(queueHash);
+    if (state == null || state.finishedSteps() <= 0) {
+      return 0;
+    }
+    if (state.finishedSteps() >= totalSteps) {
+      logger.info("Batch checkpoint already covers all " + totalSteps + " steps");
+    }
+
+    final MZmineProject loaded = checkpoint.loadProject(state);
+    if (loaded == null) {
+      setStatus(TaskStatus.ERROR);
+      setErrorMessage("Cannot open batch checkpoint " + state.snapshotFile());
+      return 0;
+    }
+    project = loaded;
+    createdDataFiles = new ArrayList<>(BatchCheckpoint.findDataFiles(project, state.dataFiles()));
+    createdFeatureLists = new ArrayList<>(
+        BatchCheckpoint.findFeatureLists(project, state.featureLists()));
+    previousCreatedDataFiles = createdDataFiles;
+    previousCreatedFeatureLists = createdFeatureLists;
+    logger.info(String.format(
+        "Resuming batch after step %d/%d with %d raw data files and %d feature lists",
+        state.finishedSteps(), totalSteps, createdDataFiles.size(), createdFeatureLists.size()));
+    return Math.min(state.finishedSteps(), totalSteps);
+  }
+
+  private void writeCheckpoint() {
+    // a failed checkpoint does not stop the batch
+    checkpoint.write(project, processedSteps, queueHash, getLastDataFiles(),
+        getLastFeatureLists());
+  }
+
+  /**
+   * Send per sample steps to batch worker processes. Only supported for batches on a single
+   * dataset (not in advanced mode).
+   *
+   * @param coordinator the coordinator of the workers or null to process all steps in this process
+   */
+  public void setCoordinator(@Nullable DistributedBatchCoordinator coordinator) {
+    if (coordinator != null && useAdvanced) {
+      logger.warning("Batch workers are not supported in advanced batch mode with datasets");
+      return;
+    }
+    this.coordinator = coordinator;
+  }
+
+  /**
+   * @return the raw data files created by the last batch step that created files
+   */
+  List<RawDataFile> getLastDataFiles() {
+    return createdDataFiles.isEmpty() ? previousCreatedDataFiles : createdDataFiles;
+  }
+
+  /**
+   * @return the feature lists created by the last batch step that created feature lists
+   */
+  List<FeatureList> getLastFeatureLists() {
+    return createdFeatureLists.isEmpty() ? previousCreatedFeatureLists : createdFeatureLists;
+  }
+
   private void setOutputFiles(final File parentDir, final boolean createResultsDir,
       final String datasetName) {
     int changedOutputSteps = 0;
@@ -267,21 +410,13 @@ public class BatchTask extends AbstractTask {
 
     // Update the RawDataFilesParameter parameters to reflect the current
     // state of the batch
-    for (Parameter<?> p : batchStepParameters.getParameters()) {
-      if (p instanceof RawDataFilesParameter rdp) {
-        RawDataFile[] createdFiles = createdDataFiles.toArray(new RawDataFile[0]);
-        final RawDataFilesSelection selectedFiles = rdp.getValue();
-        if (selectedFiles == null) {
-          setStatus(TaskStatus.ERROR);
-          setErrorMessage("Invalid parameter settings for module " + method.getName() + ": "
-                          + "Missing parameter value for " + p.getName());
-          return;
-        }
-        selectedFiles.setBatchLastFiles(createdFiles);
-      }
+    if (!setBatchLastFilesToParamSet(method, batchStepParameters,
+        createdDataFiles.toArray(new RawDataFile[0]))) {
+      return;
     }
 
-    if (!setBatchlastFeatureListsToParamSet(method, batchStepParameters)) {
+    if (!setBatchlastFeatureListsToParamSet(method, batchStepParameters,
+        createdFeatureLists.toArray(new FeatureList[0]))) {
       return;
     }
 
@@ -324,6 +459,10 @@ public class BatchTask extends AbstractTask {
 
     boolean allTasksFinished = false;
 
+    // a single input file is processed by all tasks of this step
+    TaskProfiler.setBatchStep(currentStepTasks, stepNumber + 1, method.getName(),
+        createdDataFiles.size() == 1 ? createdDataFiles.get(0) : null);
+
     // Submit the tasks to the task controller for processing
     WrappedTask[] currentStepWrappedTasks = MZmineCore.getTaskController()
         .addTasks(currentStepTasks.toArray(new Task[0]));
@@ -425,6 +564,28 @@ public class BatchTask extends AbstractTask {
     }
   }
 
+  /**
+   * Sets the last raw data files to the parameters
+   *
+   * @return false on error
+   */
+  private boolean setBatchLastFilesToParamSet(MZmineProcessingModule method,
+      ParameterSet batchStepParameters, RawDataFile[] createdFiles) {
+    for (Parameter<?> p : batchStepParameters.getParameters()) {
+      if (p instanceof RawDataFilesParameter rdp) {
+        final RawDataFilesSelection selectedFiles = rdp.getValue();
+        if (selectedFiles == null) {
+          setStatus(TaskStatus.ERROR);
+          setErrorMessage("Invalid parameter settings for module " + method.getName() + ": "
+                          + "Missing parameter value for " + p.getName());
+          return false;
+        }
+        selectedFiles.setBatchLastFiles(createdFiles);
+      }
+    }
+    return true;
+  }
+
   /**
    * Recursively sets the last feature lists to the parameters since there might be embedded
    * parameters.
@@ -432,12 +593,11 @@ public class BatchTask extends AbstractTask {
    * @return false on error
    */
   private boolean setBatchlastFeatureListsToParamSet(MZmineProcessingModule method,
-      ParameterSet batchStepParameters) {
+      ParameterSet batchStepParameters, FeatureList[] createdFlists) {
     // Update the FeatureListsParameter parameters to reflect the current
     // state of the batch
     for (Parameter<?> p : batchStepParameters.getParameters()) {
       if (p instanceof FeatureListsParameter featureListsParameter) {
-        FeatureList[] createdFlists = createdFeatureLists.toArray(new FeatureList[0]);
         final FeatureListsSelection selectedFeatureLists = featureListsParameter.getValue();
         if (selectedFeatureLists == null) {
           setStatus(TaskStatus.ERROR);
@@ -447,14 +607,541 @@ public class BatchTask extends AbstractTask {
         }
         selectedFeatureLists.setBatchLastFeatureLists(createdFlists);
       } else if (p instanceof EmbeddedParameterSet embedded) {
-        if (!setBatchlastFeatureListsToParamSet(method, embedded.getEmbeddedParameters())) {
+        if (!setBatchlastFeatureListsToParamSet(method, embedded.getEmbeddedParameters(),
+            createdFlists)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the end (exclusive) of consecutive steps starting at firstStep that can run per sample
+   * or firstStep if there are less than two steps. The pipeline may start with the raw data import
+   */
+  private int getPipelineEnd(int firstStep) {
+    int end = isImportStep(firstStep) ? firstStep + 1 : firstStep;
+    while (end < stepsPerDataset && isPerSampleStep(end)) {
+      end++;
+    }
+    return end - firstStep >= 2 ? end : firstStep;
+  }
+
+  private boolean isImportStep(int stepNumber) {
+    return AllSpectralDataImportParameters.isParameterSetClass(
+        queue.get(stepNumber).getParameterSet());
+  }
+
+  /**
+   * @return true if the step processes each sample independently and only uses the files and
+   * feature lists of the previous batch step
+   */
+  private boolean isPerSampleStep(int stepNumber) {
+    final MZmineProcessingStep<?> step = queue.get(stepNumber);
+    return BatchModeModulesList.PER_SAMPLE_MODULES.contains(step.getModule().getClass())
+           && step.getParameterSet() != null && usesOnlyBatchLastSelections(
+        step.getParameterSet());
+  }
+
+  private static boolean usesOnlyBatchLastSelections(ParameterSet parameters) {
+    for (Parameter<?> p : parameters.getParameters()) {
+      if (p instanceof RawDataFilesParameter rdp) {
+        final RawDataFilesSelection selection = rdp.getValue();
+        if (selection == null
+            || selection.getSelectionType() != RawDataFilesSelectionType.BATCH_LAST_FILES) {
+          return false;
+        }
+      } else if (p instanceof FeatureListsParameter flp) {
+        final FeatureListsSelection selection = flp.getValue();
+        if (selection == null || selection.getSelectionType()
+                                 != FeatureListsSelectionType.BATCH_LAST_FEATURELISTS) {
           return false;
         }
+      } else if (p instanceof EmbeddedParameterSet embedded && !usesOnlyBatchLastSelections(
+          embedded.getEmbeddedParameters())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Sends consecutive per sample steps that start with the raw data import to the batch workers,
+   * one job per raw data file. The import is also run in this process, because scans are not
+   * exchanged with the workers. The following raw data steps (e.g., mass detection) only run on the
+   * workers, their mass lists are added to the imported scans. The feature lists of the workers are
+   * added to the project when all jobs are finished. Ion mobility data cannot be exchanged with the
+   * workers (see {@link DistributedFeatureListExchange}) and is processed in this process.
+   *
+   * @param firstStep first step (inclusive)
+   * @param endStep   last step (exclusive)
+   * @return false if there are no workers or the steps cannot be distributed. true if the steps
+   * were processed (check status for errors)
+   */
+  private boolean processDistributedSteps(int firstStep, int endStep) {
+    if (coordinator == null || !isImportStep(firstStep)) {
+      return false;
+    }
+    // raw data steps do not use feature lists
+    int localEnd = firstStep + 1;
+    while (localEnd < endStep && !hasFeatureListsParameter(
+        queue.get(localEnd).getParameterSet())) {
+      localEnd++;
+    }
+    final File[] files = queue.get(firstStep).getParameterSet()
+        .getValue(AllSpectralDataImportParameters.fileNames);
+    if (localEnd == endStep || files == null || files.length == 0) {
+      return false;
+    }
+    if (Arrays.stream(files).anyMatch(
+        file -> RawDataFileTypeDetector.detectDataFileType(file) == RawDataFileType.BRUKER_TDF)) {
+      logger.info("Ion mobility data is not sent to batch workers, processing all steps in this "
+          + "process");
+      return false;
+    }
+
+    final String workerQueue;
+    try {
+      final BatchQueue stepsQueue = new BatchQueue();
+      for (int i = firstStep; i < endStep; i++) {
+        stepsQueue.add(queue.get(i));
+      }
+      workerQueue = stepsQueue.saveToXmlString();
+      coordinator.start();
+    } catch (Exception e) {
+      logger.log(Level.WARNING,
+          "Cannot start batch workers, processing all steps in this process", e);
+      return false;
+    }
+
+    logger.info("Sending steps # %d to %d of %d files to batch workers".formatted(firstStep + 1,
+        endStep, files.length));
+    final List<CompletableFuture<byte[]>> results = Arrays.stream(files)
+        .map(file -> coordinator.submit(workerQueue, file)).toList();
+
+    // import in this process while the workers run
+    processQueueStep(firstStep);
+    processedSteps++;
+    if (isCanceled() || getStatus() == TaskStatus.ERROR) {
+      results.forEach(result -> result.cancel(false));
+      return true;
+    }
+    // ion mobility mzML files are only recognized after the import
+    if (createdDataFiles.stream().anyMatch(IMSRawDataFile.class::isInstance)) {
+      results.forEach(result -> result.cancel(false));
+      logger.info(("Ion mobility data is not sent to batch workers, processing steps # %d to %d "
+          + "in this process").formatted(firstStep + 2, endStep));
+      if (!(pipelineSampleSteps && processPipelinedSteps(firstStep + 1, endStep))) {
+        for (int i = firstStep + 1;
+            i < endStep && !isCanceled() && getStatus() != TaskStatus.ERROR; i++) {
+          processQueueStep(i);
+          processedSteps++;
+        }
+      }
+      return true;
+    }
+
+    for (int i = firstStep + 1; i < endStep; i++) {
+      GoogleAnalyticsTracker.trackModule(queue.get(i).getModule());
+    }
+
+    final MemoryMapStorage massListStorage = MemoryMapStorage.forMassList();
+    final MemoryMapStorage storage = MemoryMapStorage.forFeatureList();
+    final Instant moduleCallDate = Instant.now();
+    final List<FeatureList> featureLists = new ArrayList<>();
+    for (int f = 0; f < files.length; f++) {
+      final byte[] result = waitForWorkerResult(results.get(f));
+      if (result == null) {
+        results.forEach(r -> r.cancel(false));
+        return true;
+      }
+      try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(result))) {
+        final int numDataFiles = in.readInt();
+        for (int n = 0; n < numDataFiles; n++) {
+          final RawDataFile raw = DistributedFeatureListExchange.readMassLists(in,
+              project.getCurrentRawDataFiles(), massListStorage);
+          for (int i = firstStep + 1; i < localEnd; i++) {
+            raw.getAppliedMethods().add(
+                new SimpleFeatureListAppliedMethod(queue.get(i).getModule(),
+                    queue.get(i).getParameterSet(), moduleCallDate));
+          }
+        }
+        final int numFeatureLists = in.readInt();
+        for (int n = 0; n < numFeatureLists; n++) {
+          final ModularFeatureList flist = DistributedFeatureListExchange.read(in,
+              project.getCurrentRawDataFiles(), storage);
+          for (int i = localEnd; i < endStep; i++) {
+            flist.addDescriptionOfAppliedTask(
+                new SimpleFeatureListAppliedMethod(queue.get(i).getModule(),
+                    queue.get(i).getParameterSet(), moduleCallDate));
+          }
+          project.addFeatureList(flist);
+          featureLists.add(flist);
+        }
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Cannot read results of batch worker", e);
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage(
+            "Cannot read results of " + files[f].getName() + " from batch worker: "
+                + e.getMessage());
+        return true;
       }
     }
+
+    createdDataFiles = new ArrayList<>();
+    createdFeatureLists = featureLists;
+    if (!createdFeatureLists.isEmpty()) {
+      previousCreatedFeatureLists = createdFeatureLists;
+    }
     return true;
   }
 
+  private static boolean hasFeatureListsParameter(ParameterSet parameters) {
+    return parameters != null && Arrays.stream(parameters.getParameters())
+        .anyMatch(p -> p instanceof FeatureListsParameter);
+  }
+
+  /**
+   * Waits for the result of a batch worker job
+   *
+   * @return the result or null if the batch was canceled or the job failed (status is set)
+   */
+  @Nullable
+  private byte[] waitForWorkerResult(CompletableFuture<byte[]> result) {
+    while (true) {
+      if (isCanceled()) {
+        return null;
+      }
+      try {
+        return result.get(1, TimeUnit.SECONDS);
+      } catch (TimeoutException e) {
+        if (!coordinator.hasWorkers()) {
+          setStatus(TaskStatus.ERROR);
+          setErrorMessage("All batch workers stopped before the batch was finished");
+          return null;
+        }
+      } catch (InterruptedException e) {
+        // ignore
+      } catch (ExecutionException e) {
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage(e.getCause().getMessage());
+        return null;
+      } catch (CancellationException e) {
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage("Batch worker job was canceled");
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Runs consecutive per sample steps for each sample independently, so that one slow sample does
+   * not block the others. If the first step is the raw data import, it is run for all files at
+   * once and each sample starts as soon as its file was imported.
+   *
+   * @param firstStep first step (inclusive)
+   * @param endStep   last step (exclusive)
+   * @return false if the steps cannot be split by samples and need to run step by step. true if
+   * the steps were processed (check status for errors)
+   */
+  private boolean processPipelinedSteps(int firstStep, int endStep) {
+    final boolean startsWithImport = isImportStep(firstStep);
+    final int firstSampleStep = startsWithImport ? firstStep + 1 : firstStep;
+
+    // If the last step did not produce any data files or feature lists, use
+    // the ones from the previous step
+    if (createdDataFiles.isEmpty()) {
+      createdDataFiles = previousCreatedDataFiles;
+    }
+    if (createdFeatureLists.isEmpty()) {
+      createdFeatureLists = previousCreatedFeatureLists;
+    }
+
+    final Map<RawDataFile, SampleChain> chains;
+    if (startsWithImport) {
+      chains = new LinkedHashMap<>();
+    } else {
+      final boolean byFeatureLists = hasFeatureListsParameter(
+          queue.get(firstSampleStep).getParameterSet());
+      chains = createSampleChains(createdDataFiles, createdFeatureLists, firstSampleStep,
+          byFeatureLists);
+      if (chains == null || chains.size() < 2) {
+        return false;
+      }
+      if (byFeatureLists && chains.size() < createdDataFiles.size()) {
+        logger.info(
+            "Skipping %d raw data files without feature lists in steps # %d to %d".formatted(
+                createdDataFiles.size() - chains.size(), firstStep + 1, endStep));
+      }
+    }
+
+    logger.info("Starting steps # %d to %d per sample".formatted(firstStep + 1, endStep));
+    for (int i = firstStep; i < endStep; i++) {
+      GoogleAnalyticsTracker.trackModule(queue.get(i).getModule());
+    }
+
+    // the import is one step for all files (spectral libraries, common name prefix)
+    final ParameterSet importParameters =
+        startsWithImport ? queue.get(firstStep).getParameterSet() : null;
+    WrappedTask[] importTasks = new WrappedTask[0];
+    if (startsWithImport) {
+      final List<Task> tasks = runPipelinedStep(firstStep, importParameters, null);
+      if (tasks == null) {
+        return true;
+      }
+      importTasks = MZmineCore.getTaskController().addTasks(tasks.toArray(new Task[0]));
+    }
+    boolean importFinished = !startsWithImport;
+
+    final int startProcessed = processedSteps;
+    while (true) {
+      // If we canceled the batch, cancel all running tasks
+      if (isCanceled()) {
+        cancelPipelinedTasks(importTasks, chains.values());
+        return true;
+      }
+
+      if (!importFinished) {
+        if (!checkPipelinedTasks(importTasks)) {
+          cancelPipelinedTasks(importTasks, chains.values());
+          return true;
+        }
+        importFinished = areAllFinished(importTasks);
+        // raw data files are added to the project at the end of their import
+        for (RawDataFile raw : AllSpectralDataImportParameters.getLoadedRawDataFiles(project,
+            importParameters)) {
+          chains.computeIfAbsent(raw, r -> new SampleChain(r, firstSampleStep));
+        }
+      }
+
+      boolean allDone = importFinished;
+      int minCompletedSteps = endStep - firstSampleStep;
+      for (SampleChain chain : chains.values()) {
+        if (!advanceSampleChain(chain, endStep)) {
+          cancelPipelinedTasks(importTasks, chains.values());
+          return true;
+        }
+        allDone &= chain.step >= endStep;
+        minCompletedSteps = Math.min(minCompletedSteps, chain.step - firstSampleStep);
+      }
+      processedSteps = startProcessed + (importFinished && startsWithImport ? 1 : 0) + (
+          chains.isEmpty() ? 0 : minCompletedSteps);
+
+      if (allDone) {
+        break;
+      }
+
+      // Wait 1s before checking the tasks again
+      synchronized (this) {
+        try {
+          this.wait(1000);
+        } catch (InterruptedException e) {
+          // ignore
+        }
+      }
+    }
+
+    // files and feature lists of all samples in project order for the next steps
+    final Set<FeatureList> sampleLists = new HashSet<>();
+    chains.values().forEach(chain -> sampleLists.addAll(chain.featureLists));
+    createdDataFiles = project.getCurrentRawDataFiles().stream().filter(chains::containsKey)
+        .collect(Collectors.toCollection(ArrayList::new));
+    createdFeatureLists = project.getCurrentFeatureLists().stream().filter(sampleLists::contains)
+        .collect(Collectors.toCollection(ArrayList::new));
+    if (!createdDataFiles.isEmpty()) {
+      previousCreatedDataFiles = createdDataFiles;
+    }
+    if (!createdFeatureLists.isEmpty()) {
+      previousCreatedFeatureLists = createdFeatureLists;
+    }
+    logger.info("Finished steps # %d to %d for %d samples".formatted(firstStep + 1, endStep,
+        chains.size()));
+    return true;
+  }
+
+  /**
+   * Splits the data files and feature lists of the last batch step by samples. If the first step
+   * processes feature lists, only the samples with feature lists are processed, otherwise all data
+   * files.
+   *
+   * @param byFeatureLists true if the first step uses feature lists
+   * @return the sample chains by raw data file or null if a feature list contains multiple samples
+   * (e.g., aligned)
+   */
+  @Nullable
+  static Map<RawDataFile, SampleChain> createSampleChains(List<RawDataFile> dataFiles,
+      List<FeatureList> featureLists, int firstStep, boolean byFeatureLists) {
+    final Map<RawDataFile, SampleChain> chains = new LinkedHashMap<>();
+    if (!byFeatureLists) {
+      for (RawDataFile raw : dataFiles) {
+        chains.put(raw, new SampleChain(raw, firstStep));
+      }
+    }
+    for (FeatureList flist : featureLists) {
+      final List<RawDataFile> raws = flist.getRawDataFiles();
+      if (raws.size() != 1) {
+        return null;
+      }
+      final SampleChain chain = byFeatureLists ? chains.computeIfAbsent(raws.get(0),
+          raw -> new SampleChain(raw, firstStep)) : chains.get(raws.get(0));
+      if (chain == null) {
+        return null;
+      }
+      chain.featureLists.add(flist);
+    }
+    return chains;
+  }
+
+  /**
+   * Collects the results of the finished step of this sample and starts the next step.
+   *
+   * @return false on error
+   */
+  private boolean advanceSampleChain(SampleChain chain, int endStep) {
+    if (chain.running != null) {
+      if (!checkPipelinedTasks(chain.running)) {
+        return false;
+      }
+      if (!areAllFinished(chain.running)) {
+        return true;
+      }
+      // feature lists of this sample are only created by its own steps
+      final List<FeatureList> created = getSampleFeatureLists(chain.raw);
+      created.removeAll(chain.featureListsBefore);
+      if (!created.isEmpty()) {
+        chain.featureLists = created;
+      }
+      chain.running = null;
+      chain.step++;
+    }
+
+    // steps without tasks are finished directly
+    while (chain.step < endStep) {
+      final MZmineProcessingStep<?> step = queue.get(chain.step);
+      final MZmineProcessingModule method = (MZmineProcessingModule) step.getModule();
+      final ParameterSet parameters = step.getParameterSet().cloneParameterSet();
+      if (!setBatchLastFilesToParamSet(method, parameters, new RawDataFile[]{chain.raw})
+          || !setBatchlastFeatureListsToParamSet(method, parameters,
+          chain.featureLists.toArray(new FeatureList[0]))) {
+        return false;
+      }
+
+      chain.featureListsBefore = getSampleFeatureLists(chain.raw);
+      final List<Task> tasks = runPipelinedStep(chain.step, parameters, chain.raw);
+      if (tasks == null) {
+        return false;
+      }
+      if (!tasks.isEmpty()) {
+        chain.running = MZmineCore.getTaskController().addTasks(tasks.toArray(new Task[0]));
+        return true;
+      }
+      chain.step++;
+    }
+    return true;
+  }
+
+  /**
+   * @return all feature lists in the project that only contain this raw data file
+   */
+  private List<FeatureList> getSampleFeatureLists(RawDataFile raw) {
+    return project.getCurrentFeatureLists().stream().filter(flist -> {
+      final List<RawDataFile> raws = flist.getRawDataFiles();
+      return raws.size() == 1 && raws.get(0).equals(raw);
+    }).collect(Collectors.toCollection(ArrayList::new));
+  }
+
+  /**
+   * Checks the parameters and creates the tasks of a step
+   *
+   * @param raw the processed raw data file of per sample steps, used by the task profiler
+   * @return the tasks or null on error
+   */
+  @Nullable
+  private List<Task> runPipelinedStep(int stepNumber, ParameterSet parameters,
+      @Nullable RawDataFile raw) {
+    final MZmineProcessingModule method = (MZmineProcessingModule) queue.get(stepNumber)
+        .getModule();
+    ArrayList<String> messages = new ArrayList<>();
+    if (!parameters.checkParameterValues(messages)) {
+      setStatus(TaskStatus.ERROR);
+      setErrorMessage(
+          "Invalid parameter settings for module " + method.getName() + ": " + Arrays.toString(
+              messages.toArray()));
+      return null;
+    }
+
+    List<Task> tasks = new ArrayList<>();
+    ExitCode exitCode = method.runModule(project, parameters, tasks, Instant.now());
+    if (exitCode != ExitCode.OK) {
+      setStatus(TaskStatus.ERROR);
+      setErrorMessage("Could not start batch step " + method.getName());
+      return null;
+    }
+    TaskProfiler.setBatchStep(tasks, stepNumber + 1, method.getName(), raw);
+    return tasks;
+  }
+
+  /**
+   * Sets the batch to error or canceled if any task had an error or was canceled
+   *
+   * @return false on error or cancel
+   */
+  private boolean checkPipelinedTasks(WrappedTask[] tasks) {
+    for (WrappedTask stepTask : tasks) {
+      TaskStatus stepStatus = stepTask.getActualTask().getStatus();
+      if (stepStatus == TaskStatus.ERROR) {
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage(
+            stepTask.getActualTask().getTaskDescription() + ": " + stepTask.getActualTask()
+                .getErrorMessage());
+        return false;
+      }
+      if (stepStatus == TaskStatus.CANCELED) {
+        setStatus(TaskStatus.CANCELED);
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean areAllFinished(WrappedTask[] tasks) {
+    return Arrays.stream(tasks)
+        .allMatch(task -> task.getActualTask().getStatus() == TaskStatus.FINISHED);
+  }
+
+  private static void cancelPipelinedTasks(WrappedTask[] importTasks,
+      Collection<SampleChain> chains) {
+    for (WrappedTask task : importTasks) {
+      task.getActualTask().cancel();
+    }
+    for (SampleChain chain : chains) {
+      if (chain.running != null) {
+        for (WrappedTask task : chain.running) {
+          task.getActualTask().cancel();
+        }
+      }
+    }
+  }
+
+  /**
+   * The state of one sample while running per sample steps
+   */
+  static class SampleChain {
+
+    final RawDataFile raw;
+    List<FeatureList> featureLists = new ArrayList<>();
+    private List<FeatureList> featureListsBefore = List.of();
+    private WrappedTask[] running;
+    // the next step or the running step
+    private int step;
+
+    private SampleChain(RawDataFile raw, int step) {
+      this.raw = raw;
+      this.step = step;
+    }
+  }
+
   @Override
   public TaskPriority getTaskPriority() {
     // to not block mzmine when run with single thread
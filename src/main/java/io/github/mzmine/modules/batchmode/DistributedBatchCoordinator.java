@@ -0,0 +1,386 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.batchmode;
+
+import static io.github.mzmine.modules.batchmode.DistributedBatchProtocol.readString;
+import static io.github.mzmine.modules.batchmode.DistributedBatchProtocol.writeString;
+
+import io.github.mzmine.main.MZmineCore;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Coordinator of batch worker processes. Per sample batch steps are sent as jobs (batch queue and
+ * one raw data file) to {@link DistributedBatchWorker}s that run in separate JVMs, so that each
+ * process has its own garbage collector and memory mapped storage. Local workers are started on
+ * demand with the class path and JVM arguments of this process, but with a smaller maximum heap.
+ * Workers on other hosts can connect to the coordinator port if it is bound to a public address
+ * (see {@link DistributedBatchProtocol}). All workers need the token of the coordinator.
+ * <p>
+ * Each connected worker processes one job at a time from a shared queue, which balances samples of
+ * different size. Jobs of a lost worker are queued again.
+ */
+public class DistributedBatchCoordinator implements AutoCloseable {
+
+  private static final Logger logger = Logger.getLogger(
+      DistributedBatchCoordinator.class.getName());
+  private static final int MAX_ATTEMPTS = 2;
+  private static final long SHUTDOWN_WAIT_SECONDS = 30;
+  private static final long MIN_WORKER_HEAP_MB = 512;
+
+  private final int localWorkers;
+  private final InetAddress bindAddress;
+  private final int port;
+  @Nullable
+  private final String workerHeap;
+  private final String token;
+  private final List<String> workerArguments;
+  private final BlockingQueue<Job> jobs = new LinkedBlockingQueue<>();
+  private final List<Process> processes = new CopyOnWriteArrayList<>();
+  private final List<Socket> connections = new CopyOnWriteArrayList<>();
+  private final AtomicInteger jobIds = new AtomicInteger();
+  private ServerSocket serverSocket;
+  private volatile boolean closed = false;
+
+  /**
+   * @param localWorkers    number of worker processes to start on this machine
+   * @param bindAddress     address of the coordinator port, null for the loopback address. Workers
+   *                        on other hosts need a public address
+   * @param port            coordinator port, 0 for a free port
+   * @param workerHeap      maximum heap of local workers (e.g., 8G), null to split the maximum heap
+   *                        of this process between the coordinator and the local workers
+   * @param workerArguments program arguments for local workers, e.g., the preferences file
+   */
+  public DistributedBatchCoordinator(int localWorkers, @Nullable InetAddress bindAddress, int port,
+      @Nullable String workerHeap, @NotNull List<String> workerArguments) {
+    this(localWorkers, bindAddress, port, workerHeap, workerArguments,
+        DistributedBatchProtocol.getTokenFromEnvironment());
+  }
+
+  /**
+   * @param token the token that workers need, null to create a random token
+   */
+  DistributedBatchCoordinator(int localWorkers, @Nullable InetAddress bindAddress, int port,
+      @Nullable String workerHeap, @NotNull List<String> workerArguments,
+      @Nullable String token) {
+    this.localWorkers = Math.max(0, localWorkers);
+    this.bindAddress = Objects.requireNonNullElse(bindAddress, InetAddress.getLoopbackAddress());
+    this.port = port;
+    this.workerHeap = workerHeap;
+    this.workerArguments = workerArguments;
+
+    if (token == null && !this.bindAddress.isLoopbackAddress()) {
+      logger.warning("No " + DistributedBatchProtocol.TOKEN_ENV
+          + " environment variable set, only local batch workers can connect");
+    }
+    this.token = Objects.requireNonNullElseGet(token, DistributedBatchProtocol::createToken);
+  }
+
+  /**
+   * Opens the coordinator port and starts the local workers. Does nothing if already started.
+   */
+  public synchronized void start() throws IOException {
+    if (serverSocket != null) {
+      return;
+    }
+    if (closed) {
+      throw new IllegalStateException("Batch coordinator was closed");
+    }
+    serverSocket = new ServerSocket(port, 50, bindAddress);
+    logger.info("Batch coordinator listening on " + serverSocket.getLocalSocketAddress());
+
+    final Thread acceptThread = new Thread(this::acceptWorkers, "Batch coordinator");
+    acceptThread.setDaemon(true);
+    acceptThread.start();
+
+    // local workers cannot connect to the wildcard address
+    final InetAddress localAddress = serverSocket.getInetAddress().isAnyLocalAddress()
+        ? InetAddress.getLoopbackAddress() : serverSocket.getInetAddress();
+    final String coordinatorAddress =
+        localAddress.getHostAddress() + ":" + serverSocket.getLocalPort();
+    for (int i = 0; i < localWorkers; i++) {
+      processes.add(startLocalWorker(i, coordinatorAddress));
+    }
+    logger.info("Started " + localWorkers + " local batch worker processes");
+  }
+
+  private Process startLocalWorker(int index, String coordinatorAddress) throws IOException {
+    final List<String> command = new ArrayList<>();
+    command.add(ProcessHandle.current().info().command()
+        .orElse(Paths.get(System.getProperty("java.home"), "bin", "java").toString()));
+    for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+      // debug agents cannot bind the same port twice
+      if (!arg.startsWith("-agentlib:jdwp") && !arg.startsWith("-Xrunjdwp")
+          && !isHeapArgument(arg)) {
+        command.add(arg);
+      }
+    }
+    command.add(getWorkerHeapArgument());
+    final String modulePath = System.getProperty("jdk.module.path");
+    if (modulePath != null && !modulePath.isBlank()) {
+      command.add("--module-path");
+      command.add(modulePath);
+    }
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(MZmineCore.class.getName());
+    command.add("--worker");
+    command.add(coordinatorAddress);
+    command.addAll(workerArguments);
+
+    logger.fine(() -> "Starting batch worker " + index + ": " + String.join(" ", command));
+    final ProcessBuilder builder = new ProcessBuilder(command).inheritIO();
+    // not on the command line, which is visible to other users
+    builder.environment().put(DistributedBatchProtocol.TOKEN_ENV, token);
+    return builder.start();
+  }
+
+  /**
+   * @return the maximum heap argument of local workers
+   */
+  private String getWorkerHeapArgument() {
+    if (workerHeap != null) {
+      return "-Xmx" + workerHeap;
+    }
+    final long heapMB = Runtime.getRuntime().maxMemory() / (localWorkers + 1) / (1024 * 1024);
+    return "-Xmx" + Math.max(MIN_WORKER_HEAP_MB, heapMB) + "m";
+  }
+
+  /**
+   * @return true if the JVM argument sets the heap size, which is replaced for workers
+   */
+  private static boolean isHeapArgument(String arg) {
+    return arg.startsWith("-Xmx") || arg.startsWith("-Xms") || arg.startsWith("-XX:MaxHeapSize")
+           || arg.startsWith("-XX:InitialHeapSize") || arg.startsWith("-XX:MaxRAM")
+           || arg.startsWith("-XX:InitialRAMPercentage") || arg.startsWith(
+        "-XX:MinRAMPercentage");
+  }
+
+  private void acceptWorkers() {
+    while (!closed) {
+      try {
+        final Socket socket = serverSocket.accept();
+        socket.setTcpNoDelay(true);
+        final Thread thread = new Thread(() -> serveWorker(socket),
+            "Batch worker " + socket.getRemoteSocketAddress());
+        thread.setDaemon(true);
+        thread.start();
+      } catch (IOException e) {
+        if (!closed) {
+          logger.log(Level.WARNING, "Cannot accept batch worker connection", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Sends jobs to one worker until the coordinator is closed or the connection is lost
+   */
+  private void serveWorker(Socket socket) {
+    Job job = null;
+    try (socket) {
+      final DataInputStream in = new DataInputStream(
+          new BufferedInputStream(socket.getInputStream(), 1 << 16));
+      final DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+      final String workerName = DistributedBatchProtocol.readHello(in, token);
+      connections.add(socket);
+      logger.info("Batch worker " + workerName + " connected from "
+          + socket.getRemoteSocketAddress());
+
+      while (!closed) {
+        job = jobs.poll(1, TimeUnit.SECONDS);
+        if (job == null) {
+          continue;
+        }
+        if (job.result().isDone()) {
+          // canceled
+          job = null;
+          continue;
+        }
+
+        out.writeByte(DistributedBatchProtocol.JOB);
+        out.writeInt(job.id());
+        writeString(out, job.queueXml());
+        writeString(out, job.file().getAbsolutePath());
+        out.flush();
+        logger.fine("Sent " + job.file().getName() + " to batch worker " + workerName);
+
+        final byte type = in.readByte();
+        final int id = in.readInt();
+        if (id != job.id()) {
+          throw new IOException("Batch worker answered job " + id + " instead of " + job.id());
+        }
+        if (type == DistributedBatchProtocol.RESULT) {
+          job.result().complete(DistributedBatchProtocol.readBytes(in,
+              DistributedBatchProtocol.MAX_PAYLOAD_LENGTH));
+        } else if (type == DistributedBatchProtocol.ERROR) {
+          job.result().completeExceptionally(new IOException(
+              "Batch worker " + workerName + " failed on " + job.file().getName() + ": "
+                  + readString(in)));
+        } else {
+          throw new IOException("Unknown batch worker message " + type);
+        }
+        job = null;
+      }
+
+      out.writeByte(DistributedBatchProtocol.SHUTDOWN);
+      out.flush();
+    } catch (IOException e) {
+      if (!closed) {
+        logger.log(Level.WARNING, "Lost connection to batch worker " + socket, e);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      connections.remove(socket);
+      if (job != null) {
+        retry(job);
+      }
+    }
+  }
+
+  private void retry(Job job) {
+    if (job.result().isDone()) {
+      return;
+    }
+    if (job.attempt() + 1 >= MAX_ATTEMPTS) {
+      job.result().completeExceptionally(
+          new IOException("Batch workers failed on " + job.file().getName()));
+    } else {
+      logger.info("Queueing " + job.file().getName() + " again for another batch worker");
+      jobs.add(new Job(job.id(), job.queueXml(), job.file(), job.result(), job.attempt() + 1));
+    }
+  }
+
+  /**
+   * Queues a job for the next free worker
+   *
+   * @param queueXml batch queue that starts with the raw data import, see
+   *                 {@link BatchQueue#saveToXmlString()}
+   * @param file     the raw data file to import and process
+   * @return the serialized feature lists of the last step (see
+   * {@link DistributedFeatureListExchange}), preceded by their number
+   */
+  @NotNull
+  public CompletableFuture<byte[]> submit(@NotNull String queueXml, @NotNull File file) {
+    final Job job = new Job(jobIds.incrementAndGet(), queueXml, file, new CompletableFuture<>(),
+        0);
+    jobs.add(job);
+    return job.result();
+  }
+
+  /**
+   * @return the address of the coordinator port after {@link #start()}
+   */
+  InetSocketAddress getAddress() {
+    return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+  }
+
+  /**
+   * @return true if workers are connected or local workers are still starting
+   */
+  public boolean hasWorkers() {
+    return !connections.isEmpty() || processes.stream().anyMatch(Process::isAlive)
+           || (port > 0 && localWorkers == 0);
+  }
+
+  /**
+   * Stops all workers and closes the port
+   */
+  @Override
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    jobs.forEach(job -> job.result().cancel(false));
+    jobs.clear();
+    try {
+      if (serverSocket != null) {
+        serverSocket.close();
+      }
+    } catch (IOException e) {
+      logger.log(Level.FINE, "Cannot close batch coordinator port", e);
+    }
+
+    for (Process process : processes) {
+      try {
+        if (!process.waitFor(SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS)) {
+          process.destroy();
+        }
+      } catch (InterruptedException e) {
+        process.destroy();
+        Thread.currentThread().interrupt();
+      }
+    }
+    for (Socket socket : connections) {
+      try {
+        socket.close();
+      } catch (SocketException e) {
+        // already closed
+      } catch (IOException e) {
+        logger.log(Level.FINE, "Cannot close batch worker connection", e);
+      }
+    }
+  }
+
+  /**
+   * @param id       job id
+   * @param queueXml batch queue
+   * @param file     raw data file
+   * @param result   serialized result
+   * @param attempt  number of failed attempts on lost workers
+   */
+  private record Job(int id, String queueXml, File file, CompletableFuture<byte[]> result,
+                     int attempt) {
+
+  }
+}
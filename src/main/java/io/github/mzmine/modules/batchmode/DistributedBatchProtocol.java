@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.batchmode;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Socket protocol between the {@link DistributedBatchCoordinator} and its
+ * {@link DistributedBatchWorker}s. All values are big endian, strings are written as length (int)
+ * and UTF-8 bytes.
+ * <pre>
+ * worker hello:  magic (int), version (int), token (string), worker name (string)
+ * job:           JOB (byte), job id (int), batch queue xml (string), raw data file path (string)
+ * result:        RESULT (byte), job id (int), payload length (int), number of raw data files (int),
+ *                mass lists, number of feature lists (int), feature lists
+ *                (see {@link DistributedFeatureListExchange})
+ * error:         ERROR (byte), job id (int), message (string)
+ * shutdown:      SHUTDOWN (byte)
+ * </pre>
+ * A worker processes one job at a time and answers each job with a result or an error. Workers
+ * need the shared token of the coordinator, which is passed in the environment variable
+ * {@link #TOKEN_ENV}.
+ */
+final class DistributedBatchProtocol {
+
+  static final int MAGIC = 0x4D5A4442; // MZDB
+  static final int VERSION = 2;
+
+  /**
+   * Environment variable with the token that workers need to connect to the coordinator
+   */
+  static final String TOKEN_ENV = "MZMINE_BATCH_TOKEN";
+  // limits the memory that is read before the token was checked
+  private static final int MAX_HELLO_STRING_LENGTH = 1024;
+  /**
+   * Maximum length of results and serialized tables, the maximum size of a byte array
+   */
+  static final int MAX_PAYLOAD_LENGTH = Integer.MAX_VALUE - 8;
+
+  static final byte JOB = 1;
+  static final byte RESULT = 2;
+  static final byte ERROR = 3;
+  static final byte SHUTDOWN = 4;
+
+  private DistributedBatchProtocol() {
+  }
+
+  static void writeHello(DataOutputStream out, String token, String workerName)
+      throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    writeString(out, token);
+    writeString(out, workerName);
+    out.flush();
+  }
+
+  /**
+   * @param token the token of the coordinator
+   * @return the worker name
+   * @throws IOException if the peer is no compatible worker or sent a wrong token
+   */
+  static String readHello(DataInputStream in, String token) throws IOException {
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Connection is not an MZmine batch worker");
+    }
+    final int version = in.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported batch worker protocol version " + version);
+    }
+    final String workerToken = readString(in, MAX_HELLO_STRING_LENGTH);
+    if (!MessageDigest.isEqual(workerToken.getBytes(StandardCharsets.UTF_8),
+        token.getBytes(StandardCharsets.UTF_8))) {
+      throw new IOException("Batch worker sent a wrong token");
+    }
+    return readString(in, MAX_HELLO_STRING_LENGTH);
+  }
+
+  /**
+   * @return the token of this process or null if the environment variable is not set
+   */
+  @Nullable
+  static String getTokenFromEnvironment() {
+    final String token = System.getenv(TOKEN_ENV);
+    return token == null || token.isBlank() ? null : token.trim();
+  }
+
+  /**
+   * @return a random token for a coordinator without token in the environment
+   */
+  @NotNull
+  static String createToken() {
+    final byte[] bytes = new byte[32];
+    new SecureRandom().nextBytes(bytes);
+    return HexFormat.of().formatHex(bytes);
+  }
+
+  static void writeString(DataOutput out, String value) throws IOException {
+    final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  static String readString(DataInput in) throws IOException {
+    return readString(in, Integer.MAX_VALUE);
+  }
+
+  private static String readString(DataInput in, int maxLength) throws IOException {
+    return new String(readBytes(in, maxLength), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Reads a length (int) and as many bytes
+   *
+   * @param maxLength the maximum accepted length
+   * @throws IOException if the length is negative or larger than maxLength
+   */
+  static byte[] readBytes(DataInput in, int maxLength) throws IOException {
+    final int length = in.readInt();
+    if (length < 0 || length > maxLength) {
+      throw new IOException("Invalid length " + length);
+    }
+    final byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  /**
+   * @param address host:port
+   */
+  @NotNull
+  static InetSocketAddress parseAddress(@NotNull String address) {
+    final int split = address.lastIndexOf(':');
+    if (split <= 0 || split == address.length() - 1) {
+      throw new IllegalArgumentException("Batch coordinator address needs to be host:port");
+    }
+    return new InetSocketAddress(address.substring(0, split),
+        Integer.parseInt(address.substring(split + 1)));
+  }
+}
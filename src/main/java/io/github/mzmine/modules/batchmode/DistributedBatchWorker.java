@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.batchmode;
+
+import static io.github.mzmine.modules.batchmode.DistributedBatchProtocol.readString;
+import static io.github.mzmine.modules.batchmode.DistributedBatchProtocol.writeString;
+
+import io.github.mzmine.datamodel.MZmineProject;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.features.FeatureList;
+import io.github.mzmine.datamodel.features.ModularFeatureList;
+import io.github.mzmine.main.MZmineCore;
+import io.github.mzmine.modules.io.import_rawdata_all.AllSpectralDataImportParameters;
+import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.util.ExitCode;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Headless batch worker that connects to a {@link DistributedBatchCoordinator}. Each job imports
+ * one raw data file into an empty project, runs the per sample batch steps and sends the mass lists
+ * and the feature lists of the last step back to the coordinator.
+ */
+public class DistributedBatchWorker {
+
+  private static final Logger logger = Logger.getLogger(DistributedBatchWorker.class.getName());
+  private static final int CONNECT_ATTEMPTS = 30;
+  private static final long CONNECT_RETRY_MILLIS = 1000;
+
+  private DistributedBatchWorker() {
+  }
+
+  /**
+   * Processes jobs until the coordinator sends a shutdown or closes the connection
+   *
+   * @param coordinatorAddress host:port of the coordinator
+   * @return exit code that reflects if the worker was connected
+   */
+  public static ExitCode run(@NotNull String coordinatorAddress) {
+    final InetSocketAddress address = DistributedBatchProtocol.parseAddress(coordinatorAddress);
+    final String token = DistributedBatchProtocol.getTokenFromEnvironment();
+    if (token == null) {
+      logger.severe("Batch worker needs the token of the coordinator in the "
+          + DistributedBatchProtocol.TOKEN_ENV + " environment variable");
+      return ExitCode.ERROR;
+    }
+    return run(address, token, DistributedBatchWorker::processBatch);
+  }
+
+  /**
+   * Processes jobs until the coordinator sends a shutdown or closes the connection
+   *
+   * @param token     the token of the coordinator
+   * @param processor processes each job
+   * @return exit code that reflects if the worker was connected
+   */
+  static ExitCode run(@NotNull InetSocketAddress address, @NotNull String token,
+      @NotNull JobProcessor processor) {
+    try (Socket socket = connect(address)) {
+      socket.setTcpNoDelay(true);
+      final DataInputStream in = new DataInputStream(
+          new BufferedInputStream(socket.getInputStream(), 1 << 16));
+      final DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+      DistributedBatchProtocol.writeHello(out, token, ProcessHandle.current().pid() + "@"
+          + socket.getLocalAddress().getHostName());
+      logger.info("Batch worker connected to coordinator " + address);
+
+      boolean accepted = false;
+      while (true) {
+        final byte type;
+        try {
+          type = in.readByte();
+        } catch (EOFException e) {
+          if (!accepted) {
+            // the coordinator closes connections with a wrong token
+            logger.severe("Batch coordinator closed the connection, check the "
+                + DistributedBatchProtocol.TOKEN_ENV + " environment variable");
+            return ExitCode.ERROR;
+          }
+          logger.info("Batch coordinator closed the connection");
+          return ExitCode.OK;
+        }
+        accepted = true;
+        if (type == DistributedBatchProtocol.SHUTDOWN) {
+          logger.info("Batch worker shutdown by coordinator");
+          return ExitCode.OK;
+        }
+        if (type != DistributedBatchProtocol.JOB) {
+          throw new IOException("Unknown batch coordinator message " + type);
+        }
+
+        final int id = in.readInt();
+        final String queueXml = readString(in);
+        final File file = new File(readString(in));
+        processJob(out, id, queueXml, file, processor);
+      }
+    } catch (IOException e) {
+      logger.log(Level.SEVERE, "Batch worker error: " + e.getMessage(), e);
+      return ExitCode.ERROR;
+    }
+  }
+
+  private static Socket connect(InetSocketAddress address) throws IOException {
+    for (int attempt = 1; ; attempt++) {
+      try {
+        return new Socket(address.getAddress(), address.getPort());
+      } catch (IOException e) {
+        if (attempt >= CONNECT_ATTEMPTS) {
+          throw e;
+        }
+        try {
+          Thread.sleep(CONNECT_RETRY_MILLIS);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw e;
+        }
+      }
+    }
+  }
+
+  private static void processJob(DataOutputStream out, int id, String queueXml, File file,
+      JobProcessor processor) throws IOException {
+    logger.info("Batch worker processing " + file.getName());
+    final long start = System.nanoTime();
+    final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    try {
+      final DataOutputStream payloadOut = new DataOutputStream(payload);
+      processor.process(queueXml, file, payloadOut);
+      payloadOut.flush();
+    } catch (Exception e) {
+      logger.log(Level.WARNING, "Batch worker failed on " + file.getName(), e);
+      out.writeByte(DistributedBatchProtocol.ERROR);
+      out.writeInt(id);
+      writeString(out, Objects.requireNonNullElse(e.getMessage(), e.getClass().getName()));
+      out.flush();
+      return;
+    }
+
+    out.writeByte(DistributedBatchProtocol.RESULT);
+    out.writeInt(id);
+    out.writeInt(payload.size());
+    payload.writeTo(out);
+    out.flush();
+    logger.info(String.format("Batch worker finished %s in %.1f s (%d bytes)", file.getName(),
+        (System.nanoTime() - start) / 1E9, payload.size()));
+  }
+
+  /**
+   * Runs the batch and writes the mass lists and the feature lists of the last step
+   */
+  private static void processBatch(String queueXml, File file, DataOutputStream payload)
+      throws Exception {
+    try {
+      final List<FeatureList> featureLists = runBatch(queueXml, file);
+      // the coordinator only imports the raw data and uses the mass lists of the worker
+      final List<RawDataFile> dataFiles = MZmineCore.getProjectManager().getCurrentProject()
+          .getCurrentRawDataFiles();
+      payload.writeInt(dataFiles.size());
+      for (RawDataFile raw : dataFiles) {
+        DistributedFeatureListExchange.writeMassLists(payload, raw);
+      }
+      payload.writeInt(featureLists.size());
+      for (FeatureList flist : featureLists) {
+        DistributedFeatureListExchange.write(payload, (ModularFeatureList) flist);
+      }
+    } finally {
+      // free the memory for the next job
+      MZmineCore.getProjectManager().clearProject();
+    }
+  }
+
+  /**
+   * Runs the batch on a new project with only this raw data file
+   *
+   * @return the feature lists of the last step
+   */
+  private static List<FeatureList> runBatch(String queueXml, File file) throws Exception {
+    final List<String> errorMessages = new ArrayList<>();
+    final BatchQueue queue = BatchQueue.loadFromXmlString(queueXml, errorMessages);
+    errorMessages.forEach(logger::fine);
+
+    final ParameterSet importParameters = queue.get(0).getParameterSet();
+    if (!AllSpectralDataImportParameters.isParameterSetClass(importParameters)) {
+      throw new IllegalStateException("The first worker batch step needs to import the raw data");
+    }
+    importParameters.setParameter(AllSpectralDataImportParameters.fileNames, new File[]{file});
+
+    MZmineCore.getProjectManager().clearProject();
+    final MZmineProject project = MZmineCore.getProjectManager().getCurrentProject();
+    final ParameterSet parameters = new BatchModeParameters().cloneParameterSet();
+    parameters.setParameter(BatchModeParameters.batchQueue, queue);
+    parameters.setParameter(BatchModeParameters.pipelineSampleSteps, false);
+    parameters.setParameter(BatchModeParameters.advanced, false);
+
+    final BatchTask batchTask = new BatchTask(project, parameters, Instant.now());
+    batchTask.run();
+    if (batchTask.getStatus() != TaskStatus.FINISHED) {
+      throw new IllegalStateException(
+          Objects.requireNonNullElse(batchTask.getErrorMessage(), "Batch did not finish"));
+    }
+    return batchTask.getLastFeatureLists();
+  }
+
+  /**
+   * Processes one job of the coordinator
+   */
+  @FunctionalInterface
+  interface JobProcessor {
+
+    /**
+     * @param queueXml the batch queue
+     * @param file     the raw data file
+     * @param payload  the result that is sent to the coordinator (see
+     *                 {@link DistributedBatchProtocol})
+     * @throws Exception sent to the coordinator as error
+     */
+    void process(@NotNull String queueXml, @NotNull File file, @NotNull DataOutputStream payload)
+        throws Exception;
+  }
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.batchmode;
+
+import static io.github.mzmine.modules.batchmode.DistributedBatchProtocol.readString;
+import static io.github.mzmine.modules.batchmode.DistributedBatchProtocol.writeString;
+
+import io.github.mzmine.datamodel.IMSRawDataFile;
+import io.github.mzmine.datamodel.IsotopePattern;
+import io.github.mzmine.datamodel.IsotopePattern.IsotopePatternStatus;
+import io.github.mzmine.datamodel.MassList;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.datamodel.featuredata.IonMobilogramTimeSeries;
+import io.github.mzmine.datamodel.featuredata.IonTimeSeries;
+import io.github.mzmine.datamodel.featuredata.impl.SimpleIonTimeSeries;
+import io.github.mzmine.datamodel.features.FeatureListRow;
+import io.github.mzmine.datamodel.features.ModularFeature;
+import io.github.mzmine.datamodel.features.ModularFeatureList;
+import io.github.mzmine.datamodel.features.types.FeatureDataType;
+import io.github.mzmine.datamodel.impl.SimpleIsotopePattern;
+import io.github.mzmine.datamodel.impl.masslist.SimpleMassList;
+import io.github.mzmine.modules.io.export_features_columnar.ColumnarFeatureTableFormat;
+import io.github.mzmine.modules.io.export_features_columnar.ColumnarFeatureTableWriter;
+import io.github.mzmine.modules.io.import_features_columnar.ColumnarFeatureTableReader;
+import io.github.mzmine.util.MemoryMapStorage;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.arrow.vector.util.ByteArrayReadableSeekableByteChannel;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Binary exchange of mass lists and feature lists between batch workers and the coordinator. Mass
+ * lists are sent as:
+ * <pre>
+ * raw data file name (string), number of scans (int)
+ * for each scan: number of signals (int, -1 if absent), m/z values (double), intensities (double)
+ * </pre>
+ * The row and feature values of a feature list are sent as a {@link ColumnarFeatureTableFormat}
+ * table, followed by the scan based data that the table cannot hold:
+ * <pre>
+ * table length (int), table bytes
+ * for each raw data file of the table:
+ *   selected scans (scan list)
+ *   for each row with a feature in this raw data file:
+ *     feature data: number of values (int, -1 if absent), scans (int indices),
+ *                   m/z values (double), intensities (double)
+ *     representative scan (int index, -1 if absent)
+ *     fragment scans (scan list)
+ *     isotope pattern (boolean present), number of signals (int), m/z values (double),
+ *                     intensities (double), charge (int), status (string), description (string)
+ * </pre>
+ * Scan lists are written as size (int, -1 if absent) and indices into
+ * {@link RawDataFile#getScans()}. Therefore, both sides need to import the raw data files with the
+ * same parameters. Ion mobility data is not supported.
+ */
+final class DistributedFeatureListExchange {
+
+  private static final int ABSENT = -1;
+
+  private DistributedFeatureListExchange() {
+  }
+
+  /**
+   * Writes the mass lists of all scans. The stream is not closed.
+   */
+  static void writeMassLists(@NotNull DataOutputStream out, @NotNull RawDataFile raw)
+      throws IOException {
+    if (raw instanceof IMSRawDataFile) {
+      throw new IOException("Ion mobility data cannot be exchanged between batch workers");
+    }
+    writeString(out, raw.getName());
+    final List<Scan> scans = raw.getScans();
+    out.writeInt(scans.size());
+    for (Scan scan : scans) {
+      final MassList massList = scan.getMassList();
+      if (massList == null) {
+        out.writeInt(ABSENT);
+        continue;
+      }
+      final int n = massList.getNumberOfDataPoints();
+      out.writeInt(n);
+      for (int i = 0; i < n; i++) {
+        out.writeDouble(massList.getMzValue(i));
+      }
+      for (int i = 0; i < n; i++) {
+        out.writeDouble(massList.getIntensityValue(i));
+      }
+    }
+    out.flush();
+  }
+
+  /**
+   * Reads mass lists written by {@link #writeMassLists(DataOutputStream, RawDataFile)} and adds
+   * them to the scans of the raw data file with the same name. The stream is not closed.
+   *
+   * @param projectFiles raw data files are matched by name
+   * @param storage      storage for the mass lists
+   * @return the raw data file of the mass lists
+   */
+  @NotNull
+  static RawDataFile readMassLists(@NotNull DataInputStream in,
+      @NotNull List<RawDataFile> projectFiles, @Nullable MemoryMapStorage storage)
+      throws IOException {
+    final String name = readString(in);
+    final RawDataFile raw = projectFiles.stream().filter(file -> file.getName().equals(name))
+        .findFirst().orElseThrow(() -> new IOException("Missing raw data file " + name));
+    final List<Scan> scans = raw.getScans();
+    final int numScans = in.readInt();
+    if (numScans != scans.size()) {
+      throw new IOException(
+          "Batch worker imported " + numScans + " scans of " + name + " instead of "
+              + scans.size());
+    }
+    for (Scan scan : scans) {
+      final int n = in.readInt();
+      if (n != ABSENT) {
+        final double[] mzs = readDoubles(in, n);
+        final double[] intensities = readDoubles(in, n);
+        scan.addMassList(new SimpleMassList(storage, mzs, intensities));
+      }
+    }
+    return raw;
+  }
+
+  /**
+   * Writes the feature list. The stream is not closed.
+   */
+  static void write(@NotNull DataOutputStream out, @NotNull ModularFeatureList flist)
+      throws IOException {
+    final List<FeatureListRow> rows = new ArrayList<>(flist.getRows());
+    final ByteArrayOutputStream table = new ByteArrayOutputStream();
+    new ColumnarFeatureTableWriter(flist, rows).write(table, () -> false);
+    out.writeInt(table.size());
+    table.writeTo(out);
+
+    for (RawDataFile raw : flist.getRawDataFiles()) {
+      final Reference2IntMap<Scan> scanIndices = indexScans(raw);
+      writeScans(out, flist.getSeletedScans(raw), scanIndices);
+      for (FeatureListRow row : rows) {
+        final ModularFeature feature = (ModularFeature) row.getFeature(raw);
+        if (feature != null) {
+          writeFeature(out, feature, scanIndices);
+        }
+      }
+    }
+    out.flush();
+  }
+
+  /**
+   * Reads a feature list written by {@link #write(DataOutputStream, ModularFeatureList)}. The
+   * stream is not closed.
+   *
+   * @param projectFiles raw data files are matched by name
+   * @param storage      storage for the new feature list and feature data
+   */
+  @NotNull
+  static ModularFeatureList read(@NotNull DataInputStream in,
+      @NotNull List<RawDataFile> projectFiles, @Nullable MemoryMapStorage storage)
+      throws IOException {
+    final byte[] table = DistributedBatchProtocol.readBytes(in,
+        DistributedBatchProtocol.MAX_PAYLOAD_LENGTH);
+    final ModularFeatureList flist = ColumnarFeatureTableReader.read(
+        new ByteArrayReadableSeekableByteChannel(table), projectFiles, storage);
+
+    final List<FeatureListRow> rows = flist.getRows();
+    for (RawDataFile raw : flist.getRawDataFiles()) {
+      final List<Scan> scans = raw.getScans();
+      final List<Scan> selected = readScans(in, scans);
+      if (selected != null) {
+        flist.setSelectedScans(raw, selected);
+      }
+      for (FeatureListRow row : rows) {
+        final ModularFeature feature = (ModularFeature) row.getFeature(raw);
+        if (feature != null) {
+          readFeature(in, feature, scans, storage);
+        }
+      }
+    }
+    return flist;
+  }
+
+  private static Reference2IntMap<Scan> indexScans(RawDataFile raw) {
+    final List<Scan> scans = raw.getScans();
+    final Reference2IntMap<Scan> indices = new Reference2IntOpenHashMap<>(scans.size());
+    indices.defaultReturnValue(ABSENT);
+    for (int i = 0; i < scans.size(); i++) {
+      indices.put(scans.get(i), i);
+    }
+    return indices;
+  }
+
+  private static int indexOf(Reference2IntMap<Scan> scanIndices, Scan scan) throws IOException {
+    final int index = scanIndices.getInt(scan);
+    if (index == ABSENT) {
+      throw new IOException("Scan " + scan + " is not part of the raw data file");
+    }
+    return index;
+  }
+
+  private static void writeFeature(DataOutputStream out, ModularFeature feature,
+      Reference2IntMap<Scan> scanIndices) throws IOException {
+    final IonTimeSeries<? extends Scan> data = feature.getFeatureData();
+    if (data instanceof IonMobilogramTimeSeries) {
+      throw new IOException("Ion mobility features cannot be exchanged between batch workers");
+    }
+    if (data == null) {
+      out.writeInt(ABSENT);
+    } else {
+      final int n = data.getNumberOfValues();
+      final List<? extends Scan> spectra = data.getSpectra();
+      out.writeInt(n);
+      for (int i = 0; i < n; i++) {
+        out.writeInt(indexOf(scanIndices, spectra.get(i)));
+      }
+      for (int i = 0; i < n; i++) {
+        out.writeDouble(data.getMZ(i));
+      }
+      for (int i = 0; i < n; i++) {
+        out.writeDouble(data.getIntensity(i));
+      }
+    }
+
+    final Scan representative = feature.getRepresentativeScan();
+    out.writeInt(representative == null ? ABSENT : indexOf(scanIndices, representative));
+    writeScans(out, feature.getAllMS2FragmentScans(), scanIndices);
+
+    final IsotopePattern pattern = feature.getIsotopePattern();
+    out.writeBoolean(pattern != null);
+    if (pattern != null) {
+      final int n = pattern.getNumberOfDataPoints();
+      out.writeInt(n);
+      for (int i = 0; i < n; i++) {
+        out.writeDouble(pattern.getMzValue(i));
+      }
+      for (int i = 0; i < n; i++) {
+        out.writeDouble(pattern.getIntensityValue(i));
+      }
+      out.writeInt(pattern.getCharge());
+      writeString(out, pattern.getStatus().name());
+      writeString(out, pattern.getDescription());
+    }
+  }
+
+  private static void readFeature(DataInputStream in, ModularFeature feature, List<Scan> scans,
+      @Nullable MemoryMapStorage storage) throws IOException {
+    final int n = readCount(in);
+    if (n != ABSENT) {
+      final List<Scan> spectra = new ArrayList<>(n);
+      for (int i = 0; i < n; i++) {
+        spectra.add(scanAt(scans, in.readInt()));
+      }
+      final double[] mzs = readDoubles(in, n);
+      final double[] intensities = readDoubles(in, n);
+      feature.set(FeatureDataType.class,
+          new SimpleIonTimeSeries(storage, mzs, intensities, spectra));
+    }
+
+    final int representative = in.readInt();
+    if (representative != ABSENT) {
+      feature.setRepresentativeScan(scanAt(scans, representative));
+    }
+    final List<Scan> fragmentScans = readScans(in, scans);
+    if (fragmentScans != null) {
+      feature.setAllMS2FragmentScans(fragmentScans);
+    }
+
+    if (in.readBoolean()) {
+      final int signals = in.readInt();
+      final double[] mzs = readDoubles(in, signals);
+      final double[] intensities = readDoubles(in, signals);
+      final int charge = in.readInt();
+      final IsotopePatternStatus status = IsotopePatternStatus.valueOf(readString(in));
+      final String description = readString(in);
+      feature.setIsotopePattern(
+          new SimpleIsotopePattern(mzs, intensities, charge, status, description));
+    }
+  }
+
+  private static void writeScans(DataOutputStream out, @Nullable List<? extends Scan> scans,
+      Reference2IntMap<Scan> scanIndices) throws IOException {
+    if (scans == null) {
+      out.writeInt(ABSENT);
+      return;
+    }
+    out.writeInt(scans.size());
+    for (Scan scan : scans) {
+      out.writeInt(indexOf(scanIndices, scan));
+    }
+  }
+
+  @Nullable
+  private static List<Scan> readScans(DataInputStream in, List<Scan> scans) throws IOException {
+    final int n = readCount(in);
+    if (n == ABSENT) {
+      return null;
+    }
+    final List<Scan> result = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      result.add(scanAt(scans, in.readInt()));
+    }
+    return result;
+  }
+
+  /**
+   * @return a number of values or {@link #ABSENT}
+   */
+  private static int readCount(DataInputStream in) throws IOException {
+    final int n = in.readInt();
+    if (n < ABSENT) {
+      throw new IOException("Invalid number of values " + n);
+    }
+    return n;
+  }
+
+  private static Scan scanAt(List<Scan> scans, int index) throws IOException {
+    if (index < 0 || index >= scans.size()) {
+      throw new IOException("Invalid scan index " + index);
+    }
+    return scans.get(index);
+  }
+
+  private static double[] readDoubles(DataInputStream in, int n) throws IOException {
+    if (n < 0) {
+      throw new IOException("Invalid number of values " + n);
+    }
+    final double[] values = new double[n];
+    for (int i = 0; i < n; i++) {
+      values[i] = in.readDouble();
+    }
+    return values;
+  }
+}
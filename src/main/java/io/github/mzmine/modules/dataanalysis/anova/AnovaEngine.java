@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.dataanalysis.anova;
+
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.features.Feature;
+import io.github.mzmine.datamodel.features.FeatureList;
+import io.github.mzmine.datamodel.features.FeatureListRow;
+import io.github.mzmine.datamodel.features.types.DataTypes;
+import io.github.mzmine.datamodel.features.types.numbers.HeightType;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+import org.apache.commons.math3.special.Beta;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * One-way ANOVA of all rows of a feature list. The feature heights are extracted once into one
+ * primitive array per sample, so that the test can be repeated for other groupings of the same
+ * samples without touching the features again. Group sums and squares are computed in parallel
+ * over blocks of rows, followed by the Benjamini-Hochberg adjustment of all p-values.
+ * <p>
+ * The heights are a snapshot taken in the constructor. {@link #forFeatureList(FeatureList,
+ * FeatureListRow[])} keeps the engine of each feature list and reuses it as long as the rows, the
+ * raw data files, the applied methods and the feature heights stay the same, e.g., when the test
+ * is repeated for another sample parameter.
+ */
+public class AnovaEngine {
+
+  private static final int ROW_BLOCK = 1024;
+
+  // weak keys: engines are dropped with their feature lists
+  private static final Map<FeatureList, AnovaEngine> engines = new WeakHashMap<>();
+  // feature lists with a height listener that invalidates their engine
+  private static final Set<FeatureList> observedFeatureLists = Collections.newSetFromMap(
+      new WeakHashMap<>());
+
+  private final RawDataFile[] samples;
+  // [sample][row], NaN for missing features
+  private final double[][] heights;
+  private final int numRows;
+  // the rows of the snapshot to validate cached engines
+  private final int[] rowIds;
+  private final int appliedMethods;
+
+  public AnovaEngine(@NotNull FeatureListRow[] rows, @NotNull List<RawDataFile> samples) {
+    this(rows, samples, -1);
+  }
+
+  private AnovaEngine(@NotNull FeatureListRow[] rows, @NotNull List<RawDataFile> samples,
+      int appliedMethods) {
+    this.samples = samples.toArray(RawDataFile[]::new);
+    this.numRows = rows.length;
+    this.appliedMethods = appliedMethods;
+    rowIds = Arrays.stream(rows).mapToInt(FeatureListRow::getID).toArray();
+    heights = new double[this.samples.length][numRows];
+    IntStream.range(0, numRows).parallel().forEach(r -> {
+      for (int s = 0; s < this.samples.length; s++) {
+        final Feature feature = rows[r].getFeature(this.samples[s]);
+        final Float height = feature == null ? null : feature.getHeight();
+        heights[s][r] = height == null ? Double.NaN : height;
+      }
+    });
+  }
+
+  /**
+   * @param rows the rows of the feature list to test
+   * @return the cached engine of this feature list if the rows, raw data files, applied methods
+   * and feature heights did not change since it was created, otherwise a new engine
+   */
+  @NotNull
+  public static AnovaEngine forFeatureList(@NotNull FeatureList flist,
+      @NotNull FeatureListRow[] rows) {
+    final List<RawDataFile> samples = List.copyOf(flist.getRawDataFiles());
+    final int appliedMethods = flist.getAppliedMethods().size();
+    synchronized (engines) {
+      final AnovaEngine cached = engines.get(flist);
+      if (cached != null && cached.matches(rows, samples, appliedMethods)) {
+        return cached;
+      }
+      if (observedFeatureLists.add(flist)) {
+        flist.addFeatureTypeListener(DataTypes.get(HeightType.class),
+            (dataModel, type, oldValue, newValue) -> {
+              synchronized (engines) {
+                engines.remove(flist);
+              }
+            });
+      }
+    }
+    final AnovaEngine engine = new AnovaEngine(rows, samples, appliedMethods);
+    synchronized (engines) {
+      engines.put(flist, engine);
+    }
+    return engine;
+  }
+
+  private boolean matches(FeatureListRow[] rows, List<RawDataFile> samples, int appliedMethods) {
+    if (this.appliedMethods != appliedMethods || rows.length != numRows
+        || !Arrays.equals(this.samples, samples.toArray())) {
+      return false;
+    }
+    for (int i = 0; i < rows.length; i++) {
+      if (rows[i].getID() != rowIds[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param groups the group index of each sample (in the order of the samples of the constructor)
+   *               or -1 to exclude the sample
+   * @return F statistic, p-value and adjusted p-value of each row or null if canceled
+   */
+  @Nullable
+  public AnovaResult compute(@NotNull int[] groups, @NotNull BooleanSupplier isCanceled) {
+    final int numGroups = Arrays.stream(groups).max().orElse(-1) + 1;
+    final double[] fValues = new double[numRows];
+    final double[] pValues = new double[numRows];
+    final int blocks = (numRows + ROW_BLOCK - 1) / ROW_BLOCK;
+    IntStream.range(0, blocks).parallel().forEach(b -> {
+      if (isCanceled.getAsBoolean()) {
+        return;
+      }
+      final int from = b * ROW_BLOCK;
+      final int to = Math.min(numRows, from + ROW_BLOCK);
+      final int size = to - from;
+      final int[][] counts = new int[numGroups][size];
+      final double[][] means = new double[numGroups][size];
+      final double[] within = new double[size];
+
+      // group means
+      for (int s = 0; s < samples.length; s++) {
+        final int g = groups[s];
+        if (g < 0) {
+          continue;
+        }
+        final double[] values = heights[s];
+        for (int r = from; r < to; r++) {
+          final double value = values[r];
+          if (!Double.isNaN(value)) {
+            counts[g][r - from]++;
+            means[g][r - from] += value;
+          }
+        }
+      }
+      for (int g = 0; g < numGroups; g++) {
+        for (int i = 0; i < size; i++) {
+          if (counts[g][i] > 0) {
+            means[g][i] /= counts[g][i];
+          }
+        }
+      }
+      // sum of squares within the groups
+      for (int s = 0; s < samples.length; s++) {
+        final int g = groups[s];
+        if (g < 0) {
+          continue;
+        }
+        final double[] values = heights[s];
+        for (int r = from; r < to; r++) {
+          final double value = values[r];
+          if (!Double.isNaN(value)) {
+            final double diff = value - means[g][r - from];
+            within[r - from] += diff * diff;
+          }
+        }
+      }
+
+      for (int i = 0; i < size; i++) {
+        // only groups with values count
+        int k = 0;
+        int n = 0;
+        double sum = 0;
+        for (int g = 0; g < numGroups; g++) {
+          if (counts[g][i] > 0) {
+            k++;
+            n += counts[g][i];
+            sum += means[g][i] * counts[g][i];
+          }
+        }
+        final double overallMean = n > 0 ? sum / n : 0;
+        double between = 0;
+        for (int g = 0; g < numGroups; g++) {
+          if (counts[g][i] > 0) {
+            final double diff = means[g][i] - overallMean;
+            between += counts[g][i] * diff * diff;
+          }
+        }
+        fValues[from + i] = Double.NaN;
+        pValues[from + i] = Double.NaN;
+        final int dfTreatment = k - 1;
+        final int dfError = n - k;
+        if (dfTreatment <= 0 || dfError <= 0 || within[i] == 0.0) {
+          continue;
+        }
+        final double f = (between / dfTreatment) / (within[i] / dfError);
+        fValues[from + i] = f;
+        pValues[from + i] = fSurvival(f, dfTreatment, dfError);
+      }
+    });
+    if (isCanceled.getAsBoolean()) {
+      return null;
+    }
+    return new AnovaResult(fValues, pValues, benjaminiHochberg(pValues));
+  }
+
+  /**
+   * Upper tail probability of the F distribution, computed directly from the regularized
+   * incomplete beta function to keep small p-values precise
+   */
+  static double fSurvival(double f, int df1, int df2) {
+    if (f <= 0) {
+      return 1d;
+    }
+    return Beta.regularizedBeta(df2 / (df2 + df1 * f), df2 / 2d, df1 / 2d);
+  }
+
+  /**
+   * Benjamini-Hochberg adjusted p-values. NaN p-values are not counted as tests and stay NaN.
+   */
+  static double[] benjaminiHochberg(double[] pValues) {
+    final double[] adjusted = new double[pValues.length];
+    Arrays.fill(adjusted, Double.NaN);
+    final int[] order = IntStream.range(0, pValues.length).filter(i -> !Double.isNaN(pValues[i]))
+        .boxed().sorted((a, b) -> Double.compare(pValues[a], pValues[b]))
+        .mapToInt(Integer::intValue).toArray();
+    final int m = order.length;
+    double min = 1d;
+    for (int rank = m; rank >= 1; rank--) {
+      final int index = order[rank - 1];
+      min = Math.min(min, pValues[index] * m / rank);
+      adjusted[index] = min;
+    }
+    return adjusted;
+  }
+
+  /**
+   * Results in the order of the rows. NaN if the test is not defined for a row.
+   */
+  public record AnovaResult(double[] fValues, double[] pValues, double[] qValues) {
+
+  }
+}
@@ -27,7 +27,6 @@ package io.github.mzmine.modules.dataanalysis.anova;
 
 import io.github.mzmine.datamodel.MZmineProject;
 import io.github.mzmine.datamodel.features.FeatureList;
-import io.github.mzmine.datamodel.features.FeatureListRow;
 import io.github.mzmine.modules.MZmineModuleCategory;
 import io.github.mzmine.modules.MZmineProcessingModule;
 import io.github.mzmine.parameters.ParameterSet;
@@ -62,7 +61,7 @@ public class AnovaModule implements MZmineProcessingModule {
         parameters.getParameter(AnovaParameters.featureLists).getValue().getMatchingFeatureLists();
 
     for (FeatureList featureList : featureLists) {
-      tasks.add(new AnovaTask(featureList.getRows().toArray(FeatureListRow[]::new), parameters, moduleCallDate));
+      tasks.add(new AnovaTask(featureList, parameters, moduleCallDate));
     }
 
     return ExitCode.OK;
@@ -28,30 +28,27 @@ package io.github.mzmine.modules.dataanalysis.anova;
 import io.github.mzmine.datamodel.FeatureInformation;
 import io.github.mzmine.datamodel.MZmineProject;
 import io.github.mzmine.datamodel.RawDataFile;
-import io.github.mzmine.datamodel.features.Feature;
+import io.github.mzmine.datamodel.features.FeatureList;
 import io.github.mzmine.datamodel.features.FeatureListRow;
+import io.github.mzmine.datamodel.features.ModularFeatureList;
+import io.github.mzmine.datamodel.features.ModularFeatureListRow;
+import io.github.mzmine.datamodel.features.types.DataTypes;
+import io.github.mzmine.datamodel.features.types.numbers.AnovaFStatisticType;
+import io.github.mzmine.datamodel.features.types.numbers.AnovaPValueType;
+import io.github.mzmine.datamodel.features.types.numbers.AnovaQValueType;
 import io.github.mzmine.datamodel.impl.SimpleFeatureInformation;
 import io.github.mzmine.main.MZmineCore;
+import io.github.mzmine.modules.dataanalysis.anova.AnovaEngine.AnovaResult;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.UserParameter;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
-import org.apache.commons.math3.distribution.FDistribution;
-import org.apache.commons.math3.exception.MathIllegalArgumentException;
 import org.jetbrains.annotations.NotNull;
-import org.jetbrains.annotations.Nullable;
 
 public class AnovaTask extends AbstractTask {
 
@@ -60,14 +57,17 @@ public class AnovaTask extends AbstractTask {
   private static final String P_VALUE_KEY = "ANOVA_P_VALUE";
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
-  private double finishedPercentage = 0.0;
+  private volatile double finishedPercentage = 0.0;
 
+  private final FeatureList featureList;
   private final FeatureListRow[] featureListRows;
   private final UserParameter userParameter;
 
-  public AnovaTask(FeatureListRow[] featureListRows, ParameterSet parameters, @NotNull Instant moduleCallDate) {
+  public AnovaTask(FeatureList featureList, ParameterSet parameters,
+      @NotNull Instant moduleCallDate) {
     super(null, moduleCallDate);
-    this.featureListRows = featureListRows;
+    this.featureList = featureList;
+    this.featureListRows = featureList.getRows().toArray(FeatureListRow[]::new);
     this.userParameter = parameters.getParameter(AnovaParameters.selectionData).getValue();
   }
 
@@ -93,8 +93,10 @@ public class AnovaTask extends AbstractTask {
     try {
       calculateSignificance();
 
-      setStatus(TaskStatus.FINISHED);
-      logger.info("Calculating significance is completed");
+      if (!isCanceled()) {
+        setStatus(TaskStatus.FINISHED);
+        logger.info("Calculating significance is completed");
+      }
     } catch (IllegalStateException e) {
       errorMsg = e.getMessage();
     } catch (Exception e) {
@@ -117,112 +119,73 @@ public class AnovaTask extends AbstractTask {
       return;
     }
 
-    List<Set<RawDataFile>> groups = getGroups(userParameter);
+    // group of each sample, -1 for samples without parameter value
+    final List<RawDataFile> samples = featureList.getRawDataFiles();
+    final int[] groups = getGroups(userParameter, samples);
 
     finishedPercentage = 0.0;
-    final double finishedStep = 1.0 / featureListRows.length;
-
-    for (FeatureListRow row : featureListRows) {
-
-      if (isCanceled()) {
-        break;
-      }
-
-      finishedPercentage += finishedStep;
+    // reuses the heights of the last run on this feature list, e.g., for another parameter
+    final AnovaEngine engine = AnovaEngine.forFeatureList(featureList, featureListRows);
+    finishedPercentage = 0.5;
+    final AnovaResult result = engine.compute(groups, this::isCanceled);
+    if (result == null) {
+      return;
+    }
+    finishedPercentage = 0.9;
 
-      double[][] intensityGroups = new double[groups.size()][];
-      for (int i = 0; i < groups.size(); ++i) {
-        Set<RawDataFile> groupFiles = groups.get(i);
-        intensityGroups[i] =
-            row.getFeatures().stream().filter(feature -> groupFiles.contains(feature.getRawDataFile()))
-                .mapToDouble(Feature::getHeight).toArray();
+    // Save results
+    if (featureList instanceof ModularFeatureList flist) {
+      flist.addRowType(DataTypes.get(AnovaFStatisticType.class));
+      flist.addRowType(DataTypes.get(AnovaPValueType.class));
+      flist.addRowType(DataTypes.get(AnovaQValueType.class));
+    }
+    for (int i = 0; i < featureListRows.length; i++) {
+      final FeatureListRow row = featureListRows[i];
+      final double pValue = result.pValues()[i];
+      if (row instanceof ModularFeatureListRow modularRow) {
+        modularRow.set(AnovaFStatisticType.class, valueOrNull(result.fValues()[i]));
+        modularRow.set(AnovaPValueType.class, valueOrNull(pValue));
+        modularRow.set(AnovaQValueType.class, valueOrNull(result.qValues()[i]));
       }
 
-      Double pValue = oneWayAnova(intensityGroups);
-
-      // Save results
       FeatureInformation featureInformation = row.getFeatureInformation();
       if (featureInformation == null) {
         featureInformation = new SimpleFeatureInformation();
       }
-      featureInformation.getAllProperties().put(P_VALUE_KEY,
-          pValue == null ? EMPTY_STRING : pValue.toString());
+      featureInformation.getAllProperties()
+          .put(P_VALUE_KEY, Double.isNaN(pValue) ? EMPTY_STRING : Double.toString(pValue));
       row.setFeatureInformation(featureInformation);
     }
+    finishedPercentage = 1.0;
   }
 
-  private List<Set<RawDataFile>> getGroups(UserParameter factor) {
+  private static Double valueOrNull(double value) {
+    return Double.isNaN(value) ? null : value;
+  }
+
+  /**
+   * @return the group index of each sample, -1 if the sample has no parameter value
+   */
+  private int[] getGroups(UserParameter factor, List<RawDataFile> samples) {
 
     MZmineProject project = MZmineCore.getProjectManager().getCurrentProject();
 
-    // Find the parameter value of each data file
-    Map<RawDataFile, Object> paramMap = new HashMap<>();
-    for (FeatureListRow row : featureListRows) {
-      for (RawDataFile file : row.getRawDataFiles()) {
-        Object paramValue = project.getParameterValue(factor, file);
-        if (paramValue != null) {
-          paramMap.put(file, paramValue);
-        }
+    // Form groups of files for each unique parameter value
+    final List<Object> paramValues = new ArrayList<>();
+    final int[] groups = new int[samples.size()];
+    for (int i = 0; i < samples.size(); i++) {
+      Object paramValue = project.getParameterValue(factor, samples.get(i));
+      if (paramValue == null) {
+        groups[i] = -1;
+        continue;
       }
+      int group = paramValues.indexOf(paramValue);
+      if (group == -1) {
+        group = paramValues.size();
+        paramValues.add(paramValue);
+      }
+      groups[i] = group;
     }
-
-    // Find unique parameter values
-    Object[] paramValues = paramMap.values().stream().distinct().toArray();
-
-    // Form groups of files for each parameter value
-    List<Set<RawDataFile>> groups = new ArrayList<>(paramValues.length);
-    for (Object paramValue : paramValues) {
-      groups.add(paramMap.entrySet().stream().filter(e -> paramValue.equals(e.getValue()))
-          .map(Entry::getKey).collect(Collectors.toSet()));
-    }
-
     return groups;
   }
-
-  @Nullable
-  private Double oneWayAnova(@NotNull double[][] intensityGroups) {
-
-    int numGroups = intensityGroups.length;
-    long numIntensities = Arrays.stream(intensityGroups).flatMapToDouble(Arrays::stream).count();
-
-    double[] groupMeans = Arrays.stream(intensityGroups)
-        .mapToDouble(intensities -> Arrays.stream(intensities).average().orElse(0.0)).toArray();
-
-    double overallMean =
-        Arrays.stream(intensityGroups).flatMapToDouble(Arrays::stream).average().orElse(0.0);
-
-    double sumOfSquaresOfError = IntStream.range(0, intensityGroups.length).mapToDouble(
-        i -> Arrays.stream(intensityGroups[i]).map(x -> x - groupMeans[i]).map(x -> x * x).sum())
-        .sum();
-
-    double sumOfSquaresOfTreatment =
-        (numGroups - 1) * Arrays.stream(groupMeans).map(x -> x - overallMean).map(x -> x * x).sum();
-
-    long degreesOfFreedomOfTreatment = numGroups - 1;
-    long degreesOfFreedomOfError = numIntensities - numGroups;
-
-    if (degreesOfFreedomOfTreatment <= 0 || degreesOfFreedomOfError <= 0) {
-      return null;
-    }
-
-    double meanSquareOfTreatment = sumOfSquaresOfTreatment / degreesOfFreedomOfTreatment;
-    double meanSquareOfError = sumOfSquaresOfError / degreesOfFreedomOfError;
-
-    if (meanSquareOfError == 0.0) {
-      return null;
-    }
-
-    double anovaStatistics = meanSquareOfTreatment / meanSquareOfError;
-
-    Double pValue = null;
-    try {
-      FDistribution distribution =
-          new FDistribution(degreesOfFreedomOfTreatment, degreesOfFreedomOfError);
-      pValue = 1.0 - distribution.cumulativeProbability(anovaStatistics);
-    } catch (MathIllegalArgumentException ex) {
-      logger.warning("Error during F-distribution calculation: " + ex.getMessage());
-    }
-
-    return pValue;
-  }
 }
@@ -27,10 +27,20 @@ package io.github.mzmine.modules.dataanalysis.clustering;
 
 import io.github.mzmine.modules.MZmineModule;
 import io.github.mzmine.parameters.ParameterSet;
-import weka.core.Instances;
+import java.util.function.BooleanSupplier;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public interface ClusteringAlgorithm extends MZmineModule {
 
-  public ClusteringResult performClustering(Instances dataset, ParameterSet parameters);
+  /**
+   * @param dataset    the items to cluster [item][dimension]
+   * @param names      the name of each item
+   * @param parameters the parameters of this algorithm
+   * @return the clustering result or null if canceled
+   */
+  @Nullable
+  public ClusteringResult performClustering(@NotNull double[][] dataset, @NotNull String[] names,
+      @NotNull ParameterSet parameters, @NotNull BooleanSupplier isCanceled);
 
 }
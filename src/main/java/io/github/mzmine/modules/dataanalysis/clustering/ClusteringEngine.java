@@ -0,0 +1,630 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.dataanalysis.clustering;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Partitioning clustering of items [item][dimension] on primitive matrices. The assignment of
+ * items to clusters and the parameter updates run in parallel over items or blocks of dimensions.
+ * <ul>
+ *   <li>k-means with k-means++ seeding (Arthur and Vassilvitskii, 2007). Up to 10,000 items,
+ *   Lloyd's algorithm runs on all items until no assignment changes. Larger data sets use
+ *   mini-batch updates with per center learning rates (Sculley, 2010) and a final assignment of all
+ *   items.</li>
+ *   <li>Farthest first traversal: each further center is the item farthest away from all previous
+ *   centers, the items are assigned to the nearest center.</li>
+ *   <li>EM on a Gaussian mixture with diagonal covariances, initialized by k-means. The number of
+ *   components is increased as long as the 10-fold cross-validated log-likelihood increases.</li>
+ * </ul>
+ * All methods return the cluster index of each item.
+ */
+public final class ClusteringEngine {
+
+  private static final int DIMENSION_BLOCK = 256;
+  private static final int MINI_BATCH = 1024;
+  // Lloyd's algorithm up to this number of items, mini-batch updates above
+  private static final int MINI_BATCH_THRESHOLD = 10_000;
+  private static final int MIN_MINI_BATCH_ITERATIONS = 100;
+  private static final int MAX_ITERATIONS = 500;
+  private static final int FOLDS = 10;
+  private static final double MIN_STD_DEV = 1e-6;
+  private static final double CONVERGENCE = 1e-6;
+  private static final double LOG_2_PI = Math.log(2d * Math.PI);
+  private static final long SEED = 42L;
+
+  private ClusteringEngine() {
+  }
+
+  /**
+   * Scales each dimension to the range 0 to 1 over all items, like the normalized distance
+   * functions of Weka. Dimensions without range are set to 0.
+   *
+   * @param x [item][dimension], not changed
+   * @return new normalized matrix [item][dimension]
+   */
+  @NotNull
+  public static double[][] normalizeRanges(@NotNull double[][] x) {
+    final int n = x.length;
+    final int p = n == 0 ? 0 : x[0].length;
+    final double[][] normalized = new double[n][p];
+    IntStream.range(0, blocks(p, DIMENSION_BLOCK)).parallel().forEach(b -> {
+      final int from = b * DIMENSION_BLOCK;
+      final int to = Math.min(p, from + DIMENSION_BLOCK);
+      final double[] min = new double[to - from];
+      final double[] max = new double[to - from];
+      Arrays.fill(min, Double.POSITIVE_INFINITY);
+      Arrays.fill(max, Double.NEGATIVE_INFINITY);
+      for (double[] item : x) {
+        for (int f = from; f < to; f++) {
+          min[f - from] = Math.min(min[f - from], item[f]);
+          max[f - from] = Math.max(max[f - from], item[f]);
+        }
+      }
+      for (int f = from; f < to; f++) {
+        final double range = max[f - from] - min[f - from];
+        final boolean valid = range > 0d && Double.isFinite(range);
+        for (int i = 0; i < n; i++) {
+          normalized[i][f] = valid ? (x[i][f] - min[f - from]) / range : 0d;
+        }
+      }
+    });
+    return normalized;
+  }
+
+  /**
+   * k-means clustering with k-means++ seeding.
+   *
+   * @param x        [item][dimension]
+   * @param clusters number of clusters, limited to the number of items
+   * @return the cluster of each item or null if canceled
+   */
+  @Nullable
+  public static int[] kMeans(@NotNull double[][] x, int clusters,
+      @NotNull BooleanSupplier isCanceled) {
+    final int n = x.length;
+    if (n == 0) {
+      return new int[0];
+    }
+    final Random random = new Random(SEED);
+    final double[][] centers = seeds(x, Math.max(1, Math.min(clusters, n)), random, false,
+        isCanceled);
+    if (centers == null) {
+      return null;
+    }
+    final int[] labels = new int[n];
+    Arrays.fill(labels, -1);
+    if (n > MINI_BATCH_THRESHOLD) {
+      if (!miniBatch(x, centers, random, isCanceled)) {
+        return null;
+      }
+      assign(x, centers, labels);
+      return labels;
+    }
+    return lloyd(x, centers, labels, MAX_ITERATIONS, isCanceled) ? labels : null;
+  }
+
+  /**
+   * Farthest first traversal starting at a random item.
+   *
+   * @param x        [item][dimension]
+   * @param clusters number of clusters, limited to the number of items
+   * @return the cluster of each item or null if canceled
+   */
+  @Nullable
+  public static int[] farthestFirst(@NotNull double[][] x, int clusters,
+      @NotNull BooleanSupplier isCanceled) {
+    final int n = x.length;
+    if (n == 0) {
+      return new int[0];
+    }
+    final double[][] centers = seeds(x, Math.max(1, Math.min(clusters, n)), new Random(SEED),
+        true, isCanceled);
+    if (centers == null) {
+      return null;
+    }
+    final int[] labels = new int[n];
+    Arrays.fill(labels, -1);
+    assign(x, centers, labels);
+    return labels;
+  }
+
+  /**
+   * EM clustering with a Gaussian mixture model. The number of components is selected by 10-fold
+   * cross-validation, starting with one component.
+   *
+   * @param x             [item][dimension]
+   * @param maxIterations maximum number of EM iterations for each model
+   * @return the most probable component of each item or null if canceled
+   */
+  @Nullable
+  public static int[] gaussianMixture(@NotNull double[][] x, int maxIterations,
+      @NotNull BooleanSupplier isCanceled) {
+    final int n = x.length;
+    if (n == 0) {
+      return new int[0];
+    }
+    final int components = selectComponents(x, maxIterations, isCanceled);
+    if (components < 1) {
+      return null;
+    }
+    final Mixture mixture = fitMixture(x, components, maxIterations, new Random(SEED),
+        isCanceled);
+    if (mixture == null) {
+      return null;
+    }
+    final double[][] normalization = mixture.logNormalization();
+    final int[] labels = new int[n];
+    IntStream.range(0, n).parallel().forEach(i -> {
+      final double[] joint = new double[components];
+      mixture.logJoint(x[i], normalization, joint);
+      int best = 0;
+      for (int c = 1; c < components; c++) {
+        if (joint[c] > joint[best]) {
+          best = c;
+        }
+      }
+      labels[i] = best;
+    });
+    return labels;
+  }
+
+  /**
+   * Adds components as long as the mean log-likelihood of the held out items increases. The folds
+   * are fitted in parallel.
+   *
+   * @return the number of components or 0 if canceled
+   */
+  private static int selectComponents(double[][] x, int maxIterations,
+      BooleanSupplier isCanceled) {
+    final int n = x.length;
+    final int folds = Math.min(FOLDS, n);
+    if (folds < 2) {
+      return 1;
+    }
+    final int[] order = IntStream.range(0, n).toArray();
+    shuffle(order, new Random(SEED));
+    // each component needs at least two items in the smallest training set
+    final int minTraining = n - (n + folds - 1) / folds;
+
+    double best = Double.NEGATIVE_INFINITY;
+    for (int k = 1; k * 2 <= minTraining; k++) {
+      final int components = k;
+      final double likelihood = IntStream.range(0, folds).parallel().mapToDouble(fold -> {
+        final double[][] training = IntStream.range(0, n).filter(i -> i % folds != fold)
+            .mapToObj(i -> x[order[i]]).toArray(double[][]::new);
+        final double[][] test = IntStream.range(0, n).filter(i -> i % folds == fold)
+            .mapToObj(i -> x[order[i]]).toArray(double[][]::new);
+        final Mixture mixture = fitMixture(training, components, maxIterations,
+            new Random(SEED + fold), isCanceled);
+        return mixture == null ? Double.NaN : mixture.logLikelihood(test) / test.length;
+      }).sum() / folds;
+
+      if (isCanceled.getAsBoolean()) {
+        return 0;
+      }
+      if (!(likelihood > best)) {
+        return Math.max(1, k - 1);
+      }
+      best = likelihood;
+    }
+    return Math.max(1, minTraining / 2);
+  }
+
+  /**
+   * Fits a mixture of diagonal Gaussians, starting from a k-means clustering.
+   *
+   * @return the fitted model or null if canceled
+   */
+  @Nullable
+  private static Mixture fitMixture(double[][] x, int components, int maxIterations,
+      Random random, BooleanSupplier isCanceled) {
+    final int n = x.length;
+    final int p = x[0].length;
+    final double[][] centers = seeds(x, components, random, false, isCanceled);
+    if (centers == null) {
+      return null;
+    }
+    final int[] labels = new int[n];
+    Arrays.fill(labels, -1);
+    if (!lloyd(x, centers, labels, MAX_ITERATIONS, isCanceled)) {
+      return null;
+    }
+
+    // start with hard assignments of the k-means clusters
+    final double[][] responsibilities = new double[n][components];
+    for (int i = 0; i < n; i++) {
+      responsibilities[i][labels[i]] = 1d;
+    }
+    final Mixture mixture = new Mixture(new double[components], centers,
+        new double[components][p]);
+    maximize(x, responsibilities, mixture);
+
+    double previous = Double.NEGATIVE_INFINITY;
+    for (int it = 0; it < maxIterations; it++) {
+      if (isCanceled.getAsBoolean()) {
+        return null;
+      }
+      final double likelihood = expect(x, mixture, responsibilities);
+      maximize(x, responsibilities, mixture);
+      if (likelihood - previous < CONVERGENCE) {
+        break;
+      }
+      previous = likelihood;
+    }
+    return mixture;
+  }
+
+  /**
+   * E-step: the posterior probability of each component for each item.
+   *
+   * @return the log-likelihood of all items
+   */
+  private static double expect(double[][] x, Mixture mixture, double[][] responsibilities) {
+    final int components = mixture.weights().length;
+    final double[][] normalization = mixture.logNormalization();
+    return IntStream.range(0, x.length).parallel().mapToDouble(i -> {
+      final double[] joint = responsibilities[i];
+      mixture.logJoint(x[i], normalization, joint);
+      final double total = logSumExp(joint);
+      for (int c = 0; c < components; c++) {
+        joint[c] = Math.exp(joint[c] - total);
+      }
+      return total;
+    }).sum();
+  }
+
+  /**
+   * M-step: weights, means and variances from the responsibilities. Components without weight
+   * keep their parameters. The means and variances are computed in parallel blocks of dimensions.
+   */
+  private static void maximize(double[][] x, double[][] responsibilities, Mixture mixture) {
+    final int n = x.length;
+    final int p = x[0].length;
+    final int components = mixture.weights().length;
+    final double[] totals = new double[components];
+    for (double[] r : responsibilities) {
+      for (int c = 0; c < components; c++) {
+        totals[c] += r[c];
+      }
+    }
+    for (int c = 0; c < components; c++) {
+      mixture.weights()[c] = Math.max(totals[c], Double.MIN_NORMAL) / n;
+    }
+
+    final double minVariance = MIN_STD_DEV * MIN_STD_DEV;
+    IntStream.range(0, blocks(p, DIMENSION_BLOCK)).parallel().forEach(b -> {
+      final int from = b * DIMENSION_BLOCK;
+      final int to = Math.min(p, from + DIMENSION_BLOCK);
+      for (int c = 0; c < components; c++) {
+        if (totals[c] <= Double.MIN_NORMAL) {
+          continue;
+        }
+        final double[] mean = mixture.means()[c];
+        final double[] variance = mixture.variances()[c];
+        Arrays.fill(mean, from, to, 0d);
+        Arrays.fill(variance, from, to, 0d);
+        for (int i = 0; i < n; i++) {
+          final double r = responsibilities[i][c];
+          if (r != 0d) {
+            for (int f = from; f < to; f++) {
+              mean[f] += r * x[i][f];
+            }
+          }
+        }
+        for (int f = from; f < to; f++) {
+          mean[f] /= totals[c];
+        }
+        for (int i = 0; i < n; i++) {
+          final double r = responsibilities[i][c];
+          if (r != 0d) {
+            for (int f = from; f < to; f++) {
+              final double d = x[i][f] - mean[f];
+              variance[f] += r * d * d;
+            }
+          }
+        }
+        for (int f = from; f < to; f++) {
+          variance[f] = Math.max(variance[f] / totals[c], minVariance);
+        }
+      }
+    });
+  }
+
+  /**
+   * Lloyd's algorithm on all items.
+   *
+   * @param labels current assignment or -1, updated
+   * @return false if canceled
+   */
+  private static boolean lloyd(double[][] x, double[][] centers, int[] labels, int maxIterations,
+      BooleanSupplier isCanceled) {
+    for (int it = 0; it < maxIterations; it++) {
+      if (isCanceled.getAsBoolean()) {
+        return false;
+      }
+      if (assign(x, centers, labels) == 0) {
+        break;
+      }
+      updateCenters(x, labels, centers);
+    }
+    return true;
+  }
+
+  /**
+   * Mini-batch k-means. Each batch is assigned in parallel to the current centers, then each
+   * center moves towards its items with a learning rate of 1 / (number of items seen).
+   *
+   * @return false if canceled
+   */
+  private static boolean miniBatch(double[][] x, double[][] centers, Random random,
+      BooleanSupplier isCanceled) {
+    final int n = x.length;
+    final int p = x[0].length;
+    final int[] counts = new int[centers.length];
+    final int[] batch = new int[Math.min(MINI_BATCH, n)];
+    final int[] nearest = new int[batch.length];
+    // about ten passes over the data
+    final int iterations = Math.min(MAX_ITERATIONS,
+        Math.max(MIN_MINI_BATCH_ITERATIONS, 10 * n / MINI_BATCH));
+    for (int it = 0; it < iterations; it++) {
+      if (isCanceled.getAsBoolean()) {
+        return false;
+      }
+      for (int b = 0; b < batch.length; b++) {
+        batch[b] = random.nextInt(n);
+      }
+      IntStream.range(0, batch.length).parallel()
+          .forEach(b -> nearest[b] = nearest(x[batch[b]], centers));
+      for (int b = 0; b < batch.length; b++) {
+        final double[] center = centers[nearest[b]];
+        final double[] item = x[batch[b]];
+        final double rate = 1d / ++counts[nearest[b]];
+        for (int f = 0; f < p; f++) {
+          center[f] += rate * (item[f] - center[f]);
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * k-means++ seeding, which samples each further center with a probability proportional to the
+   * squared distance to the nearest previous center, or the farthest first traversal. The
+   * distances to the nearest center are updated in parallel.
+   *
+   * @return copies of the seed items or null if canceled
+   */
+  @Nullable
+  private static double[][] seeds(double[][] x, int k, Random random, boolean farthest,
+      BooleanSupplier isCanceled) {
+    final int n = x.length;
+    final double[][] centers = new double[k][];
+    final double[] nearest = new double[n];
+    Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+    int next = random.nextInt(n);
+    for (int c = 0; c < k; c++) {
+      centers[c] = x[next].clone();
+      if (c == k - 1) {
+        break;
+      }
+      if (isCanceled.getAsBoolean()) {
+        return null;
+      }
+      final double[] center = centers[c];
+      IntStream.range(0, n).parallel()
+          .forEach(i -> nearest[i] = Math.min(nearest[i], squaredDistance(x[i], center)));
+
+      if (farthest) {
+        next = 0;
+        for (int i = 1; i < n; i++) {
+          if (nearest[i] > nearest[next]) {
+            next = i;
+          }
+        }
+      } else {
+        double total = 0d;
+        for (double d : nearest) {
+          total += d;
+        }
+        if (!(total > 0d) || !Double.isFinite(total)) {
+          // all items are on the centers already
+          next = random.nextInt(n);
+          continue;
+        }
+        double target = random.nextDouble() * total;
+        next = n - 1;
+        for (int i = 0; i < n; i++) {
+          target -= nearest[i];
+          if (target < 0d) {
+            next = i;
+            break;
+          }
+        }
+      }
+    }
+    return centers;
+  }
+
+  /**
+   * Assigns all items to the nearest center in parallel.
+   *
+   * @return the number of changed assignments
+   */
+  private static int assign(double[][] x, double[][] centers, int[] labels) {
+    return IntStream.range(0, x.length).parallel().map(i -> {
+      final int c = nearest(x[i], centers);
+      if (c == labels[i]) {
+        return 0;
+      }
+      labels[i] = c;
+      return 1;
+    }).sum();
+  }
+
+  /**
+   * Centers are the means of their items, empty clusters keep their center.
+   */
+  private static void updateCenters(double[][] x, int[] labels, double[][] centers) {
+    final int p = x[0].length;
+    final int[] counts = new int[centers.length];
+    for (int label : labels) {
+      counts[label]++;
+    }
+    IntStream.range(0, blocks(p, DIMENSION_BLOCK)).parallel().forEach(b -> {
+      final int from = b * DIMENSION_BLOCK;
+      final int to = Math.min(p, from + DIMENSION_BLOCK);
+      final double[][] sums = new double[centers.length][to - from];
+      for (int i = 0; i < x.length; i++) {
+        final double[] sum = sums[labels[i]];
+        for (int f = from; f < to; f++) {
+          sum[f - from] += x[i][f];
+        }
+      }
+      for (int c = 0; c < centers.length; c++) {
+        if (counts[c] > 0) {
+          for (int f = from; f < to; f++) {
+            centers[c][f] = sums[c][f - from] / counts[c];
+          }
+        }
+      }
+    });
+  }
+
+  private static int nearest(double[] item, double[][] centers) {
+    int best = 0;
+    double bestDistance = Double.POSITIVE_INFINITY;
+    for (int c = 0; c < centers.length; c++) {
+      final double d = squaredDistance(item, centers[c]);
+      if (d < bestDistance) {
+        bestDistance = d;
+        best = c;
+      }
+    }
+    return best;
+  }
+
+  private static double squaredDistance(double[] a, double[] b) {
+    double sum = 0d;
+    for (int f = 0; f < a.length; f++) {
+      final double d = a[f] - b[f];
+      sum += d * d;
+    }
+    return sum;
+  }
+
+  private static double logSumExp(double[] values) {
+    double max = Double.NEGATIVE_INFINITY;
+    for (double v : values) {
+      max = Math.max(max, v);
+    }
+    if (max == Double.NEGATIVE_INFINITY) {
+      return max;
+    }
+    double sum = 0d;
+    for (double v : values) {
+      sum += Math.exp(v - max);
+    }
+    return max + Math.log(sum);
+  }
+
+  private static void shuffle(int[] values, Random random) {
+    for (int i = values.length - 1; i > 0; i--) {
+      final int j = random.nextInt(i + 1);
+      final int tmp = values[i];
+      values[i] = values[j];
+      values[j] = tmp;
+    }
+  }
+
+  private static int blocks(int size, int blockSize) {
+    return (size + blockSize - 1) / blockSize;
+  }
+
+  /**
+   * Gaussian mixture with diagonal covariances. The arrays are updated in place by the M-step.
+   *
+   * @param weights   [component]
+   * @param means     [component][dimension]
+   * @param variances [component][dimension]
+   */
+  private record Mixture(double[] weights, double[][] means, double[][] variances) {
+
+    /**
+     * @return log weight and normalization constant of each component [0] and the inverse
+     * variances [1 + component][dimension]
+     */
+    double[][] logNormalization() {
+      final int components = weights.length;
+      final double[][] result = new double[components + 1][];
+      result[0] = new double[components];
+      for (int c = 0; c < components; c++) {
+        final double[] variance = variances[c];
+        final double[] inverse = new double[variance.length];
+        double logDet = 0d;
+        for (int f = 0; f < variance.length; f++) {
+          logDet += Math.log(variance[f]);
+          inverse[f] = 1d / variance[f];
+        }
+        result[0][c] = Math.log(weights[c]) - 0.5d * (variance.length * LOG_2_PI + logDet);
+        result[c + 1] = inverse;
+      }
+      return result;
+    }
+
+    /**
+     * @param joint receives log(weight * density) of each component
+     */
+    void logJoint(double[] item, double[][] normalization, double[] joint) {
+      for (int c = 0; c < weights.length; c++) {
+        final double[] mean = means[c];
+        final double[] inverse = normalization[c + 1];
+        double sum = 0d;
+        for (int f = 0; f < item.length; f++) {
+          final double d = item[f] - mean[f];
+          sum += d * d * inverse[f];
+        }
+        joint[c] = normalization[0][c] - 0.5d * sum;
+      }
+    }
+
+    double logLikelihood(double[][] items) {
+      final double[][] normalization = logNormalization();
+      final double[] joint = new double[weights.length];
+      double sum = 0d;
+      for (double[] item : items) {
+        logJoint(item, normalization, joint);
+        sum += logSumExp(joint);
+      }
+      return sum;
+    }
+  }
+}
@@ -25,6 +25,7 @@
 
 package io.github.mzmine.modules.dataanalysis.clustering;
 
+import java.util.Arrays;
 import java.util.List;
 
 public class ClusteringResult {
@@ -42,6 +43,14 @@ public class ClusteringResult {
     this.visualizationType = visualizationType;
   }
 
+  /**
+   * @param clusters the cluster index of each item, the number of groups is the highest index + 1
+   */
+  public ClusteringResult(int[] clusters, VisualizationType visualizationType) {
+    this(Arrays.stream(clusters).boxed().toList(), null,
+        Arrays.stream(clusters).max().orElse(-1) + 1, visualizationType);
+  }
+
   public List<Integer> getClusters() {
     return clusters;
   }
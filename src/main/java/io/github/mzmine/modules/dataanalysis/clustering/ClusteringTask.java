@@ -33,7 +33,8 @@ import io.github.mzmine.gui.Desktop;
 import io.github.mzmine.gui.chartbasics.simplechart.datasets.AbstractTaskXYDataset;
 import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.modules.MZmineProcessingStep;
-import io.github.mzmine.modules.dataanalysis.clustering.hierarchical.HierarClusterer;
+import io.github.mzmine.modules.dataanalysis.projectionplots.ProjectionEngine;
+import io.github.mzmine.modules.dataanalysis.projectionplots.ProjectionEngine.PcaResult;
 import io.github.mzmine.modules.dataanalysis.projectionplots.ProjectionPlotDataset;
 import io.github.mzmine.modules.dataanalysis.projectionplots.ProjectionPlotWindow;
 import io.github.mzmine.parameters.ParameterSet;
@@ -49,20 +50,15 @@ import javafx.scene.control.TextField;
 import javafx.scene.layout.BorderPane;
 import javafx.stage.Stage;
 import javax.swing.SwingUtilities;
-import jmprojection.PCA;
-import jmprojection.Preprocess;
-import jmprojection.ProjectionStatus;
-import jmprojection.Sammons;
-import weka.core.Attribute;
-import weka.core.FastVector;
-import weka.core.Instance;
-import weka.core.Instances;
-import weka.core.SparseInstance;
 import weka.gui.hierarchyvisualizer.HierarchyVisualizer;
 
 public class ClusteringTask extends AbstractTaskXYDataset implements ProjectionPlotDataset {
 
   private static final long serialVersionUID = 1L;
+  private static final int SAMMONS_ITERATIONS = 100;
+  // header line of each cluster in the Newick result of the hierarchical clusterer
+  private static final Pattern CLUSTER_HEADER = Pattern.compile("^Cluster \\d+$",
+      Pattern.MULTILINE);
 
   private final Logger logger = Logger.getLogger(this.getClass().getName());
 
@@ -78,11 +74,9 @@ public class ClusteringTask extends AbstractTaskXYDataset implements ProjectionP
   private final String datasetTitle;
   private final int xAxisDimension = 1;
   private final int yAxisDimension = 2;
-  private ProjectionStatus projectionStatus;
   private final MZmineProcessingStep<ClusteringAlgorithm> clusteringStep;
   private final ClusteringDataType typeOfData;
-  private Instances dataset;
-  private int progress;
+  private volatile double finishedPercentage;
   private final FeatureList featureList;
 
   public ClusteringTask(ParameterSet parameters) {
@@ -193,54 +187,37 @@ public class ClusteringTask extends AbstractTaskXYDataset implements ProjectionP
 
     logger.info("Clustering");
 
-    double[][] rawData;
-
-    // Creating weka dataset using samples or metabolites (variables)
-
+    // Matrix of samples or metabolites (variables)
+    final double[][] rawData;
+    final String[] names;
     if (typeOfData == ClusteringDataType.VARIABLES) {
       rawData = createMatrix(false);
-      dataset = createVariableWekaDataset(rawData);
+      names = createVariableNames();
     } else {
       rawData = createMatrix(true);
-      dataset = createSampleWekaDataset(rawData);
+      names = createSampleNames();
     }
 
     // Run the clustering algorithm
     ClusteringAlgorithm clusteringAlgorithm = clusteringStep.getModule();
     ParameterSet clusteringParameters = clusteringStep.getParameterSet();
-    ClusteringResult result = clusteringAlgorithm.performClustering(dataset, clusteringParameters);
+    ClusteringResult result = clusteringAlgorithm.performClustering(rawData, names,
+        clusteringParameters, this::isCanceled);
+    if (result == null || isCanceled()) {
+      return;
+    }
+    finishedPercentage = 0.5;
 
-    String cluster = "";
     if (clusteringAlgorithm.getName().equals("Hierarchical clusterer")) {
-      progress = 0;
-      // Getting the result of the clustering in Newick format
-      cluster = result.getHiearchicalCluster();
-
-      // Getting the number of clusters counting the number of times the
-      // word "cluster" is in the result
-      Pattern p = Pattern.compile("Cluster", Pattern.LITERAL | Pattern.CASE_INSENSITIVE);
-      int numberOfClusters = p.split(cluster, -1).length - 1;
-      if (numberOfClusters == 0) {
-        numberOfClusters = 1;
-      }
+      // Getting the result of the clustering in Newick format, each cluster after a line
+      // "Cluster i"
+      final String[] clusters = CLUSTER_HEADER.splitAsStream(result.getHiearchicalCluster())
+          .map(String::trim).filter(c -> !c.isEmpty()).toArray(String[]::new);
 
       // Visualization window for each cluster
-      for (int i = 0; i < numberOfClusters; i++) {
-        String c = null;
-        String clusterNumber = "Cluster " + i;
-        if (cluster.indexOf(clusterNumber) > 0) {
-          int nextNumber = i + 1;
-          String clusterNumber2 = "Cluster " + nextNumber;
-
-          if (cluster.indexOf(clusterNumber2) < 0) {
-            c = cluster.substring(cluster.indexOf(clusterNumber) + clusterNumber.length());
-          } else {
-            c = cluster.substring(cluster.indexOf(clusterNumber) + clusterNumber.length(),
-                cluster.indexOf(clusterNumber2));
-          }
-        } else {
-          c = cluster;
-        }
+      for (int i = 0; i < clusters.length; i++) {
+        final String c = clusters[i];
+        final String clusterNumber = "Cluster " + i;
 
         HierarchyVisualizer visualizer = new HierarchyVisualizer(c);
         SwingNode sn = new SwingNode();
@@ -269,7 +246,6 @@ public class ClusteringTask extends AbstractTaskXYDataset implements ProjectionP
         }
 
       }
-      progress = 100;
     } else {
 
       List<Integer> clusteringResult = result.getClusters();
@@ -326,38 +302,28 @@ public class ClusteringTask extends AbstractTaskXYDataset implements ProjectionP
         numComponents = yAxisDimension;
       }
 
-      if (result.getVisualizationType() == VisualizationType.PCA) {
-        // Scale data and do PCA
-        Preprocess.scaleToUnityVariance(rawData);
-        PCA pcaProj = new PCA(rawData, numComponents);
-        projectionStatus = pcaProj.getProjectionStatus();
-
-        double[][] pcaResult = pcaProj.getState();
-
-        if (isCanceled()) {
+      // Scale data and do PCA, which is also the start of Sammon's mapping
+      final double[][] scaled = ProjectionEngine.scaleToUnitVariance(rawData);
+      final PcaResult pca = ProjectionEngine.pca(scaled, numComponents, null, this::isCanceled);
+      if (pca == null) {
+        return;
+      }
+      double[][] projection = pca.scores();
+      if (result.getVisualizationType() == VisualizationType.SAMMONS) {
+        final double[][] distances = ProjectionEngine.distances(scaled, this::isCanceled);
+        if (distances == null) {
           return;
         }
-
-        component1Coords = pcaResult[xAxisDimension - 1];
-        component2Coords = pcaResult[yAxisDimension - 1];
-      } else if (result.getVisualizationType() == VisualizationType.SAMMONS) {
-        // Scale data and do Sammon's mapping
-        Preprocess.scaleToUnityVariance(rawData);
-        Sammons sammonsProj = new Sammons(rawData);
-        projectionStatus = sammonsProj.getProjectionStatus();
-
-        sammonsProj.iterate(100);
-
-        double[][] sammonsResult = sammonsProj.getState();
-
-        if (isCanceled()) {
+        projection = ProjectionEngine.sammon(distances, projection, SAMMONS_ITERATIONS,
+            this::isCanceled, p -> finishedPercentage = 0.5 + 0.5 * p);
+        if (projection == null) {
           return;
         }
-
-        component1Coords = sammonsResult[xAxisDimension - 1];
-        component2Coords = sammonsResult[yAxisDimension - 1];
       }
 
+      component1Coords = projection[xAxisDimension - 1];
+      component2Coords = projection[yAxisDimension - 1];
+
       if (!MZmineCore.isHeadLessMode()) {
         Platform.runLater(() -> {
           ProjectionPlotWindow newFrame = new ProjectionPlotWindow(
@@ -366,6 +332,7 @@ public class ClusteringTask extends AbstractTaskXYDataset implements ProjectionP
         });
       }
     }
+    finishedPercentage = 1.0;
     setStatus(TaskStatus.FINISHED);
     logger.info("Finished computing Clustering visualization.");
   }
@@ -426,83 +393,27 @@ public class ClusteringTask extends AbstractTaskXYDataset implements ProjectionP
   }
 
   /**
-   * Creates the weka data set for clustering of samples
-   *
-   * @param rawData Data extracted from selected Raw data files and rows.
-   * @return Weka library data set
+   * @return the names of the selected raw data files
    */
-  private Instances createSampleWekaDataset(double[][] rawData) {
-    FastVector attributes = new FastVector();
-
-    for (int i = 0; i < rawData[0].length; i++) {
-      String varName = "Var" + i;
-      Attribute var = new Attribute(varName);
-      attributes.addElement(var);
+  private String[] createSampleNames() {
+    String[] names = new String[selectedRawDataFiles.length];
+    for (int i = 0; i < selectedRawDataFiles.length; i++) {
+      names[i] = selectedRawDataFiles[i].getName();
     }
-
-    if (clusteringStep.getModule().getClass().equals(HierarClusterer.class)) {
-      Attribute name = new Attribute("name", (FastVector) null);
-      attributes.addElement(name);
-    }
-    Instances data = new Instances("Dataset", attributes, 0);
-
-    for (int i = 0; i < rawData.length; i++) {
-      double[] values = new double[data.numAttributes()];
-      System.arraycopy(rawData[i], 0, values, 0, rawData[0].length);
-      if (clusteringStep.getModule().getClass().equals(HierarClusterer.class)) {
-        values[data.numAttributes() - 1] = data.attribute("name")
-            .addStringValue(this.selectedRawDataFiles[i].getName());
-      }
-      Instance inst = new SparseInstance(1.0, values);
-      data.add(inst);
-    }
-    return data;
+    return names;
   }
 
   /**
-   * Creates the weka data set for clustering of variables (metabolites)
-   *
-   * @param rawData Data extracted from selected Raw data files and rows.
-   * @return Weka library data set
+   * @return the names of the selected rows (variables) with rounded m/z and RT
    */
-  private Instances createVariableWekaDataset(double[][] rawData) {
-    FastVector attributes = new FastVector();
-
-    for (int i = 0; i < this.selectedRawDataFiles.length; i++) {
-      String varName = "Var" + i;
-      Attribute var = new Attribute(varName);
-      attributes.addElement(var);
-    }
-
-    if (clusteringStep.getModule().getClass().equals(HierarClusterer.class)) {
-      Attribute name = new Attribute("name", (FastVector) null);
-      attributes.addElement(name);
-    }
-    Instances data = new Instances("Dataset", attributes, 0);
-
+  private String[] createVariableNames() {
+    DecimalFormat twoDForm = new DecimalFormat("#.##");
+    String[] names = new String[selectedRows.length];
     for (int i = 0; i < selectedRows.length; i++) {
-      double[] values = new double[data.numAttributes()];
-      System.arraycopy(rawData[i], 0, values, 0, rawData[0].length);
-
-      if (clusteringStep.getModule().getClass().equals(HierarClusterer.class)) {
-        DecimalFormat twoDForm = new DecimalFormat("#.##");
-        double MZ = Double.valueOf(twoDForm.format(selectedRows[i].getAverageMZ()));
-        double RT = Double.valueOf(twoDForm.format(selectedRows[i].getAverageRT()));
-        String rowName = "MZ->" + MZ + "/RT->" + RT;
-        values[data.numAttributes() - 1] = data.attribute("name").addStringValue(rowName);
-      }
-      Instance inst = new SparseInstance(1.0, values);
-      data.add(inst);
-    }
-    return data;
-  }
-
-  @Override
-  public void cancel() {
-    if (projectionStatus != null) {
-      projectionStatus.cancel();
+      names[i] = "MZ->" + twoDForm.format(selectedRows[i].getAverageMZ()) + "/RT->"
+          + twoDForm.format(selectedRows[i].getAverageRT());
     }
-    super.cancel();
+    return names;
   }
 
   @Override
@@ -512,18 +423,7 @@ public class ClusteringTask extends AbstractTaskXYDataset implements ProjectionP
 
   @Override
   public double getFinishedPercentage() {
-    if (this.projectionStatus != null) {
-      if (projectionStatus.getFinishedPercentage() > 1.0) {
-        return 1.0;
-      }
-      return projectionStatus.getFinishedPercentage();
-    } else {
-      if (progress > 100) {
-        return 1.0;
-      }
-      progress++;
-      return ((double) progress / 100);
-    }
+    return finishedPercentage;
   }
 
 }
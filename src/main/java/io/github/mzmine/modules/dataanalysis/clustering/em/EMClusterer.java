@@ -25,25 +25,16 @@
 
 package io.github.mzmine.modules.dataanalysis.clustering.em;
 
-import java.util.ArrayList;
-import java.util.Enumeration;
-import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-
-import org.jetbrains.annotations.NotNull;
-
 import io.github.mzmine.modules.dataanalysis.clustering.ClusteringAlgorithm;
+import io.github.mzmine.modules.dataanalysis.clustering.ClusteringEngine;
 import io.github.mzmine.modules.dataanalysis.clustering.ClusteringResult;
 import io.github.mzmine.parameters.ParameterSet;
-import weka.clusterers.EM;
-import weka.core.Instance;
-import weka.core.Instances;
+import java.util.function.BooleanSupplier;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public class EMClusterer implements ClusteringAlgorithm {
 
-  private Logger logger = Logger.getLogger(this.getClass().getName());
-
   private static final String MODULE_NAME = "Density-based clusterer";
 
   @Override
@@ -52,32 +43,18 @@ public class EMClusterer implements ClusteringAlgorithm {
   }
 
   @Override
-  public ClusteringResult performClustering(Instances dataset, ParameterSet parameters) {
-
-    List<Integer> clusters = new ArrayList<Integer>();
-    String[] options = new String[2];
-    EM clusterer = new EM();
-
-    int numberOfIterations =
+  public @Nullable ClusteringResult performClustering(@NotNull double[][] dataset,
+      @NotNull String[] names, @NotNull ParameterSet parameters,
+      @NotNull BooleanSupplier isCanceled) {
+    final int numberOfIterations =
         parameters.getParameter(EMClustererParameters.numberOfIterations).getValue();
-    options[0] = "-I";
-    options[1] = String.valueOf(numberOfIterations);
-
-    try {
-      clusterer.setOptions(options);
-      clusterer.buildClusterer(dataset);
-      Enumeration<?> e = dataset.enumerateInstances();
-      while (e.hasMoreElements()) {
-        clusters.add(clusterer.clusterInstance((Instance) e.nextElement()));
-      }
-      ClusteringResult result = new ClusteringResult(clusters, null, clusterer.numberOfClusters(),
-          parameters.getParameter(EMClustererParameters.visualization).getValue());
-      return result;
-
-    } catch (Exception ex) {
-      logger.log(Level.SEVERE, null, ex);
+    final int[] clusters = ClusteringEngine.gaussianMixture(dataset, numberOfIterations,
+        isCanceled);
+    if (clusters == null) {
       return null;
     }
+    return new ClusteringResult(clusters,
+        parameters.getParameter(EMClustererParameters.visualization).getValue());
   }
 
   @Override
@@ -24,26 +24,16 @@
  */
 package io.github.mzmine.modules.dataanalysis.clustering.farthestfirst;
 
-import java.util.ArrayList;
-import java.util.Enumeration;
-import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-
-import org.jetbrains.annotations.NotNull;
-
 import io.github.mzmine.modules.dataanalysis.clustering.ClusteringAlgorithm;
+import io.github.mzmine.modules.dataanalysis.clustering.ClusteringEngine;
 import io.github.mzmine.modules.dataanalysis.clustering.ClusteringResult;
-import io.github.mzmine.modules.dataanalysis.clustering.em.EMClustererParameters;
 import io.github.mzmine.parameters.ParameterSet;
-import weka.clusterers.FarthestFirst;
-import weka.core.Instance;
-import weka.core.Instances;
+import java.util.function.BooleanSupplier;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public class FarthestFirstClusterer implements ClusteringAlgorithm {
 
-  private Logger logger = Logger.getLogger(this.getClass().getName());
-
   private static final String MODULE_NAME = "Farthest first clusterer";
 
   @Override
@@ -52,31 +42,19 @@ public class FarthestFirstClusterer implements ClusteringAlgorithm {
   }
 
   @Override
-  public ClusteringResult performClustering(Instances dataset, ParameterSet parameters) {
-
-    List<Integer> clusters = new ArrayList<Integer>();
-    String[] options = new String[2];
-    FarthestFirst clusterer = new FarthestFirst();
-
-    int numberOfGroups =
+  public @Nullable ClusteringResult performClustering(@NotNull double[][] dataset,
+      @NotNull String[] names, @NotNull ParameterSet parameters,
+      @NotNull BooleanSupplier isCanceled) {
+    final int numberOfGroups =
         parameters.getParameter(FarthestFirstClustererParameters.numberOfGroups).getValue();
-    options[0] = "-N";
-    options[1] = String.valueOf(numberOfGroups);
-
-    try {
-      clusterer.setOptions(options);
-      clusterer.buildClusterer(dataset);
-      Enumeration<?> e = dataset.enumerateInstances();
-      while (e.hasMoreElements()) {
-        clusters.add(clusterer.clusterInstance((Instance) e.nextElement()));
-      }
-      ClusteringResult result = new ClusteringResult(clusters, null, clusterer.numberOfClusters(),
-          parameters.getParameter(EMClustererParameters.visualization).getValue());
-      return result;
-    } catch (Exception ex) {
-      logger.log(Level.SEVERE, null, ex);
+    // distances on dimensions normalized to their range, like Weka's FarthestFirst
+    final int[] clusters = ClusteringEngine.farthestFirst(
+        ClusteringEngine.normalizeRanges(dataset), numberOfGroups, isCanceled);
+    if (clusters == null) {
       return null;
     }
+    return new ClusteringResult(clusters,
+        parameters.getParameter(FarthestFirstClustererParameters.visualization).getValue());
   }
 
   @Override
@@ -25,71 +25,53 @@
 
 package io.github.mzmine.modules.dataanalysis.clustering.hierarchical;
 
-import java.util.logging.Level;
-import java.util.logging.Logger;
-
-import org.jetbrains.annotations.NotNull;
-
 import io.github.mzmine.modules.dataanalysis.clustering.ClusteringAlgorithm;
+import io.github.mzmine.modules.dataanalysis.clustering.ClusteringEngine;
 import io.github.mzmine.modules.dataanalysis.clustering.ClusteringResult;
+import io.github.mzmine.modules.dataanalysis.clustering.hierarchical.LinkageEngine.Tree;
 import io.github.mzmine.parameters.ParameterSet;
-import weka.clusterers.HierarchicalClusterer;
-import weka.core.Instances;
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public class HierarClusterer implements ClusteringAlgorithm {
 
-  private Logger logger = Logger.getLogger(this.getClass().getName());
-
   private static final String MODULE_NAME = "Hierarchical clusterer";
 
+  // the tree is split into this number of clusters, like Weka's hierarchical clusterer did
+  private static final int NUMBER_OF_CLUSTERS = 2;
+
   @Override
   public @NotNull String getName() {
     return MODULE_NAME;
   }
 
   @Override
-  public ClusteringResult performClustering(Instances dataset, ParameterSet parameters) {
-    HierarchicalClusterer clusterer = new HierarchicalClusterer();
-    String[] options = new String[5];
+  public @Nullable ClusteringResult performClustering(@NotNull double[][] dataset,
+      @NotNull String[] names, @NotNull ParameterSet parameters,
+      @NotNull BooleanSupplier isCanceled) {
     LinkType link = parameters.getParameter(HierarClustererParameters.linkType).getValue();
     DistanceType distanceType =
         parameters.getParameter(HierarClustererParameters.distanceType).getValue();
-    options[0] = "-L";
-    options[1] = link.name();
-    options[2] = "-A";
-    switch (distanceType) {
-      case EUCLIDIAN:
-        options[3] = "weka.core.EuclideanDistance";
-        break;
-      case CHEBYSHEV:
-        options[3] = "weka.core.ChebyshevDistance";
-        break;
-      case MANHATTAN:
-        options[3] = "weka.core.ManhattanDistance";
-        break;
-      case MINKOWSKI:
-        options[3] = "weka.core.MinkowskiDistance";
-        break;
-    }
 
-    options[4] = "-P";
-    try {
-      clusterer.setOptions(options);
-      clusterer.setPrintNewick(true);
-      clusterer.buildClusterer(dataset);
-      // clusterer.graph() gives only the first cluster and in the case
-      // there
-      // are more than one cluster the variables in the second cluster are
-      // missing.
-      // I'm using clusterer.toString() which contains all the clusters in
-      // Newick format.
-      ClusteringResult result =
-          new ClusteringResult(null, clusterer.toString(), clusterer.getNumClusters(), null);
-      return result;
-    } catch (Exception ex) {
-      logger.log(Level.SEVERE, null, ex);
+    // distances on dimensions normalized to their range, like Weka's distance functions
+    final Tree tree = LinkageEngine.cluster(ClusteringEngine.normalizeRanges(dataset), link,
+        distanceType, isCanceled);
+    if (tree == null) {
       return null;
     }
+
+    // all clusters in Newick format, each after a line "Cluster i"
+    final int[] roots = tree.roots(NUMBER_OF_CLUSTERS);
+    final StringBuilder newick = new StringBuilder();
+    for (int i = 0; i < roots.length; i++) {
+      newick.append("Cluster ").append(i).append('\n').append(tree.toNewick(roots[i], names))
+          .append("\n\n");
+    }
+    final int[] clusters = tree.leafClusters(roots);
+    return new ClusteringResult(Arrays.stream(clusters).boxed().toList(), newick.toString(),
+        roots.length, null);
   }
 
   @Override
@@ -0,0 +1,900 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.dataanalysis.clustering.hierarchical;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Agglomerative hierarchical clustering of items [item][dimension] with the link types and
+ * distance functions of the hierarchical clusterer. The heat maps use complete linkage of euclidean
+ * distances, like hclust(dist(x)) in R.
+ * <p>
+ * The distances are computed in parallel and stored as a condensed upper triangle of floats
+ * (n * (n-1) / 2 values, 800 MB for 20,000 items). Single, complete, average and Ward linkage use the nearest neighbor chain
+ * algorithm with Lance-Williams updates in O(n^2) time (Muellner, 2011). Mean, centroid and
+ * adjusted complete linkage are not reducible and use the generic algorithm with a cache of the
+ * nearest neighbor of each cluster. Neighbor joining follows Saitou and Nei (1987). Nearest neighbor
+ * searches and distance updates run in parallel for large numbers of clusters.
+ */
+public final class LinkageEngine {
+
+  // parallel searches and updates above this number of clusters
+  private static final int PARALLEL = 8192;
+  // tiles of the euclidean distance matrix
+  private static final int ITEM_BLOCK = 64;
+  private static final int DIMENSION_BLOCK = 4096;
+  // Weka's default order of the Minkowski distance
+  private static final double MINKOWSKI_ORDER = 2d;
+
+  private LinkageEngine() {
+  }
+
+  /**
+   * @param x        [item][dimension], NaN for missing values (euclidean distance only)
+   * @param link     the link type
+   * @param distance the distance between items
+   * @return the tree or null if canceled
+   */
+  @Nullable
+  public static Tree cluster(@NotNull double[][] x, @NotNull LinkType link,
+      @NotNull DistanceType distance, @NotNull BooleanSupplier isCanceled) {
+    final int n = x.length;
+    if (link == LinkType.CENTROID) {
+      return generic(n, new CentroidLinkage(x, distance), isCanceled);
+    }
+    final float[] d = distances(x, distance, isCanceled);
+    if (d == null) {
+      return null;
+    }
+    return switch (link) {
+      case SINGLE, COMPLETE, AVERAGE, WARD -> nearestNeighborChain(d, n, link, isCanceled);
+      case MEAN -> generic(n, new MeanLinkage(d, n), isCanceled);
+      case ADJUSTEDCOMPLETE -> generic(n, new AdjustedCompleteLinkage(d, n), isCanceled);
+      case NEIGHBOT -> neighborJoining(d, n, isCanceled);
+      case CENTROID -> throw new IllegalStateException("Centroid linkage needs the items");
+    };
+  }
+
+  /**
+   * The items that R's heat map keeps for the clustering. It removes each item that has no common
+   * dimension with any previous item (na.omit on the lower triangle of the dist matrix), because
+   * their distance is not defined.
+   *
+   * @param x [item][dimension], NaN for missing values
+   * @return the indices of the kept items in ascending order
+   */
+  @NotNull
+  public static int[] omitIncomparable(@NotNull double[][] x) {
+    // distinct patterns of present dimensions of the previous items
+    final Set<BitSet> previousPatterns = new LinkedHashSet<>();
+    final int[] kept = new int[x.length];
+    int numKept = 0;
+    for (int i = 0; i < x.length; i++) {
+      final BitSet present = new BitSet(x[i].length);
+      for (int f = 0; f < x[i].length; f++) {
+        if (Double.isFinite(x[i][f])) {
+          present.set(f);
+        }
+      }
+      if (previousPatterns.stream().allMatch(present::intersects)) {
+        kept[numKept++] = i;
+      }
+      previousPatterns.add(present);
+    }
+    return Arrays.copyOf(kept, numKept);
+  }
+
+  /**
+   * Distances between all items as condensed upper triangle, see {@link #index(int, int, int)}.
+   * Rows are computed in parallel, euclidean distances in tiles, see
+   * {@link #euclideanDistances(double[][], BooleanSupplier)}.
+   *
+   * @return the distances or null if canceled
+   */
+  @Nullable
+  static float[] distances(@NotNull double[][] x, @NotNull DistanceType type,
+      @NotNull BooleanSupplier isCanceled) {
+    final int n = x.length;
+    if (type == DistanceType.EUCLIDIAN) {
+      return euclideanDistances(x, isCanceled);
+    }
+    final float[] d = new float[condensedSize(n)];
+    IntStream.range(0, n).parallel().forEach(i -> {
+      if (isCanceled.getAsBoolean()) {
+        return;
+      }
+      int index = index(i, i + 1, n);
+      for (int j = i + 1; j < n; j++) {
+        d[index++] = (float) distance(x[i], x[j], type);
+      }
+    });
+    return isCanceled.getAsBoolean() ? null : d;
+  }
+
+  private static int condensedSize(int n) {
+    final long size = (long) n * (n - 1) / 2;
+    if (size > Integer.MAX_VALUE - 8) {
+      throw new IllegalArgumentException(
+          "Too many items for hierarchical clustering (" + n + "). Filter the feature list.");
+    }
+    return (int) size;
+  }
+
+  /**
+   * Euclidean distances with missing values (NaN) handled like in R's dist: only dimensions present
+   * in both vectors are used and the sum is scaled up to all dimensions. R's dist is NA for pairs
+   * without common dimensions and hclust fails on them. Here, these pairs get the maximum distance,
+   * so use {@link #omitIncomparable(double[][])} to remove such items like R's heat map.
+   * <p>
+   * Missing values are set to 0 so that the inner loop is a plain dot product:
+   * |xi-xj|^2 = |xi|^2 + |xj|^2 - 2 xi*xj. The terms of dimensions missing in only one of the
+   * two vectors are subtracted afterwards by iterating over the missing dimensions.
+   *
+   * @return the distances or null if canceled
+   */
+  @Nullable
+  static float[] euclideanDistances(@NotNull double[][] x, @NotNull BooleanSupplier isCanceled) {
+    final int n = x.length;
+    final int p = n == 0 ? 0 : x[0].length;
+    final float[] d = new float[condensedSize(n)];
+
+    final double[][] values = new double[n][];
+    final double[] norms = new double[n];
+    final int[][] missing = new int[n][];
+    final boolean[][] isMissing = new boolean[n][];
+    IntStream.range(0, n).parallel().forEach(i -> {
+      values[i] = new double[p];
+      isMissing[i] = new boolean[p];
+      int numMissing = 0;
+      for (int f = 0; f < p; f++) {
+        final double value = x[i][f];
+        if (Double.isFinite(value)) {
+          values[i][f] = value;
+          norms[i] += value * value;
+        } else {
+          isMissing[i][f] = true;
+          numMissing++;
+        }
+      }
+      missing[i] = new int[numMissing];
+      for (int f = 0, m = 0; f < p; f++) {
+        if (isMissing[i][f]) {
+          missing[i][m++] = f;
+        }
+      }
+    });
+
+    final int tiles = (n + ITEM_BLOCK - 1) / ITEM_BLOCK;
+    IntStream.range(0, tiles * tiles).filter(t -> t / tiles <= t % tiles).parallel()
+        .forEach(t -> {
+          if (isCanceled.getAsBoolean()) {
+            return;
+          }
+          final int fromI = (t / tiles) * ITEM_BLOCK;
+          final int toI = Math.min(n, fromI + ITEM_BLOCK);
+          final int fromJ = (t % tiles) * ITEM_BLOCK;
+          final int toJ = Math.min(n, fromJ + ITEM_BLOCK);
+          final double[][] products = new double[toI - fromI][toJ - fromJ];
+          for (int from = 0; from < p; from += DIMENSION_BLOCK) {
+            final int to = Math.min(p, from + DIMENSION_BLOCK);
+            for (int i = fromI; i < toI; i++) {
+              final double[] xi = values[i];
+              for (int j = Math.max(fromJ, i + 1); j < toJ; j++) {
+                final double[] xj = values[j];
+                double sum = 0;
+                for (int f = from; f < to; f++) {
+                  sum += xi[f] * xj[f];
+                }
+                products[i - fromI][j - fromJ] += sum;
+              }
+            }
+          }
+          for (int i = fromI; i < toI; i++) {
+            for (int j = Math.max(fromJ, i + 1); j < toJ; j++) {
+              double squared = norms[i] + norms[j] - 2d * products[i - fromI][j - fromJ];
+              int count = p - missing[i].length;
+              // remove dimensions that are only present in one vector
+              for (int f : missing[i]) {
+                squared -= values[j][f] * values[j][f];
+              }
+              for (int f : missing[j]) {
+                squared -= values[i][f] * values[i][f];
+                if (!isMissing[i][f]) {
+                  count--;
+                }
+              }
+              d[index(i, j, n)] = count <= 0 ? Float.NaN
+                  : (float) Math.sqrt(Math.max(squared, 0d) * p / count);
+            }
+          }
+        });
+    if (isCanceled.getAsBoolean()) {
+      return null;
+    }
+
+    float max = 0f;
+    for (float value : d) {
+      if (value > max) {
+        max = value;
+      }
+    }
+    for (int i = 0; i < d.length; i++) {
+      if (Float.isNaN(d[i])) {
+        d[i] = max;
+      }
+    }
+    return d;
+  }
+
+  static double distance(double[] a, double[] b, DistanceType type) {
+    double sum = 0d;
+    switch (type) {
+      case EUCLIDIAN -> {
+        for (int f = 0; f < a.length; f++) {
+          final double diff = a[f] - b[f];
+          sum += diff * diff;
+        }
+        return Math.sqrt(sum);
+      }
+      case MANHATTAN -> {
+        for (int f = 0; f < a.length; f++) {
+          sum += Math.abs(a[f] - b[f]);
+        }
+        return sum;
+      }
+      case CHEBYSHEV -> {
+        for (int f = 0; f < a.length; f++) {
+          sum = Math.max(sum, Math.abs(a[f] - b[f]));
+        }
+        return sum;
+      }
+      case MINKOWSKI -> {
+        for (int f = 0; f < a.length; f++) {
+          sum += Math.pow(Math.abs(a[f] - b[f]), MINKOWSKI_ORDER);
+        }
+        return Math.pow(sum, 1d / MINKOWSKI_ORDER);
+      }
+    }
+    throw new IllegalArgumentException("Unknown distance " + type);
+  }
+
+  /**
+   * Nearest neighbor chain clustering with Lance-Williams updates of the condensed distances,
+   * which are overwritten. Ward's linkage works on squared distances, the heights are the square
+   * roots like ward.D2 in R.
+   *
+   * @return the tree with merges sorted by height or null if canceled
+   */
+  @Nullable
+  static Tree nearestNeighborChain(@NotNull float[] d, int n, @NotNull LinkType link,
+      @NotNull BooleanSupplier isCanceled) {
+    if (link == LinkType.WARD) {
+      for (int i = 0; i < d.length; i++) {
+        d[i] *= d[i];
+      }
+    }
+    // merges of the clusters that contain the two leaves
+    final int[][] pairs = new int[Math.max(n - 1, 0)][2];
+    final double[] heights = new double[pairs.length];
+    final boolean[] active = new boolean[n];
+    final int[] size = new int[n];
+    Arrays.fill(active, true);
+    Arrays.fill(size, 1);
+
+    final int[] chain = new int[n];
+    int length = 0;
+    int firstActive = 0;
+    for (int m = 0; m < pairs.length; m++) {
+      if (isCanceled.getAsBoolean()) {
+        return null;
+      }
+      if (length == 0) {
+        while (!active[firstActive]) {
+          firstActive++;
+        }
+        chain[length++] = firstActive;
+      }
+      // grow the chain until two clusters are reciprocal nearest neighbors
+      int a;
+      int b;
+      while (true) {
+        a = chain[length - 1];
+        b = length > 1 ? chain[length - 2] : -1;
+        final int next = nearest(d, n, active, a, b);
+        if (next == b) {
+          break;
+        }
+        chain[length++] = next;
+      }
+      length -= 2;
+
+      // the merged cluster stays in the lower slot, which always holds a leaf of the cluster
+      final int lo = Math.min(a, b);
+      final int hi = Math.max(a, b);
+      final double dab = d[index(lo, hi, n)];
+      pairs[m][0] = lo;
+      pairs[m][1] = hi;
+      heights[m] = link == LinkType.WARD ? Math.sqrt(dab) : dab;
+
+      final int sa = size[a];
+      final int sb = size[b];
+      final int first = a;
+      final int second = b;
+      final IntStream update = IntStream.range(0, n);
+      (n >= PARALLEL ? update.parallel() : update).forEach(x -> {
+        if (active[x] && x != first && x != second) {
+          final float dax = d[index(first, x, n)];
+          final float dbx = d[index(second, x, n)];
+          d[index(lo, x, n)] = (float) switch (link) {
+            case SINGLE -> Math.min(dax, dbx);
+            case COMPLETE -> Math.max(dax, dbx);
+            case AVERAGE -> (sa * (double) dax + sb * (double) dbx) / (sa + sb);
+            case WARD -> ((sa + size[x]) * (double) dax + (sb + size[x]) * (double) dbx
+                - size[x] * dab) / (sa + sb + size[x]);
+            default -> throw new IllegalArgumentException(link + " is not reducible");
+          };
+        }
+      });
+      active[hi] = false;
+      size[lo] = sa + sb;
+    }
+    return sortedTree(n, pairs, heights);
+  }
+
+  /**
+   * Sorts the merges by height and labels the merged clusters as tree nodes.
+   *
+   * @param pairs a leaf of each of the two merged clusters
+   */
+  private static Tree sortedTree(int n, int[][] pairs, double[] heights) {
+    final Integer[] order = IntStream.range(0, pairs.length).boxed()
+        .sorted(Comparator.comparingDouble(m -> heights[m])).toArray(Integer[]::new);
+    // union find of leaves, the root of each set knows its node
+    final int[] parent = IntStream.range(0, n).toArray();
+    final int[] node = IntStream.range(0, n).toArray();
+    final int[][] merges = new int[pairs.length][2];
+    final double[] sortedHeights = new double[pairs.length];
+    for (int m = 0; m < order.length; m++) {
+      final int ra = find(parent, pairs[order[m]][0]);
+      final int rb = find(parent, pairs[order[m]][1]);
+      merges[m][0] = Math.min(node[ra], node[rb]);
+      merges[m][1] = Math.max(node[ra], node[rb]);
+      sortedHeights[m] = heights[order[m]];
+      parent[rb] = ra;
+      node[ra] = n + m;
+    }
+    return Tree.fromHeights(n, merges, sortedHeights);
+  }
+
+  private static int find(int[] parent, int i) {
+    while (parent[i] != i) {
+      parent[i] = parent[parent[i]];
+      i = parent[i];
+    }
+    return i;
+  }
+
+  /**
+   * Generic agglomerative clustering for linkages that are not reducible. Each cluster caches its
+   * nearest neighbor among the clusters in higher slots. After a merge only the caches that pointed
+   * to one of the merged clusters are searched again.
+   *
+   * @return the tree with merges in the order of the clustering or null if canceled
+   */
+  @Nullable
+  static Tree generic(int n, @NotNull Linkage linkage, @NotNull BooleanSupplier isCanceled) {
+    final int[][] merges = new int[Math.max(n - 1, 0)][2];
+    final double[] heights = new double[merges.length];
+    final boolean[] active = new boolean[n];
+    final int[] node = IntStream.range(0, n).toArray();
+    final int[] neighbor = new int[n];
+    final double[] neighborDistance = new double[n];
+    Arrays.fill(active, true);
+    IntStream.range(0, n).parallel()
+        .forEach(i -> updateNeighbor(linkage, n, active, neighbor, neighborDistance, i));
+
+    for (int m = 0; m < merges.length; m++) {
+      if (isCanceled.getAsBoolean()) {
+        return null;
+      }
+      int a = -1;
+      for (int i = 0; i < n; i++) {
+        if (active[i] && neighbor[i] >= 0 && (a < 0
+            || neighborDistance[i] < neighborDistance[a])) {
+          a = i;
+        }
+      }
+      final int b = neighbor[a];
+      merges[m][0] = Math.min(node[a], node[b]);
+      merges[m][1] = Math.max(node[a], node[b]);
+      heights[m] = neighborDistance[a];
+
+      // a < b, the merged cluster stays in slot a
+      linkage.merge(a, b, active);
+      active[b] = false;
+      node[a] = n + m;
+
+      final int merged = a;
+      final IntStream update = IntStream.range(0, n);
+      (n >= PARALLEL ? update.parallel() : update).forEach(i -> {
+        if (!active[i]) {
+          return;
+        }
+        if (i == merged || neighbor[i] == merged || neighbor[i] == b) {
+          updateNeighbor(linkage, n, active, neighbor, neighborDistance, i);
+        } else if (i < merged) {
+          final double distance = linkage.distance(i, merged);
+          if (distance < neighborDistance[i]) {
+            neighbor[i] = merged;
+            neighborDistance[i] = distance;
+          }
+        }
+      });
+    }
+    return Tree.fromHeights(n, merges, heights);
+  }
+
+  private static void updateNeighbor(Linkage linkage, int n, boolean[] active, int[] neighbor,
+      double[] neighborDistance, int i) {
+    neighbor[i] = -1;
+    neighborDistance[i] = Double.POSITIVE_INFINITY;
+    for (int j = i + 1; j < n; j++) {
+      if (active[j]) {
+        final double distance = linkage.distance(i, j);
+        if (neighbor[i] < 0 || distance < neighborDistance[i]) {
+          neighbor[i] = j;
+          neighborDistance[i] = distance;
+        }
+      }
+    }
+  }
+
+  /**
+   * Neighbor joining on the condensed distances, which are overwritten. Each step searches the
+   * pair with the minimum Q criterion in parallel rows.
+   *
+   * @return the unrooted tree as binary tree with the last join as root or null if canceled
+   */
+  @Nullable
+  static Tree neighborJoining(@NotNull float[] d, int n, @NotNull BooleanSupplier isCanceled) {
+    final int[][] merges = new int[Math.max(n - 1, 0)][2];
+    final double[][] lengths = new double[merges.length][2];
+    final boolean[] active = new boolean[n];
+    final int[] node = IntStream.range(0, n).toArray();
+    final double[] sums = new double[n];
+    Arrays.fill(active, true);
+    IntStream.range(0, n).parallel().forEach(i -> {
+      for (int j = 0; j < n; j++) {
+        if (j != i) {
+          sums[i] += d[index(i, j, n)];
+        }
+      }
+    });
+
+    for (int m = 0; m < merges.length; m++) {
+      if (isCanceled.getAsBoolean()) {
+        return null;
+      }
+      final int remaining = n - m;
+      final int a;
+      final int b;
+      if (remaining == 2) {
+        a = IntStream.range(0, n).filter(i -> active[i]).findFirst().getAsInt();
+        b = IntStream.range(a + 1, n).filter(i -> active[i]).findFirst().getAsInt();
+      } else {
+        // best partner in higher slots for each row, then the best row
+        final double[] rowBest = new double[n];
+        final int[] rowPartner = new int[n];
+        final IntStream rows = IntStream.range(0, n);
+        (remaining >= PARALLEL ? rows.parallel() : rows).forEach(i -> {
+          rowPartner[i] = -1;
+          rowBest[i] = Double.POSITIVE_INFINITY;
+          if (!active[i]) {
+            return;
+          }
+          for (int j = i + 1; j < n; j++) {
+            if (active[j]) {
+              final double q = (remaining - 2) * (double) d[index(i, j, n)] - sums[i] - sums[j];
+              if (q < rowBest[i]) {
+                rowBest[i] = q;
+                rowPartner[i] = j;
+              }
+            }
+          }
+        });
+        int best = -1;
+        for (int i = 0; i < n; i++) {
+          if (rowPartner[i] >= 0 && (best < 0 || rowBest[i] < rowBest[best])) {
+            best = i;
+          }
+        }
+        a = best;
+        b = rowPartner[best];
+      }
+
+      final double dab = d[index(a, b, n)];
+      final double la = remaining == 2 ? dab / 2d
+          : dab / 2d + (sums[a] - sums[b]) / (2d * (remaining - 2));
+      merges[m][0] = node[a];
+      merges[m][1] = node[b];
+      lengths[m][0] = Math.max(la, 0d);
+      lengths[m][1] = Math.max(dab - la, 0d);
+
+      // the new node replaces a
+      active[b] = false;
+      node[a] = n + m;
+      sums[a] = 0d;
+      for (int x = 0; x < n; x++) {
+        if (active[x] && x != a) {
+          final float dax = d[index(a, x, n)];
+          final float dbx = d[index(b, x, n)];
+          final float dux = (float) ((dax + (double) dbx - dab) / 2d);
+          d[index(a, x, n)] = dux;
+          sums[x] += dux - dax - dbx;
+          sums[a] += dux;
+        }
+      }
+    }
+    return new Tree(n, merges, lengths);
+  }
+
+  /**
+   * @param previous the previous cluster in the chain, wins ties
+   * @return the nearest active cluster to a
+   */
+  private static int nearest(float[] d, int n, boolean[] active, int a, int previous) {
+    if (n < PARALLEL) {
+      return nearest(d, n, active, a, previous, 0, n);
+    }
+    final int blocks = (n + PARALLEL - 1) / PARALLEL;
+    final int[] candidates = IntStream.range(0, blocks).parallel().map(
+        block -> nearest(d, n, active, a, previous, block * PARALLEL,
+            Math.min(n, (block + 1) * PARALLEL))).toArray();
+    int best = previous;
+    float bestDistance = previous >= 0 ? d[index(a, previous, n)] : Float.POSITIVE_INFINITY;
+    for (int candidate : candidates) {
+      if (candidate >= 0 && d[index(a, candidate, n)] < bestDistance) {
+        best = candidate;
+        bestDistance = d[index(a, candidate, n)];
+      }
+    }
+    return best;
+  }
+
+  private static int nearest(float[] d, int n, boolean[] active, int a, int previous, int from,
+      int to) {
+    int best = previous;
+    float bestDistance = previous >= 0 ? d[index(a, previous, n)] : Float.POSITIVE_INFINITY;
+    for (int x = from; x < to; x++) {
+      if (active[x] && x != a) {
+        final float value = d[index(a, x, n)];
+        if (value < bestDistance) {
+          bestDistance = value;
+          best = x;
+        }
+      }
+    }
+    return best;
+  }
+
+  /**
+   * @return index of the pair in the condensed upper triangle
+   */
+  static int index(int i, int j, int n) {
+    if (i > j) {
+      final int tmp = i;
+      i = j;
+      j = tmp;
+    }
+    return (int) ((long) i * n - (long) i * (i + 1) / 2 + j - i - 1);
+  }
+
+  /**
+   * Cluster distances of the generic algorithm. Clusters are identified by their slot.
+   */
+  interface Linkage {
+
+    double distance(int a, int b);
+
+    /**
+     * Merges cluster b into slot a (a < b). Called before b is deactivated.
+     */
+    void merge(int a, int b, boolean[] active);
+  }
+
+  /**
+   * Mean distance of all pairs of items in the union of both clusters. The condensed matrix holds
+   * the sum of all distances between two clusters.
+   */
+  private static final class MeanLinkage implements Linkage {
+
+    private final float[] sums;
+    private final int n;
+    private final double[] within;
+    private final int[] size;
+
+    private MeanLinkage(float[] d, int n) {
+      this.sums = d;
+      this.n = n;
+      within = new double[n];
+      size = new int[n];
+      Arrays.fill(size, 1);
+    }
+
+    @Override
+    public double distance(int a, int b) {
+      final long s = size[a] + size[b];
+      return (within[a] + within[b] + sums[index(a, b, n)]) / (s * (s - 1) / 2d);
+    }
+
+    @Override
+    public void merge(int a, int b, boolean[] active) {
+      within[a] += within[b] + sums[index(a, b, n)];
+      size[a] += size[b];
+      for (int x = 0; x < n; x++) {
+        if (active[x] && x != a && x != b) {
+          sums[index(a, x, n)] += sums[index(b, x, n)];
+        }
+      }
+    }
+  }
+
+  /**
+   * Complete linkage minus the larger diameter of the two clusters.
+   */
+  private static final class AdjustedCompleteLinkage implements Linkage {
+
+    private final float[] complete;
+    private final int n;
+    private final double[] diameter;
+
+    private AdjustedCompleteLinkage(float[] d, int n) {
+      this.complete = d;
+      this.n = n;
+      diameter = new double[n];
+    }
+
+    @Override
+    public double distance(int a, int b) {
+      return complete[index(a, b, n)] - Math.max(diameter[a], diameter[b]);
+    }
+
+    @Override
+    public void merge(int a, int b, boolean[] active) {
+      diameter[a] = Math.max(Math.max(diameter[a], diameter[b]), complete[index(a, b, n)]);
+      for (int x = 0; x < n; x++) {
+        if (active[x] && x != a && x != b) {
+          complete[index(a, x, n)] = Math.max(complete[index(a, x, n)], complete[index(b, x, n)]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Distance between the cluster centroids. Needs no distance matrix.
+   */
+  private static final class CentroidLinkage implements Linkage {
+
+    private final double[][] centroids;
+    private final int[] size;
+    private final DistanceType type;
+
+    private CentroidLinkage(double[][] x, DistanceType type) {
+      this.type = type;
+      centroids = new double[x.length][];
+      for (int i = 0; i < x.length; i++) {
+        centroids[i] = x[i].clone();
+      }
+      size = new int[x.length];
+      Arrays.fill(size, 1);
+    }
+
+    @Override
+    public double distance(int a, int b) {
+      return LinkageEngine.distance(centroids[a], centroids[b], type);
+    }
+
+    @Override
+    public void merge(int a, int b, boolean[] active) {
+      final double[] ca = centroids[a];
+      final double[] cb = centroids[b];
+      final int total = size[a] + size[b];
+      for (int f = 0; f < ca.length; f++) {
+        ca[f] = (ca[f] * size[a] + cb[f] * size[b]) / total;
+      }
+      size[a] = total;
+      centroids[b] = null;
+    }
+  }
+
+  /**
+   * Binary tree of the clustering. Leaves are the nodes 0 to n-1, merge m creates node n+m.
+   *
+   * @param size    number of leaves
+   * @param merges  the two child nodes of each merge
+   * @param lengths the branch lengths to the two children of each merge
+   */
+  public record Tree(int size, int[][] merges, double[][] lengths) {
+
+    /**
+     * @param heights linkage distance of each merge, branch lengths are the height differences
+     */
+    static Tree fromHeights(int size, int[][] merges, double[] heights) {
+      final double[][] lengths = new double[merges.length][2];
+      for (int m = 0; m < merges.length; m++) {
+        for (int c = 0; c < 2; c++) {
+          final int child = merges[m][c];
+          final double childHeight = child < size ? 0d : heights[child - size];
+          lengths[m][c] = heights[m] - childHeight;
+        }
+      }
+      return new Tree(size, merges, lengths);
+    }
+
+    /**
+     * @return the height of each merge, the sum of the branch lengths down the first child
+     */
+    public double[] heights() {
+      final double[] heights = new double[merges.length];
+      // children are always created before their parent
+      for (int m = 0; m < merges.length; m++) {
+        final int child = merges[m][0];
+        heights[m] = lengths[m][0] + (child < size ? 0d : heights[child - size]);
+      }
+      return heights;
+    }
+
+    /**
+     * Leaf order with the lighter branch first at each node, like reorder(dendrogram, weights) in
+     * R. The weight of a node is the sum of its leaf weights.
+     *
+     * @param weights weight of each leaf or null to keep the merge order
+     * @return the leaves in the order of the tree
+     */
+    public int[] order(@Nullable double[] weights) {
+      final int[] order = new int[size];
+      if (size == 0) {
+        return order;
+      }
+      final double[] nodeWeights = new double[size + merges.length];
+      if (weights != null) {
+        System.arraycopy(weights, 0, nodeWeights, 0, size);
+        for (int m = 0; m < merges.length; m++) {
+          nodeWeights[size + m] = nodeWeights[merges[m][0]] + nodeWeights[merges[m][1]];
+        }
+      }
+      // depth first from the root
+      final int[] stack = new int[size + 1];
+      int top = 0;
+      int position = 0;
+      stack[top++] = size + merges.length - 1;
+      while (top > 0) {
+        final int current = stack[--top];
+        if (current < size) {
+          order[position++] = current;
+        } else {
+          final int[] children = merges[current - size];
+          final boolean swap = nodeWeights[children[1]] < nodeWeights[children[0]];
+          stack[top++] = swap ? children[0] : children[1];
+          stack[top++] = swap ? children[1] : children[0];
+        }
+      }
+      return order;
+    }
+
+    /**
+     * Cuts the tree into clusters by undoing the last merges.
+     *
+     * @param clusters number of clusters, limited to the number of leaves
+     * @return the root node of each cluster
+     */
+    public int[] roots(int clusters) {
+      final int kept = Math.max(0, size - Math.max(1, clusters));
+      final boolean[] child = new boolean[size + kept];
+      for (int m = 0; m < kept; m++) {
+        child[merges[m][0]] = true;
+        child[merges[m][1]] = true;
+      }
+      return IntStream.range(0, size + kept).filter(node -> !child[node]).toArray();
+    }
+
+    /**
+     * @param roots the root nodes of the clusters, see {@link #roots(int)}
+     * @return the cluster index of each leaf
+     */
+    public int[] leafClusters(int[] roots) {
+      final int[] clusters = new int[size];
+      for (int r = 0; r < roots.length; r++) {
+        final Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(roots[r]);
+        while (!stack.isEmpty()) {
+          final int current = stack.pop();
+          if (current < size) {
+            clusters[current] = r;
+          } else {
+            stack.push(merges[current - size][0]);
+            stack.push(merges[current - size][1]);
+          }
+        }
+      }
+      return clusters;
+    }
+
+    /**
+     * Newick format of the subtree below a node. Characters of the names that are reserved in the
+     * Newick format are replaced by '_'.
+     *
+     * @param root  the root node of the subtree
+     * @param names the name of each leaf
+     */
+    public String toNewick(int root, String[] names) {
+      final StringBuilder newick = new StringBuilder();
+      if (root < size) {
+        // a single leaf
+        return newick.append('(').append(escape(names[root])).append(":0.0)").toString();
+      }
+      // nodes to visit (Integer) and text to append (String)
+      final Deque<Object> stack = new ArrayDeque<>();
+      stack.push(root);
+      while (!stack.isEmpty()) {
+        final Object next = stack.pop();
+        if (next instanceof String text) {
+          newick.append(text);
+          continue;
+        }
+        final int current = (Integer) next;
+        if (current < size) {
+          newick.append(escape(names[current]));
+          continue;
+        }
+        final int[] children = merges[current - size];
+        final double[] branch = lengths[current - size];
+        newick.append('(');
+        stack.push(")");
+        stack.push(":" + branch[1]);
+        stack.push(children[1]);
+        stack.push(",");
+        stack.push(":" + branch[0]);
+        stack.push(children[0]);
+      }
+      return newick.toString();
+    }
+
+    private static String escape(String name) {
+      return name.replaceAll("[(),:;\\[\\]]", "_");
+    }
+  }
+}
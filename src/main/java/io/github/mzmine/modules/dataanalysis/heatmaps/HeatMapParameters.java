@@ -39,11 +39,10 @@ import io.github.mzmine.parameters.parametertypes.IntegerParameter;
 import io.github.mzmine.parameters.parametertypes.filenames.FileNameParameter;
 import io.github.mzmine.parameters.parametertypes.filenames.FileSelectionType;
 import io.github.mzmine.util.ExitCode;
-import io.github.mzmine.util.R.REngineType;
 
 public class HeatMapParameters extends SimpleParameterSet {
 
-  public static final String[] fileTypes = {"pdf", "svg", "png", "fig"};
+  public static final String[] fileTypes = {"pdf", "svg", "png", "eps"};
 
   public static final FeatureListsParameter featureLists = new FeatureListsParameter(1, 1);
 
@@ -87,11 +86,11 @@ public class HeatMapParameters extends SimpleParameterSet {
       "Show control samples", "Shows control samples if this option is selected", true);
 
   public static final IntegerParameter height = new IntegerParameter("Height",
-      "Height of the heat map. It has to be more than 500 if \"png\" has been choosen as an output format",
+      "Height of the heat map in inches or in pixels for \"png\". It has to be more than 500 if \"png\" has been choosen as an output format",
       10);
 
   public static final IntegerParameter width = new IntegerParameter("Width",
-      "Width of the heat map. It has to be more than 500 if \"png\" has been choosen as an output format",
+      "Width of the heat map in inches or in pixels for \"png\". It has to be more than 500 if \"png\" has been choosen as an output format",
       10);
 
   public static final IntegerParameter columnMargin =
@@ -100,17 +99,10 @@ public class HeatMapParameters extends SimpleParameterSet {
   public static final IntegerParameter rowMargin =
       new IntegerParameter("Row margin", "Row margin of the heat map", 10);
 
-  /**
-   * R engine type.
-   */
-  public static final ComboParameter<REngineType> RENGINE_TYPE = new ComboParameter<REngineType>(
-      "R engine", "The R engine to be used for communicating with R.", REngineType.values(),
-      REngineType.RCALLER);
-
   public HeatMapParameters() {
     super(new Parameter[] {featureLists, fileName, fileTypeSelection, selectionData, referenceGroup,
         useIdenfiedRows, useFeatureArea, scale, log, showControlSamples, plegend, star, height, width,
-        columnMargin, rowMargin, RENGINE_TYPE});
+        columnMargin, rowMargin});
   }
 
   @Override
@@ -0,0 +1,381 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.dataanalysis.heatmaps;
+
+import com.itextpdf.awt.DefaultFontMapper;
+import com.itextpdf.awt.PdfGraphics2D;
+import com.itextpdf.text.Document;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.Rectangle;
+import com.itextpdf.text.pdf.PdfContentByte;
+import com.itextpdf.text.pdf.PdfWriter;
+import io.github.mzmine.modules.dataanalysis.clustering.hierarchical.LinkageEngine.Tree;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import javax.imageio.ImageIO;
+import net.sf.epsgraphics.ColorMode;
+import net.sf.epsgraphics.EpsGraphics;
+import org.apache.batik.anim.dom.SVGDOMImplementation;
+import org.apache.batik.svggen.SVGGraphics2D;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.w3c.dom.DOMImplementation;
+
+/**
+ * Draws a clustered heat map with the layout of heatmap.2 in R (gplots): color key top left,
+ * dendrograms of the columns (top) and rows (left), column labels below and row labels right of
+ * the heat map. Values are colored blue (minimum) to white (0) to red (maximum), missing values
+ * grey. The cells are drawn as one image with one pixel per cell, so that the size of the output
+ * does not grow with the number of rows.
+ */
+public class HeatMapRenderer {
+
+  private static final Color MISSING = Color.GRAY;
+  private static final float BASE_FONT_SIZE = 12f;
+  // heatmap.2 layout: dendrograms and key take 1.5 of 5.5 parts of width and height
+  private static final double DENDROGRAM_FRACTION = 1.5 / 5.5;
+
+  private final double[][] data;
+  private final String[] rowNames;
+  private final String[] colNames;
+  private final @Nullable String[][] cellNotes;
+  private final Tree rowDendrogram;
+  private final Tree colDendrogram;
+  private final int[] rowOrder;
+  private final int[] colOrder;
+  private final int columnMargin;
+  private final int rowMargin;
+  private final int noteSize;
+  private final double min;
+  private final double max;
+
+  /**
+   * @param data          [row][column], NaN for missing values
+   * @param cellNotes     text in each cell [row][column] or null
+   * @param rowDendrogram clustering of the rows
+   * @param colDendrogram clustering of the columns
+   * @param columnMargin  space for the column labels in lines of text
+   * @param rowMargin     space for the row labels in lines of text
+   * @param noteSize      relative size of the cell notes
+   */
+  public HeatMapRenderer(@NotNull double[][] data, @NotNull String[] rowNames,
+      @NotNull String[] colNames, @Nullable String[][] cellNotes,
+      @NotNull Tree rowDendrogram, @NotNull Tree colDendrogram, int columnMargin,
+      int rowMargin, int noteSize) {
+    this.data = data;
+    this.rowNames = rowNames;
+    this.colNames = colNames;
+    this.cellNotes = cellNotes;
+    this.rowDendrogram = rowDendrogram;
+    this.colDendrogram = colDendrogram;
+    // order the branches by row and column means like heatmap.2
+    final double[] rowMeans = new double[data.length];
+    final double[] colMeans = new double[colNames.length];
+    final int[] colCounts = new int[colNames.length];
+    for (int r = 0; r < data.length; r++) {
+      int count = 0;
+      for (int c = 0; c < data[r].length; c++) {
+        if (Double.isFinite(data[r][c])) {
+          rowMeans[r] += data[r][c];
+          colMeans[c] += data[r][c];
+          colCounts[c]++;
+          count++;
+        }
+      }
+      rowMeans[r] = count > 0 ? rowMeans[r] / count : 0d;
+    }
+    for (int c = 0; c < colMeans.length; c++) {
+      colMeans[c] = colCounts[c] > 0 ? colMeans[c] / colCounts[c] : 0d;
+    }
+    this.rowOrder = rowDendrogram.order(rowMeans);
+    this.colOrder = colDendrogram.order(colMeans);
+    this.columnMargin = columnMargin;
+    this.rowMargin = rowMargin;
+    this.noteSize = noteSize;
+
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+    for (double[] row : data) {
+      for (double value : row) {
+        if (Double.isFinite(value)) {
+          min = Math.min(min, value);
+          max = Math.max(max, value);
+        }
+      }
+    }
+    this.min = Double.isFinite(min) ? min : 0d;
+    this.max = Double.isFinite(max) ? max : 0d;
+  }
+
+  /**
+   * @param type   pdf, svg or eps with the size in inches or png with the size in pixels
+   * @param width  the width
+   * @param height the height
+   */
+  public void write(@NotNull File file, @NotNull String type, int width, int height)
+      throws IOException {
+    if (type.contains("png")) {
+      final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      final Graphics2D g = image.createGraphics();
+      paint(g, width, height);
+      g.dispose();
+      ImageIO.write(image, "png", file);
+      return;
+    }
+
+    // vector formats in points
+    final int w = width * 72;
+    final int h = height * 72;
+    if (type.contains("pdf")) {
+      final Document document = new Document(new Rectangle(w, h));
+      try (OutputStream out = new FileOutputStream(file)) {
+        final PdfWriter writer = PdfWriter.getInstance(document, out);
+        document.open();
+        final PdfContentByte contentByte = writer.getDirectContent();
+        final Graphics2D g = new PdfGraphics2D(contentByte, w, h, new DefaultFontMapper());
+        paint(g, w, h);
+        g.dispose();
+        // writes the pdf before the stream is closed
+        document.close();
+      } catch (DocumentException e) {
+        throw new IOException(e);
+      }
+    } else if (type.contains("svg")) {
+      final DOMImplementation domImpl = SVGDOMImplementation.getDOMImplementation();
+      final org.w3c.dom.Document document = domImpl.createDocument(null, "svg", null);
+      final SVGGraphics2D g = new SVGGraphics2D(document);
+      g.setSVGCanvasSize(new Dimension(w, h));
+      paint(g, w, h);
+      try (Writer out = new OutputStreamWriter(new FileOutputStream(file),
+          StandardCharsets.UTF_8)) {
+        g.stream(out, true);
+      }
+    } else if (type.contains("eps")) {
+      try (OutputStream out = new FileOutputStream(file)) {
+        final EpsGraphics g = new EpsGraphics("MZmine heat map", out, 0, 0, w, h,
+            ColorMode.COLOR_RGB);
+        paint(g, w, h);
+        g.close();
+      }
+    } else {
+      throw new IOException("Unsupported heat map output type " + type);
+    }
+  }
+
+  /**
+   * Paints the heat map into the area (0, 0, width, height)
+   */
+  public void paint(@NotNull Graphics2D g, double width, double height) {
+    g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+    g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+        RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+    g.setColor(Color.WHITE);
+    g.fill(new Rectangle2D.Double(0, 0, width, height));
+
+    final double line = BASE_FONT_SIZE * 1.2;
+    final double x0 = width * DENDROGRAM_FRACTION;
+    final double y0 = height * DENDROGRAM_FRACTION;
+    final double x1 = Math.max(x0 + 1, width - rowMargin * line);
+    final double y1 = Math.max(y0 + 1, height - columnMargin * line);
+    final double cellWidth = (x1 - x0) / colOrder.length;
+    final double cellHeight = (y1 - y0) / rowOrder.length;
+
+    paintCells(g, x0, y0, x1 - x0, y1 - y0);
+    paintNotes(g, x0, y0, cellWidth, cellHeight);
+
+    // labels
+    g.setColor(Color.BLACK);
+    final float rowFont = (float) Math.min(BASE_FONT_SIZE, cellHeight * 0.8);
+    if (rowFont >= 3f) {
+      g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, Math.round(rowFont)));
+      for (int r = 0; r < rowOrder.length; r++) {
+        g.drawString(rowNames[rowOrder[r]], (float) (x1 + line * 0.5),
+            (float) (y0 + (r + 0.5) * cellHeight + rowFont * 0.35));
+      }
+    }
+    final float colFont = (float) Math.min(BASE_FONT_SIZE, cellWidth * 0.8);
+    if (colFont >= 3f) {
+      g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, Math.round(colFont)));
+      final AffineTransform transform = g.getTransform();
+      for (int c = 0; c < colOrder.length; c++) {
+        g.setTransform(transform);
+        g.translate(x0 + (c + 0.5) * cellWidth + colFont * 0.35, y1 + line * 0.5);
+        g.rotate(Math.PI / 2);
+        g.drawString(colNames[colOrder[c]], 0f, 0f);
+      }
+      g.setTransform(transform);
+    }
+
+    // dendrograms: rows left with the root on the left, columns top with the root on top
+    g.setStroke(new BasicStroke(0.5f));
+    paintDendrogram(g, rowDendrogram, rowOrder, y0, cellHeight, x0 - line * 0.25, line * 0.25,
+        true);
+    paintDendrogram(g, colDendrogram, colOrder, x0, cellWidth, y0 - line * 0.25, line * 0.25,
+        false);
+
+    paintKey(g, line, Math.min(x0, y0) - 2 * line, line);
+  }
+
+  private void paintCells(Graphics2D g, double x, double y, double w, double h) {
+    final int rows = rowOrder.length;
+    final int cols = colOrder.length;
+    final BufferedImage cells = new BufferedImage(cols, rows, BufferedImage.TYPE_INT_RGB);
+    final int[][] rgb = new int[rows][cols];
+    IntStream.range(0, rows).parallel().forEach(r -> {
+      final double[] values = data[rowOrder[r]];
+      for (int c = 0; c < cols; c++) {
+        rgb[r][c] = rgb(values[colOrder[c]]);
+      }
+    });
+    for (int r = 0; r < rows; r++) {
+      cells.setRGB(0, r, cols, 1, rgb[r], 0, cols);
+    }
+    g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+        RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+    final AffineTransform scale = new AffineTransform(w / cols, 0, 0, h / rows, x, y);
+    g.drawImage(cells, scale, null);
+  }
+
+  private void paintNotes(Graphics2D g, double x0, double y0, double cellWidth,
+      double cellHeight) {
+    if (cellNotes == null) {
+      return;
+    }
+    final float size = (float) Math.min(noteSize * BASE_FONT_SIZE,
+        Math.min(cellHeight, cellWidth) * 0.9);
+    if (size < 3f) {
+      return;
+    }
+    g.setColor(Color.BLACK);
+    g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, Math.round(size)));
+    for (int r = 0; r < rowOrder.length; r++) {
+      for (int c = 0; c < colOrder.length; c++) {
+        final String note = cellNotes[rowOrder[r]][colOrder[c]];
+        if (note == null || note.isEmpty()) {
+          continue;
+        }
+        final double textWidth = g.getFontMetrics().stringWidth(note);
+        g.drawString(note, (float) (x0 + (c + 0.5) * cellWidth - textWidth / 2),
+            (float) (y0 + (r + 0.5) * cellHeight + size * 0.35));
+      }
+    }
+  }
+
+  /**
+   * @param start      position of the first leaf
+   * @param leafSize   space of each leaf
+   * @param base       position of the leaves in the height direction
+   * @param end        position of the root in the height direction
+   * @param horizontal true to draw heights along x (row dendrogram)
+   */
+  private void paintDendrogram(Graphics2D g, Tree dendrogram, int[] order, double start,
+      double leafSize, double base, double end, boolean horizontal) {
+    final int n = dendrogram.size();
+    final int[][] merges = dendrogram.merges();
+    final double[] heights = dendrogram.heights();
+    final double maxHeight = Arrays.stream(heights).max().orElse(0d);
+    if (merges.length == 0 || maxHeight <= 0) {
+      return;
+    }
+    final double[] position = new double[n + merges.length];
+    for (int i = 0; i < order.length; i++) {
+      position[order[i]] = start + (i + 0.5) * leafSize;
+    }
+    final double scale = (base - end) / maxHeight;
+    g.setColor(Color.BLACK);
+    for (int m = 0; m < merges.length; m++) {
+      final int a = merges[m][0];
+      final int b = merges[m][1];
+      position[n + m] = (position[a] + position[b]) / 2;
+      final double top = base - heights[m] * scale;
+      final double ha = base - (a < n ? 0d : heights[a - n]) * scale;
+      final double hb = base - (b < n ? 0d : heights[b - n]) * scale;
+      if (horizontal) {
+        g.draw(new Line2D.Double(ha, position[a], top, position[a]));
+        g.draw(new Line2D.Double(hb, position[b], top, position[b]));
+        g.draw(new Line2D.Double(top, position[a], top, position[b]));
+      } else {
+        g.draw(new Line2D.Double(position[a], ha, position[a], top));
+        g.draw(new Line2D.Double(position[b], hb, position[b], top));
+        g.draw(new Line2D.Double(position[a], top, position[b], top));
+      }
+    }
+  }
+
+  private void paintKey(Graphics2D g, double x, double w, double line) {
+    if (w <= 0) {
+      return;
+    }
+    final double y = line * 1.5;
+    final int steps = 256;
+    for (int i = 0; i < steps; i++) {
+      g.setColor(new Color(rgb(min + (max - min) * i / (steps - 1))));
+      g.fill(new Rectangle2D.Double(x + w * i / steps, y, w / steps + 0.5, line));
+    }
+    g.setColor(Color.BLACK);
+    g.draw(new Rectangle2D.Double(x, y, w, line));
+    g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, Math.round(BASE_FONT_SIZE * 0.8f)));
+    final float labelY = (float) (y + line * 2);
+    g.drawString(String.format("%.2g", min), (float) x, labelY);
+    final String maxLabel = String.format("%.2g", max);
+    g.drawString(maxLabel, (float) (x + w - g.getFontMetrics().stringWidth(maxLabel)), labelY);
+    g.drawString("Color key", (float) x, (float) (y - line * 0.3));
+  }
+
+  /**
+   * Like bluered with breaks from min to 0 and from 0 to max in heatmap.2
+   */
+  private int rgb(double value) {
+    if (!Double.isFinite(value)) {
+      return MISSING.getRGB();
+    }
+    if (value <= 0) {
+      final double t = min < 0 ? Math.min(1d, Math.max(0d, (value - min) / -min)) : 1d;
+      final int c = (int) Math.round(255 * t);
+      return 0xFF000000 | c << 16 | c << 8 | 255;
+    }
+    final double t = max > 0 ? Math.min(1d, value / max) : 0d;
+    final int c = (int) Math.round(255 * (1 - t));
+    return 0xFF000000 | 255 << 16 | c << 8 | c;
+  }
+}
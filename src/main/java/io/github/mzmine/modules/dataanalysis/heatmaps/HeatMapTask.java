@@ -30,20 +30,24 @@ import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.datamodel.features.Feature;
 import io.github.mzmine.datamodel.features.FeatureList;
 import io.github.mzmine.datamodel.features.FeatureListRow;
+import io.github.mzmine.modules.dataanalysis.clustering.hierarchical.DistanceType;
+import io.github.mzmine.modules.dataanalysis.clustering.hierarchical.LinkType;
+import io.github.mzmine.modules.dataanalysis.clustering.hierarchical.LinkageEngine;
+import io.github.mzmine.modules.dataanalysis.clustering.hierarchical.LinkageEngine.Tree;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.UserParameter;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
-import io.github.mzmine.util.R.REngineType;
-import io.github.mzmine.util.R.RSessionWrapper;
-import io.github.mzmine.util.R.RSessionWrapperException;
-import io.github.mzmine.util.R.Rsession.Rsession;
 import java.io.File;
+import java.io.IOException;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Vector;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 import org.apache.commons.math.MathException;
 import org.apache.commons.math.stat.descriptive.DescriptiveStatistics;
 import org.apache.commons.math.stat.inference.TTestImpl;
@@ -53,11 +57,7 @@ public class HeatMapTask extends AbstractTask {
 
   private Logger logger = Logger.getLogger(this.getClass().getName());
 
-  private RSessionWrapper rSession;
-  private String errorMsg;
-
   private final MZmineProject project;
-  private final REngineType rEngineType;
   private final String outputType;
   private final boolean log, rcontrol, scale, plegend, area, onlyIdentified;
   private final int height, width, columnMargin, rowMargin, starSize;
@@ -65,7 +65,7 @@ public class HeatMapTask extends AbstractTask {
   private double[][] newFeatureList;
   private String[] rowNames, colNames;
   private String[][] pValueMatrix;
-  private double finishedPercentage = 0.0f;
+  private volatile double finishedPercentage = 0.0f;
   private final UserParameter<?, ?> selectedParameter;
   private final Object referenceGroup;
   private final FeatureList featureList;
@@ -77,7 +77,6 @@ public class HeatMapTask extends AbstractTask {
     this.featureList = featureList;
 
     // Parameters
-    rEngineType = parameters.getParameter(HeatMapParameters.RENGINE_TYPE).getValue();
     outputFile = parameters.getParameter(HeatMapParameters.fileName).getValue();
     outputType = parameters.getParameter(HeatMapParameters.fileTypeSelection).getValue();
     selectedParameter = parameters.getParameter(HeatMapParameters.selectionData).getValue();
@@ -106,27 +105,20 @@ public class HeatMapTask extends AbstractTask {
     return finishedPercentage;
   }
 
-  @Override
-  public void cancel() {
-
-    super.cancel();
-
-    // Turn off R instance, if already existing.
-    try {
-      if (rSession != null)
-        rSession.close(true);
-    } catch (RSessionWrapperException e) {
-      // Silent, always...
-    }
-  }
-
   public void run() {
-    errorMsg = null;
-
     setStatus(TaskStatus.PROCESSING);
 
     logger.info("Heat map plot");
 
+    if (outputType.contains("png")) {
+      if (height < 500 || width < 500) {
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage(
+            "Figure height or width is too small. " + "Minimun height and width is 500.");
+        return;
+      }
+    }
+
     if (plegend) {
       newFeatureList = groupingDataset(selectedParameter, referenceGroup.toString());
     } else {
@@ -139,171 +131,67 @@ public class HeatMapTask extends AbstractTask {
       return;
     }
 
-    try {
-
-      // Load gplots library
-      String[] reqPackages = {"gplots"};
-      rSession =
-          new RSessionWrapper(this.rEngineType, "HeatMap analysis module", reqPackages, null);
-      rSession.open();
-
-      finishedPercentage = 0.3f;
-
-      if (outputType.contains("png")) {
-        if (height < 500 || width < 500) {
-
-          setStatus(TaskStatus.ERROR);
-          setErrorMessage(
-              "Figure height or width is too small. " + "Minimun height and width is 500.");
-          return;
-        }
-      }
-
-      rSession.eval("dataset<- matrix(\"\",nrow =" + newFeatureList[0].length + ",ncol="
-          + newFeatureList.length + ")");
-
-      if (plegend) {
-        rSession.eval("stars<- matrix(\"\",nrow =" + newFeatureList[0].length + ",ncol="
-            + newFeatureList.length + ")");
-      }
-
-      // assing the values to the matrix
-      for (int row = 0; row < newFeatureList[0].length; row++) {
-
-        for (int column = 0; column < newFeatureList.length; column++) {
-
-          int r = row + 1;
-          int c = column + 1;
-
-          double value = newFeatureList[column][row];
-
-          if (plegend) {
-            String pValue = pValueMatrix[column][row];
-            rSession.eval("stars[" + r + "," + c + "] = \"" + pValue + "\"");
-          }
-
-          if (!Double.isInfinite(value) && !Double.isNaN(value)) {
-
-            rSession.eval("dataset[" + r + "," + c + "] = " + value);
-          } else {
-
-            rSession.eval("dataset[" + r + "," + c + "] = NA");
-          }
+    // rows [row][column] without the rows that have no value at all. Like R's heat map, rows without
+    // a common column with a previous row are removed, because their distances are not defined
+    final int numColumns = newFeatureList.length;
+    final int[] nonEmptyRows = IntStream.range(0, newFeatureList[0].length).filter(
+            row -> IntStream.range(0, numColumns)
+                .anyMatch(column -> Double.isFinite(newFeatureList[column][row])))
+        .toArray();
+    final double[][] nonEmptyData = Arrays.stream(nonEmptyRows).mapToObj(
+            row -> IntStream.range(0, numColumns).mapToDouble(column -> newFeatureList[column][row])
+                .toArray()).toArray(double[][]::new);
+    final int[] rows = Arrays.stream(LinkageEngine.omitIncomparable(nonEmptyData))
+        .map(i -> nonEmptyRows[i]).toArray();
+    if (rows.length < nonEmptyRows.length) {
+      logger.info("Removed " + (nonEmptyRows.length - rows.length)
+          + " rows without common samples with previous rows from the heat map");
+    }
+    if (rows.length == 0) {
+      setStatus(TaskStatus.ERROR);
+      setErrorMessage("The data for heat map is empty.");
+      return;
+    }
+    final double[][] rowData = new double[rows.length][numColumns];
+    final double[][] columnData = new double[numColumns][rows.length];
+    final String[] shownRowNames = new String[rows.length];
+    final String[][] stars = plegend ? new String[rows.length][numColumns] : null;
+    for (int r = 0; r < rows.length; r++) {
+      shownRowNames[r] = rowNames[rows[r]];
+      for (int column = 0; column < numColumns; column++) {
+        final double value = newFeatureList[column][rows[r]];
+        rowData[r][column] = columnData[column][r] = Double.isFinite(value) ? value : Double.NaN;
+        if (stars != null) {
+          stars[r][column] = pValueMatrix[column][rows[r]];
         }
       }
-      finishedPercentage = 0.4f;
-
-      rSession.eval("dataset <- apply(dataset, 2, as.numeric)");
-
-      // Assign row names to the data set
-      rSession.assign("rowNames", rowNames);
-      rSession.eval("rownames(dataset)<-rowNames");
-
-      // Assign column names to the data set
-      rSession.assign("colNames", colNames);
-      rSession.eval("colnames(dataset)<-colNames");
-
-      finishedPercentage = 0.5f;
-
-      // Remove the rows with too many NA's. The distances between
-      // rows can't be calculated if the rows don't have
-      // at least one sample in common.
-      rSession.eval("d <- as.matrix(dist(dataset))");
-      rSession.eval("d[upper.tri(d)] <- 0");
-      rSession.eval("naindices <- na.action(na.omit(d))");
-      rSession.eval("if (! is.null(naindices)) dataset <- dataset[-naindices,]");
-
-      finishedPercentage = 0.8f;
-
-      String marginParameter = "margins = c(" + columnMargin + "," + rowMargin + ")";
-      rSession.eval("br<-c(seq(from=min(dataset,na.rm=T),to=0,length.out=256),"
-          + "seq(from=0.00001,to=max(dataset,na.rm=T),length.out=256))", false);
-
-      // Convert the path to R-compatible string
-      final String escapedOutputFileName = Rsession.toRpath(outputFile);
-
-      // Possible output file types
-      if (outputType.contains("pdf")) {
-
-        rSession.eval(
-            "pdf(\"" + escapedOutputFileName + "\", height=" + height + ", width=" + width + ")");
-      } else if (outputType.contains("fig")) {
-
-        rSession.eval("xfig(\"" + escapedOutputFileName + "\", height=" + height + ", width="
-            + width + ", horizontal = FALSE, pointsize = 12)");
-      } else if (outputType.contains("svg")) {
-
-        // Load RSvgDevice library
-        rSession.loadPackage("RSvgDevice");
-
-        rSession.eval("devSVG(\"" + escapedOutputFileName + "\", height=" + height + ", width="
-            + width + ")");
-      } else if (outputType.contains("png")) {
-
-        rSession.eval(
-            "png(\"" + escapedOutputFileName + "\", height=" + height + ", width=" + width + ")");
-      }
-
-      if (plegend) {
-
-        rSession.eval(
-            "heatmap.2(dataset," + marginParameter + ", trace=\"none\", col=bluered(length(br)-1),"
-                + " breaks=br, cellnote=stars, notecol=\"black\"" + ", notecex=" + starSize
-                + ", na.color=\"grey\")",
-            false);
-      } else {
-
-        rSession.eval("heatmap.2(dataset," + marginParameter
-            + ", trace=\"none\", col=bluered(length(br)-1)," + " breaks=br, na.color=\"grey\")",
-            false);
-      }
-
-      rSession.eval("dev.off()", false);
-
-      // Stands for a (void) collect!
-      this.rSession.runOnlyOnline();
-      // Done: Refresh R code stack
-      this.rSession.clearCode();
-
-      finishedPercentage = 1.0;
-
-      // Turn off R instance, once task ended gracefully.
-      if (!isCanceled())
-        rSession.close(false);
-
-    } catch (RSessionWrapperException e) {
-      if (!isCanceled()) {
-        errorMsg = "'R computing error' during heatmap generation. \n" + e.getMessage();
-      }
-    } catch (Exception e) {
-      if (!isCanceled()) {
-        errorMsg = "'Unknown error' during heatmap generation. \n" + e.getMessage();
-      }
     }
+    finishedPercentage = 0.2;
 
-    // Turn off R instance, once task ended UNgracefully.
     try {
-      if (!isCanceled())
-        if (rSession != null)
-          rSession.close(isCanceled());
-    } catch (RSessionWrapperException e) {
-      if (!isCanceled()) {
-        // Do not override potential previous error message.
-        if (errorMsg == null) {
-          errorMsg = e.getMessage();
-        }
-      } else {
-        // User canceled: Silent.
+      // complete linkage of euclidean distances like hclust(dist(x)) in R
+      final Tree columnDendrogram = LinkageEngine.cluster(columnData, LinkType.COMPLETE,
+          DistanceType.EUCLIDIAN, this::isCanceled);
+      finishedPercentage = 0.3;
+      final Tree rowDendrogram = LinkageEngine.cluster(rowData, LinkType.COMPLETE,
+          DistanceType.EUCLIDIAN, this::isCanceled);
+      if (isCanceled() || columnDendrogram == null || rowDendrogram == null) {
+        return;
       }
-    }
-
-    // Report error.
-    if (errorMsg != null) {
-      setErrorMessage(errorMsg);
+      finishedPercentage = 0.8;
+
+      final HeatMapRenderer renderer = new HeatMapRenderer(rowData, shownRowNames, colNames, stars,
+          rowDendrogram, columnDendrogram, columnMargin, rowMargin, starSize);
+      renderer.write(outputFile, outputType, width, height);
+    } catch (IOException | IllegalArgumentException e) {
+      logger.log(Level.WARNING, "Error during heat map generation", e);
+      setErrorMessage("Error during heatmap generation. \n" + e.getMessage());
       setStatus(TaskStatus.ERROR);
-    } else {
-      setStatus(TaskStatus.FINISHED);
+      return;
     }
+
+    finishedPercentage = 1.0;
+    setStatus(TaskStatus.FINISHED);
   }
 
   private double[][] modifySimpleDataset(UserParameter<?, ?> selectedParameter,
@@ -442,25 +330,34 @@ public class HeatMapTask extends AbstractTask {
     return dataMatrix;
   }
 
+  /**
+   * Divides the values of each column by its standard deviation
+   */
   private void scale(double[][] featureList) {
-    DescriptiveStatistics stdDevStats = new DescriptiveStatistics();
-
-    for (int columns = 0; columns < featureList.length; columns++) {
-      stdDevStats.clear();
-      for (int row = 0; row < featureList[columns].length; row++) {
-        if (!Double.isInfinite(featureList[columns][row]) && !Double.isNaN(featureList[columns][row])) {
-          stdDevStats.addValue(featureList[columns][row]);
+    IntStream.range(0, featureList.length).parallel().forEach(column -> {
+      final double[] values = featureList[column];
+      double sum = 0;
+      int n = 0;
+      for (double value : values) {
+        if (Double.isFinite(value)) {
+          sum += value;
+          n++;
         }
       }
-
-      double stdDev = stdDevStats.getStandardDeviation();
-
-      for (int row = 0; row < featureList[columns].length; row++) {
-        if (stdDev != 0) {
-          featureList[columns][row] = featureList[columns][row] / stdDev;
+      final double mean = n > 0 ? sum / n : 0;
+      double squares = 0;
+      for (double value : values) {
+        if (Double.isFinite(value)) {
+          squares += (value - mean) * (value - mean);
         }
       }
-    }
+      final double stdDev = n > 1 ? Math.sqrt(squares / (n - 1)) : 0;
+      if (stdDev != 0) {
+        for (int row = 0; row < values.length; row++) {
+          values[row] = values[row] / stdDev;
+        }
+      }
+    });
   }
 
   private double[][] groupingDataset(UserParameter<?, ?> selectedParameter, String referenceGroup) {
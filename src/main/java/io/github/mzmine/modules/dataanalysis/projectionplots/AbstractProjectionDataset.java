@@ -0,0 +1,372 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.dataanalysis.projectionplots;
+
+import io.github.mzmine.datamodel.AbundanceMeasure;
+import io.github.mzmine.datamodel.MZmineProject;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.features.FeatureList;
+import io.github.mzmine.gui.chartbasics.simplechart.datasets.AbstractTaskXYDataset;
+import io.github.mzmine.main.MZmineCore;
+import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.parameters.UserParameter;
+import io.github.mzmine.taskcontrol.TaskStatus;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Common base of the projection plot datasets. The abundance matrix is extracted once per feature
+ * list and shared with the datasets of later sample selections in the same plot window (see
+ * {@link #createForSelection(RawDataFile[], ProjectionPlotWindow)}). The last coordinates are used
+ * to warm start the projection of a changed selection.
+ */
+public abstract class AbstractProjectionDataset extends AbstractTaskXYDataset implements
+    ProjectionPlotDataset {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final Logger logger = Logger.getLogger(
+      AbstractProjectionDataset.class.getName());
+
+  protected final MZmineProject project;
+  protected final ParameterSet parameters;
+  protected final FeatureList featureList;
+  protected final RawDataFile[] selectedRawDataFiles;
+  protected final int xAxisDimension;
+  protected final int yAxisDimension;
+  protected final int numComponents;
+  /**
+   * the previous dataset of the same plot window or null
+   */
+  @Nullable
+  protected final AbstractProjectionDataset previous;
+
+  private final String datasetTitle;
+  private final int[] groupsForSelectedRawDataFiles;
+  private Object[] parameterValuesForGroups;
+  private int numberOfGroups;
+
+  @Nullable
+  private final ProjectionPlotWindow window;
+  private AbundanceMatrix matrix;
+  private double[] component1Coords;
+  private double[] component2Coords;
+  /**
+   * all computed dimensions of each sample to warm start later selections
+   */
+  private Map<RawDataFile, double[]> coordinates;
+  protected volatile double finishedPercentage;
+
+  protected AbstractProjectionDataset(MZmineProject project, ParameterSet parameters,
+      String datasetTitle) {
+    this(project, parameters, datasetTitle,
+        parameters.getParameter(ProjectionPlotParameters.dataFiles).getValue()
+            .getMatchingRawDataFiles(), null, null);
+  }
+
+  /**
+   * @param previous the dataset of the last selection in the same window or null
+   * @param window   the window to update or null to open a new window
+   */
+  protected AbstractProjectionDataset(MZmineProject project, ParameterSet parameters,
+      String datasetTitle, RawDataFile[] selectedRawDataFiles,
+      @Nullable AbstractProjectionDataset previous, @Nullable ProjectionPlotWindow window) {
+    this.project = project;
+    this.parameters = parameters;
+    this.datasetTitle = datasetTitle;
+    this.selectedRawDataFiles = selectedRawDataFiles;
+    this.previous = previous;
+    this.window = window;
+    this.featureList = parameters.getParameter(ProjectionPlotParameters.featureLists).getValue()
+        .getMatchingFeatureLists()[0];
+    this.matrix = previous != null ? previous.matrix : null;
+
+    xAxisDimension = parameters.getParameter(ProjectionPlotParameters.xAxisComponent).getValue();
+    yAxisDimension = parameters.getParameter(ProjectionPlotParameters.yAxisComponent).getValue();
+    numComponents = Math.max(xAxisDimension, yAxisDimension);
+
+    // Determine groups for selected raw data files
+    final ColoringType coloringType = parameters.getParameter(
+        ProjectionPlotParameters.coloringType).getValue();
+    groupsForSelectedRawDataFiles = new int[selectedRawDataFiles.length];
+    if (coloringType.equals(ColoringType.NOCOLORING)) {
+      // All files to a single group
+      numberOfGroups = 1;
+    } else if (coloringType.equals(ColoringType.COLORBYFILE)) {
+      // Each file to own group
+      for (int ind = 0; ind < selectedRawDataFiles.length; ind++) {
+        groupsForSelectedRawDataFiles[ind] = ind;
+      }
+      numberOfGroups = selectedRawDataFiles.length;
+    } else if (coloringType.isByParameter()) {
+      // Group files with same parameter value to same group
+      final List<Object> availableParameterValues = new ArrayList<>();
+      final UserParameter<?, ?> selectedParameter = coloringType.getParameter();
+      for (int ind = 0; ind < selectedRawDataFiles.length; ind++) {
+        Object paramValue = project.getParameterValue(selectedParameter,
+            selectedRawDataFiles[ind]);
+        if (!availableParameterValues.contains(paramValue)) {
+          availableParameterValues.add(paramValue);
+        }
+        groupsForSelectedRawDataFiles[ind] = availableParameterValues.indexOf(paramValue);
+      }
+      parameterValuesForGroups = availableParameterValues.toArray();
+      numberOfGroups = parameterValuesForGroups.length;
+    }
+  }
+
+  /**
+   * Projects the samples
+   *
+   * @param scaled        the centered abundances of the selected samples scaled to unit variance
+   *                      [sample][feature]
+   * @param numComponents the number of dimensions
+   * @return the coordinates [dimension][sample] or null if canceled
+   */
+  @Nullable
+  protected abstract double[][] computeProjection(@NotNull double[][] scaled, int numComponents);
+
+  /**
+   * @return a new dataset for another sample selection that reuses the data of this dataset and
+   * updates the window
+   */
+  @NotNull
+  public abstract AbstractProjectionDataset createForSelection(
+      @NotNull RawDataFile[] selectedRawDataFiles, @NotNull ProjectionPlotWindow window);
+
+  /**
+   * Start coordinates from the previous selection. Samples that were not part of the previous
+   * selection start close to their nearest previous sample.
+   *
+   * @param distances input distances of the selected samples
+   * @return the start coordinates [dimension][sample] or null if there are no previous
+   * coordinates
+   */
+  @Nullable
+  protected double[][] warmStartCoordinates(@NotNull double[][] distances) {
+    final Map<RawDataFile, double[]> last = previous != null ? previous.coordinates : null;
+    if (last == null) {
+      return null;
+    }
+    final int n = selectedRawDataFiles.length;
+    final double[][] start = new double[numComponents][n];
+    final boolean[] known = new boolean[n];
+    double spread = 0d;
+    for (int i = 0; i < n; i++) {
+      final double[] coords = last.get(selectedRawDataFiles[i]);
+      if (coords != null && coords.length == numComponents) {
+        known[i] = true;
+        for (int d = 0; d < numComponents; d++) {
+          start[d][i] = coords[d];
+          spread = Math.max(spread, Math.abs(coords[d]));
+        }
+      }
+    }
+
+    final Random random = new Random(n);
+    boolean anyKnown = false;
+    for (int i = 0; i < n; i++) {
+      if (known[i]) {
+        anyKnown = true;
+        continue;
+      }
+      int nearest = -1;
+      for (int j = 0; j < n; j++) {
+        if (known[j] && (nearest == -1 || distances[i][j] < distances[i][nearest])) {
+          nearest = j;
+        }
+      }
+      for (int d = 0; d < numComponents; d++) {
+        final double base = nearest == -1 ? 0d : start[d][nearest];
+        start[d][i] = base + 0.01 * Math.max(spread, 1d) * random.nextGaussian();
+      }
+    }
+    return anyKnown ? start : null;
+  }
+
+  @Override
+  public void run() {
+    setStatus(TaskStatus.PROCESSING);
+
+    if (featureList.getNumberOfRows() == 0) {
+      setStatus(TaskStatus.ERROR);
+      errorMessage = "No features selected for " + datasetTitle;
+      return;
+    }
+    if (selectedRawDataFiles.length < 2) {
+      setStatus(TaskStatus.ERROR);
+      errorMessage = "At least two raw data files are required for " + datasetTitle;
+      return;
+    }
+
+    logger.info("Computing projection plot: " + datasetTitle);
+
+    if (matrix == null) {
+      final AbundanceMeasure measure = parameters.getParameter(
+          ProjectionPlotParameters.featureMeasurementType).getValue();
+      matrix = new AbundanceMatrix(featureList, measure);
+    }
+    final double[][] scaled = ProjectionEngine.scaleToUnitVariance(
+        matrix.select(selectedRawDataFiles));
+    if (isCanceled()) {
+      return;
+    }
+
+    final double[][] result = computeProjection(scaled, numComponents);
+    if (isCanceled() || result == null) {
+      return;
+    }
+
+    coordinates = new HashMap<>();
+    for (int i = 0; i < selectedRawDataFiles.length; i++) {
+      final double[] coords = new double[numComponents];
+      for (int d = 0; d < numComponents; d++) {
+        coords[d] = result[d][i];
+      }
+      coordinates.put(selectedRawDataFiles[i], coords);
+    }
+    component1Coords = result[xAxisDimension - 1];
+    component2Coords = result[yAxisDimension - 1];
+
+    MZmineCore.runLater(() -> {
+      if (window == null) {
+        new ProjectionPlotWindow(featureList, this, parameters).show();
+      } else {
+        window.setDataset(this);
+      }
+    });
+
+    finishedPercentage = 1d;
+    setStatus(TaskStatus.FINISHED);
+    logger.info("Finished computing projection plot.");
+  }
+
+  @Override
+  public String toString() {
+    return datasetTitle;
+  }
+
+  @Override
+  public String getTaskDescription() {
+    return datasetTitle;
+  }
+
+  @Override
+  public double getFinishedPercentage() {
+    return finishedPercentage;
+  }
+
+  @Override
+  public String getXLabel() {
+    return ordinal(xAxisDimension) + " " + getDimensionName();
+  }
+
+  @Override
+  public String getYLabel() {
+    return ordinal(yAxisDimension) + " " + getDimensionName();
+  }
+
+  /**
+   * @return the axis label after the ordinal number
+   */
+  protected String getDimensionName() {
+    return "projected dimension";
+  }
+
+  private static String ordinal(int dimension) {
+    return switch (dimension) {
+      case 1 -> "1st";
+      case 2 -> "2nd";
+      case 3 -> "3rd";
+      default -> dimension + "th";
+    };
+  }
+
+  public FeatureList getFeatureList() {
+    return featureList;
+  }
+
+  public RawDataFile[] getSelectedRawDataFiles() {
+    return selectedRawDataFiles;
+  }
+
+  @Override
+  public int getSeriesCount() {
+    return 1;
+  }
+
+  @Override
+  public Comparable<Integer> getSeriesKey(int series) {
+    return 1;
+  }
+
+  @Override
+  public int getItemCount(int series) {
+    return component1Coords == null ? 0 : component1Coords.length;
+  }
+
+  @Override
+  public Number getX(int series, int item) {
+    return component1Coords[item];
+  }
+
+  @Override
+  public Number getY(int series, int item) {
+    return component2Coords[item];
+  }
+
+  @Override
+  public String getRawDataFile(int item) {
+    return selectedRawDataFiles[item].getName();
+  }
+
+  @Override
+  public int getGroupNumber(int item) {
+    return groupsForSelectedRawDataFiles[item];
+  }
+
+  @Override
+  public Object getGroupParameterValue(int groupNumber) {
+    if (parameterValuesForGroups == null) {
+      return null;
+    }
+    if ((parameterValuesForGroups.length - 1) < groupNumber) {
+      return null;
+    }
+    return parameterValuesForGroups[groupNumber];
+  }
+
+  @Override
+  public int getNumberOfGroups() {
+    return numberOfGroups;
+  }
+}
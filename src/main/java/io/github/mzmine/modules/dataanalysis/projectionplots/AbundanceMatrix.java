@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.dataanalysis.projectionplots;
+
+import io.github.mzmine.datamodel.AbundanceMeasure;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.features.Feature;
+import io.github.mzmine.datamodel.features.FeatureList;
+import io.github.mzmine.datamodel.features.FeatureListRow;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Feature abundances of all raw data files of a feature list as one array per sample. The arrays
+ * are filled in parallel straight from the feature list rows and shared by all sample selections,
+ * so that a changed selection does not need another pass over the feature list. Missing features
+ * have an abundance of 0.
+ */
+public class AbundanceMatrix {
+
+  private final Map<RawDataFile, double[]> samples;
+  private final double[] empty;
+  private final int numFeatures;
+
+  public AbundanceMatrix(@NotNull FeatureList featureList, @NotNull AbundanceMeasure measure) {
+    final List<FeatureListRow> rows = featureList.getRows();
+    final List<RawDataFile> raws = featureList.getRawDataFiles();
+    numFeatures = rows.size();
+    empty = new double[numFeatures];
+
+    final double[][] data = new double[raws.size()][numFeatures];
+    final boolean useArea = measure == AbundanceMeasure.Area;
+    // each row writes a different index of the sample arrays
+    IntStream.range(0, numFeatures).parallel().forEach(f -> {
+      final FeatureListRow row = rows.get(f);
+      for (int s = 0; s < data.length; s++) {
+        final Feature feature = row.getFeature(raws.get(s));
+        if (feature != null) {
+          final Float value = useArea ? feature.getArea() : feature.getHeight();
+          data[s][f] = value == null ? 0d : value;
+        }
+      }
+    });
+
+    samples = new HashMap<>(raws.size());
+    for (int s = 0; s < data.length; s++) {
+      samples.put(raws.get(s), data[s]);
+    }
+  }
+
+  public int getNumberOfFeatures() {
+    return numFeatures;
+  }
+
+  /**
+   * @param files the sample selection
+   * @return the abundances [sample][feature]. The arrays are shared and must not be changed
+   */
+  @NotNull
+  public double[][] select(@NotNull RawDataFile[] files) {
+    final double[][] selected = new double[files.length][];
+    for (int i = 0; i < files.length; i++) {
+      selected[i] = samples.getOrDefault(files[i], empty);
+    }
+    return selected;
+  }
+}
@@ -0,0 +1,706 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.dataanalysis.projectionplots;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleConsumer;
+import java.util.stream.IntStream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Projections of samples [sample][feature] to a few dimensions for projection plots. The heavy
+ * parts (matrix products over all features and the distance matrix) run in parallel on blocks of
+ * features and samples.
+ * <ul>
+ *   <li>PCA by randomized truncated SVD (Halko et al., 2011). Only the requested components and
+ *   a small oversampling are computed instead of the full eigendecomposition. The feature space
+ *   basis of a previous result can be used as starting subspace.</li>
+ *   <li>Sammon's mapping with the pseudo-Newton update and step halving (Sammon, 1969) on a blocked
+ *   distance matrix</li>
+ *   <li>Curvilinear distance analysis (CDA) with geodesic distances on the k nearest neighbor
+ *   graph and the curvilinear component analysis update (Lee et al., 2004)</li>
+ * </ul>
+ * All results are [dimension][sample].
+ */
+public final class ProjectionEngine {
+
+  private static final int OVERSAMPLING = 10;
+  private static final int POWER_ITERATIONS = 4;
+  private static final int WARM_POWER_ITERATIONS = 1;
+  private static final int FEATURE_BLOCK = 4096;
+  private static final int SAMPLE_BLOCK = 64;
+  private static final int MAX_STEP_HALVINGS = 20;
+  private static final int MAX_JACOBI_SWEEPS = 100;
+  private static final double CONVERGENCE = 1e-9;
+  private static final double EPSILON = 1e-12;
+  private static final long SEED = 42L;
+
+  private ProjectionEngine() {
+  }
+
+  /**
+   * Centers each feature and scales it to unit variance over all samples. Features without
+   * variance (or with NaN values) are set to 0.
+   *
+   * @param samples [sample][feature], not changed
+   * @return new scaled matrix [sample][feature]
+   */
+  @NotNull
+  public static double[][] scaleToUnitVariance(@NotNull double[][] samples) {
+    final int n = samples.length;
+    final int p = n == 0 ? 0 : samples[0].length;
+    final double[][] scaled = new double[n][p];
+    IntStream.range(0, blocks(p, FEATURE_BLOCK)).parallel().forEach(b -> {
+      final int from = b * FEATURE_BLOCK;
+      final int to = Math.min(p, from + FEATURE_BLOCK);
+      final double[] mean = new double[to - from];
+      final double[] var = new double[to - from];
+      for (double[] sample : samples) {
+        for (int f = from; f < to; f++) {
+          mean[f - from] += sample[f];
+        }
+      }
+      for (int f = 0; f < mean.length; f++) {
+        mean[f] /= n;
+      }
+      for (double[] sample : samples) {
+        for (int f = from; f < to; f++) {
+          final double d = sample[f] - mean[f - from];
+          var[f - from] += d * d;
+        }
+      }
+      for (int f = from; f < to; f++) {
+        final double sd = n > 1 ? Math.sqrt(var[f - from] / (n - 1)) : 0d;
+        final boolean valid = sd > EPSILON && Double.isFinite(sd);
+        for (int i = 0; i < n; i++) {
+          scaled[i][f] = valid ? (samples[i][f] - mean[f - from]) / sd : 0d;
+        }
+      }
+    });
+    return scaled;
+  }
+
+  /**
+   * Principal component analysis by randomized truncated SVD of centered data.
+   *
+   * @param x          centered data [sample][feature]
+   * @param components number of components
+   * @param warmStart  feature space basis of a previous result on the same features or null
+   * @return the scores and feature space basis or null if canceled
+   */
+  @Nullable
+  public static PcaResult pca(@NotNull double[][] x, int components,
+      @Nullable double[][] warmStart, @NotNull BooleanSupplier isCanceled) {
+    final int n = x.length;
+    final int p = n == 0 ? 0 : x[0].length;
+    final int l = Math.min(components + OVERSAMPLING, Math.min(n, p));
+
+    // starting subspace in feature space
+    final double[][] omega = new double[l][];
+    int start = 0;
+    if (warmStart != null) {
+      for (; start < Math.min(l, warmStart.length); start++) {
+        if (warmStart[start].length != p) {
+          break;
+        }
+        omega[start] = warmStart[start].clone();
+      }
+    }
+    final boolean warm = start > 0;
+    final Random random = new Random(SEED);
+    for (int j = start; j < l; j++) {
+      omega[j] = new double[p];
+      for (int f = 0; f < p; f++) {
+        omega[j][f] = random.nextGaussian();
+      }
+    }
+
+    double[][] q = multiply(x, omega);
+    orthonormalizeColumns(q);
+    final int powerIterations = warm ? WARM_POWER_ITERATIONS : POWER_ITERATIONS;
+    for (int it = 0; it < powerIterations; it++) {
+      if (isCanceled.getAsBoolean()) {
+        return null;
+      }
+      final double[][] z = multiplyTransposed(x, q);
+      orthonormalizeRows(z);
+      q = multiply(x, z);
+      orthonormalizeColumns(q);
+    }
+    if (isCanceled.getAsBoolean()) {
+      return null;
+    }
+
+    // small SVD of B = Q^T X by the eigendecomposition of B B^T
+    final double[][] b = multiplyTransposed(x, q);
+    final double[][] gram = new double[l][l];
+    for (int i = 0; i < l; i++) {
+      for (int j = i; j < l; j++) {
+        gram[i][j] = gram[j][i] = dot(b[i], b[j], 0, p);
+      }
+    }
+    final double[] eigenvalues = new double[l];
+    final double[][] eigenvectors = symmetricEigen(gram, eigenvalues);
+
+    final double[][] scores = new double[components][n];
+    final double[][] basis = new double[l][p];
+    for (int m = 0; m < l; m++) {
+      final double sigma = Math.sqrt(Math.max(eigenvalues[m], 0d));
+      final double[] w = eigenvectors[m];
+      if (sigma > EPSILON) {
+        for (int j = 0; j < l; j++) {
+          final double wj = w[j] / sigma;
+          for (int f = 0; f < p; f++) {
+            basis[m][f] += wj * b[j][f];
+          }
+        }
+      }
+      if (m >= components) {
+        continue;
+      }
+      for (int i = 0; i < n; i++) {
+        scores[m][i] = sigma * dot(q[i], w, 0, l);
+      }
+      // deterministic sign: largest absolute score is positive
+      int maxIndex = 0;
+      for (int i = 1; i < n; i++) {
+        if (Math.abs(scores[m][i]) > Math.abs(scores[m][maxIndex])) {
+          maxIndex = i;
+        }
+      }
+      if (n > 0 && scores[m][maxIndex] < 0) {
+        for (int i = 0; i < n; i++) {
+          scores[m][i] = -scores[m][i];
+        }
+        for (int f = 0; f < p; f++) {
+          basis[m][f] = -basis[m][f];
+        }
+      }
+    }
+    return new PcaResult(scores, basis);
+  }
+
+  /**
+   * Euclidean distances between all samples. Tiles of samples are processed in parallel, each over
+   * blocks of features to reuse the cached sample values.
+   *
+   * @param x [sample][feature]
+   * @return symmetric distance matrix or null if canceled
+   */
+  @Nullable
+  public static double[][] distances(@NotNull double[][] x, @NotNull BooleanSupplier isCanceled) {
+    final int n = x.length;
+    final int p = n == 0 ? 0 : x[0].length;
+    final double[] norms = new double[n];
+    IntStream.range(0, n).parallel().forEach(i -> norms[i] = dot(x[i], x[i], 0, p));
+
+    final double[][] d = new double[n][n];
+    final int tiles = blocks(n, SAMPLE_BLOCK);
+    IntStream.range(0, tiles * tiles).filter(t -> t / tiles <= t % tiles).parallel()
+        .forEach(t -> {
+          if (isCanceled.getAsBoolean()) {
+            return;
+          }
+          final int fromI = (t / tiles) * SAMPLE_BLOCK;
+          final int toI = Math.min(n, fromI + SAMPLE_BLOCK);
+          final int fromJ = (t % tiles) * SAMPLE_BLOCK;
+          final int toJ = Math.min(n, fromJ + SAMPLE_BLOCK);
+          final double[][] products = new double[toI - fromI][toJ - fromJ];
+          for (int from = 0; from < p; from += FEATURE_BLOCK) {
+            final int to = Math.min(p, from + FEATURE_BLOCK);
+            for (int i = fromI; i < toI; i++) {
+              for (int j = Math.max(fromJ, i + 1); j < toJ; j++) {
+                products[i - fromI][j - fromJ] += dot(x[i], x[j], from, to);
+              }
+            }
+          }
+          for (int i = fromI; i < toI; i++) {
+            for (int j = Math.max(fromJ, i + 1); j < toJ; j++) {
+              final double squared = norms[i] + norms[j] - 2d * products[i - fromI][j - fromJ];
+              d[i][j] = d[j][i] = Math.sqrt(Math.max(squared, 0d));
+            }
+          }
+        });
+    return isCanceled.getAsBoolean() ? null : d;
+  }
+
+  /**
+   * Sammon's mapping of the distances. Each iteration updates all samples in parallel with the
+   * pseudo-Newton step and halves the step until the stress decreases.
+   *
+   * @param distances     input distances
+   * @param init          start coordinates [dimension][sample], e.g., PCA scores
+   * @param maxIterations maximum number of iterations
+   * @param progress      receives the finished iterations relative to the maximum
+   * @return the coordinates [dimension][sample] or null if canceled
+   */
+  @Nullable
+  public static double[][] sammon(@NotNull double[][] distances, @NotNull double[][] init,
+      int maxIterations, @NotNull BooleanSupplier isCanceled, @Nullable DoubleConsumer progress) {
+    final int n = distances.length;
+    final int dims = init.length;
+    double[][] y = transpose(init, n);
+    final double minDistance = minOutputDistance(distances);
+
+    double stress = sammonStress(distances, y, minDistance);
+    for (int it = 0; it < maxIterations; it++) {
+      if (isCanceled.getAsBoolean()) {
+        return null;
+      }
+      final double[][] current = y;
+      final double[][] step = new double[n][dims];
+      IntStream.range(0, n).parallel().forEach(i -> {
+        final double[] g = new double[dims];
+        final double[] h = new double[dims];
+        for (int j = 0; j < n; j++) {
+          final double input = distances[i][j];
+          if (j == i || input <= 0d) {
+            continue;
+          }
+          final double output = Math.max(distance(current[i], current[j]), minDistance);
+          final double delta = 1d / output - 1d / input;
+          final double inv3 = 1d / (output * output * output);
+          for (int k = 0; k < dims; k++) {
+            final double diff = current[j][k] - current[i][k];
+            g[k] += delta * diff;
+            h[k] += inv3 * diff * diff - delta;
+          }
+        }
+        for (int k = 0; k < dims; k++) {
+          step[i][k] = Math.abs(h[k]) > EPSILON ? -g[k] / Math.abs(h[k]) : 0d;
+        }
+      });
+
+      boolean improved = false;
+      double[][] next = null;
+      double nextStress = stress;
+      for (int halving = 0; halving < MAX_STEP_HALVINGS; halving++) {
+        final double factor = Math.pow(0.5, halving);
+        next = new double[n][dims];
+        for (int i = 0; i < n; i++) {
+          for (int k = 0; k < dims; k++) {
+            next[i][k] = current[i][k] + factor * step[i][k];
+          }
+        }
+        nextStress = sammonStress(distances, next, minDistance);
+        if (nextStress < stress) {
+          improved = true;
+          break;
+        }
+      }
+      if (progress != null) {
+        progress.accept((it + 1) / (double) maxIterations);
+      }
+      if (!improved) {
+        break;
+      }
+      y = next;
+      final boolean converged = stress - nextStress < CONVERGENCE * stress;
+      stress = nextStress;
+      if (converged) {
+        break;
+      }
+    }
+    return transpose(y, dims);
+  }
+
+  private static double sammonStress(double[][] distances, double[][] y, double minDistance) {
+    final int n = distances.length;
+    final double[] sums = new double[2];
+    final double[][] rows = new double[n][2];
+    IntStream.range(0, n).parallel().forEach(i -> {
+      for (int j = i + 1; j < n; j++) {
+        final double input = distances[i][j];
+        if (input <= 0d) {
+          continue;
+        }
+        final double diff = input - Math.max(distance(y[i], y[j]), minDistance);
+        rows[i][0] += diff * diff / input;
+        rows[i][1] += input;
+      }
+    });
+    for (double[] row : rows) {
+      sums[0] += row[0];
+      sums[1] += row[1];
+    }
+    return sums[1] > 0 ? sums[0] / sums[1] : 0d;
+  }
+
+  /**
+   * Geodesic distances as shortest paths on the graph of the k nearest neighbors of each sample.
+   * Samples in unconnected parts of the graph get twice the maximum geodesic distance.
+   *
+   * @param distances  input distances
+   * @param neighbours number of nearest neighbors of each sample
+   * @return symmetric geodesic distance matrix
+   */
+  @NotNull
+  public static double[][] geodesicDistances(@NotNull double[][] distances, int neighbours) {
+    final int n = distances.length;
+    final int k = Math.min(neighbours, n - 1);
+    final List<List<Integer>> adjacency = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      adjacency.add(new ArrayList<>());
+    }
+    for (int i = 0; i < n; i++) {
+      final int source = i;
+      final Integer[] order = IntStream.range(0, n).filter(j -> j != source).boxed()
+          .toArray(Integer[]::new);
+      Arrays.sort(order, (a, b) -> Double.compare(distances[source][a], distances[source][b]));
+      for (int m = 0; m < k; m++) {
+        final int j = order[m];
+        if (!adjacency.get(i).contains(j)) {
+          adjacency.get(i).add(j);
+          adjacency.get(j).add(i);
+        }
+      }
+    }
+
+    final double[][] geodesic = new double[n][];
+    IntStream.range(0, n).parallel().forEach(source -> {
+      final double[] dist = new double[n];
+      Arrays.fill(dist, Double.POSITIVE_INFINITY);
+      dist[source] = 0d;
+      final PriorityQueue<double[]> queue = new PriorityQueue<>(
+          (a, b) -> Double.compare(a[0], b[0]));
+      queue.add(new double[]{0d, source});
+      while (!queue.isEmpty()) {
+        final double[] head = queue.poll();
+        final int node = (int) head[1];
+        if (head[0] > dist[node]) {
+          continue;
+        }
+        for (int next : adjacency.get(node)) {
+          final double candidate = dist[node] + distances[node][next];
+          if (candidate < dist[next]) {
+            dist[next] = candidate;
+            queue.add(new double[]{candidate, next});
+          }
+        }
+      }
+      geodesic[source] = dist;
+    });
+
+    double max = 0d;
+    for (double[] row : geodesic) {
+      for (double value : row) {
+        if (Double.isFinite(value)) {
+          max = Math.max(max, value);
+        }
+      }
+    }
+    for (double[] row : geodesic) {
+      for (int j = 0; j < n; j++) {
+        if (!Double.isFinite(row[j])) {
+          row[j] = 2d * max;
+        }
+      }
+    }
+    return geodesic;
+  }
+
+  /**
+   * Curvilinear distance analysis. Curvilinear component analysis of geodesic distances: each
+   * sample in turn moves all other samples within the neighborhood radius so that their output
+   * distance approaches the geodesic distance. Learning rate and radius decrease with each epoch.
+   *
+   * @param geodesic geodesic distances, see {@link #geodesicDistances(double[][], int)}
+   * @param init     start coordinates [dimension][sample], e.g., PCA scores
+   * @param epochs   number of epochs
+   * @param progress receives the finished epochs relative to all epochs
+   * @return the coordinates [dimension][sample] or null if canceled
+   */
+  @Nullable
+  public static double[][] cda(@NotNull double[][] geodesic, @NotNull double[][] init, int epochs,
+      @NotNull BooleanSupplier isCanceled, @Nullable DoubleConsumer progress) {
+    final int n = geodesic.length;
+    final int dims = init.length;
+    final double[][] y = transpose(init, n);
+    double maxDistance = 0d;
+    for (double[] row : geodesic) {
+      for (double value : row) {
+        maxDistance = Math.max(maxDistance, value);
+      }
+    }
+    final double minDistance = Math.max(maxDistance * EPSILON, EPSILON);
+
+    final Random random = new Random(SEED);
+    final int[] order = IntStream.range(0, n).toArray();
+    for (int epoch = 0; epoch < epochs; epoch++) {
+      if (isCanceled.getAsBoolean()) {
+        return null;
+      }
+      final double progressOfEpochs = epochs > 1 ? epoch / (double) (epochs - 1) : 1d;
+      final double alpha = 0.5 * Math.pow(0.01 / 0.5, progressOfEpochs);
+      final double lambda = maxDistance * Math.pow(0.01, progressOfEpochs);
+
+      shuffle(order, random);
+      for (int i : order) {
+        final double[] yi = y[i];
+        for (int j = 0; j < n; j++) {
+          if (j == i) {
+            continue;
+          }
+          final double[] yj = y[j];
+          final double output = distance(yi, yj);
+          if (output >= lambda || output < minDistance) {
+            continue;
+          }
+          final double factor = alpha * (geodesic[i][j] - output) / output;
+          for (int k = 0; k < dims; k++) {
+            yj[k] += factor * (yj[k] - yi[k]);
+          }
+        }
+      }
+      if (progress != null) {
+        progress.accept((epoch + 1) / (double) epochs);
+      }
+    }
+    return transpose(y, dims);
+  }
+
+  /**
+   * Eigendecomposition of a small symmetric matrix by cyclic Jacobi rotations
+   *
+   * @param matrix      symmetric matrix, not changed
+   * @param eigenvalues receives the eigenvalues in descending order
+   * @return the eigenvectors [eigenvalue index][element]
+   */
+  static double[][] symmetricEigen(double[][] matrix, double[] eigenvalues) {
+    final int n = matrix.length;
+    final double[][] a = new double[n][];
+    final double[][] v = new double[n][n];
+    for (int i = 0; i < n; i++) {
+      a[i] = matrix[i].clone();
+      v[i][i] = 1d;
+    }
+
+    for (int sweep = 0; sweep < MAX_JACOBI_SWEEPS; sweep++) {
+      double off = 0d;
+      double diagonal = 0d;
+      for (int p = 0; p < n; p++) {
+        diagonal += a[p][p] * a[p][p];
+        for (int q = p + 1; q < n; q++) {
+          off += a[p][q] * a[p][q];
+        }
+      }
+      if (off <= EPSILON * EPSILON * Math.max(diagonal, EPSILON)) {
+        break;
+      }
+
+      for (int p = 0; p < n; p++) {
+        for (int q = p + 1; q < n; q++) {
+          if (Math.abs(a[p][q]) < Double.MIN_NORMAL) {
+            continue;
+          }
+          final double theta = (a[q][q] - a[p][p]) / (2d * a[p][q]);
+          final double t = (theta >= 0 ? 1d : -1d) / (Math.abs(theta) + Math.sqrt(
+              theta * theta + 1d));
+          final double c = 1d / Math.sqrt(t * t + 1d);
+          final double s = t * c;
+          for (int k = 0; k < n; k++) {
+            final double akp = a[k][p];
+            final double akq = a[k][q];
+            a[k][p] = c * akp - s * akq;
+            a[k][q] = s * akp + c * akq;
+          }
+          for (int k = 0; k < n; k++) {
+            final double apk = a[p][k];
+            final double aqk = a[q][k];
+            a[p][k] = c * apk - s * aqk;
+            a[q][k] = s * apk + c * aqk;
+          }
+          for (int k = 0; k < n; k++) {
+            final double vkp = v[k][p];
+            final double vkq = v[k][q];
+            v[k][p] = c * vkp - s * vkq;
+            v[k][q] = s * vkp + c * vkq;
+          }
+        }
+      }
+    }
+
+    final Integer[] order = IntStream.range(0, n).boxed().toArray(Integer[]::new);
+    Arrays.sort(order, (i, j) -> Double.compare(a[j][j], a[i][i]));
+    final double[][] vectors = new double[n][n];
+    for (int m = 0; m < n; m++) {
+      final int index = order[m];
+      eigenvalues[m] = a[index][index];
+      for (int k = 0; k < n; k++) {
+        vectors[m][k] = v[k][index];
+      }
+    }
+    return vectors;
+  }
+
+  /**
+   * @return x * vectors^T as [sample][vector]
+   */
+  private static double[][] multiply(double[][] x, double[][] vectors) {
+    final int p = x[0].length;
+    final double[][] result = new double[x.length][vectors.length];
+    IntStream.range(0, x.length).parallel().forEach(i -> {
+      for (int j = 0; j < vectors.length; j++) {
+        result[i][j] = dot(x[i], vectors[j], 0, p);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * @return q^T * x as [column of q][feature]
+   */
+  private static double[][] multiplyTransposed(double[][] x, double[][] q) {
+    final int p = x[0].length;
+    final int l = q[0].length;
+    final double[][] result = new double[l][p];
+    IntStream.range(0, blocks(p, FEATURE_BLOCK)).parallel().forEach(b -> {
+      final int from = b * FEATURE_BLOCK;
+      final int to = Math.min(p, from + FEATURE_BLOCK);
+      for (int i = 0; i < x.length; i++) {
+        final double[] xi = x[i];
+        for (int j = 0; j < l; j++) {
+          final double qij = q[i][j];
+          final double[] target = result[j];
+          for (int f = from; f < to; f++) {
+            target[f] += qij * xi[f];
+          }
+        }
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Modified Gram-Schmidt on the columns of m [row][column]. Dependent columns are set to 0.
+   */
+  private static void orthonormalizeColumns(double[][] m) {
+    final int rows = m.length;
+    final int columns = m[0].length;
+    for (int j = 0; j < columns; j++) {
+      for (int prev = 0; prev < j; prev++) {
+        double r = 0d;
+        for (int i = 0; i < rows; i++) {
+          r += m[i][prev] * m[i][j];
+        }
+        for (int i = 0; i < rows; i++) {
+          m[i][j] -= r * m[i][prev];
+        }
+      }
+      double norm = 0d;
+      for (int i = 0; i < rows; i++) {
+        norm += m[i][j] * m[i][j];
+      }
+      norm = Math.sqrt(norm);
+      for (int i = 0; i < rows; i++) {
+        m[i][j] = norm > EPSILON ? m[i][j] / norm : 0d;
+      }
+    }
+  }
+
+  /**
+   * Modified Gram-Schmidt on the rows of m. Dependent rows are set to 0.
+   */
+  private static void orthonormalizeRows(double[][] m) {
+    final int p = m[0].length;
+    for (int j = 0; j < m.length; j++) {
+      for (int prev = 0; prev < j; prev++) {
+        final double r = dot(m[prev], m[j], 0, p);
+        for (int f = 0; f < p; f++) {
+          m[j][f] -= r * m[prev][f];
+        }
+      }
+      final double norm = Math.sqrt(dot(m[j], m[j], 0, p));
+      for (int f = 0; f < p; f++) {
+        m[j][f] = norm > EPSILON ? m[j][f] / norm : 0d;
+      }
+    }
+  }
+
+  private static double minOutputDistance(double[][] distances) {
+    double max = 0d;
+    for (double[] row : distances) {
+      for (double value : row) {
+        max = Math.max(max, value);
+      }
+    }
+    return Math.max(max * EPSILON, EPSILON);
+  }
+
+  private static double dot(double[] a, double[] b, int from, int to) {
+    double sum = 0d;
+    for (int i = from; i < to; i++) {
+      sum += a[i] * b[i];
+    }
+    return sum;
+  }
+
+  private static double distance(double[] a, double[] b) {
+    double sum = 0d;
+    for (int k = 0; k < a.length; k++) {
+      final double d = a[k] - b[k];
+      sum += d * d;
+    }
+    return Math.sqrt(sum);
+  }
+
+  private static double[][] transpose(double[][] m, int columns) {
+    final double[][] result = new double[columns][m.length];
+    for (int i = 0; i < m.length; i++) {
+      for (int j = 0; j < columns; j++) {
+        result[j][i] = m[i][j];
+      }
+    }
+    return result;
+  }
+
+  private static void shuffle(int[] values, Random random) {
+    for (int i = values.length - 1; i > 0; i--) {
+      final int j = random.nextInt(i + 1);
+      final int tmp = values[i];
+      values[i] = values[j];
+      values[j] = tmp;
+    }
+  }
+
+  private static int blocks(int size, int blockSize) {
+    return (size + blockSize - 1) / blockSize;
+  }
+
+  /**
+   * @param scores [component][sample]
+   * @param basis  orthonormal feature space basis [vector][feature] to warm start the next PCA
+   */
+  public record PcaResult(double[][] scores, double[][] basis) {
+
+  }
+}
@@ -26,6 +26,7 @@
 package io.github.mzmine.modules.dataanalysis.projectionplots;
 
 import io.github.mzmine.datamodel.AbundanceMeasure;
+import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.datamodel.features.FeatureList;
 import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.modules.visualization.scatterplot.ScatterPlotParameters;
@@ -35,9 +36,14 @@ import io.github.mzmine.parameters.parametertypes.WindowSettingsParameter;
 import io.github.mzmine.util.dialogs.AxesSetupDialog;
 import io.github.mzmine.util.javafx.FxIconUtil;
 import io.github.mzmine.util.javafx.WindowsMenu;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 import javafx.geometry.Orientation;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckMenuItem;
+import javafx.scene.control.MenuButton;
 import javafx.scene.control.ToolBar;
 import javafx.scene.control.Tooltip;
 import javafx.scene.image.Image;
@@ -50,16 +56,26 @@ public class ProjectionPlotWindow extends Stage {
   private static final Image axesIcon = FxIconUtil.loadImageFromResources("icons/axesicon.png");
   private static final Image labelsIcon = FxIconUtil.loadImageFromResources(
       "icons/annotationsicon.png");
+  private static final Image samplesIcon = FxIconUtil.loadImageFromResources(
+      "icons/filtericon.png");
 
   private final Scene mainScene;
   private final BorderPane mainPane;
 
   private final ToolBar toolbar;
-  private final ProjectionPlotPanel plot;
+  private final ParameterSet parameters;
+  private ProjectionPlotPanel plot;
+  private AbstractProjectionDataset currentDataset;
+  /**
+   * the projection of the last sample selection while it is computed. Older projections are
+   * canceled and their results are ignored
+   */
+  private AbstractProjectionDataset pendingDataset;
 
   public ProjectionPlotWindow(FeatureList featureList, ProjectionPlotDataset dataset,
       ParameterSet parameters) {
 
+    this.parameters = parameters;
     mainPane = new BorderPane();
     mainScene = new Scene(mainPane);
 
@@ -75,6 +91,10 @@ public class ProjectionPlotWindow extends Stage {
     Button labelsButton = new Button(null, new ImageView(labelsIcon));
     labelsButton.setTooltip(new Tooltip("Toggle sample names"));
     toolbar.getItems().addAll(axesButton, labelsButton);
+    if (dataset instanceof AbstractProjectionDataset projection) {
+      toolbar.getItems().add(createSamplesButton(featureList, projection));
+      currentDataset = projection;
+    }
     mainPane.setRight(toolbar);
 
     plot = new ProjectionPlotPanel(this, dataset, parameters);
@@ -108,5 +128,51 @@ public class ProjectionPlotWindow extends Stage {
 
   }
 
+  /**
+   * Selection of the samples in the plot. Each change starts a projection of the new selection
+   * that reuses the extracted abundances and the current coordinates.
+   */
+  private MenuButton createSamplesButton(FeatureList featureList,
+      AbstractProjectionDataset dataset) {
+    final MenuButton samplesButton = new MenuButton(null, new ImageView(samplesIcon));
+    samplesButton.setTooltip(new Tooltip("Select samples"));
+    final Set<RawDataFile> selected = new HashSet<>(
+        Arrays.asList(dataset.getSelectedRawDataFiles()));
+    for (RawDataFile raw : featureList.getRawDataFiles()) {
+      final CheckMenuItem item = new CheckMenuItem(raw.getName());
+      item.setSelected(selected.contains(raw));
+      item.setOnAction(e -> {
+        final RawDataFile[] selection = samplesButton.getItems().stream()
+            .filter(mi -> ((CheckMenuItem) mi).isSelected())
+            .map(mi -> featureList.getRawDataFiles().get(samplesButton.getItems().indexOf(mi)))
+            .toArray(RawDataFile[]::new);
+        if (selection.length < 2) {
+          // a projection needs at least two samples
+          item.setSelected(true);
+          return;
+        }
+        if (pendingDataset != null) {
+          pendingDataset.cancel();
+        }
+        pendingDataset = currentDataset.createForSelection(selection, this);
+        MZmineCore.getTaskController().addTask(pendingDataset);
+      });
+      samplesButton.getItems().add(item);
+    }
+    return samplesButton;
+  }
 
+  /**
+   * Shows the projection of another sample selection if it is the last selection
+   */
+  void setDataset(AbstractProjectionDataset dataset) {
+    if (dataset != pendingDataset) {
+      // the selection was changed again while this projection was computed
+      return;
+    }
+    pendingDataset = null;
+    currentDataset = dataset;
+    plot = new ProjectionPlotPanel(this, dataset, parameters);
+    mainPane.setCenter(plot);
+  }
 }
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.dataprocessing.align_ransac;
+
+import com.google.common.collect.Range;
+import io.github.mzmine.datamodel.features.FeatureList;
+import io.github.mzmine.datamodel.features.FeatureListRow;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import java.util.ArrayList;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Index of the average m/z and RT values of the rows of a feature list. Answers the same queries as
+ * {@link FeatureList#getRowsInsideScanAndMZRange(Range, Range)} with a binary search on the m/z
+ * sorted values instead of a loop over all rows. The feature list must not change while the index
+ * is used. Thread safe.
+ */
+class FeatureListRowIndex {
+
+  private final FeatureListRow[] rows;
+  // rows with average m/z and RT sorted by m/z
+  private final double[] mzs;
+  private final float[] rts;
+  private final int[] mzSortedPositions;
+  // rows with average RT sorted by RT and the minimum row position of all rows with a higher RT
+  private final float[] sortedRts;
+  private final int[] minPositionAbove;
+  // rows without RT
+  private final int[] positionsWithoutRt;
+
+  FeatureListRowIndex(@NotNull FeatureList flist) {
+    rows = flist.getRows().toArray(FeatureListRow[]::new);
+
+    final IntArrayList withValues = new IntArrayList(rows.length);
+    final IntArrayList withRt = new IntArrayList(rows.length);
+    final IntArrayList withoutRt = new IntArrayList();
+    final double[] rowMzs = new double[rows.length];
+    final float[] rowRts = new float[rows.length];
+    for (int i = 0; i < rows.length; i++) {
+      final Float rt = rows[i].getAverageRT();
+      final Double mz = rows[i].getAverageMZ();
+      if (rt == null) {
+        withoutRt.add(i);
+        continue;
+      }
+      rowRts[i] = rt;
+      rowMzs[i] = mz == null ? Double.NaN : mz;
+      if (!Float.isNaN(rowRts[i])) {
+        withRt.add(i);
+        if (!Double.isNaN(rowMzs[i])) {
+          withValues.add(i);
+        }
+      }
+    }
+    positionsWithoutRt = withoutRt.toIntArray();
+
+    mzSortedPositions = withValues.toIntArray();
+    IntArrays.quickSort(mzSortedPositions, (a, b) -> Double.compare(rowMzs[a], rowMzs[b]));
+    mzs = new double[mzSortedPositions.length];
+    rts = new float[mzSortedPositions.length];
+    for (int i = 0; i < mzSortedPositions.length; i++) {
+      mzs[i] = rowMzs[mzSortedPositions[i]];
+      rts[i] = rowRts[mzSortedPositions[i]];
+    }
+
+    final int[] rtSortedPositions = withRt.toIntArray();
+    IntArrays.quickSort(rtSortedPositions, (a, b) -> Float.compare(rowRts[a], rowRts[b]));
+    sortedRts = new float[rtSortedPositions.length];
+    minPositionAbove = new int[rtSortedPositions.length];
+    int minPosition = Integer.MAX_VALUE;
+    for (int i = rtSortedPositions.length - 1; i >= 0; i--) {
+      sortedRts[i] = rowRts[rtSortedPositions[i]];
+      minPosition = Math.min(minPosition, rtSortedPositions[i]);
+      minPositionAbove[i] = minPosition;
+    }
+  }
+
+  /**
+   * Same result as {@link FeatureList#getRowsInsideScanAndMZRange(Range, Range)}, which returns all
+   * rows within the ranges and rows without RT in the order of the feature list, but stops at the
+   * first row with an RT above the range.
+   *
+   * @param rtRange the RT range
+   * @param mzRange the m/z range
+   * @return the rows in the order of the feature list
+   */
+  List<FeatureListRow> getRowsInsideScanAndMZRange(Range<Float> rtRange, Range<Double> mzRange) {
+    final int stopPosition = getFirstPositionAbove(rtRange.upperEndpoint());
+
+    final IntArrayList positions = new IntArrayList();
+    for (int position : positionsWithoutRt) {
+      if (position < stopPosition) {
+        positions.add(position);
+      }
+    }
+
+    int i = mzRange.hasLowerBound() ? lowerBound(mzRange.lowerEndpoint()) : 0;
+    for (; i < mzs.length; i++) {
+      if (mzRange.hasUpperBound() && mzs[i] > mzRange.upperEndpoint()) {
+        break;
+      }
+      if (mzSortedPositions[i] < stopPosition && rtRange.contains(rts[i]) && mzRange.contains(
+          mzs[i])) {
+        positions.add(mzSortedPositions[i]);
+      }
+    }
+
+    final int[] sorted = positions.toIntArray();
+    IntArrays.quickSort(sorted);
+    final List<FeatureListRow> result = new ArrayList<>(sorted.length);
+    for (int position : sorted) {
+      result.add(rows[position]);
+    }
+    return result;
+  }
+
+  /**
+   * @return the position of the first row in the feature list with an RT above the value
+   */
+  private int getFirstPositionAbove(float rt) {
+    // first index with a higher RT
+    int low = 0;
+    int high = sortedRts.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (sortedRts[mid] > rt) {
+        high = mid;
+      } else {
+        low = mid + 1;
+      }
+    }
+    return low < sortedRts.length ? minPositionAbove[low] : Integer.MAX_VALUE;
+  }
+
+  /**
+   * @return the first index with an m/z greater or equal to the value
+   */
+  private int lowerBound(double mz) {
+    int low = 0;
+    int high = mzs.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (mzs[mid] < mz) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+}
@@ -24,22 +24,23 @@
  */
 package io.github.mzmine.modules.dataprocessing.align_ransac;
 
-import java.util.ArrayList;
+import io.github.mzmine.parameters.ParameterSet;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
 import org.apache.commons.math.analysis.polynomials.PolynomialFunction;
 import org.apache.commons.math.optimization.fitting.PolynomialFitter;
 import org.apache.commons.math.optimization.general.GaussNewtonOptimizer;
 
-import com.google.common.collect.Range;
-
-import io.github.mzmine.parameters.ParameterSet;
-
 public class RANSAC {
 
+  /**
+   * Number of iterations that are run by one worker
+   */
+  private static final int ITERATIONS_PER_CHUNK = 64;
+
   /**
    * input: data - a set of observed data points n - the minimum number of data values required to
    * fit the model k - the maximum number of iterations allowed in the algorithm t - a threshold
@@ -51,7 +52,6 @@ public class RANSAC {
   private int n;
   private double d = 1;
   private int k = 0;
-  private int AlsoNumber;
   private double numRatePoints, t;
   private boolean Linear;
 
@@ -113,174 +113,174 @@ public class RANSAC {
   }
 
   /**
-   * RANSAC algorithm
-   * 
+   * RANSAC algorithm. The iterations are split into chunks that run in parallel, each with its own
+   * inlier buffers. Random numbers are drawn from the thread local generator of each worker. The
+   * model with the lowest error (the first one for equal errors) defines the aligned points.
+   *
    * @param data vector with the points which represent all possible alignments.
    */
   public void ransac(List<AlignStructMol> data) {
-    double besterr = 9.9E99;
+    // the points are sorted once by RT, the initial points are drawn from both halves of the range
+    Collections.sort(data, new AlignStructMol());
+    final int size = data.size();
+    if (size <= n) {
+      return;
+    }
 
-    for (int iterations = 0; iterations < k; iterations++) {
-      AlsoNumber = n;
-      // Get the initial points
-      boolean initN = getInitN(data);
-      if (!initN) {
-        continue;
+    final double[] rt = new double[size];
+    final double[] rt2 = new double[size];
+    for (int i = 0; i < size; i++) {
+      rt[i] = data.get(i).RT;
+      rt2[i] = data.get(i).RT2;
+    }
+
+    final int numChunks = (k + ITERATIONS_PER_CHUNK - 1) / ITERATIONS_PER_CHUNK;
+    final RansacWorker best = IntStream.range(0, numChunks).parallel().mapToObj(chunk -> {
+      final RansacWorker worker = new RansacWorker(rt, rt2);
+      final int last = Math.min(k, (chunk + 1) * ITERATIONS_PER_CHUNK);
+      for (int iteration = chunk * ITERATIONS_PER_CHUNK; iteration < last; iteration++) {
+        worker.iterate(iteration);
+      }
+      return worker;
+    }).filter(worker -> worker.bestIteration >= 0).reduce(
+        (a, b) -> a.bestError < b.bestError || (a.bestError == b.bestError
+            && a.bestIteration < b.bestIteration) ? a : b).orElse(null);
+
+    if (best != null) {
+      for (int i = 0; i < size; i++) {
+        data.get(i).Aligned = best.aligned[i];
       }
+    }
+  }
+
+  /**
+   * Runs RANSAC iterations on the points sorted by RT and keeps the best model
+   */
+  private class RansacWorker {
+
+    private final double[] rt;
+    private final double[] rt2;
+    private final double min;
+    private final double max;
+    // model buffers
+    private final boolean[] maybeInLiers;
+    private final boolean[] alsoInLiers;
+    private int alsoNumber;
+    // best model
+    private final boolean[] aligned;
+    private double bestError = 9.9E99;
+    private int bestIteration = -1;
+
+    private RansacWorker(double[] rt, double[] rt2) {
+      this.rt = rt;
+      this.rt2 = rt2;
+      min = rt[0];
+      max = rt[rt.length - 1];
+      maybeInLiers = new boolean[rt.length];
+      alsoInLiers = new boolean[rt.length];
+      aligned = new boolean[rt.length];
+    }
+
+    private void iterate(int iteration) {
+      Arrays.fill(maybeInLiers, false);
+      Arrays.fill(alsoInLiers, false);
+      alsoNumber = n;
+      // Get the initial points
+      getInitN();
 
       // Calculate the model
-      fittPolinomialFunction(data, Linear);
+      fittPolinomialFunction();
 
       // If the model has the minimun number of points
-      if (AlsoNumber >= d) {
+      if (alsoNumber >= d) {
         // Get the error of the model based on the number of points
-        double error = 9.9E99;
-        try {
-          error = newError(data);
-        } catch (Exception ex) {
-          Logger.getLogger(RANSAC.class.getName()).log(Level.SEVERE, null, ex);
+        double numT = 1;
+        for (int i = 0; i < rt.length; i++) {
+          if (alsoInLiers[i] || maybeInLiers[i]) {
+            numT++;
+          }
         }
+        final double error = 1 / numT;
 
         // If the error is less than the error of the last model
-        if (error < besterr) {
-          besterr = error;
-          for (int i = 0; i < data.size(); i++) {
-            AlignStructMol alignStruct = data.get(i);
-            if (alignStruct.ransacAlsoInLiers || alignStruct.ransacMaybeInLiers) {
-              alignStruct.Aligned = true;
-            } else {
-              alignStruct.Aligned = false;
-            }
-
-            alignStruct.ransacAlsoInLiers = false;
-            alignStruct.ransacMaybeInLiers = false;
-
+        if (error < bestError) {
+          bestError = error;
+          bestIteration = iteration;
+          for (int i = 0; i < rt.length; i++) {
+            aligned[i] = alsoInLiers[i] || maybeInLiers[i];
           }
         }
       }
-      // remove the model
-      for (int i = 0; i < data.size(); i++) {
-        AlignStructMol alignStruct = data.get(i);
-        alignStruct.ransacAlsoInLiers = false;
-        alignStruct.ransacMaybeInLiers = false;
-      }
-
     }
-  }
 
-  /**
-   * Take the initial points ramdoly. The points are divided by the initial number of points. If the
-   * fractions contain enough number of points took one point from each part.
-   * 
-   * @param data vector with the points which represent all possible alignments.
-   * @return false if there is any problem.
-   */
-  private boolean getInitN(List<AlignStructMol> data) {
-    if (data.size() > n) {
-      Collections.sort(data, new AlignStructMol());
-      double min = data.get(0).RT;
-      double max = data.get(data.size() - 1).RT;
-
-      Range<Double> rtRange = Range.closed(min, ((max - min) / 2) + min);
+    /**
+     * Take the initial points ramdoly. The points are divided by the initial number of points. If
+     * the fractions contain enough number of points took one point from each part.
+     */
+    private void getInitN() {
+      final ThreadLocalRandom random = ThreadLocalRandom.current();
+      final double center = ((max - min) / 2) + min;
 
       int cont = 0, bucle = 0;
       while (cont < n / 2 && bucle < 1000) {
-        int index = (int) (data.size() * Math.random());
-        if (!data.get(index).ransacMaybeInLiers && rtRange.contains(data.get(index).RT)) {
-          data.get(index).ransacMaybeInLiers = true;
+        int index = (int) (rt.length * random.nextDouble());
+        if (!maybeInLiers[index] && rt[index] >= min && rt[index] <= center) {
+          maybeInLiers[index] = true;
           cont++;
-
         }
-
         bucle++;
       }
       if (bucle >= 1000) {
-        getN(data, (n / 2) - cont);
+        getN((n / 2) - cont);
       }
 
       bucle = 0;
-      rtRange = Range.closed(((max - min) / 2) + min, max);
-
       while (cont < n && bucle < 1000) {
-
-        int index = (int) (data.size() * Math.random());
-        if (!data.get(index).ransacMaybeInLiers && rtRange.contains(data.get(index).RT)) {
-          data.get(index).ransacMaybeInLiers = true;
+        int index = (int) (rt.length * random.nextDouble());
+        if (!maybeInLiers[index] && rt[index] >= center && rt[index] <= max) {
+          maybeInLiers[index] = true;
           cont++;
         }
         bucle++;
       }
       if (bucle >= 1000) {
-        getN(data, n - cont);
+        getN(n - cont);
       }
-      return true;
-    } else {
-      return false;
     }
-  }
 
-  private void getN(List<AlignStructMol> data, int newN) {
-    if (newN < 1) {
-      return;
-    }
-    int cont = 0;
-    while (cont < newN) {
-      int index = (int) (data.size() * Math.random());
-      if (!data.get(index).ransacMaybeInLiers) {
-        data.get(index).ransacMaybeInLiers = true;
-        cont++;
+    private void getN(int newN) {
+      if (newN < 1) {
+        return;
       }
-    }
-  }
-
-  private void fittPolinomialFunction(List<AlignStructMol> data, boolean linear) {
-    List<AlignStructMol> points = new ArrayList<AlignStructMol>();
-
-    int degree = 3;
-    if (linear) {
-      degree = 1;
-    }
-
-    PolynomialFitter fitter = new PolynomialFitter(degree, new GaussNewtonOptimizer(true));
-    for (int i = 0; i < data.size(); i++) {
-      AlignStructMol point = data.get(i);
-      if (point.ransacMaybeInLiers) {
-        points.add(point);
-        fitter.addObservedPoint(1, point.RT, point.RT2);
-      }
-    }
-    try {
-      PolynomialFunction function = fitter.fit();
-      for (AlignStructMol point : data) {
-        double y = point.RT2;
-        double bestY = function.value(point.RT);
-        if (Math.abs(y - bestY) < t) {
-          point.ransacAlsoInLiers = true;
-          AlsoNumber++;
-        } else {
-          point.ransacAlsoInLiers = false;
+      final ThreadLocalRandom random = ThreadLocalRandom.current();
+      int cont = 0;
+      while (cont < newN) {
+        int index = (int) (rt.length * random.nextDouble());
+        if (!maybeInLiers[index]) {
+          maybeInLiers[index] = true;
+          cont++;
         }
       }
-    } catch (Exception ex) {
     }
-  }
 
-  /**
-   * calculate the error in the model
-   * 
-   * @param data vector with the points which represent all possible alignments.
-   * @param regression regression of the alignment points
-   * @return the error in the model
-   */
-  private double newError(List<AlignStructMol> data) throws Exception {
-
-    double numT = 1;
-    for (int i = 0; i < data.size(); i++) {
-      if (data.get(i).ransacAlsoInLiers || data.get(i).ransacMaybeInLiers) {
-        numT++;
+    private void fittPolinomialFunction() {
+      PolynomialFitter fitter = new PolynomialFitter(Linear ? 1 : 3,
+          new GaussNewtonOptimizer(true));
+      for (int i = 0; i < rt.length; i++) {
+        if (maybeInLiers[i]) {
+          fitter.addObservedPoint(1, rt[i], rt2[i]);
+        }
+      }
+      try {
+        PolynomialFunction function = fitter.fit();
+        for (int i = 0; i < rt.length; i++) {
+          if (Math.abs(rt2[i] - function.value(rt[i])) < t) {
+            alsoInLiers[i] = true;
+            alsoNumber++;
+          }
+        }
+      } catch (Exception ex) {
       }
     }
-    return 1 / numT;
-
   }
 }
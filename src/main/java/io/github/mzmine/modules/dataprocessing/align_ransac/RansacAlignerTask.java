@@ -49,11 +49,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.math.analysis.polynomials.PolynomialFunction;
 import org.apache.commons.math.optimization.fitting.PolynomialFitter;
@@ -163,10 +166,20 @@ class RansacAlignerTask extends AbstractTask {
       }
     }
 
+    // index the rows of all source feature lists in parallel, the aligned list is indexed for each
+    // source list, as it grows with every aligned list
+    final FeatureListRowIndex[] rowIndices = Arrays.stream(featureLists).parallel()
+        .map(FeatureListRowIndex::new).toArray(FeatureListRowIndex[]::new);
+
     // Iterate source feature lists
-    for (FeatureList featureList : featureLists) {
+    for (int f = 0; f < featureLists.length; f++) {
+      final FeatureList featureList = featureLists[f];
 
-      HashMap<FeatureListRow, FeatureListRow> alignmentMapping = this.getAlignmentMap(featureList);
+      HashMap<FeatureListRow, FeatureListRow> alignmentMapping = this.getAlignmentMap(featureList,
+          rowIndices[f]);
+      if (alignmentMapping == null || isCanceled()) {
+        return;
+      }
 
       List<FeatureListRow> allRows = featureList.getRows();
 
@@ -228,10 +241,12 @@ class RansacAlignerTask extends AbstractTask {
   }
 
   /**
-   * @param peakList
-   * @return
+   * @param peakList      the feature list to align
+   * @param peakListIndex the row index of the feature list
+   * @return the mapping of feature list rows to aligned rows or null on error
    */
-  private HashMap<FeatureListRow, FeatureListRow> getAlignmentMap(FeatureList peakList) {
+  private HashMap<FeatureListRow, FeatureListRow> getAlignmentMap(FeatureList peakList,
+      FeatureListRowIndex peakListIndex) {
 
     // Create a table of mappings for best scores
     HashMap<FeatureListRow, FeatureListRow> alignmentMapping = new HashMap<>();
@@ -244,53 +259,31 @@ class RansacAlignerTask extends AbstractTask {
     TreeSet<RowVsRowScore> scoreSet = new TreeSet<RowVsRowScore>();
 
     // RANSAC algorithm
-    List<AlignStructMol> list = ransacPeakLists(alignedFeatureList, peakList);
+    final FeatureListRowIndex alignedIndex = new FeatureListRowIndex(alignedFeatureList);
+    List<AlignStructMol> list = ransacPeakLists(alignedFeatureList, peakListIndex);
+    if (list == null) {
+      return null;
+    }
     PolynomialFunction function = this.getPolynomialFunction(list);
 
     List<FeatureListRow> allRows = peakList.getRows();
 
-    for (FeatureListRow row : allRows) {
-      // Calculate limits for a row with which the row can be aligned
-      Range<Double> mzRange = mzTolerance.getToleranceRange(row.getAverageMZ());
-
-      float rt;
-      try {
-        rt = (float) function.value(row.getAverageRT());
-      } catch (NullPointerException e) {
-        rt = row.getAverageRT();
-      }
-      if (Double.isNaN(rt) || rt == -1) {
-        rt = row.getAverageRT();
-      }
-
-      Range<Float> rtRange = rtToleranceAfter.getToleranceRange(rt);
-
-      // Get all rows of the aligned peaklist within parameter limits
-      List<FeatureListRow> candidateRows = alignedFeatureList.getRowsInsideScanAndMZRange(rtRange,
-          mzRange);
-
-      for (FeatureListRow candidate : candidateRows) {
-        RowVsRowScore score;
-        if (sameChargeRequired && (!FeatureUtils.compareChargeState(row, candidate))) {
-          continue;
-        }
-
-        try {
-          score = new RowVsRowScore(row, candidate, RangeUtils.rangeLength(mzRange) / 2.0,
-              RangeUtils.rangeLength(rtRange) / 2.0, rt);
-
-          scoreSet.add(score);
-          setErrorMessage(score.getErrorMessage());
+    // score the candidates of all rows in parallel, the scores are added in the original order
+    final List<List<RowVsRowScore>> rowScores = allRows.parallelStream()
+        .map(row -> scoreCandidates(row, function, alignedIndex)).toList();
+    processedRows += allRows.size();
 
-        } catch (Exception e) {
-          e.printStackTrace();
-          setStatus(TaskStatus.ERROR);
-          return null;
-        }
+    for (List<RowVsRowScore> scores : rowScores) {
+      if (scores == null) {
+        setStatus(TaskStatus.ERROR);
+        return null;
       }
-      processedRows++;
+      scoreSet.addAll(scores);
     }
 
+    // aligned rows that are already filled
+    final Set<FeatureListRow> mappedAlignedRows = new HashSet<>();
+
     // Iterate scores by descending order
     Iterator<RowVsRowScore> scoreIterator = scoreSet.iterator();
     while (scoreIterator.hasNext()) {
@@ -303,26 +296,81 @@ class RansacAlignerTask extends AbstractTask {
       }
 
       // Check if the aligned row is already filled
-      if (alignmentMapping.containsValue(score.getAlignedRow())) {
+      if (mappedAlignedRows.contains(score.getAlignedRow())) {
         continue;
       }
 
       alignmentMapping.put(score.getPeakListRow(), score.getAlignedRow());
+      mappedAlignedRows.add(score.getAlignedRow());
 
     }
 
     return alignmentMapping;
   }
 
+  /**
+   * Scores all rows of the aligned feature list within the tolerances of the corrected RT of the
+   * row
+   *
+   * @param row          the row to align
+   * @param function     the RT correction or null
+   * @param alignedIndex index of the aligned feature list
+   * @return the scores or null on error
+   */
+  @Nullable
+  private List<RowVsRowScore> scoreCandidates(FeatureListRow row,
+      @Nullable PolynomialFunction function, FeatureListRowIndex alignedIndex) {
+    // Calculate limits for a row with which the row can be aligned
+    Range<Double> mzRange = mzTolerance.getToleranceRange(row.getAverageMZ());
+
+    float rt;
+    try {
+      rt = (float) function.value(row.getAverageRT());
+    } catch (NullPointerException e) {
+      rt = row.getAverageRT();
+    }
+    if (Double.isNaN(rt) || rt == -1) {
+      rt = row.getAverageRT();
+    }
+
+    Range<Float> rtRange = rtToleranceAfter.getToleranceRange(rt);
+
+    // Get all rows of the aligned peaklist within parameter limits
+    List<FeatureListRow> candidateRows = alignedIndex.getRowsInsideScanAndMZRange(rtRange,
+        mzRange);
+
+    final List<RowVsRowScore> scores = new ArrayList<>(candidateRows.size());
+    for (FeatureListRow candidate : candidateRows) {
+      if (sameChargeRequired && (!FeatureUtils.compareChargeState(row, candidate))) {
+        continue;
+      }
+
+      try {
+        scores.add(new RowVsRowScore(row, candidate, RangeUtils.rangeLength(mzRange) / 2.0,
+            RangeUtils.rangeLength(rtRange) / 2.0, rt));
+      } catch (Exception e) {
+        logger.log(Level.WARNING, "Cannot score rows: " + e.getMessage(), e);
+        setErrorMessage(e.getMessage());
+        return null;
+      }
+    }
+    return scores;
+  }
+
   /**
    * RANSAC
    *
    * @param alignedPeakList
-   * @param peakList
-   * @return
+   * @param peakListIndex   index of the feature list
+   * @return the possible alignments or null if canceled
    */
-  private List<AlignStructMol> ransacPeakLists(FeatureList alignedPeakList, FeatureList peakList) {
-    List<AlignStructMol> list = this.getVectorAlignment(alignedPeakList, peakList);
+  @Nullable
+  private List<AlignStructMol> ransacPeakLists(FeatureList alignedPeakList,
+      FeatureListRowIndex peakListIndex) {
+    List<AlignStructMol> list = this.getVectorAlignment(alignedPeakList, peakListIndex);
+    if (list == null) {
+      return null;
+    }
     RANSAC ransac = new RANSAC(parameters);
     ransac.alignment(list);
     return list;
@@ -392,32 +440,43 @@ class RansacAlignerTask extends AbstractTask {
   }
 
   /**
-   * Create the vector which contains all the possible aligned peaks.
+   * Create the vector which contains all the possible aligned peaks. The rows are processed in
+   * parallel, the candidates keep the order of the rows.
    *
    * @param peakListX
-   * @param peakListY
-   * @return vector which contains all the possible aligned peaks.
+   * @param peakListY index of the second feature list
+   * @return vector which contains all the possible aligned peaks or null if canceled.
    */
-  private List<AlignStructMol> getVectorAlignment(FeatureList peakListX, FeatureList peakListY) {
-
-    List<AlignStructMol> alignMol = new ArrayList<AlignStructMol>();
-    for (FeatureListRow row : peakListX.getRows()) {
-
-      if (isCanceled()) {
-        return null;
-      }
-      // Calculate limits for a row with which the row can be aligned
-      Range<Double> mzRange = mzTolerance.getToleranceRange(row.getAverageMZ());
-      Range<Float> rtRange = rtToleranceBefore.getToleranceRange(row.getAverageRT());
-
-      // Get all rows of the aligned peaklist within parameter limits
-      List<FeatureListRow> candidateRows = peakListY.getRowsInsideScanAndMZRange(rtRange, mzRange);
-
-      for (FeatureListRow candidateRow : candidateRows) {
-        alignMol.add(new AlignStructMol(row, candidateRow));
-      }
+  @Nullable
+  private List<AlignStructMol> getVectorAlignment(FeatureList peakListX,
+      FeatureListRowIndex peakListY) {
+
+    final List<List<AlignStructMol>> rowCandidates = peakListX.getRows().parallelStream()
+        .map(row -> {
+          if (isCanceled()) {
+            return List.<AlignStructMol>of();
+          }
+          // Calculate limits for a row with which the row can be aligned
+          Range<Double> mzRange = mzTolerance.getToleranceRange(row.getAverageMZ());
+          Range<Float> rtRange = rtToleranceBefore.getToleranceRange(row.getAverageRT());
+
+          // Get all rows of the aligned peaklist within parameter limits
+          List<FeatureListRow> candidateRows = peakListY.getRowsInsideScanAndMZRange(rtRange,
+              mzRange);
+
+          final List<AlignStructMol> alignMol = new ArrayList<>(candidateRows.size());
+          for (FeatureListRow candidateRow : candidateRows) {
+            alignMol.add(new AlignStructMol(row, candidateRow));
+          }
+          return alignMol;
+        }).toList();
+
+    if (isCanceled()) {
+      return null;
     }
 
+    List<AlignStructMol> alignMol = new ArrayList<AlignStructMol>();
+    rowCandidates.forEach(alignMol::addAll);
     return alignMol;
   }
 }
@@ -127,6 +127,7 @@ public class RansacPreviewTask extends AbstractTask {
     totalRows = peakListX.getNumberOfRows();
 
     peakListX.getRows().sorted(FeatureListRowSorter.DEFAULT_RT);
+    final FeatureListRowIndex indexY = new FeatureListRowIndex(peakListY);
     for (FeatureListRow row : peakListX.getRows()) {
 
       // Calculate limits for a row with which the row can be aligned
@@ -138,7 +139,7 @@ public class RansacPreviewTask extends AbstractTask {
       Range<Float> rtRange = rtTolerance.getToleranceRange(row.getAverageRT());
 
       // Get all rows of the aligned feature list within parameter limits
-      List<FeatureListRow> candidateRows = peakListY.getRowsInsideScanAndMZRange(rtRange, mzRange);
+      List<FeatureListRow> candidateRows = indexY.getRowsInsideScanAndMZRange(rtRange, mzRange);
 
       for (FeatureListRow candidateRow : candidateRows) {
         if (file == null || file2 == null) {
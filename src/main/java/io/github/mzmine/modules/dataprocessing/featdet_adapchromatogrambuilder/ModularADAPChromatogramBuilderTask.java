@@ -37,7 +37,7 @@ import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.datamodel.Scan;
 import io.github.mzmine.datamodel.data_access.EfficientDataAccess;
 import io.github.mzmine.datamodel.data_access.EfficientDataAccess.ScanDataType;
-import io.github.mzmine.datamodel.data_access.ScanDataAccess;
+import io.github.mzmine.datamodel.data_access.PrefetchScanDataAccess;
 import io.github.mzmine.datamodel.features.ModularFeature;
 import io.github.mzmine.datamodel.features.ModularFeatureList;
 import io.github.mzmine.datamodel.features.ModularFeatureListRow;
@@ -229,38 +229,39 @@ public class ModularADAPChromatogramBuilderTask extends AbstractTask {
     // make a list of all the data points
     List<ExpandedDataPoint> allMzValues = new ArrayList<>();
 
-    ScanDataAccess scanData = EfficientDataAccess.of(dataFile, ScanDataType.CENTROID,
-        scanSelection);
-
-    while (scanData.hasNextScan()) {
-      if (isCanceled()) {
-        return;
-      }
+    // read ahead the next mass lists while the current is processed
+    try (PrefetchScanDataAccess scanData = EfficientDataAccess.ofPrefetching(dataFile,
+        ScanDataType.CENTROID, Arrays.asList(scans), PrefetchScanDataAccess.DEFAULT_READ_AHEAD)) {
+      while (scanData.hasNextScan()) {
+        if (isCanceled()) {
+          return;
+        }
 
-      Scan scan;
-      try {
-        scan = scanData.nextScan();
-      } catch (MissingMassListException e) {
-        setStatus(TaskStatus.ERROR);
-        StringBuilder b = new StringBuilder("Scan #");
-        b.append(scanData.getCurrentScan().getScanNumber()).append(" from ");
-        b.append(dataFile.getName());
-        b.append(
-            " does not have a mass list. Please run \"Raw data methods\" -> \"Mass detection\"");
-        if (dataFile instanceof IMSRawDataFile) {
-          b.append("\nIMS files require mass detection on the frame level (Scan type = \"Frames ");
-          b.append("only\" or \"All scan types\"");
+        Scan scan;
+        try {
+          scan = scanData.nextScan();
+        } catch (MissingMassListException e) {
+          setStatus(TaskStatus.ERROR);
+          StringBuilder b = new StringBuilder("Scan #");
+          b.append(scanData.getCurrentScan().getScanNumber()).append(" from ");
+          b.append(dataFile.getName());
+          b.append(
+              " does not have a mass list. Please run \"Raw data methods\" -> \"Mass detection\"");
+          if (dataFile instanceof IMSRawDataFile) {
+            b.append("\nIMS files require mass detection on the frame level (Scan type = \"Frames ");
+            b.append("only\" or \"All scan types\"");
+          }
+          setErrorMessage(b.toString());
+          e.printStackTrace();
+          return;
         }
-        setErrorMessage(b.toString());
-        e.printStackTrace();
-        return;
-      }
 
-      int dps = scanData.getNumberOfDataPoints();
-      for (int i = 0; i < dps; i++) {
-        ExpandedDataPoint curDatP = new ExpandedDataPoint(scanData.getMzValue(i),
-            scanData.getIntensityValue(i), scan);
-        allMzValues.add(curDatP);
+        int dps = scanData.getNumberOfDataPoints();
+        for (int i = 0; i < dps; i++) {
+          ExpandedDataPoint curDatP = new ExpandedDataPoint(scanData.getMzValue(i),
+              scanData.getIntensityValue(i), scan);
+          allMzValues.add(curDatP);
+        }
       }
     }
 
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.dataprocessing.featdet_masscalibration;
+
+import io.github.mzmine.datamodel.MassList;
+import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.datamodel.featuredata.impl.StorageUtils;
+import io.github.mzmine.datamodel.impl.masslist.SimpleMassList;
+import io.github.mzmine.util.MemoryMapStorage;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Recalibrates the mass lists of many scans with an already fitted {@link MassCalibrator}. Scans
+ * are processed in parallel blocks, the m/z and intensity columns of a block are read into
+ * primitive arrays, recalibrated in place and stored with a single write per column. The new mass
+ * lists are slices of these block buffers, so no {@link io.github.mzmine.datamodel.DataPoint}s are
+ * created.
+ */
+class BulkMassListCalibrator {
+
+  static final int SCANS_PER_BLOCK = 64;
+
+  private final MassCalibrator massCalibrator;
+  private final MemoryMapStorage storage;
+  private final AtomicInteger processedScans = new AtomicInteger(0);
+  private final AtomicLong calibratedPoints = new AtomicLong(0);
+
+  /**
+   * @param massCalibrator calibrator with an estimated bias or error trend
+   * @param storage        storage for the recalibrated mass lists. If null, values are kept in
+   *                       ram.
+   */
+  BulkMassListCalibrator(@NotNull MassCalibrator massCalibrator,
+      @Nullable MemoryMapStorage storage) {
+    this.massCalibrator = massCalibrator;
+    this.storage = storage;
+  }
+
+  /**
+   * Recalibrates the mass lists of all given scans. Scans without a mass list are skipped.
+   *
+   * @param scans    the scans to recalibrate
+   * @param canceled checked before every block
+   */
+  void calibrate(@NotNull List<? extends Scan> scans, @NotNull BooleanSupplier canceled) {
+    final int numScans = scans.size();
+    final int numBlocks = (numScans + SCANS_PER_BLOCK - 1) / SCANS_PER_BLOCK;
+
+    IntStream.range(0, numBlocks).parallel().forEach(block -> {
+      if (canceled.getAsBoolean()) {
+        return;
+      }
+      final int from = block * SCANS_PER_BLOCK;
+      final int to = Math.min(numScans, from + SCANS_PER_BLOCK);
+      calibrateBlock(scans, from, to);
+      processedScans.addAndGet(to - from);
+    });
+  }
+
+  private void calibrateBlock(@NotNull List<? extends Scan> scans, int from, int to) {
+    final MassList[] massLists = new MassList[to - from];
+    final int[] offsets = new int[to - from + 1];
+    for (int i = from; i < to; i++) {
+      final MassList massList = scans.get(i).getMassList();
+      massLists[i - from] = massList;
+      offsets[i - from + 1] =
+          offsets[i - from] + (massList != null ? massList.getNumberOfDataPoints() : 0);
+    }
+
+    final int numPoints = offsets[to - from];
+    final double[] mzs = new double[numPoints];
+    final double[] intensities = new double[numPoints];
+    double[] buffer = new double[0];
+
+    // mass lists that are not sorted after the calibration are sorted by the array constructor
+    final boolean[] sorted = new boolean[to - from];
+    for (int j = 0; j < massLists.length; j++) {
+      final MassList massList = massLists[j];
+      if (massList == null) {
+        continue;
+      }
+      final int offset = offsets[j];
+      final int length = offsets[j + 1] - offset;
+      buffer = massList.getMzValues(buffer);
+      System.arraycopy(buffer, 0, mzs, offset, length);
+      buffer = massList.getIntensityValues(buffer);
+      System.arraycopy(buffer, 0, intensities, offset, length);
+
+      boolean ascending = true;
+      for (int k = offset; k < offset + length; k++) {
+        mzs[k] = massCalibrator.calibrateMz(mzs[k]);
+        if (k > offset && mzs[k] < mzs[k - 1]) {
+          ascending = false;
+        }
+      }
+      sorted[j] = ascending;
+    }
+
+    final DoubleBuffer mzBuffer = StorageUtils.storeValuesToDoubleBuffer(storage, mzs);
+    final DoubleBuffer intensityBuffer = StorageUtils.storeValuesToDoubleBuffer(storage,
+        intensities);
+
+    for (int j = 0; j < massLists.length; j++) {
+      if (massLists[j] == null) {
+        continue;
+      }
+      final int offset = offsets[j];
+      final int length = offsets[j + 1] - offset;
+      final MassList calibrated;
+      if (sorted[j]) {
+        calibrated = new SimpleMassList(mzBuffer.slice(offset, length),
+            intensityBuffer.slice(offset, length));
+      } else {
+        calibrated = new SimpleMassList(storage,
+            Arrays.copyOfRange(mzs, offset, offset + length),
+            Arrays.copyOfRange(intensities, offset, offset + length));
+      }
+      scans.get(from + j).addMassList(calibrated);
+    }
+    calibratedPoints.addAndGet(numPoints);
+  }
+
+  int getProcessedScans() {
+    return processedScans.get();
+  }
+
+  long getCalibratedPoints() {
+    return calibratedPoints.get();
+  }
+}
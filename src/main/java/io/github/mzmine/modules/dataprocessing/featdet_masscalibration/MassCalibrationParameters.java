@@ -240,9 +240,14 @@ public class MassCalibrationParameters extends SimpleParameterSet {
           See the help file for more details.""",
       biasEstimationChoices, BiasEstimationChoice.ARITHMETIC_MEAN.toString(), true, 250);
 
+  public static final BooleanParameter bulkRecalibration = new BooleanParameter(
+      "Bulk recalibration",
+      "If checked, the mass lists are recalibrated in parallel blocks of scans that are written to"
+          + " the storage at once. Recommended for large datasets.", false);
+
   public MassCalibrationParameters() {
     super(new Parameter[]{dataFiles, intensityThreshold, duplicateErrorFilter, referenceLibrary,
-        rangeExtractionMethod, biasEstimationMethod},
+        rangeExtractionMethod, biasEstimationMethod, bulkRecalibration},
         "https://mzmine.github.io/mzmine_documentation/module_docs/featdet_mass_detection/mass-calibration.html");
   }
 
@@ -58,6 +58,7 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.function.IntSupplier;
 import java.util.logging.Logger;
 import javafx.collections.ObservableList;
 import org.apache.commons.lang3.time.DurationFormatUtils;
@@ -78,6 +79,8 @@ public class MassCalibrationTask extends AbstractTask {
 
   // scan counter
   protected int processedScans = 0, totalScans;
+  // progress of the bulk recalibration, which runs on multiple threads
+  protected volatile IntSupplier calibrationProgress = null;
   protected ObservableList<Scan> scanNumbers;
 
   // task timer
@@ -138,12 +141,14 @@ public class MassCalibrationTask extends AbstractTask {
    * @see io.github.mzmine.taskcontrol.Task#getFinishedPercentage()
    */
   public double getFinishedPercentage() {
-    if (totalScans == 0)
+    if (totalScans == 0) {
       return 0;
-    else
-      // processed scans are added twice, when errors are obtain and when mass lists are shifted
-      // so to get finished percentage of the task, divide processed scans by double total scans
-      return (double) processedScans / totalScans / 2;
+    }
+    // processed scans are added twice, when errors are obtain and when mass lists are shifted
+    // so to get finished percentage of the task, divide processed scans by double total scans
+    final IntSupplier progress = calibrationProgress;
+    return (double) (processedScans + (progress != null ? progress.getAsInt() : 0)) / totalScans
+        / 2;
   }
 
   public RawDataFile getDataFile() {
@@ -303,6 +308,12 @@ public class MassCalibrationTask extends AbstractTask {
       return;
     }
 
+    final long fitMillis = System.currentTimeMillis();
+    if (parameters.getValue(MassCalibrationParameters.bulkRecalibration)) {
+      runBulkCalibration(fitMillis);
+      return;
+    }
+
     // mass calibrate all mass lists
     for (int i = 0; i < totalScans; i++) {
 
@@ -340,6 +351,33 @@ public class MassCalibrationTask extends AbstractTask {
 
   }
 
+  /**
+   * Recalibrates all mass lists in parallel scan blocks with the bias estimate or error trend that
+   * was fitted once for this file.
+   *
+   * @param fitMillis time when the error model was fitted
+   */
+  protected void runBulkCalibration(long fitMillis) {
+    final int scansBeforeCalibration = processedScans;
+    final BulkMassListCalibrator bulkCalibrator = new BulkMassListCalibrator(massCalibrator,
+        storageMemoryMap);
+    calibrationProgress = bulkCalibrator::getProcessedScans;
+    bulkCalibrator.calibrate(scanNumbers, this::isCanceled);
+    calibrationProgress = null;
+    processedScans = scansBeforeCalibration + bulkCalibrator.getProcessedScans();
+
+    endMillis = System.currentTimeMillis();
+    if (isCanceled()) {
+      return;
+    }
+    setStatus(TaskStatus.FINISHED);
+    logger.info(String.format(
+        "Finished mass calibration on %s, fitting error model: %d ms, recalibrating %d points in"
+            + " %d scans: %d ms, running time: %s", dataFile, fitMillis - startMillis,
+        bulkCalibrator.getCalibratedPoints(), totalScans, endMillis - fitMillis,
+        getRunningTimeString()));
+  }
+
   protected boolean extractStandardsList() {
     NestedCombo massPeakMatchingMethod =
         parameters.getParameter(MassCalibrationParameters.referenceLibrary).getValue();
@@ -352,19 +352,27 @@ public class MassCalibrator {
     DataPoint[] calibratedMassList = new DataPoint[massList.length];
     for (int i = 0; i < massList.length; i++) {
       DataPoint oldDataPoint = massList[i];
-      double oldMz = oldDataPoint.getMZ();
-      double calibratedMz;
-      if (errorVsMzTrend != null) {
-        calibratedMz = massError.calibrateAgainstError(oldMz, errorVsMzTrend.getValue(oldMz));
-      } else {
-        calibratedMz = massError.calibrateAgainstError(oldMz, biasEstimate);
-      }
+      double calibratedMz = calibrateMz(oldDataPoint.getMZ());
       calibratedMassList[i] = new SimpleDataPoint(calibratedMz, oldDataPoint.getIntensity());
     }
 
     return calibratedMassList;
   }
 
+  /**
+   * Calibrates a single m/z value against the bias estimate of this instance (global bias estimate
+   * or modeled error vs mz trend). Safe to call from multiple threads once the bias was estimated.
+   *
+   * @param mz the measured m/z
+   * @return the calibrated m/z
+   */
+  public double calibrateMz(double mz) {
+    if (errorVsMzTrend != null) {
+      return massError.calibrateAgainstError(mz, errorVsMzTrend.getValue(mz));
+    }
+    return massError.calibrateAgainstError(mz, biasEstimate);
+  }
+
   /**
    * Calibrates the mass list shifts all m/z peaks against a bias estimate bias estimate is
    * currently given by an estimate of an overall ppm error of mass measurement should be obtained
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.dataprocessing.featdet_massdetection;
+
+import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import io.github.mzmine.util.IsotopesUtils;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.openscience.cdk.Element;
+
+/**
+ * Immutable settings for the detection of isotopes below the noise level, see
+ * {@link DetectIsotopesParameter}. Instances can be shared between threads.
+ *
+ * @param elements         elements which isotopes are considered
+ * @param maxCharge        maximum charge of the isotope m/z values
+ * @param mzTolerance      tolerance to match isotope m/z values
+ * @param isotopesMzDiffs  possible m/z differences between isotopes
+ * @param maxIsotopeMzDiff the maximum of isotopesMzDiffs
+ */
+public record IsotopeMzDiffs(@NotNull List<Element> elements, int maxCharge,
+                             @NotNull MZTolerance mzTolerance,
+                             @NotNull List<Double> isotopesMzDiffs, double maxIsotopeMzDiff) {
+
+  /**
+   * @param isotopesParameters the embedded {@link DetectIsotopesParameter} set
+   * @param last               the settings of the last call. The isotope m/z differences are only
+   *                           recalculated if the elements or the charge changed.
+   * @return the current settings
+   */
+  @NotNull
+  public static IsotopeMzDiffs of(@NotNull ParameterSet isotopesParameters,
+      @Nullable IsotopeMzDiffs last) {
+    final List<Element> elements = isotopesParameters.getValue(DetectIsotopesParameter.elements);
+    final int maxCharge = isotopesParameters.getValue(DetectIsotopesParameter.maxCharge);
+    final MZTolerance mzTolerance = isotopesParameters.getValue(
+        DetectIsotopesParameter.isotopeMzTolerance);
+
+    if (last != null && Objects.equals(last.elements, elements) && last.maxCharge == maxCharge) {
+      return new IsotopeMzDiffs(elements, maxCharge, mzTolerance, last.isotopesMzDiffs,
+          last.maxIsotopeMzDiff);
+    }
+
+    final List<Double> diffs = IsotopesUtils.getIsotopesMzDiffs(elements, maxCharge);
+    return new IsotopeMzDiffs(elements, maxCharge, mzTolerance, diffs, Collections.max(diffs));
+  }
+}
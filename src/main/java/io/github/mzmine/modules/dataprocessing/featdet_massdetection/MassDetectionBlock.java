@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.dataprocessing.featdet_massdetection;
+
+import io.github.mzmine.datamodel.MassSpectrum;
+import io.github.mzmine.datamodel.data_access.ScanDataAccess;
+import io.github.mzmine.parameters.ParameterSet;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import java.util.Arrays;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Reusable primitive buffers for the detection of masses in a block of spectra, see
+ * {@link MassDetector#getMassValues(List, ParameterSet, MassDetectionBlock)}. The detected values of all spectra are written consecutively into a single
+ * m/z and intensity array, so the whole block can be stored at once.
+ * <p>
+ * The input arrays hold the data of the spectrum that is currently processed. A detector loads a
+ * spectrum with {@link #loadSpectrum(MassSpectrum)}, adds the detected values with
+ * {@link #add(double, double)} and closes the spectrum with {@link #finishSpectrum(boolean)}.
+ * <p>
+ * Not thread safe, use one instance per worker.
+ */
+public class MassDetectionBlock {
+
+  private double[] inputMzs = new double[0];
+  private double[] inputIntensities = new double[0];
+  private int inputLength = 0;
+
+  private double[] mzs;
+  private double[] intensities;
+  private int numPoints = 0;
+
+  // start of each spectrum in mzs and intensities, starts[i+1] is the end of spectrum i
+  private int[] starts = new int[2];
+  private int numSpectra = 0;
+
+  // used to sort spectra that were not detected in ascending m/z order
+  private int[] order = new int[0];
+  private double[] sortBuffer = new double[0];
+
+  public MassDetectionBlock() {
+    this(4096);
+  }
+
+  /**
+   * @param initialCapacity initial capacity of the output arrays, grows if needed
+   */
+  public MassDetectionBlock(int initialCapacity) {
+    mzs = new double[Math.max(initialCapacity, 16)];
+    intensities = new double[mzs.length];
+  }
+
+  /**
+   * Detects masses in a single spectrum with the block API of the detector.
+   *
+   * @return [mzs, intensities][data]
+   */
+  public static double[][] detectSingle(@NotNull MassDetector detector,
+      @NotNull MassSpectrum spectrum, @NotNull ParameterSet parameters, int initialCapacity) {
+    final MassDetectionBlock block = new MassDetectionBlock(initialCapacity);
+    detector.getMassValues(List.of(spectrum), parameters, block);
+    return new double[][]{Arrays.copyOf(block.mzs, block.numPoints),
+        Arrays.copyOf(block.intensities, block.numPoints)};
+  }
+
+  /**
+   * Removes all detected values. The buffers are kept.
+   */
+  public void clear() {
+    numPoints = 0;
+    numSpectra = 0;
+    inputLength = 0;
+  }
+
+  /**
+   * Copies the data of the given spectrum into the input arrays.
+   *
+   * @return the number of data points in the spectrum
+   */
+  public int loadSpectrum(@NotNull MassSpectrum spectrum) {
+    inputLength = 0;
+    final int length;
+    try {
+      length = spectrum.getNumberOfDataPoints();
+      if (inputMzs.length < length) {
+        inputMzs = new double[length];
+        inputIntensities = new double[length];
+      }
+      if (spectrum instanceof ScanDataAccess) {
+        // data access only supports access by index
+        for (int i = 0; i < length; i++) {
+          inputMzs[i] = spectrum.getMzValue(i);
+          inputIntensities[i] = spectrum.getIntensityValue(i);
+        }
+      } else if (length > 0) {
+        // some spectra return their own arrays instead of filling dst
+        final double[] mzs = spectrum.getMzValues(inputMzs);
+        if (mzs != inputMzs) {
+          System.arraycopy(mzs, 0, inputMzs, 0, length);
+        }
+        final double[] intensities = spectrum.getIntensityValues(inputIntensities);
+        if (intensities != inputIntensities) {
+          System.arraycopy(intensities, 0, inputIntensities, 0, length);
+        }
+      }
+    } catch (NullPointerException e) {
+      // in case mass detection is performed on an IMS raw data file imported from mzml,
+      // no mz values have been set.
+      return 0;
+    }
+    inputLength = length;
+    return inputLength;
+  }
+
+  /**
+   * @return the m/z values of the loaded spectrum. Only the first {@link #getInputLength()} values
+   * are valid.
+   */
+  public double[] getInputMzs() {
+    return inputMzs;
+  }
+
+  /**
+   * @return the intensities of the loaded spectrum. Only the first {@link #getInputLength()} values
+   * are valid.
+   */
+  public double[] getInputIntensities() {
+    return inputIntensities;
+  }
+
+  public int getInputLength() {
+    return inputLength;
+  }
+
+  /**
+   * Adds a detected value to the current spectrum.
+   */
+  public void add(double mz, double intensity) {
+    if (numPoints == mzs.length) {
+      final int newLength = mzs.length * 2;
+      mzs = Arrays.copyOf(mzs, newLength);
+      intensities = Arrays.copyOf(intensities, newLength);
+    }
+    mzs[numPoints] = mz;
+    intensities[numPoints] = intensity;
+    numPoints++;
+  }
+
+  /**
+   * @return start index of the current spectrum in {@link #getMzs()}
+   */
+  public int getCurrentSpectrumStart() {
+    return starts[numSpectra];
+  }
+
+  /**
+   * @return the last detected m/z value
+   */
+  public double getLastMz() {
+    return mzs[numPoints - 1];
+  }
+
+  /**
+   * Closes the current spectrum. The detected values are sorted by ascending m/z (and intensity) if
+   * the detector did not add them in this order.
+   *
+   * @param distinct remove values with equal m/z and intensity, like a sorted set of data points.
+   */
+  public void finishSpectrum(boolean distinct) {
+    final int from = starts[numSpectra];
+    final int to = numPoints;
+
+    boolean sorted = true;
+    for (int i = from + 1; i < to; i++) {
+      if (mzs[i - 1] > mzs[i] || (distinct && mzs[i - 1] == mzs[i]
+          && intensities[i - 1] >= intensities[i])) {
+        sorted = false;
+        break;
+      }
+    }
+    if (!sorted) {
+      sortRegion(from, to, distinct);
+    }
+
+    if (numSpectra + 1 >= starts.length) {
+      starts = Arrays.copyOf(starts, starts.length * 2);
+    }
+    numSpectra++;
+    starts[numSpectra] = numPoints;
+  }
+
+  private void sortRegion(int from, int to, boolean distinct) {
+    final int length = to - from;
+    if (order.length < length) {
+      order = new int[length];
+      sortBuffer = new double[length];
+    }
+    for (int i = 0; i < length; i++) {
+      order[i] = from + i;
+    }
+    IntArrays.quickSort(order, 0, length, (a, b) -> {
+      final int result = Double.compare(mzs[a], mzs[b]);
+      return result != 0 ? result : Double.compare(intensities[a], intensities[b]);
+    });
+
+    // order intensities first, m/z values are needed to remove duplicates
+    for (int i = 0; i < length; i++) {
+      sortBuffer[i] = intensities[order[i]];
+    }
+    System.arraycopy(sortBuffer, 0, intensities, from, length);
+    for (int i = 0; i < length; i++) {
+      sortBuffer[i] = mzs[order[i]];
+    }
+    System.arraycopy(sortBuffer, 0, mzs, from, length);
+
+    if (distinct) {
+      int last = from;
+      for (int i = from + 1; i < to; i++) {
+        if (mzs[i] != mzs[last] || intensities[i] != intensities[last]) {
+          last++;
+          mzs[last] = mzs[i];
+          intensities[last] = intensities[i];
+        }
+      }
+      numPoints = length == 0 ? from : last + 1;
+    }
+  }
+
+  public int getNumberOfSpectra() {
+    return numSpectra;
+  }
+
+  /**
+   * @return the total number of detected values in all spectra
+   */
+  public int getNumberOfPoints() {
+    return numPoints;
+  }
+
+  /**
+   * @return start index of spectrum i in {@link #getMzs()} and {@link #getIntensities()}
+   */
+  public int getStart(int spectrum) {
+    return starts[spectrum];
+  }
+
+  /**
+   * @return the number of detected values of spectrum i
+   */
+  public int getNumberOfPoints(int spectrum) {
+    return starts[spectrum + 1] - starts[spectrum];
+  }
+
+  /**
+   * @return detected m/z values of all spectra. Only the first {@link #getNumberOfPoints()} values
+   * are valid.
+   */
+  public double[] getMzs() {
+    return mzs;
+  }
+
+  /**
+   * @return detected intensities of all spectra. Only the first {@link #getNumberOfPoints()} values
+   * are valid.
+   */
+  public double[] getIntensities() {
+    return intensities;
+  }
+}
@@ -28,7 +28,9 @@ package io.github.mzmine.modules.dataprocessing.featdet_massdetection;
 import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.datamodel.Scan;
 import io.github.mzmine.datamodel.data_access.EfficientDataAccess;
-import io.github.mzmine.datamodel.data_access.ScanDataAccess;
+import io.github.mzmine.datamodel.data_access.EfficientDataAccess.ScanDataType;
+import io.github.mzmine.datamodel.data_access.PrefetchScanDataAccess;
+import io.github.mzmine.datamodel.featuredata.impl.StorageUtils;
 import io.github.mzmine.datamodel.features.SimpleFeatureListAppliedMethod;
 import io.github.mzmine.datamodel.impl.SimpleFrame;
 import io.github.mzmine.datamodel.impl.masslist.SimpleMassList;
@@ -38,13 +40,15 @@ import io.github.mzmine.parameters.parametertypes.selectors.ScanSelection;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.MemoryMapStorage;
-import io.github.mzmine.util.scans.ScanUtils;
 import java.io.File;
+import java.nio.DoubleBuffer;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 import org.jetbrains.annotations.NotNull;
 import ucar.ma2.ArrayDouble;
 import ucar.ma2.DataType;
@@ -57,13 +61,16 @@ import ucar.nc2.Variable;
 
 public class MassDetectionTask extends AbstractTask {
 
+  private static final int SCANS_PER_BLOCK = 64;
+
   private final Logger logger = Logger.getLogger(this.getClass().getName());
   private final RawDataFile dataFile;
   private final ScanSelection scanSelection;
   private final SelectedScanTypes scanTypes;
   private final Boolean denormalizeMSnScans;
   // scan counter
-  private int processedScans = 0, totalScans = 0;
+  private final AtomicInteger processedScans = new AtomicInteger(0);
+  private int totalScans = 0;
   // Mass detector
   private final MZmineProcessingStep<MassDetector> massDetector;
   // for outputting file
@@ -98,6 +105,64 @@ public class MassDetectionTask extends AbstractTask {
 
   }
 
+  /**
+   * Detects the masses of a block of scans and stores the mass lists of all scans in the block with
+   * a single write per column.
+   */
+  private void detectMasses(@NotNull List<Scan> blockScans, @NotNull MassDetector detector,
+      @NotNull ParameterSet parameterSet, @NotNull MassDetectionBlock block) {
+    final List<Scan> selected = new ArrayList<>(blockScans.size());
+    for (Scan scan : blockScans) {
+      if (scanTypes.applyTo(scan)) {
+        selected.add(scan);
+      }
+    }
+
+    block.clear();
+    // run mass detection on all selected scans
+    detector.getMassValues(selected, parameterSet, block);
+
+    final double[] intensities = block.getIntensities();
+    if (denormalizeMSnScans) {
+      for (int i = 0; i < selected.size(); i++) {
+        final Scan scan = selected.get(i);
+        final Float injectTime = scan.getInjectionTime();
+        if (Objects.requireNonNullElse(scan.getMSLevel(), 1) > 1 && injectTime != null
+            && injectTime > 0) {
+          final int end = block.getStart(i) + block.getNumberOfPoints(i);
+          for (int j = block.getStart(i); j < end; j++) {
+            intensities[j] = intensities[j] * injectTime;
+          }
+        }
+      }
+    }
+
+    if (!selected.isEmpty()) {
+      final DoubleBuffer mzBuffer = StorageUtils.storeValuesToDoubleBuffer(getMemoryMapStorage(),
+          block.getMzs(), block.getNumberOfPoints());
+      final DoubleBuffer intensityBuffer = StorageUtils.storeValuesToDoubleBuffer(
+          getMemoryMapStorage(), intensities, block.getNumberOfPoints());
+
+      // add mass list to scans and frames
+      for (int i = 0; i < selected.size(); i++) {
+        final int offset = block.getStart(i);
+        final int length = block.getNumberOfPoints(i);
+        selected.get(i).addMassList(new SimpleMassList(mzBuffer.slice(offset, length),
+            intensityBuffer.slice(offset, length)));
+      }
+    }
+
+    for (Scan scan : blockScans) {
+      if (scan instanceof SimpleFrame frame && (scanTypes == SelectedScanTypes.MOBLITY_SCANS
+          || scanTypes == SelectedScanTypes.SCANS)) {
+        // for ion mobility, detect subscans, too. The block was already stored and is reused.
+        frame.getMobilityScanStorage()
+            .generateAndAddMobilityScanMassLists(getMemoryMapStorage(), detector, parameterSet,
+                denormalizeMSnScans, block);
+      }
+    }
+  }
+
   @Override
   public String getTaskDescription() {
     return "Detecting masses in " + dataFile;
@@ -108,7 +173,7 @@ public class MassDetectionTask extends AbstractTask {
     if (totalScans == 0) {
       return 0;
     } else {
-      return (double) processedScans / totalScans;
+      return (double) processedScans.get() / totalScans;
     }
   }
 
@@ -140,65 +205,59 @@ public class MassDetectionTask extends AbstractTask {
 
       logger.info("Started mass detector on " + dataFile);
 
-      // uses only a single array for each (mz and intensity) to loop over all scans
-      ScanDataAccess data = EfficientDataAccess.of(dataFile, EfficientDataAccess.ScanDataType.RAW,
-          scanSelection);
-      totalScans = data.getNumberOfScans();
+      final List<Scan> scans = scanSelection.getMatchingScans(dataFile.getScans());
+      totalScans = scans.size();
 
       MassDetector detector = massDetector.getModule();
       ParameterSet parameterSet = massDetector.getParameterSet();
 
-      // all scans
-      while (data.hasNextScan()) {
+      // scan blocks are processed in parallel, the buffers are reused by each worker
+      final ThreadLocal<MassDetectionBlock> blocks = ThreadLocal.withInitial(
+          MassDetectionBlock::new);
+      final int numBlocks = (totalScans + SCANS_PER_BLOCK - 1) / SCANS_PER_BLOCK;
+      final long start = System.currentTimeMillis();
+
+      IntStream.range(0, numBlocks).parallel().forEach(b -> {
         if (isCanceled()) {
           return;
         }
+        final List<Scan> blockScans = scans.subList(b * SCANS_PER_BLOCK,
+            Math.min(totalScans, (b + 1) * SCANS_PER_BLOCK));
+        detectMasses(blockScans, detector, parameterSet, blocks.get());
+        processedScans.addAndGet(blockScans.size());
+      });
+
+      if (isCanceled()) {
+        return;
+      }
+      logger.finest(() -> "Detected masses in " + totalScans + " scans of " + dataFile.getName()
+          + " in " + (System.currentTimeMillis() - start) + " ms.");
 
-        Scan scan = data.nextScan();
-
-        double[][] mzPeaks = null;
-        if (scanTypes.applyTo(scan)) {
-          // run mass detection on data object
-          // [mzs, intensities]
-          mzPeaks = detector.getMassValues(data, parameterSet);
-
-          if (denormalizeMSnScans && Objects.requireNonNullElse(scan.getMSLevel(), 1) > 1) {
-            ScanUtils.denormalizeIntensitiesMultiplyByInjectTime(mzPeaks[1],
-                scan.getInjectionTime());
-          }
-
-          // add mass list to scans and frames
-          scan.addMassList(new SimpleMassList(getMemoryMapStorage(), mzPeaks[0], mzPeaks[1]));
-        }
-
-        if (scan instanceof SimpleFrame frame && (scanTypes == SelectedScanTypes.MOBLITY_SCANS
-            || scanTypes == SelectedScanTypes.SCANS)) {
-          // for ion mobility, detect subscans, too
-          frame.getMobilityScanStorage()
-              .generateAndAddMobilityScanMassLists(getMemoryMapStorage(), detector, parameterSet,
-                  denormalizeMSnScans);
-        }
-
-        if (this.saveToCDF && mzPeaks != null) {
-          curTotalIntensity = 0;
-          double[] mzs = mzPeaks[0];
-          double[] intensities = mzPeaks[1];
-          int size = mzs.length;
-          for (int a = 0; a < size; a++) {
-            allMZ.add(mzs[a]);
-            allIntensities.add(intensities[a]);
-            curTotalIntensity += intensities[a];
+      if (this.saveToCDF) {
+        final List<Scan> exportScans = scans.stream()
+            .filter(scan -> scanTypes.applyTo(scan) && scan.getMassList() != null).toList();
+        // read ahead the next mass lists while the values are collected
+        try (PrefetchScanDataAccess massLists = EfficientDataAccess.ofPrefetching(dataFile,
+            ScanDataType.CENTROID, exportScans, PrefetchScanDataAccess.DEFAULT_READ_AHEAD)) {
+          while (massLists.hasNextScan()) {
+            final Scan scan = massLists.nextScan();
+            final int size = massLists.getNumberOfDataPoints();
+            curTotalIntensity = 0;
+            for (int a = 0; a < size; a++) {
+              allMZ.add(massLists.getMzValue(a));
+              allIntensities.add(massLists.getIntensityValue(a));
+              curTotalIntensity += massLists.getIntensityValue(a);
+            }
+
+            scanAcquisitionTime.add(scan.getRetentionTime());
+            pointsInScans.add(0);
+            // [mzs, intensities] arrays
+            startIndex.add(2 + lastPointCount);
+            totalIntensity.add(curTotalIntensity);
+
+            lastPointCount = 2 + lastPointCount;
           }
-
-          scanAcquisitionTime.add(scan.getRetentionTime());
-          pointsInScans.add(0);
-          startIndex.add(mzPeaks.length + lastPointCount);
-          totalIntensity.add(curTotalIntensity);
-
-          lastPointCount = mzPeaks.length + lastPointCount;
         }
-
-        processedScans++;
       }
 
       if (this.saveToCDF) {
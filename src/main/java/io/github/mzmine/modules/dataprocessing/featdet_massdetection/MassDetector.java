@@ -28,6 +28,8 @@ package io.github.mzmine.modules.dataprocessing.featdet_massdetection;
 import io.github.mzmine.datamodel.MassSpectrum;
 import io.github.mzmine.modules.MZmineModule;
 import io.github.mzmine.parameters.ParameterSet;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
 
 /**
  *
@@ -46,4 +48,25 @@ public interface MassDetector extends MZmineModule {
   default double[][] getMassValues(double[] mzs, double[] intensities, ParameterSet parameters) {
     throw new UnsupportedOperationException("Method not implemented. Please implement me.");
   }
+
+  /**
+   * Detects masses in a block of spectra. The detected values of each spectrum are appended to the
+   * block in the order of the given spectra, see {@link MassDetectionBlock}. Implementations should
+   * resolve the parameters once per block and must be thread safe, so blocks can be processed in
+   * parallel with one {@link MassDetectionBlock} per worker.
+   *
+   * @param spectra    the spectra to process
+   * @param parameters the parameters of this detector
+   * @param block      receives the detected values
+   */
+  default void getMassValues(@NotNull List<? extends MassSpectrum> spectra,
+      @NotNull ParameterSet parameters, @NotNull MassDetectionBlock block) {
+    for (MassSpectrum spectrum : spectra) {
+      final double[][] mzIntensities = getMassValues(spectrum, parameters);
+      for (int i = 0; i < mzIntensities[0].length; i++) {
+        block.add(mzIntensities[0][i], mzIntensities[1][i]);
+      }
+      block.finishSpectrum(false);
+    }
+  }
 }
@@ -27,88 +27,69 @@ package io.github.mzmine.modules.dataprocessing.featdet_massdetection.centroid;
 
 import com.google.common.primitives.Doubles;
 import io.github.mzmine.datamodel.MassSpectrum;
-import io.github.mzmine.modules.dataprocessing.featdet_massdetection.DetectIsotopesParameter;
+import io.github.mzmine.modules.dataprocessing.featdet_massdetection.IsotopeMzDiffs;
+import io.github.mzmine.modules.dataprocessing.featdet_massdetection.MassDetectionBlock;
 import io.github.mzmine.modules.dataprocessing.featdet_massdetection.MassDetector;
 import io.github.mzmine.parameters.ParameterSet;
-import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import io.github.mzmine.util.IsotopesUtils;
 import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.Objects;
 import org.jetbrains.annotations.NotNull;
-import org.openscience.cdk.Element;
 
 /**
  * Remove peaks below the given noise level.
  */
 public class CentroidMassDetector implements MassDetector {
 
-  // Variables for the detection of isotopes below the noise level
-  private List<Element> isotopeElements;
-  private int isotopeMaxCharge;
-  // Possible m/z differences between isotopes
-  private List<Double> isotopesMzDiffs;
-  // Used to optimize getMassValues
-  private double maxIsotopeMzDiff;
+  // Settings for the detection of isotopes below the noise level, updated if the parameters change
+  private volatile IsotopeMzDiffs isotopeMzDiffs;
 
   @Override
   public double[][] getMassValues(MassSpectrum spectrum, ParameterSet parameters) {
+    // use number of centroid signals as base array capacity
+    return MassDetectionBlock.detectSingle(this, spectrum, parameters,
+        spectrum.getNumberOfDataPoints());
+  }
 
-    final double noiseLevel = parameters.getParameter(CentroidMassDetectorParameters.noiseLevel)
-        .getValue();
-
-    boolean detectIsotopes = parameters.getParameter(CentroidMassDetectorParameters.detectIsotopes)
-        .getValue();
+  @Override
+  public void getMassValues(@NotNull List<? extends MassSpectrum> spectra,
+      @NotNull ParameterSet parameters, @NotNull MassDetectionBlock block) {
+    final double noiseLevel = parameters.getValue(CentroidMassDetectorParameters.noiseLevel);
+    final boolean detectIsotopes = parameters.getValue(
+        CentroidMassDetectorParameters.detectIsotopes);
 
     // If isotopes are going to be detected get all the required parameters
-    MZTolerance isotopesMzTolerance = null;
+    IsotopeMzDiffs isotopes = null;
     if (detectIsotopes) {
-      ParameterSet isotopesParameters = parameters.getParameter(
-          CentroidMassDetectorParameters.detectIsotopes).getEmbeddedParameters();
-      List<Element> isotopeElements = isotopesParameters.getParameter(
-          DetectIsotopesParameter.elements).getValue();
-      int isotopeMaxCharge = isotopesParameters.getParameter(DetectIsotopesParameter.maxCharge)
-          .getValue();
-      isotopesMzTolerance = isotopesParameters.getParameter(
-          DetectIsotopesParameter.isotopeMzTolerance).getValue();
-
-      // Update isotopesMzDiffs only if isotopeElements and isotopeMaxCharge differ from the last call
-      if (!Objects.equals(this.isotopeElements, isotopeElements) || !Objects.equals(
-          this.isotopeMaxCharge, isotopeMaxCharge)) {
-
-        // Update isotopesMzDiffs
-        this.isotopesMzDiffs = IsotopesUtils.getIsotopesMzDiffs(isotopeElements, isotopeMaxCharge);
-        this.maxIsotopeMzDiff = Collections.max(isotopesMzDiffs);
-
-        // Store last called parameters
-        this.isotopeElements = isotopeElements;
-        this.isotopeMaxCharge = isotopeMaxCharge;
-      }
+      isotopes = IsotopeMzDiffs.of(parameters.getParameter(
+          CentroidMassDetectorParameters.detectIsotopes).getEmbeddedParameters(), isotopeMzDiffs);
+      isotopeMzDiffs = isotopes;
     }
-    // use number of centroid signals as base array list capacity
-    final int points = spectrum.getNumberOfDataPoints();
-    // lists of primitive doubles
-    DoubleArrayList mzs = new DoubleArrayList(points);
-    DoubleArrayList intensities = new DoubleArrayList(points);
 
-    // Find possible mzPeaks
-    for (int i = 0; i < points; i++) {
-      // Is intensity above the noise level or m/z value corresponds to isotope mass?
-      double intensity = spectrum.getIntensityValue(i);
-      double mz = spectrum.getMzValue(i);
-      if (intensity >= noiseLevel || (detectIsotopes
-          // If the difference between current m/z and last detected m/z is greater than maximum
-          // possible isotope m/z difference do not call isPossibleIsotopeMz
-          && (mzs.isEmpty()
-          || Doubles.compare(mz - mzs.getDouble(mzs.size() - 1), maxIsotopeMzDiff) <= 0)
-          && IsotopesUtils.isPossibleIsotopeMz(mz, mzs, isotopesMzDiffs, isotopesMzTolerance))) {
-        // Yes, then mark this index as mzPeak
-        mzs.add(mz);
-        intensities.add(intensity);
+    for (MassSpectrum spectrum : spectra) {
+      final int points = block.loadSpectrum(spectrum);
+      final double[] mzs = block.getInputMzs();
+      final double[] intensities = block.getInputIntensities();
+      final int start = block.getCurrentSpectrumStart();
+
+      // Find possible mzPeaks
+      for (int i = 0; i < points; i++) {
+        // Is intensity above the noise level or m/z value corresponds to isotope mass?
+        final double intensity = intensities[i];
+        final double mz = mzs[i];
+        if (intensity >= noiseLevel || (isotopes != null
+            // If the difference between current m/z and last detected m/z is greater than maximum
+            // possible isotope m/z difference do not call isPossibleIsotopeMz
+            && (block.getNumberOfPoints() == start
+            || Doubles.compare(mz - block.getLastMz(), isotopes.maxIsotopeMzDiff()) <= 0)
+            && IsotopesUtils.isPossibleIsotopeMz(mz, block.getMzs(), start,
+            block.getNumberOfPoints(), isotopes.isotopesMzDiffs(), isotopes.mzTolerance()))) {
+          // Yes, then mark this index as mzPeak
+          block.add(mz, intensity);
+        }
       }
+      block.finishSpectrum(false);
     }
-    return new double[][]{mzs.toDoubleArray(), intensities.toDoubleArray()};
   }
 
   @Override
@@ -27,52 +27,60 @@ package io.github.mzmine.modules.dataprocessing.featdet_massdetection.exactmass;
 
 import com.google.common.primitives.Doubles;
 import io.github.mzmine.datamodel.MassSpectrum;
-import io.github.mzmine.modules.dataprocessing.featdet_massdetection.DetectIsotopesParameter;
+import io.github.mzmine.modules.dataprocessing.featdet_massdetection.IsotopeMzDiffs;
+import io.github.mzmine.modules.dataprocessing.featdet_massdetection.MassDetectionBlock;
 import io.github.mzmine.modules.dataprocessing.featdet_massdetection.MassDetector;
 import io.github.mzmine.parameters.ParameterSet;
-import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import io.github.mzmine.util.IsotopesUtils;
-import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
-import java.util.ArrayList;
-import java.util.Collections;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Objects;
 import org.jetbrains.annotations.NotNull;
-import org.openscience.cdk.Element;
+import org.jetbrains.annotations.Nullable;
 
 public class ExactMassDetector implements MassDetector {
 
-  // Variables for the detection of isotopes below the noise level
-  private List<Element> isotopeElements;
-  private int isotopeMaxCharge;
-  // Possible m/z differences between isotopes
-  private List<Double> isotopesMzDiffs;
-  // Used to optimize getMassValues
-  private double maxIsotopeMzDiff;
+  // Settings for the detection of isotopes below the noise level, updated if the parameters change
+  private volatile IsotopeMzDiffs isotopeMzDiffs;
 
   @NotNull
   public static double[][] getMassValues(MassSpectrum spectrum, double noiseLevel) {
-    return getMassValues(spectrum, noiseLevel, false, null, null, 0d);
+    return getMassValues(spectrum, noiseLevel, null);
   }
 
   @NotNull
   public static double[][] getMassValues(MassSpectrum spectrum, double noiseLevel,
-      boolean detectIsotopes, MZTolerance isotopesMzTolerance, List<Double> isotopesMzDiffs,
-      double maxIsotopeMzDiff) {
-    // lists of primitive doubles
-    DoubleArrayList mzs = new DoubleArrayList(128);
-    DoubleArrayList intensities = new DoubleArrayList(128);
+      @Nullable IsotopeMzDiffs isotopes) {
+    final MassDetectionBlock block = new MassDetectionBlock(128);
+    detectMasses(spectrum, noiseLevel, isotopes, block, new IntArrayList());
+    final int numPoints = block.getNumberOfPoints();
+    return new double[][]{Arrays.copyOf(block.getMzs(), numPoints),
+        Arrays.copyOf(block.getIntensities(), numPoints)};
+  }
+
+  /**
+   * Detects the masses of one spectrum and adds them to the block.
+   *
+   * @param isotopes        settings to detect isotopes below the noise level or null
+   * @param rangeDataPoints reusable list for the indices of the current m/z peak
+   */
+  private static void detectMasses(MassSpectrum spectrum, double noiseLevel,
+      @Nullable IsotopeMzDiffs isotopes, MassDetectionBlock block, IntArrayList rangeDataPoints) {
+    final int numDataPoints = block.loadSpectrum(spectrum);
+    final double[] mzs = block.getInputMzs();
+    final double[] intensities = block.getInputIntensities();
+    final int start = block.getCurrentSpectrumStart();
 
     // First get all candidate peaks (local maximum)
     int localMaximumIndex = 0;
-    ArrayList<Integer> rangeDataPoints = new ArrayList<>();
+    rangeDataPoints.clear();
 
     boolean ascending = true;
 
     // Iterate through all data points
-    for (int i = 0; i < spectrum.getNumberOfDataPoints() - 1; i++) {
-      double intensity = spectrum.getIntensityValue(i);
-      double nextIntensity = spectrum.getIntensityValue(i + 1);
+    for (int i = 0; i < numDataPoints - 1; i++) {
+      double intensity = intensities[i];
+      double nextIntensity = intensities[i + 1];
 
       boolean nextIsBigger = nextIntensity > intensity;
       boolean nextIsZero = Double.compare(nextIntensity, 0d) == 0;
@@ -97,21 +105,21 @@ public class ExactMassDetector implements MassDetector {
       if ((!ascending) && (nextIsBigger || nextIsZero)) {
 
         // Calculate the exact mass
-        double exactMz = calculateExactMass(spectrum, localMaximumIndex, rangeDataPoints);
+        double exactMz = calculateExactMass(mzs, intensities, localMaximumIndex,
+            rangeDataPoints.elements(), rangeDataPoints.size());
 
         // Add the m/z peak if it is above the noise level or m/z value corresponds to isotope mass
-        if (spectrum.getIntensityValue(localMaximumIndex) > noiseLevel || //
-            (detectIsotopes
+        if (intensities[localMaximumIndex] > noiseLevel || //
+            (isotopes != null
                 // If the difference between current m/z and last detected m/z is greater than maximum
                 // possible isotope m/z difference do not call isPossibleIsotopeMz
-                && (mzs.isEmpty()
-                || Doubles.compare(exactMz - mzs.getDouble(mzs.size() - 1), maxIsotopeMzDiff) <= 0)
-                && IsotopesUtils.isPossibleIsotopeMz(exactMz, mzs, isotopesMzDiffs,
-                isotopesMzTolerance))) {
+                && (block.getNumberOfPoints() == start
+                || Doubles.compare(exactMz - block.getLastMz(), isotopes.maxIsotopeMzDiff()) <= 0)
+                && IsotopesUtils.isPossibleIsotopeMz(exactMz, block.getMzs(), start,
+                block.getNumberOfPoints(), isotopes.isotopesMzDiffs(), isotopes.mzTolerance()))) {
 
           // Add data point to lists
-          mzs.add(exactMz);
-          intensities.add(spectrum.getIntensityValue(localMaximumIndex));
+          block.add(exactMz, intensities[localMaximumIndex]);
         }
 
         // Reset and start with new peak
@@ -119,9 +127,7 @@ public class ExactMassDetector implements MassDetector {
         rangeDataPoints.clear();
       }
     }
-
-    // Return an array of detected MzPeaks sorted by MZ
-    return new double[][]{mzs.toDoubleArray(), intensities.toDoubleArray()};
+    block.finishSpectrum(false);
   }
 
   /**
@@ -130,8 +136,8 @@ public class ExactMassDetector implements MassDetector {
    *
    * @return double
    */
-  private static double calculateExactMass(MassSpectrum spectrum, int topIndex,
-      List<Integer> rangeDataPoints) {
+  private static double calculateExactMass(double[] mzs, double[] intensities, int topIndex,
+      int[] rangeDataPoints, int rangeSize) {
 
     /*
      * According with the FWHM concept, the exact mass of this peak is the half point of FWHM. In
@@ -146,24 +152,26 @@ public class ExactMassDetector implements MassDetector {
      */
 
     double xRight = -1, xLeft = -1;
-    double halfIntensity = spectrum.getIntensityValue(topIndex) / 2;
+    final double topMz = mzs[topIndex];
+    double halfIntensity = intensities[topIndex] / 2;
 
-    for (int i = 0; i < rangeDataPoints.size() - 1; i++) {
+    for (int i = 0; i < rangeSize - 1; i++) {
+      final int current = rangeDataPoints[i];
+      final int next = rangeDataPoints[i + 1];
 
       // Left side of the curve
-      if ((spectrum.getIntensityValue(rangeDataPoints.get(i)) <= halfIntensity) && (
-          spectrum.getMzValue(rangeDataPoints.get(i)) < spectrum.getMzValue(topIndex)) && (
-          spectrum.getIntensityValue(rangeDataPoints.get(i + 1)) >= halfIntensity)) {
+      if ((intensities[current] <= halfIntensity) && (mzs[current] < topMz) && (
+          intensities[next] >= halfIntensity)) {
 
         // First point with intensity just less than half of total
         // intensity
-        double leftY1 = spectrum.getIntensityValue(rangeDataPoints.get(i));
-        double leftX1 = spectrum.getMzValue(rangeDataPoints.get(i));
+        double leftY1 = intensities[current];
+        double leftX1 = mzs[current];
 
         // Second point with intensity just bigger than half of total
         // intensity
-        double leftY2 = spectrum.getIntensityValue(rangeDataPoints.get(i + 1));
-        double leftX2 = spectrum.getMzValue(rangeDataPoints.get(i + 1));
+        double leftY2 = intensities[next];
+        double leftX2 = mzs[next];
 
         // We calculate the slope with formula m = Y1 - Y2 / X1 - X2
         double mLeft = (leftY1 - leftY2) / (leftX1 - leftX2);
@@ -183,19 +191,18 @@ public class ExactMassDetector implements MassDetector {
       }
 
       // Right side of the curve
-      if ((spectrum.getIntensityValue(rangeDataPoints.get(i)) >= halfIntensity) && (
-          spectrum.getMzValue(rangeDataPoints.get(i)) > spectrum.getMzValue(topIndex)) && (
-          spectrum.getIntensityValue(rangeDataPoints.get(i + 1)) <= halfIntensity)) {
+      if ((intensities[current] >= halfIntensity) && (mzs[current] > topMz) && (
+          intensities[next] <= halfIntensity)) {
 
         // First point with intensity just bigger than half of total
         // intensity
-        double rightY1 = spectrum.getIntensityValue(rangeDataPoints.get(i));
-        double rightX1 = spectrum.getMzValue(rangeDataPoints.get(i));
+        double rightY1 = intensities[current];
+        double rightX1 = mzs[current];
 
         // Second point with intensity just less than half of total
         // intensity
-        double rightY2 = spectrum.getIntensityValue(rangeDataPoints.get(i + 1));
-        double rightX2 = spectrum.getMzValue(rangeDataPoints.get(i + 1));
+        double rightY2 = intensities[next];
+        double rightX2 = mzs[next];
 
         // We calculate the slope with formula m = Y1 - Y2 / X1 - X2
         double mRight = (rightY1 - rightY2) / (rightX1 - rightX2);
@@ -219,7 +226,7 @@ public class ExactMassDetector implements MassDetector {
     // We verify the values to confirm we find the desired points. If not we
     // return the same mass value.
     if ((xRight == -1) || (xLeft == -1)) {
-      return spectrum.getMzValue(topIndex);
+      return topMz;
     }
 
     // The center of left and right points is the exact mass of our peak.
@@ -233,39 +240,27 @@ public class ExactMassDetector implements MassDetector {
     if (spectrum.getNumberOfDataPoints() == 0) {
       return EMPTY_DATA;
     }
+    return MassDetectionBlock.detectSingle(this, spectrum, parameters, 128);
+  }
 
-    double noiseLevel = parameters.getParameter(ExactMassDetectorParameters.noiseLevel).getValue();
-    boolean detectIsotopes = parameters.getParameter(ExactMassDetectorParameters.detectIsotopes)
-        .getValue();
+  @Override
+  public void getMassValues(@NotNull List<? extends MassSpectrum> spectra,
+      @NotNull ParameterSet parameters, @NotNull MassDetectionBlock block) {
+    final double noiseLevel = parameters.getValue(ExactMassDetectorParameters.noiseLevel);
+    final boolean detectIsotopes = parameters.getValue(ExactMassDetectorParameters.detectIsotopes);
 
     // If isotopes are going to be detected get all the required parameters
-    MZTolerance isotopesMzTolerance = null;
+    IsotopeMzDiffs isotopes = null;
     if (detectIsotopes) {
-      ParameterSet isotopesParameters = parameters.getParameter(
-          ExactMassDetectorParameters.detectIsotopes).getEmbeddedParameters();
-      List<Element> isotopeElements = isotopesParameters.getParameter(
-          DetectIsotopesParameter.elements).getValue();
-      int isotopeMaxCharge = isotopesParameters.getParameter(DetectIsotopesParameter.maxCharge)
-          .getValue();
-      isotopesMzTolerance = isotopesParameters.getParameter(
-          DetectIsotopesParameter.isotopeMzTolerance).getValue();
-
-      // Update isotopesMzDiffs only if isotopeElements and isotopeMaxCharge differ from the last call
-      if (!Objects.equals(this.isotopeElements, isotopeElements) || !Objects.equals(
-          this.isotopeMaxCharge, isotopeMaxCharge)) {
-
-        // Update isotopesMzDiffs
-        this.isotopesMzDiffs = IsotopesUtils.getIsotopesMzDiffs(isotopeElements, isotopeMaxCharge);
-        this.maxIsotopeMzDiff = Collections.max(isotopesMzDiffs);
-
-        // Store last called parameters
-        this.isotopeElements = isotopeElements;
-        this.isotopeMaxCharge = isotopeMaxCharge;
-      }
+      isotopes = IsotopeMzDiffs.of(parameters.getParameter(
+          ExactMassDetectorParameters.detectIsotopes).getEmbeddedParameters(), isotopeMzDiffs);
+      isotopeMzDiffs = isotopes;
     }
 
-    return getMassValues(spectrum, noiseLevel, detectIsotopes, isotopesMzTolerance, isotopesMzDiffs,
-        maxIsotopeMzDiff);
+    final IntArrayList rangeDataPoints = new IntArrayList();
+    for (MassSpectrum spectrum : spectra) {
+      detectMasses(spectrum, noiseLevel, isotopes, block, rangeDataPoints);
+    }
   }
 
   @Override
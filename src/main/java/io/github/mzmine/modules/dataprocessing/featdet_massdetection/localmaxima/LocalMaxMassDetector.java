@@ -25,11 +25,12 @@
 
 package io.github.mzmine.modules.dataprocessing.featdet_massdetection.localmaxima;
 
-import gnu.trove.list.array.TDoubleArrayList;
-import org.jetbrains.annotations.NotNull;
 import io.github.mzmine.datamodel.MassSpectrum;
+import io.github.mzmine.modules.dataprocessing.featdet_massdetection.MassDetectionBlock;
 import io.github.mzmine.modules.dataprocessing.featdet_massdetection.MassDetector;
 import io.github.mzmine.parameters.ParameterSet;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
 
 /**
  * This class detects all local maxima in a given scan.
@@ -38,57 +39,61 @@ public class LocalMaxMassDetector implements MassDetector {
 
   @Override
   public double[][] getMassValues(MassSpectrum scan, ParameterSet parameters) {
+    return MassDetectionBlock.detectSingle(this, scan, parameters, 100);
+  }
 
-    double noiseLevel =
-        parameters.getParameter(LocalMaxMassDetectorParameters.noiseLevel).getValue();
+  @Override
+  public void getMassValues(@NotNull List<? extends MassSpectrum> spectra,
+      @NotNull ParameterSet parameters, @NotNull MassDetectionBlock block) {
 
-    // lists of primitive doubles
-    TDoubleArrayList mzs = new TDoubleArrayList(100);
-    TDoubleArrayList intensities = new TDoubleArrayList(100);
+    final double noiseLevel = parameters.getValue(LocalMaxMassDetectorParameters.noiseLevel);
 
-    // All data points of current m/z peak
+    for (MassSpectrum scan : spectra) {
+      final int numDataPoints = block.loadSpectrum(scan);
+      final double[] mzs = block.getInputMzs();
+      final double[] intensities = block.getInputIntensities();
 
-    // Top data point of current m/z peak
-    int currentMzPeakTop = 0;
+      // Top data point of current m/z peak
+      int currentMzPeakTop = 0;
 
-    // True if we haven't reached the current local maximum yet
-    boolean ascending = true;
+      // True if we haven't reached the current local maximum yet
+      boolean ascending = true;
 
-    // Iterate through all data points
-    for (int i = 0; i < scan.getNumberOfDataPoints() - 1; i++) {
-      double intensity = scan.getIntensityValue(i);
-      double nextIntensity = scan.getIntensityValue(i+1);
+      // Iterate through all data points
+      for (int i = 0; i < numDataPoints - 1; i++) {
+        double intensity = intensities[i];
+        double nextIntensity = intensities[i + 1];
 
-      boolean nextIsBigger =  nextIntensity > intensity;
-      boolean nextIsZero = Double.compare(nextIntensity, 0d) == 0;
-      boolean currentIsZero = Double.compare(intensity, 0d) == 0;
+        boolean nextIsBigger = nextIntensity > intensity;
+        boolean nextIsZero = Double.compare(nextIntensity, 0d) == 0;
+        boolean currentIsZero = Double.compare(intensity, 0d) == 0;
 
-      // Ignore zero intensity regions
-      if (currentIsZero)
-        continue;
+        // Ignore zero intensity regions
+        if (currentIsZero) {
+          continue;
+        }
 
-      // Check for local maximum
-      if (ascending && (!nextIsBigger)) {
-        currentMzPeakTop = i;
-        ascending = false;
-        continue;
-      }
+        // Check for local maximum
+        if (ascending && (!nextIsBigger)) {
+          currentMzPeakTop = i;
+          ascending = false;
+          continue;
+        }
 
-      // Check for the end of the peak
-      if ((!ascending) && (nextIsBigger || nextIsZero)) {
+        // Check for the end of the peak
+        if ((!ascending) && (nextIsBigger || nextIsZero)) {
 
-        // Add the m/z peak if it is above the noise level
-        if (scan.getIntensityValue(currentMzPeakTop) > noiseLevel) {
-          mzs.add(scan.getMzValue(currentMzPeakTop));
-          intensities.add(scan.getIntensityValue(currentMzPeakTop));
-        }
+          // Add the m/z peak if it is above the noise level
+          if (intensities[currentMzPeakTop] > noiseLevel) {
+            block.add(mzs[currentMzPeakTop], intensities[currentMzPeakTop]);
+          }
 
-        // Reset and start with new peak
-        ascending = true;
+          // Reset and start with new peak
+          ascending = true;
+        }
       }
+      block.finishSpectrum(false);
     }
-    // Return an array of detected MzPeaks sorted by MZ
-    return new double[][]{mzs.toArray(), intensities.toArray()};
   }
 
   @Override
@@ -25,66 +25,56 @@
 
 package io.github.mzmine.modules.dataprocessing.featdet_massdetection.recursive;
 
-import io.github.mzmine.datamodel.DataPoint;
 import io.github.mzmine.datamodel.MassSpectrum;
-import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.modules.dataprocessing.featdet_massdetection.MassDetectionBlock;
 import io.github.mzmine.modules.dataprocessing.featdet_massdetection.MassDetector;
 import io.github.mzmine.parameters.ParameterSet;
-import io.github.mzmine.util.DataPointSorter;
-import io.github.mzmine.util.SortingDirection;
-import io.github.mzmine.util.SortingProperty;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.TreeSet;
 import org.jetbrains.annotations.NotNull;
 
 public class RecursiveMassDetector implements MassDetector {
 
   @Override
   public double[][] getMassValues(MassSpectrum scan, ParameterSet parameters) {
-    double noiseLevel =
-        parameters.getParameter(RecursiveMassDetectorParameters.noiseLevel).getValue();
-    double minimumMZPeakWidth =
-        parameters.getParameter(RecursiveMassDetectorParameters.minimumMZPeakWidth).getValue();
-    double maximumMZPeakWidth =
-        parameters.getParameter(RecursiveMassDetectorParameters.maximumMZPeakWidth).getValue();
-
-    TreeSet<DataPoint> mzPeaks =
-        new TreeSet<DataPoint>(new DataPointSorter(SortingProperty.MZ, SortingDirection.Ascending));
-
-    // Find MzPeaks
-    recursiveThreshold(mzPeaks, scan, 1, scan.getNumberOfDataPoints() - 1, noiseLevel,
-        minimumMZPeakWidth, maximumMZPeakWidth, 0);
-
-    // convert to double[][] TODO remove use of DataPoint
-    int size = mzPeaks.size();
-    double[] mzs = new double[size];
-    double[] intensities = new double[size];
-    int i = 0;
-    for (DataPoint mzPeak : mzPeaks) {
-      mzs[i] = mzPeak.getMZ();
-      intensities[i] = mzPeak.getIntensity();
-      i++;
+    return MassDetectionBlock.detectSingle(this, scan, parameters, 128);
+  }
+
+  @Override
+  public void getMassValues(@NotNull List<? extends MassSpectrum> spectra,
+      @NotNull ParameterSet parameters, @NotNull MassDetectionBlock block) {
+    final double noiseLevel = parameters.getValue(RecursiveMassDetectorParameters.noiseLevel);
+    final double minimumMZPeakWidth = parameters.getValue(
+        RecursiveMassDetectorParameters.minimumMZPeakWidth);
+    final double maximumMZPeakWidth = parameters.getValue(
+        RecursiveMassDetectorParameters.maximumMZPeakWidth);
+
+    for (MassSpectrum scan : spectra) {
+      final int numDataPoints = block.loadSpectrum(scan);
+
+      // Find MzPeaks
+      recursiveThreshold(block, block.getInputMzs(), block.getInputIntensities(), 1,
+          numDataPoints - 1, noiseLevel, minimumMZPeakWidth, maximumMZPeakWidth, 0);
+
+      // sorted by m/z without duplicates
+      block.finishSpectrum(true);
     }
-    return new double[][]{mzs, intensities};
   }
 
   /**
    * This function searches for maxima from given part of a spectrum
    */
-  private int recursiveThreshold(TreeSet<DataPoint> mzPeaks, MassSpectrum scan, int startInd,
-      int stopInd, double curentNoiseLevel, double minimumMZPeakWidth, double maximumMZPeakWidth,
-      int recuLevel) {
+  private int recursiveThreshold(MassDetectionBlock mzPeaks, double[] mzs, double[] intensities,
+      int startInd, int stopInd, double curentNoiseLevel, double minimumMZPeakWidth,
+      double maximumMZPeakWidth, int recuLevel) {
 
     // logger.finest(" Level of recursion " + recuLevel);
 
-    List<DataPoint> RawDataPointsInds = new ArrayList<DataPoint>();
     int peakStartInd, peakStopInd, peakMaxInd;
     double peakWidthMZ;
 
     for (int ind = startInd; ind < stopInd; ind++) {
 
-      boolean currentIsBiggerNoise = scan.getIntensityValue(ind) > curentNoiseLevel;
+      boolean currentIsBiggerNoise = intensities[ind] > curentNoiseLevel;
       double localMinimum = Double.MAX_VALUE;
 
       // Ignore intensities below curentNoiseLevel
@@ -97,50 +87,48 @@ public class RecursiveMassDetector implements MassDetector {
       peakMaxInd = peakStartInd;
 
       // While peak is on
-      while ((ind < stopInd) && (scan.getIntensityValue(ind) > curentNoiseLevel)) {
+      while ((ind < stopInd) && (intensities[ind] > curentNoiseLevel)) {
 
-        boolean isLocalMinimum =
-            (scan.getIntensityValue(ind - 1) > scan.getIntensityValue(ind))
-                && (scan.getIntensityValue(ind) < scan.getIntensityValue(ind + 1));
+        boolean isLocalMinimum = (intensities[ind - 1] > intensities[ind])
+            && (intensities[ind] < intensities[ind + 1]);
 
         // Check if this is the minimum point of the peak
-        if (isLocalMinimum && (scan.getIntensityValue(ind) < localMinimum))
-          localMinimum = scan.getIntensityValue(ind);
+        if (isLocalMinimum && (intensities[ind] < localMinimum)) {
+          localMinimum = intensities[ind];
+        }
 
         // Check if this is the maximum point of the peak
-        if (scan.getIntensityValue(ind) > scan.getIntensityValue(peakMaxInd))
+        if (intensities[ind] > intensities[peakMaxInd]) {
           peakMaxInd = ind;
+        }
 
-        // Forming the DataPoint array that defines this peak
-        RawDataPointsInds.add(new SimpleDataPoint(scan.getMzValue(ind), scan.getIntensityValue(ind)));
         ind++;
       }
 
       // Add ending point of the peak
       peakStopInd = ind;
 
-      peakWidthMZ = scan.getMzValue(peakStopInd) - scan.getMzValue(peakStartInd);
+      peakWidthMZ = mzs[peakStopInd] - mzs[peakStartInd];
 
       // Verify width of the peak
       if ((peakWidthMZ >= minimumMZPeakWidth) && (peakWidthMZ <= maximumMZPeakWidth)) {
 
         // Declare a new MzPeak with intensity equal to max intensity
         // data point
-        mzPeaks.add(new SimpleDataPoint(scan.getMzValue(peakMaxInd), scan.getIntensityValue(peakMaxInd)));
+        mzPeaks.add(mzs[peakMaxInd], intensities[peakMaxInd]);
 
         if (recuLevel > 0) {
           // return stop index and beginning of the next peak
           return ind;
         }
       }
-      RawDataPointsInds.clear();
 
       // If the peak is still too big applies the same method until find a
       // peak of the right size
       if (peakWidthMZ > maximumMZPeakWidth) {
         if (localMinimum < Double.MAX_VALUE) {
-          ind = recursiveThreshold(mzPeaks, scan, peakStartInd, peakStopInd, localMinimum,
-              minimumMZPeakWidth, maximumMZPeakWidth, recuLevel + 1);
+          ind = recursiveThreshold(mzPeaks, mzs, intensities, peakStartInd, peakStopInd,
+              localMinimum, minimumMZPeakWidth, maximumMZPeakWidth, recuLevel + 1);
         }
 
       }
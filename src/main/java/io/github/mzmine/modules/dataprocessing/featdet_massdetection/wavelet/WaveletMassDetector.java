@@ -25,17 +25,11 @@
 
 package io.github.mzmine.modules.dataprocessing.featdet_massdetection.wavelet;
 
-import io.github.mzmine.datamodel.DataPoint;
 import io.github.mzmine.datamodel.MassSpectrum;
-import io.github.mzmine.datamodel.impl.SimpleDataPoint;
+import io.github.mzmine.modules.dataprocessing.featdet_massdetection.MassDetectionBlock;
 import io.github.mzmine.modules.dataprocessing.featdet_massdetection.MassDetector;
 import io.github.mzmine.parameters.ParameterSet;
-import io.github.mzmine.util.DataPointSorter;
-import io.github.mzmine.util.SortingDirection;
-import io.github.mzmine.util.SortingProperty;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.TreeSet;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -55,46 +49,59 @@ public class WaveletMassDetector implements MassDetector {
 
   @Override
   public double[][] getMassValues(MassSpectrum scan, ParameterSet parameters) {
+    return MassDetectionBlock.detectSingle(this, scan, parameters, 128);
+  }
 
-    double noiseLevel = parameters.getParameter(WaveletMassDetectorParameters.noiseLevel)
-        .getValue();
-    int scaleLevel = parameters.getParameter(WaveletMassDetectorParameters.scaleLevel).getValue();
-    double waveletWindow = parameters.getParameter(WaveletMassDetectorParameters.waveletWindow)
-        .getValue();
+  @Override
+  public void getMassValues(@NotNull List<? extends MassSpectrum> spectra,
+      @NotNull ParameterSet parameters, @NotNull MassDetectionBlock block) {
 
-    DataPoint waveletDataPoints[] = performCWT(scan, waveletWindow, scaleLevel);
+    final double noiseLevel = parameters.getValue(WaveletMassDetectorParameters.noiseLevel);
+    final int scaleLevel = parameters.getValue(WaveletMassDetectorParameters.scaleLevel);
+    final double waveletWindow = parameters.getValue(WaveletMassDetectorParameters.waveletWindow);
 
-    DataPoint detected[] = getMzPeaks(noiseLevel, scan, waveletDataPoints);
+    // the wavelet only depends on the window, so it is calculated once for all spectra
+    final double[] W = calculateWavelet(waveletWindow);
+    double[] cwtIntensities = new double[0];
 
-    // convert to double[][] TODO remove use of DataPoint
-    int size = detected.length;
-    double[] mzs = new double[size];
-    double[] intensities = new double[size];
-    for (int i = 0; i < size; i++) {
-      mzs[i] = detected[i].getMZ();
-      intensities[i] = detected[i].getIntensity();
+    for (MassSpectrum scan : spectra) {
+      final int length = block.loadSpectrum(scan);
+      if (cwtIntensities.length < length) {
+        cwtIntensities = new double[length];
+      }
+      performCWT(block.getInputIntensities(), length, W, scaleLevel, cwtIntensities);
+      getMzPeaks(noiseLevel, block.getInputMzs(), block.getInputIntensities(), cwtIntensities,
+          length, block);
+      // sorted by m/z without duplicates
+      block.finishSpectrum(true);
     }
-    return new double[][]{mzs, intensities};
   }
 
   /**
-   * Perform the CWT over raw data points in the selected scale level
-   *
-   * @param scan
+   * Pre calculate the values of the wavelet
    */
-  private SimpleDataPoint[] performCWT(MassSpectrum scan, double waveletWindow, int scaleLevel) {
-    int length = scan.getNumberOfDataPoints();
-    SimpleDataPoint[] cwtDataPoints = new SimpleDataPoint[length];
+  private double[] calculateWavelet(double waveletWindow) {
     double wstep = ((WAVELET_ESR - WAVELET_ESL) / NPOINTS);
     double[] W = new double[(int) NPOINTS];
 
     double waveletIndex = WAVELET_ESL;
     for (int j = 0; j < NPOINTS; j++) {
-      // Pre calculate the values of the wavelet
       W[j] = cwtMEXHATreal(waveletIndex, waveletWindow, 0.0);
       waveletIndex += wstep;
     }
+    return W;
+  }
 
+  /**
+   * Perform the CWT over raw data points in the selected scale level
+   *
+   * @param intensities    raw intensities
+   * @param length         number of raw data points
+   * @param W              the pre calculated wavelet
+   * @param cwtIntensities receives the intensities in the wavelet domain
+   */
+  private void performCWT(double[] intensities, int length, double[] W, int scaleLevel,
+      double[] cwtIntensities) {
     /*
      * We only perform Translation of the wavelet in the selected scale
      */
@@ -124,17 +131,15 @@ public class WaveletMassDetector implements MassDetector {
         if (ind >= NPOINTS) {
           ind = (int) NPOINTS - 1;
         }
-        intensity += scan.getIntensityValue(i) * W[ind];
+        intensity += intensities[i] * W[ind];
       }
       intensity /= sqrtScaleLevel;
       // Eliminate the negative part of the wavelet map
       if (intensity < 0) {
         intensity = 0;
       }
-      cwtDataPoints[dx] = new SimpleDataPoint(scan.getMzValue(dx), intensity);
+      cwtIntensities[dx] = intensity;
     }
-
-    return cwtDataPoints;
   }
 
   /**
@@ -161,19 +166,15 @@ public class WaveletMassDetector implements MassDetector {
   /**
    * This function searches for maximums from wavelet data points
    */
-  private DataPoint[] getMzPeaks(double noiseLevel, MassSpectrum scan,
-      DataPoint[] waveletDataPoints) {
-
-    TreeSet<DataPoint> mzPeaks = new TreeSet<>(
-        new DataPointSorter(SortingProperty.MZ, SortingDirection.Ascending));
+  private void getMzPeaks(double noiseLevel, double[] mzs, double[] intensities,
+      double[] cwtIntensities, int length, MassDetectionBlock mzPeaks) {
 
-    List<DataPoint> rawDataPoints = new ArrayList<>();
     int peakMaxInd = 0;
-    int stopInd = waveletDataPoints.length - 1;
+    int stopInd = length - 1;
 
     for (int ind = 0; ind <= stopInd; ind++) {
 
-      while ((ind <= stopInd) && (waveletDataPoints[ind].getIntensity() == 0)) {
+      while ((ind <= stopInd) && (cwtIntensities[ind] == 0)) {
         ind++;
       }
       peakMaxInd = ind;
@@ -181,13 +182,18 @@ public class WaveletMassDetector implements MassDetector {
         break;
       }
 
+      // the approximate intensity is the maximum raw intensity of the peak
+      double aproxIntensity = 0;
+
       // While peak is on
-      while ((ind <= stopInd) && (waveletDataPoints[ind].getIntensity() > 0)) {
+      while ((ind <= stopInd) && (cwtIntensities[ind] > 0)) {
         // Check if this is the maximum point of the peak
-        if (waveletDataPoints[ind].getIntensity() > waveletDataPoints[peakMaxInd].getIntensity()) {
+        if (cwtIntensities[ind] > cwtIntensities[peakMaxInd]) {
           peakMaxInd = ind;
         }
-        rawDataPoints.add(new SimpleDataPoint(scan.getMzValue(ind), scan.getIntensityValue(ind)));
+        if (intensities[ind] > aproxIntensity) {
+          aproxIntensity = intensities[ind];
+        }
         ind++;
       }
 
@@ -195,32 +201,14 @@ public class WaveletMassDetector implements MassDetector {
         break;
       }
 
-      rawDataPoints.add(new SimpleDataPoint(scan.getMzValue(ind), scan.getIntensityValue(ind)));
-
-      if (scan.getIntensityValue(peakMaxInd) > noiseLevel) {
-        SimpleDataPoint peakDataPoint = new SimpleDataPoint(scan.getMzValue(peakMaxInd),
-            calcAproxIntensity(rawDataPoints));
-
-        mzPeaks.add(peakDataPoint);
-
+      if (intensities[ind] > aproxIntensity) {
+        aproxIntensity = intensities[ind];
       }
-      rawDataPoints.clear();
-    }
-
-    return mzPeaks.toArray(new DataPoint[0]);
-
-  }
-
-  private double calcAproxIntensity(List<DataPoint> rawDataPoints) {
-
-    double aproxIntensity = 0;
 
-    for (DataPoint d : rawDataPoints) {
-      if (d.getIntensity() > aproxIntensity) {
-        aproxIntensity = d.getIntensity();
+      if (intensities[peakMaxInd] > noiseLevel) {
+        mzPeaks.add(mzs[peakMaxInd], aproxIntensity);
       }
     }
-    return aproxIntensity;
   }
 
   @Override
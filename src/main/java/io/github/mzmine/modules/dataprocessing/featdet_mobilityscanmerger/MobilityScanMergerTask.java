@@ -27,7 +27,6 @@ package io.github.mzmine.modules.dataprocessing.featdet_mobilityscanmerger;
 
 import io.github.mzmine.datamodel.Frame;
 import io.github.mzmine.datamodel.IMSRawDataFile;
-import io.github.mzmine.datamodel.MobilityScan;
 import io.github.mzmine.datamodel.features.SimpleFeatureListAppliedMethod;
 import io.github.mzmine.datamodel.impl.SimpleFrame;
 import io.github.mzmine.datamodel.impl.masslist.ScanPointerMassList;
@@ -36,20 +35,30 @@ import io.github.mzmine.parameters.parametertypes.selectors.ScanSelection;
 import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.util.exceptions.MissingMassListException;
 import io.github.mzmine.util.maths.CenterFunction;
 import io.github.mzmine.util.maths.Weighting;
+import io.github.mzmine.util.scans.MobilityScanMergingEngine;
 import io.github.mzmine.util.scans.SpectraMerging;
 import io.github.mzmine.util.scans.SpectraMerging.IntensityMergingType;
 import java.time.Instant;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 import org.jetbrains.annotations.NotNull;
 
 public class MobilityScanMergerTask extends AbstractTask {
 
   private static final Logger logger = Logger.getLogger(MobilityScanMergerTask.class.getName());
 
+  /**
+   * Number of frames merged by one worker with the same {@link MobilityScanMergingEngine}, so the
+   * scratch arrays are reused.
+   */
+  private static final int FRAMES_PER_BATCH = 32;
+
   private final ScanSelection scanSelection;
   private final IMSRawDataFile rawDataFile;
   private final MZTolerance mzTolerance;
@@ -57,15 +66,14 @@ public class MobilityScanMergerTask extends AbstractTask {
   private final ParameterSet parameters;
   private final double noiseLevel;
   private final IntensityMergingType mergingType;
+  private final AtomicInteger processedFrames = new AtomicInteger(0);
   private int totalFrames;
-  private int processedFrames;
 
   public MobilityScanMergerTask(final IMSRawDataFile file, ParameterSet parameters,
       @NotNull Instant moduleCallDate) {
     super(null,
         moduleCallDate); // for now, the merged data points are added to the frame on the raw data
     // level. In the future, we will generate a mass list.
-    processedFrames = 0;
     totalFrames = 1;
     this.parameters = parameters;
     this.rawDataFile = file;
@@ -84,7 +92,7 @@ public class MobilityScanMergerTask extends AbstractTask {
 
   @Override
   public double getFinishedPercentage() {
-    return processedFrames / (double) totalFrames;
+    return processedFrames.get() / (double) totalFrames;
   }
 
   @Override
@@ -97,19 +105,28 @@ public class MobilityScanMergerTask extends AbstractTask {
     List<? extends Frame> frames = scanSelection.getMatchingScans(rawDataFile.getFrames());
     totalFrames = frames.size();
 
+    final int numBatches = (totalFrames + FRAMES_PER_BATCH - 1) / FRAMES_PER_BATCH;
+    final long start = System.currentTimeMillis();
+
     try {
-      for (Frame f : frames) {
-        SimpleFrame frame = (SimpleFrame) f;
-        double[][] merged = SpectraMerging.calculatedMergedMzsAndIntensities(
-            frame.getMobilityScans().stream().map(MobilityScan::getMassList).toList(), mzTolerance,
+      IntStream.range(0, numBatches).parallel().forEach(batch -> {
+        final MobilityScanMergingEngine engine = new MobilityScanMergingEngine(mzTolerance,
             mergingType, cf, null, noiseLevel, null);
-
-        frame.setDataPoints(merged[0], merged[1]);
-        frame.addMassList(new ScanPointerMassList(frame));
-
-        processedFrames++;
-      }
-    } catch (NullPointerException e) {
+        final int end = Math.min(totalFrames, (batch + 1) * FRAMES_PER_BATCH);
+        for (int i = batch * FRAMES_PER_BATCH; i < end; i++) {
+          if (isCanceled()) {
+            return;
+          }
+          final SimpleFrame frame = (SimpleFrame) frames.get(i);
+          final double[][] merged = engine.merge(frame.getMobilityScanStorage());
+
+          frame.setDataPoints(merged[0], merged[1]);
+          frame.addMassList(new ScanPointerMassList(frame));
+
+          processedFrames.getAndIncrement();
+        }
+      });
+    } catch (MissingMassListException | NullPointerException e) {
       logger.log(Level.SEVERE, e.getMessage(), e);
       setErrorMessage("No mass list present in " + rawDataFile.getName()
           + ".\nPlease run mass detection first.");
@@ -117,6 +134,13 @@ public class MobilityScanMergerTask extends AbstractTask {
       return;
     }
 
+    if (isCanceled()) {
+      return;
+    }
+
+    logger.finest(() -> "Merged mobility scans of " + totalFrames + " frames in "
+        + rawDataFile.getName() + " in " + (System.currentTimeMillis() - start) + " ms.");
+
     rawDataFile.getAppliedMethods().add(
         new SimpleFeatureListAppliedMethod(MobilityScanMergerModule.class, parameters,
             getModuleCallDate()));
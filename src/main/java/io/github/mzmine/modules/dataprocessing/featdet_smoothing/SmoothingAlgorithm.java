@@ -50,6 +50,21 @@ public interface SmoothingAlgorithm extends MZmineModule {
   @Nullable
   public <T extends Scan> double[] smoothRt(@NotNull final IonTimeSeries<T> series);
 
+  /**
+   * Smooths the retention time dimension into a reusable buffer. Implementations should override
+   * this method to avoid allocating new arrays for every feature when called with a
+   * {@link FeatureFullDataAccess}.
+   *
+   * @param series The series.
+   * @param output A buffer for the smoothed intensities. Used if at least as long as the series.
+   * @return The smoothed intensity values, either the output buffer or a new array.
+   */
+  @Nullable
+  public default <T extends Scan> double[] smoothRt(@NotNull final IonTimeSeries<T> series,
+      @NotNull final double[] output) {
+    return smoothRt(series);
+  }
+
   /**
    * @param mobilogram The mobilogram.
    * @return The smoothed intensity values.
@@ -67,8 +82,34 @@ public interface SmoothingAlgorithm extends MZmineModule {
   public default IonTimeSeries<? extends Scan> smoothFeature(
       @Nullable final MemoryMapStorage storage, @NotNull final IonTimeSeries<?> dataAccess,
       @NotNull final Feature feature, ZeroHandlingType zht) {
+    return createSmoothedSeries(storage, dataAccess, feature, this.smoothRt(dataAccess));
+  }
 
-    double[] smoothedIntensities = this.smoothRt(dataAccess);
+  /**
+   * Creates a new smoothed series for the given feature, see
+   * {@link #smoothFeature(MemoryMapStorage, IonTimeSeries, Feature, ZeroHandlingType)}. The rt
+   * dimension is smoothed into the buffer, which can be reused for the next feature.
+   *
+   * @param buffer A buffer for the smoothed intensities, usually as long as the selected scans.
+   * @return The smoothed series.
+   */
+  public default IonTimeSeries<? extends Scan> smoothFeature(
+      @Nullable final MemoryMapStorage storage, @NotNull final IonTimeSeries<?> dataAccess,
+      @NotNull final Feature feature, ZeroHandlingType zht, @NotNull final double[] buffer) {
+    return createSmoothedSeries(storage, dataAccess, feature, this.smoothRt(dataAccess, buffer));
+  }
+
+  /**
+   * Maps the smoothed intensities of the data access back to the data points of the feature and
+   * smooths the summed mobilogram.
+   *
+   * @param smoothedIntensities The smoothed intensities of the data access or null if rt shall not
+   *                            be smoothed.
+   * @return The smoothed series.
+   */
+  private IonTimeSeries<? extends Scan> createSmoothedSeries(
+      @Nullable final MemoryMapStorage storage, @NotNull final IonTimeSeries<?> dataAccess,
+      @NotNull final Feature feature, @Nullable final double[] smoothedIntensities) {
 
     final IonTimeSeries<? extends Scan> originalSeries = feature.getFeatureData();
     final double[] originalIntensities = new double[originalSeries.getNumberOfValues()];
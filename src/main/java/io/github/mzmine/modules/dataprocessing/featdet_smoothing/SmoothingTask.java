@@ -40,6 +40,7 @@ import io.github.mzmine.datamodel.featuredata.IonMobilitySeries;
 import io.github.mzmine.datamodel.featuredata.IonMobilogramTimeSeries;
 import io.github.mzmine.datamodel.featuredata.IonTimeSeries;
 import io.github.mzmine.datamodel.featuredata.impl.SimpleIonMobilitySeries;
+import io.github.mzmine.datamodel.features.FeatureListRow;
 import io.github.mzmine.datamodel.features.ModularFeature;
 import io.github.mzmine.datamodel.features.ModularFeatureList;
 import io.github.mzmine.datamodel.features.SimpleFeatureListAppliedMethod;
@@ -56,12 +57,14 @@ import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 public class SmoothingTask extends AbstractTask {
 
   private static final Logger logger = Logger.getLogger(SmoothingTask.class.getName());
+  private static final int ROWS_PER_CHUNK = 500;
 
   private final ModularFeatureList flist;
   private final ParameterSet parameters;
@@ -122,20 +125,15 @@ public class SmoothingTask extends AbstractTask {
       return;
     }
 
-    // include zeros
-    final FeatureDataAccess dataAccess = EfficientDataAccess
-        .of(smoothedList, FeatureDataType.INCLUDE_ZEROS);
-
-    while (dataAccess.hasNextFeature()) {
-      final ModularFeature feature = (ModularFeature) dataAccess.nextFeature();
-
-      final IonTimeSeries<? extends Scan> smoothedSeries = smoother
-          .smoothFeature(getMemoryMapStorage(), dataAccess, feature, zht);
-      feature.set(io.github.mzmine.datamodel.features.types.FeatureDataType.class, smoothedSeries);
-      FeatureDataUtils.recalculateIonSeriesDependingTypes(feature);
-
-      processedFeatures.getAndIncrement();
-    }
+    // smooth chunks of rows in parallel, each with its own data access and buffer
+    final List<FeatureListRow> rows = new ArrayList<>(smoothedList.getRows());
+    final int numScans = smoothedList.getSeletedScans(smoothedList.getRawDataFile(0)).size();
+    final int numChunks = (rows.size() + ROWS_PER_CHUNK - 1) / ROWS_PER_CHUNK;
+    IntStream.range(0, numChunks).parallel().forEach(chunk -> {
+      final List<FeatureListRow> subset = rows.subList(chunk * ROWS_PER_CHUNK,
+          Math.min(rows.size(), (chunk + 1) * ROWS_PER_CHUNK));
+      smoothRows(smoothedList, subset, smoother, new double[numScans]);
+    });
 
     if (isCanceled()) {
       return;
@@ -150,6 +148,40 @@ public class SmoothingTask extends AbstractTask {
     setStatus(TaskStatus.FINISHED);
   }
 
+  /**
+   * Smooths all features of the rows. The new series are set to the features in a block
+   * synchronized on the feature list, as setting types is not thread safe.
+   *
+   * @param smoothedList the feature list
+   * @param rows         the rows to smooth
+   * @param smoother     the smoother
+   * @param buffer       a buffer for the smoothed intensities, as long as the selected scans
+   */
+  private void smoothRows(@NotNull final ModularFeatureList smoothedList,
+      @NotNull final List<FeatureListRow> rows, @NotNull final SmoothingAlgorithm smoother,
+      @NotNull final double[] buffer) {
+    // include zeros
+    final FeatureDataAccess dataAccess = EfficientDataAccess.of(smoothedList,
+        FeatureDataType.INCLUDE_ZEROS, null, rows);
+
+    while (dataAccess.hasNextFeature()) {
+      if (isCanceled()) {
+        return;
+      }
+      final ModularFeature feature = (ModularFeature) dataAccess.nextFeature();
+
+      final IonTimeSeries<? extends Scan> smoothedSeries = smoother.smoothFeature(
+          getMemoryMapStorage(), dataAccess, feature, zht, buffer);
+      synchronized (smoothedList) {
+        feature.set(io.github.mzmine.datamodel.features.types.FeatureDataType.class,
+            smoothedSeries);
+        FeatureDataUtils.recalculateIonSeriesDependingTypes(feature);
+      }
+
+      processedFeatures.getAndIncrement();
+    }
+  }
+
   @Nullable
   private SmoothingAlgorithm initialiseSmoother() {
     final SmoothingAlgorithm smoother;
@@ -33,6 +33,7 @@ import io.github.mzmine.datamodel.featuredata.MobilitySeries;
 import io.github.mzmine.modules.dataprocessing.featdet_smoothing.SmoothingAlgorithm;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.util.IonMobilityUtils;
+import java.util.List;
 import org.apache.commons.math3.analysis.interpolation.LoessInterpolator;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -43,6 +44,8 @@ public class LoessSmoothing implements SmoothingAlgorithm {
   private final Integer rtWidth;
   private final boolean smoothRt;
   private final boolean smoothMobility;
+  // tricube weights of the last scan selection, shared by all features of a feature list
+  private volatile LoessWeightTable rtWeightTable;
 
   public LoessSmoothing() {
     this.mobilityWidth = null;
@@ -78,6 +81,40 @@ public class LoessSmoothing implements SmoothingAlgorithm {
     return LoessSmoothingParameters.class;
   }
 
+  @Override
+  public <T extends Scan> @Nullable double[] smoothRt(@NotNull IonTimeSeries<T> series,
+      @NotNull double[] output) {
+    if (!smoothRt) {
+      return null;
+    }
+    if (!(series instanceof FeatureFullDataAccess access)) {
+      return smoothRt(series);
+    }
+
+    // all features share the selected scans as x-axis, reuse the weights
+    final List<Scan> scans = access.getSpectra();
+    LoessWeightTable table = rtWeightTable;
+    if (table == null || !table.matches(scans, rtWidth)) {
+      table = LoessWeightTable.create(scans, rtWidth);
+      if (table == null) {
+        return smoothRt(series);
+      }
+      rtWeightTable = table;
+    }
+
+    final int numValues = access.getNumberOfValues();
+    final double[] smoothed =
+        output.length >= numValues ? output : new double[numValues];
+    final double[] intensities = access.getIntensityValues();
+    table.smooth(intensities, smoothed);
+    for (int i = 0; i < numValues; i++) {
+      if (Double.compare(intensities[i], 0d) <= 0) {
+        smoothed[i] = 0d;
+      }
+    }
+    return smoothed;
+  }
+
   @Override
   public <T extends Scan> @Nullable double[] smoothRt(@NotNull IonTimeSeries<T> series) {
     if (!smoothRt) {
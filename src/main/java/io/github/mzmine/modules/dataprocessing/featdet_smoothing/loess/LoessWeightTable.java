@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.dataprocessing.featdet_smoothing.loess;
+
+import io.github.mzmine.datamodel.Scan;
+import java.util.List;
+import org.apache.commons.math3.analysis.interpolation.LoessInterpolator;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Precomputed tricube weights of a {@link LoessInterpolator} without robustness iterations for a
+ * fixed x-axis. All features accessed with
+ * {@link io.github.mzmine.datamodel.data_access.FeatureFullDataAccess} share the selected scans
+ * of the raw data file as x-axis, so the bandwidth intervals, the weights and the weighted x sums
+ * only depend on the scans and the smoothing width. Only the y dependent sums are calculated per
+ * feature, in the same order as the {@link LoessInterpolator}, so the results are identical.
+ */
+final class LoessWeightTable {
+
+  /**
+   * Same as the default accuracy of the {@link LoessInterpolator}
+   */
+  private static final double ACCURACY = LoessInterpolator.DEFAULT_ACCURACY;
+  /**
+   * Upper limit of cached weights (2 doubles each). Larger tables fall back to the interpolator.
+   */
+  private static final long MAX_WEIGHTS = 1L << 24;
+
+  private final List<? extends Scan> scans;
+  private final int width;
+  private final double[] x;
+  // start of the weights of each point in w and xw
+  private final int[] offset;
+  private final int[] left;
+  private final int[] right;
+  private final double[] w;
+  private final double[] xw;
+  private final double[] sumWeights;
+  private final double[] meanX;
+  private final double[] meanXSquared;
+  private final boolean[] zeroBeta;
+
+  private LoessWeightTable(List<? extends Scan> scans, int width, double[] x, int[] offset,
+      int[] left, int[] right, double[] w, double[] xw, double[] sumWeights, double[] meanX,
+      double[] meanXSquared, boolean[] zeroBeta) {
+    this.scans = scans;
+    this.width = width;
+    this.x = x;
+    this.offset = offset;
+    this.left = left;
+    this.right = right;
+    this.w = w;
+    this.xw = xw;
+    this.sumWeights = sumWeights;
+    this.meanX = meanX;
+    this.meanXSquared = meanXSquared;
+    this.zeroBeta = zeroBeta;
+  }
+
+  /**
+   * Creates the weight table for the retention times of the scans.
+   *
+   * @param scans the x-axis
+   * @param width the smoothing width in number of points
+   * @return the table or null if the {@link LoessInterpolator} should be used instead (less than 3
+   * points, bandwidth below two points, retention times not strictly increasing, or too many
+   * weights)
+   */
+  @Nullable
+  static LoessWeightTable create(@NotNull List<? extends Scan> scans, int width) {
+    final int n = scans.size();
+    if (n < 3) {
+      return null;
+    }
+    final double[] x = new double[n];
+    for (int i = 0; i < n; i++) {
+      x[i] = scans.get(i).getRetentionTime();
+      if (!Double.isFinite(x[i]) || (i > 0 && x[i] <= x[i - 1])) {
+        return null;
+      }
+    }
+
+    // same as the interpolator: bandwidth is a fraction of the source points
+    final double bandwidth = Math.min((((double) width) / n), 1);
+    final int bandwidthInPoints = (int) (bandwidth * n);
+    if (bandwidthInPoints < 2 || (long) n * bandwidthInPoints > MAX_WEIGHTS) {
+      return null;
+    }
+
+    final int[] offset = new int[n + 1];
+    final int[] left = new int[n];
+    final int[] right = new int[n];
+    final double[] w = new double[n * bandwidthInPoints];
+    final double[] xw = new double[n * bandwidthInPoints];
+    final double[] sumWeights = new double[n];
+    final double[] meanX = new double[n];
+    final double[] meanXSquared = new double[n];
+    final boolean[] zeroBeta = new boolean[n];
+
+    int ileft = 0;
+    int iright = bandwidthInPoints - 1;
+    int index = 0;
+    for (int i = 0; i < n; i++) {
+      final double xi = x[i];
+      if (i > 0) {
+        // update bandwidth interval with unit weights
+        final int nextRight = iright + 1;
+        if (nextRight < n && x[nextRight] - xi < xi - x[ileft]) {
+          ileft++;
+          iright = nextRight;
+        }
+      }
+      left[i] = ileft;
+      right[i] = iright;
+      offset[i] = index;
+
+      final int edge = xi - x[ileft] > x[iright] - xi ? ileft : iright;
+      final double denom = Math.abs(1.0 / (x[edge] - xi));
+      double sumW = 0;
+      double sumX = 0;
+      double sumXSquared = 0;
+      for (int k = ileft; k <= iright; ++k) {
+        final double xk = x[k];
+        final double dist = (k < i) ? xi - xk : xk - xi;
+        final double wk = tricube(dist * denom);
+        final double xkw = xk * wk;
+        w[index] = wk;
+        xw[index] = xkw;
+        index++;
+        sumW += wk;
+        sumX += xkw;
+        sumXSquared += xk * xkw;
+      }
+      sumWeights[i] = sumW;
+      meanX[i] = sumX / sumW;
+      meanXSquared[i] = sumXSquared / sumW;
+      zeroBeta[i] = Math.sqrt(Math.abs(meanXSquared[i] - meanX[i] * meanX[i])) < ACCURACY;
+    }
+    offset[n] = index;
+
+    return new LoessWeightTable(scans, width, x, offset, left, right, w, xw, sumWeights, meanX,
+        meanXSquared, zeroBeta);
+  }
+
+  private static double tricube(final double x) {
+    final double absX = Math.abs(x);
+    if (absX >= 1.0) {
+      return 0.0;
+    }
+    final double tmp = 1 - absX * absX * absX;
+    return tmp * tmp * tmp;
+  }
+
+  /**
+   * @param scans the x-axis
+   * @param width the smoothing width in number of points
+   * @return true if this table was created for the same scans and width
+   */
+  boolean matches(@NotNull List<? extends Scan> scans, int width) {
+    return this.scans == scans && this.width == width && x.length == scans.size();
+  }
+
+  /**
+   * Smooths the y values with the cached weights
+   *
+   * @param y      the intensities, at least as long as the x-axis
+   * @param output the smoothed values, at least as long as the x-axis
+   * @return the output
+   */
+  double[] smooth(double[] y, double[] output) {
+    final int n = x.length;
+    for (int i = 0; i < n; i++) {
+      double sumY = 0;
+      double sumXY = 0;
+      int index = offset[i];
+      for (int k = left[i]; k <= right[i]; k++, index++) {
+        final double yk = y[k];
+        sumY += yk * w[index];
+        sumXY += yk * xw[index];
+      }
+      final double meanY = sumY / sumWeights[i];
+      final double meanXY = sumXY / sumWeights[i];
+      final double beta;
+      if (zeroBeta[i]) {
+        beta = 0;
+      } else {
+        beta = (meanXY - meanX[i] * meanY) / (meanXSquared[i] - meanX[i] * meanX[i]);
+      }
+      final double alpha = meanY - beta * meanX[i];
+      output[i] = beta * x[i] + alpha;
+    }
+    return output;
+  }
+}
@@ -26,6 +26,7 @@
 package io.github.mzmine.modules.dataprocessing.featdet_smoothing.savitzkygolay;
 
 import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.datamodel.data_access.FeatureFullDataAccess;
 import io.github.mzmine.datamodel.featuredata.IntensitySeries;
 import io.github.mzmine.datamodel.featuredata.IonTimeSeries;
 import io.github.mzmine.datamodel.featuredata.MobilitySeries;
@@ -104,6 +105,58 @@ public class SavitzkyGolaySmoothing implements SmoothingAlgorithm {
     return smoothed;
   }
 
+  /**
+   * Convolves the intensities with the normalized weights into the output buffer. Same result as
+   * {@link #smooth(IntensitySeries, double[])} without allocating new arrays.
+   *
+   * @param intensities the intensities, at least numPoints long
+   * @param numPoints   the number of data points
+   * @param normWeights the normalized weights
+   * @param output      the smoothed intensities, at least numPoints long
+   * @return the output
+   */
+  public static double[] smooth(@NotNull final double[] intensities, final int numPoints,
+      @NotNull final double[] normWeights, @NotNull final double[] output) {
+    final int fullWidth = normWeights.length;
+    final int halfWidth = (fullWidth - 1) / 2;
+
+    for (int i = 0; i < numPoints; i++) {
+      // values that were previously 0 remain 0
+      if (Double.compare(intensities[i], 0d) == 0) {
+        output[i] = 0d;
+        continue;
+      }
+
+      final int k = i - halfWidth;
+      double sum = 0d;
+      for (int j = Math.max(0, -k); j < Math.min(fullWidth, numPoints - k); j++) {
+        sum += intensities[k + j] * normWeights[j];
+      }
+      output[i] = sum < 0d ? 0d : sum;
+    }
+    return output;
+  }
+
+  @Override
+  @Nullable
+  public <T extends Scan> double[] smoothRt(@NotNull IonTimeSeries<T> series,
+      @NotNull double[] output) {
+    if (!smoothRt) {
+      return null;
+    }
+    if (rtWeights == null) {
+      throw new IllegalArgumentException(
+          "No smoothing weights specified. Was the smoother initialised correctly?");
+    }
+    if (!(series instanceof FeatureFullDataAccess access)) {
+      return smooth(series, rtWeights);
+    }
+
+    final int numValues = access.getNumberOfValues();
+    return smooth(access.getIntensityValues(), numValues, rtWeights,
+        output.length >= numValues ? output : new double[numValues]);
+  }
+
   @Override
   @Nullable
   public <T extends Scan> double[] smoothRt(@NotNull IonTimeSeries<T> series) {
@@ -38,9 +38,6 @@ import io.github.mzmine.datamodel.PseudoSpectrum;
 import io.github.mzmine.datamodel.PseudoSpectrumType;
 import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.datamodel.Scan;
-import io.github.mzmine.datamodel.data_access.EfficientDataAccess;
-import io.github.mzmine.datamodel.data_access.EfficientDataAccess.ScanDataType;
-import io.github.mzmine.datamodel.data_access.ScanDataAccess;
 import io.github.mzmine.datamodel.featuredata.FeatureDataUtils;
 import io.github.mzmine.datamodel.featuredata.IonMobilogramTimeSeries;
 import io.github.mzmine.datamodel.featuredata.IonTimeSeries;
@@ -69,19 +66,30 @@ import io.github.mzmine.util.IonMobilityUtils;
 import io.github.mzmine.util.MemoryMapStorage;
 import io.github.mzmine.util.scans.SpectraMerging;
 import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 public class DiaMs2CorrTask extends AbstractTask {
 
   private static final Logger logger = Logger.getLogger(DiaMs2CorrTask.class.getName());
+  /**
+   * Rows with overlapping rt windows are processed in groups of this size in parallel.
+   */
+  private static final int ROWS_PER_GROUP = 32;
 
   private final ModularFeatureList flist;
   private final ScanSelection ms2ScanSelection;
@@ -100,7 +108,7 @@ public class DiaMs2CorrTask extends AbstractTask {
   private final int numSubTasks = 2;
   private AbstractTask adapTask = null;
   private int currentTaksIndex = 1;
-  private int currentRow = 0;
+  private final AtomicInteger processedRows = new AtomicInteger(0);
 
   private String description = "";
 
@@ -143,7 +151,7 @@ public class DiaMs2CorrTask extends AbstractTask {
   @Override
   public double getFinishedPercentage() {
     return (adapTask != null ? adapTask.getFinishedPercentage() * 0.5 : 0)
-           + (currentRow / (double) numRows) * 0.5d;
+           + (processedRows.get() / (double) numRows) * 0.5d;
   }
 
   @Override
@@ -157,8 +165,6 @@ public class DiaMs2CorrTask extends AbstractTask {
 
     final RawDataFile file = flist.getRawDataFile(0);
     final List<Scan> ms2Scans = List.of(ms2ScanSelection.getMatchingScans(file));
-    final ScanDataAccess access = EfficientDataAccess.of(file, ScanDataType.CENTROID,
-        ms2ScanSelection);
 
     // build chromatograms
     final MZmineProject dummyProject = new MZmineProjectImpl();
@@ -173,173 +179,254 @@ public class DiaMs2CorrTask extends AbstractTask {
                 feature.getFeatureData()));
     var size = ms2Eics.asMapOfRanges().size();
     assert ms2Flist.getNumberOfRows() == size;
+    final Ms2EicIndex eicIndex = new Ms2EicIndex(ms2Eics);
 
-    // go through all features and find ms2s
+    // find the rt window of all features
+    description = "Extracting feature shapes";
+    final List<RowWindow> windows = new ArrayList<>();
     for (FeatureListRow row : flist.getRows()) {
-      currentRow++;
-      description = "Processing row " + currentRow + "/" + numRows;
       if (isCanceled()) {
         return;
       }
-
-      final Feature feature = row.getFeature(file);
-      if (feature == null || feature.getFeatureStatus() != FeatureStatus.DETECTED
-          || feature.getHeight() < minMs1Intensity) {
-        continue;
+      final RowWindow window = createRowWindow(row.getFeature(file), ms2Scans);
+      if (window != null) {
+        windows.add(window);
+      } else {
+        processedRows.incrementAndGet();
       }
+    }
 
-      MergedMassSpectrum mergedMobilityScan = null; // for IMS
-      final IonTimeSeries<? extends Scan> featureEIC = feature.getFeatureData();
-      final double[][] shape = extractPointsAroundMaximum(
-          feature.getHeight() * correlationThreshold, featureEIC, feature.getRepresentativeScan());
-      if (shape == null || shape[0].length < minCorrPoints) {
-        continue;
+    // group rows with overlapping rt windows, they share their ms2 scans and EICs
+    windows.sort(Comparator.comparingDouble(w -> w.rtRange().lowerEndpoint()));
+    final IntList groupStarts = new IntArrayList();
+    float groupUpperRt = Float.NEGATIVE_INFINITY;
+    for (int i = 0; i < windows.size(); i++) {
+      final Range<Float> rtRange = windows.get(i).rtRange();
+      if (groupStarts.isEmpty() || rtRange.lowerEndpoint() > groupUpperRt
+          || i - groupStarts.getInt(groupStarts.size() - 1) >= ROWS_PER_GROUP) {
+        groupStarts.add(i);
+        groupUpperRt = Float.NEGATIVE_INFINITY;
       }
-      final double[] ms1Rts = shape[0];
-      final double[] ms1Intensities = shape[1];
-
-      // fwhm sometimes does funny stuff, so we restrict it to the overlap of fwhm + rt range
-      final Range<Float> rtRange = Range.closed((float) ms1Rts[0],
-          (float) ArrayUtils.lastElement(ms1Rts));
-      final List<Scan> ms2sInRtRange = ms2Scans.stream()
-          .filter(scan -> rtRange.contains(scan.getRetentionTime())).toList();
-      final Scan closestMs2 = getClosestMs2(feature.getRT(), ms2sInRtRange);
-      if (closestMs2 == null || ms2sInRtRange.isEmpty() || ms2sInRtRange.size() < minCorrPoints) {
-        logger.fine(() -> "Could not find enough ms2s in rtRange " + rtRange);
-        continue;
+      groupUpperRt = Math.max(groupUpperRt, rtRange.upperEndpoint());
+    }
+    groupStarts.add(windows.size());
+
+    description = "Correlating MS2 signals of %d rows in %d rt groups".formatted(windows.size(),
+        groupStarts.size() - 1);
+    final PseudoSpectrum[] pseudoMs2s = new PseudoSpectrum[windows.size()];
+    IntStream.range(0, groupStarts.size() - 1).parallel().forEach(group -> {
+      final Map<Scan, List<IonTimeSeries<?>>> eicsByScan = new HashMap<>();
+      final Map<MobilityScanKey, Optional<MergedMassSpectrum>> mergedMobilityScans = new HashMap<>();
+      for (int i = groupStarts.getInt(group); i < groupStarts.getInt(group + 1); i++) {
+        if (isCanceled()) {
+          return;
+        }
+        pseudoMs2s[i] = createPseudoMs2(file, windows.get(i), ms2Scans, eicIndex, eicsByScan,
+            mergedMobilityScans);
+        processedRows.incrementAndGet();
       }
+    });
+    if (isCanceled()) {
+      return;
+    }
 
-      // find m/zs in the closest ms2 scan and get their EICs
-      if (!access.jumpToScan(closestMs2)) {
-        continue;
+    for (int i = 0; i < windows.size(); i++) {
+      if (pseudoMs2s[i] != null) {
+        windows.get(i).feature().setAllMS2FragmentScans(new ArrayList<>(List.of(pseudoMs2s[i])));
       }
+    }
 
-      final List<IonTimeSeries<?>> eligibleEICs = new ArrayList<>();
-      for (int i = 0; i < access.getNumberOfDataPoints(); i++) {
-        if (minMs2Intensity > access.getIntensityValue(i)) {
-          continue;
-        }
+    flist.getAppliedMethods().add(
+        new SimpleFeatureListAppliedMethod(DiaMs2CorrModule.class, parameters,
+            getModuleCallDate()));
+    setStatus(TaskStatus.FINISHED);
+  }
 
-        final double mz = access.getMzValue(i);
-        final IonTimeSeries<?> series = ms2Eics.get(mz);
-        if (series != null) {
-          eligibleEICs.add(series);
-        }
-      }
+  /**
+   * @return the feature shape and the ms2 scans within its rt window or null if the feature is not
+   * eligible for a pseudo MS2.
+   */
+  @Nullable
+  private RowWindow createRowWindow(@Nullable Feature feature, List<Scan> ms2Scans) {
+    if (feature == null || feature.getFeatureStatus() != FeatureStatus.DETECTED
+        || feature.getHeight() < minMs1Intensity) {
+      return null;
+    }
+
+    final IonTimeSeries<? extends Scan> featureEIC = feature.getFeatureData();
+    final double[][] shape = extractPointsAroundMaximum(feature.getHeight() * correlationThreshold,
+        featureEIC, feature.getRepresentativeScan());
+    if (shape == null || shape[0].length < minCorrPoints) {
+      return null;
+    }
+    final double[] ms1Rts = shape[0];
 
-      if (eligibleEICs.isEmpty()) {
-        continue;
+    // fwhm sometimes does funny stuff, so we restrict it to the overlap of fwhm + rt range
+    final Range<Float> rtRange = Range.closed((float) ms1Rts[0],
+        (float) ArrayUtils.lastElement(ms1Rts));
+    return new RowWindow(feature, ms1Rts, shape[1], rtRange,
+        ms2ScansInRtRange(ms2Scans, rtRange));
+  }
+
+  /**
+   * The scans are sorted by retention time, so the scans in the rt range are one sub list.
+   */
+  private static List<Scan> ms2ScansInRtRange(List<Scan> ms2Scans, Range<Float> rtRange) {
+    int from = 0;
+    int to = ms2Scans.size();
+    while (from < to) {
+      final int mid = (from + to) >>> 1;
+      if (Float.compare(ms2Scans.get(mid).getRetentionTime(), rtRange.lowerEndpoint()) < 0) {
+        from = mid + 1;
+      } else {
+        to = mid;
       }
+    }
+    to = from;
+    while (to < ms2Scans.size() && rtRange.contains(ms2Scans.get(to).getRetentionTime())) {
+      to++;
+    }
+    return ms2Scans.subList(from, to);
+  }
+
+  /**
+   * Correlates the EICs of the MS2 signals in the closest MS2 scan with the feature shape.
+   *
+   * @param eicsByScan          EICs of the signals of already processed MS2 scans in this group
+   * @param mergedMobilityScans already merged mobility scans in this group
+   * @return the pseudo MS2 spectrum or null if no signal correlates
+   */
+  @Nullable
+  private PseudoSpectrum createPseudoMs2(RawDataFile file, RowWindow window, List<Scan> ms2Scans,
+      Ms2EicIndex eicIndex, Map<Scan, List<IonTimeSeries<?>>> eicsByScan,
+      Map<MobilityScanKey, Optional<MergedMassSpectrum>> mergedMobilityScans) {
+    final Feature feature = window.feature();
+    final double[] ms1Rts = window.ms1Rts();
+    final double[] ms1Intensities = window.ms1Intensities();
+    final Range<Float> rtRange = window.rtRange();
+    final List<Scan> ms2sInRtRange = window.ms2sInRtRange();
+
+    MergedMassSpectrum mergedMobilityScan = null; // for IMS
+    final Scan closestMs2 = getClosestMs2(feature.getRT(), ms2sInRtRange);
+    if (closestMs2 == null || ms2sInRtRange.isEmpty() || ms2sInRtRange.size() < minCorrPoints) {
+      logger.fine(() -> "Could not find enough ms2s in rtRange " + rtRange);
+      return null;
+    }
 
-      // for ims data, later check if we can find the mz in the closest ms2 frame with the same mobility
-      final MobilityScan bestMobilityScan = IonMobilityUtils.getBestMobilityScan(feature);
-      if (bestMobilityScan != null && closestMs2 instanceof Frame) {
-        final Range<Float> mobilityRange = IonMobilityUtils.getMobilityFWHM(
-            ((IonMobilogramTimeSeries) featureEIC).getSummedMobilogram());
-        final List<MobilityScan> mobilityScans = ms2Scans.stream()
-            .filter(s -> rtRange.contains(s.getRetentionTime()))
+    // find m/zs in the closest ms2 scan and get their EICs
+    final List<IonTimeSeries<?>> eligibleEICs = eicsByScan.computeIfAbsent(closestMs2,
+        scan -> eicIndex.findEics(scan, minMs2Intensity));
+    if (eligibleEICs.isEmpty()) {
+      return null;
+    }
+
+    // for ims data, later check if we can find the mz in the closest ms2 frame with the same mobility
+    final MobilityScan bestMobilityScan = IonMobilityUtils.getBestMobilityScan(feature);
+    if (bestMobilityScan != null && closestMs2 instanceof Frame) {
+      final Range<Float> mobilityRange = IonMobilityUtils.getMobilityFWHM(
+          ((IonMobilogramTimeSeries) feature.getFeatureData()).getSummedMobilogram());
+      final MobilityScanKey key = new MobilityScanKey(ms2sInRtRange.get(0),
+          ms2sInRtRange.size(), mobilityRange);
+      // null if there are no mobility scans to merge
+      final Optional<MergedMassSpectrum> merged = mergedMobilityScans.computeIfAbsent(key, k -> {
+        final List<MobilityScan> mobilityScans = ms2sInRtRange.stream()
             .flatMap(s -> ((Frame) s).getMobilityScans().stream())
             .filter(m -> mobilityRange.contains((float) m.getMobility())).toList();
-        if (!mobilityScans.isEmpty()) {
-          mergedMobilityScan = SpectraMerging.mergeSpectra(mobilityScans, mzTolerance,
-              MergingType.ALL_ENERGIES, null);
-        } else {
-          continue; // if we have ims data, and there are no mobility scans to be merged, something is fishy.
-        }
+        return mobilityScans.isEmpty() ? null : Optional.ofNullable(
+            SpectraMerging.mergeSpectra(mobilityScans, mzTolerance, MergingType.ALL_ENERGIES,
+                null));
+      });
+      if (merged != null) {
+        mergedMobilityScan = merged.orElse(null);
+      } else {
+        return null; // if we have ims data, and there are no mobility scans to be merged, something is fishy.
       }
+    }
 
-      DoubleArrayList ms2Mzs = new DoubleArrayList();
-      DoubleArrayList ms2Intensities = new DoubleArrayList();
-      for (IonTimeSeries<?> eic : eligibleEICs) {
-        final int num = eic.getNumberOfValues();
-        final double[] intensities = new double[num];
-        final double[] rts = new double[num];
-        for (int i = 0; i < num; i++) {
-          intensities[i] = eic.getIntensity(i);
-          rts[i] = eic.getRetentionTime(i);
-        }
+    DoubleArrayList ms2Mzs = new DoubleArrayList();
+    DoubleArrayList ms2Intensities = new DoubleArrayList();
+    for (IonTimeSeries<?> eic : eligibleEICs) {
+      final int num = eic.getNumberOfValues();
+      final double[] intensities = new double[num];
+      final double[] rts = new double[num];
+      for (int i = 0; i < num; i++) {
+        intensities[i] = eic.getIntensity(i);
+        rts[i] = eic.getRetentionTime(i);
+      }
 
-        final CorrelationData correlationData = DIA.corrFeatureShape(ms1Rts, ms1Intensities, rts,
-            intensities, minCorrPoints, 2, minMs2Intensity / 3);
-        if (correlationData != null && correlationData.isValid()
-            && correlationData.getPearsonR() > 0 && correlationData.getPearsonR() > minPearson) {
-          int startIndex = -1;
-          int endIndex = -1;
-          double maxIntensity = Double.NEGATIVE_INFINITY;
-
-          final List<Scan> spectra = (List<Scan>) eic.getSpectra();
-          for (int j = 0; j < spectra.size(); j++) {
-            Scan spectrum = spectra.get(j);
-            if (startIndex == -1 && rtRange.contains(spectrum.getRetentionTime())) {
-              startIndex = j;
-            }
-            if (startIndex != -1 && eic.getIntensity(j) > maxIntensity) {
-              maxIntensity = eic.getIntensity(j);
-            }
-            if (startIndex != -1 && !rtRange.contains(spectrum.getRetentionTime())) {
-              endIndex = j - 1;
-              break;
-            }
+      final CorrelationData correlationData = DIA.corrFeatureShape(ms1Rts, ms1Intensities, rts,
+          intensities, minCorrPoints, 2, minMs2Intensity / 3);
+      if (correlationData != null && correlationData.isValid()
+          && correlationData.getPearsonR() > 0 && correlationData.getPearsonR() > minPearson) {
+        int startIndex = -1;
+        int endIndex = -1;
+        double maxIntensity = Double.NEGATIVE_INFINITY;
+
+        final List<Scan> spectra = (List<Scan>) eic.getSpectra();
+        for (int j = 0; j < spectra.size(); j++) {
+          Scan spectrum = spectra.get(j);
+          if (startIndex == -1 && rtRange.contains(spectrum.getRetentionTime())) {
+            startIndex = j;
           }
-          // no value in ms1 feature rt range
-          if (startIndex == -1) {
-            continue;
+          if (startIndex != -1 && eic.getIntensity(j) > maxIntensity) {
+            maxIntensity = eic.getIntensity(j);
           }
-          // all values in ms1 feature rt range
-          if (endIndex == -1) {
-            endIndex = eic.getNumberOfValues() - 1;
+          if (startIndex != -1 && !rtRange.contains(spectrum.getRetentionTime())) {
+            endIndex = j - 1;
+            break;
           }
+        }
+        // no value in ms1 feature rt range
+        if (startIndex == -1) {
+          continue;
+        }
+        // all values in ms1 feature rt range
+        if (endIndex == -1) {
+          endIndex = eic.getNumberOfValues() - 1;
+        }
 
-          final double mz = FeatureDataUtils.calculateCenterMz(eic,
-              FeatureDataUtils.DEFAULT_CENTER_FUNCTION, startIndex, endIndex);
-
-          // for IMS measurements, the ion must be present in the MS2 mobility scans in the during
-          // the feature's rt window and within the mobility scans of the feature's mobility window.
-          // we could also look at mobility shape and correlate that, but it would probably take a
-          // lot of optimisation and/or too long to compute
-          if (mergedMobilityScan != null && mergedMobilityScan.getNumberOfDataPoints() > 1) {
-            boolean mzFound = false;
-            final double upper = mzTolerance.getToleranceRange(mz).upperEndpoint();
-            for (int i = 0; i < mergedMobilityScan.getNumberOfDataPoints(); i++) {
-              if (mzTolerance.checkWithinTolerance(mz, mergedMobilityScan.getMzValue(i))) {
-                mzFound = true;
-                break;
-              } else if (mergedMobilityScan.getMzValue(i) > upper) {
-                break;
-              }
-            }
-            if (!mzFound) {
-              continue; // dont add this mz
+        final double mz = FeatureDataUtils.calculateCenterMz(eic,
+            FeatureDataUtils.DEFAULT_CENTER_FUNCTION, startIndex, endIndex);
+
+        // for IMS measurements, the ion must be present in the MS2 mobility scans in the during
+        // the feature's rt window and within the mobility scans of the feature's mobility window.
+        // we could also look at mobility shape and correlate that, but it would probably take a
+        // lot of optimisation and/or too long to compute
+        if (mergedMobilityScan != null && mergedMobilityScan.getNumberOfDataPoints() > 1) {
+          boolean mzFound = false;
+          final double upper = mzTolerance.getToleranceRange(mz).upperEndpoint();
+          for (int i = 0; i < mergedMobilityScan.getNumberOfDataPoints(); i++) {
+            if (mzTolerance.checkWithinTolerance(mz, mergedMobilityScan.getMzValue(i))) {
+              mzFound = true;
+              break;
+            } else if (mergedMobilityScan.getMzValue(i) > upper) {
+              break;
             }
           }
-          ms2Mzs.add(mz);
-          ms2Intensities.add(maxIntensity);
+          if (!mzFound) {
+            continue; // dont add this mz
+          }
         }
+        ms2Mzs.add(mz);
+        ms2Intensities.add(maxIntensity);
       }
+    }
 
-      if (ms2Mzs.isEmpty()) {
-        continue;
-      }
-
-      /*MergedMsMsSpectrum ms2 = new SimpleMergedMsMsSpectrum(getMemoryMapStorage(),
-          ms2Mzs.toDoubleArray(), ms2Intensities.toDoubleArray(), closestMs2.getMsMsInfo(),
-          closestMs2.getMSLevel(),
-          mergedMobilityScan != null ? mergedMobilityScan.getSourceSpectra() : ms2sInRtRange,
-          IntensityMergingType.MAXIMUM, FeatureDataUtils.DEFAULT_CENTER_FUNCTION,
-          mergedMobilityScan != null ? MsMsMergeType.IMS_DIA : MsMsMergeType.DIA);*/
-
-      PseudoSpectrum ms2 = new SimplePseudoSpectrum(file, 2, feature.getRT(), null,
-          ms2Mzs.toDoubleArray(), ms2Intensities.toDoubleArray(),
-          feature.getRepresentativeScan().getPolarity(),
-          String.format("Pseudo MS2 (R >= %.2f)", minPearson), PseudoSpectrumType.LC_DIA);
-
-      feature.setAllMS2FragmentScans(new ArrayList<>(List.of(ms2)));
+    if (ms2Mzs.isEmpty()) {
+      return null;
     }
 
-    flist.getAppliedMethods().add(
-        new SimpleFeatureListAppliedMethod(DiaMs2CorrModule.class, parameters,
-            getModuleCallDate()));
-    setStatus(TaskStatus.FINISHED);
+    /*MergedMsMsSpectrum ms2 = new SimpleMergedMsMsSpectrum(getMemoryMapStorage(),
+        ms2Mzs.toDoubleArray(), ms2Intensities.toDoubleArray(), closestMs2.getMsMsInfo(),
+        closestMs2.getMSLevel(),
+        mergedMobilityScan != null ? mergedMobilityScan.getSourceSpectra() : ms2sInRtRange,
+        IntensityMergingType.MAXIMUM, FeatureDataUtils.DEFAULT_CENTER_FUNCTION,
+        mergedMobilityScan != null ? MsMsMergeType.IMS_DIA : MsMsMergeType.DIA);*/
+
+    return new SimplePseudoSpectrum(file, 2, feature.getRT(), null,
+        ms2Mzs.toDoubleArray(), ms2Intensities.toDoubleArray(),
+        feature.getRepresentativeScan().getPolarity(),
+        String.format("Pseudo MS2 (R >= %.2f)", minPearson), PseudoSpectrumType.LC_DIA);
   }
 
   private Scan getClosestMs2(float rt, List<Scan> ms2sInRtRange) {
@@ -433,4 +520,24 @@ public class DiaMs2CorrTask extends AbstractTask {
       adapTask.cancel();
     }
   }
+
+  /**
+   * @param ms1Rts         retention times of the feature shape
+   * @param ms1Intensities intensities of the feature shape
+   * @param rtRange        rt range of the feature shape
+   * @param ms2sInRtRange  the ms2 scans within the rt range
+   */
+  private record RowWindow(@NotNull Feature feature, double[] ms1Rts, double[] ms1Intensities,
+                           @NotNull Range<Float> rtRange, @NotNull List<Scan> ms2sInRtRange) {
+
+  }
+
+  /**
+   * Identifies the mobility scans merged for a feature: the ms2 frames in its rt range and its
+   * mobility range.
+   */
+  private record MobilityScanKey(@NotNull Scan firstFrame, int numFrames,
+                                 @NotNull Range<Float> mobilityRange) {
+
+  }
 }
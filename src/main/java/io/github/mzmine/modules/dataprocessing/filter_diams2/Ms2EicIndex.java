@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.dataprocessing.filter_diams2;
+
+import com.google.common.collect.BoundType;
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeMap;
+import io.github.mzmine.datamodel.MassList;
+import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.datamodel.featuredata.IonTimeSeries;
+import io.github.mzmine.util.exceptions.MissingMassListException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The MS2 EICs of a DIA file, sorted by their non-overlapping m/z ranges. The EICs of all signals
+ * of a spectrum are found in one sweep over the sorted signals and ranges. Thread safe.
+ */
+class Ms2EicIndex {
+
+  private final List<Range<Double>> ranges;
+  private final List<IonTimeSeries<?>> eics;
+
+  /**
+   * @param ms2Eics EICs mapped to their non-overlapping m/z ranges
+   */
+  Ms2EicIndex(@NotNull RangeMap<Double, IonTimeSeries<?>> ms2Eics) {
+    // map of ranges is sorted by the lower bound
+    final int size = ms2Eics.asMapOfRanges().size();
+    ranges = new ArrayList<>(size);
+    eics = new ArrayList<>(size);
+    for (Entry<Range<Double>, IonTimeSeries<?>> entry : ms2Eics.asMapOfRanges().entrySet()) {
+      ranges.add(entry.getKey());
+      eics.add(entry.getValue());
+    }
+  }
+
+  /**
+   * Finds the EIC of each signal in the mass list of a scan. Equivalent to querying the range map
+   * for every signal, so an EIC is added once for each of its signals.
+   *
+   * @param scan         the scan
+   * @param minIntensity signals below this intensity are skipped
+   * @return the EICs in the order of the signals
+   */
+  @NotNull
+  List<IonTimeSeries<?>> findEics(@NotNull Scan scan, double minIntensity) {
+    final MassList massList = scan.getMassList();
+    if (massList == null) {
+      throw new MissingMassListException(scan);
+    }
+    final int numPoints = massList.getNumberOfDataPoints();
+    final double[] mzs = massList.getMzValues(new double[numPoints]);
+    final double[] intensities = massList.getIntensityValues(new double[numPoints]);
+
+    final List<IonTimeSeries<?>> result = new ArrayList<>();
+    int r = 0;
+    double lastMz = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < numPoints; i++) {
+      if (minIntensity > intensities[i]) {
+        continue;
+      }
+
+      final double mz = mzs[i];
+      if (mz < lastMz) {
+        // unsorted signals restart the sweep
+        r = 0;
+      }
+      lastMz = mz;
+      while (r < ranges.size() && isBelow(ranges.get(r), mz)) {
+        r++;
+      }
+      if (r < ranges.size() && ranges.get(r).contains(mz)) {
+        result.add(eics.get(r));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return true if all values of the range are below the m/z
+   */
+  private static boolean isBelow(Range<Double> range, double mz) {
+    if (!range.hasUpperBound()) {
+      return false;
+    }
+    final int compare = Double.compare(range.upperEndpoint(), mz);
+    return compare < 0 || (compare == 0 && range.upperBoundType() == BoundType.OPEN);
+  }
+}
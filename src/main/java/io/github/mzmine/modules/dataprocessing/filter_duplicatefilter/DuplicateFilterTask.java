@@ -25,18 +25,8 @@
 
 package io.github.mzmine.modules.dataprocessing.filter_duplicatefilter;
 
-import static io.github.mzmine.datamodel.FeatureStatus.DETECTED;
-import static io.github.mzmine.datamodel.FeatureStatus.ESTIMATED;
-import static io.github.mzmine.datamodel.FeatureStatus.UNKNOWN;
-
-import com.google.common.collect.Range;
-import io.github.mzmine.datamodel.FeatureStatus;
 import io.github.mzmine.datamodel.MZmineProject;
-import io.github.mzmine.datamodel.RawDataFile;
-import io.github.mzmine.datamodel.features.Feature;
 import io.github.mzmine.datamodel.features.FeatureList;
-import io.github.mzmine.datamodel.features.FeatureListRow;
-import io.github.mzmine.datamodel.features.ModularFeature;
 import io.github.mzmine.datamodel.features.ModularFeatureList;
 import io.github.mzmine.datamodel.features.ModularFeatureListRow;
 import io.github.mzmine.datamodel.features.SimpleFeatureListAppliedMethod;
@@ -49,14 +39,9 @@ import io.github.mzmine.parameters.parametertypes.tolerances.RTTolerance;
 import io.github.mzmine.parameters.parametertypes.tolerances.mobilitytolerance.MobilityTolerance;
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
-import io.github.mzmine.util.FeatureListRowSorter;
-import io.github.mzmine.util.FeatureUtils;
 import io.github.mzmine.util.MemoryMapStorage;
-import io.github.mzmine.util.SortingDirection;
-import io.github.mzmine.util.SortingProperty;
 import java.time.Instant;
 import java.util.Arrays;
-import java.util.List;
 import java.util.Objects;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -78,7 +63,7 @@ public class DuplicateFilterTask extends AbstractTask {
   private final ParameterSet parameters;
   private FeatureList filteredPeakList;
   // Counters.
-  private int processedRows;
+  private volatile DuplicateRowFilterEngine engine;
   private int totalRows;
 
   public DuplicateFilterTask(final MZmineProject project, final FeatureList list,
@@ -92,7 +77,6 @@ public class DuplicateFilterTask extends AbstractTask {
     peakList = list;
     filteredPeakList = null;
     totalRows = 0;
-    processedRows = 0;
   }
 
   @Override
@@ -104,7 +88,9 @@ public class DuplicateFilterTask extends AbstractTask {
   @Override
   public double getFinishedPercentage() {
 
-    return totalRows == 0 ? 0.0 : (double) processedRows / (double) totalRows;
+    final DuplicateRowFilterEngine current = engine;
+    return totalRows == 0 || current == null ? 0.0
+        : (double) current.getProcessedRows() / (double) totalRows;
   }
 
   @Override
@@ -180,24 +166,12 @@ public class DuplicateFilterTask extends AbstractTask {
     }
     final ModularFeatureListRow[] peakListRows = newPeakList.getRows()
         .toArray(ModularFeatureListRow[]::new);
-    final int rowCount = peakListRows.length;
-    RawDataFile[] rawFiles = newPeakList.getRawDataFiles().toArray(RawDataFile[]::new);
 
-    // filter by average mz and rt
-    totalRows = rowCount;
-    processedRows = 0;
-    // sort rows
-    final int removedDuplicates = switch (mode) {
-      case OLD_AVERAGE ->
-          applyOldAverageFilter(mzTolerance, rtTolerance, mobilityTolerance, requireSameId,
-              peakListRows, rowCount);
-      case NEW_AVERAGE ->
-          applyNewMergingFilter(mzTolerance, rtTolerance, mobilityTolerance, requireSameId,
-              newPeakList, peakListRows, rowCount, rawFiles);
-      case SINGLE_FEATURE ->
-          applySingleFeatureMergingFilter(mzTolerance, rtTolerance, mobilityTolerance,
-              requireSameId, newPeakList, peakListRows, rowCount, rawFiles);
-    };
+    // sorts the rows and replaces duplicates by null
+    totalRows = peakListRows.length;
+    engine = new DuplicateRowFilterEngine(newPeakList, mzTolerance, rtTolerance, mobilityTolerance,
+        requireSameId, mode);
+    final int removedDuplicates = engine.filter(peakListRows, this::isCanceled);
 
     // finalize
     if (!isCanceled()) {
@@ -227,286 +201,4 @@ public class DuplicateFilterTask extends AbstractTask {
     flist.setRows(filteredRows);
   }
 
-  private int applyOldAverageFilter(MZTolerance mzTolerance, RTTolerance rtTolerance,
-      MobilityTolerance mobilityTolerance, boolean requireSameId,
-      ModularFeatureListRow[] peakListRows, int rowCount) {
-    Arrays.sort(peakListRows,
-        new FeatureListRowSorter(SortingProperty.Area, SortingDirection.Descending));
-
-    // Loop through all feature list rows
-    int removedDuplicates = 0;
-    for (int firstRowIndex = 0; firstRowIndex < rowCount; firstRowIndex++) {
-      if (isCanceled()) {
-        return -1;
-      }
-
-      final ModularFeatureListRow firstRow = peakListRows[firstRowIndex];
-
-      if (firstRow != null) {
-        for (int secondRowIndex = firstRowIndex + 1; secondRowIndex < rowCount; secondRowIndex++) {
-          if (isCanceled()) {
-            return -1;
-          }
-
-          final FeatureListRow secondRow = peakListRows[secondRowIndex];
-          if (secondRow != null) {
-            // Compare identifications
-            final boolean sameID =
-                !requireSameId || FeatureUtils.compareIdentities(firstRow, secondRow);
-
-            final boolean sameMZRT = checkSameAverageRTMZ(firstRow, secondRow, mzTolerance,
-                rtTolerance);
-
-            final boolean sameMobility = checkMobility(firstRow, secondRow, mobilityTolerance);
-
-            // Duplicate peaks?
-            if (sameID && sameMZRT && sameMobility) {
-              // second row deleted
-              removedDuplicates++;
-              peakListRows[secondRowIndex] = null;
-            }
-          }
-        }
-      }
-      processedRows++;
-    }
-    return removedDuplicates;
-  }
-
-
-  private int applyNewMergingFilter(MZTolerance mzTolerance, RTTolerance rtTolerance,
-      MobilityTolerance mobilityTolerance, boolean requireSameId, ModularFeatureList newPeakList,
-      ModularFeatureListRow[] peakListRows, int rowCount, RawDataFile[] rawFiles) {
-    // sort by mz to limit number of iterations
-    Arrays.sort(peakListRows,
-        new FeatureListRowSorter(SortingProperty.MZ, SortingDirection.Ascending));
-
-    // Loop through all feature list rows
-    int n = 0;
-    for (int firstRowIndex = 0; firstRowIndex < rowCount; firstRowIndex++) {
-      if (isCanceled()) {
-        return -1;
-      }
-
-      final ModularFeatureListRow firstRow = peakListRows[firstRowIndex];
-
-      if (firstRow != null) {
-
-        final double averageMZ1 = firstRow.getAverageMZ();
-        final Range<Double> mzRange = mzTolerance.getToleranceRange(averageMZ1);
-        double lowerMZ = mzRange.lowerEndpoint();
-        double upperMZ = mzRange.upperEndpoint();
-
-        for (int secondRowIndex = firstRowIndex + 1; secondRowIndex < rowCount; secondRowIndex++) {
-          if (isCanceled()) {
-            return -1;
-          }
-
-          final FeatureListRow secondRow = peakListRows[secondRowIndex];
-          if (secondRow != null) {
-            // check mz first to stop loop
-            final double averageMZ2 = secondRow.getAverageMZ();
-            if (averageMZ2 < lowerMZ) {
-              continue;
-            }
-            if (averageMZ2 > upperMZ) {
-              break;
-            }
-
-            // Compare identifications
-            final boolean sameID =
-                !requireSameId || FeatureUtils.compareIdentities(firstRow, secondRow);
-
-            final boolean sameRT = rtTolerance.checkWithinTolerance(firstRow.getAverageRT(),
-                secondRow.getAverageRT());
-
-            final boolean sameMobility = checkMobility(firstRow, secondRow, mobilityTolerance);
-
-            // Duplicate peaks?
-            if (sameID && sameRT && sameMobility) {
-              // create consensus row in new filter
-              // copy all detected features of row2 into row1
-              // to exchange gap-filled against detected
-              // features
-              createConsensusFirstRow(newPeakList, rawFiles, firstRow, secondRow);
-              // second row deleted
-              n++;
-              peakListRows[secondRowIndex] = null;
-            }
-          }
-        }
-      }
-      processedRows++;
-    }
-    return n;
-  }
-
-  /**
-   * Removes duplicates when one feature in two rows match.
-   *
-   * @return number of duplicates
-   */
-  private int applySingleFeatureMergingFilter(MZTolerance mzTolerance, RTTolerance rtTolerance,
-      MobilityTolerance mobilityTolerance, boolean requireSameId, ModularFeatureList newPeakList,
-      ModularFeatureListRow[] peakListRows, int rowCount, RawDataFile[] rawFiles) {
-    // sort by mz to limit number of iterations
-    Arrays.sort(peakListRows,
-        new FeatureListRowSorter(SortingProperty.MZ, SortingDirection.Ascending));
-
-    // Loop through all feature list rows
-    int n = 0;
-    for (int firstRowIndex = 0; firstRowIndex < rowCount; firstRowIndex++) {
-      if (isCanceled()) {
-        return -1;
-      }
-
-      final ModularFeatureListRow firstRow = peakListRows[firstRowIndex];
-
-      if (firstRow != null) {
-
-        final List<ModularFeature> firstFeatures = firstRow.getFeatures();
-        double minMZ = Double.MAX_VALUE;
-        double maxMZ = Double.NEGATIVE_INFINITY;
-        for (int i = 0; i < firstFeatures.size(); i++) {
-          Double mz = firstFeatures.get(i).getMZ();
-          if (mz == null) {
-            continue;
-          }
-          if (mz < minMZ) {
-            minMZ = mz;
-          }
-          if (mz > maxMZ) {
-            maxMZ = mz;
-          }
-        }
-        double lowerMZ = mzTolerance.getToleranceRange(minMZ).lowerEndpoint();
-        double upperMZ = mzTolerance.getToleranceRange(maxMZ).upperEndpoint();
-
-        for (int secondRowIndex = firstRowIndex + 1; secondRowIndex < rowCount; secondRowIndex++) {
-          if (isCanceled()) {
-            return -1;
-          }
-
-          final FeatureListRow secondRow = peakListRows[secondRowIndex];
-          if (secondRow != null) {
-            // check mz first to stop loop
-            final double averageMZ2 = secondRow.getAverageMZ();
-            if (averageMZ2 < lowerMZ) {
-              continue;
-            }
-            if (averageMZ2 > upperMZ) {
-              break;
-            }
-
-            // Compare identifications
-            final boolean sameID =
-                !requireSameId || FeatureUtils.compareIdentities(firstRow, secondRow);
-
-            final boolean sameRT = checkSameSingleFeatureRTMZ(rawFiles, firstRow, secondRow,
-                mzTolerance, rtTolerance);
-
-            final boolean sameMobility = checkMobility(firstRow, secondRow, mobilityTolerance);
-
-            // Duplicate peaks?
-            if (sameID && sameRT && sameMobility) {
-              // create consensus row in new filter
-              // copy all detected features of row2 into row1
-              // to exchange gap-filled against detected
-              // features
-              createConsensusFirstRow(newPeakList, rawFiles, firstRow, secondRow);
-              // second row deleted
-              n++;
-              peakListRows[secondRowIndex] = null;
-            }
-          }
-        }
-      }
-      processedRows++;
-    }
-    return n;
-  }
-
-  /**
-   * Turns firstRow to consensus row. With all features with highest FeatureStatus:
-   * DETECTED>ESTIMATED>UNKNOWN Or the highest feature when comparing two ESTIMATED features
-   *
-   * @param rawFiles
-   * @param firstRow
-   * @param secondRow
-   */
-  private void createConsensusFirstRow(ModularFeatureList flist, RawDataFile[] rawFiles,
-      FeatureListRow firstRow, FeatureListRow secondRow) {
-    for (RawDataFile raw : rawFiles) {
-      Feature f2 = secondRow.getFeature(raw);
-      if (f2 == null) {
-        continue;
-      }
-
-      Feature f1 = firstRow.getFeature(raw);
-      FeatureStatus status1 = f1 != null ? f1.getFeatureStatus() : UNKNOWN;
-      switch (f2.getFeatureStatus()) {
-        case DETECTED:
-          // DETECTED over all - both detected use heighest feature
-          if (status1 != DETECTED || f1.getHeight() < f2.getHeight()) {
-            firstRow.addFeature(raw, new ModularFeature(flist, f2));
-          }
-          break;
-        case ESTIMATED:
-          // ESTIMATED over UNKNOWN or
-          // BOTH ESTIMATED? take the highest
-          if (status1 == UNKNOWN || (status1 == ESTIMATED && f1.getHeight() < f2.getHeight())) {
-            firstRow.addFeature(raw, new ModularFeature(flist, f2));
-          }
-          break;
-      }
-    }
-  }
-
-  /**
-   * Has one feature within RT and mzTolerance in at least one raw data file
-   *
-   * @param rawFiles
-   * @param firstRow
-   * @param secondRow
-   * @param mzTolerance
-   * @param rtTolerance
-   * @return
-   */
-  private boolean checkSameSingleFeatureRTMZ(RawDataFile[] rawFiles, FeatureListRow firstRow,
-      FeatureListRow secondRow, MZTolerance mzTolerance, RTTolerance rtTolerance) {
-    // at least one similar feature in one raw data file
-    for (RawDataFile raw : rawFiles) {
-      Feature f1 = firstRow.getFeature(raw);
-      Feature f2 = secondRow.getFeature(raw);
-      // Compare m/z and rt
-      if (f1 != null && f2 != null && mzTolerance.checkWithinTolerance(f1.getMZ(), f2.getMZ())
-          && rtTolerance.checkWithinTolerance(f1.getRT(), f2.getRT())) {
-        return true;
-      }
-    }
-    return false;
-  }
-
-  /**
-   * Shares the same RT and mz
-   *
-   * @param firstRow
-   * @param secondRow
-   * @param mzTolerance
-   * @param rtTolerance
-   * @return
-   */
-  private boolean checkSameAverageRTMZ(FeatureListRow firstRow, FeatureListRow secondRow,
-      MZTolerance mzTolerance, RTTolerance rtTolerance) {
-    // Compare m/z and RT
-    return mzTolerance.checkWithinTolerance(firstRow.getAverageMZ(), secondRow.getAverageMZ())
-        && rtTolerance.checkWithinTolerance(firstRow.getAverageRT(), secondRow.getAverageRT());
-  }
-
-  private boolean checkMobility(@NotNull FeatureListRow rowA, @NotNull FeatureListRow rowB,
-      @NotNull MobilityTolerance tol) {
-    return tol.checkWithinTolerance(Objects.requireNonNullElse(rowA.getAverageMobility(), 1f),
-        Objects.requireNonNullElse(rowB.getAverageMobility(), 1f));
-  }
-
 }
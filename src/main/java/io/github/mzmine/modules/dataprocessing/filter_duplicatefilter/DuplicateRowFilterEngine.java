@@ -0,0 +1,465 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.dataprocessing.filter_duplicatefilter;
+
+import static io.github.mzmine.datamodel.FeatureStatus.DETECTED;
+import static io.github.mzmine.datamodel.FeatureStatus.ESTIMATED;
+import static io.github.mzmine.datamodel.FeatureStatus.UNKNOWN;
+
+import com.google.common.collect.Range;
+import io.github.mzmine.datamodel.FeatureStatus;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.features.Feature;
+import io.github.mzmine.datamodel.features.FeatureListRow;
+import io.github.mzmine.datamodel.features.ModularFeature;
+import io.github.mzmine.datamodel.features.ModularFeatureList;
+import io.github.mzmine.datamodel.features.ModularFeatureListRow;
+import io.github.mzmine.modules.dataprocessing.filter_duplicatefilter.DuplicateFilterParameters.FilterMode;
+import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import io.github.mzmine.parameters.parametertypes.tolerances.RTTolerance;
+import io.github.mzmine.parameters.parametertypes.tolerances.mobilitytolerance.MobilityTolerance;
+import io.github.mzmine.util.FeatureListRowSorter;
+import io.github.mzmine.util.FeatureUtils;
+import io.github.mzmine.util.SortingDirection;
+import io.github.mzmine.util.SortingProperty;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Sort-and-sweep implementation of the duplicate filter modes. Rows are sorted once and their m/z,
+ * RT and mobility values are read into primitive columns. The rows are then split into blocks that
+ * cannot interact, because no row of one block has another block's row within its m/z window.
+ * These blocks are processed in parallel, each one in the same order as the sequential filter, so
+ * the result is identical to comparing all rows in a single loop.
+ * <p>
+ * The averaging mode does not change rows and looks up candidates in the narrower of an m/z and an
+ * RT index of its block. The merging modes keep the m/z ordered sweep, because the RT and features
+ * of the consensus row change while rows are merged into it.
+ */
+class DuplicateRowFilterEngine {
+
+  private final ModularFeatureList flist;
+  private final RawDataFile[] rawFiles;
+  private final MZTolerance mzTolerance;
+  private final RTTolerance rtTolerance;
+  private final MobilityTolerance mobilityTolerance;
+  private final boolean requireSameId;
+  private final FilterMode mode;
+  private final AtomicInteger processedRows = new AtomicInteger(0);
+
+  DuplicateRowFilterEngine(@NotNull ModularFeatureList flist, @NotNull MZTolerance mzTolerance,
+      @NotNull RTTolerance rtTolerance, @NotNull MobilityTolerance mobilityTolerance,
+      boolean requireSameId, @NotNull FilterMode mode) {
+    this.flist = flist;
+    this.rawFiles = flist.getRawDataFiles().toArray(RawDataFile[]::new);
+    this.mzTolerance = mzTolerance;
+    this.rtTolerance = rtTolerance;
+    this.mobilityTolerance = mobilityTolerance;
+    this.requireSameId = requireSameId;
+    this.mode = mode;
+  }
+
+  /**
+   * Sorts the rows like the filter mode requires and replaces all duplicates by null. In the
+   * merging modes, the remaining rows become consensus rows of their duplicates.
+   *
+   * @param rows     the rows of the feature list of this engine
+   * @param canceled checked for every row
+   * @return the number of removed duplicates or -1 if canceled
+   */
+  int filter(@NotNull ModularFeatureListRow[] rows, @NotNull BooleanSupplier canceled) {
+    processedRows.set(0);
+    final int removed = switch (mode) {
+      case OLD_AVERAGE -> filterAverage(rows, canceled);
+      case NEW_AVERAGE, SINGLE_FEATURE -> filterMerging(rows, canceled);
+    };
+    return canceled.getAsBoolean() ? -1 : removed;
+  }
+
+  int getProcessedRows() {
+    return processedRows.get();
+  }
+
+  /**
+   * Rows sorted by area. The most intense row removes all later rows within m/z, RT and mobility
+   * tolerance.
+   */
+  private int filterAverage(ModularFeatureListRow[] rows, BooleanSupplier canceled) {
+    Arrays.sort(rows, new FeatureListRowSorter(SortingProperty.Area, SortingDirection.Descending));
+
+    final int numRows = rows.length;
+    final double[] mzs = new double[numRows];
+    final double[] lowerMzs = new double[numRows];
+    final double[] upperMzs = new double[numRows];
+    final float[] rts = new float[numRows];
+    final float[] mobilities = new float[numRows];
+    final int[] mzOrder = new int[numRows];
+    for (int i = 0; i < numRows; i++) {
+      mzs[i] = rows[i].getAverageMZ();
+      final Range<Double> mzRange = mzTolerance.getToleranceRange(mzs[i]);
+      lowerMzs[i] = mzRange.lowerEndpoint();
+      upperMzs[i] = mzRange.upperEndpoint();
+      rts[i] = rows[i].getAverageRT();
+      mobilities[i] = getMobility(rows[i]);
+      mzOrder[i] = i;
+    }
+    IntArrays.quickSort(mzOrder, (a, b) -> Double.compare(mzs[a], mzs[b]));
+
+    // rows are independent if neither is in the tolerance range of the other
+    final double[] minLowerAfter = new double[numRows + 1];
+    final double[] minMzAfter = new double[numRows + 1];
+    minLowerAfter[numRows] = Double.POSITIVE_INFINITY;
+    minMzAfter[numRows] = Double.POSITIVE_INFINITY;
+    for (int p = numRows - 1; p >= 0; p--) {
+      minLowerAfter[p] = Math.min(minLowerAfter[p + 1], lowerMzs[mzOrder[p]]);
+      minMzAfter[p] = Math.min(minMzAfter[p + 1], mzs[mzOrder[p]]);
+    }
+    final IntList blockStarts = new IntArrayList();
+    double maxMzBefore = Double.NEGATIVE_INFINITY;
+    double maxUpperBefore = Double.NEGATIVE_INFINITY;
+    for (int p = 0; p < numRows; p++) {
+      if (p == 0 || (minMzAfter[p] > maxUpperBefore && minLowerAfter[p] > maxMzBefore)) {
+        blockStarts.add(p);
+      }
+      maxMzBefore = Math.max(maxMzBefore, mzs[mzOrder[p]]);
+      maxUpperBefore = Math.max(maxUpperBefore, upperMzs[mzOrder[p]]);
+    }
+    blockStarts.add(numRows);
+
+    final boolean[] removed = new boolean[numRows];
+    final int removedDuplicates = IntStream.range(0, blockStarts.size() - 1).parallel().map(
+        b -> filterAverageBlock(rows, Arrays.copyOfRange(mzOrder, blockStarts.getInt(b),
+                blockStarts.getInt(b + 1)), mzs, lowerMzs, upperMzs, rts, mobilities, removed,
+            canceled)).sum();
+
+    for (int i = 0; i < numRows; i++) {
+      if (removed[i]) {
+        rows[i] = null;
+      }
+    }
+    return removedDuplicates;
+  }
+
+  /**
+   * @param byMz indices of the rows in this block, sorted by m/z
+   */
+  private int filterAverageBlock(ModularFeatureListRow[] rows, int[] byMz, double[] mzs,
+      double[] lowerMzs, double[] upperMzs, float[] rts, float[] mobilities, boolean[] removed,
+      BooleanSupplier canceled) {
+    final int[] byRt = byMz.clone();
+    IntArrays.quickSort(byRt, (a, b) -> Float.compare(rts[a], rts[b]));
+    // process the block in the original order of the rows
+    final int[] byIndex = byMz.clone();
+    Arrays.sort(byIndex);
+
+    int removedDuplicates = 0;
+    for (final int first : byIndex) {
+      if (canceled.getAsBoolean()) {
+        return 0;
+      }
+      if (!removed[first]) {
+        final int mzFrom = lowerBound(byMz, lowerMzs[first], mzs);
+        final int mzTo = upperBound(byMz, upperMzs[first], mzs);
+        final Range<Float> rtRange = rtTolerance.getToleranceRange(rts[first]);
+        final int rtFrom = lowerBound(byRt, rtRange.lowerEndpoint(), rts);
+        final int rtTo = upperBound(byRt, rtRange.upperEndpoint(), rts);
+
+        final boolean useMz = mzTo - mzFrom <= rtTo - rtFrom;
+        final int[] candidates = useMz ? byMz : byRt;
+        final int from = useMz ? mzFrom : rtFrom;
+        final int to = useMz ? mzTo : rtTo;
+        for (int c = from; c < to; c++) {
+          final int second = candidates[c];
+          if (second <= first || removed[second]) {
+            continue;
+          }
+          if (mzTolerance.checkWithinTolerance(mzs[first], mzs[second])
+              && rtTolerance.checkWithinTolerance(rts[first], rts[second])
+              && mobilityTolerance.checkWithinTolerance(mobilities[first], mobilities[second])
+              && (!requireSameId || FeatureUtils.compareIdentities(rows[first], rows[second]))) {
+            removed[second] = true;
+            removedDuplicates++;
+          }
+        }
+      }
+      processedRows.incrementAndGet();
+    }
+    return removedDuplicates;
+  }
+
+  /**
+   * Rows sorted by m/z. Every row is merged with all later rows within its m/z window that match in
+   * RT and mobility.
+   */
+  private int filterMerging(ModularFeatureListRow[] rows, BooleanSupplier canceled) {
+    Arrays.sort(rows, new FeatureListRowSorter(SortingProperty.MZ, SortingDirection.Ascending));
+
+    final int numRows = rows.length;
+    final double[] mzs = new double[numRows];
+    final double[] lowerMzs = new double[numRows];
+    final double[] upperMzs = new double[numRows];
+    final float[] rts = new float[numRows];
+    for (int i = 0; i < numRows; i++) {
+      final ModularFeatureListRow row = rows[i];
+      mzs[i] = row.getAverageMZ();
+      rts[i] = row.getAverageRT();
+      if (mode == FilterMode.SINGLE_FEATURE) {
+        setFeatureMzWindow(row, lowerMzs, upperMzs, i);
+      } else {
+        final Range<Double> mzRange = mzTolerance.getToleranceRange(mzs[i]);
+        lowerMzs[i] = mzRange.lowerEndpoint();
+        upperMzs[i] = mzRange.upperEndpoint();
+      }
+    }
+
+    // the sort order includes the RT, so the m/z values are not strictly ascending
+    final double[] minMzAfter = new double[numRows + 1];
+    minMzAfter[numRows] = Double.POSITIVE_INFINITY;
+    for (int i = numRows - 1; i >= 0; i--) {
+      minMzAfter[i] = Math.min(minMzAfter[i + 1], mzs[i]);
+    }
+    final IntList blockStarts = new IntArrayList();
+    double maxUpperBefore = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < numRows; i++) {
+      // NaN windows never split
+      if (i == 0 || minMzAfter[i] > maxUpperBefore) {
+        blockStarts.add(i);
+      }
+      maxUpperBefore = Math.max(maxUpperBefore, upperMzs[i]);
+    }
+    blockStarts.add(numRows);
+
+    return IntStream.range(0, blockStarts.size() - 1).parallel().map(
+        b -> filterMergingBlock(rows, blockStarts.getInt(b), blockStarts.getInt(b + 1), mzs,
+            lowerMzs, upperMzs, rts, canceled)).sum();
+  }
+
+  private int filterMergingBlock(ModularFeatureListRow[] rows, int start, int end, double[] mzs,
+      double[] lowerMzs, double[] upperMzs, float[] rts, BooleanSupplier canceled) {
+    int n = 0;
+    for (int firstRowIndex = start; firstRowIndex < end; firstRowIndex++) {
+      if (canceled.getAsBoolean()) {
+        return 0;
+      }
+
+      final ModularFeatureListRow firstRow = rows[firstRowIndex];
+      if (firstRow != null) {
+        final double lowerMZ = lowerMzs[firstRowIndex];
+        final double upperMZ = upperMzs[firstRowIndex];
+
+        for (int secondRowIndex = firstRowIndex + 1; secondRowIndex < end; secondRowIndex++) {
+          final FeatureListRow secondRow = rows[secondRowIndex];
+          if (secondRow != null) {
+            // check mz first to stop loop
+            final double averageMZ2 = mzs[secondRowIndex];
+            if (averageMZ2 < lowerMZ) {
+              continue;
+            }
+            if (averageMZ2 > upperMZ) {
+              break;
+            }
+
+            // the first row changes with every merge, the second rows are unchanged
+            final boolean sameRT = mode == FilterMode.SINGLE_FEATURE ? checkSameSingleFeatureRTMZ(
+                firstRow, secondRow)
+                : rtTolerance.checkWithinTolerance(firstRow.getAverageRT(), rts[secondRowIndex]);
+
+            if (sameRT && checkMobility(firstRow, secondRow) && (!requireSameId
+                || FeatureUtils.compareIdentities(firstRow, secondRow))) {
+              // create consensus row in new filter
+              // copy all detected features of row2 into row1
+              // to exchange gap-filled against detected
+              // features
+              createConsensusFirstRow(firstRow, secondRow);
+              // second row deleted
+              n++;
+              rows[secondRowIndex] = null;
+            }
+          }
+        }
+      }
+      processedRows.incrementAndGet();
+    }
+    return n;
+  }
+
+  /**
+   * The m/z window spanned by the tolerance ranges of the lowest and highest feature m/z
+   */
+  private void setFeatureMzWindow(FeatureListRow row, double[] lowerMzs, double[] upperMzs,
+      int index) {
+    final List<ModularFeature> features = row.getFeatures();
+    double minMZ = Double.MAX_VALUE;
+    double maxMZ = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < features.size(); i++) {
+      Double mz = features.get(i).getMZ();
+      if (mz == null) {
+        continue;
+      }
+      if (mz < minMZ) {
+        minMZ = mz;
+      }
+      if (mz > maxMZ) {
+        maxMZ = mz;
+      }
+    }
+    lowerMzs[index] = mzTolerance.getToleranceRange(minMZ).lowerEndpoint();
+    upperMzs[index] = mzTolerance.getToleranceRange(maxMZ).upperEndpoint();
+  }
+
+  /**
+   * Turns firstRow to consensus row. With all features with highest FeatureStatus:
+   * DETECTED>ESTIMATED>UNKNOWN Or the highest feature when comparing two ESTIMATED features.
+   * Synchronized on the feature list, because new features may register data types.
+   *
+   * @param firstRow
+   * @param secondRow
+   */
+  private void createConsensusFirstRow(FeatureListRow firstRow, FeatureListRow secondRow) {
+    synchronized (flist) {
+      for (RawDataFile raw : rawFiles) {
+        Feature f2 = secondRow.getFeature(raw);
+        if (f2 == null) {
+          continue;
+        }
+
+        Feature f1 = firstRow.getFeature(raw);
+        FeatureStatus status1 = f1 != null ? f1.getFeatureStatus() : UNKNOWN;
+        switch (f2.getFeatureStatus()) {
+          case DETECTED:
+            // DETECTED over all - both detected use heighest feature
+            if (status1 != DETECTED || f1.getHeight() < f2.getHeight()) {
+              firstRow.addFeature(raw, new ModularFeature(flist, f2));
+            }
+            break;
+          case ESTIMATED:
+            // ESTIMATED over UNKNOWN or
+            // BOTH ESTIMATED? take the highest
+            if (status1 == UNKNOWN || (status1 == ESTIMATED && f1.getHeight() < f2.getHeight())) {
+              firstRow.addFeature(raw, new ModularFeature(flist, f2));
+            }
+            break;
+        }
+      }
+    }
+  }
+
+  /**
+   * Has one feature within RT and mzTolerance in at least one raw data file
+   */
+  private boolean checkSameSingleFeatureRTMZ(FeatureListRow firstRow, FeatureListRow secondRow) {
+    // at least one similar feature in one raw data file
+    for (RawDataFile raw : rawFiles) {
+      Feature f1 = firstRow.getFeature(raw);
+      Feature f2 = secondRow.getFeature(raw);
+      // Compare m/z and rt
+      if (f1 != null && f2 != null && mzTolerance.checkWithinTolerance(f1.getMZ(), f2.getMZ())
+          && rtTolerance.checkWithinTolerance(f1.getRT(), f2.getRT())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean checkMobility(@NotNull FeatureListRow rowA, @NotNull FeatureListRow rowB) {
+    return mobilityTolerance.checkWithinTolerance(getMobility(rowA), getMobility(rowB));
+  }
+
+  private static float getMobility(@NotNull FeatureListRow row) {
+    return Objects.requireNonNullElse(row.getAverageMobility(), 1f);
+  }
+
+  /**
+   * @return the first position in sorted with a value >= the given value. Compares like
+   * {@link Range#contains(Comparable)}.
+   */
+  private static int lowerBound(int[] sorted, double value, double[] values) {
+    int low = 0;
+    int high = sorted.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (Double.compare(values[sorted[mid]], value) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return the first position in sorted with a value > the given value
+   */
+  private static int upperBound(int[] sorted, double value, double[] values) {
+    int low = 0;
+    int high = sorted.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (Double.compare(values[sorted[mid]], value) <= 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private static int lowerBound(int[] sorted, float value, float[] values) {
+    int low = 0;
+    int high = sorted.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (Float.compare(values[sorted[mid]], value) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private static int upperBound(int[] sorted, float value, float[] values) {
+    int low = 0;
+    int high = sorted.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (Float.compare(values[sorted[mid]], value) <= 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+}
@@ -58,12 +58,16 @@ import io.github.mzmine.util.scans.SpectraMerging;
 import io.github.mzmine.util.scans.SpectraMerging.IntensityMergingType;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * Groups fragmentation scans with features in range
@@ -81,10 +85,13 @@ public class GroupMS2Task extends AbstractTask {
   private final boolean lockToFeatureMobilityRange;
   private final int minimumSignals;
   private final Double minimumRelativeFeatureHeight;
-  private final int totalRows;
   private final RtLimitsFilter rtFilter;
   private final FragmentScanSelection timsFragmentScanSelection;
-  private int processedRows;
+  // precursor m/z and RT index of the fragmentation events per raw data file
+  private final Map<RawDataFile, PrecursorRtIndex<Scan>> scanIndices = new ConcurrentHashMap<>();
+  private final Map<RawDataFile, PrecursorRtIndex<PasefEvent>> pasefIndices = new ConcurrentHashMap<>();
+  private final AtomicInteger processedFeatures = new AtomicInteger(0);
+  private int totalFeatures;
   private GroupedMs2RefinementTask refineTask;
 
   /**
@@ -124,8 +131,7 @@ public class GroupMS2Task extends AbstractTask {
         getMemoryMapStorage());
 
     this.list = list;
-    processedRows = 0;
-    totalRows = list.getNumberOfRows();
+    totalFeatures = 0;
   }
 
   @Override
@@ -133,7 +139,7 @@ public class GroupMS2Task extends AbstractTask {
     if (refineTask != null) {
       return refineTask.getFinishedPercentage();
     }
-    return totalRows == 0 ? 0.0 : (double) processedRows / (double) totalRows;
+    return totalFeatures == 0 ? 0.0 : (double) processedFeatures.get() / (double) totalFeatures;
   }
 
   @Override
@@ -169,15 +175,40 @@ public class GroupMS2Task extends AbstractTask {
   }
 
   public void processFeatureList(AbstractTask parentTask) {
-    // for all features
+    // group features by raw data file to search each file's index in parallel
+    final Map<RawDataFile, List<ModularFeature>> featuresByFile = new LinkedHashMap<>();
     for (FeatureListRow row : list.getRows()) {
-      if (parentTask.isCanceled()) {
-        return;
+      for (ModularFeature feature : row.getFeatures()) {
+        featuresByFile.computeIfAbsent(feature.getRawDataFile(), raw -> new ArrayList<>())
+            .add(feature);
+      }
+    }
+    totalFeatures = featuresByFile.values().stream().mapToInt(List::size).sum();
+
+    final long start = System.currentTimeMillis();
+    final List<List<ModularFeature>> files = List.copyOf(featuresByFile.values());
+    final List<List<FragmentScanResult>> results = files.parallelStream().map(features -> {
+      final List<FragmentScanResult> fileResults = new ArrayList<>(features.size());
+      for (ModularFeature feature : features) {
+        if (parentTask.isCanceled()) {
+          break;
+        }
+        fileResults.add(findFragmentScans(feature));
+        processedFeatures.incrementAndGet();
       }
+      return fileResults;
+    }).toList();
+    if (parentTask.isCanceled()) {
+      return;
+    }
 
-      processRow(row);
-      processedRows++;
+    // setting values may update rows, so this is done in one thread
+    for (List<FragmentScanResult> fileResults : results) {
+      fileResults.forEach(this::applyFragmentScans);
     }
+    logger.finest(
+        () -> "Grouped MS2 scans of %d features in %d raw data files in %d ms".formatted(
+            totalFeatures, files.size(), System.currentTimeMillis() - start));
 
     // refine MS2 groupings with features that are at least X % of the highest feature that was grouped with each MS2
     if (minimumRelativeFeatureHeight != null) {
@@ -193,33 +224,67 @@ public class GroupMS2Task extends AbstractTask {
    */
   public void processRow(FeatureListRow row) {
     for (ModularFeature feature : row.getFeatures()) {
-      List<Scan> scans;
-      if (MobilityType.TIMS.isTypeOfBackingRawData(feature)) {
-        scans = findFragmentScansForTimsFeature(feature);
-      } else {
-        scans = findFragmentScans(feature);
-      }
+      applyFragmentScans(findFragmentScans(feature));
+    }
+  }
 
-      scans = filterByMinimumSignals(scans);
-      feature.setAllMS2FragmentScans(scans.isEmpty() ? null : scans, true);
-      // get proximity
-      setRtApexProximity(feature, scans);
+  /**
+   * Finds the fragment scans of a feature without changing the feature. Thread safe.
+   *
+   * @return the fragment scans sorted by {@link FragmentScanSorter#DEFAULT_TIC}
+   */
+  @NotNull
+  private FragmentScanResult findFragmentScans(final ModularFeature feature) {
+    final List<Scan> scans;
+    List<MsMsInfo> msMsInfos = null;
+    if (MobilityType.TIMS.isTypeOfBackingRawData(feature)) {
+      msMsInfos = findEligibleMsMsInfos(feature);
+      scans = msMsInfos.isEmpty() ? List.of() : findFragmentScansForTimsFeature(feature, msMsInfos);
+    } else {
+      scans = findFragmentScansForFeature(feature);
     }
+
+    final List<Scan> sorted = new ArrayList<>(filterByMinimumSignals(scans));
+    sorted.sort(FragmentScanSorter.DEFAULT_TIC);
+    return new FragmentScanResult(feature, sorted, msMsInfos);
+  }
+
+  private void applyFragmentScans(final FragmentScanResult result) {
+    final ModularFeature feature = result.feature();
+    if (result.msMsInfos() != null && !result.msMsInfos().isEmpty()) {
+      feature.set(MsMsInfoType.class, result.msMsInfos());
+    }
+    final List<Scan> scans = result.scans();
+    feature.setAllMS2FragmentScans(scans.isEmpty() ? null : scans, false);
+    // get proximity
+    setRtApexProximity(feature, scans);
   }
 
   /**
    * Find all fragment scans for this feature applying RT and mz filters
    *
-   * @return list of fragment scans
+   * @return list of fragment scans in the order of the raw data file
    */
   @NotNull
-  private List<Scan> findFragmentScans(final ModularFeature feature) {
-    final List<Scan> scans;
-    RawDataFile raw = feature.getRawDataFile();
+  private List<Scan> findFragmentScansForFeature(final ModularFeature feature) {
+    final PrecursorRtIndex<Scan> index = scanIndices.computeIfAbsent(feature.getRawDataFile(),
+        this::createScanIndex);
+    return index.query(mzTol.getToleranceRange(feature.getMZ()), rtFilter, feature);
+  }
 
-    scans = raw.stream().filter(scan -> scan.getMSLevel() > 1)
-        .filter(scan -> filterScan(scan, feature)).sorted(FragmentScanSorter.DEFAULT_TIC).toList();
-    return scans;
+  /**
+   * Index of all fragment scans that pass the minimum signals filter and have a precursor m/z
+   */
+  private PrecursorRtIndex<Scan> createScanIndex(final RawDataFile raw) {
+    final List<Scan> scans = raw.stream().filter(scan -> scan.getMSLevel() > 1)
+        .filter(this::filterScan).toList();
+    final double[] mzs = new double[scans.size()];
+    final float[] rts = new float[scans.size()];
+    for (int i = 0; i < scans.size(); i++) {
+      mzs[i] = getPrecursorMz(scans.get(i));
+      rts[i] = scans.get(i).getRetentionTime();
+    }
+    return new PrecursorRtIndex<>(scans, mzs, rts);
   }
 
   /**
@@ -243,12 +308,12 @@ public class GroupMS2Task extends AbstractTask {
   }
 
   /**
-   * Filter scans based on rt and mz
+   * Filter scans independent of the feature
    *
    * @param scan tested scan
-   * @return true if matches all criteria
+   * @return true if the scan has enough signals and a precursor m/z
    */
-  private boolean filterScan(Scan scan, ModularFeature feature) {
+  private boolean filterScan(Scan scan) {
     // minimum signals
     if (minimumSignals > 0) {
       MassList massList = scan.getMassList();
@@ -259,69 +324,92 @@ public class GroupMS2Task extends AbstractTask {
         return false;
       }
     }
-    //
-    final double precursorMZ;
+    return getPrecursorMz(scan) != 0;
+  }
+
+  private static double getPrecursorMz(Scan scan) {
     if (scan.getMsMsInfo() instanceof MSnInfoImpl msn) {
-      precursorMZ = msn.getMS2PrecursorMz();
+      return msn.getMS2PrecursorMz();
     } else if (scan.getMsMsInfo() instanceof DDAMsMsInfo info) {
-      precursorMZ = info.getIsolationMz();
+      return info.getIsolationMz();
     } else {
-      precursorMZ = Objects.requireNonNullElse(scan.getPrecursorMz(), 0d);
+      return Objects.requireNonNullElse(scan.getPrecursorMz(), 0d);
     }
-    return rtFilter.accept(feature, scan.getRetentionTime()) && precursorMZ != 0
-        && mzTol.checkWithinTolerance(feature.getMZ(), precursorMZ);
   }
 
 
   /**
-   * Process tims features. Merge within Frames and optionally merge across frames
+   * PASEF events within the m/z and RT limits of a tims feature and, if the feature has a mobility,
+   * within the mobility range of the event.
    *
    * @param feature feature from TIMS data
-   * @return list of fragmentation scans
+   * @return the eligible events in the order of the frames
    */
   @NotNull
-  private List<Scan> findFragmentScansForTimsFeature(ModularFeature feature) {
+  private List<MsMsInfo> findEligibleMsMsInfos(ModularFeature feature) {
+    final PrecursorRtIndex<PasefEvent> index = pasefIndices.computeIfAbsent(
+        feature.getRawDataFile(), this::createPasefIndex);
+    final List<PasefEvent> events = index.query(mzTol.getToleranceRange(feature.getMZ()),
+        rtFilter, feature);
 
-    double fmz = feature.getMZ();
-    Float mobility = feature.getMobility();
-
-    final List<? extends Scan> scans = feature.getRawDataFile().getScanNumbers(2).stream()
-        .filter(scan -> rtFilter.accept(feature, scan.getRetentionTime()))
-        .collect(Collectors.toList());
-
-    if (scans.isEmpty() || !(scans.get(0) instanceof Frame)) {
-      return List.of();
+    final Float mobility = feature.getMobility();
+    final List<MsMsInfo> eligibleMsMsInfos = new ArrayList<>();
+    for (PasefEvent event : events) {
+      final Frame frame = event.frame();
+      final PasefMsMsInfo imsMsMsInfo = event.info();
+      // if we have a mobility (=processed by IMS workflow), we can check for the correct range during assignment.
+      if (mobility != null) {
+        // todo: maybe revisit this for a more sophisticated range check
+        int mobilityScannumberOffset = frame.getMobilityScan(0).getMobilityScanNumber();
+        float mobility1 = (float) frame.getMobilityForMobilityScanNumber(
+            imsMsMsInfo.getSpectrumNumberRange().lowerEndpoint() - mobilityScannumberOffset);
+        float mobility2 = (float) frame.getMobilityForMobilityScanNumber(
+            imsMsMsInfo.getSpectrumNumberRange().upperEndpoint() - mobilityScannumberOffset);
+        if (Range.singleton(mobility1).span(Range.singleton(mobility2)).contains(mobility)) {
+          eligibleMsMsInfos.add(imsMsMsInfo);
+        }
+      } else {
+        // if we don't have a mobility, we can simply add the msms info.
+        eligibleMsMsInfos.add(imsMsMsInfo);
+      }
     }
+    return eligibleMsMsInfos;
+  }
 
-    final List<Frame> frames = (List<Frame>) scans;
-    final List<MsMsInfo> eligibleMsMsInfos = new ArrayList<>();
-    for (Frame frame : frames) {
-      frame.getImsMsMsInfos().forEach(imsMsMsInfo -> {
-        if (mzTol.checkWithinTolerance(fmz, imsMsMsInfo.getIsolationMz())) {
-          // if we have a mobility (=processed by IMS workflow), we can check for the correct range during assignment.
-          if (mobility != null) {
-            // todo: maybe revisit this for a more sophisticated range check
-            int mobilityScannumberOffset = frame.getMobilityScan(0).getMobilityScanNumber();
-            float mobility1 = (float) frame.getMobilityForMobilityScanNumber(
-                imsMsMsInfo.getSpectrumNumberRange().lowerEndpoint() - mobilityScannumberOffset);
-            float mobility2 = (float) frame.getMobilityForMobilityScanNumber(
-                imsMsMsInfo.getSpectrumNumberRange().upperEndpoint() - mobilityScannumberOffset);
-            if (Range.singleton(mobility1).span(Range.singleton(mobility2)).contains(mobility)) {
-              eligibleMsMsInfos.add(imsMsMsInfo);
-            }
-          } else {
-            // if we don't have a mobility, we can simply add the msms info.
-            eligibleMsMsInfos.add(imsMsMsInfo);
-          }
+  /**
+   * Index of all PASEF events of the MS2 frames of a file
+   */
+  private PrecursorRtIndex<PasefEvent> createPasefIndex(final RawDataFile raw) {
+    final List<Scan> scans = raw.getScanNumbers(2);
+    final List<PasefEvent> events = new ArrayList<>();
+    if (!scans.isEmpty() && scans.get(0) instanceof Frame) {
+      for (Scan scan : scans) {
+        final Frame frame = (Frame) scan;
+        for (PasefMsMsInfo info : frame.getImsMsMsInfos()) {
+          events.add(new PasefEvent(frame, info));
         }
-      });
+      }
     }
 
-    if (eligibleMsMsInfos.isEmpty()) {
-      return List.of();
+    final double[] mzs = new double[events.size()];
+    final float[] rts = new float[events.size()];
+    for (int i = 0; i < events.size(); i++) {
+      mzs[i] = events.get(i).info().getIsolationMz();
+      rts[i] = events.get(i).frame().getRetentionTime();
     }
-    feature.set(MsMsInfoType.class, eligibleMsMsInfos);
+    return new PrecursorRtIndex<>(events, mzs, rts);
+  }
 
+  /**
+   * Process tims features. Merge within Frames and optionally merge across frames
+   *
+   * @param feature           feature from TIMS data
+   * @param eligibleMsMsInfos the PASEF events of this feature
+   * @return list of fragmentation scans
+   */
+  @NotNull
+  private List<Scan> findFragmentScansForTimsFeature(ModularFeature feature,
+      List<MsMsInfo> eligibleMsMsInfos) {
     List<Scan> msmsSpectra = new ArrayList<>();
     for (MsMsInfo info : eligibleMsMsInfos) {
       Range<Float> mobilityLimits = lockToFeatureMobilityRange && feature.getMobilityRange() != null
@@ -360,4 +448,20 @@ public class GroupMS2Task extends AbstractTask {
     return scans.stream()
         .filter(scan -> scan.getMassList().getNumberOfDataPoints() >= minimumSignals).toList();
   }
+
+  /**
+   * @param frame the MS2 frame
+   * @param info  one PASEF event of this frame
+   */
+  private record PasefEvent(@NotNull Frame frame, @NotNull PasefMsMsInfo info) {
+
+  }
+
+  /**
+   * @param msMsInfos the eligible PASEF events of tims features, null otherwise
+   */
+  private record FragmentScanResult(@NotNull ModularFeature feature, @NotNull List<Scan> scans,
+                                    @Nullable List<MsMsInfo> msMsInfos) {
+
+  }
 }
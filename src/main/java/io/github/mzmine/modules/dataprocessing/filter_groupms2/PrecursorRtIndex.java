@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.dataprocessing.filter_groupms2;
+
+import com.google.common.collect.Range;
+import io.github.mzmine.datamodel.features.ModularFeature;
+import io.github.mzmine.parameters.parametertypes.combowithinput.RtLimitsFilter;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import java.util.ArrayList;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Precursor m/z and retention time index of the fragmentation events of one raw data file. The
+ * events are sorted by precursor m/z once, so a feature only tests the retention times of events
+ * within its m/z window instead of all events of the file. Queries return the events in their
+ * original order and may be run concurrently.
+ *
+ * @param <T> the fragmentation event, e.g., a scan
+ */
+class PrecursorRtIndex<T> {
+
+  private final List<T> items;
+  // sorted by precursor m/z, ties in original order
+  private final double[] mzs;
+  private final float[] rts;
+  private final int[] itemIndices;
+
+  /**
+   * @param items events in their original order
+   * @param mzs   precursor m/z of each item
+   * @param rts   retention time of each item
+   */
+  PrecursorRtIndex(@NotNull List<T> items, double[] mzs, float[] rts) {
+    this.items = items;
+    final int size = items.size();
+    itemIndices = new int[size];
+    for (int i = 0; i < size; i++) {
+      itemIndices[i] = i;
+    }
+    IntArrays.quickSort(itemIndices, (a, b) -> {
+      final int compare = Double.compare(mzs[a], mzs[b]);
+      return compare != 0 ? compare : Integer.compare(a, b);
+    });
+
+    this.mzs = new double[size];
+    this.rts = new float[size];
+    for (int i = 0; i < size; i++) {
+      this.mzs[i] = mzs[itemIndices[i]];
+      this.rts[i] = rts[itemIndices[i]];
+    }
+  }
+
+  /**
+   * @param mzRange  the precursor m/z range, e.g., the tolerance range around the feature m/z
+   * @param rtFilter retention time limits of the feature
+   * @param feature  the feature
+   * @return all events within the m/z range and RT limits in their original order
+   */
+  @NotNull
+  List<T> query(@NotNull Range<Double> mzRange, @NotNull RtLimitsFilter rtFilter,
+      @NotNull ModularFeature feature) {
+    final double lower = mzRange.lowerEndpoint();
+    final double upper = mzRange.upperEndpoint();
+    // first index with mz >= lower
+    int low = 0;
+    int high = mzs.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (Double.compare(mzs[mid], lower) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+
+    final IntArrayList matches = new IntArrayList();
+    for (int i = low; i < mzs.length && Double.compare(mzs[i], upper) <= 0; i++) {
+      if (rtFilter.accept(feature, rts[i])) {
+        matches.add(itemIndices[i]);
+      }
+    }
+    if (matches.isEmpty()) {
+      return List.of();
+    }
+
+    matches.sort(null);
+    final List<T> result = new ArrayList<>(matches.size());
+    for (int i = 0; i < matches.size(); i++) {
+      result.add(items.get(matches.getInt(i)));
+    }
+    return result;
+  }
+
+  int size() {
+    return mzs.length;
+  }
+}
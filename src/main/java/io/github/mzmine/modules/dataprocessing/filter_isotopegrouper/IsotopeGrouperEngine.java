@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.dataprocessing.filter_isotopegrouper;
+
+import com.google.common.collect.Range;
+import io.github.mzmine.datamodel.features.FeatureListRow;
+import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import io.github.mzmine.parameters.parametertypes.tolerances.RTTolerance;
+import io.github.mzmine.parameters.parametertypes.tolerances.mobilitytolerance.MobilityTolerance;
+import io.github.mzmine.util.FeatureListRowSorter;
+import io.github.mzmine.util.SortingDirection;
+import io.github.mzmine.util.SortingProperty;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Groups isotope signals on primitive columns of m/z, RT and mobility. Rows are processed from
+ * the highest to the lowest row, each row takes all remaining rows that fit its isotope pattern.
+ * <p>
+ * The rows are split into RT blocks that cannot interact, because no row of one block is within
+ * the RT tolerance of a row in another block. The blocks are processed in parallel, each in the
+ * same order as the sequential grouping. For every row, the neighbouring rows in m/z order that
+ * match RT and mobility are collected once and reused by all charge states.
+ */
+class IsotopeGrouperEngine {
+
+  /**
+   * The isotopeDistance constant defines expected distance between isotopes. Actual weight of 1
+   * neutron is 1.008665 Da, but part of this mass is consumed as binding energy to other
+   * protons/neutrons. Actual mass increase of isotopes depends on chemical formula of the molecule.
+   * Since we don't know the formula, we can assume the distance to be ~1.0033 Da, with user-defined
+   * tolerance.
+   */
+  private static final double isotopeDistance = 1.0033;
+
+  private final MZTolerance mzTolerance;
+  private final RTTolerance rtTolerance;
+  @Nullable
+  private final MobilityTolerance mobilityTolerance;
+  private final boolean monotonicShape;
+  private final int maximumCharge;
+  private final AtomicInteger processedRows = new AtomicInteger(0);
+
+  /**
+   * @param mobilityTolerance null to deactivate the mobility check
+   */
+  IsotopeGrouperEngine(@NotNull MZTolerance mzTolerance, @NotNull RTTolerance rtTolerance,
+      @Nullable MobilityTolerance mobilityTolerance, boolean monotonicShape, int maximumCharge) {
+    this.mzTolerance = mzTolerance;
+    this.rtTolerance = rtTolerance;
+    this.mobilityTolerance = mobilityTolerance;
+    this.monotonicShape = monotonicShape;
+    this.maximumCharge = maximumCharge;
+  }
+
+  /**
+   * Sorts the rows by descending height and groups their isotope signals.
+   *
+   * @param rows     all rows, sorted in place by descending height
+   * @param canceled checked for every row
+   * @return the isotope groups in processing order, which covers every row exactly once. Rows
+   * without isotopes form a group of size one.
+   */
+  @NotNull
+  List<IsotopeGroup> group(@NotNull FeatureListRow[] rows, @NotNull BooleanSupplier canceled) {
+    processedRows.set(0);
+    Arrays.sort(rows, new FeatureListRowSorter(SortingProperty.Height, SortingDirection.Descending));
+
+    final int numRows = rows.length;
+    final double[] mzs = new double[numRows];
+    final float[] rts = new float[numRows];
+    final float[] lowerRts = new float[numRows];
+    final float[] upperRts = new float[numRows];
+    final float[] mobilities = new float[numRows];
+    final int[] rtOrder = new int[numRows];
+    for (int i = 0; i < numRows; i++) {
+      mzs[i] = rows[i].getAverageMZ();
+      rts[i] = rows[i].getAverageRT();
+      final Range<Float> rtRange = rtTolerance.getToleranceRange(rts[i]);
+      lowerRts[i] = rtRange.lowerEndpoint();
+      upperRts[i] = rtRange.upperEndpoint();
+      final Float mobility = rows[i].getAverageMobility();
+      mobilities[i] = mobility == null ? Float.NaN : mobility;
+      rtOrder[i] = i;
+    }
+    IntArrays.quickSort(rtOrder, (a, b) -> Float.compare(rts[a], rts[b]));
+
+    // blocks are independent if no row is within the RT tolerance of the next block and vice versa
+    final IntList blockStarts = new IntArrayList();
+    for (int p = 0; p < numRows; p++) {
+      if (p == 0 || (upperRts[rtOrder[p - 1]] < rts[rtOrder[p]]
+          && rts[rtOrder[p - 1]] < lowerRts[rtOrder[p]])) {
+        blockStarts.add(p);
+      }
+    }
+    blockStarts.add(numRows);
+
+    final List<IsotopeGroup> groups = IntStream.range(0, blockStarts.size() - 1).parallel()
+        .mapToObj(b -> groupBlock(
+            Arrays.copyOfRange(rtOrder, blockStarts.getInt(b), blockStarts.getInt(b + 1)), mzs,
+            lowerRts, upperRts, rts, mobilities, canceled)).flatMap(List::stream)
+        .sorted(Comparator.comparingInt(IsotopeGroup::mostIntenseRow)).toList();
+    return canceled.getAsBoolean() ? List.of() : groups;
+  }
+
+  int getProcessedRows() {
+    return processedRows.get();
+  }
+
+  /**
+   * Copies the columns of the block in m/z order, so the neighbourhood of a row is a sequential
+   * scan.
+   *
+   * @param block indices of the rows in this block
+   * @return the groups of this block in processing order
+   */
+  private List<IsotopeGroup> groupBlock(int[] block, double[] mzs, float[] lowerRts,
+      float[] upperRts, float[] rts, float[] mobilities, BooleanSupplier canceled) {
+    final int[] byMz = block.clone();
+    IntArrays.quickSort(byMz, (a, b) -> {
+      final int compare = Double.compare(mzs[a], mzs[b]);
+      return compare != 0 ? compare : Integer.compare(a, b);
+    });
+
+    final int size = byMz.length;
+    final Neighbours neighbours = new Neighbours(size);
+    final int[] byHeight = new int[size];
+    for (int p = 0; p < size; p++) {
+      final int row = byMz[p];
+      neighbours.mzs[p] = mzs[row];
+      neighbours.lowerRts[p] = lowerRts[row];
+      neighbours.upperRts[p] = upperRts[row];
+      neighbours.mobilities[p] = mobilities[row];
+      byHeight[p] = p;
+    }
+    // process the block from the highest to the lowest row
+    IntArrays.quickSort(byHeight, (a, b) -> Integer.compare(byMz[a], byMz[b]));
+
+    final IntArrayList fitted = new IntArrayList();
+    final List<IsotopeGroup> groups = new ArrayList<>();
+    for (final int position : byHeight) {
+      if (canceled.getAsBoolean()) {
+        return List.of();
+      }
+      if (neighbours.consumed[position]) {
+        continue;
+      }
+      neighbours.consumed[position] = true;
+
+      final int row = byMz[position];
+      final double mainMz = mzs[row];
+      final Range<Float> mobilityRange =
+          mobilityTolerance == null || Float.isNaN(mobilities[row]) ? null
+              : mobilityTolerance.getToleranceRange(mobilities[row]);
+      neighbours.reset(position, rts[row], mobilityRange);
+      final double absoluteMzTolerance = mzTolerance.getMzToleranceForMass(mainMz);
+
+      // Check which charge state fits best around this peak
+      int bestFitCharge = 0;
+      int[] bestFitPositions = null;
+      for (int charge = 1; charge <= maximumCharge; charge++) {
+        fitted.clear();
+        fitted.add(position);
+        // Search for peaks before the start peak
+        if (!monotonicShape) {
+          fitHalfPattern(neighbours, mainMz, absoluteMzTolerance, charge, -1, fitted);
+        }
+        // Search for peaks after the start peak
+        fitHalfPattern(neighbours, mainMz, absoluteMzTolerance, charge, 1, fitted);
+
+        if (bestFitPositions == null || fitted.size() > bestFitPositions.length) {
+          bestFitCharge = charge;
+          bestFitPositions = fitted.toIntArray();
+        }
+      }
+
+      assert bestFitPositions != null;
+      // with wide tolerances, a row may fit two isotopes of the same pattern
+      final int[] groupRows = IntStream.of(bestFitPositions).distinct().map(p -> {
+        neighbours.consumed[p] = true;
+        return byMz[p];
+      }).toArray();
+      groups.add(new IsotopeGroup(groupRows, bestFitCharge));
+      processedRows.addAndGet(groupRows.length);
+    }
+    return groups;
+  }
+
+  /**
+   * Fits one half of the pattern. Adds all rows at the distance of the n:th isotope and continues
+   * with n+1 as long as rows are found.
+   *
+   * @param direction -1 fits rows before the main m/z, +1 rows after the main m/z
+   */
+  private void fitHalfPattern(Neighbours neighbours, double mainMz, double absoluteMzTolerance,
+      int charge, int direction, IntArrayList fitted) {
+    for (int n = 1; ; n++) {
+      final double shift = isotopeDistance * direction * n / charge;
+      final IntArrayList candidates = neighbours.extend(direction, shift, mainMz,
+          absoluteMzTolerance);
+      // candidates are ordered away from the main m/z, so the deviation grows in direction
+      int low = 0;
+      int high = candidates.size();
+      while (low < high) {
+        final int mid = (low + high) >>> 1;
+        final double deltaMz = neighbours.mzs[candidates.getInt(mid)] - shift - mainMz;
+        if (deltaMz * direction < -absoluteMzTolerance) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+
+      boolean found = false;
+      for (int i = low; i < candidates.size(); i++) {
+        final int candidate = candidates.getInt(i);
+        final double deltaMz = neighbours.mzs[candidate] - shift - mainMz;
+        if (deltaMz * direction > absoluteMzTolerance) {
+          break;
+        }
+        fitted.add(candidate);
+        found = true;
+      }
+      if (!found) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Columns of one block in m/z order and the lazily collected positions around the main row that
+   * are not consumed and match the RT and mobility of the main row. The positions are shared by
+   * all charge states of the main row.
+   */
+  private static class Neighbours {
+
+    private final double[] mzs;
+    private final float[] lowerRts;
+    private final float[] upperRts;
+    private final float[] mobilities;
+    private final boolean[] consumed;
+
+    // positions after the main row by ascending m/z and before the main row by descending m/z
+    private final IntArrayList after = new IntArrayList();
+    private final IntArrayList before = new IntArrayList();
+    private int nextAfter;
+    private int nextBefore;
+    private float mainRt;
+    private Range<Float> mobilityRange;
+
+    private Neighbours(int size) {
+      mzs = new double[size];
+      lowerRts = new float[size];
+      upperRts = new float[size];
+      mobilities = new float[size];
+      consumed = new boolean[size];
+    }
+
+    /**
+     * @param position      position of the main row
+     * @param mobilityRange range around the main mobility or null to skip the mobility check
+     */
+    private void reset(int position, float mainRt, @Nullable Range<Float> mobilityRange) {
+      after.clear();
+      before.clear();
+      nextAfter = position + 1;
+      nextBefore = position - 1;
+      this.mainRt = mainRt;
+      this.mobilityRange = mobilityRange;
+    }
+
+    /**
+     * Collects all positions until the first row that is out of the m/z tolerance in direction.
+     *
+     * @return the positions in direction, ordered away from the main row
+     */
+    private IntArrayList extend(int direction, double shift, double mainMz,
+        double absoluteMzTolerance) {
+      if (direction > 0) {
+        for (; nextAfter < mzs.length; nextAfter++) {
+          if (mzs[nextAfter] - shift - mainMz > absoluteMzTolerance) {
+            break;
+          }
+          if (matches(nextAfter)) {
+            after.add(nextAfter);
+          }
+        }
+        return after;
+      } else {
+        for (; nextBefore >= 0; nextBefore--) {
+          if (-(mzs[nextBefore] - shift - mainMz) > absoluteMzTolerance) {
+            break;
+          }
+          if (matches(nextBefore)) {
+            before.add(nextBefore);
+          }
+        }
+        return before;
+      }
+    }
+
+    private boolean matches(int position) {
+      if (consumed[position] || lowerRts[position] > mainRt || mainRt > upperRts[position]) {
+        return false;
+      }
+      return mobilityRange == null || Float.isNaN(mobilities[position]) || mobilityRange.contains(
+          mobilities[position]);
+    }
+  }
+
+  /**
+   * @param rows   indices of the rows, the first is the most intense row that started the group
+   * @param charge the charge of the best fitting pattern
+   */
+  record IsotopeGroup(int[] rows, int charge) {
+
+    int mostIntenseRow() {
+      return rows[0];
+    }
+  }
+}
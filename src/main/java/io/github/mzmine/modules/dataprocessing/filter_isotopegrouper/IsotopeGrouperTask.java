@@ -31,10 +31,10 @@ import io.github.mzmine.datamodel.MZmineProject;
 import io.github.mzmine.datamodel.features.Feature;
 import io.github.mzmine.datamodel.features.FeatureListRow;
 import io.github.mzmine.datamodel.features.ModularFeatureList;
-import io.github.mzmine.datamodel.features.ModularFeatureListRow;
 import io.github.mzmine.datamodel.features.SimpleFeatureListAppliedMethod;
 import io.github.mzmine.datamodel.impl.SimpleDataPoint;
 import io.github.mzmine.datamodel.impl.SimpleIsotopePattern;
+import io.github.mzmine.modules.dataprocessing.filter_isotopegrouper.IsotopeGrouperEngine.IsotopeGroup;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.parameters.parametertypes.OriginalFeatureListHandlingParameter.OriginalFeatureListOption;
 import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
@@ -49,7 +49,6 @@ import io.github.mzmine.util.SortingDirection;
 import io.github.mzmine.util.SortingProperty;
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.logging.Logger;
@@ -61,15 +60,7 @@ import org.jetbrains.annotations.Nullable;
  */
 class IsotopeGrouperTask extends AbstractTask {
 
-  /**
-   * The isotopeDistance constant defines expected distance between isotopes. Actual weight of 1
-   * neutron is 1.008665 Da, but part of this mass is consumed as binding energy to other
-   * protons/neutrons. Actual mass increase of isotopes depends on chemical formula of the molecule.
-   * Since we don't know the formula, we can assume the distance to be ~1.0033 Da, with user-defined
-   * tolerance.
-   */
   private static final Logger logger = Logger.getLogger(IsotopeGrouperTask.class.getName());
-  private static final double isotopeDistance = 1.0033;
   private final MZmineProject project;
   private final ModularFeatureList featureList;
   // parameter values
@@ -85,7 +76,8 @@ class IsotopeGrouperTask extends AbstractTask {
   private final ParameterSet parameters;
   private final OriginalFeatureListOption handleOriginal;
   // peaks counter
-  private int processedRows, totalRows;
+  private volatile IsotopeGrouperEngine engine;
+  private int totalRows;
 
   /**
    *
@@ -122,10 +114,11 @@ class IsotopeGrouperTask extends AbstractTask {
 
   @Override
   public double getFinishedPercentage() {
-    if (totalRows == 0) {
+    final IsotopeGrouperEngine current = engine;
+    if (totalRows == 0 || current == null) {
       return 0.0f;
     }
-    return (double) processedRows / (double) totalRows;
+    return (double) current.getProcessedRows() / (double) totalRows;
   }
 
   @Override
@@ -149,78 +142,40 @@ class IsotopeGrouperTask extends AbstractTask {
     };
     //    DataTypeUtils.copyTypes(featureList, deisotopedFeatureList, true, true);
 
-    // Collect all selected charge states
-    int[] charges = new int[maximumCharge];
-    for (int i = 0; i < maximumCharge; i++) {
-      charges[i] = i + 1;
-    }
-
     final FeatureListRowSorter rowsHeightSorter = new FeatureListRowSorter(SortingProperty.Height,
         SortingDirection.Descending);
     final FeatureListRowSorter rowsMzSorter = new FeatureListRowSorter(SortingProperty.MZ,
         SortingDirection.Ascending);
 
-    // Sort peaks by descending height
-    List<FeatureListRow> rowsSortedByHeight = new ArrayList<>(deisotopedFeatureList.getRows());
-    rowsSortedByHeight.sort(rowsHeightSorter);
-
-    // use a second sorted list to limit the number of comparisons
-    List<FeatureListRow> rowsSortedByMz = new ArrayList<>(deisotopedFeatureList.getRows());
-    rowsSortedByMz.sort(rowsMzSorter);
-
-    // Loop through all peaks
-    totalRows = rowsSortedByHeight.size();
+    // group isotopes, rows are sorted by descending height
+    final FeatureListRow[] rows = deisotopedFeatureList.getRows().toArray(FeatureListRow[]::new);
+    totalRows = rows.length;
+    engine = new IsotopeGrouperEngine(mzTolerance, rtTolerance,
+        useMobilityTolerance ? mobilityTolerance : null, monotonicShape, maximumCharge);
+    final List<IsotopeGroup> groups = engine.group(rows, this::isCanceled);
+    if (isCanceled()) {
+      return;
+    }
 
     // list of final rows (size is usually similar)
     List<FeatureListRow> finalRows = new ArrayList<>((int) (totalRows * 0.9));
 
-    while (!rowsSortedByHeight.isEmpty()) {
-
-      if (isCanceled()) {
-        return;
-      }
-
-      ModularFeatureListRow mostIntenseRow = (ModularFeatureListRow) rowsSortedByHeight.remove(0);
-
-      // Check if peak was already deleted
-      if (mostIntenseRow == null) {
-        processedRows++;
-        continue;
-      }
-      // find index in mz sorted list
-      int indexMzSorted = Collections.binarySearch(rowsSortedByMz, mostIntenseRow, rowsMzSorter);
-      rowsSortedByMz.remove(indexMzSorted);
-
-      // Check which charge state fits best around this peak
-      int bestFitCharge = 0;
-      int bestFitScore = -1;
-      List<FeatureListRow> bestFitRows = null;
-      for (int charge : charges) {
-
-        List<FeatureListRow> fittedRows = new ArrayList<>();
-        fittedRows.add(mostIntenseRow);
-        // use rows sorted by mz
-        fitPattern(fittedRows, mostIntenseRow, charge, rowsSortedByMz, indexMzSorted);
-
-        int score = fittedRows.size();
-        if ((score > bestFitScore) || ((score == bestFitScore) && (bestFitCharge > charge))) {
-          bestFitScore = score;
-          bestFitCharge = charge;
-          bestFitRows = fittedRows;
-        }
-
-      }
-
-      assert bestFitRows != null;
+    for (final IsotopeGroup group : groups) {
+      final FeatureListRow mostIntenseRow = rows[group.mostIntenseRow()];
 
       // Verify the number of detected isotopes. If there is only one
       // isotope, we skip this left the original peak in the feature list.
-      if (bestFitRows.size() == 1) {
+      if (group.rows().length == 1) {
         finalRows.add(mostIntenseRow);
-        processedRows++;
         continue;
       }
 
+      final List<FeatureListRow> bestFitRows = new ArrayList<>(group.rows().length);
+      for (final int isotope : group.rows()) {
+        bestFitRows.add(rows[isotope]);
+      }
+      final int bestFitCharge = group.charge();
+
       // Convert the peak pattern to array
       final DataPoint[] isotopes = bestFitRows.stream()
           .map(r -> new SimpleDataPoint(r.getAverageMZ(), r.getAverageHeight()))
@@ -251,25 +206,16 @@ class IsotopeGrouperTask extends AbstractTask {
         feature.setCharge(bestFitCharge);
       }
 
-      // Remove all peaks already assigned to isotope pattern
-      // first is already removed
-      bestFitRows.remove(0);
-      rowsSortedByHeight.removeAll(bestFitRows);
-      rowsSortedByMz.removeAll(bestFitRows);
-
       // in case user wants to keep all features with MS2 - eventhough they were flagged as isotopes
       // this can be useful for complex datasets
       // in general, when an MS2 is triggered we might want to retain this feauture in any case
       if (keepAllMS2) {
-        for (var isotopeWithMS2 : bestFitRows) {
+        for (var isotopeWithMS2 : bestFitRows.subList(1, bestFitRows.size())) {
           if (isotopeWithMS2.hasMs2Fragmentation()) {
             finalRows.add(isotopeWithMS2);
           }
         }
       }
-
-      // Update completion rate
-      processedRows += bestFitRows.size();
     }
 
     // Add task description to peakList
@@ -291,119 +237,4 @@ class IsotopeGrouperTask extends AbstractTask {
     setStatus(TaskStatus.FINISHED);
   }
 
-  /**
-   * Fits isotope pattern around one peak.
-   *
-   * @param row            Pattern is fitted around this peak
-   * @param charge         Charge state of the fitted pattern
-   * @param rowsSortedByMz rows sorted by mz
-   * @param startRowIndex  index to start with in mz sorted list
-   */
-  private void fitPattern(List<FeatureListRow> fittedRows, ModularFeatureListRow row, int charge,
-      List<FeatureListRow> rowsSortedByMz, int startRowIndex) {
-
-    if (charge == 0) {
-      return;
-    }
-
-    // Search for peaks before the start peak
-    if (!monotonicShape) {
-      fitHalfPattern(row, charge, -1, fittedRows, rowsSortedByMz, startRowIndex);
-    }
-
-    // Search for peaks after the start peak
-    fitHalfPattern(row, charge, 1, fittedRows, rowsSortedByMz, startRowIndex);
-  }
-
-  /**
-   * Helper method for fitPattern. Fits only one half of the pattern.
-   *
-   * @param row            Pattern is fitted around this peak
-   * @param charge         Charge state of the fitted pattern
-   * @param direction      Defines which half to fit: -1=fit to peaks before start M/Z, +1=fit to
-   *                       peaks after start M/Z
-   * @param fittedRows     All matching peaks will be added to this set
-   * @param rowsSortedByMz rows sorted by mz
-   * @param startRowIndex  index to start with in mz sorted list
-   */
-  private void fitHalfPattern(ModularFeatureListRow row, int charge, int direction,
-      List<FeatureListRow> fittedRows, List<FeatureListRow> rowsSortedByMz, int startRowIndex) {
-
-    // Use M/Z and RT of the strongest peak of the pattern (row)
-    double mainMZ = row.getAverageMZ();
-    float mainRT = row.getAverageRT();
-    Float mainMobility = row.getAverageMobility();
-
-    final double absoluteMzTolerance = mzTolerance.getMzToleranceForMass(mainMZ);
-
-    // Variable n is the number of peak we are currently searching. 1=first
-    // peak before/after start peak, 2=peak before/after previous, 3=...
-    boolean followingPeakFound;
-    int n = 1;
-    do {
-      // start at start row index in mz sorted list
-      int ind = startRowIndex;
-
-      // Assume we don't find match for n:th peak in the pattern (which
-      // will end the loop)
-      followingPeakFound = false;
-
-      // Loop through all peaks, and collect candidates for the n:th peak
-      // in the pattern
-      List<FeatureListRow> goodCandidates = new ArrayList<>();
-      for (; ind < rowsSortedByMz.size() && ind >= 0; ind += direction) {
-
-        ModularFeatureListRow candidatePeak = (ModularFeatureListRow) rowsSortedByMz.get(ind);
-
-        if (candidatePeak == null) {
-          continue;
-        }
-
-        // Get properties of the candidate peak
-        double candidatePeakMZ = candidatePeak.getAverageMZ();
-
-        // Does this peak fill all requirements of a candidate?
-        // - within tolerances from the expected location (M/Z and RT)
-        // - not already a fitted peak (only necessary to avoid
-        // conflicts when parameters are set too wide)
-        double isotopeMZ = candidatePeakMZ - isotopeDistance * direction * n / charge;
-        double deltaMZ = isotopeMZ - mainMZ;
-
-        // break the loop if deltaMZ reaches out of the maximum allowed mz tolerance (one sided check)
-        if (deltaMZ * direction > absoluteMzTolerance) {
-          break;
-        }
-
-        // check if in range
-        if (Math.abs(deltaMZ) <= absoluteMzTolerance && rtTolerance.checkWithinTolerance(
-            candidatePeak.getAverageRT(), mainRT)) {
-          if (!useMobilityTolerance || mainMobility == null || checkCandidateMobility(mainMobility,
-              candidatePeak)) {
-            goodCandidates.add(candidatePeak);
-          }
-
-        }
-
-      }
-
-      // Add all good candidates to the isotope pattern (note: in MZmine
-      // 2.3 and older, only the highest candidate was added)
-      if (!goodCandidates.isEmpty()) {
-
-        fittedRows.addAll(goodCandidates);
-
-        // n:th peak was found, so let's move on to n+1
-        n++;
-        followingPeakFound = true;
-      }
-
-    } while (followingPeakFound);
-  }
-
-  private boolean checkCandidateMobility(Float mainMobility, FeatureListRow row) {
-    Float candidateMobility = row.getAverageMobility();
-    return candidateMobility == null || mobilityTolerance.checkWithinTolerance(mainMobility,
-        candidateMobility);
-  }
-
 }
@@ -28,7 +28,6 @@ package io.github.mzmine.modules.dataprocessing.id_ccscalc;
 import com.google.common.collect.RangeMap;
 import io.github.mzmine.datamodel.IMSRawDataFile;
 import io.github.mzmine.datamodel.MZmineProject;
-import io.github.mzmine.datamodel.MobilityType;
 import io.github.mzmine.datamodel.RawDataFile;
 import io.github.mzmine.datamodel.features.FeatureListRow;
 import io.github.mzmine.datamodel.features.ModularFeature;
@@ -39,6 +38,7 @@ import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.MemoryMapStorage;
 import java.time.Instant;
+import java.util.List;
 import java.util.logging.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -95,55 +95,37 @@ public class CCSCalcTask extends AbstractTask {
     setStatus(TaskStatus.PROCESSING);
 
     for (ModularFeatureList featureList : featureLists) {
+      final List<FeatureListRow> rows = featureList.getRows();
       for (RawDataFile file : featureList.getRawDataFiles()) {
         if (!(file instanceof IMSRawDataFile imsFile)) {
           continue;
         }
-        if (!(imsFile.getCCSCalibration() != null
-            || imsFile.getMobilityType() == MobilityType.TIMS)) {
+        // coefficients are prepared once per file and applied to all rows in one parallel pass
+        final CompiledCCSCalibration calibration = CompiledCCSCalibration.compile(imsFile);
+        if (calibration == null) {
           logger.info(() -> "Raw data file " + imsFile.getName()
               + " does not have a CCS calibration and is not a TIMS file. CCS values cannot be determined.");
           continue;
         }
 
-        for (FeatureListRow row : featureList.getRows()) {
-          ModularFeature feature = (ModularFeature) row.getFeature(imsFile);
-          if (feature == null) {
-            continue;
-          }
-
-          Float mobility = feature.getMobility();
-          MobilityType mobilityType = feature.getMobilityUnit();
-          if (mobility == null || mobilityType == null) {
-            continue;
-          }
-
-          double mz = feature.getMZ();
+        final float[] ccsValues = CCSUtils.calcCCSColumn(rows, calibration,
+            assumeChargeState ? rangeChargeMap : null);
 
-          int charge = feature.getCharge();
-          if (charge == 0 && !assumeChargeState) {
+        for (int i = 0; i < ccsValues.length; i++) {
+          if (Float.isNaN(ccsValues[i])) {
             continue;
-          } else if (charge == 0 && assumeChargeState) {
-            Integer fallbackCharge = rangeChargeMap.get(mz);
-            if (fallbackCharge == null) {
-              continue;
-            }
-            charge = fallbackCharge;
-          }
-
-          Float ccs = CCSUtils.calcCCS(mz, mobility, mobilityType, charge, imsFile);
-          if (ccs != null) {
-            feature.setCCS(ccs);
-            annotatedFeatures++;
           }
+          ModularFeature feature = (ModularFeature) rows.get(i).getFeature(imsFile);
+          feature.setCCS(ccsValues[i]);
+          annotatedFeatures++;
         }
 
         if (isCanceled()) {
           return;
         }
-        processedRows++;
-        percentage = totalRows / (double) processedRows;
       }
+      processedRows += featureList.getNumberOfRows();
+      percentage = processedRows / (double) totalRows;
 
       featureList.getAppliedMethods().add(
           new SimpleFeatureListAppliedMethod(CCSCalcModule.class, parameters, getModuleCallDate()));
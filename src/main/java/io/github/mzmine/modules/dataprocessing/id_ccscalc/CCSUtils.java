@@ -27,11 +27,13 @@ package io.github.mzmine.modules.dataprocessing.id_ccscalc;
 
 import com.Ostermiller.util.CSVParser;
 import com.google.common.collect.Range;
+import com.google.common.collect.RangeMap;
 import io.github.mzmine.datamodel.IMSRawDataFile;
 import io.github.mzmine.datamodel.MobilityType;
 import io.github.mzmine.datamodel.PolarityType;
 import io.github.mzmine.datamodel.features.FeatureList;
 import io.github.mzmine.datamodel.features.FeatureListRow;
+import io.github.mzmine.datamodel.features.ModularFeature;
 import io.github.mzmine.datamodel.features.types.DataTypes;
 import io.github.mzmine.datamodel.features.types.numbers.CCSType;
 import io.github.mzmine.datamodel.features.types.numbers.ChargeType;
@@ -51,9 +53,11 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.Objects;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 import javafx.beans.property.SimpleStringProperty;
 import org.apache.commons.math3.stat.regression.SimpleRegression;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * @see CCSCalcModule
@@ -65,6 +69,11 @@ public class CCSUtils {
   // could be an option for TIMS
 
   private static final Logger logger = Logger.getLogger(CCSUtils.class.getName());
+  /**
+   * Number of rows processed in one block by {@link #calcCCSColumn(List, CompiledCCSCalibration,
+   * RangeMap)}.
+   */
+  private static final int CCS_BLOCK_SIZE = 4096;
   private static final TDFUtils tdfUtils = new TDFUtils();
 
   private CCSUtils() {
@@ -86,6 +95,69 @@ public class CCSUtils {
     };
   }
 
+  /**
+   * Calculates the CCS values of the features of a single raw data file for all rows in one
+   * parallel pass. The m/z, mobility and charge are extracted into primitive blocks, which are then
+   * converted by the compiled calibration.
+   *
+   * @param rows             The rows.
+   * @param calibration      The calibration of the raw data file.
+   * @param fallbackChargeMap Charges to assume if a feature does not have a charge. Null if no
+   *                          charge shall be assumed.
+   * @return The CCS values in the order of the rows. {@link Float#NaN} if the row does not contain
+   * a feature of the file or if the CCS cannot be calculated.
+   */
+  public static float[] calcCCSColumn(@NotNull final List<? extends FeatureListRow> rows,
+      @NotNull final CompiledCCSCalibration calibration,
+      @Nullable final RangeMap<Double, Integer> fallbackChargeMap) {
+    final int numRows = rows.size();
+    final float[] ccs = new float[numRows];
+    final IMSRawDataFile file = calibration.getFile();
+    final int numBlocks = (numRows + CCS_BLOCK_SIZE - 1) / CCS_BLOCK_SIZE;
+
+    IntStream.range(0, numBlocks).parallel().forEach(block -> {
+      final int from = block * CCS_BLOCK_SIZE;
+      final int to = Math.min(numRows, from + CCS_BLOCK_SIZE);
+      final double[] mzs = new double[to - from];
+      final int[] charges = new int[to - from];
+      final float[] mobilities = new float[to - from];
+      final float[] blockCCS = new float[to - from];
+      final boolean[] valid = new boolean[to - from];
+
+      for (int i = from; i < to; i++) {
+        final ModularFeature feature = (ModularFeature) rows.get(i).getFeature(file);
+        if (feature == null) {
+          continue;
+        }
+        final Float mobility = feature.getMobility();
+        final MobilityType unit = feature.getMobilityUnit();
+        if (mobility == null || unit != calibration.getMobilityType()) {
+          continue;
+        }
+        final double mz = feature.getMZ();
+        int charge = feature.getCharge();
+        if (charge == 0) {
+          final Integer fallbackCharge =
+              fallbackChargeMap != null ? fallbackChargeMap.get(mz) : null;
+          if (fallbackCharge == null) {
+            continue;
+          }
+          charge = fallbackCharge;
+        }
+        mzs[i - from] = mz;
+        charges[i - from] = charge;
+        mobilities[i - from] = mobility;
+        valid[i - from] = true;
+      }
+
+      calibration.getCCS(mzs, charges, mobilities, blockCCS, 0, to - from);
+      for (int i = from; i < to; i++) {
+        ccs[i] = valid[i - from] ? blockCCS[i - from] : Float.NaN;
+      }
+    });
+    return ccs;
+  }
+
   /**
    * @param file Represents a raw data file @return The {@link IMSRawDataFile#getMobilityType()} and
    *             {@link IMSRawDataFile#getCCSCalibration()} of this data file.
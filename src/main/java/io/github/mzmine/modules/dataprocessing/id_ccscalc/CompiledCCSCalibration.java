@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.dataprocessing.id_ccscalc;
+
+import io.github.mzmine.datamodel.IMSRawDataFile;
+import io.github.mzmine.datamodel.MobilityType;
+import io.github.mzmine.modules.dataprocessing.id_ccscalibration.CCSCalibration;
+import io.github.mzmine.modules.dataprocessing.id_ccscalibration.reference.CCSCalibrant;
+import java.util.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * CCS conversion of a single raw data file, prepared once and then applied to blocks of ions. If the
+ * file has a {@link CCSCalibration}, the block API of the calibration is used. TIMS files without a
+ * calibration are converted by Bruker's library. The library implements the Mason-Schamp equation,
+ * which only depends on a constant factor for a given drift gas and temperature. This factor is
+ * derived from the library once and verified on multiple ions, so the library does not need to be
+ * called for every ion. If the verification fails, the library is called for every ion.
+ *
+ * @see CCSUtils#calcCCS(double, Float, MobilityType, int, IMSRawDataFile)
+ */
+public class CompiledCCSCalibration {
+
+  private static final Logger logger = Logger.getLogger(CompiledCCSCalibration.class.getName());
+
+  /**
+   * ook0, charge, mz of the ions used to verify the constant factor of the TIMS conversion.
+   */
+  private static final double[][] TIMS_PROBES = {{0.7, 2, 350}, {1.4, 1, 1200}, {1.1, 3, 900},
+      {0.55, 1, 120}};
+  private static final double TIMS_PROBE_TOLERANCE = 1E-5;
+  // NaN if the native library has to be used for every ion, null if not determined yet
+  private static Double timsMasonSchampFactor = null;
+
+  private final IMSRawDataFile file;
+  private final MobilityType mobilityType;
+  @Nullable
+  private final CCSCalibration calibration;
+  private final double timsFactor;
+
+  private CompiledCCSCalibration(@NotNull IMSRawDataFile file,
+      @Nullable CCSCalibration calibration, double timsFactor) {
+    this.file = file;
+    this.mobilityType = file.getMobilityType();
+    this.calibration = calibration;
+    this.timsFactor = timsFactor;
+  }
+
+  /**
+   * @param file The raw data file.
+   * @return The compiled calibration or null if CCS values cannot be calculated for this file.
+   */
+  @Nullable
+  public static CompiledCCSCalibration compile(@NotNull IMSRawDataFile file) {
+    if (!CCSUtils.hasValidMobilityType(file)) {
+      return null;
+    }
+    final CCSCalibration calibration = file.getCCSCalibration();
+    if (calibration != null) {
+      return new CompiledCCSCalibration(file, calibration, Double.NaN);
+    }
+    // tims without calibration
+    return new CompiledCCSCalibration(file, null, getTimsMasonSchampFactor());
+  }
+
+  /**
+   * @return The factor f in ccs = f * |z| * ook0 / sqrt(reduced mass) of Bruker's conversion or NaN
+   * if the conversion could not be reproduced.
+   */
+  private static synchronized double getTimsMasonSchampFactor() {
+    if (timsMasonSchampFactor != null) {
+      return timsMasonSchampFactor;
+    }
+
+    double factor = Double.NaN;
+    for (double[] probe : TIMS_PROBES) {
+      final Float ccs = CCSUtils.calcCCSFromTimsMobility(probe[0], (int) probe[1], probe[2]);
+      if (ccs == null) {
+        factor = Double.NaN;
+        break;
+      }
+      final double probeFactor = ccs / (Math.abs(probe[1]) * probe[0]) * Math.sqrt(
+          CCSCalibration.getReducedMass(probe[2], (int) probe[1], CCSCalibrant.N2_MASS));
+      if (Double.isNaN(factor)) {
+        factor = probeFactor;
+      } else if (Math.abs(probeFactor - factor) / factor > TIMS_PROBE_TOLERANCE) {
+        logger.fine("TIMS CCS conversion cannot be reproduced by a constant factor.");
+        factor = Double.NaN;
+        break;
+      }
+    }
+    timsMasonSchampFactor = factor;
+    return factor;
+  }
+
+  /**
+   * @return The CCS value or {@link Float#NaN} if it cannot be calculated.
+   */
+  public float getCCS(double mz, int charge, float mobility) {
+    final float[] dst = new float[1];
+    getCCS(new double[]{mz}, new int[]{charge}, new float[]{mobility}, dst, 0, 1);
+    return dst[0];
+  }
+
+  /**
+   * Calculates the CCS values of a block of ions. Values that cannot be calculated are set to
+   * {@link Float#NaN}.
+   *
+   * @param mzs        The m/z values.
+   * @param charges    The charges.
+   * @param mobilities The mobilities.
+   * @param dst        (out) The CCS values are written to the same indices.
+   * @param from       First index (inclusive).
+   * @param to         Last index (exclusive).
+   */
+  public void getCCS(double[] mzs, int[] charges, float[] mobilities, float[] dst, int from,
+      int to) {
+    if (calibration != null) {
+      calibration.getCCS(mzs, charges, mobilities, dst, from, to);
+      return;
+    }
+
+    if (!Double.isNaN(timsFactor)) {
+      for (int i = from; i < to; i++) {
+        final double reducedMass = CCSCalibration.getReducedMass(mzs[i], charges[i],
+            CCSCalibrant.N2_MASS);
+        dst[i] = (float) (timsFactor * Math.abs(charges[i]) * mobilities[i] / Math.sqrt(
+            reducedMass));
+      }
+      return;
+    }
+
+    for (int i = from; i < to; i++) {
+      if (charges[i] == 0) {
+        dst[i] = Float.NaN;
+        continue;
+      }
+      final Float ccs = CCSUtils.calcCCSFromTimsMobility(mobilities[i], charges[i], mzs[i]);
+      dst[i] = ccs != null ? ccs : Float.NaN;
+    }
+  }
+
+  @NotNull
+  public IMSRawDataFile getFile() {
+    return file;
+  }
+
+  @NotNull
+  public MobilityType getMobilityType() {
+    return mobilityType;
+  }
+}
@@ -34,6 +34,24 @@ public interface CCSCalibration {
 
   float getCCS(double mz, int charge, float mobility);
 
+  /**
+   * Calculates the CCS values for a block of ions. Implementations may hoist constant terms out of
+   * the loop.
+   *
+   * @param mzs        The m/z values.
+   * @param charges    The charges.
+   * @param mobilities The mobilities.
+   * @param dst        (out) The CCS values are written to the same indices.
+   * @param from       First index (inclusive).
+   * @param to         Last index (exclusive).
+   */
+  default void getCCS(double[] mzs, int[] charges, float[] mobilities, float[] dst, int from,
+      int to) {
+    for (int i = from; i < to; i++) {
+      dst[i] = getCCS(mzs[i], charges[i], mobilities[i]);
+    }
+  }
+
   void saveToXML(Element element);
 
   static CCSCalibration loadFromXML(Element element) {
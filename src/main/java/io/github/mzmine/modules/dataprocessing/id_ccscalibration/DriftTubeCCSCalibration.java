@@ -73,6 +73,19 @@ public class DriftTubeCCSCalibration implements CCSCalibration {
     return (float) ((mobility - tfix) / (beta * getN2Gamma(mz, charge)));
   }
 
+  @Override
+  public void getCCS(double[] mzs, int[] charges, float[] mobilities, float[] dst, int from,
+      int to) {
+    final double inverseBeta = 1 / beta;
+    for (int i = from; i < to; i++) {
+      final double mzCharge = mzs[i] * charges[i];
+      // 1 / gamma = charge * sqrt((mz * charge + N2) / (mz * charge))
+      final double inverseGamma =
+          charges[i] * Math.sqrt((mzCharge + CCSCalibrant.N2_MASS) / mzCharge);
+      dst[i] = (float) ((mobilities[i] - tfix) * inverseBeta * inverseGamma);
+    }
+  }
+
   @Override
   public String toString() {
     return String.format("%s\tbeta: %.4f\ttfix: %.4f\trsquare: %.4f\tn: %d",
@@ -68,6 +68,20 @@ public class TwCCSCalibration implements CCSCalibration {
     return (float) (omegaC * Math.abs(charge) / sqrt);
   }
 
+  @Override
+  public void getCCS(double[] mzs, int[] charges, float[] mobilities, float[] dst, int from,
+      int to) {
+    final double edcPerMilli = edcDelayCoeff / 1000;
+    for (int i = from; i < to; i++) {
+      final double mz = mzs[i];
+      final int charge = charges[i];
+      final double correctedDriftTime = mobilities[i] - edcPerMilli * Math.sqrt(mz);
+      final double omegaC = coeff * Math.pow(correctedDriftTime + t0, exponent);
+      final double reducedMass = CCSCalibration.getReducedMass(mz, charge, CCSCalibrant.N2_MASS);
+      dst[i] = (float) (omegaC * Math.abs(charge) / Math.sqrt(reducedMass));
+    }
+  }
+
   @Override
   public void saveToXML(Element element) {
     element.setAttribute(XML_TYPE_ATTR, XML_TYPE_NAME);
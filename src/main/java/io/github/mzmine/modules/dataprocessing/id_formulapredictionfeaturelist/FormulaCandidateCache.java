@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.dataprocessing.id_formulapredictionfeaturelist;
+
+import com.google.common.collect.Range;
+import io.github.mzmine.modules.dataprocessing.id_formulaprediction.restrictions.elements.ElementalHeuristicChecker;
+import io.github.mzmine.modules.dataprocessing.id_formulaprediction.restrictions.rdbe.RDBERestrictionChecker;
+import io.github.mzmine.util.FormulaUtils;
+import it.unimi.dsi.fastutil.booleans.BooleanArrayList;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.openscience.cdk.formula.MolecularFormulaGenerator;
+import org.openscience.cdk.formula.MolecularFormulaRange;
+import org.openscience.cdk.interfaces.IMolecularFormula;
+import org.openscience.cdk.silent.SilentChemObjectBuilder;
+
+/**
+ * Enumerates candidate formulas once per neutral mass bucket and shares them between all rows of a
+ * formula prediction. Rows with close masses, like adducts, isotopes or duplicate rows, reuse the
+ * enumerated formulas of their buckets. The elemental ratio and RDBE checks only depend on the
+ * formula and are evaluated once per candidate when the bucket is created. Thread safe.
+ * <p>
+ * A bucket is enumerated by the first thread that requests it, outside of the map, while other
+ * threads that request the same bucket wait for its result. The number of cached formulas is
+ * bounded, the least recently used buckets are evicted and enumerated again if needed.
+ */
+class FormulaCandidateCache {
+
+  /**
+   * Width of the neutral mass buckets in Da
+   */
+  static final double BUCKET_WIDTH = 0.01;
+
+  /**
+   * Default maximum number of cached formulas
+   */
+  static final long DEFAULT_MAX_FORMULAS = 500_000;
+
+  private final MolecularFormulaRange elementCounts;
+  private final boolean checkRatios;
+  private final boolean checkHCRatio;
+  private final boolean checkNOPSRatio;
+  private final boolean checkMultipleRatios;
+  private final boolean checkRDBE;
+  private final Range<Double> rdbeRange;
+  private final boolean rdbeIsInteger;
+
+  private final long maxFormulas;
+
+  private final Map<Long, CachedBucket> buckets = new ConcurrentHashMap<>();
+  private final Set<MolecularFormulaGenerator> activeGenerators = ConcurrentHashMap.newKeySet();
+  private final AtomicLong enumeratedFormulas = new AtomicLong(0);
+  private final AtomicLong enumeratedBuckets = new AtomicLong(0);
+  private final AtomicLong bucketRequests = new AtomicLong(0);
+  private final AtomicLong cachedFormulas = new AtomicLong(0);
+  // logical clock for the LRU eviction
+  private final AtomicLong accessCounter = new AtomicLong(0);
+  private volatile boolean canceled = false;
+
+  /**
+   * @param rdbeRange only used if checkRDBE
+   */
+  FormulaCandidateCache(@NotNull MolecularFormulaRange elementCounts, boolean checkRatios,
+      boolean checkHCRatio, boolean checkNOPSRatio, boolean checkMultipleRatios,
+      boolean checkRDBE, @Nullable Range<Double> rdbeRange, boolean rdbeIsInteger) {
+    this(elementCounts, checkRatios, checkHCRatio, checkNOPSRatio, checkMultipleRatios, checkRDBE,
+        rdbeRange, rdbeIsInteger, DEFAULT_MAX_FORMULAS);
+  }
+
+  /**
+   * @param rdbeRange   only used if checkRDBE
+   * @param maxFormulas the maximum number of cached formulas
+   */
+  FormulaCandidateCache(@NotNull MolecularFormulaRange elementCounts, boolean checkRatios,
+      boolean checkHCRatio, boolean checkNOPSRatio, boolean checkMultipleRatios,
+      boolean checkRDBE, @Nullable Range<Double> rdbeRange, boolean rdbeIsInteger,
+      long maxFormulas) {
+    this.maxFormulas = maxFormulas;
+    this.elementCounts = elementCounts;
+    this.checkRatios = checkRatios;
+    this.checkHCRatio = checkHCRatio;
+    this.checkNOPSRatio = checkNOPSRatio;
+    this.checkMultipleRatios = checkMultipleRatios;
+    this.checkRDBE = checkRDBE;
+    this.rdbeRange = rdbeRange;
+    this.rdbeIsInteger = rdbeIsInteger;
+  }
+
+  /**
+   * @param massRange    the neutral mass range
+   * @param searchedMass the searched neutral mass
+   * @return all formulas in the mass range that pass the elemental ratio and RDBE checks, sorted
+   * by their mass difference to the searched mass. The formulas are shared and must not be
+   * changed.
+   */
+  @NotNull
+  List<IMolecularFormula> getCandidates(@NotNull Range<Double> massRange, double searchedMass) {
+    final long first = (long) Math.floor(massRange.lowerEndpoint() / BUCKET_WIDTH);
+    final long last = (long) Math.floor(massRange.upperEndpoint() / BUCKET_WIDTH);
+
+    final List<IMolecularFormula> formulas = new ArrayList<>();
+    final DoubleArrayList masses = new DoubleArrayList();
+    for (long key = first; key <= last; key++) {
+      if (canceled) {
+        return List.of();
+      }
+      bucketRequests.incrementAndGet();
+      final Bucket bucket = getBucket(key);
+      for (int i = 0; i < bucket.formulas().length; i++) {
+        if (bucket.valid()[i] && massRange.contains(bucket.masses()[i])) {
+          formulas.add(bucket.formulas()[i]);
+          masses.add(bucket.masses()[i]);
+        }
+      }
+    }
+
+    // closest formulas first
+    final int[] order = new int[formulas.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    IntArrays.stableSort(order,
+        (a, b) -> Double.compare(Math.abs(masses.getDouble(a) - searchedMass),
+            Math.abs(masses.getDouble(b) - searchedMass)));
+    final List<IMolecularFormula> sorted = new ArrayList<>(order.length);
+    for (int i : order) {
+      sorted.add(formulas.get(i));
+    }
+    return sorted;
+  }
+
+  /**
+   * @return the cached bucket or the bucket enumerated by this thread
+   */
+  private Bucket getBucket(long key) {
+    final CachedBucket cached = buckets.get(key);
+    if (cached != null) {
+      cached.lastAccess = accessCounter.incrementAndGet();
+      return cached.future.join();
+    }
+
+    final CachedBucket created = new CachedBucket();
+    created.lastAccess = accessCounter.incrementAndGet();
+    final CachedBucket other = buckets.putIfAbsent(key, created);
+    if (other != null) {
+      // another thread enumerates this bucket
+      return other.future.join();
+    }
+
+    final Bucket bucket;
+    try {
+      bucket = enumerateBucket(key);
+    } catch (RuntimeException | Error e) {
+      buckets.remove(key, created);
+      created.future.completeExceptionally(e);
+      throw e;
+    }
+    // count before completion, so an eviction never subtracts uncounted formulas
+    final boolean full = cachedFormulas.addAndGet(bucket.formulas().length) > maxFormulas;
+    created.future.complete(bucket);
+    if (full) {
+      evict();
+    }
+    return bucket;
+  }
+
+  /**
+   * Removes the least recently used buckets until 3/4 of the maximum number of formulas remain
+   * cached. Buckets that are still enumerated are kept.
+   */
+  private synchronized void evict() {
+    if (cachedFormulas.get() <= maxFormulas) {
+      return;
+    }
+    // snapshot the access times, they change during sorting
+    final List<EvictionCandidate> done = new ArrayList<>();
+    for (var entry : buckets.entrySet()) {
+      final CachedBucket cached = entry.getValue();
+      if (cached.future.isDone()) {
+        done.add(new EvictionCandidate(entry.getKey(), cached, cached.lastAccess));
+      }
+    }
+    done.sort(Comparator.comparingLong(EvictionCandidate::lastAccess));
+    final long target = maxFormulas / 4 * 3;
+    for (EvictionCandidate candidate : done) {
+      if (cachedFormulas.get() <= target) {
+        break;
+      }
+      if (buckets.remove(candidate.key(), candidate.bucket())) {
+        cachedFormulas.addAndGet(-candidate.bucket().future.join().formulas().length);
+      }
+    }
+  }
+
+  /**
+   * Enumerates all formulas with a mass in [key, key+1) * {@link #BUCKET_WIDTH}
+   */
+  private Bucket enumerateBucket(long key) {
+    final double lower = key * BUCKET_WIDTH;
+    final double upper = (key + 1) * BUCKET_WIDTH;
+    final MolecularFormulaGenerator generator = new MolecularFormulaGenerator(
+        SilentChemObjectBuilder.getInstance(), lower, upper, elementCounts);
+    activeGenerators.add(generator);
+
+    final List<IMolecularFormula> formulas = new ArrayList<>();
+    final DoubleArrayList masses = new DoubleArrayList();
+    final BooleanArrayList valid = new BooleanArrayList();
+    try {
+      IMolecularFormula formula;
+      while (!canceled && (formula = generator.getNextFormula()) != null) {
+        final double mass = FormulaUtils.getMonoisotopicMass(formula);
+        // the generator range is closed, the bucket is half open
+        if (mass >= upper) {
+          continue;
+        }
+        formulas.add(formula);
+        masses.add(mass);
+        valid.add(passesConstraints(formula));
+      }
+    } finally {
+      activeGenerators.remove(generator);
+    }
+    enumeratedFormulas.addAndGet(formulas.size());
+    enumeratedBuckets.incrementAndGet();
+
+    return new Bucket(formulas.toArray(IMolecularFormula[]::new), masses.toDoubleArray(),
+        valid.toBooleanArray());
+  }
+
+  private boolean passesConstraints(IMolecularFormula formula) {
+    // Check elemental ratios
+    if (checkRatios && !ElementalHeuristicChecker.checkFormula(formula, checkHCRatio,
+        checkNOPSRatio, checkMultipleRatios)) {
+      return false;
+    }
+
+    // Check RDBE condition
+    final Double rdbeValue = RDBERestrictionChecker.calculateRDBE(formula);
+    return !checkRDBE || rdbeValue == null || RDBERestrictionChecker.checkRDBE(rdbeValue,
+        rdbeRange, rdbeIsInteger);
+  }
+
+  /**
+   * Stops all running enumerations
+   */
+  void cancel() {
+    canceled = true;
+    activeGenerators.forEach(MolecularFormulaGenerator::cancel);
+  }
+
+  /**
+   * @return the number of formulas enumerated by the generators
+   */
+  long getEnumeratedFormulas() {
+    return enumeratedFormulas.get();
+  }
+
+  /**
+   * @return the number of bucket requests that were served from the cache
+   */
+  long getReusedBuckets() {
+    return bucketRequests.get() - enumeratedBuckets.get();
+  }
+
+  /**
+   * @return the number of formulas that are currently cached
+   */
+  long getCachedFormulas() {
+    return cachedFormulas.get();
+  }
+
+  private record EvictionCandidate(long key, CachedBucket bucket, long lastAccess) {
+
+  }
+
+  /**
+   * A bucket that is enumerated by one thread and shared with all others
+   */
+  private static class CachedBucket {
+
+    private final CompletableFuture<Bucket> future = new CompletableFuture<>();
+    private volatile long lastAccess;
+  }
+
+  /**
+   * @param formulas candidate formulas with a mass within the bucket
+   * @param masses   monoisotopic mass of each formula
+   * @param valid    true if the formula passes the elemental ratio and RDBE checks
+   */
+  private record Bucket(IMolecularFormula[] formulas, double[] masses, boolean[] valid) {
+
+  }
+}
@@ -34,12 +34,9 @@ import io.github.mzmine.datamodel.features.FeatureListRow;
 import io.github.mzmine.datamodel.features.ModularFeatureList;
 import io.github.mzmine.datamodel.features.SimpleFeatureListAppliedMethod;
 import io.github.mzmine.datamodel.features.types.DataTypes;
-import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.modules.dataprocessing.id_formula_sort.FormulaSortParameters;
 import io.github.mzmine.modules.dataprocessing.id_formulaprediction.ResultFormula;
-import io.github.mzmine.modules.dataprocessing.id_formulaprediction.restrictions.elements.ElementalHeuristicChecker;
 import io.github.mzmine.modules.dataprocessing.id_formulaprediction.restrictions.elements.ElementalHeuristicParameters;
-import io.github.mzmine.modules.dataprocessing.id_formulaprediction.restrictions.rdbe.RDBERestrictionChecker;
 import io.github.mzmine.modules.dataprocessing.id_formulaprediction.restrictions.rdbe.RDBERestrictionParameters;
 import io.github.mzmine.modules.tools.isotopepatternscore.IsotopePatternScoreCalculator;
 import io.github.mzmine.modules.tools.isotopepatternscore.IsotopePatternScoreParameters;
@@ -54,15 +51,18 @@ import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.FormulaUtils;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 import org.jetbrains.annotations.NotNull;
-import org.openscience.cdk.formula.MolecularFormulaGenerator;
+import org.jetbrains.annotations.Nullable;
 import org.openscience.cdk.formula.MolecularFormulaRange;
-import org.openscience.cdk.interfaces.IChemObjectBuilder;
 import org.openscience.cdk.interfaces.IMolecularFormula;
-import org.openscience.cdk.silent.SilentChemObjectBuilder;
 
 public class FormulaPredictionFeatureListTask extends AbstractTask {
 
@@ -84,11 +84,12 @@ public class FormulaPredictionFeatureListTask extends AbstractTask {
   private Double sortPPMFactor;
   private Double sortMSMSFactor;
   private Double sortIsotopeFactor;
-  private MolecularFormulaGenerator generator;
+  private volatile FormulaCandidateCache candidateCache;
   private String message;
-  private int totalRows, finishedRows;
+  private int totalRows;
+  private final AtomicInteger finishedRows = new AtomicInteger(0);
+  private final AtomicLong checkedFormulas = new AtomicLong(0);
   private final Boolean isSorting;
-  private List<ResultFormula> resultingFormulas;
   private Range<Double> rdbeRange;
   private Boolean rdbeIsInteger;
   private Boolean checkHCRatio;
@@ -184,7 +185,7 @@ public class FormulaPredictionFeatureListTask extends AbstractTask {
     if (totalRows == 0) {
       return 0.0;
     }
-    return (double) finishedRows / (double) totalRows;
+    return (double) finishedRows.get() / (double) totalRows;
   }
 
   @Override
@@ -202,57 +203,50 @@ public class FormulaPredictionFeatureListTask extends AbstractTask {
     featureList.addRowType(DataTypes.get(
         io.github.mzmine.datamodel.features.types.annotations.formula.FormulaListType.class));
 
-    for (FeatureListRow row : featureList.getRows()) {
-
-      if (row.getPeakIdentities().size() > 0) {
-        continue;
-      }
-      this.resultingFormulas = new ArrayList<>();
-
-      double searchedMass = (row.getAverageMZ() - ionType.getAddedMass()) * charge;
-
-      message = "Formula prediction for " + MZmineCore.getConfiguration().getMZFormat()
-          .format(searchedMass);
-
-      Range<Double> massRange = mzTolerance.getToleranceRange(searchedMass);
-
-      IChemObjectBuilder builder = SilentChemObjectBuilder.getInstance();
-      generator = new MolecularFormulaGenerator(builder, massRange.lowerEndpoint(),
-          massRange.upperEndpoint(), elementCounts);
-
-      IMolecularFormula cdkFormula;
-
-      // create a map to store ResultFormula and relative mass deviation
-      // for sorting
-      while ((cdkFormula = generator.getNextFormula()) != null) {
-        // Mass is ok, so test other constraints
-        ResultFormula molf = checkConstraints(cdkFormula, row, searchedMass);
-
-        if (isCanceled() || getStatus().equals(TaskStatus.ERROR)) {
-          return;
-        }
-
-        if (molf != null) {
-          resultingFormulas.add(molf);
-        }
-      }
-
-      if (isCanceled()) {
+    // formulas and their elemental ratio and RDBE checks are shared by rows of similar mass
+    candidateCache = new FormulaCandidateCache(elementCounts, checkRatios,
+        checkRatios && checkHCRatio, checkRatios && checkNOPSRatio,
+        checkRatios && checkMultipleRatios, checkRDBE, rdbeRange, checkRDBE && rdbeIsInteger);
+
+    message = "Formula prediction for " + totalRows + " rows";
+    final long start = System.currentTimeMillis();
+    final List<FeatureListRow> rows = List.copyOf(featureList.getRows());
+    final List<List<ResultFormula>> rowFormulas = new ArrayList<>(
+        Collections.nCopies(rows.size(), null));
+    // process rows in m/z order, so each worker requests neighboring cached buckets
+    final int[] mzOrder = IntStream.range(0, rows.size()).boxed()
+        .sorted(Comparator.comparingDouble(i -> rows.get(i).getAverageMZ()))
+        .mapToInt(Integer::intValue).toArray();
+    IntStream.range(0, rows.size()).parallel().forEach(j -> {
+      if (isCanceled() || getStatus().equals(TaskStatus.ERROR)) {
         return;
       }
+      final int i = mzOrder[j];
+      rowFormulas.set(i, predictFormulas(rows.get(i)));
+      finishedRows.incrementAndGet();
+    });
 
-      // Add the new formula entry top results
-      if (!resultingFormulas.isEmpty()) {
-        row.setFormulas(resultingFormulas.subList(0,
-            Math.min(resultingFormulas.size() - 1, maxBestFormulasPerFeature)));
-      }
+    if (isCanceled() || getStatus().equals(TaskStatus.ERROR)) {
+      return;
+    }
 
-      if (isCanceled()) {
-        return;
+    // Add the new formula entry top results
+    for (int i = 0; i < rows.size(); i++) {
+      final List<ResultFormula> resultingFormulas = rowFormulas.get(i);
+      if (resultingFormulas != null && !resultingFormulas.isEmpty()) {
+        rows.get(i).setFormulas(resultingFormulas.subList(0,
+            Math.min(resultingFormulas.size() - 1, maxBestFormulasPerFeature)));
       }
-      finishedRows++;
     }
 
+    final double seconds = Math.max(System.currentTimeMillis() - start, 1) / 1000d;
+    final long enumerated = candidateCache.getEnumeratedFormulas();
+    final long checked = checkedFormulas.get();
+    logger.info(("Formula prediction of %d rows in %.1f s: %d formulas enumerated (%.0f/s), "
+        + "%d candidates checked (%.0f/s), %d mass buckets reused").formatted(rows.size(), seconds,
+        enumerated, enumerated / seconds, checked, checked / seconds,
+        candidateCache.getReusedBuckets()));
+
     if (isCanceled()) {
       return;
     }
@@ -268,25 +262,46 @@ public class FormulaPredictionFeatureListTask extends AbstractTask {
   }
 
   /**
-   * @param cdkFormula
-   * @return null if molecular formula does not match requirements
+   * Scores the candidate formulas of a row. Thread safe.
+   *
+   * @return the matching formulas or null if the row is already annotated or processing stopped
    */
-  private ResultFormula checkConstraints(IMolecularFormula cdkFormula, FeatureListRow peakListRow,
-      double searchedMass) {
-
-    // Check elemental ratios
-    if (checkRatios && !ElementalHeuristicChecker.checkFormula(cdkFormula, checkHCRatio,
-        checkNOPSRatio, checkMultipleRatios)) {
+  @Nullable
+  private List<ResultFormula> predictFormulas(FeatureListRow row) {
+    if (row.getPeakIdentities().size() > 0) {
       return null;
     }
 
-    Double rdbeValue = RDBERestrictionChecker.calculateRDBE(cdkFormula);
+    final double searchedMass = (row.getAverageMZ() - ionType.getAddedMass()) * charge;
+    final Range<Double> massRange = mzTolerance.getToleranceRange(searchedMass);
 
-    // Check RDBE condition
-    if (checkRDBE && (rdbeValue != null) && !RDBERestrictionChecker.checkRDBE(rdbeValue, rdbeRange,
-        rdbeIsInteger)) {
-      return null;
+    final List<ResultFormula> resultingFormulas = new ArrayList<>();
+    for (IMolecularFormula candidate : candidateCache.getCandidates(massRange, searchedMass)) {
+      // candidates are shared between rows
+      ResultFormula molf = checkConstraints(FormulaUtils.cloneFormula(candidate), row,
+          searchedMass);
+      checkedFormulas.incrementAndGet();
+
+      if (isCanceled() || getStatus().equals(TaskStatus.ERROR)) {
+        return null;
+      }
+
+      if (molf != null) {
+        resultingFormulas.add(molf);
+      }
     }
+    return resultingFormulas;
+  }
+
+  /**
+   * Checks the isotope pattern and MS/MS constraints. Elemental ratios and RDBE were already
+   * checked by the {@link FormulaCandidateCache}.
+   *
+   * @param cdkFormula
+   * @return null if molecular formula does not match requirements
+   */
+  private ResultFormula checkConstraints(IMolecularFormula cdkFormula, FeatureListRow peakListRow,
+      double searchedMass) {
 
     // Calculate isotope similarity score
     IsotopePattern detectedPattern = peakListRow.getBestIsotopePattern();
@@ -353,10 +368,11 @@ public class FormulaPredictionFeatureListTask extends AbstractTask {
   public void cancel() {
     super.cancel();
 
-    // We need to cancel the formula generator, because searching for next
+    // We need to cancel the formula generators, because searching for next
     // candidate formula may take a looong time
-    if (generator != null) {
-      generator.cancel();
+    final FormulaCandidateCache cache = candidateCache;
+    if (cache != null) {
+      cache.cancel();
     }
 
   }
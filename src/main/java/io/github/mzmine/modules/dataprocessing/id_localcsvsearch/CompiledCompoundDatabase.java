@@ -0,0 +1,453 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.dataprocessing.id_localcsvsearch;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Binary, memory mapped representation of a local compound database. All ions (compounds
+ * expanded by adducts) are stored as columns sorted by m/z, so the search only needs a binary
+ * search on the m/z column and can pre filter RT, mobility and CCS without creating any
+ * annotation. The text values of the compounds are only decoded for the final matches.
+ * <p>
+ * Opening a compiled database maps the columns and is independent of the database size. All
+ * accessors use absolute reads and are safe to be used by multiple threads.
+ * <p>
+ * Float values that are NaN are wildcards (not specified in the database).
+ */
+class CompiledCompoundDatabase {
+
+  private static final Logger logger = Logger.getLogger(CompiledCompoundDatabase.class.getName());
+
+  private static final int MAGIC = 0x4D5A4442; // MZDB
+  private static final int VERSION = 1;
+  public static final String FILE_EXTENSION = "mzdb";
+
+  private final String[] header;
+  private final int[] storedColumns;
+  private final int numAdducts;
+  private final int numCompounds;
+  private final int numIons;
+
+  // ion columns sorted by m/z
+  private final DoubleBuffer mzs;
+  private final FloatBuffer rts;
+  private final FloatBuffer mobilities;
+  private final FloatBuffer ccs;
+  private final IntBuffer compoundIndices;
+  private final IntBuffer adductIndices;
+
+  // compound values
+  private final LongBuffer compoundOffsets;
+  private final MappedByteBuffer compoundValues;
+
+  private CompiledCompoundDatabase(FileChannel channel, ByteBuffer head) throws IOException {
+    header = readStrings(head);
+    storedColumns = new int[head.getInt()];
+    for (int i = 0; i < storedColumns.length; i++) {
+      storedColumns[i] = head.getInt();
+    }
+    numAdducts = head.getInt();
+    numCompounds = head.getInt();
+    numIons = head.getInt();
+
+    long position = head.getLong();
+    mzs = map(channel, position, numIons, Double.BYTES).asDoubleBuffer();
+    position += (long) numIons * Double.BYTES;
+    rts = map(channel, position, numIons, Float.BYTES).asFloatBuffer();
+    position += (long) numIons * Float.BYTES;
+    mobilities = map(channel, position, numIons, Float.BYTES).asFloatBuffer();
+    position += (long) numIons * Float.BYTES;
+    ccs = map(channel, position, numIons, Float.BYTES).asFloatBuffer();
+    position += (long) numIons * Float.BYTES;
+    compoundIndices = map(channel, position, numIons, Integer.BYTES).asIntBuffer();
+    position += (long) numIons * Integer.BYTES;
+    adductIndices = map(channel, position, numIons, Integer.BYTES).asIntBuffer();
+    position += (long) numIons * Integer.BYTES;
+    compoundOffsets = map(channel, position, numCompounds + 1, Long.BYTES).asLongBuffer();
+    position += (long) (numCompounds + 1) * Long.BYTES;
+    compoundValues = map(channel, position, compoundOffsets.get(numCompounds), 1);
+  }
+
+  /**
+   * Opens a compiled database.
+   *
+   * @param file the compiled database
+   * @param key  the key describing the source database and the import settings. A database
+   *             compiled with a different key is treated as outdated.
+   * @return the database or null if the file does not exist, is outdated, or has an unsupported
+   * version
+   */
+  @Nullable
+  public static CompiledCompoundDatabase open(@NotNull File file, @NotNull String key)
+      throws IOException {
+    if (!file.isFile()) {
+      return null;
+    }
+    try (var raf = new RandomAccessFile(file, "r"); var channel = raf.getChannel()) {
+      if (channel.size() < 3 * Integer.BYTES) {
+        return null;
+      }
+      final ByteBuffer start = channel.map(MapMode.READ_ONLY, 0, 3 * Integer.BYTES);
+      if (start.getInt() != MAGIC || start.getInt() != VERSION) {
+        logger.fine(() -> "Compiled database " + file + " has a different version.");
+        return null;
+      }
+      final int headerLength = start.getInt();
+      final ByteBuffer head = channel.map(MapMode.READ_ONLY, 3 * Integer.BYTES, headerLength);
+      if (!key.equals(readString(head))) {
+        logger.fine(() -> "Compiled database " + file + " is outdated.");
+        return null;
+      }
+      // mappings stay valid after closing the channel
+      return new CompiledCompoundDatabase(channel, head);
+    }
+  }
+
+  private static MappedByteBuffer map(FileChannel channel, long position, long length,
+      int bytesPerValue) throws IOException {
+    final long size = length * bytesPerValue;
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Compiled database column exceeds the maximum size of 2 GB");
+    }
+    return channel.map(MapMode.READ_ONLY, position, size);
+  }
+
+  /**
+   * @return the column headers of the original database
+   */
+  public String[] getHeader() {
+    return header;
+  }
+
+  /**
+   * @return the number of adducts that was used to compile the database. Adduct indices refer to
+   * this list.
+   */
+  public int getNumberOfAdducts() {
+    return numAdducts;
+  }
+
+  public int getNumberOfCompounds() {
+    return numCompounds;
+  }
+
+  /**
+   * @return the number of ions (compounds expanded by adducts)
+   */
+  public int size() {
+    return numIons;
+  }
+
+  public double getMz(int ion) {
+    return mzs.get(ion);
+  }
+
+  public float getRT(int ion) {
+    return rts.get(ion);
+  }
+
+  public float getMobility(int ion) {
+    return mobilities.get(ion);
+  }
+
+  public float getCCS(int ion) {
+    return ccs.get(ion);
+  }
+
+  public int getCompoundIndex(int ion) {
+    return compoundIndices.get(ion);
+  }
+
+  /**
+   * @return the index of the adduct or -1 if the database was compiled without adducts
+   */
+  public int getAdductIndex(int ion) {
+    return adductIndices.get(ion);
+  }
+
+  /**
+   * @param mz the lower bound
+   * @return the index of the first ion with an m/z &ge; mz (or {@link #size()})
+   */
+  public int indexOfMz(double mz) {
+    int low = 0;
+    int high = numIons;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (mzs.get(mid) < mz) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Decodes the values of a compound.
+   *
+   * @return the values of a database line aligned with {@link #getHeader()}. Only the columns that
+   * were stored during compilation are set, all others are null.
+   */
+  public String[] getCompoundValues(int compound) {
+    final String[] values = new String[header.length];
+    // position of the values of this compound, always < 2 GB as checked during mapping
+    int position = (int) compoundOffsets.get(compound);
+    for (final int column : storedColumns) {
+      final int length = compoundValues.getInt(position);
+      position += Integer.BYTES;
+      if (length >= 0) {
+        final byte[] bytes = new byte[length];
+        compoundValues.get(position, bytes);
+        position += length;
+        values[column] = new String(bytes, StandardCharsets.UTF_8);
+      }
+    }
+    return values;
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    final byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static String[] readStrings(ByteBuffer buffer) {
+    final String[] strings = new String[buffer.getInt()];
+    for (int i = 0; i < strings.length; i++) {
+      strings[i] = readString(buffer);
+    }
+    return strings;
+  }
+
+  /**
+   * Collects compounds and their ions and writes them as a compiled database.
+   */
+  static class Builder {
+
+    private final String key;
+    private final String[] header;
+    private final int[] storedColumns;
+    private final int numAdducts;
+
+    private final List<byte[]> compoundValues = new ArrayList<>();
+    private final DoubleArrayList mzs = new DoubleArrayList();
+    private final FloatArrayList rts = new FloatArrayList();
+    private final FloatArrayList mobilities = new FloatArrayList();
+    private final FloatArrayList ccs = new FloatArrayList();
+    private final IntArrayList compoundIndices = new IntArrayList();
+    private final IntArrayList adductIndices = new IntArrayList();
+
+    /**
+     * @param key           describes the source database and settings, see
+     *                      {@link CompiledCompoundDatabase#open(File, String)}
+     * @param header        the column headers of the database
+     * @param storedColumns the column indices that are stored for each compound
+     * @param numAdducts    the number of adducts used to expand the compounds or 0
+     */
+    Builder(@NotNull String key, @NotNull String[] header, int[] storedColumns, int numAdducts) {
+      this.key = key;
+      this.header = header;
+      this.storedColumns = storedColumns;
+      this.numAdducts = numAdducts;
+    }
+
+    /**
+     * @param values a database line
+     * @return the index of the compound
+     */
+    public int addCompound(@NotNull String[] values) {
+      try (var bytes = new ByteArrayOutputStream(); var out = new DataOutputStream(
+          bytes)) {
+        for (final int column : storedColumns) {
+          final String value = column < values.length ? values[column] : null;
+          if (value == null) {
+            out.writeInt(-1);
+          } else {
+            final byte[] data = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(data.length);
+            out.write(data);
+          }
+        }
+        out.flush();
+        compoundValues.add(bytes.toByteArray());
+      } catch (IOException e) {
+        // cannot happen for in memory streams
+        throw new IllegalStateException(e);
+      }
+      return compoundValues.size() - 1;
+    }
+
+    /**
+     * @param compound index of the compound
+     * @param adduct   index of the adduct or -1
+     * @param mz       m/z of the ion
+     * @param rt       retention time or null
+     * @param mobility mobility or null
+     * @param ccsValue ccs or null
+     */
+    public void addIon(int compound, int adduct, double mz, @Nullable Float rt,
+        @Nullable Float mobility, @Nullable Float ccsValue) {
+      compoundIndices.add(compound);
+      adductIndices.add(adduct);
+      mzs.add(mz);
+      rts.add(rt == null ? Float.NaN : rt);
+      mobilities.add(mobility == null ? Float.NaN : mobility);
+      ccs.add(ccsValue == null ? Float.NaN : ccsValue);
+    }
+
+    public int getNumberOfIons() {
+      return mzs.size();
+    }
+
+    /**
+     * Sorts all ions by m/z and writes the database. The file is written to a unique temporary
+     * file in the same directory first and then moved atomically to replace the target, so
+     * concurrent tasks that compile the same database do not interfere.
+     */
+    public void write(@NotNull File file) throws IOException {
+      final int numIons = mzs.size();
+      final double[] mzArray = mzs.elements();
+      final int[] order = new int[numIons];
+      for (int i = 0; i < numIons; i++) {
+        order[i] = i;
+      }
+      IntArrays.quickSort(order, (a, b) -> Double.compare(mzArray[a], mzArray[b]));
+
+      final byte[] head = createHeader(numIons);
+      final Path tmp = Files.createTempFile(file.getAbsoluteFile().getParentFile().toPath(),
+          file.getName(), ".tmp");
+      try (var out = new DataOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(head.length);
+        out.write(head);
+
+        for (int i : order) {
+          out.writeDouble(mzArray[i]);
+        }
+        for (int i : order) {
+          out.writeFloat(rts.getFloat(i));
+        }
+        for (int i : order) {
+          out.writeFloat(mobilities.getFloat(i));
+        }
+        for (int i : order) {
+          out.writeFloat(ccs.getFloat(i));
+        }
+        for (int i : order) {
+          out.writeInt(compoundIndices.getInt(i));
+        }
+        for (int i : order) {
+          out.writeInt(adductIndices.getInt(i));
+        }
+
+        long offset = 0;
+        for (final byte[] values : compoundValues) {
+          out.writeLong(offset);
+          offset += values.length;
+        }
+        out.writeLong(offset);
+        if (offset > Integer.MAX_VALUE) {
+          throw new IOException("Compound values exceed the maximum size of 2 GB");
+        }
+        for (final byte[] values : compoundValues) {
+          out.write(values);
+        }
+      } catch (IOException e) {
+        Files.deleteIfExists(tmp);
+        throw e;
+      }
+      try {
+        Files.move(tmp, file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      } catch (IOException e) {
+        Files.deleteIfExists(tmp);
+        throw e;
+      }
+    }
+
+    private byte[] createHeader(int numIons) throws IOException {
+      try (var bytes = new ByteArrayOutputStream(); var out = new DataOutputStream(
+          bytes)) {
+        writeString(out, key);
+        out.writeInt(header.length);
+        for (final String column : header) {
+          writeString(out, column == null ? "" : column);
+        }
+        out.writeInt(storedColumns.length);
+        for (final int column : storedColumns) {
+          out.writeInt(column);
+        }
+        out.writeInt(numAdducts);
+        out.writeInt(compoundValues.size());
+        out.writeInt(numIons);
+        // columns start directly after the header: magic, version, header length, header
+        final int headerLength = bytes.size() + Long.BYTES;
+        out.writeLong(3L * Integer.BYTES + headerLength);
+        out.flush();
+        return bytes.toByteArray();
+      }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+      final byte[] data = value.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(data.length);
+      out.write(data);
+    }
+  }
+}
@@ -49,6 +49,7 @@ import io.github.mzmine.datamodel.features.types.numbers.MobilityType;
 import io.github.mzmine.datamodel.features.types.numbers.NeutralMassType;
 import io.github.mzmine.datamodel.features.types.numbers.PrecursorMZType;
 import io.github.mzmine.datamodel.features.types.numbers.RTType;
+import io.github.mzmine.datamodel.identities.iontype.IonType;
 import io.github.mzmine.datamodel.identities.iontype.IonTypeParser;
 import io.github.mzmine.modules.dataprocessing.id_ion_identity_networking.ionidnetworking.IonNetworkLibrary;
 import io.github.mzmine.modules.dataprocessing.id_onlinecompounddb.OnlineDatabases;
@@ -61,11 +62,13 @@ import io.github.mzmine.parameters.parametertypes.tolerances.mobilitytolerance.M
 import io.github.mzmine.taskcontrol.AbstractTask;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.CSVParsingUtils;
-import io.github.mzmine.util.FeatureListRowSorter;
-import io.github.mzmine.util.FeatureListUtils;
+import io.github.mzmine.util.files.FileAndPathUtil;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -73,13 +76,15 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
-import javafx.collections.transformation.SortedList;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -125,9 +130,15 @@ public class LocalCSVDatabaseSearchTask extends AbstractTask {
   private final String sampleHeader;
   private final List<RawDataFile> allRawDataFiles;
   private IonNetworkLibrary ionNetworkLibrary;
+  // adducts in the order of the adduct indices in the compiled database
+  private List<IonType> adducts = List.of();
+  private List<ImportType> lineIds;
+  private List<ImportType> commentFields;
 
   private String[][] databaseValues;
   private int finishedLines = 0;
+  private final AtomicInteger finishedRows = new AtomicInteger(0);
+  private int totalRows = 0;
   private int sampleColIndex = -1;
 
   LocalCSVDatabaseSearchTask(FeatureList[] featureLists, ParameterSet parameters,
@@ -163,6 +174,9 @@ public class LocalCSVDatabaseSearchTask extends AbstractTask {
 
   @Override
   public double getFinishedPercentage() {
+    if (totalRows > 0) {
+      return ((double) finishedRows.get()) / totalRows;
+    }
     if (databaseValues == null) {
       return 0;
     }
@@ -178,74 +192,39 @@ public class LocalCSVDatabaseSearchTask extends AbstractTask {
   public void run() {
     setStatus(TaskStatus.PROCESSING);
 
-    try (BufferedReader dbFileReader = new BufferedReader(new FileReader(dataBaseFile))) {
-      // read database contents in memory
-      databaseValues = CSVParser.parse(dbFileReader,
-          "\\t".equals(fieldSeparator) ? '\t' : fieldSeparator.charAt(0));
+    final CompiledCompoundDatabase database;
+    try {
+      ionNetworkLibrary =
+          ionLibraryParameterSet != null ? new IonNetworkLibrary(ionLibraryParameterSet,
+              mzTolerance) : null;
+      adducts = ionNetworkLibrary == null ? List.of()
+          : ionNetworkLibrary.getAllAdducts().stream()
+              .filter(adduct -> !adduct.isUndefinedAdduct() && !adduct.isUndefinedAdductParent()
+                  && !adduct.getName().contains("?")).toList();
+
+      database = loadOrCompileDatabase();
     } catch (Exception e) {
       logger.log(Level.WARNING, "Could not read file " + dataBaseFile, e);
       setStatus(TaskStatus.ERROR);
       setErrorMessage(e.getMessage());
       return;
     }
+    if (isCanceled()) {
+      return;
+    }
+    if (database == null) {
+      setStatus(TaskStatus.ERROR);
+      return;
+    }
 
     try {
-      ionNetworkLibrary =
-          ionLibraryParameterSet != null ? new IonNetworkLibrary(ionLibraryParameterSet,
-              mzTolerance) : null;
-
-      final StringProperty error = new SimpleStringProperty();
-      final List<ImportType> lineIds = CSVParsingUtils.findLineIds(importTypes, databaseValues[0],
-          error);
-      if (lineIds == null) {
-        setErrorMessage(error.get());
-        setStatus(TaskStatus.ERROR);
-        return;
-      }
-
-      // option to read more fields and append to comment as json
-      List<ImportType> commentFields = extractCommentFields();
-      if (commentFields == null) {
-        setStatus(TaskStatus.ERROR);
+      searchFeatureLists(database);
+      if (isCanceled()) {
         return;
       }
 
-      // sample header index
-      if (filterSamples) {
-        sampleColIndex = getHeaderColumnIndex(databaseValues[0], sampleHeader);
-        if (sampleColIndex == -1) {
-          setErrorMessage("Sample header " + sampleHeader + " not found");
-          setStatus(TaskStatus.ERROR);
-          return;
-        }
-      }
-
-      // extract rows and sort by mz for binary search
-      var mzSortedRows = Arrays.stream(featureLists)
-          .map(flist -> flist.getRows().sorted(FeatureListRowSorter.MZ_ASCENDING)).toList();
-
-      // finished header
-      finishedLines++;
-      for (; finishedLines < databaseValues.length; finishedLines++) {
-        if (isCanceled()) {
-          return;
-        }
-        try {
-          String[] currentLine = databaseValues[finishedLines];
-          // check already once for all raw data files
-          if (filterSamples && !matchSample(allRawDataFiles, currentLine[sampleColIndex])) {
-            // sample mismatch for this line
-            continue;
-          }
-
-          processOneLine(mzSortedRows, currentLine, lineIds, commentFields);
-        } catch (Exception e) {
-          logger.log(Level.FINE, "Exception while processing csv line " + finishedLines, e);
-        }
-      }
-
-      for (final SortedList<FeatureListRow> flist : mzSortedRows) {
-        for (final FeatureListRow row : flist) {
+      for (final FeatureList flist : featureLists) {
+        for (final FeatureListRow row : flist.getRows()) {
           var matches = row.getCompoundAnnotations().stream().sorted()
               .collect(Collectors.toCollection(ArrayList::new));
           if (matches.isEmpty()) {
@@ -273,12 +252,340 @@ public class LocalCSVDatabaseSearchTask extends AbstractTask {
 
   }
 
+  /**
+   * Loads the compiled version of the database or compiles the csv file if there is no compiled
+   * version for the current file and settings. Compiled databases are stored in the user
+   * directory and reused by later runs.
+   *
+   * @return the database or null on error or if the task was canceled
+   */
+  @Nullable
+  private CompiledCompoundDatabase loadOrCompileDatabase() throws IOException {
+    final String key = createDatabaseKey();
+    File compiledFile = getCompiledDatabaseFile(key);
+    CompiledCompoundDatabase database = CompiledCompoundDatabase.open(compiledFile, key);
+    if (database != null) {
+      logger.info("Loaded compiled database " + compiledFile + " with " + database.size()
+          + " ions of " + database.getNumberOfCompounds() + " compounds");
+      return resolveColumns(database.getHeader()) ? database : null;
+    }
+
+    try (BufferedReader dbFileReader = new BufferedReader(new FileReader(dataBaseFile))) {
+      // read database contents in memory
+      databaseValues = CSVParser.parse(dbFileReader,
+          "\\t".equals(fieldSeparator) ? '\t' : fieldSeparator.charAt(0));
+    }
+    if (!resolveColumns(databaseValues[0])) {
+      return null;
+    }
+
+    final CompiledCompoundDatabase.Builder builder = compileDatabase(key);
+    if (builder == null) {
+      return null;
+    }
+    try {
+      builder.write(compiledFile);
+      deleteOutdatedCompiledDatabases(compiledFile.getParentFile());
+    } catch (IOException e) {
+      logger.log(Level.WARNING,
+          "Cannot write compiled database to " + compiledFile + ", using a temporary file", e);
+      compiledFile = File.createTempFile("mzmine_compound_db", "."
+          + CompiledCompoundDatabase.FILE_EXTENSION);
+      compiledFile.deleteOnExit();
+      builder.write(compiledFile);
+    }
+    databaseValues = null;
+
+    database = CompiledCompoundDatabase.open(compiledFile, key);
+    if (database == null) {
+      throw new IOException("Cannot open compiled database " + compiledFile);
+    }
+    return database;
+  }
+
+  /**
+   * @return describes the database file and all settings that change the compiled database
+   */
+  @NotNull
+  private String createDatabaseKey() {
+    final StringBuilder key = new StringBuilder();
+    key.append(dataBaseFile.getAbsolutePath()).append(';').append(dataBaseFile.length())
+        .append(';').append(dataBaseFile.lastModified()).append(';').append(fieldSeparator);
+    for (final ImportType type : importTypes) {
+      if (type.isSelected()) {
+        key.append(';').append(type.getCsvColumnName()).append('=')
+            .append(type.getDataType().getUniqueID());
+      }
+    }
+    key.append(';').append(parameters.getValue(LocalCSVDatabaseSearchParameters.commentFields));
+    if (filterSamples) {
+      key.append(";sample=").append(sampleHeader);
+    }
+    for (final IonType adduct : adducts) {
+      key.append(';').append(adduct);
+    }
+    return key.toString();
+  }
+
+  /**
+   * The file name consists of the {@link #getCompiledDatabasePrefix() prefix} of the source file,
+   * a hash of the source file version (size and last modification) and a hash of the key.
+   */
+  @NotNull
+  private File getCompiledDatabaseFile(@NotNull String key) {
+    final File dir = new File(FileAndPathUtil.getUserSettingsDir(), "compound_db_cache");
+    FileAndPathUtil.createDirectory(dir);
+    final String name = getCompiledDatabasePrefix() + getSourceVersion() + "_"
+        + Integer.toHexString(key.hashCode());
+    return new File(dir, name + "." + CompiledCompoundDatabase.FILE_EXTENSION);
+  }
+
+  /**
+   * @return name and path hash of the source file, shared by all compiled versions of it
+   */
+  @NotNull
+  private String getCompiledDatabasePrefix() {
+    return FileAndPathUtil.eraseFormat(dataBaseFile.getName()) + "_" + Integer.toHexString(
+        dataBaseFile.getAbsolutePath().hashCode()) + "_";
+  }
+
+  @NotNull
+  private String getSourceVersion() {
+    return Integer.toHexString(Objects.hash(dataBaseFile.length(), dataBaseFile.lastModified()));
+  }
+
+  /**
+   * Deletes databases that were compiled from an older version of the same source file. Compiled
+   * databases of the current version with other settings are kept. Files that cannot be deleted,
+   * e.g., because they are still mapped by another task, are removed by a later run.
+   */
+  private void deleteOutdatedCompiledDatabases(@Nullable File dir) {
+    final String extension = "." + CompiledCompoundDatabase.FILE_EXTENSION;
+    final String prefix = getCompiledDatabasePrefix();
+    final String current = prefix + getSourceVersion() + "_";
+    final File[] outdated = dir == null ? null : dir.listFiles(
+        f -> f.isFile() && f.getName().startsWith(prefix) && !f.getName().startsWith(current)
+            && f.getName().endsWith(extension));
+    if (outdated == null) {
+      return;
+    }
+    for (final File f : outdated) {
+      try {
+        Files.deleteIfExists(f.toPath());
+        logger.fine("Deleted outdated compiled database " + f);
+      } catch (IOException e) {
+        logger.log(Level.FINE, "Cannot delete outdated compiled database " + f, e);
+      }
+    }
+  }
+
+  /**
+   * Finds the column indices of all imported fields, the comment fields and the sample column.
+   *
+   * @return false on error
+   */
+  private boolean resolveColumns(@NotNull String[] header) {
+    final StringProperty error = new SimpleStringProperty();
+    lineIds = CSVParsingUtils.findLineIds(importTypes, header, error);
+    if (lineIds == null) {
+      setErrorMessage(error.get());
+      return false;
+    }
+
+    // option to read more fields and append to comment as json
+    commentFields = extractCommentFields(header);
+    if (commentFields == null) {
+      return false;
+    }
+
+    // sample header index
+    if (filterSamples) {
+      sampleColIndex = getHeaderColumnIndex(header, sampleHeader);
+      if (sampleColIndex == -1) {
+        setErrorMessage("Sample header " + sampleHeader + " not found");
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Expands all csv lines by the adducts and collects the ions for the compiled database.
+   *
+   * @return the builder or null if the task was canceled
+   */
+  @Nullable
+  private CompiledCompoundDatabase.Builder compileDatabase(@NotNull String key) {
+    final IntStream sampleColumn = filterSamples ? IntStream.of(sampleColIndex) : IntStream.empty();
+    final int[] storedColumns = IntStream.concat(
+        Stream.concat(lineIds.stream(), commentFields.stream())
+            .mapToInt(ImportType::getColumnIndex), sampleColumn).distinct().sorted().toArray();
+    final var builder = new CompiledCompoundDatabase.Builder(key, databaseValues[0],
+        storedColumns, adducts.size());
+
+    // finished header
+    for (finishedLines = 1; finishedLines < databaseValues.length; finishedLines++) {
+      if (isCanceled()) {
+        return null;
+      }
+      try {
+        compileLine(builder, databaseValues[finishedLines]);
+      } catch (Exception e) {
+        logger.log(Level.FINE, "Exception while processing csv line " + finishedLines, e);
+      }
+    }
+    logger.info("Compiled database " + dataBaseFile + " with " + builder.getNumberOfIons()
+        + " ions");
+    return builder;
+  }
+
+  private void compileLine(@NotNull CompiledCompoundDatabase.Builder builder,
+      @NotNull String[] values) {
+    final CompoundDBAnnotation baseAnnotation = getCompoundFromLine(values, lineIds,
+        commentFields);
+    final List<CompoundDBAnnotation> ions = new ArrayList<>();
+    final IntArrayList adductIndices = new IntArrayList();
+    if (adducts.isEmpty()) {
+      // the precursor mz is required if the ions are not calculated
+      if (baseAnnotation.getPrecursorMZ() != null) {
+        ions.add(baseAnnotation);
+        adductIndices.add(-1);
+      }
+    } else {
+      for (int i = 0; i < adducts.size(); i++) {
+        try {
+          ions.add(baseAnnotation.ionize(adducts.get(i)));
+          adductIndices.add(i);
+        } catch (IllegalStateException e) {
+          // do not log the full stack trace as this is expected in many cases
+          logger.log(Level.WARNING, e.getMessage());
+        }
+      }
+    }
+    if (ions.isEmpty()) {
+      return;
+    }
+
+    final int compound = builder.addCompound(values);
+    for (int i = 0; i < ions.size(); i++) {
+      final CompoundDBAnnotation ion = ions.get(i);
+      builder.addIon(compound, adductIndices.getInt(i), ion.getPrecursorMZ(), ion.getRT(),
+          ion.getMobility(), ion.getCCS());
+    }
+  }
+
+  /**
+   * Matches all rows of all feature lists in parallel. The annotations are added afterwards.
+   */
+  private void searchFeatureLists(@NotNull CompiledCompoundDatabase database) {
+    final List<FeatureListRow> rows = new ArrayList<>();
+    final IntArrayList flistIndices = new IntArrayList();
+    for (int i = 0; i < featureLists.length; i++) {
+      for (final FeatureListRow row : featureLists[i].getRows()) {
+        rows.add(row);
+        flistIndices.add(i);
+      }
+    }
+    totalRows = rows.size();
+
+    final List<List<CompoundDBAnnotation>> matches = IntStream.range(0, rows.size()).parallel()
+        .mapToObj(i -> isCanceled() ? List.<CompoundDBAnnotation>of()
+            : findMatches(database, rows.get(i),
+                featureLists[flistIndices.getInt(i)].getRawDataFiles())).toList();
+    if (isCanceled()) {
+      return;
+    }
+
+    // setting the annotations adds types to the feature lists, which is not thread safe
+    for (int i = 0; i < rows.size(); i++) {
+      for (final CompoundDBAnnotation match : matches.get(i)) {
+        rows.get(i).addCompoundAnnotation(match);
+      }
+    }
+  }
+
+  /**
+   * @param rawFiles the raw data files of the feature list, used for the sample filter
+   * @return all matching annotations
+   */
+  @NotNull
+  private List<CompoundDBAnnotation> findMatches(@NotNull CompiledCompoundDatabase database,
+      @NotNull FeatureListRow row, @NotNull List<RawDataFile> rawFiles) {
+    final Double mz = row.getAverageMZ();
+    if (mz == null) {
+      finishedRows.incrementAndGet();
+      return List.of();
+    }
+
+    final Range<Double> mzRange = mzTolerance.getToleranceRange(mz);
+    final List<CompoundDBAnnotation> matches = new ArrayList<>();
+    for (int ion = database.indexOfMz(mzRange.lowerEndpoint());
+        ion < database.size() && database.getMz(ion) <= mzRange.upperEndpoint(); ion++) {
+      if (!isCandidate(database, ion, row)) {
+        continue;
+      }
+      try {
+        final String[] values = database.getCompoundValues(database.getCompoundIndex(ion));
+        //  if active, check sample name contains id - this time for the feature list
+        if (filterSamples && !matchSample(rawFiles, values[sampleColIndex])) {
+          continue;
+        }
+
+        final CompoundDBAnnotation baseAnnotation = getCompoundFromLine(values, lineIds,
+            commentFields);
+        final int adductIndex = database.getAdductIndex(ion);
+        final CompoundDBAnnotation annotation =
+            adductIndex < 0 ? baseAnnotation : baseAnnotation.ionize(adducts.get(adductIndex));
+        final CompoundDBAnnotation clone = annotation.checkMatchAndCalculateDeviation(row,
+            mzTolerance, rtTolerance, mobTolerance, ccsTolerance);
+        if (clone != null) {
+          matches.add(clone);
+        }
+      } catch (Exception e) {
+        logger.log(Level.FINE, "Exception while matching compound " + database.getCompoundIndex(
+            ion), e);
+      }
+    }
+    finishedRows.incrementAndGet();
+    return matches;
+  }
+
+  /**
+   * Checks the ion columns before any annotation is created. Applies the same ranges around the
+   * database values as the candidate search and the same wildcard rules as
+   * {@link CompoundDBAnnotation#matches}.
+   */
+  private boolean isCandidate(@NotNull CompiledCompoundDatabase database, int ion,
+      @NotNull FeatureListRow row) {
+    if (!mzTolerance.checkWithinTolerance(database.getMz(ion), row.getAverageMZ())) {
+      return false;
+    }
+    final float rt = database.getRT(ion);
+    final Float rowRT = row.getAverageRT();
+    if (rtTolerance != null && !Float.isNaN(rt) && rowRT != null
+        && !rtTolerance.getToleranceRange(rt).contains(rowRT)) {
+      return false;
+    }
+    final float mobility = database.getMobility(ion);
+    final Float rowMobility = row.getAverageMobility();
+    if (mobTolerance != null && !Float.isNaN(mobility) && rowMobility != null
+        && !mobTolerance.getToleranceRange(mobility).contains(rowMobility)) {
+      return false;
+    }
+    final float ccs = database.getCCS(ion);
+    if (ccsTolerance != null && !Float.isNaN(ccs) && ccs > 0) {
+      final Float rowCCS = row.getAverageCCS();
+      return rowCCS != null && !(Math.abs(1 - (rowCCS / ccs)) > ccsTolerance);
+    }
+    return true;
+  }
+
   /**
    * @return The list of comment fields if the fields were found successfully. Empty list if no
    * extra comments were selected. Null on error.
    */
   @Nullable
-  private List<ImportType> extractCommentFields() {
+  private List<ImportType> extractCommentFields(@NotNull String[] header) {
     List<ImportType> commentFields = new ArrayList<>();
     final String appendComments = parameters.getValue(
         LocalCSVDatabaseSearchParameters.commentFields);
@@ -288,7 +595,7 @@ public class LocalCSVDatabaseSearchTask extends AbstractTask {
           .map(s -> new ImportType(true, s, type)).toList();
       if (!commentFields.isEmpty()) {
         final SimpleStringProperty error = new SimpleStringProperty();
-        commentFields = CSVParsingUtils.findLineIds(commentFields, databaseValues[0], error);
+        commentFields = CSVParsingUtils.findLineIds(commentFields, header, error);
         if (commentFields == null) {
           setErrorMessage(error.get());
         }
@@ -298,95 +605,10 @@ public class LocalCSVDatabaseSearchTask extends AbstractTask {
   }
 
   private boolean matchSample(final List<RawDataFile> raws, final String sample) {
-    return raws.stream()
+    return sample != null && raws.stream()
         .anyMatch(raw -> raw.getName().toLowerCase().contains(sample.toLowerCase()));
   }
 
-  /**
-   * @param mzSortedRows     rows per feature list sorted by mz
-   * @param values           csv values to be parsed into annotation
-   * @param linesWithIndices columns
-   * @param commentFields    comment fields that are put together into the comment
-   */
-  @SuppressWarnings("ResultOfMethodCallIgnored")
-  private void processOneLine(final List<SortedList<FeatureListRow>> mzSortedRows,
-      @NotNull String[] values, @NotNull List<ImportType> linesWithIndices,
-      @NotNull final List<ImportType> commentFields) {
-
-    final List<CompoundDBAnnotation> annotations = getCompoundDBAnnotations(values,
-        linesWithIndices, commentFields);
-
-    IntStream indexStream = IntStream.range(0, featureLists.length);
-    if (featureLists.length > 1000) {
-      indexStream.parallel();
-    }
-    // not all feature lists have all samples
-    indexStream.forEach(i -> {
-      var rawFiles = featureLists[i].getRawDataFiles();
-      //  if active, check sample name contains id - this time for the feature list
-      if (!filterSamples || matchSample(rawFiles, values[sampleColIndex])) {
-        var sortedRows = mzSortedRows.get(i);
-
-        for (CompoundDBAnnotation annotation : annotations) {
-          List<FeatureListRow> candidates = binarySearchCandidates(sortedRows, annotation);
-
-          for (FeatureListRow row : candidates) {
-            checkMatchAndAnnotate(annotation, row, mzTolerance, rtTolerance, mobTolerance,
-                ccsTolerance);
-          }
-        }
-      }
-    });
-  }
-
-  @NotNull
-  private List<FeatureListRow> binarySearchCandidates(final SortedList<FeatureListRow> mzSortedRows,
-      final CompoundDBAnnotation annotation) {
-    // ranges are build with prechecks - so if there is no mobility use Range.all() to deactivate the filter
-    Double mz = annotation.getPrecursorMZ();
-    assert mz != null;
-    final Float rt = annotation.getRT();
-    final Float mobility = annotation.getMobility();
-    var mzRange = mzTolerance.getToleranceRange(mz);
-    Range<Float> rtRange =
-        rtTolerance != null && rt != null ? rtTolerance.getToleranceRange(rt) : Range.all();
-    Range<Float> mobilityRange =
-        mobTolerance != null && mobility != null ? mobTolerance.getToleranceRange(mobility)
-            : Range.all();
-
-    // get all canditates with binary search
-    // CCS is still missing here but will be tested later
-    return FeatureListUtils.getCandidatesWithinRanges(mzRange, rtRange, mobilityRange, mzSortedRows,
-        true);
-  }
-
-  @NotNull
-  private List<CompoundDBAnnotation> getCompoundDBAnnotations(final @NotNull String[] values,
-      final @NotNull List<ImportType> linesWithIndices,
-      final @NotNull List<ImportType> commentFields) {
-    final CompoundDBAnnotation baseAnnotation = getCompoundFromLine(values, linesWithIndices,
-        commentFields);
-    final List<CompoundDBAnnotation> annotations = new ArrayList<>();
-    if (ionNetworkLibrary != null) {
-      annotations.addAll(
-          CompoundDBAnnotation.buildCompoundsWithAdducts(baseAnnotation, ionNetworkLibrary));
-    } else {
-      annotations.add(baseAnnotation);
-    }
-    return annotations;
-  }
-
-  private void checkMatchAndAnnotate(CompoundDBAnnotation annotation, FeatureListRow row,
-      MZTolerance mzTolerance, RTTolerance rtTolerance, MobilityTolerance mobTolerance,
-      Double percCcsTolerance) {
-
-    final CompoundDBAnnotation clone = annotation.checkMatchAndCalculateDeviation(row, mzTolerance,
-        rtTolerance, mobTolerance, percCcsTolerance);
-    if (clone != null) {
-      row.addCompoundAnnotation(clone);
-    }
-  }
-
   @Nullable
   private static Float replaceWildcardLowerEq0WithNull(final DataType<Float> type,
       final Map<DataType<?>, String> map) {
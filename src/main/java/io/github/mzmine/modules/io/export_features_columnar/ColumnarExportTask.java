@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.io.export_features_columnar;
+
+import io.github.mzmine.datamodel.features.FeatureListRow;
+import io.github.mzmine.datamodel.features.ModularFeatureList;
+import io.github.mzmine.modules.io.export_features_gnps.fbmn.FeatureListRowsFilter;
+import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.taskcontrol.AbstractTask;
+import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.util.FeatureListRowSorter;
+import io.github.mzmine.util.files.FileAndPathUtil;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Exports feature lists to the {@link ColumnarFeatureTableFormat}
+ */
+public class ColumnarExportTask extends AbstractTask {
+
+  private static final Logger logger = Logger.getLogger(ColumnarExportTask.class.getName());
+  private final ModularFeatureList[] featureLists;
+  private final File fileName;
+  private final FeatureListRowsFilter rowFilter;
+  private int finishedLists = 0;
+  private volatile ColumnarFeatureTableWriter writer;
+
+  public ColumnarExportTask(ParameterSet parameters, @NotNull Instant moduleCallDate) {
+    super(null, moduleCallDate); // no new data stored -> null
+    featureLists = parameters.getValue(ColumnarExportParameters.featureLists)
+        .getMatchingFeatureLists();
+    fileName = parameters.getValue(ColumnarExportParameters.filename);
+    rowFilter = parameters.getValue(ColumnarExportParameters.filter);
+  }
+
+  @Override
+  public String getTaskDescription() {
+    return "Exporting feature list(s) " + Arrays.toString(featureLists)
+        + " to columnar feature table file(s)";
+  }
+
+  @Override
+  public double getFinishedPercentage() {
+    if (featureLists.length == 0) {
+      return 0;
+    }
+    final ColumnarFeatureTableWriter current = writer;
+    final double listProgress = current == null ? 0 : current.getProgress();
+    return (finishedLists + listProgress) / featureLists.length;
+  }
+
+  @Override
+  public void run() {
+    setStatus(TaskStatus.PROCESSING);
+
+    String plNamePattern = "{}";
+    boolean substitute = fileName.getPath().contains(plNamePattern);
+
+    if (!substitute && featureLists.length > 1) {
+      setErrorMessage("""
+          Cannot export multiple feature lists to the same file. Please use "{}" pattern in filename.\
+          This will be replaced with the feature list name to generate one file per feature list.
+          """);
+      setStatus(TaskStatus.ERROR);
+      return;
+    }
+
+    for (ModularFeatureList featureList : featureLists) {
+      if (isCanceled()) {
+        return;
+      }
+
+      File curFile = fileName;
+      if (substitute) {
+        // Cleanup from illegal filename characters
+        String cleanPlName = featureList.getName().replaceAll("[^a-zA-Z0-9.-]", "_");
+        String newFilename = fileName.getPath()
+            .replaceAll(Pattern.quote(plNamePattern), cleanPlName);
+        curFile = new File(newFilename);
+      }
+      curFile = FileAndPathUtil.getRealFilePath(curFile,
+          ColumnarFeatureTableFormat.FILE_EXTENSION);
+
+      final List<FeatureListRow> rows = featureList.getRows().stream().filter(rowFilter::accept)
+          .sorted(FeatureListRowSorter.DEFAULT_ID).toList();
+      writer = new ColumnarFeatureTableWriter(featureList, rows);
+
+      boolean written = false;
+      try (OutputStream out = Files.newOutputStream(curFile.toPath())) {
+        written = writer.write(out, this::isCanceled);
+      } catch (IOException e) {
+        setStatus(TaskStatus.ERROR);
+        setErrorMessage("Could not open file " + curFile + " for writing.");
+        logger.log(Level.WARNING, String.format(
+            "Error writing columnar feature table to file: %s for feature list: %s. Message: %s",
+            curFile.getAbsolutePath(), featureList.getName(), e.getMessage()), e);
+      }
+      if (!written) {
+        // canceled or failed, an incomplete Arrow file cannot be read
+        deletePartialFile(curFile);
+        return;
+      }
+      finishedLists++;
+
+      if (!substitute) {
+        break;
+      }
+    }
+
+    if (getStatus() == TaskStatus.PROCESSING) {
+      setStatus(TaskStatus.FINISHED);
+    }
+  }
+
+  private static void deletePartialFile(File file) {
+    try {
+      Files.deleteIfExists(file.toPath());
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Could not delete incomplete file " + file.getAbsolutePath(), e);
+    }
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.io.export_features_columnar;
+
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Layout of exported feature lists in the Apache Arrow IPC file format (also known as Feather
+ * V2), which is read by pyarrow, pandas, polars, R arrow and DuckDB without parsing.
+ * <ul>
+ *   <li>The schema metadata contains the feature list name and the names of the raw data files.</li>
+ *   <li>Each raw data file has a non-null boolean column that marks the rows with a feature.</li>
+ *   <li>Every row type, and every feature type of each raw data file, is one nullable column.
+ *   Absent values are null. The field metadata holds the data type unique ID, the raw data file
+ *   index ({@link #NO_RAW_FILE} for row types) and the {@link Encoding}.</li>
+ * </ul>
+ * Double, float, int, long and boolean values are stored as Float64, Float32, Int32, Int64 and
+ * Bool columns. Strings, enum constant names and the export strings of complex types and sub
+ * columns are dictionary encoded Utf8 columns with Int32 indices.
+ */
+public final class ColumnarFeatureTableFormat {
+
+  public static final String FILE_EXTENSION = "arrow";
+  public static final int VERSION = 1;
+  public static final int NO_RAW_FILE = -1;
+
+  /**
+   * schema metadata
+   */
+  public static final String META_VERSION = "mzmine.version";
+  public static final String META_FEATURE_LIST = "mzmine.feature_list";
+  public static final String META_RAW_FILES = "mzmine.raw_files";
+  public static final String META_RAW_FILE_PREFIX = "mzmine.raw_file.";
+
+  /**
+   * field metadata
+   */
+  public static final String FIELD_TYPE = "mzmine.type";
+  public static final String FIELD_RAW_FILE = "mzmine.raw_file";
+  public static final String FIELD_ENCODING = "mzmine.encoding";
+  public static final String FIELD_FEATURE_PRESENT = "mzmine.feature_present";
+
+  /**
+   * index type of all dictionary encoded columns
+   */
+  public static final ArrowType.Int DICTIONARY_INDEX_TYPE = new ArrowType.Int(32, true);
+
+  /**
+   * maximum number of rows in one record batch
+   */
+  public static final int ROWS_PER_BATCH = 1 << 16;
+
+  private ColumnarFeatureTableFormat() {
+  }
+
+  /**
+   * Storage of column values
+   */
+  public enum Encoding {
+    FLOAT64, FLOAT32, INT32, INT64, BOOLEAN,
+    /**
+     * dictionary encoded string values that are restored on import
+     */
+    STRING,
+    /**
+     * dictionary encoded enum constant names that are restored on import
+     */
+    ENUM,
+    /**
+     * dictionary encoded export strings of complex values and sub columns. Only for downstream
+     * tools, not restored on import
+     */
+    FORMATTED;
+
+    public boolean isDictionary() {
+      return this == STRING || this == ENUM || this == FORMATTED;
+    }
+
+    /**
+     * @return the arrow type of the values, Utf8 for dictionary encoded columns
+     */
+    @NotNull
+    public ArrowType getArrowType() {
+      return switch (this) {
+        case FLOAT64 -> new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE);
+        case FLOAT32 -> new ArrowType.FloatingPoint(FloatingPointPrecision.SINGLE);
+        case INT32 -> new ArrowType.Int(32, true);
+        case INT64 -> new ArrowType.Int(64, true);
+        case BOOLEAN -> ArrowType.Bool.INSTANCE;
+        case STRING, ENUM, FORMATTED -> ArrowType.Utf8.INSTANCE;
+      };
+    }
+
+    /**
+     * @return the encoding for typed values or null if the values need to be formatted
+     */
+    @Nullable
+    public static Encoding forValueClass(Class<?> valueClass) {
+      if (Double.class.equals(valueClass)) {
+        return FLOAT64;
+      } else if (Float.class.equals(valueClass)) {
+        return FLOAT32;
+      } else if (Integer.class.equals(valueClass)) {
+        return INT32;
+      } else if (Long.class.equals(valueClass)) {
+        return INT64;
+      } else if (Boolean.class.equals(valueClass)) {
+        return BOOLEAN;
+      } else if (String.class.equals(valueClass)) {
+        return STRING;
+      } else if (valueClass.isEnum()) {
+        return ENUM;
+      }
+      return null;
+    }
+  }
+}
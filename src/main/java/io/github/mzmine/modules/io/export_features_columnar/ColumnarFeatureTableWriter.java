@@ -0,0 +1,373 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.io.export_features_columnar;
+
+import static io.github.mzmine.modules.io.export_features_columnar.ColumnarFeatureTableFormat.DICTIONARY_INDEX_TYPE;
+import static io.github.mzmine.modules.io.export_features_columnar.ColumnarFeatureTableFormat.NO_RAW_FILE;
+import static io.github.mzmine.modules.io.export_features_columnar.ColumnarFeatureTableFormat.ROWS_PER_BATCH;
+
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.features.FeatureListRow;
+import io.github.mzmine.datamodel.features.ModularDataModel;
+import io.github.mzmine.datamodel.features.ModularFeatureList;
+import io.github.mzmine.datamodel.features.types.DataType;
+import io.github.mzmine.datamodel.features.types.LinkedGraphicalType;
+import io.github.mzmine.datamodel.features.types.modifiers.NoTextColumn;
+import io.github.mzmine.datamodel.features.types.modifiers.NullColumnType;
+import io.github.mzmine.datamodel.features.types.modifiers.SubColumnsFactory;
+import io.github.mzmine.modules.io.export_features_columnar.ColumnarFeatureTableFormat.Encoding;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float4Vector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.dictionary.Dictionary;
+import org.apache.arrow.vector.dictionary.DictionaryProvider.MapDictionaryProvider;
+import org.apache.arrow.vector.ipc.ArrowFileWriter;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.DictionaryEncoding;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Writes feature list rows in the {@link ColumnarFeatureTableFormat}. Row types and the feature
+ * types of each raw data file are written as one column each. Numbers are stored as typed
+ * primitive columns, strings, enums and formatted values of complex types (e.g., annotations) are
+ * dictionary encoded. The dictionaries of the IPC file format cannot change between record
+ * batches, so dictionary columns are encoded in a first pass and only their indices are held in
+ * memory. The rows are then written in record batches.
+ */
+public class ColumnarFeatureTableWriter {
+
+  private static final Logger logger = Logger.getLogger(
+      ColumnarFeatureTableWriter.class.getName());
+  private static final String DATAFILE_PREFIX = "datafile";
+  private static final String HEADER_SEPARATOR = ":";
+
+  private final ModularFeatureList flist;
+  private final List<FeatureListRow> rows;
+  private final List<RawDataFile> rawDataFiles;
+  private final List<Column> columns = new ArrayList<>();
+  private final int totalSteps;
+  private volatile int finishedSteps = 0;
+
+  /**
+   * @param flist the feature list that defines the raw data files and types
+   * @param rows  the rows to write (e.g., filtered and sorted rows of the feature list)
+   */
+  public ColumnarFeatureTableWriter(@NotNull ModularFeatureList flist,
+      @NotNull List<FeatureListRow> rows) {
+    this.flist = flist;
+    this.rows = rows;
+    rawDataFiles = flist.getRawDataFiles();
+
+    for (DataType<?> type : flist.getRowTypes().values()) {
+      addColumns(type, "", NO_RAW_FILE);
+    }
+    for (int r = 0; r < rawDataFiles.size(); r++) {
+      final String prefix = getRawFilePrefix(r);
+      for (DataType<?> type : flist.getFeatureTypes().values()) {
+        addColumns(type, prefix, r);
+      }
+    }
+    final int batches = (rows.size() + ROWS_PER_BATCH - 1) / ROWS_PER_BATCH;
+    totalSteps = (int) columns.stream().filter(col -> col.encoding().isDictionary()).count()
+        + batches;
+  }
+
+  /**
+   * @return true if type should be exported
+   */
+  private static boolean filterType(DataType<?> type) {
+    return !(type instanceof NoTextColumn || type instanceof NullColumnType
+        || type instanceof LinkedGraphicalType);
+  }
+
+  private String getRawFilePrefix(int rawIndex) {
+    return DATAFILE_PREFIX + HEADER_SEPARATOR + rawDataFiles.get(rawIndex).getName()
+        + HEADER_SEPARATOR;
+  }
+
+  private void addColumns(DataType type, String prefix, int rawIndex) {
+    if (!filterType(type)) {
+      return;
+    }
+    final Function<FeatureListRow, ModularDataModel> model = getDataModel(rawIndex);
+
+    if (type instanceof SubColumnsFactory subFactory) {
+      for (int s = 0; s < subFactory.getNumberOfSubColumns(); s++) {
+        final DataType<?> subType = subFactory.getType(s);
+        if (!filterType(subType)) {
+          continue;
+        }
+        final int subIndex = s;
+        final String name =
+            prefix + type.getUniqueID() + HEADER_SEPARATOR + subFactory.getUniqueID(s);
+        columns.add(new Column(name, type.getUniqueID(), Encoding.FORMATTED, rawIndex, row -> {
+          final ModularDataModel data = model.apply(row);
+          final Object value = data == null ? null : data.get(type);
+          return value == null ? null
+              : subFactory.getFormattedSubColExportValue(subIndex, value);
+        }));
+      }
+      return;
+    }
+
+    final Encoding typed = Encoding.forValueClass(type.getValueClass());
+    if (typed != null) {
+      columns.add(new Column(prefix + type.getUniqueID(), type.getUniqueID(), typed, rawIndex,
+          row -> {
+            final ModularDataModel data = model.apply(row);
+            return data == null ? null : data.get(type);
+          }));
+    } else {
+      columns.add(new Column(prefix + type.getUniqueID(), type.getUniqueID(), Encoding.FORMATTED,
+          rawIndex, row -> {
+        final ModularDataModel data = model.apply(row);
+        final Object value = data == null ? null : data.get(type);
+        return value == null ? null : formatValue(type, value);
+      }));
+    }
+  }
+
+  @Nullable
+  private static String formatValue(DataType type, Object value) {
+    try {
+      return type.getFormattedExportString(value);
+    } catch (Exception e) {
+      logger.log(Level.FINEST,
+          "Cannot format value of type " + type.getClass().getName() + " value: " + value, e);
+      return null;
+    }
+  }
+
+  private Function<FeatureListRow, ModularDataModel> getDataModel(int rawIndex) {
+    if (rawIndex == NO_RAW_FILE) {
+      return row -> row;
+    }
+    final RawDataFile raw = rawDataFiles.get(rawIndex);
+    return row -> row.getFeature(raw);
+  }
+
+  public int getNumberOfColumns() {
+    return columns.size();
+  }
+
+  /**
+   * @return the progress from 0 to 1
+   */
+  public double getProgress() {
+    return totalSteps == 0 ? 0 : finishedSteps / (double) totalSteps;
+  }
+
+  /**
+   * Writes the table to the stream and closes it.
+   *
+   * @param os         target stream
+   * @param isCanceled stops writing if true
+   * @return false if canceled
+   */
+  public boolean write(@NotNull OutputStream os, @NotNull BooleanSupplier isCanceled)
+      throws IOException {
+    final List<VarCharVector> dictionaryVectors = new ArrayList<>();
+    try (BufferAllocator allocator = new RootAllocator()) {
+      try {
+        final MapDictionaryProvider provider = new MapDictionaryProvider();
+        final List<Field> fields = new ArrayList<>();
+        for (int r = 0; r < rawDataFiles.size(); r++) {
+          fields.add(new Field(getRawFilePrefix(r) + "feature_present",
+              new FieldType(false, ArrowType.Bool.INSTANCE, null,
+                  Map.of(ColumnarFeatureTableFormat.FIELD_FEATURE_PRESENT, String.valueOf(r))),
+              null));
+        }
+
+        // dictionaries are fixed for the whole file, encode all values first
+        final int[][] codes = new int[columns.size()][];
+        for (int c = 0; c < columns.size(); c++) {
+          final Column col = columns.get(c);
+          final Map<String, String> metadata = Map.of(ColumnarFeatureTableFormat.FIELD_TYPE,
+              col.typeId(), ColumnarFeatureTableFormat.FIELD_RAW_FILE,
+              String.valueOf(col.rawIndex()), ColumnarFeatureTableFormat.FIELD_ENCODING,
+              col.encoding().name());
+          if (!col.encoding().isDictionary()) {
+            fields.add(new Field(col.name(),
+                new FieldType(true, col.encoding().getArrowType(), null, metadata), null));
+            continue;
+          }
+          if (isCanceled.getAsBoolean()) {
+            return false;
+          }
+          final DictionaryEncoding encoding = new DictionaryEncoding(c, false,
+              DICTIONARY_INDEX_TYPE);
+          final VarCharVector dictionary = new VarCharVector(col.name(), allocator);
+          dictionaryVectors.add(dictionary);
+          codes[c] = encodeDictionary(col, dictionary);
+          provider.put(new Dictionary(dictionary, encoding));
+          fields.add(new Field(col.name(),
+              new FieldType(true, DICTIONARY_INDEX_TYPE, encoding, metadata), null));
+          finishedSteps++;
+        }
+
+        final Map<String, String> metadata = new LinkedHashMap<>();
+        metadata.put(ColumnarFeatureTableFormat.META_VERSION,
+            String.valueOf(ColumnarFeatureTableFormat.VERSION));
+        metadata.put(ColumnarFeatureTableFormat.META_FEATURE_LIST, flist.getName());
+        metadata.put(ColumnarFeatureTableFormat.META_RAW_FILES,
+            String.valueOf(rawDataFiles.size()));
+        for (int r = 0; r < rawDataFiles.size(); r++) {
+          metadata.put(ColumnarFeatureTableFormat.META_RAW_FILE_PREFIX + r,
+              rawDataFiles.get(r).getName());
+        }
+
+        try (VectorSchemaRoot root = VectorSchemaRoot.create(new Schema(fields, metadata),
+            allocator); ArrowFileWriter writer = new ArrowFileWriter(root, provider,
+            Channels.newChannel(os))) {
+          writer.start();
+          for (int start = 0; start < rows.size(); start += ROWS_PER_BATCH) {
+            if (isCanceled.getAsBoolean()) {
+              return false;
+            }
+            fillBatch(root, codes, start, Math.min(rows.size(), start + ROWS_PER_BATCH));
+            writer.writeBatch();
+            finishedSteps++;
+          }
+          writer.end();
+        }
+        return true;
+      } finally {
+        dictionaryVectors.forEach(VarCharVector::close);
+      }
+    }
+  }
+
+  /**
+   * Fills the dictionary with all distinct values of the column.
+   *
+   * @return the dictionary index of each row or -1 if the value is absent
+   */
+  private int[] encodeDictionary(Column col, VarCharVector dictionary) {
+    final Map<String, Integer> indices = new HashMap<>();
+    final int[] codes = new int[rows.size()];
+    dictionary.allocateNew();
+    for (int i = 0; i < codes.length; i++) {
+      final Object value = col.value().apply(rows.get(i));
+      if (value == null) {
+        codes[i] = -1;
+        continue;
+      }
+      final String text =
+          col.encoding() == Encoding.ENUM ? ((Enum<?>) value).name() : value.toString();
+      codes[i] = indices.computeIfAbsent(text, key -> {
+        final int index = indices.size();
+        dictionary.setSafe(index, key.getBytes(StandardCharsets.UTF_8));
+        return index;
+      });
+    }
+    dictionary.setValueCount(indices.size());
+    return codes;
+  }
+
+  /**
+   * Writes the rows from start (inclusive) to end (exclusive) into the vectors of the root.
+   * Vectors are in the order of the fields, the feature presence of each raw data file followed
+   * by the columns.
+   */
+  private void fillBatch(VectorSchemaRoot root, int[][] codes, int start, int end) {
+    root.allocateNew();
+    final List<FieldVector> vectors = root.getFieldVectors();
+    final int numRawFiles = rawDataFiles.size();
+    for (int r = 0; r < numRawFiles; r++) {
+      final BitVector present = (BitVector) vectors.get(r);
+      final RawDataFile raw = rawDataFiles.get(r);
+      for (int i = start; i < end; i++) {
+        present.setSafe(i - start, rows.get(i).getFeature(raw) != null ? 1 : 0);
+      }
+    }
+
+    for (int c = 0; c < columns.size(); c++) {
+      final Column col = columns.get(c);
+      final FieldVector vector = vectors.get(numRawFiles + c);
+      if (codes[c] != null) {
+        final IntVector indices = (IntVector) vector;
+        for (int i = start; i < end; i++) {
+          if (codes[c][i] >= 0) {
+            indices.setSafe(i - start, codes[c][i]);
+          }
+        }
+        continue;
+      }
+      for (int i = start; i < end; i++) {
+        final Object value = col.value().apply(rows.get(i));
+        if (value == null) {
+          continue;
+        }
+        final int index = i - start;
+        switch (col.encoding()) {
+          case FLOAT64 -> ((Float8Vector) vector).setSafe(index, ((Number) value).doubleValue());
+          case FLOAT32 -> ((Float4Vector) vector).setSafe(index, ((Number) value).floatValue());
+          case INT32 -> ((IntVector) vector).setSafe(index, ((Number) value).intValue());
+          case INT64 -> ((BigIntVector) vector).setSafe(index, ((Number) value).longValue());
+          case BOOLEAN -> ((BitVector) vector).setSafe(index, (Boolean) value ? 1 : 0);
+          default -> throw new IllegalStateException("Unhandled encoding " + col.encoding());
+        }
+      }
+    }
+    root.setRowCount(end - start);
+  }
+
+  /**
+   * @param name     column header
+   * @param typeId   unique ID of the data type
+   * @param encoding value storage
+   * @param rawIndex index of the raw data file or {@link ColumnarFeatureTableFormat#NO_RAW_FILE}
+   * @param value    extracts the value or formatted string of a row, null if absent
+   */
+  private record Column(String name, String typeId, Encoding encoding, int rawIndex,
+                        Function<FeatureListRow, Object> value) {
+
+  }
+}
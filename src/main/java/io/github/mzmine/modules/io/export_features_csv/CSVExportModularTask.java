@@ -36,6 +36,7 @@ import io.github.mzmine.datamodel.features.types.LinkedGraphicalType;
 import io.github.mzmine.datamodel.features.types.modifiers.NoTextColumn;
 import io.github.mzmine.datamodel.features.types.modifiers.NullColumnType;
 import io.github.mzmine.datamodel.features.types.modifiers.SubColumnsFactory;
+import io.github.mzmine.datamodel.features.types.numbers.abstr.NumberType;
 import io.github.mzmine.modules.io.export_features_gnps.fbmn.FeatureListRowsFilter;
 import io.github.mzmine.parameters.ParameterSet;
 import io.github.mzmine.taskcontrol.AbstractTask;
@@ -47,6 +48,8 @@ import io.github.mzmine.util.io.CSVUtils;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.text.MessageFormat;
@@ -55,11 +58,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.ConcurrentModificationException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -68,6 +73,13 @@ public class CSVExportModularTask extends AbstractTask implements ProcessedItems
 
   public static final String DATAFILE_PREFIX = "datafile";
   private static final Logger logger = Logger.getLogger(CSVExportModularTask.class.getName());
+  private static final String LINE_SEPARATOR = System.lineSeparator();
+  /**
+   * chunks of rows are formatted in parallel and written in order
+   */
+  private static final int ROWS_PER_CHUNK = 256;
+  private static final int BUFFER_CAPACITY = 1 << 16;
+  private static final int WRITER_BUFFER_SIZE = 1 << 20;
   private final ModularFeatureList[] featureLists;
   // parameter values
   private final File fileName;
@@ -180,9 +192,10 @@ public class CSVExportModularTask extends AbstractTask implements ProcessedItems
 
       // Open file
 
-      try (BufferedWriter writer = Files.newBufferedWriter(curFile.toPath(),
-          StandardCharsets.UTF_8)) {
-        exportFeatureList(featureList, writer);
+      try (Writer writer = new BufferedWriter(
+          new OutputStreamWriter(Files.newOutputStream(curFile.toPath()), StandardCharsets.UTF_8),
+          WRITER_BUFFER_SIZE)) {
+        exportFeatureList(featureList, writer, true);
 
       } catch (IOException e) {
         setStatus(TaskStatus.ERROR);
@@ -206,8 +219,12 @@ public class CSVExportModularTask extends AbstractTask implements ProcessedItems
     }
   }
 
+  /**
+   * @param parallel format the chunks of each batch of rows in parallel while the previous batch is
+   *                 written
+   */
   @SuppressWarnings("rawtypes")
-  private void exportFeatureList(ModularFeatureList flist, BufferedWriter writer)
+  void exportFeatureList(ModularFeatureList flist, Writer writer, boolean parallel)
       throws IOException {
     final List<FeatureListRow> rows = flist.getRows().stream().filter(rowFilter::accept)
         .sorted(FeatureListRowSorter.DEFAULT_ID).toList();
@@ -230,21 +247,16 @@ public class CSVExportModularTask extends AbstractTask implements ProcessedItems
     }
 
     writer.append(header.toString());
-    writer.newLine();
-
-    // write data
-    totalTypes = rowTypes.size() + featureTypes.size() * rawDataFiles.size();
+    writer.append(LINE_SEPARATOR);
 
-    List<String[]> formattedCols = new ArrayList<>(totalTypes);
-
-    // list string values for each type and sub type
+    // resolve all columns once, values are only read when the chunk of rows is formatted
+    totalTypes = rowTypes.size() + featureTypes.size() * rawDataFiles.size() + rows.size();
+    final List<ExportColumn> columns = new ArrayList<>();
     for (DataType rowType : rowTypes) {
       if (isCanceled()) {
         return;
       }
-
-      addFormattedColumnsRecursively(formattedCols, rows, null, rowType);
-
+      addColumnsRecursively(columns, rows, null, rowType);
       processedTypes++;
     }
 
@@ -254,39 +266,107 @@ public class CSVExportModularTask extends AbstractTask implements ProcessedItems
         if (isCanceled()) {
           return;
         }
-
-        addFormattedColumnsRecursively(formattedCols, rows, raw, featureType);
+        addColumnsRecursively(columns, rows, raw, featureType);
         processedTypes++;
       }
     }
 
-    for (int i = 0; i < rows.size(); i++) {
+    // chunks of rows are read and formatted in parallel, each chunk with its own copies of the
+    // export formats (DecimalFormat is not thread-safe). The chunks are written in order. Only one
+    // batch of chunks is held in memory at a time, the next batch is formatted while the current
+    // batch is written
+    final int rowsPerBatch =
+        ROWS_PER_CHUNK * (parallel ? Math.max(1, Runtime.getRuntime().availableProcessors()) : 1);
+    CompletableFuture<StringBuilder[]> nextBatch = formatRows(rows, 0,
+        Math.min(rows.size(), rowsPerBatch), columns, parallel);
+
+    for (int batchStart = 0; batchStart < rows.size(); batchStart += rowsPerBatch) {
       // Cancel?
       if (isCanceled()) {
         return;
       }
+      final StringBuilder[] chunks = nextBatch.join();
+      final int nextStart = batchStart + rowsPerBatch;
+      nextBatch = nextStart < rows.size() ? formatRows(rows, nextStart,
+          Math.min(rows.size(), nextStart + rowsPerBatch), columns, parallel) : null;
 
-      final int row = i;
-      writer.append(
-          formattedCols.stream().map(col -> col[row]).collect(Collectors.joining(fieldSeparator)));
-      writer.newLine();
+      for (StringBuilder chunk : chunks) {
+        writer.append(chunk);
+      }
+      final int batchRows = Math.min(rows.size(), nextStart) - batchStart;
+      exportedRows.addAndGet(batchRows);
+      processedTypes += batchRows;
+    }
+  }
 
-      exportedRows.incrementAndGet();
-      processedTypes++;
+  /**
+   * Reads and formats a range of rows in chunks of {@link #ROWS_PER_CHUNK} rows
+   *
+   * @param parallel format the chunks in parallel and asynchronously
+   * @return the formatted chunks in the order of the rows
+   */
+  private CompletableFuture<StringBuilder[]> formatRows(List<FeatureListRow> rows, int startRow,
+      int endRow, List<ExportColumn> columns, boolean parallel) {
+    final int numChunks = (endRow - startRow + ROWS_PER_CHUNK - 1) / ROWS_PER_CHUNK;
+    final StringBuilder[] chunks = new StringBuilder[numChunks];
+    if (!parallel) {
+      for (int chunk = 0; chunk < numChunks; chunk++) {
+        final int start = startRow + chunk * ROWS_PER_CHUNK;
+        chunks[chunk] = formatChunk(rows, start, Math.min(endRow, start + ROWS_PER_CHUNK),
+            columns);
+      }
+      return CompletableFuture.completedFuture(chunks);
     }
+    return CompletableFuture.supplyAsync(() -> {
+      IntStream.range(0, numChunks).parallel().forEach(chunk -> {
+        final int start = startRow + chunk * ROWS_PER_CHUNK;
+        chunks[chunk] = formatChunk(rows, start, Math.min(endRow, start + ROWS_PER_CHUNK),
+            columns);
+      });
+      return chunks;
+    });
   }
 
   /**
-   * Adds columns of formatted values for each column / sub column. missing values are replaced by
-   * empty strings or default values
+   * Formats the rows of one chunk with copies of the export formats, see
+   * {@link NumberType#withExportFormatCopies(java.util.function.Supplier)}. Each row is terminated
+   * by the line separator
+   */
+  private StringBuilder formatChunk(List<FeatureListRow> rows, int startRow, int endRow,
+      List<ExportColumn> columns) {
+    return NumberType.withExportFormatCopies(() -> {
+      final StringBuilder buffer = new StringBuilder(BUFFER_CAPACITY);
+      for (int r = startRow; r < endRow; r++) {
+        final FeatureListRow row = rows.get(r);
+        for (int c = 0; c < columns.size(); c++) {
+          if (c > 0) {
+            buffer.append(fieldSeparator);
+          }
+          final ExportColumn column = columns.get(c);
+          if (column.subColumn() >= 0) {
+            buffer.append(getFormattedValue(column.getValue(row), (SubColumnsFactory) column.type(),
+                column.subColumn()));
+          } else {
+            buffer.append(getFormattedValue(column.getValue(row), column.type()));
+          }
+        }
+        buffer.append(LINE_SEPARATOR);
+      }
+      return buffer;
+    });
+  }
+
+  /**
+   * Adds a column for each column / sub column. missing values are replaced by empty strings or
+   * default values
    *
-   * @param formattedCols the target list
-   * @param rows          the data
-   * @param raw           defines the feature
-   * @param type          the feature data type to be added (and its sub columns)
+   * @param columns the target list
+   * @param rows    the data (used to check for empty columns)
+   * @param raw     defines the feature
+   * @param type    the feature data type to be added (and its sub columns)
    */
-  private void addFormattedColumnsRecursively(List<String[]> formattedCols,
-      List<FeatureListRow> rows, @Nullable RawDataFile raw, DataType type) {
+  private void addColumnsRecursively(List<ExportColumn> columns, List<FeatureListRow> rows,
+      @Nullable RawDataFile raw, DataType type) {
     if (type instanceof SubColumnsFactory subFactory) {
       int subCols = subFactory.getNumberOfSubColumns();
       for (int s = 0; s < subCols; s++) {
@@ -296,19 +376,22 @@ public class CSVExportModularTask extends AbstractTask implements ProcessedItems
             s))) {
           continue;
         }
-        // collect column data
-        final int subIndex = s;
-        String[] column = getDataStream(rows, raw, false).map(
-            data -> getFormattedValue(data, subFactory, subIndex)).toArray(String[]::new);
-        formattedCols.add(column);
+        columns.add(new ExportColumn(type, raw, s));
       }
     } else {
-      String[] column = getDataStream(rows, raw, false).map(data -> getFormattedValue(data, type))
-          .toArray(String[]::new);
-      formattedCols.add(column);
+      columns.add(new ExportColumn(type, raw, -1));
     }
   }
 
+  /**
+   * @param raw null for row types or the raw data file of the feature
+   * @return the row or its feature of raw (may be null)
+   */
+  @Nullable
+  private static ModularDataModel getDataModel(FeatureListRow row, @Nullable RawDataFile raw) {
+    return raw == null ? row : (ModularFeature) row.getFeature(raw);
+  }
+
   /**
    * Data stream for rows or all features
    *
@@ -329,17 +412,15 @@ public class CSVExportModularTask extends AbstractTask implements ProcessedItems
   }
 
 
-  private String getFormattedValue(@Nullable ModularDataModel data, SubColumnsFactory subColFactory,
+  private String getFormattedValue(@Nullable Object value, SubColumnsFactory subColFactory,
       int col) {
-    Object value = data == null ? null : data.get((DataType) subColFactory);
     if (value == null) {
       value = ((DataType) subColFactory).getDefaultValue();
     }
     return csvEscape(subColFactory.getFormattedSubColExportValue(col, value));
   }
 
-  private String getFormattedValue(@Nullable ModularDataModel data, DataType type) {
-    Object value = data == null ? null : data.get(type);
+  private String getFormattedValue(@Nullable Object value, DataType type) {
     if (value == null) {
       value = type.getDefaultValue();
     }
@@ -455,4 +536,24 @@ public class CSVExportModularTask extends AbstractTask implements ProcessedItems
           featureList.getName(), numMS2, numMS2End));
     }
   }
+
+  /**
+   * One column (or sub column) of the export
+   *
+   * @param type      the row or feature type, the parent type of sub columns
+   * @param raw       null for row types or the raw data file of the feature
+   * @param subColumn the sub column index or -1
+   */
+  @SuppressWarnings("rawtypes")
+  private record ExportColumn(@NotNull DataType type, @Nullable RawDataFile raw, int subColumn) {
+
+    /**
+     * @return the value of the row or its feature, sub columns return the value of the parent type
+     */
+    @Nullable
+    Object getValue(FeatureListRow row) {
+      final ModularDataModel data = getDataModel(row, raw);
+      return data == null ? null : data.get(type);
+    }
+  }
 }
@@ -0,0 +1,363 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.io.import_features_columnar;
+
+import static io.github.mzmine.modules.io.export_features_columnar.ColumnarFeatureTableFormat.DICTIONARY_INDEX_TYPE;
+import static io.github.mzmine.modules.io.export_features_columnar.ColumnarFeatureTableFormat.NO_RAW_FILE;
+
+import io.github.mzmine.datamodel.FeatureStatus;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.features.ModularDataModel;
+import io.github.mzmine.datamodel.features.ModularFeature;
+import io.github.mzmine.datamodel.features.ModularFeatureList;
+import io.github.mzmine.datamodel.features.ModularFeatureListRow;
+import io.github.mzmine.datamodel.features.types.DataType;
+import io.github.mzmine.datamodel.features.types.DataTypes;
+import io.github.mzmine.datamodel.features.types.numbers.IDType;
+import io.github.mzmine.modules.io.export_features_columnar.ColumnarFeatureTableFormat;
+import io.github.mzmine.modules.io.export_features_columnar.ColumnarFeatureTableFormat.Encoding;
+import io.github.mzmine.util.MemoryMapStorage;
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float4Vector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.dictionary.Dictionary;
+import org.apache.arrow.vector.ipc.ArrowFileReader;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.DictionaryEncoding;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Reads files of the {@link ColumnarFeatureTableFormat} into a new {@link ModularFeatureList}.
+ * Typed, string and enum columns are restored for all data types that are known by
+ * {@link DataTypes}. Formatted columns of complex types are skipped. Corrupt or foreign files are
+ * reported as {@link IOException}.
+ */
+public class ColumnarFeatureTableReader {
+
+  private static final Logger logger = Logger.getLogger(
+      ColumnarFeatureTableReader.class.getName());
+
+  private ColumnarFeatureTableReader() {
+  }
+
+  /**
+   * @param channel      the input, is closed
+   * @param projectFiles raw data files are matched by name
+   * @param storage      storage for the new feature list
+   * @return the new feature list
+   * @throws IOException if the input is no columnar feature table, is corrupt, or a raw data file
+   *                     is missing
+   */
+  @NotNull
+  public static ModularFeatureList read(@NotNull SeekableByteChannel channel,
+      @NotNull List<RawDataFile> projectFiles, @Nullable MemoryMapStorage storage)
+      throws IOException {
+    try (BufferAllocator allocator = new RootAllocator();
+        ArrowFileReader reader = new ArrowFileReader(channel, allocator)) {
+      final VectorSchemaRoot root;
+      try {
+        root = reader.getVectorSchemaRoot();
+      } catch (RuntimeException e) {
+        throw new IOException("Not an Arrow IPC file: " + e.getMessage(), e);
+      }
+      final Schema schema = root.getSchema();
+      final Map<String, String> metadata = schema.getCustomMetadata();
+      if (metadata == null || !metadata.containsKey(
+          ColumnarFeatureTableFormat.META_FEATURE_LIST)) {
+        throw new IOException("Not a columnar feature table file");
+      }
+      final int version = parseInt(metadata.get(ColumnarFeatureTableFormat.META_VERSION),
+          "version");
+      if (version > ColumnarFeatureTableFormat.VERSION) {
+        throw new IOException("Unsupported columnar feature table version " + version);
+      }
+
+      final RawDataFile[] raws = new RawDataFile[parseInt(
+          metadata.get(ColumnarFeatureTableFormat.META_RAW_FILES), "number of raw data files")];
+      for (int r = 0; r < raws.length; r++) {
+        final String rawName = metadata.get(ColumnarFeatureTableFormat.META_RAW_FILE_PREFIX + r);
+        raws[r] = projectFiles.stream().filter(raw -> raw.getName().equals(rawName)).findFirst()
+            .orElseThrow(() -> new IOException(
+                "Raw data file " + rawName + " is required but not loaded in the project"));
+      }
+
+      final Column[] columns = readColumns(schema, raws.length);
+      final ModularFeatureList flist = new ModularFeatureList(
+          metadata.get(ColumnarFeatureTableFormat.META_FEATURE_LIST), storage, raws);
+      final List<DataType> rowTypes = new ArrayList<>();
+      final List<DataType> featureTypes = new ArrayList<>();
+      int idColumn = -1;
+      for (int c = 0; c < columns.length; c++) {
+        final Column col = columns[c];
+        if (col.type() == null) {
+          continue;
+        }
+        if (col.rawIndex() == NO_RAW_FILE) {
+          rowTypes.add(col.type());
+          if (col.type() instanceof IDType) {
+            idColumn = c;
+          }
+        } else {
+          featureTypes.add(col.type());
+        }
+      }
+      flist.addRowType(rowTypes);
+      flist.addFeatureType(featureTypes);
+
+      final int[] presenceColumns = new int[raws.length];
+      for (int c = 0; c < columns.length; c++) {
+        if (columns[c].presence()) {
+          presenceColumns[columns[c].rawIndex()] = c;
+        }
+      }
+
+      final String[][] dictionaries = new String[columns.length][];
+      int rowOffset = 0;
+      while (loadNextBatch(reader)) {
+        final List<FieldVector> vectors = root.getFieldVectors();
+        for (int c = 0; c < columns.length; c++) {
+          if (columns[c].type() != null && columns[c].dictionary() != null
+              && dictionaries[c] == null) {
+            dictionaries[c] = readDictionary(reader, columns[c]);
+          }
+        }
+
+        for (int i = 0; i < root.getRowCount(); i++) {
+          final Object id = idColumn == -1 ? null
+              : readValue(vectors.get(idColumn), i, columns[idColumn], null);
+          final ModularFeatureListRow row = new ModularFeatureListRow(flist,
+              id != null ? (Integer) id : rowOffset + i + 1);
+
+          // features first, row bindings may change row values that are set afterwards
+          for (int r = 0; r < raws.length; r++) {
+            if (((BitVector) vectors.get(presenceColumns[r])).get(i) == 0) {
+              continue;
+            }
+            final ModularFeature feature = new ModularFeature(flist, raws[r],
+                FeatureStatus.DETECTED);
+            setValues(feature, i, r, columns, vectors, dictionaries);
+            row.addFeature(raws[r], feature);
+          }
+          setValues(row, i, NO_RAW_FILE, columns, vectors, dictionaries);
+          flist.addRow(row);
+        }
+        rowOffset += root.getRowCount();
+      }
+      return flist;
+    }
+  }
+
+  private static boolean loadNextBatch(ArrowFileReader reader) throws IOException {
+    try {
+      return reader.loadNextBatch();
+    } catch (RuntimeException e) {
+      throw new IOException("Corrupt record batch: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Checks the fields of the schema. Columns of unknown data types or with a different encoding
+   * are skipped.
+   */
+  private static Column[] readColumns(Schema schema, int numRawFiles) throws IOException {
+    final List<Field> fields = schema.getFields();
+    final Column[] columns = new Column[fields.size()];
+    final boolean[] presence = new boolean[numRawFiles];
+    for (int c = 0; c < columns.length; c++) {
+      final Field field = fields.get(c);
+      final Map<String, String> metadata = field.getMetadata();
+      final String present = metadata.get(ColumnarFeatureTableFormat.FIELD_FEATURE_PRESENT);
+      if (present != null) {
+        final int rawIndex = parseRawIndex(present, numRawFiles, field);
+        if (rawIndex == NO_RAW_FILE || !(field.getType() instanceof ArrowType.Bool)) {
+          throw new IOException("Invalid feature presence column " + field.getName());
+        }
+        presence[rawIndex] = true;
+        columns[c] = new Column(field.getName(), null, null, rawIndex, null, true);
+        continue;
+      }
+
+      final String typeId = metadata.get(ColumnarFeatureTableFormat.FIELD_TYPE);
+      final Encoding encoding;
+      try {
+        encoding = Encoding.valueOf(metadata.get(ColumnarFeatureTableFormat.FIELD_ENCODING));
+      } catch (IllegalArgumentException | NullPointerException e) {
+        throw new IOException("Unknown encoding of column " + field.getName(), e);
+      }
+      final int rawIndex = parseRawIndex(metadata.get(ColumnarFeatureTableFormat.FIELD_RAW_FILE),
+          numRawFiles, field);
+      final DictionaryEncoding dictionary = field.getDictionary();
+      final boolean validType = encoding.isDictionary() ? dictionary != null
+          && DICTIONARY_INDEX_TYPE.equals(dictionary.getIndexType())
+          && DICTIONARY_INDEX_TYPE.equals(field.getType())
+          : dictionary == null && encoding.getArrowType().equals(field.getType());
+      if (typeId == null || !validType) {
+        throw new IOException("Invalid column " + field.getName());
+      }
+      columns[c] = new Column(field.getName(), getRestorableType(field.getName(), typeId,
+          encoding), encoding, rawIndex, dictionary, false);
+    }
+    for (int r = 0; r < numRawFiles; r++) {
+      if (!presence[r]) {
+        throw new IOException("Missing feature presence column of raw data file " + r);
+      }
+    }
+    return columns;
+  }
+
+  private static int parseRawIndex(@Nullable String value, int numRawFiles, Field field)
+      throws IOException {
+    final int rawIndex = parseInt(value, "raw data file index of " + field.getName());
+    if (rawIndex < NO_RAW_FILE || rawIndex >= numRawFiles) {
+      throw new IOException("Raw data file index out of bounds in column " + field.getName());
+    }
+    return rawIndex;
+  }
+
+  private static int parseInt(@Nullable String value, String name) throws IOException {
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new IOException("Invalid " + name + ": " + value, e);
+    }
+  }
+
+  /**
+   * @return the dictionary values of a dictionary encoded column
+   */
+  private static String[] readDictionary(ArrowFileReader reader, Column col) throws IOException {
+    final Dictionary dictionary = reader.getDictionaryVectors().get(col.dictionary().getId());
+    if (dictionary == null || !(dictionary.getVector() instanceof VarCharVector values)) {
+      throw new IOException("Missing dictionary of column " + col.name());
+    }
+    final String[] entries = new String[values.getValueCount()];
+    for (int d = 0; d < entries.length; d++) {
+      entries[d] = values.isNull(d) ? null : values.getObject(d).toString();
+    }
+    return entries;
+  }
+
+  private static void setValues(ModularDataModel model, int rowIndex, int rawIndex,
+      Column[] columns, List<FieldVector> vectors, String[][] dictionaries) throws IOException {
+    for (int c = 0; c < columns.length; c++) {
+      final Column col = columns[c];
+      if (col.type() == null || col.rawIndex() != rawIndex) {
+        continue;
+      }
+      final Object value = readValue(vectors.get(c), rowIndex, col, dictionaries[c]);
+      if (value != null) {
+        model.set(col.type(), value);
+      }
+    }
+  }
+
+  /**
+   * @param dictionary the values of dictionary encoded columns
+   * @return the boxed value or enum constant, null if absent
+   */
+  @Nullable
+  private static Object readValue(FieldVector vector, int index, Column col,
+      @Nullable String[] dictionary) throws IOException {
+    if (vector.isNull(index)) {
+      return null;
+    }
+    return switch (col.encoding()) {
+      case FLOAT64 -> ((Float8Vector) vector).get(index);
+      case FLOAT32 -> ((Float4Vector) vector).get(index);
+      case INT32 -> ((IntVector) vector).get(index);
+      case INT64 -> ((BigIntVector) vector).get(index);
+      case BOOLEAN -> ((BitVector) vector).get(index) != 0;
+      case STRING, ENUM, FORMATTED -> {
+        final int code = ((IntVector) vector).get(index);
+        if (dictionary == null || code < 0 || code >= dictionary.length) {
+          throw new IOException(
+              "Dictionary index " + code + " out of bounds in column " + col.name());
+        }
+        yield col.encoding() == Encoding.ENUM ? toEnumConstant(col.type().getValueClass(),
+            dictionary[code]) : dictionary[code];
+      }
+    };
+  }
+
+  /**
+   * @return the data type if the column values can be restored
+   */
+  @Nullable
+  private static DataType<?> getRestorableType(String name, String typeId, Encoding encoding) {
+    if (encoding == Encoding.FORMATTED) {
+      return null;
+    }
+    final DataType<?> type = DataTypes.getTypeForId(typeId);
+    if (type == null || Encoding.forValueClass(type.getValueClass()) != encoding) {
+      logger.fine(() -> "Cannot restore column " + name + " of type " + typeId);
+      return null;
+    }
+    return type;
+  }
+
+  /**
+   * @return the enum constant or null for unknown names
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  @Nullable
+  private static Object toEnumConstant(Class<?> enumClass, @Nullable String name) {
+    if (name == null) {
+      return null;
+    }
+    try {
+      return Enum.valueOf((Class) enumClass, name);
+    } catch (IllegalArgumentException e) {
+      logger.fine(() -> "Unknown constant of " + enumClass.getName());
+      return null;
+    }
+  }
+
+  /**
+   * @param type       the data type to restore or null if the column is skipped
+   * @param dictionary the dictionary encoding or null
+   * @param presence   true for the feature presence column of a raw data file
+   */
+  private record Column(String name, @Nullable DataType type, @Nullable Encoding encoding,
+                        int rawIndex, @Nullable DictionaryEncoding dictionary, boolean presence) {
+
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.io.import_features_columnar;
+
+import io.github.mzmine.modules.io.export_features_columnar.ColumnarFeatureTableFormat;
+import io.github.mzmine.parameters.Parameter;
+import io.github.mzmine.parameters.impl.SimpleParameterSet;
+import io.github.mzmine.parameters.parametertypes.filenames.FileNamesParameter;
+import java.util.List;
+import javafx.stage.FileChooser.ExtensionFilter;
+
+public class ColumnarImportParameters extends SimpleParameterSet {
+
+  private static final List<ExtensionFilter> filters = List.of(
+      new ExtensionFilter("Arrow IPC feature table",
+          "*." + ColumnarFeatureTableFormat.FILE_EXTENSION));
+
+  public static final FileNamesParameter filenames = new FileNamesParameter("Files",
+      "Columnar feature table files to import. The raw data files need to be loaded in the project",
+      filters);
+
+  public ColumnarImportParameters() {
+    super(new Parameter[]{filenames});
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.io.import_features_columnar;
+
+import io.github.mzmine.datamodel.MZmineProject;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.features.ModularFeatureList;
+import io.github.mzmine.datamodel.features.SimpleFeatureListAppliedMethod;
+import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.taskcontrol.AbstractTask;
+import io.github.mzmine.taskcontrol.TaskStatus;
+import io.github.mzmine.util.MemoryMapStorage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Imports feature lists from Arrow IPC files of the columnar feature table format
+ */
+public class ColumnarImportTask extends AbstractTask {
+
+  private static final Logger logger = Logger.getLogger(ColumnarImportTask.class.getName());
+  private final MZmineProject project;
+  private final File[] files;
+  private final ParameterSet parameters;
+  private int importedFiles = 0;
+
+  ColumnarImportTask(MZmineProject project, ParameterSet parameters,
+      @Nullable MemoryMapStorage storage, @NotNull Instant moduleCallDate) {
+    super(storage, moduleCallDate);
+    this.project = project;
+    this.parameters = parameters;
+    files = parameters.getValue(ColumnarImportParameters.filenames);
+  }
+
+  @Override
+  public String getTaskDescription() {
+    return "Importing columnar feature table files";
+  }
+
+  @Override
+  public double getFinishedPercentage() {
+    return files.length == 0 ? 0 : importedFiles / (double) files.length;
+  }
+
+  @Override
+  public void run() {
+    setStatus(TaskStatus.PROCESSING);
+
+    final List<RawDataFile> projectFiles = List.of(project.getDataFiles());
+    for (File file : files) {
+      if (isCanceled()) {
+        return;
+      }
+      final ModularFeatureList flist;
+      try (SeekableByteChannel in = Files.newByteChannel(file.toPath())) {
+        flist = ColumnarFeatureTableReader.read(in, projectFiles, getMemoryMapStorage());
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Cannot import columnar feature table " + file, e);
+        setErrorMessage(
+            "Could not import feature list from file " + file.getName() + ": " + e.getMessage());
+        setStatus(TaskStatus.ERROR);
+        return;
+      }
+
+      for (RawDataFile raw : flist.getRawDataFiles()) {
+        flist.setSelectedScans(raw, raw.getScans());
+      }
+      flist.addDescriptionOfAppliedTask(
+          new SimpleFeatureListAppliedMethod(ColumnarImportModule.class, parameters,
+              getModuleCallDate()));
+      project.addFeatureList(flist);
+      importedFiles++;
+    }
+
+    if (getStatus() == TaskStatus.PROCESSING) {
+      setStatus(TaskStatus.FINISHED);
+    }
+  }
+}
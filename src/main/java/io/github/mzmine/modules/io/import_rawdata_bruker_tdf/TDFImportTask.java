@@ -32,7 +32,9 @@ import io.github.mzmine.datamodel.IMSRawDataFile;
 import io.github.mzmine.datamodel.MZmineProject;
 import io.github.mzmine.datamodel.features.SimpleFeatureListAppliedMethod;
 import io.github.mzmine.datamodel.impl.BuildingMobilityScan;
+import io.github.mzmine.datamodel.impl.CompressedFrameBlock;
 import io.github.mzmine.datamodel.impl.IMSImagingRawDataFileImpl;
+import io.github.mzmine.datamodel.impl.MobilityScanStorage;
 import io.github.mzmine.datamodel.impl.PasefMsMsInfoImpl;
 import io.github.mzmine.datamodel.impl.SimpleFrame;
 import io.github.mzmine.datamodel.impl.masslist.ScanPointerMassList;
@@ -329,6 +331,9 @@ public class TDFImportTask extends AbstractTask {
     logger.info(
         "Imported " + rawDataFileName + ". Loaded " + newMZmineFile.getNumOfScans() + " scans and "
             + newMZmineFile.getNumberOfFrames() + " frames.");
+    if (MobilityScanStorage.isCompressionEnabled()) {
+      CompressedFrameBlock.logCompressionStatistics(newMZmineFile);
+    }
     project.addFile(newMZmineFile);
 
     setStatus(TaskStatus.FINISHED);
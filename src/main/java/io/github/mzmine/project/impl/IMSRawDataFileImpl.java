@@ -273,7 +273,7 @@ public class IMSRawDataFileImpl extends RawDataFileImpl implements IMSRawDataFil
    *
    * @param proposedValue The proposed number of data points.
    */
-  public void updateMaxRawDataPoints(int proposedValue) {
+  public synchronized void updateMaxRawDataPoints(int proposedValue) {
     if (proposedValue > getMaxRawDataPoints()) {
       maxRawDataPoints = proposedValue;
     }
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.taskcontrol;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Resources used by one task, recorded by the {@link TaskProfiler}. CPU time and allocations are
+ * measured on the worker thread of the task; work delegated to other threads (e.g., parallel
+ * streams) is not included. Unsupported or unavailable values are -1.
+ *
+ * @param description    the task description
+ * @param taskClass      the simple name of the task class
+ * @param step           the 1-based batch step or -1 if the task was started outside a batch
+ * @param module         the module of the batch step or null
+ * @param rawFile        the raw data file processed by the task or null if unknown
+ * @param status         the final status of the task
+ * @param startNanos     start time relative to the start of the profiler
+ * @param wallNanos      elapsed wall time
+ * @param cpuNanos       CPU time of the worker thread
+ * @param allocatedBytes bytes allocated by the worker thread
+ * @param storageId      the id of the {@link io.github.mzmine.util.MemoryMapStorage} of the task
+ * @param storageStart   bytes written to the storage before the task started
+ * @param storageEnd     bytes written to the storage when the task ended
+ * @param processedItems items processed by a {@link ProcessedItemsCounter}
+ * @param cacheHits      scans and mass lists read from the
+ *                       {@link io.github.mzmine.datamodel.data_access.ScanDataCache} or -1 if the
+ *                       cache is disabled
+ * @param cacheMisses    scans and mass lists that were not in the cache or -1 if the cache is
+ *                       disabled
+ */
+public record TaskMetrics(@NotNull String description, @NotNull String taskClass, int step,
+                          @Nullable String module, @Nullable String rawFile,
+                          @NotNull TaskStatus status, long startNanos, long wallNanos,
+                          long cpuNanos, long allocatedBytes, long storageId, long storageStart,
+                          long storageEnd, int processedItems, long cacheHits,
+                          long cacheMisses) {
+
+  /**
+   * @return start + wall time relative to the start of the profiler
+   */
+  public long endNanos() {
+    return startNanos + wallNanos;
+  }
+
+  /**
+   * Bytes written to the memory mapped storage during this task. Tasks that run in parallel and
+   * share one storage all count the writes of each other.
+   *
+   * @return written bytes or 0 if the task has no storage
+   */
+  public long storageBytes() {
+    return storageId < 0 ? 0 : storageEnd - storageStart;
+  }
+}
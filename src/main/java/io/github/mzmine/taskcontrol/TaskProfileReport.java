@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.taskcontrol;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.mzmine.util.files.FileAndPathUtil;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Aggregates the {@link TaskMetrics} of a profiled run per batch step, raw data file and task
+ * class. The report is written as JSON (summary, aggregates and all tasks) and as CSV with one row
+ * per aggregate or task.
+ */
+public class TaskProfileReport {
+
+  private static final Logger logger = Logger.getLogger(TaskProfileReport.class.getName());
+  private static final String[] CSV_HEADER = {"level", "name", "tasks", "elapsed_ms", "wall_ms",
+      "cpu_ms", "allocated_bytes", "storage_bytes", "processed_items", "items_per_s", "cache_hits",
+      "cache_misses"};
+
+  private final Instant start;
+  private final long wallNanos;
+  private final long processCpuNanos;
+  private final List<TaskMetrics> tasks;
+  private final Summary total;
+  private final List<Summary> steps;
+  private final List<Summary> rawFiles;
+  private final List<Summary> taskClasses;
+
+  /**
+   * @param start           start of the profile
+   * @param wallNanos       duration of the profile
+   * @param processCpuNanos CPU time of all threads of the process or -1
+   * @param tasks           the recorded tasks
+   */
+  public TaskProfileReport(@Nullable Instant start, long wallNanos, long processCpuNanos,
+      @NotNull List<TaskMetrics> tasks) {
+    this.start = start;
+    this.wallNanos = wallNanos;
+    this.processCpuNanos = processCpuNanos;
+    this.tasks = tasks.stream().sorted(Comparator.comparingLong(TaskMetrics::startNanos)).toList();
+    steps = summarize(this.tasks, m -> m.step() < 0 ? "outside of batch"
+        : "#%d %s".formatted(m.step(), m.module()));
+    rawFiles = summarize(this.tasks, TaskMetrics::rawFile);
+    taskClasses = summarize(this.tasks, TaskMetrics::taskClass);
+    // the whole run with the CPU time of all threads
+    final Summary all = summarize(this.tasks, m -> "total").stream().findFirst()
+        .orElse(new Summary("total", 0, 0, 0, 0, 0, 0, 0, 0, 0, 0));
+    total = new Summary(all.name(), all.tasks(), wallNanos, all.wallNanos(), processCpuNanos,
+        all.allocatedBytes(), all.storageBytes(), all.processedItems(), all.itemsPerSecond(),
+        all.cacheHits(), all.cacheMisses());
+  }
+
+  /**
+   * Groups the metrics by key in the order of the first start. Storage bytes are counted once per
+   * storage of a group, as the written range of bytes from the first start to the last end of its
+   * tasks.
+   *
+   * @param metrics the metrics
+   * @param key     the group name, metrics with a null key are skipped
+   * @return one summary per group
+   */
+  @NotNull
+  public static List<Summary> summarize(@NotNull Collection<TaskMetrics> metrics,
+      @NotNull Function<TaskMetrics, String> key) {
+    final Map<String, List<TaskMetrics>> groups = new LinkedHashMap<>();
+    metrics.stream().sorted(Comparator.comparingLong(TaskMetrics::startNanos)).forEach(m -> {
+      final String name = key.apply(m);
+      if (name != null) {
+        groups.computeIfAbsent(name, k -> new ArrayList<>()).add(m);
+      }
+    });
+
+    final List<Summary> summaries = new ArrayList<>(groups.size());
+    for (var group : groups.entrySet()) {
+      long first = Long.MAX_VALUE, last = Long.MIN_VALUE;
+      long wall = 0, cpu = 0, allocated = 0, items = 0, hits = 0, misses = 0;
+      // storage id: lowest start and highest end of the written bytes
+      final Map<Long, long[]> storages = new HashMap<>();
+      for (TaskMetrics m : group.getValue()) {
+        first = Math.min(first, m.startNanos());
+        last = Math.max(last, m.endNanos());
+        wall += m.wallNanos();
+        cpu += Math.max(0, m.cpuNanos());
+        allocated += Math.max(0, m.allocatedBytes());
+        items += Math.max(0, m.processedItems());
+        hits += Math.max(0, m.cacheHits());
+        misses += Math.max(0, m.cacheMisses());
+        if (m.storageId() >= 0) {
+          storages.merge(m.storageId(), new long[]{m.storageStart(), m.storageEnd()},
+              (a, b) -> new long[]{Math.min(a[0], b[0]), Math.max(a[1], b[1])});
+        }
+      }
+      final long storage = storages.values().stream().mapToLong(range -> range[1] - range[0])
+          .sum();
+      final long elapsed = last - first;
+      final double itemsPerSecond = elapsed > 0 ? items / (elapsed / 1E9) : 0;
+      summaries.add(
+          new Summary(group.getKey(), group.getValue().size(), elapsed, wall, cpu, allocated,
+              storage, items, itemsPerSecond, hits, misses));
+    }
+    return summaries;
+  }
+
+  /**
+   * Writes the report as file.json and file.csv
+   *
+   * @param file the report file, the format extension is replaced
+   */
+  public void write(@NotNull File file) throws IOException {
+    final File json = FileAndPathUtil.getRealFilePath(file.getAbsoluteFile(), "json");
+    final File csv = FileAndPathUtil.getRealFilePath(file.getAbsoluteFile(), "csv");
+    FileAndPathUtil.createDirectory(json.getParentFile());
+
+    final Map<String, Object> report = new LinkedHashMap<>();
+    report.put("start", start == null ? null : start.toString());
+    report.put("wallNanos", wallNanos);
+    report.put("processCpuNanos", processCpuNanos);
+    report.put("total", total);
+    report.put("steps", steps);
+    report.put("rawFiles", rawFiles);
+    report.put("taskClasses", taskClasses);
+    report.put("tasks", tasks);
+    new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(json, report);
+
+    try (BufferedWriter writer = Files.newBufferedWriter(csv.toPath(), StandardCharsets.UTF_8)) {
+      writer.write(String.join(",", CSV_HEADER));
+      writer.newLine();
+      writeCsv(writer, "total", total);
+      for (Summary step : steps) {
+        writeCsv(writer, "step", step);
+      }
+      for (Summary raw : rawFiles) {
+        writeCsv(writer, "raw file", raw);
+      }
+      for (Summary taskClass : taskClasses) {
+        writeCsv(writer, "task class", taskClass);
+      }
+      for (TaskMetrics task : tasks) {
+        writeCsv(writer, "task",
+            new Summary(task.description(), 1, task.wallNanos(), task.wallNanos(),
+                task.cpuNanos(), task.allocatedBytes(), task.storageBytes(),
+                task.processedItems(), task.processedItems() > 0 && task.wallNanos() > 0
+                ? task.processedItems() / (task.wallNanos() / 1E9) : 0, task.cacheHits(),
+                task.cacheMisses()));
+      }
+    }
+    logger.info("Wrote task profile to " + json.getAbsolutePath() + " and " + csv.getName());
+  }
+
+  private static void writeCsv(BufferedWriter writer, String level, Summary s) throws IOException {
+    writer.write(String.join(",", level, escape(s.name()), String.valueOf(s.tasks()),
+        millis(s.elapsedNanos()), millis(s.wallNanos()), millis(s.cpuNanos()),
+        String.valueOf(s.allocatedBytes()), String.valueOf(s.storageBytes()),
+        String.valueOf(s.processedItems()),
+        String.format(Locale.ENGLISH, "%.2f", s.itemsPerSecond()), String.valueOf(s.cacheHits()),
+        String.valueOf(s.cacheMisses())));
+    writer.newLine();
+  }
+
+  private static String millis(long nanos) {
+    return nanos < 0 ? "-1" : String.format(Locale.ENGLISH, "%.3f", nanos / 1E6);
+  }
+
+  private static String escape(String value) {
+    return "\"" + value.replace("\"", "\"\"") + "\"";
+  }
+
+  @NotNull
+  public Summary getTotal() {
+    return total;
+  }
+
+  @NotNull
+  public List<Summary> getSteps() {
+    return steps;
+  }
+
+  @NotNull
+  public List<Summary> getRawFiles() {
+    return rawFiles;
+  }
+
+  @NotNull
+  public List<Summary> getTaskClasses() {
+    return taskClasses;
+  }
+
+  /**
+   * Aggregated metrics of tasks. Times in nanoseconds.
+   *
+   * @param elapsedNanos   time from the first start to the last end of all tasks
+   * @param wallNanos      sum of the wall times of all tasks
+   * @param itemsPerSecond processed items per elapsed second
+   * @param cacheHits      scans and mass lists read from the scan data cache
+   * @param cacheMisses    scans and mass lists that were not in the scan data cache
+   */
+  public record Summary(String name, int tasks, long elapsedNanos, long wallNanos, long cpuNanos,
+                        long allocatedBytes, long storageBytes, long processedItems,
+                        double itemsPerSecond, long cacheHits, long cacheMisses) {
+
+  }
+}
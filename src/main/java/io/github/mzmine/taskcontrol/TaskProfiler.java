@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.taskcontrol;
+
+import com.sun.management.OperatingSystemMXBean;
+import com.sun.management.ThreadMXBean;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.data_access.ScanDataCache;
+import io.github.mzmine.util.MemoryMapStorage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Records the resources of all tasks that run in the task controller (wall and CPU time, allocated
+ * bytes, bytes written to the memory mapped storage, processed items, hits and misses of the
+ * {@link ScanDataCache}). The batch mode assigns the
+ * step and raw data file to its tasks so that the {@link TaskProfileReport} can aggregate the
+ * metrics per step, raw data file and task class. The profiler is disabled by default; the worker
+ * threads only check {@link #isEnabled()} in this case.
+ */
+public final class TaskProfiler {
+
+  private static final Map<Task, StepContext> contexts = Collections.synchronizedMap(
+      new IdentityHashMap<>());
+  private static final Queue<TaskMetrics> metrics = new ConcurrentLinkedQueue<>();
+  // tasks that are canceled before they run never reach start(task)
+  private static final TaskStatusListener removeCanceled = (task, newStatus, oldStatus) -> {
+    if (newStatus == TaskStatus.CANCELED) {
+      contexts.remove(task);
+    }
+  };
+  private static volatile boolean enabled = false;
+  private static volatile long startNanos;
+  private static volatile Instant startTime;
+  private static volatile long startProcessCpuNanos;
+
+  private TaskProfiler() {
+  }
+
+  /**
+   * @return true if tasks are profiled
+   */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Enabling clears all recorded metrics and starts a new profile
+   *
+   * @param enabled enable or disable the profiler
+   */
+  public static void setEnabled(boolean enabled) {
+    if (enabled) {
+      metrics.clear();
+      contexts.clear();
+      startTime = Instant.now();
+      startNanos = System.nanoTime();
+      startProcessCpuNanos = getProcessCpuNanos();
+      final var threads = getThreadBean();
+      if (threads != null && threads.isThreadAllocatedMemorySupported()) {
+        threads.setThreadAllocatedMemoryEnabled(true);
+      }
+    }
+    TaskProfiler.enabled = enabled;
+  }
+
+  /**
+   * Assigns a batch step to tasks before they are added to the task controller. Does nothing if the
+   * profiler is disabled. The assignment is removed when the task runs or is canceled.
+   *
+   * @param tasks   the tasks of the step
+   * @param step    1-based index of the step
+   * @param module  the module name
+   * @param rawFile the processed raw data file or null if the tasks process multiple files
+   */
+  public static void setBatchStep(@NotNull Collection<? extends Task> tasks, int step,
+      @NotNull String module, @Nullable RawDataFile rawFile) {
+    if (!enabled) {
+      return;
+    }
+    final StepContext context = new StepContext(step, module,
+        rawFile == null ? null : rawFile.getName());
+    for (Task task : tasks) {
+      if (task.getStatus() == TaskStatus.CANCELED) {
+        continue;
+      }
+      contexts.put(task, context);
+      task.addTaskStatusListener(removeCanceled);
+    }
+  }
+
+  /**
+   * Starts the measurement of a task on the current thread, which needs to be the thread that runs
+   * the task.
+   *
+   * @return the measurement or null if the profiler is disabled
+   */
+  @Nullable
+  public static Measurement start(@NotNull Task task) {
+    if (!enabled) {
+      return null;
+    }
+    return new Measurement(task, contexts.remove(task));
+  }
+
+  /**
+   * @return all metrics recorded since the profiler was enabled
+   */
+  @NotNull
+  public static List<TaskMetrics> getMetrics() {
+    return new ArrayList<>(metrics);
+  }
+
+  /**
+   * Writes the JSON report to the file and the same report as CSV next to it
+   *
+   * @param file the report file, the format extensions are added
+   */
+  public static void writeReport(@NotNull File file) throws IOException {
+    final long wallNanos = System.nanoTime() - startNanos;
+    final long processCpu = getProcessCpuNanos();
+    final long cpuNanos = processCpu < 0 || startProcessCpuNanos < 0 ? -1
+        : processCpu - startProcessCpuNanos;
+    new TaskProfileReport(startTime, wallNanos, cpuNanos, getMetrics()).write(file);
+  }
+
+  @Nullable
+  private static ThreadMXBean getThreadBean() {
+    return ManagementFactory.getThreadMXBean() instanceof ThreadMXBean bean
+        ? bean : null;
+  }
+
+  private static long getProcessCpuNanos() {
+    return ManagementFactory.getOperatingSystemMXBean() instanceof OperatingSystemMXBean os
+        ? os.getProcessCpuTime() : -1;
+  }
+
+  private record StepContext(int step, String module, String rawFile) {
+
+  }
+
+  /**
+   * Measurement of one running task
+   */
+  public static final class Measurement {
+
+    private final Task task;
+    private final StepContext context;
+    private final ThreadMXBean threads = getThreadBean();
+    private final MemoryMapStorage storage;
+    private final long storageStart;
+    private final long cpuStart;
+    private final long allocatedStart;
+    private final long start;
+
+    private Measurement(Task task, @Nullable StepContext context) {
+      this.task = task;
+      this.context = context;
+      storage =
+          task instanceof AbstractTask abstractTask ? abstractTask.getMemoryMapStorage() : null;
+      storageStart = storage == null ? 0 : storage.getBytesWritten();
+      cpuStart = cpuTime();
+      allocatedStart = allocatedBytes();
+      start = System.nanoTime();
+    }
+
+    /**
+     * Records the metrics of the task. Needs to be called on the thread that started the
+     * measurement, before the task reference is removed.
+     *
+     * @param cacheStatistics the scan data cache statistics of the task or null if the cache is
+     *                        disabled
+     */
+    public void finish(@Nullable ScanDataCache.Statistics cacheStatistics) {
+      final long end = System.nanoTime();
+      final long cpu = cpuTime();
+      final long allocated = allocatedBytes();
+      final int items =
+          task instanceof ProcessedItemsCounter counter ? counter.getProcessedItems() : -1;
+
+      metrics.add(new TaskMetrics(task.getTaskDescription(), task.getClass().getSimpleName(),
+          context == null ? -1 : context.step(), context == null ? null : context.module(),
+          context == null ? null : context.rawFile(), task.getStatus(), start - startNanos,
+          end - start, cpu < 0 || cpuStart < 0 ? -1 : cpu - cpuStart,
+          allocated < 0 || allocatedStart < 0 ? -1 : allocated - allocatedStart,
+          storage == null ? -1 : storage.getId(), storageStart,
+          storage == null ? 0 : storage.getBytesWritten(), items,
+          cacheStatistics == null ? -1 : cacheStatistics.getHits(),
+          cacheStatistics == null ? -1 : cacheStatistics.getMisses()));
+    }
+
+    private long cpuTime() {
+      return threads != null && threads.isCurrentThreadCpuTimeSupported()
+          ? threads.getCurrentThreadCpuTime() : -1;
+    }
+
+    private long allocatedBytes() {
+      return threads != null && threads.isThreadAllocatedMemoryEnabled()
+          ? threads.getCurrentThreadAllocatedBytes() : -1;
+    }
+  }
+}
@@ -25,8 +25,10 @@
 
 package io.github.mzmine.taskcontrol.impl;
 
+import io.github.mzmine.datamodel.data_access.ScanDataCache;
 import io.github.mzmine.main.MZmineCore;
 import io.github.mzmine.taskcontrol.Task;
+import io.github.mzmine.taskcontrol.TaskProfiler;
 import io.github.mzmine.taskcontrol.TaskStatus;
 import io.github.mzmine.util.ExceptionUtils;
 import java.util.logging.Level;
@@ -60,8 +62,19 @@ class WorkerThread extends Thread {
       // Log the start (INFO level events go to the Status bar, too)
       logger.info("Starting processing of task " + actualTask.getTaskDescription());
 
-      // Process the actual task
-      actualTask.run();
+      // Process the actual task, measure the resources if the profiler is enabled
+      final TaskProfiler.Measurement measurement = TaskProfiler.start(actualTask);
+      final ScanDataCache.Statistics cacheStatistics =
+          ScanDataCache.isEnabled() ? ScanDataCache.startTaskStatistics() : null;
+      wrappedTask.setStartTime(System.nanoTime());
+      try {
+        actualTask.run();
+      } finally {
+        ScanDataCache.endTaskStatistics();
+        if (measurement != null) {
+          measurement.finish(cacheStatistics);
+        }
+      }
 
       // Check if task finished with an error
       if (actualTask.getStatus() == TaskStatus.ERROR) {
@@ -79,6 +92,10 @@ class WorkerThread extends Thread {
         logger.info("Processing of task " + actualTask.getTaskDescription() + " done, status "
             + actualTask.getStatus());
       }
+      if (cacheStatistics != null) {
+        logger.fine("Scan data cache of task " + actualTask.getTaskDescription() + ": "
+            + cacheStatistics);
+      }
 
       /*
        * This is important to allow the garbage collector to remove the task, while keeping the task
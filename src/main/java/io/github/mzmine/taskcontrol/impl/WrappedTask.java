@@ -26,8 +26,10 @@
 package io.github.mzmine.taskcontrol.impl;
 
 import io.github.mzmine.main.MZmineCore;
+import io.github.mzmine.taskcontrol.ProcessedItemsCounter;
 import io.github.mzmine.taskcontrol.Task;
 import io.github.mzmine.taskcontrol.TaskPriority;
+import io.github.mzmine.taskcontrol.TaskStatus;
 import javafx.beans.property.Property;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.property.SimpleStringProperty;
@@ -55,6 +57,7 @@ public class WrappedTask {
   private Task task;
   private Property<TaskPriority> priority;
   private WorkerThread assignedTo;
+  private volatile long startTime = -1;
 
   public WrappedTask(Task task, TaskPriority priority) {
     this.task = task;
@@ -107,6 +110,32 @@ public class WrappedTask {
     return task.getTaskDescription();
   }
 
+  void setStartTime(long nanoTime) {
+    startTime = nanoTime;
+  }
+
+  /**
+   * Throughput of the running task, either as processed items per second for
+   * {@link ProcessedItemsCounter}s or as finished percentage per minute.
+   *
+   * @return the formatted throughput or an empty string if the task is not processing
+   */
+  public String getThroughput() {
+    final Task current = getActualTask();
+    final long start = startTime;
+    if (start < 0 || current.getStatus() != TaskStatus.PROCESSING) {
+      return "";
+    }
+    final double seconds = (System.nanoTime() - start) / 1E9;
+    if (seconds < 1) {
+      return "";
+    }
+    if (current instanceof ProcessedItemsCounter counter) {
+      return "%.1f items/s".formatted(counter.getProcessedItems() / seconds);
+    }
+    return "%.1f %%/min".formatted(current.getFinishedPercentage() * 100d / seconds * 60d);
+  }
+
   synchronized void removeTaskReference() {
     task = new FinishedTask(task);
   }
@@ -297,7 +297,24 @@ public class IsotopesUtils {
    */
   public static boolean isPossibleIsotopeMz(double newMz, @NotNull DoubleArrayList knownMzs,
       @NotNull List<Double> isotopesMzDiffs, @NotNull MZTolerance mzTolerance) {
+    return isPossibleIsotopeMz(newMz, knownMzs.elements(), 0, knownMzs.size(), isotopesMzDiffs,
+        mzTolerance);
+  }
 
+  /**
+   * Same as {@link #isPossibleIsotopeMz(double, DoubleArrayList, List, MZTolerance)} for known m/z
+   * values in a region of a primitive array.
+   *
+   * @param newMz           M/z value of interest
+   * @param knownMzs        Known m/z values, sorted ascending in the region
+   * @param from            First index of the region (inclusive)
+   * @param to              Last index of the region (exclusive)
+   * @param isotopesMzDiffs Pairwise m/z differences between isotopes
+   * @param mzTolerance     Maximum allowed m/z difference
+   * @return True if new m/z corresponds to an isotope of known m/z's, false otherwise.
+   */
+  public static boolean isPossibleIsotopeMz(double newMz, @NotNull double[] knownMzs, int from,
+      int to, @NotNull List<Double> isotopesMzDiffs, @NotNull MZTolerance mzTolerance) {
     // Iterate over possible isotope m/z differences
     for (double isotopeMzDiff : isotopesMzDiffs) {
 
@@ -312,10 +329,10 @@ public class IsotopesUtils {
       //  the speed by implementing a HashSet for doubles with given precision and use it to store
       //  all knownMzs values and check for their presence instead of the following for loop.
       //  O(n^2 / 2) -> O(n) for O(n) memory
-      for (int mzIndex = knownMzs.size() - 1; mzIndex >= 0; mzIndex--) {
+      for (int mzIndex = to - 1; mzIndex >= from; mzIndex--) {
 
         // Get real m/z from knownMzs that is going to be compared with the theoretical one
-        double realMz = knownMzs.getDouble(mzIndex);
+        double realMz = knownMzs[mzIndex];
 
         // Do not go left further if the theoretical m/z is higher than real
         if (Doubles.compare(theoreticalMzTolRange.lowerEndpoint(), realMz) > 0) {
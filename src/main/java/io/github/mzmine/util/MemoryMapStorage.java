@@ -39,6 +39,7 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -78,6 +79,12 @@ public class MemoryMapStorage {
   private final Logger logger = Logger.getLogger(this.getClass().getName());
   private final Set<File> temporaryFiles = new HashSet<>();
   private final List<MappedByteBuffer> mappedByteBufferList = new ArrayList<>();
+  private static final AtomicLong nextId = new AtomicLong();
+  private final long id = nextId.getAndIncrement();
+  /**
+   * Total number of bytes stored. Only written within the synchronized store methods.
+   */
+  private volatile long bytesWritten = 0;
 
   private static boolean storeFeaturesInRam = false;
   private static boolean storeRawFilesInRam = false;
@@ -205,6 +212,7 @@ public class MemoryMapStorage {
 
     // Update the position and the main buffer so we are ready to store the next array
     currentMappedFile.position(savedPosition + length * Double.BYTES);
+    bytesWritten += (long) length * Double.BYTES;
 
     // Create a read-only version of the new buffer slice
     final DoubleBuffer readOnlySlice = sliceDoubleView.asReadOnlyBuffer();
@@ -262,6 +270,7 @@ public class MemoryMapStorage {
 
     // Update the position and the main buffer so we are ready to store the next array
     currentMappedFile.position(savedPosition + length * Float.BYTES);
+    bytesWritten += (long) length * Float.BYTES;
 
     // Create a read-only version of the new buffer slice
     final FloatBuffer readOnlySlice = sliceFloatView.asReadOnlyBuffer();
@@ -318,6 +327,7 @@ public class MemoryMapStorage {
 
     // Update the position and the main buffer so we are ready to store the next array
     currentMappedFile.position(savedPosition + length * Integer.BYTES);
+    bytesWritten += (long) length * Integer.BYTES;
 
     // Create a read-only version of the new buffer slice
     final IntBuffer readOnlySlice = sliceIntView.asReadOnlyBuffer();
@@ -326,6 +336,49 @@ public class MemoryMapStorage {
 
   }
 
+  /**
+   * Store the given byte[] array in a memory-mapped temporary file and return a read-only
+   * ByteBuffer that can access the data.
+   *
+   * @param data   the byte[] array with the data
+   * @param offset offset of the stored portion of the data[] array
+   * @param length size of the stored portion of the data[] array
+   * @return a read-only ByteBuffer that is directly mapped to the stored data on the disk
+   * @throws IOException
+   */
+  @NotNull
+  public synchronized ByteBuffer storeData(@NotNull final byte data[], int offset, int length)
+      throws IOException {
+
+    // If we have no storage file or if the current file is full, create a new one
+    if ((currentMappedFile == null)
+        || (currentMappedFile.position() + length > STORAGE_FILE_CAPACITY)) {
+      currentMappedFile = createNewMappedFile();
+    }
+
+    // Save the current position in the storage file
+    final int savedPosition = currentMappedFile.position();
+
+    // Set the limit to the end of the new array and create a buffer slice
+    currentMappedFile.limit(savedPosition + length);
+    final ByteBuffer slice = currentMappedFile.slice();
+
+    // Copy the data to the memory mapped storage
+    slice.put(data, offset, length);
+
+    // Update the position and the main buffer so we are ready to store the next array. The
+    // position is rounded up to 8 bytes, so that following double, float and int slices stay
+    // aligned in the shared file
+    final int alignedPosition = (int) Math.min(currentMappedFile.capacity(),
+        (savedPosition + length + Double.BYTES - 1L) & -Double.BYTES);
+    currentMappedFile.limit(alignedPosition);
+    currentMappedFile.position(alignedPosition);
+    bytesWritten += length;
+
+    // Create a read-only version of the new buffer slice
+    return slice.position(0).asReadOnlyBuffer();
+  }
+
   /**
    * Discard this memory-mapped storage and remove all the associated temporary files.
    */
@@ -347,6 +400,20 @@ public class MemoryMapStorage {
     currentMappedFile = null;
   }
 
+  /**
+   * @return a unique id of this storage within this session
+   */
+  public long getId() {
+    return id;
+  }
+
+  /**
+   * @return the total number of bytes stored in this storage
+   */
+  public long getBytesWritten() {
+    return bytesWritten;
+  }
+
 
   public static boolean isStoreFeaturesInRam() {
     return storeFeaturesInRam;
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.mzmine.util.scans;
+
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeMap;
+import com.google.common.collect.TreeRangeMap;
+import io.github.mzmine.datamodel.impl.MobilityScanStorage;
+import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import io.github.mzmine.util.maths.CenterFunction;
+import io.github.mzmine.util.scans.SpectraMerging.IntensityMergingType;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import java.util.Arrays;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Merges the mobility scan mass lists of a {@link MobilityScanStorage} on primitive buffers. The
+ * result is the same as
+ * {@link SpectraMerging#calculatedMergedMzsAndIntensities(java.util.Collection, MZTolerance,
+ * IntensityMergingType, CenterFunction, Double, Double, Integer)} for the mass lists of all mobility
+ * scans, but without an {@link IndexedDataPoint} and a sorted set per signal:
+ * <ul>
+ *   <li>The signals are sorted by descending intensity (ties by descending m/z, then in scan
+ *   order) as an index array over the mass list buffers.</li>
+ *   <li>Each signal joins the m/z range that contains it or opens a new range with
+ *   {@link SpectraMerging#createNewNonOverlappingRange(RangeMap, Range)}. Further signals of a
+ *   scan that is already present in a range are discarded.</li>
+ *   <li>The members of each range are collected in scan order, so that the centering and the
+ *   intensity merging add up the values in the same order.</li>
+ * </ul>
+ * <p>
+ * All scratch arrays are reused between calls. Therefore, an instance is not thread safe and
+ * should be used by a single thread, e.g., one instance per batch of frames.
+ */
+public class MobilityScanMergingEngine {
+
+  private final MZTolerance tolerance;
+  private final IntensityMergingType intensityMergingType;
+  private final CenterFunction mzCenterFunction;
+  @Nullable
+  private final Double inputNoiseLevel;
+  @Nullable
+  private final Double outputNoiseLevel;
+  @Nullable
+  private final Integer minNumPeaks;
+
+  // mass list values of all mobility scans of the current frame
+  private double[] allMzs = new double[0];
+  private double[] allIntensities = new double[0];
+
+  // signals above the input noise level in scan order
+  private double[] mzs = new double[0];
+  private double[] intensities = new double[0];
+  private int[] scanIndices = new int[0];
+  private int[] intensityOrder = new int[0];
+  // range of each signal, -1 if discarded
+  private int[] groups = new int[0];
+
+  // members of all ranges, grouped by range and in scan order within a range
+  private int[] groupSizes = new int[0];
+  private int[] groupOffsets = new int[0];
+  private double[] memberMzs = new double[0];
+  private double[] memberIntensities = new double[0];
+
+  // (range, scan) pairs that are already present
+  private final LongOpenHashSet groupScans = new LongOpenHashSet();
+
+  public MobilityScanMergingEngine(@NotNull MZTolerance tolerance,
+      @NotNull IntensityMergingType intensityMergingType,
+      @NotNull CenterFunction mzCenterFunction, @Nullable Double inputNoiseLevel,
+      @Nullable Double outputNoiseLevel, @Nullable Integer minNumPeaks) {
+    this.tolerance = tolerance;
+    this.intensityMergingType = intensityMergingType;
+    this.mzCenterFunction = mzCenterFunction;
+    this.inputNoiseLevel = inputNoiseLevel;
+    this.outputNoiseLevel = outputNoiseLevel;
+    this.minNumPeaks = minNumPeaks;
+  }
+
+  /**
+   * Merges the mass lists of all mobility scans in the given storage.
+   *
+   * @param storage The storage. Mass lists must be present.
+   * @return double[2][] array, [0][] being the mzs, [1] being the intensities. Empty double[2][0]
+   * if there are no data points.
+   */
+  public double[][] merge(@NotNull final MobilityScanStorage storage) {
+    final int numScans = storage.getNumberOfMobilityScans();
+    final int totalPoints = storage.getMassListTotalNumPoints();
+    if (numScans == 0 || totalPoints == 0) {
+      return new double[][]{new double[0], new double[0]};
+    }
+
+    ensureCapacity(totalPoints);
+    storage.getAllMassListMzValues(allMzs);
+    storage.getAllMassListIntensityValues(allIntensities);
+
+    int numSignals = 0;
+    for (int scan = 0; scan < numScans; scan++) {
+      final int offset = storage.getMassListStorageOffset(scan);
+      final int end = offset + storage.getNumberOfMassListDatapoints(scan);
+      for (int i = offset; i < end; i++) {
+        if (inputNoiseLevel == null || allIntensities[i] > inputNoiseLevel) {
+          mzs[numSignals] = allMzs[i];
+          intensities[numSignals] = allIntensities[i];
+          scanIndices[numSignals] = scan;
+          numSignals++;
+        }
+      }
+    }
+
+    final RangeMap<Double, Integer> ranges = TreeRangeMap.create();
+    final int numGroups = assignGroups(numSignals, numScans, ranges);
+    return mergeGroups(numSignals, numGroups, ranges);
+  }
+
+  /**
+   * Assigns each signal to a range in the order of descending intensity.
+   *
+   * @return the number of ranges
+   */
+  private int assignGroups(final int numSignals, final int numScans,
+      final RangeMap<Double, Integer> ranges) {
+    for (int i = 0; i < numSignals; i++) {
+      intensityOrder[i] = i;
+    }
+    // same order as the stable sort by the descending intensity sorter of SpectraMerging
+    final double[] mzs = this.mzs;
+    final double[] intensities = this.intensities;
+    IntArrays.quickSort(intensityOrder, 0, numSignals, (a, b) -> {
+      int result = Double.compare(intensities[b], intensities[a]);
+      if (result == 0) {
+        result = Double.compare(mzs[b], mzs[a]);
+      }
+      return result != 0 ? result : Integer.compare(a, b);
+    });
+
+    groupScans.clear();
+    int numGroups = 0;
+    for (int o = 0; o < numSignals; o++) {
+      final int signal = intensityOrder[o];
+      final double mz = mzs[signal];
+      Integer group = ranges.get(mz);
+      if (group == null) {
+        group = numGroups++;
+        ranges.put(SpectraMerging.createNewNonOverlappingRange(ranges,
+            tolerance.getToleranceRange(mz)), group);
+      }
+      // only the most intense signal of each scan joins a range
+      groups[signal] =
+          groupScans.add((long) group * numScans + scanIndices[signal]) ? group : -1;
+    }
+    return numGroups;
+  }
+
+  private double[][] mergeGroups(final int numSignals, final int numGroups,
+      final RangeMap<Double, Integer> ranges) {
+    if (groupSizes.length < numGroups) {
+      groupSizes = new int[numGroups];
+      groupOffsets = new int[numGroups];
+    }
+    Arrays.fill(groupSizes, 0, numGroups, 0);
+    for (int i = 0; i < numSignals; i++) {
+      if (groups[i] >= 0) {
+        groupSizes[groups[i]]++;
+      }
+    }
+    for (int g = 0, offset = 0; g < numGroups; g++) {
+      groupOffsets[g] = offset;
+      offset += groupSizes[g];
+    }
+    // signals are in scan order, so the members of each range are as well
+    Arrays.fill(groupSizes, 0, numGroups, 0);
+    for (int i = 0; i < numSignals; i++) {
+      final int group = groups[i];
+      if (group >= 0) {
+        final int member = groupOffsets[group] + groupSizes[group]++;
+        memberMzs[member] = mzs[i];
+        memberIntensities[member] = intensities[i];
+      }
+    }
+
+    final double[] resultMzs = new double[numGroups];
+    final double[] resultIntensities = new double[numGroups];
+    int numResults = 0;
+    // ranges in ascending m/z order
+    for (int group : ranges.asMapOfRanges().values()) {
+      final int size = groupSizes[group];
+      if (minNumPeaks != null && size < minNumPeaks) {
+        continue;
+      }
+      final int from = groupOffsets[group];
+      final double[] groupMzs = Arrays.copyOfRange(memberMzs, from, from + size);
+      final double[] groupIntensities = Arrays.copyOfRange(memberIntensities, from, from + size);
+
+      final double newMz = mzCenterFunction.calcCenter(groupMzs, groupIntensities);
+      final double newIntensity = switch (intensityMergingType) {
+        case SUMMED -> Arrays.stream(groupIntensities).sum();
+        case MAXIMUM -> Arrays.stream(groupIntensities).max().orElse(0d);
+        case AVERAGE -> Arrays.stream(groupIntensities).average().orElse(0d);
+      };
+
+      if (outputNoiseLevel == null || newIntensity > outputNoiseLevel) {
+        resultMzs[numResults] = newMz;
+        resultIntensities[numResults] = newIntensity;
+        numResults++;
+      }
+    }
+    return new double[][]{Arrays.copyOf(resultMzs, numResults),
+        Arrays.copyOf(resultIntensities, numResults)};
+  }
+
+  private void ensureCapacity(final int totalPoints) {
+    if (allMzs.length < totalPoints) {
+      allMzs = new double[totalPoints];
+      allIntensities = new double[totalPoints];
+      mzs = new double[totalPoints];
+      intensities = new double[totalPoints];
+      scanIndices = new int[totalPoints];
+      intensityOrder = new int[totalPoints];
+      groups = new int[totalPoints];
+      memberMzs = new double[totalPoints];
+      memberIntensities = new double[totalPoints];
+    }
+  }
+}
@@ -82,6 +82,9 @@ import org.jetbrains.annotations.Nullable;
  * io.github.mzmine.modules.dataprocessing.featdet_adapchromatogrambuilder.ModularADAPChromatogramBuilderTask}.
  * Merging of data points from the same spectrum is prevented by indexing the data points prior to
  * sorting.
+ * <p>
+ * Mobility scans of a single frame are merged more efficiently on primitive buffers by the
+ * {@link MobilityScanMergingEngine}.
  *
  * @author https://github.com/SteffenHeu
  */
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.mzmine.datamodel.data_access;
+
+import com.google.common.collect.Range;
+import io.github.mzmine.datamodel.MassSpectrumType;
+import io.github.mzmine.datamodel.PolarityType;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.datamodel.data_access.EfficientDataAccess.ScanDataType;
+import io.github.mzmine.datamodel.impl.SimpleScan;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+class PrefetchScanDataAccessTest {
+
+  private static final int SCANS = 50;
+
+  @Test
+  @Timeout(30)
+  void moreAccessesThanPrefetchThreads() throws IOException {
+    final RawDataFile raw = createRawDataFile();
+    final List<PrefetchScanDataAccess> accesses = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      accesses.add(EfficientDataAccess.ofPrefetching(raw, ScanDataType.RAW, raw.getScans(), 2));
+    }
+
+    // all accesses wait for their next scan in turn
+    for (int s = 0; s < SCANS; s++) {
+      for (PrefetchScanDataAccess access : accesses) {
+        final Scan scan = access.nextScan();
+        Assertions.assertSame(raw.getScan(s), scan);
+        Assertions.assertEquals(s + 2, access.getNumberOfDataPoints());
+        Assertions.assertEquals(100 + s + 1, access.getMzValue(s + 1));
+        Assertions.assertEquals(s, access.getIntensityValue(s + 1));
+      }
+    }
+    for (PrefetchScanDataAccess access : accesses) {
+      Assertions.assertFalse(access.hasNextScan());
+      access.close();
+    }
+  }
+
+  @Test
+  @Timeout(30)
+  void jumpAndCloseRestartReadingAhead() throws IOException {
+    final RawDataFile raw = createRawDataFile();
+    try (PrefetchScanDataAccess access = EfficientDataAccess.ofPrefetching(raw, ScanDataType.RAW,
+        raw.getScans(), PrefetchScanDataAccess.DEFAULT_READ_AHEAD)) {
+      Assertions.assertSame(raw.getScan(0), access.nextScan());
+      Assertions.assertTrue(access.jumpToIndex(30));
+      Assertions.assertSame(raw.getScan(30), access.getCurrentScan());
+      access.close();
+      Assertions.assertSame(raw.getScan(31), access.nextScan());
+      Assertions.assertEquals(100 + 31, access.getMzValue(31));
+    }
+  }
+
+  /**
+   * Scan i has i + 2 data points
+   */
+  private static RawDataFile createRawDataFile() throws IOException {
+    final RawDataFile raw = new RawDataFileImpl("prefetch.mzML", null, null, Color.BLACK);
+    for (int i = 0; i < SCANS; i++) {
+      final double[] mzs = new double[i + 2];
+      final double[] intensities = new double[i + 2];
+      for (int j = 0; j < mzs.length; j++) {
+        mzs[j] = 100 + j;
+        intensities[j] = i;
+      }
+      raw.addScan(new SimpleScan(raw, i, 1, 0.1f * (i + 1), null, mzs, intensities,
+          MassSpectrumType.CENTROIDED, PolarityType.POSITIVE, "", Range.closed(100d, 200d)));
+    }
+    return raw;
+  }
+}
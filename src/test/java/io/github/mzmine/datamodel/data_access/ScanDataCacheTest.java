@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.mzmine.datamodel.data_access;
+
+import io.github.mzmine.datamodel.MassSpectrum;
+import io.github.mzmine.datamodel.impl.masslist.SimpleMassList;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class ScanDataCacheTest {
+
+  // 10 data points fit into the smallest buffer
+  private static final int CAPACITY = 1024;
+
+  @AfterEach
+  void disable() {
+    ScanDataCache.setEnabled(false, ScanDataCache.DEFAULT_MAX_MB * 1024L * 1024L);
+  }
+
+  @Test
+  void evictedBuffersAreReused() {
+    ScanDataCache.setEnabled(true, 4 * CAPACITY);
+    final List<MassSpectrum> spectra = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      final MassSpectrum spectrum = spectrum(i);
+      spectra.add(spectrum);
+      ScanDataCache.put(spectrum, values(100, i), values(1000, i), 10);
+      Assertions.assertTrue(ScanDataCache.getCachedBytes() + ScanDataCache.getPooledBytes()
+          <= 4 * CAPACITY);
+    }
+    Assertions.assertEquals(4, ScanDataCache.size());
+    // the buffers of the first two spectra were reused
+    Assertions.assertEquals(0, ScanDataCache.getPooledBytes());
+
+    final double[] mzs = new double[10];
+    final double[] intensities = new double[10];
+    Assertions.assertEquals(-1, ScanDataCache.get(spectra.get(1), mzs, intensities, null));
+    final ScanDataCache.Statistics statistics = new ScanDataCache.Statistics();
+    Assertions.assertEquals(10, ScanDataCache.get(spectra.get(5), mzs, intensities, statistics));
+    Assertions.assertArrayEquals(values(100, 5), mzs);
+    Assertions.assertArrayEquals(values(1000, 5), intensities);
+    Assertions.assertEquals(1, statistics.getHits());
+
+    // a smaller cache has no room to pool the evicted buffers
+    ScanDataCache.setEnabled(true, 2 * CAPACITY);
+    Assertions.assertEquals(2, ScanDataCache.size());
+    Assertions.assertEquals(2 * CAPACITY, ScanDataCache.getCachedBytes());
+    Assertions.assertEquals(0, ScanDataCache.getPooledBytes());
+  }
+
+  @Test
+  void capacities() {
+    Assertions.assertEquals(CAPACITY, ScanDataCache.getCapacity(16));
+    Assertions.assertEquals(CAPACITY, ScanDataCache.getCapacity(CAPACITY));
+    Assertions.assertEquals(1152, ScanDataCache.getCapacity(CAPACITY + 1));
+    Assertions.assertEquals(1 << 20, ScanDataCache.getCapacity((1 << 20) - 5));
+  }
+
+  private static MassSpectrum spectrum(int i) {
+    return new SimpleMassList(null, values(100, i), values(1000, i));
+  }
+
+  private static double[] values(double offset, int i) {
+    final double[] values = new double[10];
+    for (int j = 0; j < values.length; j++) {
+      values[j] = offset + i + j;
+    }
+    return values;
+  }
+}
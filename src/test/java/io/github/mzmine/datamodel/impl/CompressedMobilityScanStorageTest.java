@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.datamodel.impl;
+
+import io.github.mzmine.datamodel.Frame;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+class CompressedMobilityScanStorageTest {
+
+  private static final int NUM_SCANS = 60;
+
+  @AfterEach
+  void reset() {
+    MobilityScanStorage.setCompressionEnabled(false);
+    DecodedFrameBlockCache.setMaxBytes(DecodedFrameBlockCache.DEFAULT_MAX_BYTES);
+    DecodedFrameBlockCache.clear();
+  }
+
+  /**
+   * Intensities of the source data: counts are stored as integers, floats as floats and all other
+   * values as doubles.
+   */
+  private enum Intensities {
+    COUNTS, FLOATS, DOUBLES
+  }
+
+  @Test
+  void compressedEqualsUncompressed() {
+    for (Intensities intensities : Intensities.values()) {
+      final Random random = new Random(intensities.ordinal() + 1);
+      final List<double[][]> raw = randomScans(random, intensities);
+      final List<double[][]> massLists = raw.stream().map(CompressedMobilityScanStorageTest::filter)
+          .toList();
+
+      final MobilityScanStorage uncompressed = createStorage(raw, massLists, false);
+      final MobilityScanStorage compressed = createStorage(raw, massLists, true);
+      Assertions.assertNull(uncompressed.getRawBlock());
+      Assertions.assertNotNull(compressed.getRawBlock());
+
+      assertEqualValues(uncompressed, compressed);
+      assertOriginalValues(raw, massLists, compressed);
+      // decode again after the blocks were dropped from the cache
+      DecodedFrameBlockCache.clear();
+      System.gc();
+      assertEqualValues(uncompressed, compressed);
+      assertOriginalValues(raw, massLists, compressed);
+    }
+  }
+
+  @Test
+  void parallelAccessWithEviction() {
+    final Random random = new Random(3);
+    final List<MobilityScanStorage> uncompressed = new ArrayList<>();
+    final List<MobilityScanStorage> compressed = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      final List<double[][]> raw = randomScans(random, Intensities.values()[i % 3]);
+      final List<double[][]> massLists = raw.stream()
+          .map(CompressedMobilityScanStorageTest::filter).toList();
+      uncompressed.add(createStorage(raw, massLists, false));
+      compressed.add(createStorage(raw, massLists, true));
+    }
+    // smaller than a single frame, so blocks are evicted all the time
+    DecodedFrameBlockCache.setMaxBytes(1024);
+
+    IntStream.range(0, 400).parallel().forEach(
+        i -> assertEqualValues(uncompressed.get(i % 20), compressed.get(i % 20)));
+  }
+
+  private static void assertEqualValues(MobilityScanStorage expected, MobilityScanStorage actual) {
+    Assertions.assertEquals(expected.getRawTotalNumPoints(), actual.getRawTotalNumPoints());
+    Assertions.assertEquals(expected.getMassListTotalNumPoints(),
+        actual.getMassListTotalNumPoints());
+
+    final double[] a = new double[expected.getRawTotalNumPoints()];
+    final double[] b = new double[expected.getRawTotalNumPoints()];
+    expected.getAllRawMobilityScanMzValues(a);
+    actual.getAllRawMobilityScanMzValues(b);
+    Assertions.assertArrayEquals(a, b);
+    expected.getAllRawMobilityScanIntensityValues(a);
+    actual.getAllRawMobilityScanIntensityValues(b);
+    Assertions.assertArrayEquals(a, b);
+
+    expected.getAllMassListMzValues(a);
+    actual.getAllMassListMzValues(b);
+    Assertions.assertArrayEquals(Arrays.copyOf(a, expected.getMassListTotalNumPoints()),
+        Arrays.copyOf(b, expected.getMassListTotalNumPoints()));
+    expected.getAllMassListIntensityValues(a);
+    actual.getAllMassListIntensityValues(b);
+    Assertions.assertArrayEquals(Arrays.copyOf(a, expected.getMassListTotalNumPoints()),
+        Arrays.copyOf(b, expected.getMassListTotalNumPoints()));
+
+    for (int scan = 0; scan < expected.getNumberOfMobilityScans(); scan++) {
+      final int numRaw = expected.getNumberOfRawDatapoints(scan);
+      Assertions.assertEquals(numRaw, actual.getNumberOfRawDatapoints(scan));
+      expected.getRawMobilityScanMzValues(scan, a, 1);
+      actual.getRawMobilityScanMzValues(scan, b, 1);
+      Assertions.assertArrayEquals(Arrays.copyOfRange(a, 1, numRaw + 1),
+          Arrays.copyOfRange(b, 1, numRaw + 1));
+      expected.getRawMobilityScanIntensityValues(scan, a, 0);
+      actual.getRawMobilityScanIntensityValues(scan, b, 0);
+      Assertions.assertArrayEquals(Arrays.copyOf(a, numRaw), Arrays.copyOf(b, numRaw));
+      for (int i = 0; i < numRaw; i++) {
+        Assertions.assertEquals(expected.getRawMobilityScanMzValue(scan, i),
+            actual.getRawMobilityScanMzValue(scan, i));
+        Assertions.assertEquals(expected.getRawMobilityScanIntensityValue(scan, i),
+            actual.getRawMobilityScanIntensityValue(scan, i));
+      }
+
+      final int numMassList = expected.getNumberOfMassListDatapoints(scan);
+      Assertions.assertEquals(numMassList, actual.getNumberOfMassListDatapoints(scan));
+      expected.getMassListMzValues(scan, a, 0);
+      actual.getMassListMzValues(scan, b, 0);
+      Assertions.assertArrayEquals(Arrays.copyOf(a, numMassList), Arrays.copyOf(b, numMassList));
+      expected.getMassListIntensityValues(scan, a, 0);
+      actual.getMassListIntensityValues(scan, b, 0);
+      Assertions.assertArrayEquals(Arrays.copyOf(a, numMassList), Arrays.copyOf(b, numMassList));
+      for (int i = 0; i < numMassList; i++) {
+        Assertions.assertEquals(expected.getMassListMzValue(scan, i),
+            actual.getMassListMzValue(scan, i));
+        Assertions.assertEquals(expected.getMassListIntensityValue(scan, i),
+            actual.getMassListIntensityValue(scan, i));
+      }
+    }
+  }
+
+  /**
+   * The compression must not change any value of the source data
+   */
+  private static void assertOriginalValues(List<double[][]> raw, List<double[][]> massLists,
+      MobilityScanStorage actual) {
+    final double[] values = new double[actual.getRawTotalNumPoints()];
+    for (int scan = 0; scan < raw.size(); scan++) {
+      final int numRaw = raw.get(scan)[0].length;
+      actual.getRawMobilityScanMzValues(scan, values, 0);
+      Assertions.assertArrayEquals(raw.get(scan)[0], Arrays.copyOf(values, numRaw));
+      actual.getRawMobilityScanIntensityValues(scan, values, 0);
+      Assertions.assertArrayEquals(raw.get(scan)[1], Arrays.copyOf(values, numRaw));
+
+      final int numMassList = massLists.get(scan)[0].length;
+      actual.getMassListMzValues(scan, values, 0);
+      Assertions.assertArrayEquals(massLists.get(scan)[0], Arrays.copyOf(values, numMassList));
+      actual.getMassListIntensityValues(scan, values, 0);
+      Assertions.assertArrayEquals(massLists.get(scan)[1], Arrays.copyOf(values, numMassList));
+    }
+  }
+
+  private static MobilityScanStorage createStorage(List<double[][]> raw,
+      List<double[][]> massLists, boolean compressed) {
+    MobilityScanStorage.setCompressionEnabled(compressed);
+    final List<BuildingMobilityScan> scans = new ArrayList<>();
+    for (int i = 0; i < raw.size(); i++) {
+      scans.add(new BuildingMobilityScan(i, raw.get(i)));
+    }
+    final MobilityScanStorage storage = new MobilityScanStorage(null, Mockito.mock(Frame.class),
+        scans);
+    storage.setMassLists(null, massLists);
+    return storage;
+  }
+
+  private static List<double[][]> randomScans(Random random, Intensities type) {
+    final List<double[][]> scans = new ArrayList<>();
+    for (int s = 0; s < NUM_SCANS; s++) {
+      // some empty scans
+      final int numPoints = random.nextInt(4) == 0 ? 0 : random.nextInt(300);
+      final double[] mzs = new double[numPoints];
+      final double[] intensities = new double[numPoints];
+      double mz = 50 + random.nextDouble();
+      for (int i = 0; i < numPoints; i++) {
+        mz += random.nextDouble() * 5;
+        mzs[i] = mz;
+        intensities[i] = switch (type) {
+          case COUNTS -> 1 + random.nextInt(5000);
+          // source data with 32 bit intensities, e.g., from mzML files
+          case FLOATS -> (float) (random.nextDouble() * 1E5);
+          case DOUBLES -> random.nextDouble() * 1E5;
+        };
+      }
+      scans.add(new double[][]{mzs, intensities});
+    }
+    return scans;
+  }
+
+  /**
+   * @return the values above the median intensity
+   */
+  private static double[][] filter(double[][] scan) {
+    final double median =
+        scan[1].length == 0 ? 0 : Arrays.stream(scan[1]).sorted().toArray()[scan[1].length / 2];
+    final int[] keep = IntStream.range(0, scan[1].length).filter(i -> scan[1][i] > median)
+        .toArray();
+    return new double[][]{Arrays.stream(keep).mapToDouble(i -> scan[0][i]).toArray(),
+        Arrays.stream(keep).mapToDouble(i -> scan[1][i]).toArray()};
+  }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.batchmode;
+
+import com.google.common.collect.Range;
+import io.github.mzmine.datamodel.FeatureStatus;
+import io.github.mzmine.datamodel.MZmineProject;
+import io.github.mzmine.datamodel.MassList;
+import io.github.mzmine.datamodel.MassSpectrumType;
+import io.github.mzmine.datamodel.PolarityType;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.datamodel.featuredata.IonTimeSeries;
+import io.github.mzmine.datamodel.featuredata.impl.SimpleIonTimeSeries;
+import io.github.mzmine.datamodel.features.FeatureList;
+import io.github.mzmine.datamodel.features.ModularFeature;
+import io.github.mzmine.datamodel.features.ModularFeatureList;
+import io.github.mzmine.datamodel.features.ModularFeatureListRow;
+import io.github.mzmine.datamodel.features.types.annotations.CommentType;
+import io.github.mzmine.datamodel.impl.DDAMsMsInfoImpl;
+import io.github.mzmine.datamodel.impl.SimpleScan;
+import io.github.mzmine.datamodel.impl.masslist.ScanPointerMassList;
+import io.github.mzmine.datamodel.impl.masslist.SimpleMassList;
+import io.github.mzmine.datamodel.msms.ActivationMethod;
+import io.github.mzmine.datamodel.msms.DDAMsMsInfo;
+import io.github.mzmine.main.MZmineCore;
+import io.github.mzmine.project.impl.MZmineProjectImpl;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BatchCheckpointTest {
+
+  private static final int MS1_SCANS = 10;
+
+  @TempDir
+  File directory;
+
+  private MZmineProject previousProject;
+
+  @BeforeEach
+  void rememberProject() {
+    previousProject = MZmineCore.getProjectManager().getCurrentProject();
+  }
+
+  @AfterEach
+  void restoreProject() {
+    // loading the checkpoint replaces the current project
+    MZmineCore.getProjectManager().setCurrentProject(previousProject);
+  }
+
+  @Test
+  void writeReadStateAndResume() throws IOException {
+    final MZmineProject project = new MZmineProjectImpl();
+    final RawDataFile raw = createRawDataFile();
+    project.addFile(raw);
+    final ModularFeatureList first = new ModularFeatureList("checkpoint flist", null, raw);
+    final ModularFeatureList last = createFeatureList(raw);
+    project.addFeatureList(first);
+    project.addFeatureList(last);
+
+    final BatchCheckpoint checkpoint = new BatchCheckpoint(directory, 1, true);
+    Assertions.assertTrue(checkpoint.write(project, 2, "queue", List.of(raw), List.of(first)));
+    Assertions.assertTrue(checkpoint.write(project, 3, "queue", List.of(raw), List.of(last)));
+
+    final File[] snapshots = directory.listFiles((dir, name) -> name.endsWith(".snapshot"));
+    Assertions.assertNotNull(snapshots);
+    Assertions.assertEquals(1, snapshots.length, "older checkpoint snapshots are deleted");
+
+    Assertions.assertNull(checkpoint.readState("other queue"));
+    final BatchCheckpoint.State state = checkpoint.readState("queue");
+    Assertions.assertNotNull(state);
+    Assertions.assertEquals(3, state.finishedSteps());
+    Assertions.assertEquals(snapshots[0], state.snapshotFile());
+    Assertions.assertEquals(List.of(0), state.dataFiles());
+    Assertions.assertEquals(List.of(1), state.featureLists());
+
+    final MZmineProject resumed = checkpoint.loadProject(state);
+    Assertions.assertNotNull(resumed);
+    Assertions.assertNotSame(project, resumed);
+    Assertions.assertSame(resumed, MZmineCore.getProjectManager().getCurrentProject());
+
+    final List<RawDataFile> resumedFiles = BatchCheckpoint.findDataFiles(resumed,
+        state.dataFiles());
+    Assertions.assertEquals(1, resumedFiles.size());
+    final RawDataFile resumedRaw = resumedFiles.get(0);
+    Assertions.assertNotSame(raw, resumedRaw);
+    assertEqualScans(raw, resumedRaw);
+
+    final List<FeatureList> resumedLists = BatchCheckpoint.findFeatureLists(resumed,
+        state.featureLists());
+    Assertions.assertEquals(1, resumedLists.size());
+    assertEqualFeatureList(last, (ModularFeatureList) resumedLists.get(0), resumedRaw);
+  }
+
+  @Test
+  void damagedSnapshotIsNotLoaded() throws IOException {
+    final MZmineProject project = new MZmineProjectImpl();
+    final RawDataFile raw = createRawDataFile();
+    project.addFile(raw);
+
+    final BatchCheckpoint checkpoint = new BatchCheckpoint(directory, 1, true);
+    Assertions.assertTrue(checkpoint.write(project, 1, "queue", List.of(raw), List.of()));
+    final BatchCheckpoint.State state = checkpoint.readState("queue");
+    Assertions.assertNotNull(state);
+
+    final byte[] bytes = Files.readAllBytes(state.snapshotFile().toPath());
+    Files.write(state.snapshotFile().toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+    Assertions.assertNull(checkpoint.loadProject(state));
+    Assertions.assertSame(previousProject, MZmineCore.getProjectManager().getCurrentProject());
+  }
+
+  private static RawDataFile createRawDataFile() throws IOException {
+    final RawDataFile raw = new RawDataFileImpl("sample.mzML", null, null, Color.BLACK);
+    for (int i = 0; i < MS1_SCANS; i++) {
+      final Scan scan = new SimpleScan(raw, i, 1, 0.1f * (i + 1), null,
+          new double[]{200, 250.5, 300, 400}, new double[]{1E4, 0, 1E5 * (i + 1), 1E3},
+          MassSpectrumType.PROFILE, PolarityType.POSITIVE, "ms1", Range.closed(100d, 1000d),
+          i % 2 == 0 ? 15f : null);
+      if (i % 3 != 0) {
+        scan.addMassList(new SimpleMassList(null, new double[]{200, 300},
+            new double[]{1E4, 1E5 * (i + 1)}));
+      }
+      raw.addScan(scan);
+    }
+    for (int i = MS1_SCANS; i < MS1_SCANS + 2; i++) {
+      final Scan scan = new SimpleScan(raw, i, 2, 0.1f * (i - MS1_SCANS + 4),
+          new DDAMsMsInfoImpl(300, 1, 20f, null, null, 2, ActivationMethod.CID,
+              Range.closed(299d, 301d)), new double[]{100, 150}, new double[]{1E3, 2E3},
+          MassSpectrumType.CENTROIDED, PolarityType.POSITIVE, "ms2", Range.closed(50d, 310d));
+      scan.addMassList(new ScanPointerMassList(scan));
+      raw.addScan(scan);
+    }
+    return raw;
+  }
+
+  private static ModularFeatureList createFeatureList(RawDataFile raw) {
+    final List<Scan> scans = raw.getScans();
+    final ModularFeatureList flist = new ModularFeatureList("checkpoint flist", null, raw);
+    flist.setSelectedScans(raw, scans.subList(0, MS1_SCANS));
+    for (int id = 1; id <= 3; id++) {
+      final ModularFeatureListRow row = new ModularFeatureListRow(flist, id * 10);
+      final SimpleIonTimeSeries series = new SimpleIonTimeSeries(null,
+          new double[]{300.001, 300.002, 300.001}, new double[]{1E4 * id, 5E4 * id, 1E4 * id},
+          scans.subList(id, id + 3));
+      final ModularFeature feature = new ModularFeature(flist, raw, series,
+          FeatureStatus.DETECTED);
+      feature.setAllMS2FragmentScans(scans.subList(MS1_SCANS, scans.size()));
+      row.addFeature(raw, feature);
+      row.set(CommentType.class, "row " + id);
+      flist.addRow(row);
+    }
+    return flist;
+  }
+
+  private static void assertEqualScans(RawDataFile expected, RawDataFile actual) {
+    Assertions.assertEquals(expected.getName(), actual.getName());
+    Assertions.assertEquals(expected.getAbsolutePath(), actual.getAbsolutePath());
+    Assertions.assertEquals(expected.getColor(), actual.getColor());
+    Assertions.assertEquals(expected.getNumOfScans(), actual.getNumOfScans());
+    for (int i = 0; i < expected.getNumOfScans(); i++) {
+      final Scan e = expected.getScan(i);
+      final Scan a = actual.getScan(i);
+      Assertions.assertSame(actual, a.getDataFile());
+      Assertions.assertEquals(e.getScanNumber(), a.getScanNumber());
+      Assertions.assertEquals(e.getMSLevel(), a.getMSLevel());
+      Assertions.assertEquals(e.getRetentionTime(), a.getRetentionTime());
+      Assertions.assertEquals(e.getSpectrumType(), a.getSpectrumType());
+      Assertions.assertEquals(e.getPolarity(), a.getPolarity());
+      Assertions.assertEquals(e.getScanDefinition(), a.getScanDefinition());
+      Assertions.assertEquals(e.getScanningMZRange(), a.getScanningMZRange());
+      Assertions.assertEquals(e.getInjectionTime(), a.getInjectionTime());
+      Assertions.assertArrayEquals(e.getMzValues(new double[0]), a.getMzValues(new double[0]));
+      Assertions.assertArrayEquals(e.getIntensityValues(new double[0]),
+          a.getIntensityValues(new double[0]));
+
+      final MassList eMasses = e.getMassList();
+      final MassList aMasses = a.getMassList();
+      if (eMasses == null) {
+        Assertions.assertNull(aMasses);
+      } else {
+        Assertions.assertNotNull(aMasses);
+        Assertions.assertEquals(eMasses.getClass(), aMasses.getClass());
+        Assertions.assertArrayEquals(eMasses.getMzValues(new double[0]),
+            aMasses.getMzValues(new double[0]));
+        Assertions.assertArrayEquals(eMasses.getIntensityValues(new double[0]),
+            aMasses.getIntensityValues(new double[0]));
+      }
+
+      if (e.getMsMsInfo() == null) {
+        Assertions.assertNull(a.getMsMsInfo());
+      } else {
+        final DDAMsMsInfo info = (DDAMsMsInfo) a.getMsMsInfo();
+        Assertions.assertEquals(((DDAMsMsInfo) e.getMsMsInfo()).getIsolationMz(),
+            info.getIsolationMz());
+        Assertions.assertEquals(ActivationMethod.CID, info.getActivationMethod());
+        Assertions.assertSame(a, info.getMsMsScan());
+      }
+    }
+  }
+
+  private static void assertEqualFeatureList(ModularFeatureList expected,
+      ModularFeatureList actual, RawDataFile actualRaw) {
+    Assertions.assertEquals(expected.getName(), actual.getName());
+    Assertions.assertEquals(expected.getDateCreated(), actual.getDateCreated());
+    Assertions.assertEquals(List.of(actualRaw), actual.getRawDataFiles());
+    Assertions.assertEquals(actualRaw.getScans().subList(0, MS1_SCANS),
+        actual.getSeletedScans(actualRaw));
+    Assertions.assertEquals(expected.getNumberOfRows(), actual.getNumberOfRows());
+
+    for (int r = 0; r < expected.getNumberOfRows(); r++) {
+      final ModularFeatureListRow eRow = (ModularFeatureListRow) expected.getRow(r);
+      final ModularFeatureListRow aRow = (ModularFeatureListRow) actual.getRow(r);
+      Assertions.assertEquals(eRow.getID(), aRow.getID());
+      Assertions.assertEquals(eRow.get(CommentType.class), aRow.get(CommentType.class));
+      Assertions.assertEquals(eRow.getAverageMZ(), aRow.getAverageMZ());
+
+      final ModularFeature eFeature = eRow.getFeatures().get(0);
+      final ModularFeature aFeature = (ModularFeature) aRow.getFeature(actualRaw);
+      Assertions.assertNotNull(aFeature);
+      Assertions.assertSame(actualRaw, aFeature.getRawDataFile());
+      Assertions.assertEquals(eFeature.getFeatureStatus(), aFeature.getFeatureStatus());
+      Assertions.assertEquals(eFeature.getHeight(), aFeature.getHeight());
+      Assertions.assertEquals(eFeature.getArea(), aFeature.getArea());
+
+      final IonTimeSeries<? extends Scan> eData = eFeature.getFeatureData();
+      final IonTimeSeries<? extends Scan> aData = aFeature.getFeatureData();
+      Assertions.assertEquals(eData.getNumberOfValues(), aData.getNumberOfValues());
+      for (int i = 0; i < eData.getNumberOfValues(); i++) {
+        Assertions.assertSame(actualRaw.getScans().get(eData.getSpectra().get(i).getScanNumber()),
+            aData.getSpectra().get(i));
+        Assertions.assertEquals(eData.getMZ(i), aData.getMZ(i));
+        Assertions.assertEquals(eData.getIntensity(i), aData.getIntensity(i));
+      }
+      Assertions.assertEquals(actualRaw.getScans().subList(MS1_SCANS, MS1_SCANS + 2),
+          aFeature.getAllMS2FragmentScans());
+    }
+  }
+}
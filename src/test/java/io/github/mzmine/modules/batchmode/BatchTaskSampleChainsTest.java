@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.batchmode;
+
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.features.FeatureList;
+import io.github.mzmine.modules.batchmode.BatchTask.SampleChain;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class BatchTaskSampleChainsTest {
+
+  @Mock
+  RawDataFile rawA;
+  @Mock
+  RawDataFile rawB;
+  @Mock
+  RawDataFile rawC;
+  @Mock
+  FeatureList flistA;
+  @Mock
+  FeatureList flistC;
+
+  @Test
+  void featureListStepSkipsFilesWithoutFeatureLists() {
+    Mockito.when(flistA.getRawDataFiles()).thenReturn(List.of(rawA));
+    Mockito.when(flistC.getRawDataFiles()).thenReturn(List.of(rawC));
+
+    final Map<RawDataFile, SampleChain> chains = BatchTask.createSampleChains(
+        List.of(rawA, rawB, rawC), List.of(flistA, flistC), 3, true);
+
+    Assertions.assertNotNull(chains);
+    Assertions.assertEquals(List.of(rawA, rawC), List.copyOf(chains.keySet()));
+    Assertions.assertEquals(List.of(flistA), chains.get(rawA).featureLists);
+    Assertions.assertEquals(List.of(flistC), chains.get(rawC).featureLists);
+  }
+
+  @Test
+  void rawDataStepUsesAllFiles() {
+    Mockito.when(flistA.getRawDataFiles()).thenReturn(List.of(rawA));
+
+    final Map<RawDataFile, SampleChain> chains = BatchTask.createSampleChains(
+        List.of(rawA, rawB, rawC), List.of(flistA), 3, false);
+
+    Assertions.assertNotNull(chains);
+    Assertions.assertEquals(List.of(rawA, rawB, rawC), List.copyOf(chains.keySet()));
+    Assertions.assertEquals(List.of(flistA), chains.get(rawA).featureLists);
+    Assertions.assertTrue(chains.get(rawB).featureLists.isEmpty());
+  }
+
+  @Test
+  void alignedFeatureListsCannotBeSplit() {
+    Mockito.when(flistA.getRawDataFiles()).thenReturn(List.of(rawA, rawB));
+
+    Assertions.assertNull(
+        BatchTask.createSampleChains(List.of(rawA, rawB), List.of(flistA), 3, true));
+    Assertions.assertNull(
+        BatchTask.createSampleChains(List.of(rawA, rawB), List.of(flistA), 3, false));
+  }
+}
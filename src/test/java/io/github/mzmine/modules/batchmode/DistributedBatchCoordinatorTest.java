@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.mzmine.modules.batchmode;
+
+import io.github.mzmine.util.ExitCode;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs a coordinator and workers over the loopback interface with a test job processor instead of
+ * the batch.
+ */
+class DistributedBatchCoordinatorTest {
+
+  private static final String TOKEN = "test token";
+
+  @Test
+  void workersProcessJobsAndWrongTokenIsRejected() throws Exception {
+    final AtomicInteger processed = new AtomicInteger();
+    final DistributedBatchWorker.JobProcessor processor = (queueXml, file, payload) -> {
+      processed.incrementAndGet();
+      if (file.getName().startsWith("broken")) {
+        throw new IOException("cannot read " + file.getName());
+      }
+      payload.writeUTF(queueXml + " " + file.getName());
+    };
+
+    try (DistributedBatchCoordinator coordinator = new DistributedBatchCoordinator(0,
+        InetAddress.getLoopbackAddress(), 0, null, List.of(), TOKEN)) {
+      coordinator.start();
+      final CompletableFuture<byte[]> result = coordinator.submit("queue",
+          new File("sample.mzML"));
+
+      // the coordinator closes the connection before sending any job
+      Assertions.assertEquals(ExitCode.ERROR,
+          DistributedBatchWorker.run(coordinator.getAddress(), "wrong token", processor));
+      Assertions.assertEquals(0, processed.get());
+      Assertions.assertFalse(result.isDone());
+
+      final CompletableFuture<ExitCode> worker = CompletableFuture.supplyAsync(
+          () -> DistributedBatchWorker.run(coordinator.getAddress(), TOKEN, processor));
+      final DataInputStream payload = new DataInputStream(
+          new ByteArrayInputStream(result.get(30, TimeUnit.SECONDS)));
+      Assertions.assertEquals("queue sample.mzML", payload.readUTF());
+
+      final CompletableFuture<byte[]> failed = coordinator.submit("queue",
+          new File("broken.mzML"));
+      final ExecutionException e = Assertions.assertThrows(ExecutionException.class,
+          () -> failed.get(30, TimeUnit.SECONDS));
+      Assertions.assertTrue(e.getCause().getMessage().contains("cannot read broken.mzML"));
+      Assertions.assertEquals(2, processed.get());
+
+      coordinator.close();
+      Assertions.assertEquals(ExitCode.OK, worker.get(30, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  void invalidLengthsAreRejected() throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(-1);
+    out.writeInt(5);
+    out.write("12345".getBytes(StandardCharsets.UTF_8));
+    out.writeInt(Integer.MAX_VALUE);
+
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    Assertions.assertThrows(IOException.class, () -> DistributedBatchProtocol.readBytes(in, 10));
+    Assertions.assertEquals("12345",
+        new String(DistributedBatchProtocol.readBytes(in, 10), StandardCharsets.UTF_8));
+    Assertions.assertThrows(IOException.class, () -> DistributedBatchProtocol.readBytes(in, 10));
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.batchmode;
+
+import com.google.common.collect.Range;
+import io.github.mzmine.datamodel.FeatureStatus;
+import io.github.mzmine.datamodel.IsotopePattern;
+import io.github.mzmine.datamodel.IsotopePattern.IsotopePatternStatus;
+import io.github.mzmine.datamodel.MassList;
+import io.github.mzmine.datamodel.MassSpectrumType;
+import io.github.mzmine.datamodel.PolarityType;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.Scan;
+import io.github.mzmine.datamodel.featuredata.IonTimeSeries;
+import io.github.mzmine.datamodel.featuredata.impl.SimpleIonTimeSeries;
+import io.github.mzmine.datamodel.features.ModularFeature;
+import io.github.mzmine.datamodel.features.ModularFeatureList;
+import io.github.mzmine.datamodel.features.ModularFeatureListRow;
+import io.github.mzmine.datamodel.impl.DDAMsMsInfoImpl;
+import io.github.mzmine.datamodel.impl.SimpleIsotopePattern;
+import io.github.mzmine.datamodel.impl.SimpleScan;
+import io.github.mzmine.datamodel.impl.masslist.SimpleMassList;
+import io.github.mzmine.datamodel.msms.ActivationMethod;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Sends mass lists and a feature list from a worker raw data file to the same raw data file
+ * imported by the coordinator.
+ */
+class DistributedFeatureListExchangeTest {
+
+  private static final int MS1_SCANS = 10;
+
+  @Test
+  void roundTrip() throws IOException {
+    final RawDataFile workerRaw = createRawDataFile();
+    final RawDataFile coordinatorRaw = createRawDataFile();
+    final List<Scan> workerScans = workerRaw.getScans();
+    for (Scan scan : workerScans.subList(0, MS1_SCANS)) {
+      scan.addMassList(new SimpleMassList(null, new double[]{200, 300},
+          new double[]{scan.getRetentionTime() * 1E4, scan.getRetentionTime() * 2E4}));
+    }
+
+    final ModularFeatureList flist = new ModularFeatureList("worker flist", null, workerRaw);
+    flist.setSelectedScans(workerRaw, workerScans.subList(0, MS1_SCANS));
+    final ModularFeatureListRow row = new ModularFeatureListRow(flist, 1);
+    final SimpleIonTimeSeries series = new SimpleIonTimeSeries(null,
+        new double[]{300.001, 300.002, 300.001, 300.000, 300.001},
+        new double[]{1E4, 5E4, 1E5, 4E4, 1E4}, workerScans.subList(2, 7));
+    final ModularFeature feature = new ModularFeature(flist, workerRaw, series,
+        FeatureStatus.DETECTED);
+    feature.setRepresentativeScan(workerScans.get(4));
+    feature.setAllMS2FragmentScans(workerScans.subList(MS1_SCANS, workerScans.size()));
+    feature.setIsotopePattern(
+        new SimpleIsotopePattern(new double[]{300.001, 301.004}, new double[]{1E5, 2E4}, 1,
+            IsotopePatternStatus.DETECTED, "isotopes"));
+    row.addFeature(workerRaw, feature);
+    flist.addRow(row);
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      DistributedFeatureListExchange.writeMassLists(out, workerRaw);
+      DistributedFeatureListExchange.write(out, flist);
+    }
+
+    final RawDataFile massListRaw;
+    final ModularFeatureList imported;
+    try (DataInputStream in = new DataInputStream(
+        new ByteArrayInputStream(bytes.toByteArray()))) {
+      massListRaw = DistributedFeatureListExchange.readMassLists(in, List.of(coordinatorRaw),
+          null);
+      imported = DistributedFeatureListExchange.read(in, List.of(coordinatorRaw), null);
+      Assertions.assertEquals(0, in.available());
+    }
+
+    Assertions.assertSame(coordinatorRaw, massListRaw);
+    final List<Scan> scans = coordinatorRaw.getScans();
+    for (int i = 0; i < scans.size(); i++) {
+      final MassList expected = workerScans.get(i).getMassList();
+      final MassList actual = scans.get(i).getMassList();
+      if (expected == null) {
+        Assertions.assertNull(actual);
+        continue;
+      }
+      Assertions.assertEquals(expected.getNumberOfDataPoints(), actual.getNumberOfDataPoints());
+      for (int j = 0; j < expected.getNumberOfDataPoints(); j++) {
+        Assertions.assertEquals(expected.getMzValue(j), actual.getMzValue(j));
+        Assertions.assertEquals(expected.getIntensityValue(j), actual.getIntensityValue(j));
+      }
+    }
+
+    Assertions.assertEquals(flist.getName(), imported.getName());
+    Assertions.assertEquals(List.of(coordinatorRaw), imported.getRawDataFiles());
+    Assertions.assertEquals(scans.subList(0, MS1_SCANS), imported.getSeletedScans(coordinatorRaw));
+    Assertions.assertEquals(1, imported.getNumberOfRows());
+
+    final ModularFeature importedFeature = (ModularFeature) imported.getRow(0)
+        .getFeature(coordinatorRaw);
+    Assertions.assertNotNull(importedFeature);
+    final IonTimeSeries<? extends Scan> data = importedFeature.getFeatureData();
+    Assertions.assertEquals(scans.subList(2, 7), data.getSpectra());
+    for (int i = 0; i < series.getNumberOfValues(); i++) {
+      Assertions.assertEquals(series.getMZ(i), data.getMZ(i));
+      Assertions.assertEquals(series.getIntensity(i), data.getIntensity(i));
+    }
+    Assertions.assertSame(scans.get(4), importedFeature.getRepresentativeScan());
+    Assertions.assertEquals(scans.subList(MS1_SCANS, scans.size()),
+        importedFeature.getAllMS2FragmentScans());
+
+    final IsotopePattern pattern = importedFeature.getIsotopePattern();
+    Assertions.assertNotNull(pattern);
+    Assertions.assertEquals(2, pattern.getNumberOfDataPoints());
+    Assertions.assertEquals(301.004, pattern.getMzValue(1));
+    Assertions.assertEquals(2E4, pattern.getIntensityValue(1));
+    Assertions.assertEquals(1, pattern.getCharge());
+    Assertions.assertEquals(IsotopePatternStatus.DETECTED, pattern.getStatus());
+    Assertions.assertEquals("isotopes", pattern.getDescription());
+  }
+
+  @Test
+  void rejectsDifferentScans() throws IOException {
+    final RawDataFile workerRaw = createRawDataFile();
+    final RawDataFile coordinatorRaw = new RawDataFileImpl("sample.mzML", null, null,
+        Color.BLACK);
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      DistributedFeatureListExchange.writeMassLists(out, workerRaw);
+    }
+    Assertions.assertThrows(IOException.class,
+        () -> DistributedFeatureListExchange.readMassLists(
+            new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+            List.of(coordinatorRaw), null));
+  }
+
+  /**
+   * Both processes import the same file, the scans are only equal by their index
+   */
+  private static RawDataFile createRawDataFile() throws IOException {
+    final RawDataFile raw = new RawDataFileImpl("sample.mzML", null, null, Color.BLACK);
+    for (int i = 0; i < MS1_SCANS; i++) {
+      raw.addScan(new SimpleScan(raw, i, 1, 0.1f * (i + 1), null, new double[]{200, 300, 400},
+          new double[]{1E4, 1E5 * (i + 1), 1E3}, MassSpectrumType.CENTROIDED,
+          PolarityType.POSITIVE, "", Range.closed(100d, 1000d)));
+    }
+    for (int i = MS1_SCANS; i < MS1_SCANS + 2; i++) {
+      raw.addScan(new SimpleScan(raw, i, 2, 0.1f * (i - MS1_SCANS + 4),
+          new DDAMsMsInfoImpl(300, 1, 20f, null, null, 2, ActivationMethod.UNKNOWN,
+              Range.closed(299d, 301d)), new double[]{100, 150}, new double[]{1E3, 2E3},
+          MassSpectrumType.CENTROIDED, PolarityType.POSITIVE, "", Range.closed(50d, 310d)));
+    }
+    return raw;
+  }
+}
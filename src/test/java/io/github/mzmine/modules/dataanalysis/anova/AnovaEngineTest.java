@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.dataanalysis.anova;
+
+import io.github.mzmine.datamodel.FeatureStatus;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.features.FeatureListRow;
+import io.github.mzmine.datamodel.features.ModularFeature;
+import io.github.mzmine.datamodel.features.ModularFeatureList;
+import io.github.mzmine.datamodel.features.ModularFeatureListRow;
+import io.github.mzmine.modules.dataanalysis.anova.AnovaEngine.AnovaResult;
+import io.github.mzmine.project.impl.RawDataFileImpl;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import javafx.scene.paint.Color;
+import org.apache.commons.math3.distribution.FDistribution;
+import org.apache.commons.math3.stat.inference.OneWayAnova;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class AnovaEngineTest {
+
+  // group of each sample, the last sample has no group
+  private static final int[] GROUPS = {0, 0, 0, 0, 1, 1, 1, 2, 2, 2, 2, 2, -1};
+  // [row][sample], NaN for missing features
+  private static final double[][] HEIGHTS = {
+      {10, 12, 11, 13, 20, 22, 19, 15, 14, 16, 15, 17, 100},
+      {10, Double.NaN, 11, 9, 30, Double.NaN, 28, 12, 14, Double.NaN, 13, 11, Double.NaN},
+      // group 1 without values
+      {5, 7, 6, Double.NaN, Double.NaN, Double.NaN, Double.NaN, 9, 8, 10, 9, 11, 1},
+      {3e6, 2e6, 2.5e6, 2.2e6, 1e5, 2e5, 3e5, 2e6, 1e6, 3e6, 2.5e6, 1.5e6, 4e6}};
+
+  @Test
+  void computeMatchesOneWayAnova() {
+    final ModularFeatureList flist = createFeatureList();
+    final FeatureListRow[] rows = flist.getRows().toArray(FeatureListRow[]::new);
+    final AnovaResult result = new AnovaEngine(rows, flist.getRawDataFiles()).compute(GROUPS,
+        () -> false);
+    Assertions.assertNotNull(result);
+
+    final OneWayAnova anova = new OneWayAnova();
+    for (int r = 0; r < HEIGHTS.length; r++) {
+      final List<double[]> groups = new ArrayList<>();
+      for (int g = 0; g < 3; g++) {
+        final int group = g;
+        final int row = r;
+        final double[] values = IntStream.range(0, GROUPS.length)
+            .filter(s -> GROUPS[s] == group && !Double.isNaN(HEIGHTS[row][s]))
+            .mapToDouble(s -> HEIGHTS[row][s]).toArray();
+        if (values.length > 0) {
+          groups.add(values);
+        }
+      }
+      final double f = anova.anovaFValue(groups);
+      Assertions.assertEquals(f, result.fValues()[r], Math.abs(f) * 1e-9);
+      Assertions.assertEquals(anova.anovaPValue(groups), result.pValues()[r], 1e-9);
+    }
+  }
+
+  @Test
+  void engineIsReusedUntilHeightsChange() {
+    final ModularFeatureList flist = createFeatureList();
+    final FeatureListRow[] rows = flist.getRows().toArray(FeatureListRow[]::new);
+    final AnovaEngine engine = AnovaEngine.forFeatureList(flist, rows);
+    // e.g., another sample parameter
+    Assertions.assertSame(engine, AnovaEngine.forFeatureList(flist,
+        flist.getRows().toArray(FeatureListRow[]::new)));
+
+    flist.getRow(0).getFeature(flist.getRawDataFile(0)).setHeight(50f);
+    final AnovaEngine changedHeights = AnovaEngine.forFeatureList(flist, rows);
+    Assertions.assertNotSame(engine, changedHeights);
+
+    Assertions.assertNotSame(changedHeights,
+        AnovaEngine.forFeatureList(flist, new FeatureListRow[]{rows[1], rows[0]}));
+  }
+
+  private static ModularFeatureList createFeatureList() {
+    final List<RawDataFile> samples = IntStream.range(0, GROUPS.length)
+        .mapToObj(i -> (RawDataFile) new RawDataFileImpl("sample" + i + ".mzML", null, null,
+            Color.BLACK)).toList();
+    final ModularFeatureList flist = new ModularFeatureList("anova", null, samples);
+    for (int r = 0; r < HEIGHTS.length; r++) {
+      final ModularFeatureListRow row = new ModularFeatureListRow(flist, r + 1);
+      for (int s = 0; s < samples.size(); s++) {
+        if (!Double.isNaN(HEIGHTS[r][s])) {
+          final ModularFeature feature = new ModularFeature(flist, samples.get(s),
+              FeatureStatus.DETECTED);
+          feature.setHeight((float) HEIGHTS[r][s]);
+          row.addFeature(samples.get(s), feature);
+        }
+      }
+      flist.addRow(row);
+    }
+    return flist;
+  }
+
+  @Test
+  void fSurvivalMatchesDistribution() {
+    final FDistribution distribution = new FDistribution(2, 9);
+    for (double f : new double[]{0.1, 1, 3.5, 10}) {
+      Assertions.assertEquals(1 - distribution.cumulativeProbability(f),
+          AnovaEngine.fSurvival(f, 2, 9), 1e-9);
+    }
+  }
+
+  @Test
+  void benjaminiHochberg() {
+    // same as p.adjust(c(0.01, 0.04, 0.03, 0.5), "BH") in R
+    final double[] adjusted = AnovaEngine.benjaminiHochberg(
+        new double[]{0.01, 0.04, Double.NaN, 0.03, 0.5});
+    Assertions.assertArrayEquals(new double[]{0.04, 0.05333333333333334, Double.NaN,
+        0.05333333333333334, 0.5}, adjusted, 1e-12);
+  }
+}
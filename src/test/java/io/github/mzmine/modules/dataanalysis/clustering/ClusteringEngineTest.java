@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.dataanalysis.clustering;
+
+import io.github.mzmine.modules.dataanalysis.clustering.hierarchical.DistanceType;
+import io.github.mzmine.modules.dataanalysis.clustering.hierarchical.LinkType;
+import io.github.mzmine.modules.dataanalysis.clustering.hierarchical.LinkageEngine;
+import io.github.mzmine.modules.dataanalysis.clustering.hierarchical.LinkageEngine.Tree;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class ClusteringEngineTest {
+
+  private static final int GROUPS = 3;
+
+  @Test
+  void partitionsSeparatedGroups() {
+    // small data for Lloyd's algorithm, large data for mini-batches
+    for (int perGroup : new int[]{50, 4000}) {
+      final double[][] x = ClusteringEngine.normalizeRanges(groups(perGroup, 4));
+      assertGroups(ClusteringEngine.kMeans(x, GROUPS, () -> false), perGroup);
+      assertGroups(ClusteringEngine.farthestFirst(x, GROUPS, () -> false), perGroup);
+    }
+  }
+
+  @Test
+  void mixtureSelectsNumberOfComponents() {
+    final int[] labels = ClusteringEngine.gaussianMixture(groups(60, 3), 100, () -> false);
+    Assertions.assertNotNull(labels);
+    Assertions.assertEquals(GROUPS, Arrays.stream(labels).max().getAsInt() + 1);
+    assertGroups(labels, 60);
+  }
+
+  @Test
+  void averageLinkageMatchesNaiveClustering() {
+    final Random random = new Random(3);
+    final double[][] x = new double[40][4];
+    for (double[] item : x) {
+      for (int f = 0; f < item.length; f++) {
+        item[f] = random.nextDouble();
+      }
+    }
+    final Tree tree = LinkageEngine.cluster(x, LinkType.AVERAGE, DistanceType.EUCLIDIAN,
+        () -> false);
+    Assertions.assertNotNull(tree);
+
+    // heights from the branch lengths, merges are sorted by height
+    final int n = x.length;
+    final double[] heights = new double[n - 1];
+    for (int m = 0; m < heights.length; m++) {
+      final int child = tree.merges()[m][0];
+      heights[m] = tree.lengths()[m][0] + (child < n ? 0d : heights[child - n]);
+    }
+
+    final List<List<Integer>> clusters = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      clusters.add(new ArrayList<>(List.of(i)));
+    }
+    for (int m = 0; m < n - 1; m++) {
+      double best = Double.POSITIVE_INFINITY;
+      int bestA = 0;
+      int bestB = 0;
+      for (int a = 0; a < clusters.size(); a++) {
+        for (int b = a + 1; b < clusters.size(); b++) {
+          double sum = 0;
+          for (int u : clusters.get(a)) {
+            for (int v : clusters.get(b)) {
+              sum += distance(x[u], x[v]);
+            }
+          }
+          final double linkage = sum / (clusters.get(a).size() * clusters.get(b).size());
+          if (linkage < best) {
+            best = linkage;
+            bestA = a;
+            bestB = b;
+          }
+        }
+      }
+      clusters.get(bestA).addAll(clusters.remove(bestB));
+      Assertions.assertEquals(best, heights[m], 1e-5);
+    }
+  }
+
+  @Test
+  void newickOfClusters() {
+    final double[][] x = {{0}, {1}, {5}};
+    final Tree tree = LinkageEngine.cluster(x, LinkType.SINGLE, DistanceType.EUCLIDIAN,
+        () -> false);
+    Assertions.assertNotNull(tree);
+    final String[] names = {"a(1)", "b:2", "c"};
+    final int[] roots = tree.roots(2);
+    Assertions.assertEquals(2, roots.length);
+    Assertions.assertEquals("(c:0.0)", tree.toNewick(roots[0], names));
+    Assertions.assertEquals("(a_1_:1.0,b_2:1.0)", tree.toNewick(roots[1], names));
+    Assertions.assertArrayEquals(new int[]{1, 1, 0}, tree.leafClusters(roots));
+  }
+
+  /**
+   * @return GROUPS groups of items around different centers
+   */
+  private static double[][] groups(int perGroup, int dimensions) {
+    final Random random = new Random(1);
+    final double[][] x = new double[perGroup * GROUPS][dimensions];
+    for (int i = 0; i < x.length; i++) {
+      for (int f = 0; f < dimensions; f++) {
+        x[i][f] = (i / perGroup) * 10 + random.nextGaussian();
+      }
+    }
+    return x;
+  }
+
+  /**
+   * All items of a group share one cluster, which is different for each group
+   */
+  private static void assertGroups(int[] labels, int perGroup) {
+    Assertions.assertNotNull(labels);
+    final int[] groupLabels = new int[GROUPS];
+    for (int g = 0; g < GROUPS; g++) {
+      groupLabels[g] = labels[g * perGroup];
+      for (int i = g * perGroup; i < (g + 1) * perGroup; i++) {
+        Assertions.assertEquals(groupLabels[g], labels[i]);
+      }
+    }
+    Assertions.assertEquals(GROUPS, Arrays.stream(groupLabels).distinct().count());
+  }
+
+  private static double distance(double[] a, double[] b) {
+    double sum = 0;
+    for (int i = 0; i < a.length; i++) {
+      sum += (a[i] - b[i]) * (a[i] - b[i]);
+    }
+    return Math.sqrt(sum);
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.dataanalysis.clustering.hierarchical;
+
+import io.github.mzmine.modules.dataanalysis.clustering.hierarchical.LinkageEngine.Tree;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class LinkageEngineTest {
+
+  @Test
+  void matchesNaiveCompleteLinkageWithMissingValues() {
+    final Random random = new Random(1);
+    final double[][] x = new double[60][12];
+    for (int i = 0; i < x.length; i++) {
+      for (int j = 0; j < x[i].length; j++) {
+        x[i][j] = random.nextDouble() < 0.05 ? Double.NaN : random.nextGaussian() + i % 3;
+      }
+    }
+
+    final Tree tree = LinkageEngine.cluster(x, LinkType.COMPLETE, DistanceType.EUCLIDIAN,
+        () -> false);
+    Assertions.assertNotNull(tree);
+    final int[] order = tree.order(null);
+    Assertions.assertArrayEquals(IntStream.range(0, x.length).toArray(),
+        Arrays.stream(order).sorted().toArray());
+
+    // naive complete linkage
+    final List<List<Integer>> clusters = new ArrayList<>();
+    for (int i = 0; i < x.length; i++) {
+      clusters.add(new ArrayList<>(List.of(i)));
+    }
+    final double[] expected = new double[x.length - 1];
+    for (int m = 0; m < expected.length; m++) {
+      double best = Double.POSITIVE_INFINITY;
+      int bestA = 0;
+      int bestB = 0;
+      for (int a = 0; a < clusters.size(); a++) {
+        for (int b = a + 1; b < clusters.size(); b++) {
+          double linkage = 0;
+          for (int u : clusters.get(a)) {
+            for (int v : clusters.get(b)) {
+              linkage = Math.max(linkage, distance(x[u], x[v]));
+            }
+          }
+          if (linkage < best) {
+            best = linkage;
+            bestA = a;
+            bestB = b;
+          }
+        }
+      }
+      clusters.get(bestA).addAll(clusters.remove(bestB));
+      expected[m] = best;
+    }
+
+    final double[] heights = tree.heights();
+    Arrays.sort(heights);
+    Arrays.sort(expected);
+    Assertions.assertArrayEquals(expected, heights, 1e-4);
+  }
+
+  @Test
+  void omitsRowsWithoutCommonDimensionsLikeR() {
+    final double nan = Double.NaN;
+    final double[][] x = {{1, 2, nan}, // kept, first row
+        {nan, nan, 3}, // no common dimension with row 0
+        {4, nan, 5}, // common dimensions with rows 0 and 1
+        {nan, 6, nan}, // no common dimension with rows 1 and 2
+        {7, 8, 9}};
+    Assertions.assertArrayEquals(new int[]{0, 2, 4}, LinkageEngine.omitIncomparable(x));
+  }
+
+  /**
+   * euclidean distance of the dimensions present in both, scaled to all dimensions like R dist
+   */
+  private static double distance(double[] a, double[] b) {
+    double sum = 0;
+    int count = 0;
+    for (int i = 0; i < a.length; i++) {
+      final double diff = a[i] - b[i];
+      if (!Double.isNaN(diff)) {
+        sum += diff * diff;
+        count++;
+      }
+    }
+    return Math.sqrt(sum * a.length / count);
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.dataanalysis.projectionplots;
+
+import io.github.mzmine.modules.dataanalysis.projectionplots.ProjectionEngine.PcaResult;
+import java.util.Random;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class ProjectionEngineTest {
+
+  private static double[][] scaled;
+
+  /**
+   * two groups of samples and a second independent direction of variance
+   */
+  @BeforeAll
+  static void createData() {
+    final Random random = new Random(1);
+    final double[][] samples = new double[40][3000];
+    for (int i = 0; i < samples.length; i++) {
+      final double group = i < 20 ? 5 : -5;
+      final double second = random.nextGaussian() * 2;
+      for (int f = 0; f < samples[i].length; f++) {
+        samples[i][f] = (f % 7 == 0 ? group : 0) + (f % 5 == 0 ? second : 0)
+            + random.nextGaussian() * 0.1;
+      }
+    }
+    scaled = ProjectionEngine.scaleToUnitVariance(samples);
+  }
+
+  @Test
+  void randomizedPcaMatchesEigenvalues() {
+    final int n = scaled.length;
+    final double[][] gram = new double[n][n];
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        for (int f = 0; f < scaled[i].length; f++) {
+          gram[i][j] += scaled[i][f] * scaled[j][f];
+        }
+      }
+    }
+    final double[] eigenvalues = new double[n];
+    ProjectionEngine.symmetricEigen(gram, eigenvalues);
+
+    final PcaResult pca = ProjectionEngine.pca(scaled, 2, null, () -> false);
+    Assertions.assertNotNull(pca);
+    for (int c = 0; c < 2; c++) {
+      Assertions.assertEquals(eigenvalues[c], sumOfSquares(pca.scores()[c]),
+          eigenvalues[c] * 1e-6);
+    }
+
+    // warm start with the previous basis
+    final PcaResult warm = ProjectionEngine.pca(scaled, 2, pca.basis(), () -> false);
+    Assertions.assertNotNull(warm);
+    Assertions.assertEquals(eigenvalues[0], sumOfSquares(warm.scores()[0]), eigenvalues[0] * 1e-6);
+  }
+
+  @Test
+  void blockedDistances() {
+    final double[][] distances = ProjectionEngine.distances(scaled, () -> false);
+    Assertions.assertNotNull(distances);
+    for (int i = 0; i < scaled.length; i += 7) {
+      for (int j = 0; j < scaled.length; j += 3) {
+        double sum = 0;
+        for (int f = 0; f < scaled[i].length; f++) {
+          final double d = scaled[i][f] - scaled[j][f];
+          sum += d * d;
+        }
+        Assertions.assertEquals(Math.sqrt(sum), distances[i][j], 1e-9);
+      }
+    }
+  }
+
+  @Test
+  void sammonAndCdaReduceStress() {
+    final double[][] distances = ProjectionEngine.distances(scaled, () -> false);
+    final PcaResult pca = ProjectionEngine.pca(scaled, 2, null, () -> false);
+    Assertions.assertNotNull(distances);
+    Assertions.assertNotNull(pca);
+
+    final double[][] sammon = ProjectionEngine.sammon(distances, pca.scores(), 100, () -> false,
+        null);
+    Assertions.assertNotNull(sammon);
+    Assertions.assertTrue(stress(distances, sammon) < stress(distances, pca.scores()));
+
+    final double[][] geodesic = ProjectionEngine.geodesicDistances(distances, 6);
+    final double[][] cda = ProjectionEngine.cda(geodesic, pca.scores(), 100, () -> false, null);
+    Assertions.assertNotNull(cda);
+    Assertions.assertTrue(stress(geodesic, cda) < stress(geodesic, pca.scores()));
+  }
+
+  private static double sumOfSquares(double[] values) {
+    double sum = 0;
+    for (double v : values) {
+      sum += v * v;
+    }
+    return sum;
+  }
+
+  private static double stress(double[][] distances, double[][] coords) {
+    double error = 0;
+    double total = 0;
+    for (int i = 0; i < distances.length; i++) {
+      for (int j = i + 1; j < distances.length; j++) {
+        double sum = 0;
+        for (double[] dimension : coords) {
+          sum += (dimension[i] - dimension[j]) * (dimension[i] - dimension[j]);
+        }
+        final double diff = distances[i][j] - Math.sqrt(sum);
+        error += diff * diff / distances[i][j];
+        total += distances[i][j];
+      }
+    }
+    return error / total;
+  }
+}
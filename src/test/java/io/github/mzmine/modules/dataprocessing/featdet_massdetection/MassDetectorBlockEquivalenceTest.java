@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.dataprocessing.featdet_massdetection;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import io.github.mzmine.datamodel.MassSpectrum;
+import io.github.mzmine.datamodel.impl.masslist.SimpleMassList;
+import io.github.mzmine.modules.dataprocessing.featdet_massdetection.centroid.CentroidMassDetector;
+import io.github.mzmine.modules.dataprocessing.featdet_massdetection.centroid.CentroidMassDetectorParameters;
+import io.github.mzmine.modules.dataprocessing.featdet_massdetection.exactmass.ExactMassDetector;
+import io.github.mzmine.modules.dataprocessing.featdet_massdetection.exactmass.ExactMassDetectorParameters;
+import io.github.mzmine.modules.dataprocessing.featdet_massdetection.localmaxima.LocalMaxMassDetector;
+import io.github.mzmine.modules.dataprocessing.featdet_massdetection.localmaxima.LocalMaxMassDetectorParameters;
+import io.github.mzmine.modules.dataprocessing.featdet_massdetection.recursive.RecursiveMassDetector;
+import io.github.mzmine.modules.dataprocessing.featdet_massdetection.recursive.RecursiveMassDetectorParameters;
+import io.github.mzmine.modules.dataprocessing.featdet_massdetection.wavelet.WaveletMassDetector;
+import io.github.mzmine.modules.dataprocessing.featdet_massdetection.wavelet.WaveletMassDetectorParameters;
+import io.github.mzmine.parameters.ParameterSet;
+import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Runs every mass detector on the same randomized profile and centroid spectra with the per-scan
+ * implementation it had before the block API and with
+ * {@link MassDetector#getMassValues(List, ParameterSet, MassDetectionBlock)}. Both must detect
+ * identical m/z and intensity arrays.
+ */
+class MassDetectorBlockEquivalenceTest {
+
+  private static final double ISOTOPE_DISTANCE = 1.0033548;
+
+  static Stream<Arguments> detectors() {
+    final ParameterSet centroid = centroidParameters(false);
+    final ParameterSet centroidIsotopes = centroidParameters(true);
+
+    final ParameterSet exact = exactMassParameters(false);
+    final ParameterSet exactIsotopes = exactMassParameters(true);
+
+    final ParameterSet localMax = new LocalMaxMassDetectorParameters().cloneParameterSet();
+    localMax.setParameter(LocalMaxMassDetectorParameters.noiseLevel, 500d);
+
+    final ParameterSet recursive = new RecursiveMassDetectorParameters().cloneParameterSet();
+    recursive.setParameter(RecursiveMassDetectorParameters.noiseLevel, 500d);
+    recursive.setParameter(RecursiveMassDetectorParameters.minimumMZPeakWidth, 0.01);
+    recursive.setParameter(RecursiveMassDetectorParameters.maximumMZPeakWidth, 0.2);
+
+    final ParameterSet wavelet = new WaveletMassDetectorParameters().cloneParameterSet();
+    wavelet.setParameter(WaveletMassDetectorParameters.noiseLevel, 500d);
+    wavelet.setParameter(WaveletMassDetectorParameters.scaleLevel, 3);
+    wavelet.setParameter(WaveletMassDetectorParameters.waveletWindow, 0.3);
+
+    return Stream.of( //
+        Arguments.of("Centroid", new CentroidMassDetector(), new LegacyCentroidMassDetector(),
+            centroid), //
+        Arguments.of("Centroid with isotopes", new CentroidMassDetector(),
+            new LegacyCentroidMassDetector(), centroidIsotopes), //
+        Arguments.of("Exact mass", new ExactMassDetector(), new LegacyExactMassDetector(), exact),
+        Arguments.of("Exact mass with isotopes", new ExactMassDetector(),
+            new LegacyExactMassDetector(), exactIsotopes), //
+        Arguments.of("Local maxima", new LocalMaxMassDetector(), new LegacyLocalMaxMassDetector(),
+            localMax), //
+        Arguments.of("Recursive", new RecursiveMassDetector(), new LegacyRecursiveMassDetector(),
+            recursive), //
+        Arguments.of("Wavelet", new WaveletMassDetector(), new LegacyWaveletMassDetector(),
+            wavelet));
+  }
+
+  @ParameterizedTest(name = "{0}")
+  @MethodSource("detectors")
+  void blockEqualsPerScanDetection(String name, MassDetector detector, MassDetector legacy,
+      ParameterSet parameters) {
+    for (long seed = 1; seed <= 4; seed++) {
+      final Random random = new Random(seed);
+      final List<MassSpectrum> spectra = new ArrayList<>();
+      for (int i = 0; i < 6; i++) {
+        spectra.add(i % 3 == 2 ? centroidSpectrum(random) : profileSpectrum(random));
+      }
+      spectra.add(new SimpleMassList(null, new double[0], new double[0]));
+
+      // small capacity so the block has to grow
+      final MassDetectionBlock block = new MassDetectionBlock(16);
+      // run twice to cover the reuse of the block and of cached parameters
+      for (int run = 0; run < 2; run++) {
+        block.clear();
+        detector.getMassValues(spectra, parameters, block);
+        assertEquals(spectra.size(), block.getNumberOfSpectra(), name);
+
+        for (int i = 0; i < spectra.size(); i++) {
+          final double[][] expected = legacy.getMassValues(spectra.get(i), parameters);
+          final int start = block.getStart(i);
+          final int end = start + block.getNumberOfPoints(i);
+          final String message = name + ", seed " + seed + ", spectrum " + i;
+
+          assertArrayEquals(expected[0], Arrays.copyOfRange(block.getMzs(), start, end), message);
+          assertArrayEquals(expected[1], Arrays.copyOfRange(block.getIntensities(), start, end),
+              message);
+
+          final double[][] single = detector.getMassValues(spectra.get(i), parameters);
+          assertArrayEquals(expected[0], single[0], message);
+          assertArrayEquals(expected[1], single[1], message);
+        }
+      }
+    }
+  }
+
+  private static ParameterSet centroidParameters(boolean detectIsotopes) {
+    final ParameterSet parameters = new CentroidMassDetectorParameters().cloneParameterSet();
+    parameters.setParameter(CentroidMassDetectorParameters.noiseLevel, 500d);
+    parameters.getParameter(CentroidMassDetectorParameters.detectIsotopes).setValue(detectIsotopes);
+    setIsotopeParameters(parameters.getParameter(CentroidMassDetectorParameters.detectIsotopes)
+        .getEmbeddedParameters());
+    return parameters;
+  }
+
+  private static ParameterSet exactMassParameters(boolean detectIsotopes) {
+    final ParameterSet parameters = new ExactMassDetectorParameters().cloneParameterSet();
+    parameters.setParameter(ExactMassDetectorParameters.noiseLevel, 500d);
+    parameters.getParameter(ExactMassDetectorParameters.detectIsotopes).setValue(detectIsotopes);
+    setIsotopeParameters(parameters.getParameter(ExactMassDetectorParameters.detectIsotopes)
+        .getEmbeddedParameters());
+    return parameters;
+  }
+
+  private static void setIsotopeParameters(ParameterSet isotopes) {
+    isotopes.setParameter(DetectIsotopesParameter.maxCharge, 2);
+    isotopes.setParameter(DetectIsotopesParameter.isotopeMzTolerance, new MZTolerance(0.002, 10));
+  }
+
+  /**
+   * Gaussian peaks with low abundant isotope signals on an equidistant m/z grid. Intensities below 1
+   * are set to zero to create the zero regions of profile spectra.
+   */
+  private static MassSpectrum profileSpectrum(Random random) {
+    final double step = 0.004;
+    final int points = 25_000;
+    final double[] mzs = new double[points];
+    final double[] intensities = new double[points];
+    for (int i = 0; i < points; i++) {
+      mzs[i] = 150 + i * step;
+    }
+
+    for (int peak = 0; peak < 60; peak++) {
+      final double mz = 155 + random.nextDouble() * 85;
+      final double height = Math.pow(10, 2 + random.nextDouble() * 3);
+      final double sigma = 0.004 + random.nextDouble() * 0.01;
+      addGaussian(mzs, intensities, mz, height, sigma);
+      for (int isotope = 1; isotope <= 2; isotope++) {
+        addGaussian(mzs, intensities, mz + isotope * ISOTOPE_DISTANCE,
+            height * Math.pow(0.1 + random.nextDouble() * 0.2, isotope), sigma);
+      }
+    }
+
+    for (int i = 0; i < points; i++) {
+      if (intensities[i] < 1) {
+        intensities[i] = 0;
+      } else {
+        intensities[i] += random.nextDouble() * 20;
+      }
+    }
+    return new SimpleMassList(null, mzs, intensities);
+  }
+
+  private static void addGaussian(double[] mzs, double[] intensities, double mz, double height,
+      double sigma) {
+    for (int i = 0; i < mzs.length; i++) {
+      final double delta = (mzs[i] - mz) / sigma;
+      if (Math.abs(delta) < 8) {
+        intensities[i] += height * Math.exp(-0.5 * delta * delta);
+      }
+    }
+  }
+
+  /**
+   * Sorted centroid signals with isotope signals below the noise level.
+   */
+  private static MassSpectrum centroidSpectrum(Random random) {
+    final List<double[]> signals = new ArrayList<>();
+    for (int i = 0; i < 300; i++) {
+      final double mz = 100 + random.nextDouble() * 900;
+      final double height = Math.pow(10, 1 + random.nextDouble() * 4);
+      signals.add(new double[]{mz, height});
+      if (random.nextInt(3) == 0) {
+        final int charge = 1 + random.nextInt(2);
+        signals.add(new double[]{mz + ISOTOPE_DISTANCE / charge, height * 0.05});
+      }
+    }
+    signals.sort((a, b) -> Double.compare(a[0], b[0]));
+    return new SimpleMassList(null, signals.stream().mapToDouble(s -> s[0]).toArray(),
+        signals.stream().mapToDouble(s -> s[1]).toArray());
+  }
+}
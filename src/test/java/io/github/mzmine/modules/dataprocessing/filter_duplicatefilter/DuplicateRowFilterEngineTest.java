@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.dataprocessing.filter_duplicatefilter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.Range;
+import io.github.mzmine.datamodel.FeatureStatus;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.features.Feature;
+import io.github.mzmine.datamodel.features.FeatureListRow;
+import io.github.mzmine.datamodel.features.ModularFeature;
+import io.github.mzmine.datamodel.features.ModularFeatureList;
+import io.github.mzmine.datamodel.features.ModularFeatureListRow;
+import io.github.mzmine.datamodel.features.types.DetectionType;
+import io.github.mzmine.datamodel.features.types.RawFileType;
+import io.github.mzmine.datamodel.features.types.numbers.AreaType;
+import io.github.mzmine.datamodel.features.types.numbers.HeightType;
+import io.github.mzmine.datamodel.features.types.numbers.MZType;
+import io.github.mzmine.datamodel.features.types.numbers.MobilityType;
+import io.github.mzmine.datamodel.features.types.numbers.RTType;
+import io.github.mzmine.modules.dataprocessing.filter_duplicatefilter.DuplicateFilterParameters.FilterMode;
+import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import io.github.mzmine.parameters.parametertypes.tolerances.RTTolerance;
+import io.github.mzmine.parameters.parametertypes.tolerances.RTTolerance.Unit;
+import io.github.mzmine.parameters.parametertypes.tolerances.mobilitytolerance.MobilityTolerance;
+import io.github.mzmine.util.FeatureListRowSorter;
+import io.github.mzmine.util.SortingDirection;
+import io.github.mzmine.util.SortingProperty;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+/**
+ * Compares the {@link DuplicateRowFilterEngine} to the sequential all-rows loops it replaced on
+ * synthetic feature lists with clusters of duplicates.
+ */
+@ExtendWith(MockitoExtension.class)
+class DuplicateRowFilterEngineTest {
+
+  private static final MZTolerance MZ_TOL = new MZTolerance(0.003, 5);
+  private static final RTTolerance RT_TOL = new RTTolerance(0.08f, Unit.MINUTES);
+
+  @Mock
+  RawDataFile raw1;
+  @Mock
+  RawDataFile raw2;
+  @Mock
+  RawDataFile raw3;
+
+  @Test
+  void oldAverageIdenticalToSequentialFilter() {
+    assertIdenticalToSequentialFilter(FilterMode.OLD_AVERAGE);
+  }
+
+  @Test
+  void newAverageIdenticalToSequentialFilter() {
+    assertIdenticalToSequentialFilter(FilterMode.NEW_AVERAGE);
+  }
+
+  @Test
+  void singleFeatureIdenticalToSequentialFilter() {
+    assertIdenticalToSequentialFilter(FilterMode.SINGLE_FEATURE);
+  }
+
+  private void assertIdenticalToSequentialFilter(FilterMode mode) {
+    for (long seed = 1; seed <= 4; seed++) {
+      final boolean withMobility = seed % 2 == 0;
+      final MobilityTolerance mobTol = new MobilityTolerance(withMobility ? 0.01f : Float.MAX_VALUE);
+
+      final ModularFeatureList expectedList = createList(seed, withMobility);
+      final ModularFeatureListRow[] expected = expectedList.getRows()
+          .toArray(ModularFeatureListRow[]::new);
+      final int expectedRemoved = filterSequential(expectedList, expected, mode, mobTol);
+
+      final ModularFeatureList actualList = createList(seed, withMobility);
+      final ModularFeatureListRow[] actual = actualList.getRows()
+          .toArray(ModularFeatureListRow[]::new);
+      final int actualRemoved = new DuplicateRowFilterEngine(actualList, MZ_TOL, RT_TOL, mobTol,
+          false, mode).filter(actual, () -> false);
+
+      assertTrue(expectedRemoved > 0);
+      assertEquals(expectedRemoved, actualRemoved, mode + " seed " + seed);
+      assertEquals(describe(expectedList, expected), describe(actualList, actual),
+          mode + " seed " + seed);
+    }
+  }
+
+  /**
+   * Clusters of rows close in m/z and RT. Some clusters overlap, so rows have to be merged in the
+   * right order.
+   */
+  private ModularFeatureList createList(long seed, boolean withMobility) {
+    final Random random = new Random(seed);
+    final RawDataFile[] raws = {raw1, raw2, raw3};
+    final ModularFeatureList flist = new ModularFeatureList("synthetic", null, raws);
+
+    int id = 1;
+    double mz = 100;
+    for (int cluster = 0; cluster < 400; cluster++) {
+      // small steps lead to chains of overlapping clusters
+      mz += random.nextDouble() < 0.3 ? random.nextDouble() * 0.004 : random.nextDouble() * 2;
+      final float rt = (float) (random.nextDouble() * 20);
+      final float mobility = (float) (0.5 + random.nextDouble());
+      final int clusterSize = 1 + random.nextInt(5);
+      for (int r = 0; r < clusterSize; r++) {
+        final ModularFeatureListRow row = new ModularFeatureListRow(flist, id++);
+        for (final RawDataFile raw : raws) {
+          if (random.nextDouble() < 0.25) {
+            continue;
+          }
+          final ModularFeature f = new ModularFeature(flist);
+          f.set(RawFileType.class, raw);
+          f.set(MZType.class, mz + (random.nextDouble() - 0.5) * 0.004);
+          f.set(RTType.class, rt + (float) ((random.nextDouble() - 0.5) * 0.12));
+          if (withMobility) {
+            f.set(MobilityType.class, mobility + (float) ((random.nextDouble() - 0.5) * 0.015));
+          }
+          final float height = (float) (1E3 + random.nextDouble() * 1E6);
+          f.set(HeightType.class, height);
+          f.set(AreaType.class, height * (float) (1 + random.nextDouble()));
+          f.set(DetectionType.class,
+              random.nextDouble() < 0.7 ? FeatureStatus.DETECTED : FeatureStatus.ESTIMATED);
+          row.addFeature(raw, f);
+        }
+        if (row.getNumberOfFeatures() > 0) {
+          flist.addRow(row);
+        }
+      }
+    }
+    return flist;
+  }
+
+  private static List<String> describe(ModularFeatureList flist, ModularFeatureListRow[] rows) {
+    final List<String> description = new ArrayList<>();
+    Arrays.stream(rows).filter(Objects::nonNull).forEach(row -> {
+      final StringBuilder b = new StringBuilder().append(row.getID());
+      for (final RawDataFile raw : flist.getRawDataFiles()) {
+        final Feature f = row.getFeature(raw);
+        if (f != null) {
+          b.append(' ').append(f.getFeatureStatus()).append(' ').append(f.getMZ()).append(' ')
+              .append(f.getRT()).append(' ').append(f.getHeight());
+        }
+      }
+      b.append(" avg ").append(row.getAverageMZ()).append(' ').append(row.getAverageRT());
+      description.add(b.toString());
+    });
+    return description;
+  }
+
+  /**
+   * The duplicate filter before the sort-and-sweep engine, comparing every row with all later
+   * rows.
+   */
+  private static int filterSequential(ModularFeatureList flist, ModularFeatureListRow[] rows,
+      FilterMode mode, MobilityTolerance mobTol) {
+    final RawDataFile[] rawFiles = flist.getRawDataFiles().toArray(RawDataFile[]::new);
+    int n = 0;
+    if (mode == FilterMode.OLD_AVERAGE) {
+      Arrays.sort(rows, new FeatureListRowSorter(SortingProperty.Area, SortingDirection.Descending));
+      for (int i = 0; i < rows.length; i++) {
+        if (rows[i] == null) {
+          continue;
+        }
+        for (int j = i + 1; j < rows.length; j++) {
+          if (rows[j] != null
+              && MZ_TOL.checkWithinTolerance(rows[i].getAverageMZ(), rows[j].getAverageMZ())
+              && RT_TOL.checkWithinTolerance(rows[i].getAverageRT(), rows[j].getAverageRT())
+              && checkMobility(rows[i], rows[j], mobTol)) {
+            n++;
+            rows[j] = null;
+          }
+        }
+      }
+      return n;
+    }
+
+    Arrays.sort(rows, new FeatureListRowSorter(SortingProperty.MZ, SortingDirection.Ascending));
+    for (int i = 0; i < rows.length; i++) {
+      final ModularFeatureListRow firstRow = rows[i];
+      if (firstRow == null) {
+        continue;
+      }
+      final Range<Double> window;
+      if (mode == FilterMode.NEW_AVERAGE) {
+        window = MZ_TOL.getToleranceRange(firstRow.getAverageMZ());
+      } else {
+        final double min = firstRow.getFeatures().stream().mapToDouble(ModularFeature::getMZ)
+            .min().orElseThrow();
+        final double max = firstRow.getFeatures().stream().mapToDouble(ModularFeature::getMZ)
+            .max().orElseThrow();
+        window = Range.closed(MZ_TOL.getToleranceRange(min).lowerEndpoint(),
+            MZ_TOL.getToleranceRange(max).upperEndpoint());
+      }
+      for (int j = i + 1; j < rows.length; j++) {
+        final ModularFeatureListRow secondRow = rows[j];
+        if (secondRow == null) {
+          continue;
+        }
+        final double mz2 = secondRow.getAverageMZ();
+        if (mz2 < window.lowerEndpoint()) {
+          continue;
+        }
+        if (mz2 > window.upperEndpoint()) {
+          break;
+        }
+        final boolean sameRT = mode == FilterMode.NEW_AVERAGE ? RT_TOL.checkWithinTolerance(
+            firstRow.getAverageRT(), secondRow.getAverageRT())
+            : Arrays.stream(rawFiles).anyMatch(raw -> {
+              final Feature f1 = firstRow.getFeature(raw);
+              final Feature f2 = secondRow.getFeature(raw);
+              return f1 != null && f2 != null && MZ_TOL.checkWithinTolerance(f1.getMZ(),
+                  f2.getMZ()) && RT_TOL.checkWithinTolerance(f1.getRT(), f2.getRT());
+            });
+        if (sameRT && checkMobility(firstRow, secondRow, mobTol)) {
+          mergeInto(flist, rawFiles, firstRow, secondRow);
+          n++;
+          rows[j] = null;
+        }
+      }
+    }
+    return n;
+  }
+
+  private static void mergeInto(ModularFeatureList flist, RawDataFile[] rawFiles,
+      FeatureListRow firstRow, FeatureListRow secondRow) {
+    for (final RawDataFile raw : rawFiles) {
+      final Feature f2 = secondRow.getFeature(raw);
+      if (f2 == null) {
+        continue;
+      }
+      final Feature f1 = firstRow.getFeature(raw);
+      final FeatureStatus status1 = f1 != null ? f1.getFeatureStatus() : FeatureStatus.UNKNOWN;
+      final boolean replace = switch (f2.getFeatureStatus()) {
+        case DETECTED -> status1 != FeatureStatus.DETECTED || f1.getHeight() < f2.getHeight();
+        case ESTIMATED -> status1 == FeatureStatus.UNKNOWN || (status1 == FeatureStatus.ESTIMATED
+            && f1.getHeight() < f2.getHeight());
+        default -> false;
+      };
+      if (replace) {
+        firstRow.addFeature(raw, new ModularFeature(flist, f2));
+      }
+    }
+  }
+
+  private static boolean checkMobility(FeatureListRow a, FeatureListRow b, MobilityTolerance tol) {
+    return tol.checkWithinTolerance(Objects.requireNonNullElse(a.getAverageMobility(), 1f),
+        Objects.requireNonNullElse(b.getAverageMobility(), 1f));
+  }
+}
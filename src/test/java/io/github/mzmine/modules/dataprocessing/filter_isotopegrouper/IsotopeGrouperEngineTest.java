@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.dataprocessing.filter_isotopegrouper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.github.mzmine.datamodel.FeatureStatus;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.features.FeatureListRow;
+import io.github.mzmine.datamodel.features.ModularFeature;
+import io.github.mzmine.datamodel.features.ModularFeatureList;
+import io.github.mzmine.datamodel.features.ModularFeatureListRow;
+import io.github.mzmine.datamodel.features.types.DetectionType;
+import io.github.mzmine.datamodel.features.types.RawFileType;
+import io.github.mzmine.datamodel.features.types.numbers.AreaType;
+import io.github.mzmine.datamodel.features.types.numbers.HeightType;
+import io.github.mzmine.datamodel.features.types.numbers.MZType;
+import io.github.mzmine.datamodel.features.types.numbers.MobilityType;
+import io.github.mzmine.datamodel.features.types.numbers.RTType;
+import io.github.mzmine.modules.dataprocessing.filter_isotopegrouper.IsotopeGrouperEngine.IsotopeGroup;
+import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import io.github.mzmine.parameters.parametertypes.tolerances.RTTolerance;
+import io.github.mzmine.parameters.parametertypes.tolerances.RTTolerance.Unit;
+import io.github.mzmine.parameters.parametertypes.tolerances.mobilitytolerance.MobilityTolerance;
+import io.github.mzmine.util.FeatureListRowSorter;
+import io.github.mzmine.util.SortingDirection;
+import io.github.mzmine.util.SortingProperty;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+/**
+ * Compares the {@link IsotopeGrouperEngine} to the sequential loop it replaced on randomized
+ * feature lists with overlapping isotope patterns of different charge states.
+ */
+@ExtendWith(MockitoExtension.class)
+class IsotopeGrouperEngineTest {
+
+  private static final double ISOTOPE_DISTANCE = 1.0033;
+  private static final MZTolerance MZ_TOL = new MZTolerance(0.003, 10);
+  private static final RTTolerance RT_TOL = new RTTolerance(0.05f, Unit.MINUTES);
+  private static final MobilityTolerance MOB_TOL = new MobilityTolerance(0.01f);
+  private static final int MAX_CHARGE = 3;
+
+  @Mock
+  RawDataFile raw;
+
+  @Test
+  void identicalToSequentialGrouping() {
+    assertIdenticalToSequentialGrouping(false);
+  }
+
+  @Test
+  void monotonicIdenticalToSequentialGrouping() {
+    assertIdenticalToSequentialGrouping(true);
+  }
+
+  private void assertIdenticalToSequentialGrouping(boolean monotonicShape) {
+    for (long seed = 1; seed <= 6; seed++) {
+      final boolean withMobility = seed % 2 == 0;
+      final ModularFeatureList flist = createList(seed, withMobility);
+
+      final List<String> expected = groupSequential(flist.getRows(), withMobility,
+          monotonicShape);
+
+      final FeatureListRow[] rows = flist.getRows().toArray(FeatureListRow[]::new);
+      final IsotopeGrouperEngine engine = new IsotopeGrouperEngine(MZ_TOL, RT_TOL,
+          withMobility ? MOB_TOL : null, monotonicShape, MAX_CHARGE);
+      final List<IsotopeGroup> groups = engine.group(rows, () -> false);
+      final List<String> actual = groups.stream()
+          .map(g -> describe(IntStream.of(g.rows()).mapToObj(i -> rows[i]).toList(), g.charge()))
+          .toList();
+
+      assertTrue(groups.stream().anyMatch(g -> g.rows().length > 1));
+      assertEquals(rows.length, engine.getProcessedRows(), "seed " + seed);
+      assertEquals(expected, actual, "monotonic " + monotonicShape + " seed " + seed);
+    }
+  }
+
+  /**
+   * Isotope patterns of charge 1 to 3 at clustered retention times, some with an increasing
+   * first isotope, mixed with single rows.
+   */
+  private ModularFeatureList createList(long seed, boolean withMobility) {
+    final Random random = new Random(seed);
+    final RawDataFile[] raws = {raw};
+    final ModularFeatureList flist = new ModularFeatureList("synthetic", null, raws);
+
+    int id = 1;
+    for (int pattern = 0; pattern < 600; pattern++) {
+      final double mz = 150 + random.nextDouble() * 600;
+      // few retention times, so patterns overlap in RT and several RT blocks form
+      final float rt = (float) (random.nextInt(40) * 0.5 + random.nextDouble() * 0.1);
+      final float mobility = (float) (0.6 + random.nextDouble());
+      final int charge = 1 + random.nextInt(MAX_CHARGE);
+      final int isotopes = random.nextDouble() < 0.2 ? 1 : 2 + random.nextInt(3);
+      final boolean increasing = random.nextDouble() < 0.2;
+      double height = 1E4 + random.nextDouble() * 1E6;
+      for (int i = 0; i < isotopes; i++) {
+        final ModularFeatureListRow row = new ModularFeatureListRow(flist, id++);
+        final ModularFeature f = new ModularFeature(flist);
+        f.set(RawFileType.class, raw);
+        f.set(MZType.class,
+            mz + ISOTOPE_DISTANCE * i / charge + (random.nextDouble() - 0.5) * 0.004);
+        f.set(RTType.class, rt + (float) ((random.nextDouble() - 0.5) * 0.06));
+        if (withMobility) {
+          f.set(MobilityType.class, mobility + (float) ((random.nextDouble() - 0.5) * 0.015));
+        }
+        f.set(HeightType.class, (float) height);
+        f.set(AreaType.class, (float) (height * 1.5));
+        f.set(DetectionType.class, FeatureStatus.DETECTED);
+        row.addFeature(raw, f);
+        flist.addRow(row);
+        height *=
+            increasing && i == 0 ? 1.2 + random.nextDouble() : 0.2 + random.nextDouble() * 0.6;
+      }
+    }
+    return flist;
+  }
+
+  private static String describe(List<FeatureListRow> group, int charge) {
+    return group.stream().map(FeatureListRow::getID).distinct().sorted().toList() + " z=" + charge;
+  }
+
+  /**
+   * The isotope grouping loop before the engine, with its two edge cases fixed: the lower half of
+   * the pattern is also searched for the row with the highest remaining m/z, and all rows of a
+   * group are removed from the pool, including the lowest m/z representative.
+   *
+   * @return the groups in processing order
+   */
+  private static List<String> groupSequential(List<FeatureListRow> allRows, boolean useMobility,
+      boolean monotonicShape) {
+    final FeatureListRowSorter heightSorter = new FeatureListRowSorter(SortingProperty.Height,
+        SortingDirection.Descending);
+    final FeatureListRowSorter mzSorter = new FeatureListRowSorter(SortingProperty.MZ,
+        SortingDirection.Ascending);
+    final List<FeatureListRow> byHeight = new ArrayList<>(allRows);
+    byHeight.sort(heightSorter);
+    final List<FeatureListRow> byMz = new ArrayList<>(allRows);
+    byMz.sort(mzSorter);
+
+    final List<String> groups = new ArrayList<>();
+    while (!byHeight.isEmpty()) {
+      final FeatureListRow mostIntenseRow = byHeight.remove(0);
+      final int index = Collections.binarySearch(byMz, mostIntenseRow, mzSorter);
+      byMz.remove(index);
+
+      int bestFitCharge = 0;
+      List<FeatureListRow> bestFitRows = null;
+      for (int charge = 1; charge <= MAX_CHARGE; charge++) {
+        final List<FeatureListRow> fitted = new ArrayList<>();
+        fitted.add(mostIntenseRow);
+        if (!monotonicShape) {
+          fitHalfPattern(mostIntenseRow, charge, -1, fitted, byMz, index - 1, useMobility);
+        }
+        fitHalfPattern(mostIntenseRow, charge, 1, fitted, byMz, index, useMobility);
+        if (bestFitRows == null || fitted.size() > bestFitRows.size()) {
+          bestFitCharge = charge;
+          bestFitRows = fitted;
+        }
+      }
+
+      groups.add(describe(bestFitRows, bestFitCharge));
+      byHeight.removeAll(bestFitRows);
+      byMz.removeAll(bestFitRows);
+    }
+    return groups;
+  }
+
+  private static void fitHalfPattern(FeatureListRow row, int charge, int direction,
+      List<FeatureListRow> fitted, List<FeatureListRow> byMz, int startIndex,
+      boolean useMobility) {
+    final double mainMz = row.getAverageMZ();
+    final float mainRt = row.getAverageRT();
+    final Float mainMobility = row.getAverageMobility();
+    final double absoluteMzTolerance = MZ_TOL.getMzToleranceForMass(mainMz);
+
+    for (int n = 1; ; n++) {
+      final List<FeatureListRow> candidates = new ArrayList<>();
+      for (int i = startIndex; i >= 0 && i < byMz.size(); i += direction) {
+        final FeatureListRow candidate = byMz.get(i);
+        final double deltaMz =
+            candidate.getAverageMZ() - ISOTOPE_DISTANCE * direction * n / charge - mainMz;
+        if (deltaMz * direction > absoluteMzTolerance) {
+          break;
+        }
+        final Float mobility = candidate.getAverageMobility();
+        if (Math.abs(deltaMz) <= absoluteMzTolerance && RT_TOL.checkWithinTolerance(
+            candidate.getAverageRT(), mainRt) && (!useMobility || mainMobility == null
+            || mobility == null || MOB_TOL.checkWithinTolerance(mainMobility, mobility))) {
+          candidates.add(candidate);
+        }
+      }
+      if (candidates.isEmpty()) {
+        return;
+      }
+      fitted.addAll(candidates);
+    }
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.io.export_features_csv;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import io.github.mzmine.datamodel.FeatureStatus;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.features.ModularFeature;
+import io.github.mzmine.datamodel.features.ModularFeatureList;
+import io.github.mzmine.datamodel.features.ModularFeatureListRow;
+import io.github.mzmine.datamodel.features.types.DetectionType;
+import com.google.common.collect.Range;
+import io.github.mzmine.datamodel.features.types.RawFileType;
+import io.github.mzmine.datamodel.features.types.annotations.CommentType;
+import io.github.mzmine.datamodel.features.types.numbers.AreaType;
+import io.github.mzmine.datamodel.features.types.numbers.HeightType;
+import io.github.mzmine.datamodel.features.types.numbers.MZRangeType;
+import io.github.mzmine.datamodel.features.types.numbers.MZType;
+import io.github.mzmine.datamodel.features.types.numbers.RTType;
+import io.github.mzmine.modules.io.export_features_gnps.fbmn.FeatureListRowsFilter;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+/**
+ * The export formats chunks of rows in parallel, each with copies of the not thread-safe number
+ * formats. The output has to be identical to the sequential export and to the export before the
+ * rows were formatted in chunks.
+ */
+@ExtendWith(MockitoExtension.class)
+class CSVExportModularTaskTest {
+
+  @Mock
+  RawDataFile raw1;
+  @Mock
+  RawDataFile raw2;
+
+  @Test
+  void parallelExportIdenticalToSequentialExport() throws IOException {
+    final ModularFeatureList flist = createList(20_000);
+
+    final StringWriter sequential = new StringWriter();
+    createTask(flist).exportFeatureList(flist, sequential, false);
+    final StringWriter parallel = new StringWriter();
+    createTask(flist).exportFeatureList(flist, parallel, true);
+
+    assertEquals(20_001, sequential.toString().lines().count());
+    assertEquals(sequential.toString(), parallel.toString());
+  }
+
+  @Test
+  void identicalToBaselineExport() throws IOException {
+    final ModularFeatureList flist = createList(5_000);
+    for (final boolean omitEmptyColumns : new boolean[]{false, true}) {
+      final StringWriter baseline = new StringWriter();
+      try (BufferedWriter writer = new BufferedWriter(baseline)) {
+        new BaselineCSVExportModularTask(new ModularFeatureList[]{flist}, null, ",", ";",
+            FeatureListRowsFilter.ALL, omitEmptyColumns, Instant.now()).exportFeatureList(flist,
+            writer);
+      }
+      final StringWriter parallel = new StringWriter();
+      createTask(flist, omitEmptyColumns).exportFeatureList(flist, parallel, true);
+
+      assertEquals(5_001, baseline.toString().lines().count());
+      assertEquals(baseline.toString(), parallel.toString());
+    }
+  }
+
+  private static CSVExportModularTask createTask(ModularFeatureList flist) {
+    return createTask(flist, false);
+  }
+
+  private static CSVExportModularTask createTask(ModularFeatureList flist,
+      boolean omitEmptyColumns) {
+    return new CSVExportModularTask(new ModularFeatureList[]{flist}, null, ",", ";",
+        FeatureListRowsFilter.ALL, omitEmptyColumns, Instant.now());
+  }
+
+  private ModularFeatureList createList(int numRows) {
+    final Random random = new Random(42);
+    final RawDataFile[] raws = {raw1, raw2};
+    final ModularFeatureList flist = new ModularFeatureList("synthetic", null, raws);
+    for (int id = 1; id <= numRows; id++) {
+      final ModularFeatureListRow row = new ModularFeatureListRow(flist, id);
+      if (id % 7 == 0) {
+        // needs escaping
+        row.set(CommentType.class, "comment, \"quoted\" " + id);
+      }
+      for (final RawDataFile raw : raws) {
+        if (raw == raw2 && id % 5 == 0) {
+          // missing feature
+          continue;
+        }
+        final ModularFeature f = new ModularFeature(flist);
+        f.set(RawFileType.class, raw);
+        final double mz = 100 + random.nextDouble() * 1000;
+        f.set(MZType.class, mz);
+        f.set(MZRangeType.class, Range.closed(mz - random.nextDouble() * 0.01, mz + 0.005));
+        f.set(RTType.class, (float) (random.nextDouble() * 30));
+        final float height = (float) (1E3 + random.nextDouble() * 1E7);
+        f.set(HeightType.class, height);
+        f.set(AreaType.class, height * (float) (1 + random.nextDouble()));
+        f.set(DetectionType.class, FeatureStatus.DETECTED);
+        row.addFeature(raw, f);
+      }
+      flist.addRow(row);
+    }
+    return flist;
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.modules.io.import_features_columnar;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.lenient;
+
+import io.github.mzmine.datamodel.FeatureStatus;
+import io.github.mzmine.datamodel.RawDataFile;
+import io.github.mzmine.datamodel.features.Feature;
+import io.github.mzmine.datamodel.features.FeatureListRow;
+import io.github.mzmine.datamodel.features.ModularFeature;
+import io.github.mzmine.datamodel.features.ModularFeatureList;
+import io.github.mzmine.datamodel.features.ModularFeatureListRow;
+import io.github.mzmine.datamodel.features.types.DataTypes;
+import io.github.mzmine.datamodel.features.types.DetectionType;
+import io.github.mzmine.datamodel.features.types.RawFileType;
+import io.github.mzmine.datamodel.features.types.annotations.CommentType;
+import io.github.mzmine.datamodel.features.types.numbers.HeightType;
+import io.github.mzmine.datamodel.features.types.numbers.MZType;
+import io.github.mzmine.datamodel.features.types.numbers.RTType;
+import io.github.mzmine.modules.io.export_features_columnar.ColumnarFeatureTableFormat;
+import io.github.mzmine.modules.io.export_features_columnar.ColumnarFeatureTableFormat.Encoding;
+import io.github.mzmine.modules.io.export_features_columnar.ColumnarFeatureTableWriter;
+import io.github.mzmine.util.FeatureListRowSorter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.dictionary.Dictionary;
+import org.apache.arrow.vector.dictionary.DictionaryProvider.MapDictionaryProvider;
+import org.apache.arrow.vector.ipc.ArrowFileWriter;
+import org.apache.arrow.vector.types.pojo.DictionaryEncoding;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.apache.arrow.vector.util.ByteArrayReadableSeekableByteChannel;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+/**
+ * Writes synthetic feature lists with the {@link ColumnarFeatureTableWriter} and reads them back
+ * with the {@link ColumnarFeatureTableReader}.
+ */
+@ExtendWith(MockitoExtension.class)
+class ColumnarFeatureTableRoundTripTest {
+
+  @Mock
+  RawDataFile raw1;
+  @Mock
+  RawDataFile raw2;
+
+  @BeforeEach
+  void setUp() {
+    lenient().when(raw1.getName()).thenReturn("sample_1.mzML");
+    lenient().when(raw2.getName()).thenReturn("sample_2.mzML");
+  }
+
+  @Test
+  void roundTrip() throws IOException {
+    final ModularFeatureList flist = createList(1);
+    final List<FeatureListRow> rows = flist.getRows().stream()
+        .sorted(FeatureListRowSorter.DEFAULT_ID).toList();
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new ColumnarFeatureTableWriter(flist, rows).write(out, () -> false);
+
+    final ModularFeatureList imported = ColumnarFeatureTableReader.read(
+        new ByteArrayReadableSeekableByteChannel(out.toByteArray()), List.of(raw2, raw1), null);
+
+    assertEquals(flist.getName(), imported.getName());
+    assertEquals(List.of(raw1, raw2), imported.getRawDataFiles());
+    assertEquals(rows.size(), imported.getNumberOfRows());
+
+    final List<FeatureListRow> importedRows = imported.getRows().stream()
+        .sorted(FeatureListRowSorter.DEFAULT_ID).toList();
+    for (int i = 0; i < rows.size(); i++) {
+      final FeatureListRow expected = rows.get(i);
+      final FeatureListRow actual = importedRows.get(i);
+      assertEquals(expected.getID(), actual.getID());
+      assertEquals(expected.get(CommentType.class), actual.get(CommentType.class));
+      assertEquals(expected.getAverageMZ(), actual.getAverageMZ());
+      assertEquals(expected.getAverageRT(), actual.getAverageRT());
+
+      for (RawDataFile raw : List.of(raw1, raw2)) {
+        final Feature expectedFeature = expected.getFeature(raw);
+        final Feature actualFeature = actual.getFeature(raw);
+        if (expectedFeature == null) {
+          assertNull(actualFeature);
+          continue;
+        }
+        assertEquals(expectedFeature.getFeatureStatus(), actualFeature.getFeatureStatus());
+        assertEquals(expectedFeature.getMZ(), actualFeature.getMZ());
+        assertEquals(expectedFeature.getRT(), actualFeature.getRT());
+        assertEquals(expectedFeature.getHeight(), actualFeature.getHeight());
+        assertEquals(raw, actualFeature.getRawDataFile());
+      }
+    }
+  }
+
+  @Test
+  void missingRawDataFile() throws IOException {
+    final ModularFeatureList flist = createList(2);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new ColumnarFeatureTableWriter(flist, flist.getRows()).write(out, () -> false);
+
+    assertThrows(IOException.class, () -> ColumnarFeatureTableReader.read(
+        new ByteArrayReadableSeekableByteChannel(out.toByteArray()), List.of(raw1), null));
+  }
+
+  @Test
+  void rejectsOtherFiles() {
+    final byte[] csv = "id,mz,rt\n1,200.1,5.2\n".getBytes();
+    assertThrows(IOException.class, () -> ColumnarFeatureTableReader.read(
+        new ByteArrayReadableSeekableByteChannel(csv), List.of(), null));
+  }
+
+  @Test
+  void rejectsDictionaryIndexOutOfBounds() throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (BufferAllocator allocator = new RootAllocator();
+        VarCharVector values = new VarCharVector("comments", allocator)) {
+      values.allocateNew();
+      values.setSafe(0, "comment".getBytes(StandardCharsets.UTF_8));
+      values.setValueCount(1);
+      final DictionaryEncoding encoding = new DictionaryEncoding(0, false,
+          ColumnarFeatureTableFormat.DICTIONARY_INDEX_TYPE);
+      final MapDictionaryProvider provider = new MapDictionaryProvider();
+      provider.put(new Dictionary(values, encoding));
+
+      final Field field = new Field("comment",
+          new FieldType(true, ColumnarFeatureTableFormat.DICTIONARY_INDEX_TYPE, encoding,
+              Map.of(ColumnarFeatureTableFormat.FIELD_TYPE,
+                  DataTypes.get(CommentType.class).getUniqueID(),
+                  ColumnarFeatureTableFormat.FIELD_RAW_FILE,
+                  String.valueOf(ColumnarFeatureTableFormat.NO_RAW_FILE),
+                  ColumnarFeatureTableFormat.FIELD_ENCODING, Encoding.STRING.name())), null);
+      final Schema schema = new Schema(List.of(field),
+          Map.of(ColumnarFeatureTableFormat.META_VERSION, "1",
+              ColumnarFeatureTableFormat.META_FEATURE_LIST, "corrupt",
+              ColumnarFeatureTableFormat.META_RAW_FILES, "0"));
+      try (VectorSchemaRoot root = VectorSchemaRoot.create(schema, allocator);
+          ArrowFileWriter writer = new ArrowFileWriter(root, provider,
+              Channels.newChannel(out))) {
+        writer.start();
+        final IntVector indices = (IntVector) root.getVector(0);
+        indices.allocateNew();
+        indices.setSafe(0, 5);
+        root.setRowCount(1);
+        writer.writeBatch();
+        writer.end();
+      }
+    }
+
+    assertThrows(IOException.class, () -> ColumnarFeatureTableReader.read(
+        new ByteArrayReadableSeekableByteChannel(out.toByteArray()), List.of(), null));
+  }
+
+  private ModularFeatureList createList(long seed) {
+    final Random random = new Random(seed);
+    final RawDataFile[] raws = {raw1, raw2};
+    final ModularFeatureList flist = new ModularFeatureList("aligned", null, raws);
+
+    for (int id = 1; id <= 200; id++) {
+      final ModularFeatureListRow row = new ModularFeatureListRow(flist, id);
+      final double mz = 100 + random.nextDouble() * 900;
+      final float rt = (float) (random.nextDouble() * 20);
+      for (RawDataFile raw : raws) {
+        if (random.nextDouble() < 0.2) {
+          continue;
+        }
+        final ModularFeature f = new ModularFeature(flist);
+        f.set(RawFileType.class, raw);
+        f.set(MZType.class, mz + (random.nextDouble() - 0.5) * 0.004);
+        f.set(RTType.class, rt + (float) ((random.nextDouble() - 0.5) * 0.1));
+        f.set(HeightType.class, (float) (1E3 + random.nextDouble() * 1E6));
+        f.set(DetectionType.class,
+            random.nextDouble() < 0.7 ? FeatureStatus.DETECTED : FeatureStatus.ESTIMATED);
+        row.addFeature(raw, f);
+      }
+      if (row.getNumberOfFeatures() == 0) {
+        continue;
+      }
+      // few distinct comments to use the dictionary
+      if (random.nextDouble() < 0.5) {
+        row.set(CommentType.class, "comment " + random.nextInt(5));
+      }
+      flist.addRow(row);
+    }
+    return flist;
+  }
+}
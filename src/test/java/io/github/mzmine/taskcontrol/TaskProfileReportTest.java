@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.github.mzmine.taskcontrol;
+
+import io.github.mzmine.taskcontrol.TaskProfileReport.Summary;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class TaskProfileReportTest {
+
+  @Test
+  void aggregatesStepsAndSharedStorages() {
+    // two parallel tasks of step 1 share storage 0, step 2 writes to storage 1
+    final List<TaskMetrics> metrics = List.of(
+        metrics(1, "a.mzML", 0, 100, 0, 0, 50, 10),
+        metrics(1, "b.mzML", 20, 100, 0, 10, 80, 30),
+        metrics(2, "a.mzML", 150, 50, 1, 0, 40, -1));
+    final TaskProfileReport report = new TaskProfileReport(null, 250, -1, metrics);
+
+    final List<Summary> steps = report.getSteps();
+    Assertions.assertEquals(2, steps.size());
+    final Summary first = steps.get(0);
+    Assertions.assertEquals("#1 Module", first.name());
+    Assertions.assertEquals(2, first.tasks());
+    Assertions.assertEquals(120, first.elapsedNanos());
+    Assertions.assertEquals(200, first.wallNanos());
+    // the written range of the shared storage is only counted once
+    Assertions.assertEquals(80, first.storageBytes());
+    Assertions.assertEquals(40, first.processedItems());
+    Assertions.assertEquals(40 / 120E-9, first.itemsPerSecond(), 1E-3);
+    Assertions.assertEquals(80, first.cacheHits());
+    Assertions.assertEquals(40, first.cacheMisses());
+    // the cache was disabled in step 2
+    Assertions.assertEquals(0, steps.get(1).cacheHits());
+
+    final List<Summary> rawFiles = report.getRawFiles();
+    Assertions.assertEquals("a.mzML", rawFiles.get(0).name());
+    Assertions.assertEquals(90, rawFiles.get(0).storageBytes());
+    Assertions.assertEquals(10, rawFiles.get(0).processedItems());
+    Assertions.assertEquals(3, report.getTotal().tasks());
+    Assertions.assertEquals(120, report.getTotal().storageBytes());
+  }
+
+  private static TaskMetrics metrics(int step, String raw, long start, long wall, long storage,
+      long storageStart, long storageEnd, int items) {
+    return new TaskMetrics("task", "TestTask", step, "Module", raw, TaskStatus.FINISHED, start,
+        wall, wall, 0, storage, storageStart, storageEnd, items, items < 0 ? -1 : 2L * items,
+        items < 0 ? -1 : items);
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2004-2022 The MZmine Development Team
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package io.github.mzmine.util.scans;
+
+import io.github.mzmine.datamodel.Frame;
+import io.github.mzmine.datamodel.MassList;
+import io.github.mzmine.datamodel.impl.BuildingMobilityScan;
+import io.github.mzmine.datamodel.impl.MobilityScanStorage;
+import io.github.mzmine.datamodel.impl.masslist.SimpleMassList;
+import io.github.mzmine.parameters.parametertypes.tolerances.MZTolerance;
+import io.github.mzmine.util.maths.CenterFunction;
+import io.github.mzmine.util.maths.CenterMeasure;
+import io.github.mzmine.util.maths.Weighting;
+import io.github.mzmine.util.scans.SpectraMerging.IntensityMergingType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+class MobilityScanMergingEngineTest {
+
+  private static final MZTolerance TOLERANCE = new MZTolerance(0.005, 15);
+
+  @Test
+  void equalsSpectraMerging() {
+    final Random random = new Random(1);
+    final List<double[][]> massLists = randomMassLists(random);
+    final List<BuildingMobilityScan> scans = new ArrayList<>();
+    for (int i = 0; i < massLists.size(); i++) {
+      scans.add(new BuildingMobilityScan(i, massLists.get(i)));
+    }
+    final MobilityScanStorage storage = new MobilityScanStorage(null, Mockito.mock(Frame.class),
+        scans);
+    storage.setMassLists(null, massLists);
+
+    // the mass lists as read from the storage
+    final List<MassList> spectra = new ArrayList<>();
+    final double[] mzs = new double[storage.getMassListTotalNumPoints()];
+    final double[] intensities = new double[storage.getMassListTotalNumPoints()];
+    for (int scan = 0; scan < storage.getNumberOfMobilityScans(); scan++) {
+      final int n = storage.getNumberOfMassListDatapoints(scan);
+      storage.getMassListMzValues(scan, mzs, 0);
+      storage.getMassListIntensityValues(scan, intensities, 0);
+      spectra.add(new SimpleMassList(null, Arrays.copyOf(mzs, n), Arrays.copyOf(intensities, n)));
+    }
+
+    for (IntensityMergingType type : IntensityMergingType.values()) {
+      for (CenterFunction center : List.of(new CenterFunction(CenterMeasure.AVG, Weighting.LINEAR),
+          new CenterFunction(CenterMeasure.AVG, Weighting.NONE),
+          new CenterFunction(CenterMeasure.MEDIAN))) {
+        for (Double noiseLevel : Arrays.asList(null, 50d)) {
+          final double[][] expected = SpectraMerging.calculatedMergedMzsAndIntensities(spectra,
+              TOLERANCE, type, center, noiseLevel, noiseLevel, 2);
+          // the engine is reused for the second frame
+          final MobilityScanMergingEngine engine = new MobilityScanMergingEngine(TOLERANCE, type,
+              center, noiseLevel, noiseLevel, 2);
+          for (int repeat = 0; repeat < 2; repeat++) {
+            final double[][] actual = engine.merge(storage);
+            Assertions.assertTrue(expected[0].length > 0);
+            Assertions.assertArrayEquals(expected[0], actual[0]);
+            Assertions.assertArrayEquals(expected[1], actual[1]);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Signals around shared m/z values, so that tolerance ranges overlap and scans have more than
+   * one signal within the tolerance.
+   */
+  private static List<double[][]> randomMassLists(Random random) {
+    final double[] centers = new double[200];
+    for (int i = 0; i < centers.length; i++) {
+      centers[i] = 100 + random.nextDouble() * 900;
+    }
+    final List<double[][]> massLists = new ArrayList<>();
+    for (int s = 0; s < 80; s++) {
+      final int numPoints = random.nextInt(5) == 0 ? 0 : random.nextInt(150);
+      final double[] mzs = new double[numPoints];
+      final double[] intensities = new double[numPoints];
+      for (int i = 0; i < numPoints; i++) {
+        mzs[i] = centers[random.nextInt(centers.length)] + random.nextGaussian() * 0.004;
+        intensities[i] = 1 + random.nextInt(200);
+      }
+      Arrays.sort(mzs);
+      massLists.add(new double[][]{mzs, intensities});
+    }
+    return massLists;
+  }
+}